@@ -0,0 +1,2 @@
+# ProfileSpecSerializer はプロファイル定義のモデルをクラス名とフィールド名で保存して、リフレクションで復元する
+-keep class org.deviceconnect.android.profile.spec.models.** { *; }
@@ -0,0 +1,5 @@
+# minified ビルドの androidTest で、テストクラスを保持する
+-keep class org.deviceconnect.android.**Test { *; }
+-keep class org.deviceconnect.android.**Benchmark { *; }
+-dontwarn org.junit.**
+-dontwarn androidx.test.**
@@ -0,0 +1,146 @@
+/*
+ EventCacheControllerBenchmark.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.event.cache;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.deviceconnect.android.event.Event;
+import org.deviceconnect.android.event.cache.db.DBCacheController;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * EventCacheController#getEvents のベンチマーク.
+ *
+ * <p>
+ * センサーのように高頻度でイベントを送信するプラグインを想定して、別のスレッドでイベントの登録・解除を
+ * 繰り返しながら、getEvents の1回あたりの処理時間を計測します。
+ * IndexedMemoryCacheController、MemoryCacheController、DBCacheController をそれぞれ計測し、
+ * 計測結果は androidx.benchmark が出力します。
+ * </p>
+ */
+@RunWith(Parameterized.class)
+public class EventCacheControllerBenchmark {
+    /**
+     * 登録するサービスの数.
+     */
+    private static final int SERVICES = 20;
+
+    /**
+     * 1サービスあたりに登録するオリジンの数.
+     */
+    private static final int ORIGINS = 10;
+
+    /**
+     * 登録するサービスID.
+     */
+    private static final String[] SERVICE_IDS = new String[SERVICES];
+    static {
+        for (int i = 0; i < SERVICES; i++) {
+            SERVICE_IDS[i] = "service" + i;
+        }
+    }
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    /**
+     * 計測するキャッシュコントローラーの名前.
+     */
+    private final String mControllerName;
+
+    private EventCacheController mController;
+
+    /**
+     * イベントの登録・解除を繰り返すスレッドの実行フラグ.
+     */
+    private final AtomicBoolean mRunning = new AtomicBoolean();
+
+    private Thread mWriter;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][] {{"indexed"}, {"memory"}, {"db"}});
+    }
+
+    public EventCacheControllerBenchmark(final String controllerName) {
+        mControllerName = controllerName;
+    }
+
+    @Before
+    public void setUp() {
+        switch (mControllerName) {
+            case "indexed":
+                mController = new IndexedMemoryCacheController();
+                break;
+            case "memory":
+                mController = new MemoryCacheController();
+                break;
+            default:
+                mController = new DBCacheController(InstrumentationRegistry.getInstrumentation().getTargetContext());
+                break;
+        }
+
+        mController.removeAll();
+        for (int i = 0; i < SERVICES; i++) {
+            for (int j = 0; j < ORIGINS; j++) {
+                mController.addEvent(createEvent(SERVICE_IDS[i], "origin" + j));
+            }
+        }
+
+        mRunning.set(true);
+        mWriter = new Thread(() -> {
+            int n = 0;
+            while (mRunning.get()) {
+                Event event = createEvent(SERVICE_IDS[n % SERVICES], "subscriber");
+                mController.addEvent(event);
+                mController.removeEvent(event);
+                n++;
+            }
+        });
+        mWriter.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mRunning.set(false);
+        mWriter.join();
+        mController.removeAll();
+    }
+
+    /**
+     * イベントの登録・解除と並行して getEvents を呼び出す処理時間を計測する.
+     */
+    @Test
+    public void getEvents() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            mController.getEvents(SERVICE_IDS[i++ % SERVICES], "deviceorientation", null, "ondeviceorientation");
+        }
+    }
+
+    private static Event createEvent(final String serviceId, final String origin) {
+        Event event = new Event();
+        event.setServiceId(serviceId);
+        event.setProfile("deviceorientation");
+        event.setAttribute("ondeviceorientation");
+        event.setOrigin(origin);
+        event.setReceiverName("receiver");
+        return event;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ CheckAccessTokenBenchmark.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.localoauth;
+
+import android.content.Context;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.deviceconnect.android.localoauth.exception.AuthorizationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.restlet.ext.oauth.PackageInfoOAuth;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * LocalOAuth2Main#checkAccessToken のベンチマーク.
+ *
+ * <p>
+ * 同じアクセストークンを確認する1回あたりの処理時間を、キャッシュを使用する場合と使用しない場合で計測します。
+ * 計測結果は androidx.benchmark が出力します。
+ * 確認結果の正しさは {@link LocalOAuth2MainTest} で確認します。
+ * </p>
+ */
+@RunWith(Parameterized.class)
+public class CheckAccessTokenBenchmark {
+    /**
+     * 確認するスコープ.
+     */
+    private static final String[] SCOPES = {
+            "serviceDiscovery", "battery", "light"
+    };
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    /**
+     * アクセストークン検証用のキャッシュを使用する場合は true.
+     */
+    private final boolean mCacheEnabled;
+
+    private Context mContext;
+
+    private LocalOAuth2Main mLocalOAuth2Main;
+
+    private String mAccessToken;
+
+    @Parameterized.Parameters(name = "cache={0}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][] {{true}, {false}});
+    }
+
+    public CheckAccessTokenBenchmark(final boolean cacheEnabled) {
+        mCacheEnabled = cacheEnabled;
+    }
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mLocalOAuth2Main = new LocalOAuth2Main(mContext);
+        mLocalOAuth2Main.setAccessTokenCacheEnabled(mCacheEnabled);
+
+        AccessTokenData data = createAccessToken("test_benchmark", "test_service_id_benchmark");
+        assertThat(data, is(notNullValue()));
+        mAccessToken = data.getAccessToken();
+    }
+
+    @After
+    public void tearDown() {
+        mLocalOAuth2Main.destroy();
+        mLocalOAuth2Main = null;
+        mContext = null;
+    }
+
+    /**
+     * スコープを順に変えながらアクセストークンを確認する処理時間を計測する.
+     */
+    @Test
+    public void checkAccessToken() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            mLocalOAuth2Main.checkAccessToken(mAccessToken, SCOPES[i++ % SCOPES.length], null);
+        }
+    }
+
+    private AccessTokenData createAccessToken(final String origin, final String serviceId) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<AccessTokenData> accessToken = new AtomicReference<>();
+        try {
+            ClientData clientData = mLocalOAuth2Main.createClient(new PackageInfoOAuth(origin));
+            ConfirmAuthParams params = new ConfirmAuthParams.Builder().context(mContext).serviceId(serviceId)
+                    .clientId(clientData.getClientId()).scopes(SCOPES).applicationName("JUnit")
+                    .isForDevicePlugin(false)
+                    .isAutoFlag(true)
+                    .keyword("Keyword")
+                    .build();
+
+            mLocalOAuth2Main.confirmPublishAccessToken(params, new PublishAccessTokenListener() {
+                @Override
+                public void onReceiveAccessToken(final AccessTokenData accessTokenData) {
+                    accessToken.set(accessTokenData);
+                    latch.countDown();
+                }
+                @Override
+                public void onReceiveException(final Exception exception) {
+                    latch.countDown();
+                }
+            });
+
+            latch.await(180, TimeUnit.SECONDS);
+            return accessToken.get();
+        } catch (AuthorizationException e) {
+            fail("Failed to create client.");
+        } catch (InterruptedException e) {
+            fail("timeout");
+        }
+        return null;
+    }
+}
@@ -427,6 +427,48 @@ public class LocalOAuth2MainTest {
         assertThat(result.isNotExpired(), is(false));
     }
 
+    @Test
+    public void LocalOAuth2Main_checkAccessToken_after_destroyAllAccessToken() {
+        final String origin = "test_check_destroy";
+        final String serviceId = "test_service_id_check_destroy";
+        final String[] scopes = {
+                "serviceDiscovery"
+        };
+        AccessTokenData data = createAccessToken(origin, serviceId, scopes);
+
+        // キャッシュに格納されたトークンも破棄されること
+        CheckAccessTokenResult result = mLocalOAuth2Main.checkAccessToken(data.getAccessToken(), scopes[0], null);
+        assertThat(result.checkResult(), is(true));
+
+        mLocalOAuth2Main.destroyAllAccessToken();
+
+        result = mLocalOAuth2Main.checkAccessToken(data.getAccessToken(), scopes[0], null);
+        assertThat(result, is(notNullValue()));
+        assertThat(result.checkResult(), is(false));
+        assertThat(result.isExistAccessToken(), is(false));
+    }
+
+    @Test
+    public void LocalOAuth2Main_checkAccessToken_without_cache() {
+        final String origin = "test_check_without_cache";
+        final String serviceId = "test_service_id_check_without_cache";
+        final String[] scopes = {
+                "serviceDiscovery"
+        };
+        AccessTokenData data = createAccessToken(origin, serviceId, scopes);
+
+        mLocalOAuth2Main.setAccessTokenCacheEnabled(false);
+        assertThat(mLocalOAuth2Main.isAccessTokenCacheEnabled(), is(false));
+
+        CheckAccessTokenResult result = mLocalOAuth2Main.checkAccessToken(data.getAccessToken(), scopes[0], null);
+        assertThat(result, is(notNullValue()));
+        assertThat(result.checkResult(), is(true));
+        assertThat(result.isExistAccessToken(), is(true));
+        assertThat(result.isExistClientId(), is(true));
+        assertThat(result.isExistScope(), is(true));
+        assertThat(result.isNotExpired(), is(true));
+    }
+
     @Test
     public void LocalOAuth2Main_findClientPackageInfoByAccessToken() {
         final String origin = "test_find_client";
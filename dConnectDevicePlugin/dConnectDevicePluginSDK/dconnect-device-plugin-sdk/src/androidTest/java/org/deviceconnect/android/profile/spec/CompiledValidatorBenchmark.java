@@ -0,0 +1,108 @@
+/*
+ CompiledValidatorBenchmark.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.profile.spec;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.deviceconnect.android.profile.spec.models.Method;
+import org.deviceconnect.android.profile.spec.models.Swagger;
+import org.deviceconnect.android.profile.spec.parser.OpenAPIParser;
+import org.deviceconnect.message.intent.message.IntentDConnectMessage;
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * リクエストの妥当性確認のベンチマーク.
+ *
+ * <p>
+ * 1回のリクエストの妥当性確認の処理時間を、OpenAPIValidator と CompiledValidator で計測します。
+ * CompiledValidator は DConnectServiceSpec#findValidator(Intent) と同じように、
+ * API 定義が変更されていないかを確認してから使用します。
+ * 計測結果は androidx.benchmark が出力します。
+ * 確認結果の正しさは CompiledValidatorTest で確認します。
+ * </p>
+ */
+public class CompiledValidatorBenchmark {
+    /**
+     * 計測に使用する API 定義.
+     */
+    private static final String PROFILE_SPEC = "{"
+            + "\"swagger\": \"2.0\","
+            + "\"basePath\": \"/gotapi/testProfile\","
+            + "\"info\": {\"title\": \"Test Profile\", \"version\": \"1.0\"},"
+            + "\"paths\": {"
+            + "  \"/a0\": {"
+            + "    \"get\": {"
+            + "      \"x-type\": \"one-shot\","
+            + "      \"parameters\": ["
+            + "        {\"name\": \"serviceId\", \"in\": \"query\", \"required\": true, \"type\": \"string\"},"
+            + "        {\"name\": \"num\", \"in\": \"query\", \"required\": true, \"type\": \"integer\","
+            + "         \"format\": \"int32\", \"enum\": [1, 2, 3, 4, 5]},"
+            + "        {\"name\": \"name\", \"in\": \"query\", \"type\": \"string\", \"pattern\": \"^[a-z]+$\"}"
+            + "      ],"
+            + "      \"responses\": {\"200\": {\"description\": \"\"}}"
+            + "    }"
+            + "  }"
+            + "}"
+            + "}";
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private Swagger mSwagger;
+
+    private Intent mRequest;
+
+    private CompiledValidator mValidator;
+
+    @Before
+    public void setUp() throws JSONException {
+        mSwagger = OpenAPIParser.parse(PROFILE_SPEC);
+
+        mRequest = new Intent();
+        mRequest.setAction(IntentDConnectMessage.ACTION_GET);
+        mRequest.putExtra("api", "gotapi");
+        mRequest.putExtra("profile", "testProfile");
+        mRequest.putExtra("attribute", "a0");
+        mRequest.putExtra("serviceId", "test_service_id");
+        mRequest.putExtra("num", 1);
+        mRequest.putExtra("name", "abc");
+
+        mValidator = CompiledValidator.compile(mSwagger, Method.GET, "/gotapi/testProfile/a0");
+    }
+
+    /**
+     * OpenAPIValidator#validate(Swagger, Intent) の処理時間を計測する.
+     */
+    @Test
+    public void openAPIValidator() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            OpenAPIValidator.validate(mSwagger, mRequest);
+        }
+    }
+
+    /**
+     * CompiledValidator#isUpToDate(Swagger) と CompiledValidator#validate(Bundle) の処理時間を計測する.
+     */
+    @Test
+    public void compiledValidator() {
+        Bundle extras = mRequest.getExtras();
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            if (mValidator.isUpToDate(mSwagger)) {
+                mValidator.validate(extras);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ ProfileSpecCacheBenchmark.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.profile.spec;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.deviceconnect.android.profile.spec.parser.OpenAPIParser;
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * ProfileSpecCache のプロファイル定義の読み込みのベンチマーク.
+ *
+ * <p>
+ * SDK に含まれる全てのプロファイル定義を読み込む処理時間を、JSON を解析する場合、
+ * プロセスの起動直後と同じようにキャッシュファイルから読み込む場合、同じプロセス内で読み込む場合で計測します。
+ * 計測結果は androidx.benchmark が出力します。
+ * 読み込んだプロファイル定義の正しさは ProfileSpecCacheTest と {@link ProfileSpecSerializerTest} で確認します。
+ * </p>
+ */
+public class ProfileSpecCacheBenchmark {
+    /**
+     * ベンチマークで使用するアプリのバージョンコード.
+     */
+    private static final long VERSION = 1000L;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private File mDirectory;
+
+    private String[] mNames;
+
+    private byte[][] mSources;
+
+    @Before
+    public void setUp() throws IOException, JSONException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        AssetManager assets = context.getAssets();
+        mNames = assets.list(ProfileSpecSerializerTest.API_DIR);
+        mSources = new byte[mNames.length][];
+        for (int i = 0; i < mNames.length; i++) {
+            mSources[i] = ProfileSpecSerializerTest.readAsset(assets, ProfileSpecSerializerTest.API_DIR + "/" + mNames[i]);
+        }
+
+        mDirectory = new File(context.getCacheDir(), "profile_spec_cache_benchmark");
+        deleteDirectory(mDirectory);
+        loadAll(new ProfileSpecCache(mDirectory, VERSION));
+    }
+
+    /**
+     * JSON を解析する処理時間を計測する.
+     *
+     * @throws JSONException プロファイル定義のJSON構造が不正な場合
+     */
+    @Test
+    public void parse() throws JSONException {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (byte[] source : mSources) {
+                OpenAPIParser.parse(new String(source));
+            }
+        }
+    }
+
+    /**
+     * プロセスの起動直後と同じように、新しいインスタンスでキャッシュファイルから読み込む処理時間を計測する.
+     *
+     * @throws IOException キャッシュの読み込みに失敗した場合
+     * @throws JSONException プロファイル定義のJSON構造が不正な場合
+     */
+    @Test
+    public void cacheFile() throws IOException, JSONException {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            loadAll(new ProfileSpecCache(mDirectory, VERSION));
+        }
+    }
+
+    /**
+     * 同じプロセス内で、複数のサービスが同じプロファイル定義を読み込む処理時間を計測する.
+     *
+     * @throws IOException キャッシュの読み込みに失敗した場合
+     * @throws JSONException プロファイル定義のJSON構造が不正な場合
+     */
+    @Test
+    public void inProcess() throws IOException, JSONException {
+        ProfileSpecCache cache = new ProfileSpecCache(mDirectory, VERSION);
+        loadAll(cache);
+
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            loadAll(cache);
+        }
+    }
+
+    private void loadAll(final ProfileSpecCache cache) throws IOException, JSONException {
+        for (int i = 0; i < mNames.length; i++) {
+            final byte[] source = mSources[i];
+            cache.load(mNames[i], () -> source);
+        }
+    }
+
+    private static void deleteDirectory(final File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
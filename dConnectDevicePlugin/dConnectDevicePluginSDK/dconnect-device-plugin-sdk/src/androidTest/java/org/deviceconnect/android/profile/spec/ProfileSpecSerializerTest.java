@@ -0,0 +1,83 @@
+/*
+ ProfileSpecSerializerTest.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.profile.spec;
+
+import android.content.res.AssetManager;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.deviceconnect.android.profile.spec.models.Swagger;
+import org.deviceconnect.android.profile.spec.parser.OpenAPIParser;
+import org.deviceconnect.utils.JSONUtils;
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * ProfileSpecSerializer の端末でのテスト.
+ *
+ * <p>
+ * ProfileSpecSerializer はリフレクションでモデルを復元するので、
+ * {@code -PtestBuildType=minified} で難読化した状態でも実行して、consumer-rules.pro の設定を確認します。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProfileSpecSerializerTest {
+    /**
+     * プロファイル定義ファイルを格納する assets のディレクトリ.
+     */
+    static final String API_DIR = "api";
+
+    /**
+     * SDK に含まれるプロファイル定義をバイナリ形式に変換して復元する。
+     * <pre>
+     * 【期待する動作】
+     * ・全てのプロファイル定義で、復元した Swagger オブジェクトが JSON を解析した場合と同じであること。
+     * </pre>
+     */
+    @Test
+    public void testSerialize_assets() throws Exception {
+        AssetManager assets = InstrumentationRegistry.getInstrumentation().getTargetContext().getAssets();
+        String[] names = assets.list(API_DIR);
+        assertThat(names != null && names.length > 0, is(true));
+
+        for (String name : names) {
+            Swagger expected = OpenAPIParser.parse(new String(readAsset(assets, API_DIR + "/" + name)));
+            Swagger actual = ProfileSpecSerializer.deserialize(ProfileSpecSerializer.serialize(expected));
+            assertThat(name, toString(actual), is(toString(expected)));
+        }
+    }
+
+    static byte[] readAsset(final AssetManager assets, final String path) throws IOException {
+        InputStream in = assets.open(path);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String toString(final Swagger swagger) throws JSONException {
+        return JSONUtils.convertBundleToJSON(swagger.toBundle()).toString();
+    }
+}
@@ -0,0 +1,568 @@
+/*
+ EventJournal.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.event.cache;
+
+import org.deviceconnect.android.event.Event;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.zip.CRC32;
+
+/**
+ * イベントの登録・解除を追記するジャーナルファイルとスナップショットファイルを管理する.
+ *
+ * <p>
+ * ファイルはヘッダーとレコードの並びで構成します。
+ * </p>
+ * <pre>
+ * ヘッダー: magic(int) version(int) generation(long)
+ * レコード: length(int) payload(length bytes) crc32(int)
+ * </pre>
+ * <p>
+ * スナップショットには登録中のイベントを追加レコードとして書き出し、ジャーナルにはその後の変更を追記します。
+ * コンパクションでは、新しい世代のスナップショットを一時ファイルに書き出してから置き換え、
+ * 同じ世代の空のジャーナルを作成します。置き換えの途中で終了した場合には、スナップショットより古い世代の
+ * ジャーナルは読み込みません。
+ * </p>
+ * <p>
+ * 書き込みの途中で終了した場合など、末尾のレコードが途中で切れている、またはCRCが一致しない場合には、
+ * そのレコード以降を破棄して、ジャーナルを最後の正常なレコードの位置に切り詰めます。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフではありません。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+class EventJournal {
+
+    /**
+     * ファイルの先頭に書き込むマジックナンバー.
+     */
+    private static final int MAGIC = 0x44434a4c; // "DCJL"
+
+    /**
+     * ファイルフォーマットのバージョン.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * ヘッダーのサイズ.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * 1レコードの最大サイズ.
+     */
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+    /**
+     * イベント追加のレコード.
+     */
+    static final byte TYPE_ADD = 1;
+
+    /**
+     * イベント削除のレコード.
+     */
+    static final byte TYPE_REMOVE = 2;
+
+    /**
+     * オリジンに紐づくイベント削除のレコード.
+     */
+    static final byte TYPE_REMOVE_EVENTS = 3;
+
+    /**
+     * 全イベント削除のレコード.
+     */
+    static final byte TYPE_REMOVE_ALL = 4;
+
+    /**
+     * ジャーナルファイル.
+     */
+    private final File mJournalFile;
+
+    /**
+     * スナップショットファイル.
+     */
+    private final File mSnapshotFile;
+
+    /**
+     * スナップショット書き込み用の一時ファイル.
+     */
+    private final File mSnapshotTempFile;
+
+    /**
+     * ジャーナルの書き込みストリーム.
+     */
+    private FileOutputStream mJournalOutput;
+
+    /**
+     * 現在の世代.
+     */
+    private long mGeneration;
+
+    /**
+     * 最後のコンパクションからジャーナルに追記したレコード数.
+     */
+    private int mRecordCount;
+
+    /**
+     * ジャーナルを読み込んだ時に見つかったレコードの操作を受け取るインターフェース.
+     */
+    interface Replayer {
+        /**
+         * イベント追加のレコードを通知する.
+         *
+         * @param event イベントデータ
+         */
+        void onAddEvent(Event event);
+
+        /**
+         * イベント削除のレコードを通知する.
+         *
+         * @param event イベントデータ
+         */
+        void onRemoveEvent(Event event);
+
+        /**
+         * オリジンに紐づくイベント削除のレコードを通知する.
+         *
+         * @param origin オリジン
+         */
+        void onRemoveEvents(String origin);
+
+        /**
+         * 全イベント削除のレコードを通知する.
+         */
+        void onRemoveAll();
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param directory ファイルを格納するディレクトリ
+     * @param name ファイル名
+     */
+    EventJournal(final File directory, final String name) {
+        mJournalFile = new File(directory, name + ".journal");
+        mSnapshotFile = new File(directory, name + ".snapshot");
+        mSnapshotTempFile = new File(directory, name + ".snapshot.tmp");
+    }
+
+    /**
+     * スナップショットとジャーナルを読み込み、ジャーナルを追記できる状態にする.
+     *
+     * @param replayer レコードの操作を受け取るインターフェース
+     * @throws IOException ファイルの操作に失敗した場合
+     */
+    void open(final Replayer replayer) throws IOException {
+        mGeneration = 0;
+        mRecordCount = 0;
+
+        if (mSnapshotFile.exists()) {
+            ReadResult snapshot = read(mSnapshotFile, replayer, -1);
+            if (snapshot.mGeneration >= 0) {
+                mGeneration = snapshot.mGeneration;
+            }
+        }
+
+        ReadResult journal = null;
+        if (mJournalFile.exists()) {
+            journal = read(mJournalFile, replayer, mGeneration);
+        }
+
+        if (journal == null || journal.mGeneration != mGeneration) {
+            // ジャーナルが無い、または古い世代の場合は作り直す
+            mJournalOutput = createFile(mJournalFile, mGeneration);
+        } else {
+            if (journal.mValidLength < mJournalFile.length()) {
+                // 途中で切れているレコード以降を破棄する
+                RandomAccessFile raf = new RandomAccessFile(mJournalFile, "rw");
+                try {
+                    raf.setLength(journal.mValidLength);
+                } finally {
+                    raf.close();
+                }
+            }
+            mRecordCount = journal.mRecords;
+            mJournalOutput = new FileOutputStream(mJournalFile, true);
+        }
+    }
+
+    /**
+     * ジャーナルにレコードを追記する.
+     *
+     * @param record {@link #encodeAdd(Event)} などで作成したレコード
+     * @throws IOException 書き込みに失敗した場合
+     */
+    void append(final byte[] record) throws IOException {
+        if (mJournalOutput == null) {
+            throw new IOException("Journal is not opened.");
+        }
+        mJournalOutput.write(record);
+        mRecordCount++;
+    }
+
+    /**
+     * 最後のコンパクションからジャーナルに追記したレコード数を取得する.
+     *
+     * @return レコード数
+     */
+    int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * ジャーナルの内容をストレージに同期する.
+     *
+     * @throws IOException 同期に失敗した場合
+     */
+    void sync() throws IOException {
+        if (mJournalOutput != null) {
+            mJournalOutput.getFD().sync();
+        }
+    }
+
+    /**
+     * 登録中のイベントをスナップショットに書き出し、ジャーナルを空にする.
+     *
+     * @param events 登録中のイベント
+     * @throws IOException 書き込みに失敗した場合
+     */
+    void compact(final Collection<Event> events) throws IOException {
+        long generation = mGeneration + 1;
+
+        FileOutputStream out = createFile(mSnapshotTempFile, generation);
+        try {
+            for (Event event : events) {
+                byte[] record = encodeAdd(event);
+                if (record != null) {
+                    out.write(record);
+                }
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!mSnapshotTempFile.renameTo(mSnapshotFile)) {
+            throw new IOException("Failed to rename snapshot file.");
+        }
+
+        close();
+        mGeneration = generation;
+        mJournalOutput = createFile(mJournalFile, generation);
+        mRecordCount = 0;
+    }
+
+    /**
+     * ジャーナルを閉じる.
+     */
+    void close() {
+        if (mJournalOutput != null) {
+            try {
+                mJournalOutput.close();
+            } catch (IOException e) {
+                // ignore.
+            }
+            mJournalOutput = null;
+        }
+    }
+
+    /**
+     * ヘッダーを書き込んだファイルを作成する.
+     *
+     * @param file ファイル
+     * @param generation 世代
+     * @return 追記用のストリーム
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private static FileOutputStream createFile(final File file, final long generation) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, false);
+        try {
+            DataOutputStream dos = new DataOutputStream(out);
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(generation);
+            dos.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        return out;
+    }
+
+    /**
+     * ファイルを読み込んだ結果.
+     */
+    private static class ReadResult {
+        /**
+         * ファイルの世代. ヘッダーが不正な場合は-1.
+         */
+        long mGeneration = -1;
+
+        /**
+         * 正常に読み込めた位置.
+         */
+        long mValidLength;
+
+        /**
+         * 読み込んだレコード数.
+         */
+        int mRecords;
+    }
+
+    /**
+     * ファイルからレコードを読み込む.
+     *
+     * @param file ファイル
+     * @param replayer レコードの操作を受け取るインターフェース
+     * @param generation 読み込む世代. 一致しない場合はレコードを読み込まない. -1の場合は世代を問わない
+     * @return 読み込み結果
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private static ReadResult read(final File file, final Replayer replayer,
+                                   final long generation) throws IOException {
+        ReadResult result = new ReadResult();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return result;
+                }
+                result.mGeneration = in.readLong();
+            } catch (EOFException e) {
+                return result;
+            }
+            if (generation >= 0 && result.mGeneration != generation) {
+                return result;
+            }
+            result.mValidLength = HEADER_SIZE;
+
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_SIZE) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != in.readInt()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (!replay(payload, replayer)) {
+                    break;
+                }
+                result.mValidLength += 4 + payload.length + 4;
+                result.mRecords++;
+            }
+        } finally {
+            in.close();
+        }
+        return result;
+    }
+
+    /**
+     * レコードの操作を通知する.
+     *
+     * @param payload レコード
+     * @param replayer レコードの操作を受け取るインターフェース
+     * @return 正常なレコードの場合はtrue、それ以外はfalse
+     */
+    private static boolean replay(final byte[] payload, final Replayer replayer) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte type = in.readByte();
+            switch (type) {
+                case TYPE_ADD: {
+                    Event event = readEvent(in);
+                    event.setAccessToken(readString(in));
+                    event.setCreateDate(readTimestamp(in));
+                    event.setUpdateDate(readTimestamp(in));
+                    replayer.onAddEvent(event);
+                    return true;
+                }
+                case TYPE_REMOVE:
+                    replayer.onRemoveEvent(readEvent(in));
+                    return true;
+                case TYPE_REMOVE_EVENTS:
+                    replayer.onRemoveEvents(in.readUTF());
+                    return true;
+                case TYPE_REMOVE_ALL:
+                    replayer.onRemoveAll();
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * イベント追加のレコードを作成する.
+     *
+     * @param event イベントデータ
+     * @return レコード. レコードが大きすぎる場合はnull
+     */
+    static byte[] encodeAdd(final Event event) {
+        try {
+            RecordWriter out = new RecordWriter(TYPE_ADD);
+            writeEvent(out, event);
+            writeString(out, event.getAccessToken());
+            writeTimestamp(out, event.getCreateDate());
+            writeTimestamp(out, event.getUpdateDate());
+            return out.toRecord();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * イベント削除のレコードを作成する.
+     *
+     * @param event イベントデータ
+     * @return レコード. レコードが大きすぎる場合はnull
+     */
+    static byte[] encodeRemove(final Event event) {
+        try {
+            RecordWriter out = new RecordWriter(TYPE_REMOVE);
+            writeEvent(out, event);
+            return out.toRecord();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * オリジンに紐づくイベント削除のレコードを作成する.
+     *
+     * @param origin オリジン
+     * @return レコード. レコードが大きすぎる場合はnull
+     */
+    static byte[] encodeRemoveEvents(final String origin) {
+        try {
+            RecordWriter out = new RecordWriter(TYPE_REMOVE_EVENTS);
+            out.writeUTF(origin);
+            return out.toRecord();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 全イベント削除のレコードを作成する.
+     *
+     * @return レコード. レコードが大きすぎる場合はnull
+     */
+    static byte[] encodeRemoveAll() {
+        try {
+            return new RecordWriter(TYPE_REMOVE_ALL).toRecord();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeEvent(final DataOutputStream out, final Event event) throws IOException {
+        writeString(out, event.getServiceId());
+        writeString(out, event.getProfile());
+        writeString(out, event.getInterface());
+        writeString(out, event.getAttribute());
+        writeString(out, event.getOrigin());
+        writeString(out, event.getReceiverName());
+    }
+
+    private static Event readEvent(final DataInputStream in) throws IOException {
+        Event event = new Event();
+        event.setServiceId(readString(in));
+        event.setProfile(readString(in));
+        event.setInterface(readString(in));
+        event.setAttribute(readString(in));
+        event.setOrigin(readString(in));
+        event.setReceiverName(readString(in));
+        return event;
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeTimestamp(final DataOutputStream out, final Timestamp value) throws IOException {
+        out.writeLong(value != null ? value.getTime() : -1);
+    }
+
+    private static Timestamp readTimestamp(final DataInputStream in) throws IOException {
+        long time = in.readLong();
+        return time >= 0 ? new Timestamp(time) : null;
+    }
+
+    /**
+     * レコードを作成するためのストリーム.
+     */
+    private static class RecordWriter extends DataOutputStream {
+        /**
+         * コンストラクタ.
+         *
+         * @param type レコードの種類
+         * @throws IOException 書き込みに失敗した場合
+         */
+        RecordWriter(final byte type) throws IOException {
+            super(new ByteArrayOutputStream());
+            writeByte(type);
+        }
+
+        /**
+         * 長さとCRCを付加したレコードを取得する.
+         *
+         * @return レコード
+         * @throws IOException 書き込みに失敗した場合
+         */
+        byte[] toRecord() throws IOException {
+            flush();
+            byte[] payload = ((ByteArrayOutputStream) out).toByteArray();
+            if (payload.length > MAX_RECORD_SIZE) {
+                throw new IOException("Record is too large.");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+
+            ByteArrayOutputStream record = new ByteArrayOutputStream(payload.length + 8);
+            DataOutputStream dos = new DataOutputStream(record);
+            dos.writeInt(payload.length);
+            dos.write(payload);
+            dos.writeInt((int) crc.getValue());
+            dos.flush();
+            return record.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ IndexedMemoryCacheController.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.event.cache;
+
+import org.deviceconnect.android.event.Event;
+import org.deviceconnect.android.event.EventError;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * イベントデータをメモリにキャッシュし、キャッシュの操作機能を提供する.
+ *
+ * <p>
+ * {@link MemoryCacheController} と同じ動作をしますが、イベントデータを
+ * (サービスID, プロファイル, インターフェース, 属性) とオリジンの2つのインデックスで管理します。
+ * レシーバーが無いイベントは、レシーバー名が空文字のイベントと同じものとして扱います。
+ * </p>
+ * <p>
+ * インデックスに格納するリストは変更されないスナップショットで、追加・削除の際には新しいリストに置き換えます。
+ * 登録済みのイベントデータのアクセストークンを上書きする場合も、イベントデータを複製して置き換えます。
+ * そのため、イベントデータの取得はロックせずに行えて、イベントの登録・解除と競合しません。
+ * 取得したリストは {@link MemoryCacheController} と同じようにスナップショットを複製したもので、変更してもキャッシュには影響しません。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public class IndexedMemoryCacheController extends BaseCacheController {
+
+    /**
+     * 空のレシーバー用キー.
+     */
+    private static final String NULL_RECEIVER_NAME = "";
+
+    /**
+     * (サービスID, プロファイル, インターフェース, 属性) をキーにしたイベントデータのインデックス.
+     */
+    private final Map<EventKey, List<Event>> mEventIndex = new ConcurrentHashMap<>();
+
+    /**
+     * オリジンをキーにしたイベントデータのインデックス.
+     */
+    private final Map<String, List<Event>> mOriginIndex = new ConcurrentHashMap<>();
+
+    /**
+     * インデックスを更新する際のロックオブジェクト.
+     */
+    private final Object mLock = new Object();
+
+    @Override
+    public EventError addEvent(final Event event) {
+        if (!checkParameter(event)) {
+            return EventError.INVALID_PARAMETER;
+        }
+
+        EventKey key = new EventKey(event.getServiceId(), event.getProfile(),
+                event.getInterface(), event.getAttribute());
+        String origin = event.getOrigin();
+        String receiver = getReceiverName(event);
+
+        synchronized (mLock) {
+            List<Event> eventList = mEventIndex.get(key);
+            if (eventList != null) {
+                for (Event e : eventList) {
+                    if (compare(e.getOrigin(), origin) && compare(getReceiverName(e), receiver)) {
+                        // 登録済みの場合はアクセストークンを上書きする
+                        // 取得済みのイベントデータを変更しないように、複製したものに置き換える
+                        Event updated = copy(e);
+                        updated.setAccessToken(event.getAccessToken());
+                        updated.setUpdateDate(Utils.getCurreTimestamp());
+                        mEventIndex.put(key, replace(eventList, e, updated));
+                        mOriginIndex.put(origin, replace(mOriginIndex.get(origin), e, updated));
+                        return EventError.NONE;
+                    }
+                }
+            }
+
+            event.setCreateDate(Utils.getCurreTimestamp());
+            event.setUpdateDate(Utils.getCurreTimestamp());
+            mEventIndex.put(key, append(eventList, event));
+            mOriginIndex.put(origin, append(mOriginIndex.get(origin), event));
+        }
+        return EventError.NONE;
+    }
+
+    @Override
+    public EventError removeEvent(final Event event) {
+        if (!checkParameter(event)) {
+            return EventError.INVALID_PARAMETER;
+        }
+
+        EventKey key = new EventKey(event.getServiceId(), event.getProfile(),
+                event.getInterface(), event.getAttribute());
+        String origin = event.getOrigin();
+        String receiver = getReceiverName(event);
+
+        synchronized (mLock) {
+            List<Event> eventList = mEventIndex.get(key);
+            if (eventList == null) {
+                return EventError.NOT_FOUND;
+            }
+
+            for (Event e : eventList) {
+                if (compare(e.getOrigin(), origin) && compare(getReceiverName(e), receiver)) {
+                    putOrRemove(mEventIndex, key, without(eventList, e));
+                    putOrRemove(mOriginIndex, origin, without(mOriginIndex.get(origin), e));
+                    return EventError.NONE;
+                }
+            }
+        }
+        return EventError.NOT_FOUND;
+    }
+
+    @Override
+    public boolean removeEvents(final String origin) {
+        if (origin == null) {
+            throw new IllegalArgumentException("origin is null.");
+        }
+
+        synchronized (mLock) {
+            List<Event> events = mOriginIndex.remove(origin);
+            if (events != null) {
+                for (Event event : events) {
+                    EventKey key = new EventKey(event.getServiceId(), event.getProfile(),
+                            event.getInterface(), event.getAttribute());
+                    putOrRemove(mEventIndex, key, without(mEventIndex.get(key), event));
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removeAll() {
+        synchronized (mLock) {
+            mEventIndex.clear();
+            mOriginIndex.clear();
+        }
+        return true;
+    }
+
+    @Override
+    public Event getEvent(final String serviceId, final String profile, final String inter,
+                          final String attribute, final String origin, final String receiver) {
+        String tmpReceiver = receiver;
+        if (tmpReceiver == null) {
+            tmpReceiver = NULL_RECEIVER_NAME;
+        }
+
+        List<Event> events = mEventIndex.get(new EventKey(serviceId, profile, inter, attribute));
+        if (events == null) {
+            return null;
+        }
+        for (Event e : events) {
+            if (compare(e.getOrigin(), origin) && compare(getReceiverName(e), tmpReceiver)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<Event> getEvents(final String serviceId, final String profile,
+                                 final String inter, final String attribute) {
+        List<Event> events = mEventIndex.get(new EventKey(serviceId, profile, inter, attribute));
+        if (events == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(events);
+    }
+
+    @Override
+    public List<Event> getEvents(final String origin) {
+        if (origin == null) {
+            return new ArrayList<>();
+        }
+        List<Event> events = mOriginIndex.get(origin);
+        if (events == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(events);
+    }
+
+    @Override
+    public void flush() {
+        // do nothing.
+    }
+
+    /**
+     * キャッシュに登録されている全てのイベントデータを取得する.
+     *
+     * @return イベントデータの一覧
+     */
+    protected List<Event> getAllEvents() {
+        List<Event> result = new ArrayList<>();
+        for (List<Event> events : mOriginIndex.values()) {
+            result.addAll(events);
+        }
+        return result;
+    }
+
+    /**
+     * イベント情報からレシーバー名を取得する.
+     * レシーバーが無い場合は空文字を返す。
+     *
+     * @param event イベント情報
+     * @return レシーバー名
+     */
+    private String getReceiverName(final Event event) {
+        String receiver = event.getReceiverName();
+        if (receiver == null) {
+            receiver = NULL_RECEIVER_NAME;
+        }
+        return receiver;
+    }
+
+    private boolean compare(final String s1, final String s2) {
+        return (s1 == null && s2 == null) || s1 != null && s1.equals(s2);
+    }
+
+    /**
+     * リストの末尾にイベントデータを追加した新しいリストを作成する.
+     *
+     * @param list 元のリスト. nullの場合は空のリストとして扱う
+     * @param event 追加するイベントデータ
+     * @return 新しいリスト
+     */
+    private static List<Event> append(final List<Event> list, final Event event) {
+        List<Event> result = new ArrayList<>(list != null ? list.size() + 1 : 1);
+        if (list != null) {
+            result.addAll(list);
+        }
+        result.add(event);
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * リストのイベントデータを置き換えた新しいリストを作成する.
+     *
+     * @param list 元のリスト
+     * @param oldEvent 置き換えられるイベントデータ
+     * @param newEvent 置き換えるイベントデータ
+     * @return 新しいリスト
+     */
+    private static List<Event> replace(final List<Event> list, final Event oldEvent, final Event newEvent) {
+        List<Event> result = new ArrayList<>(list.size());
+        for (Event e : list) {
+            result.add(e == oldEvent ? newEvent : e);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * イベントデータを複製する.
+     *
+     * @param event 複製するイベントデータ
+     * @return 複製したイベントデータ
+     */
+    private static Event copy(final Event event) {
+        Event result = new Event();
+        result.setServiceId(event.getServiceId());
+        result.setProfile(event.getProfile());
+        result.setInterface(event.getInterface());
+        result.setAttribute(event.getAttribute());
+        result.setOrigin(event.getOrigin());
+        result.setReceiverName(event.getReceiverName());
+        result.setAccessToken(event.getAccessToken());
+        result.setCreateDate(event.getCreateDate());
+        result.setUpdateDate(event.getUpdateDate());
+        return result;
+    }
+
+    /**
+     * リストからイベントデータを削除した新しいリストを作成する.
+     *
+     * @param list 元のリスト. nullの場合は空のリストとして扱う
+     * @param event 削除するイベントデータ
+     * @return 新しいリスト. 空になった場合はnull
+     */
+    private static List<Event> without(final List<Event> list, final Event event) {
+        if (list == null) {
+            return null;
+        }
+        List<Event> result = new ArrayList<>(list.size());
+        for (Event e : list) {
+            if (e != event) {
+                result.add(e);
+            }
+        }
+        return result.isEmpty() ? null : Collections.unmodifiableList(result);
+    }
+
+    /**
+     * リストがnullの場合はキーを削除し、それ以外の場合はリストを格納する.
+     *
+     * @param index インデックス
+     * @param key キー
+     * @param list リスト
+     * @param <K> キーの型
+     */
+    private static <K> void putOrRemove(final Map<K, List<Event>> index, final K key, final List<Event> list) {
+        if (list == null) {
+            index.remove(key);
+        } else {
+            index.put(key, list);
+        }
+    }
+
+    /**
+     * イベントデータのインデックスのキー.
+     */
+    private static final class EventKey {
+        private final String mServiceId;
+        private final String mProfile;
+        private final String mInterface;
+        private final String mAttribute;
+        private final int mHashCode;
+
+        EventKey(final String serviceId, final String profile, final String inter, final String attribute) {
+            mServiceId = serviceId;
+            mProfile = profile;
+            mInterface = inter;
+            mAttribute = attribute;
+
+            int hash = hash(serviceId);
+            hash = 31 * hash + hash(profile);
+            hash = 31 * hash + hash(inter);
+            hash = 31 * hash + hash(attribute);
+            mHashCode = hash;
+        }
+
+        private static int hash(final String s) {
+            return s != null ? s.hashCode() : 0;
+        }
+
+        private static boolean equals(final String s1, final String s2) {
+            return s1 == null ? s2 == null : s1.equals(s2);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof EventKey)) {
+                return false;
+            }
+            EventKey other = (EventKey) o;
+            return mHashCode == other.mHashCode
+                    && equals(mServiceId, other.mServiceId)
+                    && equals(mProfile, other.mProfile)
+                    && equals(mInterface, other.mInterface)
+                    && equals(mAttribute, other.mAttribute);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+}
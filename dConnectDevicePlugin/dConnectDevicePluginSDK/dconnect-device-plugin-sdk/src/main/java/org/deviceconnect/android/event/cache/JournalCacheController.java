@@ -0,0 +1,281 @@
+/*
+ JournalCacheController.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.event.cache;
+
+import android.content.Context;
+
+import org.deviceconnect.android.event.Event;
+import org.deviceconnect.android.event.EventError;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * イベントデータをメモリにキャッシュし、登録・解除をジャーナルファイルに追記して保存する.
+ *
+ * <p>
+ * {@link FileCacheController} はフラッシュのたびに全てのイベントデータを書き出し、
+ * {@link org.deviceconnect.android.event.cache.db.DBCacheController} は登録のたびに複数のテーブルを更新します。
+ * このクラスでは、登録・解除を1レコードとしてジャーナルに追記するので、1回の操作で書き込むのは1レコードだけです。
+ * </p>
+ * <p>
+ * ジャーナルへの書き込みはバックグラウンドのスレッドで行い、イベントの登録・解除は書き込みを待ちません。
+ * ジャーナルのレコード数が閾値を超えた場合には、登録中のイベントをスナップショットに書き出してジャーナルを空にします。
+ * 起動時にはスナップショットとジャーナルを読み込んでイベントデータを復元します。
+ * </p>
+ * <p>
+ * {@link #flush()} を呼び出すと、書き込み待ちのレコードを書き込んでストレージに同期します。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public class JournalCacheController extends IndexedMemoryCacheController {
+
+    /**
+     * ファイル名.
+     */
+    private static final String JOURNAL_FILE_NAME = "org_deviceconnect_android_event_cache";
+
+    /**
+     * コンパクションを行うジャーナルのレコード数のデフォルト値.
+     */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+
+    /**
+     * ロガー.
+     */
+    private final Logger mLogger = Logger.getLogger("org.deviceconnect.dplugin");
+
+    /**
+     * ジャーナル.
+     */
+    private final EventJournal mJournal;
+
+    /**
+     * コンパクションを行うジャーナルのレコード数.
+     */
+    private final int mCompactionThreshold;
+
+    /**
+     * ジャーナルに書き込むスレッド.
+     */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * イベントの登録・解除とジャーナルへの書き込みの順番を揃えるためのロックオブジェクト.
+     */
+    private final Object mJournalLock = new Object();
+
+    /**
+     * コンテキストを指定してJournalCacheControllerのインスタンスを生成する.
+     *
+     * @param context コンテキストオブジェクト
+     */
+    public JournalCacheController(final Context context) {
+        this(getFilesDir(context), DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * ファイルを格納するディレクトリを指定してJournalCacheControllerのインスタンスを生成する.
+     *
+     * @param directory ファイルを格納するディレクトリ
+     * @param compactionThreshold コンパクションを行うジャーナルのレコード数
+     */
+    public JournalCacheController(final File directory, final int compactionThreshold) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory is null.");
+        }
+        if (compactionThreshold <= 0) {
+            throw new IllegalArgumentException("compactionThreshold is invalid.");
+        }
+        mJournal = new EventJournal(directory, JOURNAL_FILE_NAME);
+        mCompactionThreshold = compactionThreshold;
+        load();
+    }
+
+    private static File getFilesDir(final Context context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Context is null.");
+        }
+        return context.getFilesDir();
+    }
+
+    /**
+     * スナップショットとジャーナルからイベントデータを復元する.
+     */
+    private void load() {
+        try {
+            mJournal.open(new EventJournal.Replayer() {
+                @Override
+                public void onAddEvent(final Event event) {
+                    Timestamp createDate = event.getCreateDate();
+                    Timestamp updateDate = event.getUpdateDate();
+                    JournalCacheController.super.addEvent(event);
+                    if (createDate != null) {
+                        event.setCreateDate(createDate);
+                    }
+                    if (updateDate != null) {
+                        event.setUpdateDate(updateDate);
+                    }
+                }
+
+                @Override
+                public void onRemoveEvent(final Event event) {
+                    JournalCacheController.super.removeEvent(event);
+                }
+
+                @Override
+                public void onRemoveEvents(final String origin) {
+                    JournalCacheController.super.removeEvents(origin);
+                }
+
+                @Override
+                public void onRemoveAll() {
+                    JournalCacheController.super.removeAll();
+                }
+            });
+        } catch (IOException e) {
+            mLogger.severe("Exception occurred in JournalCacheController. " + e.getMessage());
+        }
+    }
+
+    @Override
+    public EventError addEvent(final Event event) {
+        synchronized (mJournalLock) {
+            EventError error = super.addEvent(event);
+            if (error == EventError.NONE) {
+                append(EventJournal.encodeAdd(event));
+            }
+            return error;
+        }
+    }
+
+    @Override
+    public EventError removeEvent(final Event event) {
+        synchronized (mJournalLock) {
+            EventError error = super.removeEvent(event);
+            if (error == EventError.NONE) {
+                append(EventJournal.encodeRemove(event));
+            }
+            return error;
+        }
+    }
+
+    @Override
+    public boolean removeEvents(final String origin) {
+        synchronized (mJournalLock) {
+            boolean result = super.removeEvents(origin);
+            append(EventJournal.encodeRemoveEvents(origin));
+            return result;
+        }
+    }
+
+    @Override
+    public boolean removeAll() {
+        synchronized (mJournalLock) {
+            boolean result = super.removeAll();
+            append(EventJournal.encodeRemoveAll());
+            return result;
+        }
+    }
+
+    /**
+     * 書き込み待ちのレコードをジャーナルに書き込み、ストレージに同期する.
+     */
+    @Override
+    public void flush() {
+        await(() -> {
+            mJournal.sync();
+            return null;
+        });
+    }
+
+    /**
+     * 登録中のイベントをスナップショットに書き出し、ジャーナルを空にする.
+     */
+    public void compact() {
+        await(() -> {
+            mJournal.compact(getAllEvents());
+            return null;
+        });
+    }
+
+    /**
+     * 書き込み待ちのレコードをジャーナルに書き込み、ファイルを閉じる.
+     * <p>
+     * 閉じた後のイベントの登録・解除はファイルに保存されません。
+     * </p>
+     */
+    public void close() {
+        flush();
+        mExecutor.shutdown();
+        try {
+            mExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mJournal.close();
+    }
+
+    /**
+     * レコードをジャーナルに追記する.
+     * <p>
+     * レコード数が閾値を超えた場合にはコンパクションを行う。
+     * </p>
+     *
+     * @param record レコード. nullの場合は追記しない
+     */
+    private void append(final byte[] record) {
+        if (record == null) {
+            mLogger.warning("Event is too large to write to the journal.");
+            return;
+        }
+        try {
+            mExecutor.execute(() -> {
+                try {
+                    mJournal.append(record);
+                    if (mJournal.getRecordCount() >= mCompactionThreshold) {
+                        // スナップショットには書き込み待ちのレコードの変更も含まれるが、
+                        // レコードを再度適用しても結果は変わらない
+                        mJournal.compact(getAllEvents());
+                    }
+                } catch (IOException e) {
+                    mLogger.severe("Exception occurred in JournalCacheController. " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mLogger.warning("JournalCacheController is already closed.");
+        }
+    }
+
+    /**
+     * ジャーナルを書き込むスレッドで処理を実行し、終了を待つ.
+     *
+     * @param task 処理
+     */
+    private void await(final Callable<Void> task) {
+        try {
+            Future<Void> future = mExecutor.submit(task);
+            future.get();
+        } catch (RejectedExecutionException e) {
+            mLogger.warning("JournalCacheController is already closed.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            mLogger.severe("Exception occurred in JournalCacheController. " + e.getCause());
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ AccessTokenCache.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.localoauth;
+
+import org.deviceconnect.android.localoauth.oauthserver.db.SQLiteToken;
+import org.restlet.ext.oauth.internal.Scope;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * アクセストークンの検証に必要な情報をメモリ上に保持するキャッシュ.
+ *
+ * <p>
+ * {@link LocalOAuth2Main#checkAccessToken(String, String, String[])} でDBから読み込んだ
+ * トークン・スコープ・クライアントの有無を保持して、2回目以降の確認ではDBにアクセスしないようにします。
+ * </p>
+ * <p>
+ * スコープの有効期限は登録時刻から確認時に計算するので、キャッシュに残っている間に期限切れになったスコープは
+ * DBから読み込んだ場合と同じく期限切れと判定されます。
+ * トークンやクライアントが削除された場合には {@link #invalidateAll()} でキャッシュを破棄してください。
+ * 同じプロセスで複数の {@link LocalOAuth2Main} が同じDBを操作するので、破棄は全てのキャッシュに対して行います。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+class AccessTokenCache {
+    /**
+     * キャッシュに保持するエントリ数の上限のデフォルト値.
+     */
+    static final int DEFAULT_MAX_SIZE = 256;
+
+    /**
+     * エントリの有効期限のデフォルト値(ミリ秒).
+     */
+    static final long DEFAULT_TTL = 60 * 1000;
+
+    /**
+     * キャッシュの世代.
+     * <p>
+     * {@link #invalidateAll()} が呼び出されるたびに更新され、古い世代のエントリは使用されません。
+     * </p>
+     */
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+
+    /**
+     * アクセストークンとエントリのマップ.
+     */
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+
+    /**
+     * キャッシュに保持するエントリ数の上限.
+     */
+    private final int mMaxSize;
+
+    /**
+     * エントリの有効期限(ミリ秒).
+     */
+    private final long mTtl;
+
+    /**
+     * コンストラクタ.
+     */
+    AccessTokenCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL);
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param maxSize キャッシュに保持するエントリ数の上限
+     * @param ttl エントリの有効期限(ミリ秒)
+     */
+    AccessTokenCache(final int maxSize, final long ttl) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize is invalid.");
+        }
+        mMaxSize = maxSize;
+        mTtl = ttl;
+    }
+
+    /**
+     * アクセストークンに対応するエントリを取得します.
+     *
+     * <p>
+     * エントリが存在しない、または有効期限が切れている場合にはnullを返却します。
+     * </p>
+     *
+     * @param accessToken アクセストークン
+     * @return エントリ
+     */
+    Entry get(final String accessToken) {
+        Entry entry = mEntries.get(accessToken);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isStale(System.currentTimeMillis())) {
+            mEntries.remove(accessToken, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * エントリを追加します.
+     *
+     * <p>
+     * 同じアクセストークンのエントリが既に存在する場合には、既存のエントリを返却します。
+     * 上限を超える場合には有効期限切れのエントリを削除し、それでも空きがなければ任意のエントリを削除します。
+     * </p>
+     *
+     * @param accessToken アクセストークン
+     * @param entry エントリ
+     * @return キャッシュに格納されているエントリ
+     */
+    Entry put(final String accessToken, final Entry entry) {
+        Entry current = get(accessToken);
+        if (current != null) {
+            return current;
+        }
+        if (mEntries.size() >= mMaxSize) {
+            evict();
+        }
+        mEntries.put(accessToken, entry);
+        return entry;
+    }
+
+    /**
+     * アクセストークンに対応するエントリを削除します.
+     *
+     * @param accessToken アクセストークン
+     */
+    void remove(final String accessToken) {
+        mEntries.remove(accessToken);
+    }
+
+    /**
+     * 現在のキャッシュの世代を取得します.
+     *
+     * <p>
+     * DBから読み込む前に取得した世代を {@link #createEntry(SQLiteToken, boolean, boolean, boolean, int)} に渡すことで、
+     * 読み込み中にトークンが削除された場合でも古いエントリが使用されないようにします。
+     * </p>
+     *
+     * @return キャッシュの世代
+     */
+    static int currentGeneration() {
+        return sGeneration.get();
+    }
+
+    /**
+     * 全ての {@link AccessTokenCache} のエントリを無効にします.
+     */
+    static void invalidateAll() {
+        sGeneration.incrementAndGet();
+    }
+
+    /**
+     * 全てのエントリを削除します.
+     */
+    void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * キャッシュに保持されているエントリ数を取得します.
+     *
+     * @return エントリ数
+     */
+    int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * 上限に達したキャッシュからエントリを削除します.
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> it = mEntries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isStale(now)) {
+                it.remove();
+            }
+        }
+
+        it = mEntries.values().iterator();
+        while (mEntries.size() >= mMaxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * エントリを作成します.
+     *
+     * @param token DBから読み込んだトークン
+     * @param isExistClientId トークンを発行したクライアントが存在する場合はtrue、それ以外はfalse
+     * @param isFirstAccess 初回アクセスとして扱う場合はtrue、それ以外はfalse
+     * @param allowWildcard スコープ "*" を全てのスコープとして扱う場合はtrue、それ以外はfalse
+     * @param generation DBから読み込む前に {@link #currentGeneration()} で取得したキャッシュの世代
+     * @return エントリ
+     */
+    Entry createEntry(final SQLiteToken token, final boolean isExistClientId,
+                      final boolean isFirstAccess, final boolean allowWildcard, final int generation) {
+        return new Entry(token, isExistClientId, isFirstAccess, allowWildcard,
+                System.currentTimeMillis() + mTtl, generation);
+    }
+
+    /**
+     * アクセストークンの検証に必要な情報.
+     */
+    static class Entry {
+        /**
+         * DBから読み込んだトークン.
+         */
+        private final SQLiteToken mToken;
+
+        /**
+         * トークンを発行したクライアントの有無.
+         */
+        private final boolean mExistClientId;
+
+        /**
+         * スコープ名とスコープのマップ.
+         */
+        private final Map<String, Scope> mScopes = new HashMap<>();
+
+        /**
+         * スコープ "*" を持つかを示すフラグ.
+         */
+        private final boolean mWildcard;
+
+        /**
+         * 初回アクセスが未消費であることを示すフラグ.
+         */
+        private final AtomicBoolean mFirstAccess;
+
+        /**
+         * エントリの有効期限(エポックミリ秒).
+         */
+        private final long mStaleTime;
+
+        /**
+         * エントリを作成した時のキャッシュの世代.
+         */
+        private final int mGeneration;
+
+        /**
+         * コンストラクタ.
+         *
+         * @param token DBから読み込んだトークン
+         * @param isExistClientId トークンを発行したクライアントの有無
+         * @param isFirstAccess 初回アクセスとして扱う場合はtrue
+         * @param allowWildcard スコープ "*" を全てのスコープとして扱う場合はtrue
+         * @param staleTime エントリの有効期限(エポックミリ秒)
+         * @param generation キャッシュの世代
+         */
+        private Entry(final SQLiteToken token, final boolean isExistClientId, final boolean isFirstAccess,
+                      final boolean allowWildcard, final long staleTime, final int generation) {
+            mToken = token;
+            mExistClientId = isExistClientId;
+            mFirstAccess = new AtomicBoolean(isFirstAccess);
+            mStaleTime = staleTime;
+            mGeneration = generation;
+
+            boolean wildcard = false;
+            Scope[] scopes = token.getScope();
+            if (scopes != null) {
+                for (Scope s : scopes) {
+                    if (allowWildcard && "*".equals(s.getScope())) {
+                        wildcard = true;
+                    }
+                    // 同名のスコープは先に見つかったものを使用する(DBから読み込んだ場合と同じ)
+                    if (!mScopes.containsKey(s.getScope())) {
+                        mScopes.put(s.getScope(), s);
+                    }
+                }
+            }
+            mWildcard = wildcard;
+        }
+
+        /**
+         * DBから読み込んだトークンを取得します.
+         *
+         * @return トークン
+         */
+        SQLiteToken getToken() {
+            return mToken;
+        }
+
+        /**
+         * エントリの有効期限が切れているか確認します.
+         *
+         * <p>
+         * {@link #invalidateAll()} で無効にされたエントリも有効期限切れとして扱います。
+         * </p>
+         *
+         * @param now 現在時刻(エポックミリ秒)
+         * @return 有効期限切れの場合はtrue、それ以外はfalse
+         */
+        boolean isStale(final long now) {
+            return now > mStaleTime || mGeneration != sGeneration.get();
+        }
+
+        /**
+         * 初回アクセスを消費します.
+         *
+         * <p>
+         * 初回アクセスは1度だけ消費できます。複数のスレッドから同時に呼び出された場合でも、
+         * trueを返すのは1つのスレッドだけです。
+         * </p>
+         *
+         * @return 初回アクセスを消費した場合はtrue、既に消費されていた場合はfalse
+         */
+        boolean consumeFirstAccess() {
+            return mFirstAccess.compareAndSet(true, false);
+        }
+
+        /**
+         * スコープに対するアクセスを確認します.
+         *
+         * @param scope 確認するスコープ
+         * @param isFirstAccess {@link #consumeFirstAccess()} で初回アクセスを消費した場合はtrue
+         * @return 確認結果
+         */
+        CheckAccessTokenResult check(final String scope, final boolean isFirstAccess) {
+            if (mWildcard) {
+                return new CheckAccessTokenResult(mExistClientId, true, true, true);
+            }
+
+            Scope s = mScopes.get(scope);
+            if (s == null) {
+                return new CheckAccessTokenResult(mExistClientId, true, false, false);
+            }
+
+            boolean isNotExpired;
+            if (s.getExpirePeriod() == 0) {
+                // 有効期限0の場合は、トークン発行から1分以内の初回アクセスなら有効期限内とする
+                long t = System.currentTimeMillis() - mToken.getRegistrationDate();
+                isNotExpired = checkTime(t) && isFirstAccess;
+            } else if (s.getExpirePeriod() > 0) {
+                // 有効期限1以上の場合は、トークン発行からの経過時間が有効期限内かを判定して返す
+                isNotExpired = !s.isExpired();
+            } else {
+                // 有効期限にマイナス値が設定されていたら、有効期限切れとみなす
+                isNotExpired = false;
+            }
+            return new CheckAccessTokenResult(mExistClientId, true, true, isNotExpired);
+        }
+
+        /**
+         * 1分以内かチェックします.
+         * @param t チェックする経過時間
+         * @return trueの場合は1分以内、falseの場合はそれ以外
+         */
+        private static boolean checkTime(final long t) {
+            return 0 <= t && t <= (LocalOAuth2Settings.ACCESS_TOKEN_GRACE_TIME * LocalOAuth2Settings.MSEC);
+        }
+    }
+}
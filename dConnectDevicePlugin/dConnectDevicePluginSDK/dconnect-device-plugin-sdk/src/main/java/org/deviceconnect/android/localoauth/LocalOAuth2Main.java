@@ -86,10 +86,17 @@ import org.restlet.util.Series;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
@@ -147,6 +154,18 @@ public class LocalOAuth2Main {
     /** DBアクセス用Lockオブジェクト. */
     private final Object mLockForDbAccess = new Object();
 
+    /** アクセストークン検証用のキャッシュ. */
+    private final AccessTokenCache mAccessTokenCache = new AccessTokenCache();
+
+    /** アクセストークン検証用のキャッシュの有効・無効フラグ. */
+    private volatile boolean mAccessTokenCacheEnabled = true;
+
+    /** トークンのアクセス時間をDBに書き込むスレッド. */
+    private final ExecutorService mAccessTimeExecutor = Executors.newSingleThreadExecutor();
+
+    /** アクセス時間の書き込みが完了していないトークンのID. */
+    private final Set<Long> mPendingAccessTimeTokenIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
     /** 承認確認画面リクエストキュー(アクセスする際はsynchronizedが必要). */
     private List<ConfirmAuthRequest> mRequestQueue = new ArrayList<>();
 
@@ -219,6 +238,15 @@ public class LocalOAuth2Main {
     public void destroy() {
         unregister(mContext);
 
+        // 書き込み待ちのアクセス時間をDBに反映してからクローズする
+        mAccessTimeExecutor.shutdown();
+        try {
+            mAccessTimeExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mAccessTokenCache.clear();
+
         // DBをまとめてクローズ
         if (mDbHelper != null) {
             mDbHelper.close();
@@ -295,6 +323,7 @@ public class LocalOAuth2Main {
                 throw new RuntimeException(e);
             } finally {
                 mDb.endTransaction();
+                AccessTokenCache.invalidateAll();
             }
         }
         
@@ -383,15 +412,6 @@ public class LocalOAuth2Main {
         }
     }
 
-    /**
-     * 1分以内かチェックします.
-     * @param t チェックする経過時間
-     * @return trueの場合は1分以内、falseの場合はそれ以外
-     */
-    private static boolean checkTime(final long t) {
-        return 0 <= t && t <= (LocalOAuth2Settings.ACCESS_TOKEN_GRACE_TIME * LocalOAuth2Settings.MSEC);
-    }
-
     /**
      * (7)アクセストークンを確認する.
      * 
@@ -406,16 +426,6 @@ public class LocalOAuth2Main {
             throw new IllegalArgumentException("scope is null.");
         }
 
-        // true: アクセストークンを発行したクライアントIDあり
-        // false: アクセストークンを発行したクライアントIDなし
-        boolean isExistClientId = false;
-        // true: アクセストークンあり / false: アクセストークンなし
-        boolean isExistAccessToken = false;
-        // true: スコープあり / false: スコープなし
-        boolean isExistScope = false;
-        // true: 有効期限内 / false: 有効期限切れ
-        boolean isNotExpired = false;
-
         // 無視するスコープが指定されていた場合
         if (specialScopes != null && Arrays.asList(specialScopes).contains(scope)) {
             return new CheckAccessTokenResult(true, true, true, true);
@@ -426,6 +436,68 @@ public class LocalOAuth2Main {
             return new CheckAccessTokenResult(false, false, false, false);
         }
 
+        AccessTokenCache.Entry entry = mAccessTokenCacheEnabled ? mAccessTokenCache.get(accessToken) : null;
+        if (entry == null) {
+            entry = loadAccessTokenEntry(accessToken);
+        }
+
+        CheckAccessTokenResult result;
+        if (entry == null) {
+            result = new CheckAccessTokenResult(false, false, false, false);
+        } else {
+            // トークンのアクセス時間更新
+            boolean isFirstAccess = entry.consumeFirstAccess();
+            if (isFirstAccess) {
+                updateTokenAccessTime(entry.getToken());
+            }
+            result = entry.check(scope, isFirstAccess);
+        }
+
+        if (!result.checkResult()) {
+            sLogger.warning("checkAccessToken() - error.");
+            sLogger.warning(" - isExistClientId: " + result.isExistClientId());
+            sLogger.warning(" - isExistAccessToken: " + result.isExistAccessToken());
+            sLogger.warning(" - isExistScope:" + result.isExistScope());
+            sLogger.warning(" - isNotExpired:" + result.isNotExpired());
+            sLogger.warning(" - accessToken:" + accessToken);
+            sLogger.warning(" - scope:" + scope);
+        }
+        return result;
+    }
+
+    /**
+     * アクセストークン検証用のキャッシュの有効・無効を設定する.
+     * <p>
+     * 無効にした場合には、アクセストークンを確認するたびにDBから読み込む。
+     * </p>
+     * @param enabled 有効にする場合はtrue、それ以外はfalse
+     */
+    public void setAccessTokenCacheEnabled(final boolean enabled) {
+        mAccessTokenCacheEnabled = enabled;
+        if (!enabled) {
+            mAccessTokenCache.clear();
+        }
+    }
+
+    /**
+     * アクセストークン検証用のキャッシュが有効か確認する.
+     * @return 有効の場合はtrue、それ以外はfalse
+     */
+    public boolean isAccessTokenCacheEnabled() {
+        return mAccessTokenCacheEnabled;
+    }
+
+    /**
+     * アクセストークンの検証に必要な情報をDBから読み込む.
+     * <p>
+     * キャッシュが有効な場合には、読み込んだ情報をキャッシュに格納する。
+     * </p>
+     * @param accessToken アクセストークン
+     * @return not null: 検証に必要な情報 / null: アクセストークンなし
+     */
+    private AccessTokenCache.Entry loadAccessTokenEntry(final String accessToken) {
+        AccessTokenCache.Entry entry = null;
+        int generation = AccessTokenCache.currentGeneration();
         synchronized (mLockForDbAccess) {
             if (!mDb.isOpen()) {
                 throw new RuntimeException("Database is not opened.");
@@ -437,48 +509,21 @@ public class LocalOAuth2Main {
                 // アクセストークンを元にトークンを検索する
                 SQLiteToken token = (SQLiteToken) mTokenManager.findTokenByAccessToken(accessToken);
                 if (token != null) {
-                    // アクセストークンあり
-                    isExistAccessToken = true;
-                    Scope[] scopes = token.getScope();
-                    for (Scope s : scopes) {
-                        // token.scopeに"*"が含まれていたら、どんなスコープにもアクセスできる
-                        if (BuildConfig.DEBUG && s.getScope().equals("*")) {
-                            isExistScope = true; // スコープあり
-                            isNotExpired = true; // 有効期限
-                            break;
-                        }
-
-                        if (s.getScope().equals(scope)) {
-                            isExistScope = true; // スコープあり
-                            
-                            if (s.getExpirePeriod() == 0) {
-                                // 有効期限0の場合は、トークン発行から1分以内の初回アクセスなら有効期限内とする
-                                long t = System.currentTimeMillis() - token.getRegistrationDate();
-                                if (checkTime(t) && token.isFirstAccess()) {
-                                    isNotExpired = true;
-                                }
-                            } else if (s.getExpirePeriod() > 0) {
-                                // 有効期限1以上の場合は、トークン発行からの経過時間が有効期限内かを判定して返す
-                                isNotExpired = !s.isExpired();
-                            } else {
-                                // 有効期限にマイナス値が設定されていたら、有効期限切れとみなす
-                                isNotExpired = false;
-                            }
-                            break;
-                        }
-                    }
-    
                     // このトークンを発行したクライアントIDが存在するかチェック
-                    if (mClientManager.findById(token.getClientId()) != null) {
-                        isExistClientId = true;
-                    }
-    
-                    // トークンのアクセス時間更新
-                    if (token.isFirstAccess()) {
-                        token.dbUpdateTokenAccessTime(mDb);
+                    boolean isExistClientId = mClientManager.findById(token.getClientId()) != null;
+
+                    // アクセス時間の書き込み待ちのトークンは、初回アクセスを消費済みとして扱う
+                    boolean isFirstAccess = token.isFirstAccess()
+                            && !mPendingAccessTimeTokenIds.contains(token.getId());
+
+                    // token.scopeに"*"が含まれていたら、どんなスコープにもアクセスできる
+                    entry = mAccessTokenCache.createEntry(token, isExistClientId, isFirstAccess,
+                            BuildConfig.DEBUG, generation);
+                    if (mAccessTokenCacheEnabled) {
+                        entry = mAccessTokenCache.put(accessToken, entry);
                     }
                 }
-                
+
                 mDb.setTransactionSuccessful();
             } catch (SQLiteException e) {
                 throw new RuntimeException(e);
@@ -486,19 +531,45 @@ public class LocalOAuth2Main {
                 mDb.endTransaction();
             }
         }
-        
-        CheckAccessTokenResult result = new CheckAccessTokenResult(isExistClientId,
-                isExistAccessToken, isExistScope, isNotExpired);
-        if (!result.checkResult()) {
-            sLogger.warning("checkAccessToken() - error.");
-            sLogger.warning(" - isExistClientId: " + isExistClientId);
-            sLogger.warning(" - isExistAccessToken: " + isExistAccessToken);
-            sLogger.warning(" - isExistScope:" + isExistScope);
-            sLogger.warning(" - isNotExpired:" + isNotExpired);
-            sLogger.warning(" - accessToken:" + accessToken);
-            sLogger.warning(" - scope:" + scope);
+        return entry;
+    }
+
+    /**
+     * トークンのアクセス時間をDBに書き込む.
+     * <p>
+     * 初回アクセスの書き込みでアクセストークンの確認を待たせないように、別スレッドで書き込む。
+     * </p>
+     * @param token トークン
+     */
+    private void updateTokenAccessTime(final SQLiteToken token) {
+        final long tokenId = token.getId();
+        mPendingAccessTimeTokenIds.add(tokenId);
+        try {
+            mAccessTimeExecutor.execute(() -> {
+                try {
+                    synchronized (mLockForDbAccess) {
+                        if (mDb == null || !mDb.isOpen()) {
+                            return;
+                        }
+
+                        try {
+                            mDb.beginTransaction();
+                            token.dbUpdateTokenAccessTime(mDb);
+                            mDb.setTransactionSuccessful();
+                        } catch (SQLiteException e) {
+                            sLogger.warning("Failed to update the access time of token. id=" + tokenId);
+                        } finally {
+                            mDb.endTransaction();
+                        }
+                    }
+                } finally {
+                    mPendingAccessTimeTokenIds.remove(tokenId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // destroy() 後は書き込まない
+            mPendingAccessTimeTokenIds.remove(tokenId);
         }
-        return result;
     }
 
     /**
@@ -597,6 +668,7 @@ public class LocalOAuth2Main {
                 throw new RuntimeException(e);
             } finally {
                 mDb.endTransaction();
+                AccessTokenCache.invalidateAll();
             }
         }
     }
@@ -621,6 +693,7 @@ public class LocalOAuth2Main {
                 throw new RuntimeException(e);
             } finally {
                 mDb.endTransaction();
+                AccessTokenCache.invalidateAll();
             }
         }
     }
@@ -669,6 +742,7 @@ public class LocalOAuth2Main {
                 throw new RuntimeException(e);
             } finally {
                 mDb.endTransaction();
+                AccessTokenCache.invalidateAll();
             }
         }
         
@@ -715,6 +789,7 @@ public class LocalOAuth2Main {
                             exception = new AuthorizationException(AuthorizationException.SQLITE_ERROR);
                         } finally {
                             mDb.endTransaction();
+                            AccessTokenCache.invalidateAll();
                         }
                     }
                 }
@@ -22,7 +22,7 @@ import org.deviceconnect.android.IDConnectCallback;
 import org.deviceconnect.android.IDConnectPlugin;
 import org.deviceconnect.android.event.Event;
 import org.deviceconnect.android.event.cache.EventCacheController;
-import org.deviceconnect.android.event.cache.MemoryCacheController;
+import org.deviceconnect.android.event.cache.IndexedMemoryCacheController;
 import org.deviceconnect.android.logger.AndroidHandler;
 import org.deviceconnect.android.profile.DConnectProfile;
 import org.deviceconnect.android.profile.DConnectProfile;
@@ -189,14 +189,14 @@ public abstract class DConnectMessageService extends Service implements DConnect
      * EventCacheControllerのインスタンスを返す.
      *
      * <p>
-     * デフォルトではMemoryCacheControllerを使用する.<br>
+     * デフォルトではIndexedMemoryCacheControllerを使用する.<br>
      * 変更したい場合は本メソッドをオーバーライドすること.
      * </p>
      *
      * @return EventCacheControllerのインスタンス
      */
     protected EventCacheController getEventCacheController() {
-        return new MemoryCacheController();
+        return new IndexedMemoryCacheController();
     }
 
     /**
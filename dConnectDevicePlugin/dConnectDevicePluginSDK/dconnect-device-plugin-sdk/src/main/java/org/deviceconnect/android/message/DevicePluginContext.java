@@ -22,7 +22,7 @@ import org.deviceconnect.android.IDConnectCallback;
 import org.deviceconnect.android.event.Event;
 import org.deviceconnect.android.event.EventManager;
 import org.deviceconnect.android.event.cache.EventCacheController;
-import org.deviceconnect.android.event.cache.MemoryCacheController;
+import org.deviceconnect.android.event.cache.IndexedMemoryCacheController;
 import org.deviceconnect.android.localoauth.CheckAccessTokenResult;
 import org.deviceconnect.android.localoauth.DevicePluginXmlProfile;
 import org.deviceconnect.android.localoauth.DevicePluginXmlUtil;
@@ -304,27 +304,27 @@ public abstract class DevicePluginContext implements DConnectProfileProvider, DC
      * EventCacheControllerのインスタンスを返す.
      *
      * <p>
-     * デフォルトではMemoryCacheControllerを使用する.<br>
+     * デフォルトではIndexedMemoryCacheControllerを使用する.<br>
      * 変更したい場合は本メソッドをオーバーライドすること.
      * </p>
      *
      * @return EventCacheControllerのインスタンス
      */
     protected EventCacheController getEventCacheController() {
-        return new MemoryCacheController();
+        return new IndexedMemoryCacheController();
     }
 
     /**
      * EventCacheControllerのインスタンスを作成します.
      * <p>
-     * デフォルトでは、MemoryCacheControllerを作成します。
+     * デフォルトでは、IndexedMemoryCacheControllerを作成します。
      * </p>
      * @return EventCacheControllerのインスタンス
      */
     private EventCacheController createEventCacheController() {
         EventCacheController ctrl = getEventCacheController();
         if (ctrl == null) {
-            ctrl = new MemoryCacheController();
+            ctrl = new IndexedMemoryCacheController();
         }
         return ctrl;
     }
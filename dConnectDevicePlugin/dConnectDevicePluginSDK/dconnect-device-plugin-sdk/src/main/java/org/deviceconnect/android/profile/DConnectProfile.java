@@ -17,11 +17,9 @@ import org.deviceconnect.android.event.Event;
 import org.deviceconnect.android.message.DevicePluginContext;
 import org.deviceconnect.android.message.MessageUtils;
 import org.deviceconnect.android.profile.api.DConnectApi;
+import org.deviceconnect.android.profile.spec.CompiledValidator;
 import org.deviceconnect.android.profile.spec.DConnectServiceSpec;
-import org.deviceconnect.android.profile.spec.OpenAPIValidator;
 import org.deviceconnect.android.profile.spec.models.Method;
-import org.deviceconnect.android.profile.spec.models.Swagger;
-import org.deviceconnect.android.profile.spec.models.parameters.Parameter;
 import org.deviceconnect.android.service.DConnectService;
 import org.deviceconnect.message.DConnectMessage;
 import org.deviceconnect.message.intent.message.IntentDConnectMessage;
@@ -239,9 +237,9 @@ public abstract class DConnectProfile implements DConnectProfileConstants {
         if (service != null) {
             DConnectServiceSpec spec = service.getServiceSpec();
             if (spec != null) {
-                Swagger swagger = spec.findProfileSpec(getProfile(request));
-                if (swagger != null) {
-                    return OpenAPIValidator.validate(swagger, request);
+                CompiledValidator validator = spec.findValidator(request);
+                if (validator != null) {
+                    return validator.validate(request.getExtras());
                 }
             }
         }
@@ -259,18 +257,14 @@ public abstract class DConnectProfile implements DConnectProfileConstants {
         if (service != null) {
             DConnectServiceSpec spec = service.getServiceSpec();
             if (spec != null) {
-                Swagger swagger = spec.findProfileSpec(getProfile(request));
-                if (swagger != null) {
+                CompiledValidator validator = spec.findValidator(request);
+                if (validator != null) {
                     Bundle extras = request.getExtras();
                     if (extras == null) {
                         return "Unknown";
                     }
-                    List<Parameter> parameters = OpenAPIValidator.findParameters(swagger, request);
-                    for (Parameter parameter : parameters) {
-                        Object value = extras.get(parameter.getName());
-                        if (!OpenAPIValidator.validate(parameter, value)) {
-                            builder.append(parameter.getName()).append(",");
-                        }
+                    for (String name : validator.findInvalidParameters(extras)) {
+                        builder.append(name).append(",");
                     }
                 }
             }
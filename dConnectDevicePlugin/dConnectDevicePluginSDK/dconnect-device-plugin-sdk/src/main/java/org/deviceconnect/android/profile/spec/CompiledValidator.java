@@ -0,0 +1,653 @@
+/*
+ CompiledValidator.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.profile.spec;
+
+import android.os.Bundle;
+
+import org.deviceconnect.android.profile.spec.models.AbstractSpec;
+import org.deviceconnect.android.profile.spec.models.DataFormat;
+import org.deviceconnect.android.profile.spec.models.Method;
+import org.deviceconnect.android.profile.spec.models.Operation;
+import org.deviceconnect.android.profile.spec.models.Path;
+import org.deviceconnect.android.profile.spec.models.Property;
+import org.deviceconnect.android.profile.spec.models.Swagger;
+import org.deviceconnect.android.profile.spec.models.parameters.BodyParameter;
+import org.deviceconnect.android.profile.spec.models.parameters.Parameter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * API 定義から作成したリクエストの妥当性を確認するためのクラス.
+ *
+ * <p>
+ * {@link OpenAPIValidator#validate(Swagger, android.content.Intent)} はリクエストのたびに API 定義からパスを検索して、
+ * パラメータの仕様のタイプやフォーマットを確認しながら値を確認します。
+ * このクラスでは、1つの API (パスとHTTPメソッド) のパラメータの仕様を事前に確認する内容のリストに変換しておき、
+ * リクエストのパラメータをリストの順に確認します。
+ * enum は HashSet に、pattern はコンパイル済みの Pattern に変換します。
+ * </p>
+ *
+ * <p>
+ * 確認の結果は {@link OpenAPIValidator} と同じになります。
+ * 作成後に API 定義のベースパス、パス、Operation、パラメータを変更した場合には {@link #isUpToDate(Swagger)} が
+ * false を返すので、作り直してください。
+ * 変更は {@link AbstractSpec#getStructureVersion()} と、作成元のパラメータのリストの要素を比較して検知します。
+ * パラメータの仕様の値を変更した場合や、getter で取得したパスのマップを直接変更した場合は検知できないので、
+ * {@link DConnectServiceSpec#clearValidators()} を呼び出してください。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public final class CompiledValidator {
+    /**
+     * 作成元の API 定義.
+     */
+    private final Swagger mSwagger;
+
+    /**
+     * パラメータの作成元の Path.
+     */
+    private final Path mPath;
+
+    /**
+     * 作成元の Operation.
+     */
+    private final Operation mOperation;
+
+    /**
+     * 作成時の API 定義の構成のバージョン.
+     */
+    private final int mStructureVersion;
+
+    /**
+     * 作成時の各パラメータのリストの要素.
+     * <p>
+     * リストが無い場合は null です。
+     * </p>
+     */
+    private final Parameter[] mRootParameters;
+    private final Parameter[] mPathParameters;
+    private final Parameter[] mOperationParameters;
+
+    /**
+     * パラメータの確認内容のリスト.
+     */
+    private final ParameterRule[] mRules;
+
+    private CompiledValidator(Swagger swagger, int structureVersion, Path path, Operation operation,
+                              List<Parameter> parameters) {
+        mSwagger = swagger;
+        mStructureVersion = structureVersion;
+        mPath = path;
+        mOperation = operation;
+        mRootParameters = toArray(swagger.getParameters() != null ? swagger.getParameters().values() : null);
+        mPathParameters = path != null ? toArray(path.getParameters()) : null;
+        mOperationParameters = operation != null ? toArray(operation.getParameters()) : null;
+
+        mRules = new ParameterRule[parameters.size()];
+        for (int i = 0; i < mRules.length; i++) {
+            mRules[i] = new ParameterRule(parameters.get(i));
+        }
+    }
+
+    /**
+     * API 定義から指定されたパスとHTTPメソッドのパラメータを確認するオブジェクトを作成します.
+     *
+     * @param swagger API 定義
+     * @param method HTTPメソッド
+     * @param requestPath リクエストのパス
+     * @return CompiledValidator のインスタンス
+     */
+    public static CompiledValidator compile(Swagger swagger, Method method, String requestPath) {
+        if (swagger == null) {
+            throw new IllegalArgumentException("swagger is null.");
+        }
+        // 検索中に変更された場合に古い API 定義で作成したものを使用しないように、検索の前にバージョンを取得する
+        int structureVersion = AbstractSpec.getStructureVersion();
+        Path path = requestPath != null ? DConnectServiceSpec.findPathSpec(swagger, requestPath) : null;
+        Operation operation = DConnectServiceSpec.findOperationSpec(swagger, method, requestPath);
+        return new CompiledValidator(swagger, structureVersion, path, operation,
+                OpenAPIValidator.findParameters(swagger, method, requestPath));
+    }
+
+    /**
+     * 作成後に API 定義が変更されていないか確認します.
+     *
+     * @param swagger API 定義
+     * @return 変更されていない場合はtrue、それ以外はfalse
+     */
+    public boolean isUpToDate(Swagger swagger) {
+        if (swagger != mSwagger || AbstractSpec.getStructureVersion() != mStructureVersion) {
+            return false;
+        }
+        // getter で取得したリストを直接変更した場合はバージョンが変わらないので、要素を比較する
+        if (!isSame(swagger.getParameters() != null ? swagger.getParameters().values() : null, mRootParameters)) {
+            return false;
+        }
+        if (mPath != null && !isSame(mPath.getParameters(), mPathParameters)) {
+            return false;
+        }
+        return mOperation == null || isSame(mOperation.getParameters(), mOperationParameters);
+    }
+
+    /**
+     * リクエストのパラメータの妥当性を確認します.
+     *
+     * @param extras リクエストのパラメータ
+     * @return 妥当なリクエストの場合はtrue、それ以外はfalse
+     */
+    public boolean validate(Bundle extras) {
+        if (extras == null) {
+            return true;
+        }
+        for (ParameterRule rule : mRules) {
+            if (!rule.validate(extras.get(rule.mName))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 不正なリクエストのパラメータ名のリストを取得します.
+     *
+     * @param extras リクエストのパラメータ
+     * @return 不正なパラメータ名のリスト
+     */
+    public List<String> findInvalidParameters(Bundle extras) {
+        List<String> names = new ArrayList<>();
+        if (extras == null) {
+            return names;
+        }
+        for (ParameterRule rule : mRules) {
+            if (!rule.validate(extras.get(rule.mName))) {
+                names.add(rule.mName);
+            }
+        }
+        return names;
+    }
+
+    private static Parameter[] toArray(Collection<Parameter> parameters) {
+        return parameters != null ? parameters.toArray(new Parameter[0]) : null;
+    }
+
+    /**
+     * パラメータのリストの要素が作成時と同じインスタンスか確認します.
+     *
+     * @param parameters 現在のパラメータのリスト
+     * @param snapshot 作成時のパラメータのリストの要素
+     * @return 同じ場合はtrue、それ以外はfalse
+     */
+    private static boolean isSame(Collection<Parameter> parameters, Parameter[] snapshot) {
+        if (parameters == null || snapshot == null) {
+            return parameters == null && snapshot == null;
+        }
+        if (parameters.size() != snapshot.length) {
+            return false;
+        }
+        int i = 0;
+        for (Parameter parameter : parameters) {
+            if (parameter != snapshot[i++]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * パラメータの仕様から値の確認内容を作成します.
+     *
+     * @param property パラメータの仕様
+     * @return 値の確認内容
+     */
+    private static ValueRule compileProperty(Property property) {
+        if (property == null || property.getType() == null) {
+            // TODO 定義ファイルのフォーマットエラー
+            return ValueRule.ANY;
+        }
+
+        switch (property.getType()) {
+            case INTEGER:
+                return new IntegerRule(property);
+            case NUMBER:
+                return new NumberRule(property);
+            case STRING:
+                return new StringRule(property);
+            case ARRAY:
+                return new ArrayRule(property);
+            case BOOLEAN:
+                return new BooleanRule(property);
+            case FILE:
+            default:
+                // TODO 定義ファイルのフォーマットエラー
+                return ValueRule.ANY;
+        }
+    }
+
+    /**
+     * enum を HashSet に変換します.
+     *
+     * @param enums enumに定義されたリスト
+     * @return enum の値のセット. enum が定義されていない場合は null
+     */
+    private static Set<Object> toSet(List<Object> enums) {
+        if (enums == null) {
+            return null;
+        }
+        Set<Object> set = new HashSet<>();
+        for (Object e : enums) {
+            if (e != null) {
+                set.add(e);
+            }
+        }
+        return set;
+    }
+
+    private static boolean isTrue(Boolean value) {
+        return value != null && value;
+    }
+
+    /**
+     * 1つのパラメータの確認内容.
+     */
+    private static final class ParameterRule {
+        private final String mName;
+        private final boolean mRequired;
+        private final ValueRule mValueRule;
+
+        ParameterRule(Parameter parameter) {
+            mName = parameter.getName();
+            mRequired = parameter.isRequired();
+            if (parameter instanceof BodyParameter) {
+                mValueRule = compileProperty(((BodyParameter) parameter).getSchema());
+            } else {
+                mValueRule = compileProperty((Property) parameter);
+            }
+        }
+
+        boolean validate(Object value) {
+            if (value == null) {
+                // パラメータが必須の場合は不正
+                return !mRequired;
+            }
+            return mValueRule.validate(value);
+        }
+    }
+
+    /**
+     * 値の確認内容.
+     */
+    private abstract static class ValueRule {
+        /**
+         * 常に妥当とする確認内容.
+         */
+        static final ValueRule ANY = new ValueRule() {
+            @Override
+            boolean validate(Object value) {
+                return true;
+            }
+        };
+
+        /**
+         * 値の妥当性を確認します.
+         *
+         * @param value リクエストされたパラメータの値
+         * @return 値が妥当な場合はtrue、それ以外はfalse
+         */
+        abstract boolean validate(Object value);
+    }
+
+    /**
+     * 整数値の確認内容.
+     */
+    private static final class IntegerRule extends ValueRule {
+        private final DataFormat mFormat;
+        private final boolean mInt64;
+        private final Set<Object> mEnums;
+        private final boolean mHasMaximum;
+        private final long mMaximum;
+        private final boolean mExclusiveMaximum;
+        private final boolean mHasMinimum;
+        private final long mMinimum;
+        private final boolean mExclusiveMinimum;
+        private final long mMultipleOf;
+
+        IntegerRule(Property property) {
+            mFormat = property.getFormat();
+            mInt64 = mFormat == DataFormat.INT64;
+            mEnums = toSet(property.getEnum());
+            Number maximum = property.getMaximum();
+            Number minimum = property.getMinimum();
+            Number multipleOf = property.getMultipleOf();
+            mHasMaximum = maximum != null;
+            mMaximum = maximum == null ? 0 : mInt64 ? maximum.longValue() : maximum.intValue();
+            mExclusiveMaximum = isTrue(property.isExclusiveMaximum());
+            mHasMinimum = minimum != null;
+            mMinimum = minimum == null ? 0 : mInt64 ? minimum.longValue() : minimum.intValue();
+            mExclusiveMinimum = isTrue(property.isExclusiveMinimum());
+            mMultipleOf = multipleOf == null ? 0 : mInt64 ? multipleOf.longValue() : multipleOf.intValue();
+        }
+
+        @Override
+        boolean validate(Object value) {
+            if (value instanceof String) {
+                // 文字列を数値に変換できるか確認
+                try {
+                    if (mFormat == null || mFormat == DataFormat.INT32) {
+                        value = Integer.parseInt((String) value);
+                    } else if (mInt64) {
+                        value = Long.parseLong((String) value);
+                    } else {
+                        return false;
+                    }
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+
+            if (!(value instanceof Integer || value instanceof Long)) {
+                return false;
+            }
+
+            long v;
+            if (mFormat == null || mFormat == DataFormat.INT32) {
+                int i = ((Number) value).intValue();
+                if (mEnums != null) {
+                    return mEnums.contains(i);
+                }
+                v = i;
+            } else if (mInt64) {
+                v = ((Number) value).longValue();
+                if (mEnums != null) {
+                    return mEnums.contains(v);
+                }
+            } else {
+                // TODO 定義ファイルのフォーマットエラー
+                return true;
+            }
+
+            if (mHasMaximum && !(mExclusiveMaximum ? (mMaximum > v) : (mMaximum >= v))) {
+                return false;
+            }
+            if (mHasMinimum && !(mExclusiveMinimum ? (mMinimum < v) : (mMinimum <= v))) {
+                return false;
+            }
+            return mMultipleOf == 0 || v % mMultipleOf == 0;
+        }
+    }
+
+    /**
+     * 実数値の確認内容.
+     */
+    private static final class NumberRule extends ValueRule {
+        private final DataFormat mFormat;
+        private final boolean mDouble;
+        private final Set<Object> mEnums;
+        private final Number mMaximum;
+        private final boolean mExclusiveMaximum;
+        private final Number mMinimum;
+        private final boolean mExclusiveMinimum;
+
+        NumberRule(Property property) {
+            mFormat = property.getFormat();
+            mDouble = mFormat == DataFormat.DOUBLE;
+            mEnums = toSet(property.getEnum());
+            mMaximum = property.getMaximum();
+            mExclusiveMaximum = isTrue(property.isExclusiveMaximum());
+            mMinimum = property.getMinimum();
+            mExclusiveMinimum = isTrue(property.isExclusiveMinimum());
+        }
+
+        @Override
+        boolean validate(Object value) {
+            if (value instanceof String) {
+                // 文字列を数値に変換できるか確認
+                try {
+                    if (mFormat == null || mFormat == DataFormat.FLOAT) {
+                        value = Float.parseFloat((String) value);
+                    } else if (mDouble) {
+                        value = Double.parseDouble((String) value);
+                    } else {
+                        return false;
+                    }
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+
+            if (!(value instanceof Number)) {
+                return false;
+            }
+
+            if (mFormat == null || mFormat == DataFormat.FLOAT) {
+                float v = ((Number) value).floatValue();
+                if (mEnums != null) {
+                    return mEnums.contains(v);
+                }
+                if (mMaximum != null) {
+                    float maximum = mMaximum.floatValue();
+                    if (!(mExclusiveMaximum ? (maximum > v) : (maximum >= v))) {
+                        return false;
+                    }
+                }
+                if (mMinimum != null) {
+                    float minimum = mMinimum.floatValue();
+                    if (!(mExclusiveMinimum ? (minimum < v) : (minimum <= v))) {
+                        return false;
+                    }
+                }
+                return true;
+            } else if (mDouble) {
+                double v = ((Number) value).doubleValue();
+                if (mEnums != null) {
+                    return mEnums.contains(v);
+                }
+                if (mMaximum != null) {
+                    double maximum = mMaximum.doubleValue();
+                    if (!(mExclusiveMaximum ? (maximum > v) : (maximum >= v))) {
+                        return false;
+                    }
+                }
+                if (mMinimum != null) {
+                    double minimum = mMinimum.doubleValue();
+                    if (!(mExclusiveMinimum ? (minimum < v) : (minimum <= v))) {
+                        return false;
+                    }
+                }
+                return true;
+            } else {
+                // TODO 定義ファイルのフォーマットエラー
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 文字列の確認内容.
+     */
+    private static final class StringRule extends ValueRule {
+        private final Set<Object> mEnums;
+        private final Pattern mPattern;
+        private final DataFormat mFormat;
+        private final Integer mMaxLength;
+        private final Integer mMinLength;
+
+        StringRule(Property property) {
+            mEnums = toSet(property.getEnum());
+            mPattern = compilePattern(property.getPattern());
+            mFormat = property.getFormat();
+            mMaxLength = property.getMaxLength();
+            mMinLength = property.getMinLength();
+        }
+
+        private static Pattern compilePattern(String pattern) {
+            if (pattern == null) {
+                return null;
+            }
+            try {
+                return Pattern.compile(pattern);
+            } catch (PatternSyntaxException e) {
+                // TODO 定義ファイルのフォーマットエラー
+                return null;
+            }
+        }
+
+        @Override
+        boolean validate(Object value) {
+            if (!(value instanceof String)) {
+                return false;
+            }
+
+            if (mEnums != null) {
+                return mEnums.contains(value);
+            }
+
+            String s = (String) value;
+            if (mPattern != null && !mPattern.matcher(s).find()) {
+                return false;
+            }
+
+            if (mFormat == null) {
+                return validateLength(s);
+            }
+
+            switch (mFormat) {
+                case TEXT:
+                    return validateLength(s);
+                case RGB:
+                    return OpenAPIValidator.RGB_PATTERN.matcher(s).matches();
+                case BYTE:
+                case BINARY:
+                case DATE:
+                case DATE_TIME:
+                default:
+                    // TODO 未実装
+                    return true;
+            }
+        }
+
+        private boolean validateLength(String value) {
+            int stringLength = value.length();
+            return (mMaxLength == null || stringLength < mMaxLength) &&
+                    (mMinLength == null || stringLength > mMinLength);
+        }
+    }
+
+    /**
+     * 配列の確認内容.
+     */
+    private static final class ArrayRule extends ValueRule {
+        private final boolean mAllowEmptyValue;
+        private final String mDelimiter;
+        private final Integer mMaxItems;
+        private final Integer mMinItems;
+        private final boolean mUniqueItems;
+        private final ValueRule mItems;
+
+        ArrayRule(Property property) {
+            mAllowEmptyValue = isTrue(property.isAllowEmptyValue());
+            mDelimiter = toDelimiter(property.getCollectionFormat());
+            mMaxItems = property.getMaxItems();
+            mMinItems = property.getMinItems();
+            mUniqueItems = isTrue(property.isUniqueItems());
+            mItems = compileProperty(property.getItems());
+        }
+
+        /**
+         * collectionFormat から区切り文字を取得します.
+         *
+         * @param collectionFormat 配列のフォーマット
+         * @return 区切り文字. multi の場合は null
+         */
+        private static String toDelimiter(String collectionFormat) {
+            if (collectionFormat == null) {
+                return ",";
+            }
+            switch (collectionFormat) {
+                default:
+                case "csv":
+                    return ",";
+                case "ssv":
+                    return " ";
+                case "tsv":
+                    return "\t";
+                case "pipes":
+                    return "|";
+                case "multi":
+                    return null;
+            }
+        }
+
+        @Override
+        boolean validate(Object value) {
+            String arrayValue = value.toString();
+            if (arrayValue.equals("")) {
+                // 空の配列が許可されているか
+                return mAllowEmptyValue;
+            }
+
+            if (mDelimiter == null) {
+                // Device Connect では同じパラメータ名があった場合には後勝ちになるので使用できない。
+                return true;
+            }
+
+            String[] array = OpenAPIValidator.splitString(arrayValue, mDelimiter, 0);
+            if (mMaxItems != null && array.length >= mMaxItems) {
+                return false;
+            }
+            if (mMinItems != null && array.length < mMinItems) {
+                return false;
+            }
+
+            if (mUniqueItems) {
+                for (int i = 0; i < array.length; i++) {
+                    for (int j = i + 1; j < array.length; j++) {
+                        if (array[i].equals(array[j])) {
+                            return false;
+                        }
+                    }
+                }
+            }
+
+            for (String v : array) {
+                if (!mItems.validate(v)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * boolean の確認内容.
+     */
+    private static final class BooleanRule extends ValueRule {
+        private final Set<Object> mEnums;
+
+        BooleanRule(Property property) {
+            mEnums = toSet(property.getEnum());
+        }
+
+        @Override
+        boolean validate(Object value) {
+            if (mEnums != null) {
+                return mEnums.contains(value);
+            }
+            if (value instanceof String) {
+                return OpenAPIValidator.TRUE.equalsIgnoreCase((String) value)
+                        || OpenAPIValidator.FALSE.equalsIgnoreCase((String) value);
+            }
+            return (value instanceof Boolean);
+        }
+    }
+}
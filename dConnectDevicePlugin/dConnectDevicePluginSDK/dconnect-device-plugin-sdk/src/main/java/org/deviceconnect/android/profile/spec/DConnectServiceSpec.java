@@ -31,6 +31,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
 
 /**
  * サービスのサポートする仕様を保持するクラス.
@@ -49,6 +51,11 @@ import java.util.Map;
  * {@link DConnectServiceSpec} のインスタンスを作成して、仕様定義を追加することもできます。
  * </p>
  *
+ * <p>
+ * assets から読み込んだ仕様定義は {@link ProfileSpecCache} でキャッシュします。
+ * {@link #addProfileSpecLazily(String)} で追加した仕様定義は、最初に参照された時に読み込みます。
+ * </p>
+ *
  * <p>以下のサンプルでは、GET /gotapi/echo のパラメータにexampleを追加しています。</p>
  * <pre>{@code
  * DConnectServiceSpec spec = new DConnectServiceSpec(getPluginContext());
@@ -79,6 +86,11 @@ import java.util.Map;
  * @author NTT DOCOMO, INC.
  */
 public class DConnectServiceSpec {
+    /**
+     * 保持する {@link CompiledValidator} の最大数.
+     */
+    private static final int MAX_VALIDATORS = 256;
+
     /**
      * 各プロファイルの定義ファイルを保持するマップ.
      *
@@ -88,6 +100,29 @@ public class DConnectServiceSpec {
      */
     private final Map<String, Swagger> mProfileSpecs = new HashMap<>();
 
+    /**
+     * まだ読み込んでいないプロファイルの定義ファイルへのパスを保持するマップ.
+     *
+     * <p>
+     * マップのキーは、lowerCase で格納します。
+     * </p>
+     */
+    private final Map<String, String> mPendingProfileSpecs = new HashMap<>();
+
+    /**
+     * リクエストのパラメータを確認する {@link CompiledValidator} を保持するマップ.
+     *
+     * <p>
+     * マップのキーは、HTTPメソッドとパスです。
+     * </p>
+     */
+    private final Map<String, CompiledValidator> mValidators = new ConcurrentHashMap<>();
+
+    /**
+     * ロガー.
+     */
+    private final Logger mLogger = Logger.getLogger("org.deviceconnect.dplugin");
+
     /**
      * プラグインのコンテキスト.
      */
@@ -116,6 +151,9 @@ public class DConnectServiceSpec {
      */
     public Map<String, Swagger> getProfileSpecs() {
         synchronized (mProfileSpecs) {
+            for (String key : new ArrayList<>(mPendingProfileSpecs.keySet())) {
+                loadPendingProfileSpec(key);
+            }
             return new HashMap<>(mProfileSpecs);
         }
     }
@@ -150,32 +188,71 @@ public class DConnectServiceSpec {
      * @throws JSONException プロファイル定義のJSON構造が不正な場合
      */
     public void addProfileSpec(final String profileName) throws IOException, JSONException {
-        addProfileSpec(profileName, openApiSpec(profileName));
+        Swagger swagger = loadProfileSpec(findApiPath(profileName));
+        synchronized (mProfileSpecs) {
+            mPendingProfileSpecs.remove(profileName.toLowerCase());
+            mProfileSpecs.put(profileName.toLowerCase(), swagger);
+            mValidators.clear();
+        }
     }
 
     /**
-     * JSON の文字列からプロファイル定義を追加します.
+     * 指定されたプロファイル定義を assets から検索して、最初に参照された時に読み込むように追加します.
+     *
+     * <p>
+     * 定義ファイルの検索は {@link #addProfileSpec(String)} と同じです。
+     * 定義ファイルが見つからない場合には例外が発生しますが、定義ファイルの解析は
+     * {@link #findProfileSpec(String)} などで最初に参照された時に行います。
+     * 定義ファイルのフォーマットが不正な場合には、プロファイル定義は追加されていないものとして扱います。
+     * </p>
      *
      * @param profileName プロファイル名
-     * @param jsonString プロファイル定義のJSON
-     * @throws JSONException プロファイル定義のJSON構造が不正な場合
+     * @throws IOException assetsへのアクセスに失敗した場合
+     * @throws FileNotFoundException プロファイルの API 定義ファイルが見つからない場合
      */
-    public void addProfileSpec(final String profileName, final String jsonString) throws JSONException {
+    public void addProfileSpecLazily(final String profileName) throws IOException {
+        String path = findApiPath(profileName);
         synchronized (mProfileSpecs) {
-            mProfileSpecs.put(profileName.toLowerCase(), OpenAPIParser.parse(jsonString));
+            mProfileSpecs.remove(profileName.toLowerCase());
+            mValidators.clear();
+            mPendingProfileSpecs.put(profileName.toLowerCase(), path);
         }
     }
 
     /**
-     * 入力ストリームからプロファイル定義を追加する.
+     * 指定された名前のプロファイル定義が追加されているか確認します.
+     *
+     * <p>
+     * {@link #addProfileSpecLazily(String)} で追加したプロファイル定義は、読み込まずに確認します。
+     * </p>
      *
      * @param profileName プロファイル名
-     * @param in 入力ストリーム
-     * @throws IOException 入力ストリームの読み込みに失敗した場合
+     * @return プロファイル定義が追加されている場合はtrue、それ以外はfalse
+     */
+    public boolean hasProfileSpec(final String profileName) {
+        if (profileName == null) {
+            return false;
+        }
+        synchronized (mProfileSpecs) {
+            String key = profileName.toLowerCase();
+            return mProfileSpecs.containsKey(key) || mPendingProfileSpecs.containsKey(key);
+        }
+    }
+
+    /**
+     * JSON の文字列からプロファイル定義を追加します.
+     *
+     * @param profileName プロファイル名
+     * @param jsonString プロファイル定義のJSON
      * @throws JSONException プロファイル定義のJSON構造が不正な場合
      */
-    private void addProfileSpec(final String profileName, final InputStream in) throws IOException, JSONException {
-        addProfileSpec(profileName, loadFile(in));
+    public void addProfileSpec(final String profileName, final String jsonString) throws JSONException {
+        Swagger swagger = OpenAPIParser.parse(jsonString);
+        synchronized (mProfileSpecs) {
+            mPendingProfileSpecs.remove(profileName.toLowerCase());
+            mProfileSpecs.put(profileName.toLowerCase(), swagger);
+            mValidators.clear();
+        }
     }
 
     /**
@@ -190,7 +267,12 @@ public class DConnectServiceSpec {
      */
     public Swagger removeProfileSpec(final String profileName) {
         synchronized (mProfileSpecs) {
-            return mProfileSpecs.remove(profileName.toLowerCase());
+            String key = profileName.toLowerCase();
+            if (!mProfileSpecs.containsKey(key)) {
+                loadPendingProfileSpec(key);
+            }
+            mValidators.clear();
+            return mProfileSpecs.remove(key);
         }
     }
 
@@ -214,8 +296,88 @@ public class DConnectServiceSpec {
             return null;
         }
         synchronized (mProfileSpecs) {
-            return mProfileSpecs.get(profileName.toLowerCase());
+            String key = profileName.toLowerCase();
+            Swagger swagger = mProfileSpecs.get(key);
+            if (swagger == null) {
+                swagger = loadPendingProfileSpec(key);
+            }
+            return swagger;
+        }
+    }
+
+    /**
+     * まだ読み込んでいないプロファイル定義を読み込みます.
+     *
+     * <p>
+     * このメソッドは mProfileSpecs で同期した状態で呼び出すこと。
+     * 読み込みに失敗した場合には、プロファイル定義を削除して null を返却します。
+     * </p>
+     *
+     * @param key lowerCase のプロファイル名
+     * @return プロファイルの仕様定義
+     */
+    private Swagger loadPendingProfileSpec(final String key) {
+        String path = mPendingProfileSpecs.remove(key);
+        if (path == null) {
+            return null;
+        }
+        try {
+            Swagger swagger = loadProfileSpec(path);
+            mProfileSpecs.put(key, swagger);
+            return swagger;
+        } catch (Exception e) {
+            // プロファイル定義ファイルが不正の場合は無視
+            mLogger.warning("Failed to load a profile spec. path=" + path + ", " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * リクエストのパラメータの妥当性を確認する {@link CompiledValidator} を取得します.
+     *
+     * <p>
+     * {@link CompiledValidator} は API (HTTPメソッドとパス) ごとに作成して保持します。
+     * 保持している {@link CompiledValidator} の作成後にプロファイル定義が変更された場合には、
+     * {@link CompiledValidator#isUpToDate(Swagger)} で検知して作り直します。
+     * プロファイル定義が見つからない場合には null を返却します。
+     * </p>
+     *
+     * @param request リクエスト
+     * @return {@link CompiledValidator}のインスタンス
+     */
+    public CompiledValidator findValidator(Intent request) {
+        if (request == null) {
+            return null;
+        }
+        Swagger swagger = findProfileSpec(DConnectProfile.getProfile(request));
+        if (swagger == null) {
+            return null;
         }
+
+        Method method = Method.fromAction(request.getAction());
+        String path = createPath(request);
+        String key = method + " " + path;
+        CompiledValidator validator = mValidators.get(key);
+        if (validator == null || !validator.isUpToDate(swagger)) {
+            if (mValidators.size() >= MAX_VALIDATORS) {
+                mValidators.clear();
+            }
+            validator = CompiledValidator.compile(swagger, method, path);
+            mValidators.put(key, validator);
+        }
+        return validator;
+    }
+
+    /**
+     * 保持している {@link CompiledValidator} を破棄します.
+     *
+     * <p>
+     * {@link #findProfileSpec(String)} などで取得した仕様定義のパラメータの値を変更した場合や、
+     * getter で取得したパスのマップを直接変更した場合には、このメソッドを呼び出してください。
+     * </p>
+     */
+    public void clearValidators() {
+        mValidators.clear();
     }
 
     /**
@@ -490,7 +652,7 @@ public class DConnectServiceSpec {
      * @param request リクエスト
      * @return パス
      */
-    private static String createPath(Intent request) {
+    static String createPath(Intent request) {
         String apiName = DConnectProfile.getApi(request);
         String profileName = DConnectProfile.getProfile(request);
         String interfaceName = DConnectProfile.getInterface(request);
@@ -530,13 +692,13 @@ public class DConnectServiceSpec {
     }
 
     /**
-     * ストリームから文字列を読み込みます．
+     * ストリームからデータを読み込みます．
      *
      * @param in ストリーム
-     * @return 文字列
+     * @return データ
      * @throws IOException ストリームの読み込みに失敗した場合に発生
      */
-    private static String loadFile(final InputStream in) throws IOException {
+    private static byte[] loadFile(final InputStream in) throws IOException {
         try {
             byte[] buf = new byte[4096];
             int len;
@@ -544,7 +706,7 @@ public class DConnectServiceSpec {
             while ((len = in.read(buf)) > 0) {
                 out.write(buf, 0, len);
             }
-            return new String(out.toByteArray());
+            return out.toByteArray();
         } finally {
             in.close();
         }
@@ -640,18 +802,20 @@ public class DConnectServiceSpec {
     }
 
     /**
-     * プロファイルの API 定義ファイルのストリームを開きます.
+     * API 定義ファイルを読み込みます.
      *
      * <p>
-     * ストリームを閉じる処理は、メソッドを呼び出した側で行うこと。
+     * 解析した定義ファイルは {@link ProfileSpecCache} でキャッシュします。
+     * 同じプロセスで読み込み済みの場合には、assets の定義ファイルは読み込みません。
      * </p>
      *
-     * @param profileName プロファイル名
-     * @return API定義ファイルへのストリーム
+     * @param path API定義ファイルへのパス
+     * @return プロファイルの仕様定義
      * @throws IOException assetsへのアクセスに失敗した場合
-     * @throws FileNotFoundException ファイルが見つからない場合
+     * @throws JSONException プロファイル定義のJSON構造が不正な場合
      */
-    private InputStream openApiSpec(String profileName)throws IOException {
-        return getContext().getAssets().open(findApiPath(profileName));
+    private Swagger loadProfileSpec(final String path) throws IOException, JSONException {
+        return ProfileSpecCache.getInstance(getContext()).load(path,
+                () -> loadFile(getContext().getAssets().open(path)));
     }
 }
@@ -10,6 +10,7 @@ import android.content.Intent;
 import android.os.Bundle;
 
 import org.deviceconnect.android.profile.spec.models.DataFormat;
+import org.deviceconnect.android.profile.spec.models.Method;
 import org.deviceconnect.android.profile.spec.models.Operation;
 import org.deviceconnect.android.profile.spec.models.Path;
 import org.deviceconnect.android.profile.spec.models.Property;
@@ -32,17 +33,17 @@ public final class OpenAPIValidator {
     /**
      * RGB のパターン解析用の正規表現.
      */
-    private static final Pattern RGB_PATTERN = Pattern.compile("[0-9a-fA-F]{6}");
+    static final Pattern RGB_PATTERN = Pattern.compile("[0-9a-fA-F]{6}");
 
     /**
      * trueの文字列.
      */
-    private static final String TRUE = "true";
+    static final String TRUE = "true";
 
     /**
      * falseの文字列.
      */
-    private static final String FALSE = "false";
+    static final String FALSE = "false";
 
     private OpenAPIValidator() {
     }
@@ -87,14 +88,27 @@ public final class OpenAPIValidator {
      * @return パラメータの仕様リスト
      */
     public static List<Parameter> findParameters(Swagger swagger, Intent request) {
+        return findParameters(swagger, Method.fromAction(request.getAction()), DConnectServiceSpec.createPath(request));
+    }
+
+    /**
+     * 仕様定義されているパラメータの仕様のリストを取得します.
+     *
+     * @param swagger 仕様定義
+     * @param method HTTPメソッド
+     * @param requestPath リクエストのパス
+     * @return パラメータの仕様リスト
+     * @see #findParameters(Swagger, Intent)
+     */
+    static List<Parameter> findParameters(Swagger swagger, Method method, String requestPath) {
         List<Parameter> parameters = new ArrayList<>();
 
-        Operation operation = DConnectServiceSpec.findOperationSpec(swagger, request);
+        Operation operation = DConnectServiceSpec.findOperationSpec(swagger, method, requestPath);
         if (operation != null && operation.getParameters() != null) {
             parameters.addAll(operation.getParameters());
         }
 
-        Path path = DConnectServiceSpec.findPathSpec(swagger, request);
+        Path path = DConnectServiceSpec.findPathSpec(swagger, requestPath);
         if (path != null && path.getParameters() != null) {
             for (Parameter parameter : path.getParameters()) {
                 if (!parameters.contains(parameter)) {
@@ -572,7 +586,7 @@ public final class OpenAPIValidator {
      * @param limit 分割する文字数
      * @return 分割された文字列
      */
-    private static String[] splitString(String str, String delimiter, int limit) {
+    static String[] splitString(String str, String delimiter, int limit) {
         List<String> strings = new ArrayList<>();
         int delimiterLen = delimiter.length();
         if (limit <= 0) {
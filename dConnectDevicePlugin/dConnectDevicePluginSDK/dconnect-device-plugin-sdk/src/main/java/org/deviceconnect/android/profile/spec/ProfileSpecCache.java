@@ -0,0 +1,351 @@
+/*
+ ProfileSpecCache.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.profile.spec;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+
+import org.deviceconnect.android.profile.spec.models.Swagger;
+import org.deviceconnect.android.profile.spec.parser.OpenAPIParser;
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * 解析したプロファイル定義を保持するキャッシュ.
+ *
+ * <p>
+ * 解析した {@link Swagger} は {@link ProfileSpecSerializer} でバイナリ形式に変換して、プロセス内で保持します。
+ * 同じプロファイル定義の読み込みでは、JSON の解析と {@link OpenAPIParser} での変換を行わずにバイナリ形式から復元します。
+ * {@link Swagger} は呼び出し元で変更される可能性があるので、読み込みのたびに新しいインスタンスを作成します。
+ * </p>
+ *
+ * <p>
+ * また、バイナリ形式はキャッシュディレクトリにも保存して、次回以降のプロセスの起動時にも使用します。
+ * </p>
+ *
+ * <p>
+ * キャッシュファイルは定義ファイルの名前で管理し、アプリのバージョンコードと定義ファイルの SHA-1 が
+ * 一致する場合にだけ使用します。定義ファイルの読み込みとハッシュの計算は JSON の解析に比べて十分に速いので、
+ * キャッシュファイルを使用する場合にも定義ファイルは読み込みます。
+ * プロセス内で保持しているプロファイル定義を使用する場合には、定義ファイルは読み込みません。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+final class ProfileSpecCache {
+    /**
+     * キャッシュファイルを格納するディレクトリ名.
+     */
+    private static final String CACHE_DIR_NAME = "org_deviceconnect_android_profile_spec";
+
+    /**
+     * キャッシュファイルの拡張子.
+     */
+    private static final String CACHE_FILE_EXTENSION = ".bin";
+
+    /**
+     * 定義ファイルのハッシュを計算するアルゴリズム.
+     */
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+
+    /**
+     * 定義ファイルのハッシュのサイズ.
+     */
+    private static final int DIGEST_LENGTH = 20;
+
+    /**
+     * アプリのバージョンが分からないことを示す値.
+     */
+    static final long UNKNOWN_VERSION = -1;
+
+    /**
+     * プロセス内で共有するインスタンス.
+     */
+    private static ProfileSpecCache sInstance;
+
+    /**
+     * ロガー.
+     */
+    private final Logger mLogger = Logger.getLogger("org.deviceconnect.dplugin");
+
+    /**
+     * キャッシュファイルを格納するディレクトリ.
+     */
+    private final File mDirectory;
+
+    /**
+     * アプリのバージョンコード.
+     * <p>
+     * {@link ProfileSpecSerializer} の形式はアプリに組み込まれた SDK に依存するので、
+     * 別のバージョンで作成したキャッシュファイルは使用しません。
+     * {@link #UNKNOWN_VERSION} の場合はキャッシュファイルを使用しません。
+     * </p>
+     */
+    private final long mVersion;
+
+    /**
+     * バイナリ形式に変換したプロファイル定義.
+     * <p>
+     * キーは定義ファイルの名前です。
+     * </p>
+     */
+    private final Map<String, byte[]> mSpecs = new HashMap<>();
+
+    /**
+     * コンストラクタ.
+     *
+     * @param directory キャッシュファイルを格納するディレクトリ
+     * @param version アプリのバージョンコード
+     */
+    ProfileSpecCache(final File directory, final long version) {
+        mDirectory = directory;
+        mVersion = version;
+    }
+
+    /**
+     * プロセス内で共有するインスタンスを取得します.
+     *
+     * @param context コンテキスト
+     * @return ProfileSpecCache のインスタンス
+     */
+    static synchronized ProfileSpecCache getInstance(final Context context) {
+        if (sInstance == null) {
+            sInstance = new ProfileSpecCache(new File(context.getCacheDir(), CACHE_DIR_NAME), getVersion(context));
+        }
+        return sInstance;
+    }
+
+    /**
+     * アプリのバージョンコードを取得します.
+     *
+     * @param context コンテキスト
+     * @return アプリのバージョンコード、取得できない場合は {@link #UNKNOWN_VERSION}
+     */
+    @SuppressWarnings("deprecation")
+    private static long getVersion(final Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                return info.getLongVersionCode();
+            }
+            return info.versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            return UNKNOWN_VERSION;
+        }
+    }
+
+    /**
+     * プロファイル定義を読み込みます.
+     *
+     * <p>
+     * プロセス内に無い場合には source から定義ファイルを読み込み、ハッシュが一致するキャッシュファイルがあれば使用します。
+     * </p>
+     *
+     * @param name 定義ファイルの名前
+     * @param source 定義ファイルの読み込み
+     * @return プロファイル定義
+     * @throws IOException 定義ファイルの読み込みに失敗した場合
+     * @throws JSONException プロファイル定義のJSON構造が不正な場合
+     */
+    Swagger load(final String name, final Source source) throws IOException, JSONException {
+        byte[] data;
+        synchronized (mSpecs) {
+            data = mSpecs.get(name);
+        }
+        if (data != null) {
+            return ProfileSpecSerializer.deserialize(data);
+        }
+
+        byte[] json = source.read();
+        byte[] digest = digest(json);
+        File file = getCacheFile(name);
+        data = readCacheFile(file, digest);
+        if (data != null) {
+            try {
+                Swagger swagger = ProfileSpecSerializer.deserialize(data);
+                putSpec(name, data);
+                return swagger;
+            } catch (IOException e) {
+                // キャッシュファイルが壊れている場合には、定義ファイルから変換し直す
+                mLogger.warning("Profile spec cache is broken. name=" + name);
+            }
+        }
+
+        Swagger swagger = OpenAPIParser.parse(new String(json));
+        try {
+            data = ProfileSpecSerializer.serialize(swagger);
+        } catch (IOException e) {
+            // バイナリ形式に変換できない値を含む場合は、キャッシュせずに毎回解析する
+            mLogger.warning("Failed to serialize a profile spec. name=" + name + " " + e.getMessage());
+            return swagger;
+        }
+        putSpec(name, data);
+        writeCacheFile(file, digest, data);
+        return swagger;
+    }
+
+    /**
+     * 定義ファイルのハッシュを計算します.
+     *
+     * @param json 定義ファイルの内容
+     * @return ハッシュ、計算できない場合は null
+     */
+    private byte[] digest(final byte[] json) {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM).digest(json);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * バイナリ形式に変換したプロファイル定義をプロセス内に保持します.
+     *
+     * @param name 定義ファイルの名前
+     * @param data バイナリ形式のプロファイル定義
+     */
+    private void putSpec(final String name, final byte[] data) {
+        synchronized (mSpecs) {
+            mSpecs.put(name, data);
+        }
+    }
+
+    /**
+     * 定義ファイルの名前からキャッシュファイルを取得します.
+     *
+     * @param name 定義ファイルの名前
+     * @return キャッシュファイル
+     */
+    private File getCacheFile(final String name) {
+        return new File(mDirectory, name.replace('/', '_') + CACHE_FILE_EXTENSION);
+    }
+
+    /**
+     * キャッシュファイルを読み込みます.
+     *
+     * <p>
+     * キャッシュファイルが存在しない場合や、アプリのバージョンコードまたは定義ファイルのハッシュが
+     * 一致しない場合には null を返却します。
+     * </p>
+     *
+     * @param file キャッシュファイル
+     * @param digest 定義ファイルのハッシュ
+     * @return バイナリ形式のプロファイル定義
+     */
+    private byte[] readCacheFile(final File file, final byte[] digest) {
+        if (mVersion == UNKNOWN_VERSION || digest == null || !file.isFile()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readLong() != mVersion) {
+                return null;
+            }
+            byte[] fileDigest = new byte[DIGEST_LENGTH];
+            in.readFully(fileDigest);
+            if (!Arrays.equals(fileDigest, digest)) {
+                return null;
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore.
+                }
+            }
+        }
+    }
+
+    /**
+     * キャッシュファイルを書き込みます.
+     *
+     * <p>
+     * 書き込み途中のファイルが読み込まれないように、一時ファイルに書き込んでから名前を変更します。
+     * 書き込みに失敗した場合には、次回の起動時に定義ファイルから変換し直します。
+     * </p>
+     *
+     * @param file キャッシュファイル
+     * @param digest 定義ファイルのハッシュ
+     * @param data バイナリ形式のプロファイル定義
+     */
+    private void writeCacheFile(final File file, final byte[] digest, final byte[] data) {
+        if (mVersion == UNKNOWN_VERSION || digest == null || digest.length != DIGEST_LENGTH) {
+            return;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            mLogger.warning("Failed to create a profile spec cache directory.");
+            return;
+        }
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tmpFile));
+            out.writeLong(mVersion);
+            out.write(digest);
+            out.write(data);
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(file)) {
+                mLogger.warning("Failed to rename a profile spec cache file.");
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            mLogger.warning("Failed to write a profile spec cache file. " + e.getMessage());
+            tmpFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore.
+                }
+            }
+        }
+    }
+
+    /**
+     * 定義ファイルを読み込むインターフェース.
+     */
+    interface Source {
+        /**
+         * 定義ファイルを読み込みます.
+         *
+         * @return 定義ファイルの内容
+         * @throws IOException 定義ファイルの読み込みに失敗した場合
+         */
+        byte[] read() throws IOException;
+    }
+}
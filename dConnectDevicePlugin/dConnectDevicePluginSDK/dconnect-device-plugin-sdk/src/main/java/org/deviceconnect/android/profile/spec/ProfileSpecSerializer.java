@@ -0,0 +1,515 @@
+/*
+ ProfileSpecSerializer.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.profile.spec;
+
+import android.os.Bundle;
+
+import org.deviceconnect.android.profile.spec.models.DConnectSpec;
+import org.deviceconnect.android.profile.spec.models.Swagger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 解析済みのプロファイル定義をバイナリ形式に変換するクラス.
+ *
+ * <p>
+ * {@link ProfileSpecCache} でプロファイル定義を保持するために使用します。
+ * 復元のたびに新しいインスタンスを作成するので、復元した {@link Swagger} を呼び出し元で変更しても、
+ * 保持しているプロファイル定義には影響しません。
+ * </p>
+ *
+ * <p>
+ * {@link Swagger} などのモデルのフィールドをそのまま書き込むので、復元の際に JSON の解析や
+ * {@link org.deviceconnect.android.profile.spec.parser.OpenAPIParser} での変換を行いません。
+ * </p>
+ *
+ * <p>
+ * モデルのクラス名とフィールド名を格納するので、モデルのクラスが変わった場合には復元できません。
+ * {@link ProfileSpecCache} ではアプリのバージョンコードでキャッシュファイルを管理しているので、
+ * モデルのクラスが変わったアプリで古いキャッシュファイルを読み込むことはありません。
+ * </p>
+ *
+ * <p>
+ * モデルのフィールドは getter で null と既定値を区別できないものがあるので、リフレクションで読み書きします。
+ * 難読化されたアプリでもクラス名とフィールド名が変わらないように、consumer-rules.pro でモデルのクラスを保持します。
+ * </p>
+ *
+ * <p>
+ * キーや文字列は文字列テーブルにまとめて1回だけ格納します。
+ * 復元の際には、{@link DConnectSpec} を実装したクラスと列挙型以外のクラスは作成しません。
+ * Bundle に格納されたベンダー拡張は、String、Boolean、Integer、Long、Double、Bundle、ArrayList の値だけに対応します。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+final class ProfileSpecSerializer {
+    /**
+     * バイナリ形式の識別子.
+     */
+    private static final int MAGIC = 0x44435350; // "DCSP"
+
+    /**
+     * バイナリ形式のバージョン.
+     */
+    private static final int VERSION = 1;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_TRUE = 2;
+    private static final byte TYPE_FALSE = 3;
+    private static final byte TYPE_INT = 4;
+    private static final byte TYPE_LONG = 5;
+    private static final byte TYPE_DOUBLE = 6;
+    private static final byte TYPE_ENUM = 7;
+    private static final byte TYPE_SPEC = 8;
+    private static final byte TYPE_LIST = 9;
+    private static final byte TYPE_MAP = 10;
+    private static final byte TYPE_LINKED_MAP = 11;
+    private static final byte TYPE_JSON_OBJECT = 12;
+    private static final byte TYPE_JSON_ARRAY = 13;
+    private static final byte TYPE_JSON_NULL = 14;
+    private static final byte TYPE_BUNDLE = 15;
+
+    /**
+     * 文字列の文字コード.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * クラスごとの変換するフィールドのキャッシュ.
+     * <p>
+     * フィールドのマップのキーは、フィールドを宣言したクラス名とフィールド名を # で繋げた文字列です。
+     * </p>
+     */
+    private static final Map<Class<?>, Map<String, Field>> sFields = new HashMap<>();
+
+    private ProfileSpecSerializer() {
+    }
+
+    /**
+     * プロファイル定義をバイナリ形式に変換します.
+     *
+     * @param swagger プロファイル定義
+     * @return バイナリ形式のデータ
+     * @throws IOException 変換できない値が含まれる場合に発生
+     */
+    static byte[] serialize(final Swagger swagger) throws IOException {
+        if (swagger == null) {
+            throw new IllegalArgumentException("swagger is null.");
+        }
+
+        Writer writer = new Writer();
+        writer.writeValue(swagger);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(writer.mStrings.size());
+        for (String s : writer.mStrings) {
+            byte[] b = s.getBytes(UTF8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+        writer.mOut.flush();
+        writer.mBody.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * バイナリ形式のデータからプロファイル定義を復元します.
+     *
+     * @param data {@link #serialize(Swagger)} で変換したデータ
+     * @return プロファイル定義
+     * @throws IOException データのフォーマットが不正な場合に発生
+     */
+    static Swagger deserialize(final byte[] data) throws IOException {
+        if (data == null) {
+            throw new IllegalArgumentException("data is null.");
+        }
+
+        try {
+            ByteBuffer in = ByteBuffer.wrap(data);
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Unsupported format.");
+            }
+
+            String[] strings = new String[readCount(in)];
+            for (int i = 0; i < strings.length; i++) {
+                int length = readCount(in);
+                strings[i] = new String(data, in.position(), length, UTF8);
+                in.position(in.position() + length);
+            }
+
+            Object swagger = new Reader(in, strings).readValue();
+            if (!(swagger instanceof Swagger)) {
+                throw new IOException("Root is not a swagger.");
+            }
+            return (Swagger) swagger;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | ClassCastException | JSONException e) {
+            throw new IOException("Invalid format. " + e.getMessage());
+        }
+    }
+
+    /**
+     * 要素数を読み込みます.
+     *
+     * @param in 読み込み元
+     * @return 要素数
+     * @throws IOException 要素数が不正な場合に発生
+     */
+    private static int readCount(final ByteBuffer in) throws IOException {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining()) {
+            throw new IOException("Invalid count. " + count);
+        }
+        return count;
+    }
+
+    /**
+     * 変換するフィールドを取得します.
+     *
+     * <p>
+     * 親クラスのフィールドも含めて、static 以外のフィールドを返却します。
+     * </p>
+     *
+     * @param clazz クラス
+     * @return フィールドのマップ
+     */
+    private static Map<String, Field> getFields(final Class<?> clazz) {
+        synchronized (sFields) {
+            Map<String, Field> fields = sFields.get(clazz);
+            if (fields == null) {
+                fields = new LinkedHashMap<>();
+                for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                            field.setAccessible(true);
+                            fields.put(c.getName() + "#" + field.getName(), field);
+                        }
+                    }
+                }
+                sFields.put(clazz, fields);
+            }
+            return fields;
+        }
+    }
+
+    /**
+     * バイナリ形式への書き込みを行うクラス.
+     */
+    private static class Writer {
+        private final ByteArrayOutputStream mBody = new ByteArrayOutputStream();
+        private final DataOutputStream mOut = new DataOutputStream(mBody);
+        private final Map<String, Integer> mStringIndex = new HashMap<>();
+        private final List<String> mStrings = new ArrayList<>();
+
+        @SuppressWarnings("unchecked")
+        void writeValue(final Object value) throws IOException {
+            if (value == null) {
+                mOut.writeByte(TYPE_NULL);
+            } else if (value instanceof String) {
+                mOut.writeByte(TYPE_STRING);
+                writeString((String) value);
+            } else if (value instanceof Boolean) {
+                mOut.writeByte((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+            } else if (value instanceof Integer) {
+                mOut.writeByte(TYPE_INT);
+                mOut.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                mOut.writeByte(TYPE_LONG);
+                mOut.writeLong((Long) value);
+            } else if (value instanceof Double) {
+                mOut.writeByte(TYPE_DOUBLE);
+                mOut.writeDouble((Double) value);
+            } else if (value instanceof Enum) {
+                mOut.writeByte(TYPE_ENUM);
+                writeString(((Enum<?>) value).getDeclaringClass().getName());
+                writeString(((Enum<?>) value).name());
+            } else if (value instanceof DConnectSpec) {
+                writeSpec(value);
+            } else if (value instanceof List) {
+                List<Object> list = (List<Object>) value;
+                mOut.writeByte(TYPE_LIST);
+                mOut.writeInt(list.size());
+                for (Object o : list) {
+                    writeValue(o);
+                }
+            } else if (value instanceof Map) {
+                Map<Object, Object> map = (Map<Object, Object>) value;
+                mOut.writeByte(map instanceof LinkedHashMap ? TYPE_LINKED_MAP : TYPE_MAP);
+                mOut.writeInt(map.size());
+                for (Map.Entry<Object, Object> entry : map.entrySet()) {
+                    writeValue(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            } else if (value instanceof JSONObject) {
+                writeJSONObject((JSONObject) value);
+            } else if (value instanceof JSONArray) {
+                writeJSONArray((JSONArray) value);
+            } else if (value == JSONObject.NULL) {
+                mOut.writeByte(TYPE_JSON_NULL);
+            } else if (value instanceof Bundle) {
+                writeBundle((Bundle) value);
+            } else {
+                throw new IOException("Unsupported value. " + value.getClass().getName());
+            }
+        }
+
+        private void writeSpec(final Object spec) throws IOException {
+            Map<String, Object> values = new LinkedHashMap<>();
+            try {
+                for (Map.Entry<String, Field> entry : getFields(spec.getClass()).entrySet()) {
+                    Object value = entry.getValue().get(spec);
+                    if (value != null) {
+                        values.put(entry.getKey(), value);
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IOException("Failed to serialize " + spec.getClass().getName());
+            }
+
+            mOut.writeByte(TYPE_SPEC);
+            writeString(spec.getClass().getName());
+            mOut.writeInt(values.size());
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                writeString(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+
+        private void writeJSONObject(final JSONObject jsonObject) throws IOException {
+            mOut.writeByte(TYPE_JSON_OBJECT);
+            mOut.writeInt(jsonObject.length());
+            try {
+                for (Iterator<String> it = jsonObject.keys(); it.hasNext();) {
+                    String key = it.next();
+                    writeString(key);
+                    writeValue(jsonObject.get(key));
+                }
+            } catch (JSONException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        private void writeJSONArray(final JSONArray jsonArray) throws IOException {
+            mOut.writeByte(TYPE_JSON_ARRAY);
+            mOut.writeInt(jsonArray.length());
+            try {
+                for (int i = 0; i < jsonArray.length(); i++) {
+                    writeValue(jsonArray.get(i));
+                }
+            } catch (JSONException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        private void writeBundle(final Bundle bundle) throws IOException {
+            mOut.writeByte(TYPE_BUNDLE);
+            mOut.writeInt(bundle.keySet().size());
+            for (String key : bundle.keySet()) {
+                Object value = bundle.get(key);
+                if (value instanceof JSONObject || value instanceof JSONArray || value instanceof DConnectSpec
+                        || value instanceof Map || value instanceof Enum) {
+                    // Bundle に格納できない値
+                    throw new IOException("Unsupported value in a bundle. " + value.getClass().getName());
+                }
+                writeString(key);
+                writeValue(value);
+            }
+        }
+
+        private void writeString(final String s) throws IOException {
+            Integer index = mStringIndex.get(s);
+            if (index == null) {
+                index = mStrings.size();
+                mStringIndex.put(s, index);
+                mStrings.add(s);
+            }
+            mOut.writeInt(index);
+        }
+    }
+
+    /**
+     * バイナリ形式からの読み込みを行うクラス.
+     */
+    private static class Reader {
+        private final ByteBuffer mIn;
+        private final String[] mStrings;
+
+        /**
+         * 文字列テーブルのインデックスごとのクラスのキャッシュ.
+         */
+        private final Class<?>[] mClasses;
+
+        Reader(final ByteBuffer in, final String[] strings) {
+            mIn = in;
+            mStrings = strings;
+            mClasses = new Class<?>[strings.length];
+        }
+
+        @SuppressWarnings("unchecked")
+        Object readValue() throws IOException, JSONException {
+            byte type = mIn.get();
+            switch (type) {
+                case TYPE_NULL:
+                    return null;
+                case TYPE_STRING:
+                    return readString();
+                case TYPE_TRUE:
+                    return Boolean.TRUE;
+                case TYPE_FALSE:
+                    return Boolean.FALSE;
+                case TYPE_INT:
+                    return mIn.getInt();
+                case TYPE_LONG:
+                    return mIn.getLong();
+                case TYPE_DOUBLE:
+                    return mIn.getDouble();
+                case TYPE_ENUM: {
+                    Class<?> clazz = readClass();
+                    if (!clazz.isEnum()) {
+                        throw new IOException("Not an enum. " + clazz.getName());
+                    }
+                    return Enum.valueOf((Class<Enum>) clazz, readString());
+                }
+                case TYPE_SPEC:
+                    return readSpec();
+                case TYPE_LIST: {
+                    int count = readCount(mIn);
+                    List<Object> list = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                case TYPE_MAP:
+                case TYPE_LINKED_MAP: {
+                    int count = readCount(mIn);
+                    Map<Object, Object> map = type == TYPE_LINKED_MAP ? new LinkedHashMap<>() : new HashMap<>();
+                    for (int i = 0; i < count; i++) {
+                        Object key = readValue();
+                        map.put(key, readValue());
+                    }
+                    return map;
+                }
+                case TYPE_JSON_OBJECT: {
+                    int count = readCount(mIn);
+                    JSONObject jsonObject = new JSONObject();
+                    for (int i = 0; i < count; i++) {
+                        String key = readString();
+                        jsonObject.put(key, readValue());
+                    }
+                    return jsonObject;
+                }
+                case TYPE_JSON_ARRAY: {
+                    int count = readCount(mIn);
+                    JSONArray jsonArray = new JSONArray();
+                    for (int i = 0; i < count; i++) {
+                        jsonArray.put(readValue());
+                    }
+                    return jsonArray;
+                }
+                case TYPE_JSON_NULL:
+                    return JSONObject.NULL;
+                case TYPE_BUNDLE:
+                    return readBundle();
+                default:
+                    throw new IOException("Unknown type. " + type);
+            }
+        }
+
+        private Object readSpec() throws IOException, JSONException {
+            Class<?> clazz = readClass();
+            if (!DConnectSpec.class.isAssignableFrom(clazz)) {
+                throw new IOException("Not a spec. " + clazz.getName());
+            }
+
+            Map<String, Field> fields = getFields(clazz);
+            try {
+                Object spec = clazz.newInstance();
+                int count = readCount(mIn);
+                for (int i = 0; i < count; i++) {
+                    Field field = fields.get(readString());
+                    if (field == null) {
+                        throw new IOException("Unknown field in " + clazz.getName());
+                    }
+                    field.set(spec, readValue());
+                }
+                return spec;
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new IOException("Failed to deserialize " + clazz.getName());
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Bundle readBundle() throws IOException, JSONException {
+            int count = readCount(mIn);
+            Bundle bundle = new Bundle();
+            for (int i = 0; i < count; i++) {
+                String key = readString();
+                Object value = readValue();
+                if (value == null) {
+                    bundle.putString(key, null);
+                } else if (value instanceof String) {
+                    bundle.putString(key, (String) value);
+                } else if (value instanceof Boolean) {
+                    bundle.putBoolean(key, (Boolean) value);
+                } else if (value instanceof Integer) {
+                    bundle.putInt(key, (Integer) value);
+                } else if (value instanceof Long) {
+                    bundle.putLong(key, (Long) value);
+                } else if (value instanceof Double) {
+                    bundle.putDouble(key, (Double) value);
+                } else if (value instanceof Bundle) {
+                    bundle.putBundle(key, (Bundle) value);
+                } else if (value instanceof List) {
+                    bundle.putParcelableArrayList(key, new ArrayList((List) value));
+                } else {
+                    throw new IOException("Unsupported value in a bundle. " + value.getClass().getName());
+                }
+            }
+            return bundle;
+        }
+
+        private String readString() {
+            return mStrings[mIn.getInt()];
+        }
+
+        private Class<?> readClass() throws IOException {
+            int index = mIn.getInt();
+            Class<?> clazz = mClasses[index];
+            if (clazz == null) {
+                try {
+                    clazz = Class.forName(mStrings[index]);
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Unknown class. " + mStrings[index]);
+                }
+                mClasses[index] = clazz;
+            }
+            return clazz;
+        }
+    }
+}
@@ -12,6 +12,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ベンダー拡張を格納するオブジェクト.
@@ -19,6 +20,11 @@ import java.util.Map;
  * @author NTT DOCOMO, INC.
  */
 public abstract class AbstractSpec implements DConnectSpec {
+    /**
+     * API 定義の構成を変更した回数.
+     */
+    private static final AtomicInteger sStructureVersion = new AtomicInteger();
+
     /**
      * ベンダー拡張.
      */
@@ -68,6 +74,28 @@ public abstract class AbstractSpec implements DConnectSpec {
         return null;
     }
 
+    /**
+     * API 定義の構成のバージョンを取得します.
+     *
+     * <p>
+     * ベースパス、パス、HTTPメソッドごとの Operation、パラメータのリストを setter などで変更するたびに値が変わります。
+     * プロセス内の全ての API 定義で共有する値なので、値が変わった場合でも、ある API 定義が変更されたとは限りません。
+     * getter で取得したリストやマップを直接変更した場合には値は変わりません。
+     * </p>
+     *
+     * @return API 定義の構成のバージョン
+     */
+    public static int getStructureVersion() {
+        return sStructureVersion.get();
+    }
+
+    /**
+     * API 定義の構成を変更したことを通知します.
+     */
+    protected static void updateStructureVersion() {
+        sStructureVersion.incrementAndGet();
+    }
+
     /**
      * Number の値を Bundle に格納します.
      *
@@ -345,6 +345,7 @@ public class Operation extends AbstractSpec {
      */
     public void setParameters(List<Parameter> parameters) {
         mParameters = parameters;
+        updateStructureVersion();
     }
 
     /**
@@ -357,6 +358,7 @@ public class Operation extends AbstractSpec {
             mParameters = new ArrayList<>();
         }
         mParameters.add(parameter);
+        updateStructureVersion();
     }
 
     /**
@@ -367,7 +369,9 @@ public class Operation extends AbstractSpec {
      */
     public boolean removeParameter(Parameter parameter) {
         if (mParameters != null) {
-            return mParameters.remove(parameter);
+            boolean removed = mParameters.remove(parameter);
+            updateStructureVersion();
+            return removed;
         }
         return false;
     }
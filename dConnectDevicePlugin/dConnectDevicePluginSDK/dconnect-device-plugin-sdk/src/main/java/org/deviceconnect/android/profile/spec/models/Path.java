@@ -91,6 +91,7 @@ public class Path extends AbstractSpec {
             default:
                 break;
         }
+        updateStructureVersion();
     }
 
     /**
@@ -140,6 +141,7 @@ public class Path extends AbstractSpec {
      */
     public void setGet(Operation get) {
         mGet = get;
+        updateStructureVersion();
     }
 
     /**
@@ -162,6 +164,7 @@ public class Path extends AbstractSpec {
      */
     public void setPut(Operation put) {
         mPut = put;
+        updateStructureVersion();
     }
 
     /**
@@ -184,6 +187,7 @@ public class Path extends AbstractSpec {
      */
     public void setPost(Operation post) {
         mPost = post;
+        updateStructureVersion();
     }
 
     /**
@@ -206,6 +210,7 @@ public class Path extends AbstractSpec {
      */
     public void setDelete(Operation delete) {
         mDelete = delete;
+        updateStructureVersion();
     }
 
     /**
@@ -228,6 +233,7 @@ public class Path extends AbstractSpec {
      */
     public void setHead(Operation head) {
         mHead = head;
+        updateStructureVersion();
     }
 
     /**
@@ -250,6 +256,7 @@ public class Path extends AbstractSpec {
      */
     public void setPatch(Operation patch) {
         mPatch = patch;
+        updateStructureVersion();
     }
 
     /**
@@ -272,6 +279,7 @@ public class Path extends AbstractSpec {
      */
     public void setOptions(Operation options) {
         mOptions = options;
+        updateStructureVersion();
     }
 
     /**
@@ -290,6 +298,7 @@ public class Path extends AbstractSpec {
      */
     public void setParameters(List<Parameter> parameters) {
         mParameters = parameters;
+        updateStructureVersion();
     }
 
     /**
@@ -302,6 +311,7 @@ public class Path extends AbstractSpec {
             mParameters = new ArrayList<>();
         }
         mParameters.add(parameter);
+        updateStructureVersion();
     }
 
     @Override
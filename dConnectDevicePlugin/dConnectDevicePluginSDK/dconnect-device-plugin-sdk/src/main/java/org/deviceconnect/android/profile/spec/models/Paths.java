@@ -42,6 +42,7 @@ public class Paths extends AbstractSpec {
      */
     public void setPaths(Map<String, Path> paths) {
         mPaths = paths;
+        updateStructureVersion();
     }
 
     /**
@@ -55,6 +56,7 @@ public class Paths extends AbstractSpec {
             mPaths = new HashMap<>();
         }
         mPaths.put(key, path);
+        updateStructureVersion();
     }
 
     /**
@@ -64,7 +66,9 @@ public class Paths extends AbstractSpec {
      */
     public Path removePath(String key) {
         if (mPaths != null) {
-            return mPaths.remove(key);
+            Path path = mPaths.remove(key);
+            updateStructureVersion();
+            return path;
         }
         return null;
     }
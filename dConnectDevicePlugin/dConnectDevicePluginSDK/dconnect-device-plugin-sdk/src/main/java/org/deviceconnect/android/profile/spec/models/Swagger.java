@@ -154,6 +154,7 @@ public class Swagger extends AbstractSpec {
      */
     public void setBasePath(String basePath) {
         mBasePath = basePath;
+        updateStructureVersion();
     }
 
     /**
@@ -319,6 +320,7 @@ public class Swagger extends AbstractSpec {
      */
     public void setPaths(Paths paths) {
         mPaths = paths;
+        updateStructureVersion();
     }
 
     /**
@@ -398,6 +400,7 @@ public class Swagger extends AbstractSpec {
      */
     public void setParameters(Map<String, Parameter> parameters) {
         mParameters = parameters;
+        updateStructureVersion();
     }
 
     /**
@@ -411,6 +414,7 @@ public class Swagger extends AbstractSpec {
             mParameters = new HashMap<>();
         }
         mParameters.put(key, parameter);
+        updateStructureVersion();
     }
 
     /**
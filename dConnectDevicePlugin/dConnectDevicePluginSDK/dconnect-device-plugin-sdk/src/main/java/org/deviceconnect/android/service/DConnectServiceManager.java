@@ -102,9 +102,10 @@ public class DConnectServiceManager implements DConnectServiceProvider, DConnect
             profile.setResponder(getPluginContext());
 
             // プロファイルの定義ファイルが既に登録されている場合は、そのままにしておく
-            if (spec.findProfileSpec(profile.getProfileName()) == null) {
+            // 定義ファイルの解析は、最初に参照された時に行う
+            if (!spec.hasProfileSpec(profile.getProfileName())) {
                 try {
-                    spec.addProfileSpec(profile.getProfileName());
+                    spec.addProfileSpecLazily(profile.getProfileName());
                 } catch (Exception e) {
                     // プロファイル定義ファイルが不正の場合は無視
                 }
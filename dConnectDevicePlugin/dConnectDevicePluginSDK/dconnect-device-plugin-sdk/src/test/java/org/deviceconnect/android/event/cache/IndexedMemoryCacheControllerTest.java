@@ -0,0 +1,214 @@
+/*
+ IndexedMemoryCacheControllerTest.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.event.cache;
+
+import org.deviceconnect.android.event.Event;
+import org.deviceconnect.android.event.EventError;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class IndexedMemoryCacheControllerTest {
+
+    private IndexedMemoryCacheController mController;
+
+    @Before
+    public void setUp() {
+        mController = new IndexedMemoryCacheController();
+    }
+
+    /**
+     * 登録したイベントが (サービスID, プロファイル, インターフェース, 属性) とオリジンで取得できること.
+     */
+    @Test
+    public void testAddEvent() {
+        Event event = createEvent("service", "deviceorientation", null, "ondeviceorientation", "origin1", "receiver");
+        assertThat(mController.addEvent(event), is(EventError.NONE));
+
+        List<Event> events = mController.getEvents("service", "deviceorientation", null, "ondeviceorientation");
+        assertThat(events.size(), is(1));
+        assertThat(events.get(0), is(sameInstance(event)));
+        assertThat(event.getCreateDate(), is(notNullValue()));
+
+        assertThat(mController.getEvents("origin1").size(), is(1));
+        assertThat(mController.getEvents("service", "deviceorientation", "x", "ondeviceorientation").size(), is(0));
+        assertThat(mController.getEvents("other", "deviceorientation", null, "ondeviceorientation").size(), is(0));
+
+        Event found = mController.getEvent("service", "deviceorientation", null, "ondeviceorientation",
+                "origin1", "receiver");
+        assertThat(found, is(sameInstance(event)));
+    }
+
+    /**
+     * 同じオリジン・レシーバーのイベントを登録した場合はアクセストークンが上書きされること.
+     * 上書き前に取得したイベントデータは変更されないこと.
+     */
+    @Test
+    public void testAddEvent_duplicate() {
+        Event event = createEvent("service", "battery", null, "onchargingchange", "origin1", "receiver");
+        event.setAccessToken("token1");
+        mController.addEvent(event);
+        List<Event> snapshot = mController.getEvents("service", "battery", null, "onchargingchange");
+
+        Event event2 = createEvent("service", "battery", null, "onchargingchange", "origin1", "receiver");
+        event2.setAccessToken("token2");
+        assertThat(mController.addEvent(event2), is(EventError.NONE));
+
+        List<Event> events = mController.getEvents("service", "battery", null, "onchargingchange");
+        assertThat(events.size(), is(1));
+        assertThat(events.get(0).getAccessToken(), is("token2"));
+        assertThat(events.get(0).getCreateDate(), is(event.getCreateDate()));
+        assertThat(mController.getEvents("origin1").size(), is(1));
+        assertThat(mController.getEvents("origin1").get(0), is(sameInstance(events.get(0))));
+
+        assertThat(snapshot.get(0), is(sameInstance(event)));
+        assertThat(event.getAccessToken(), is("token1"));
+
+        // 置き換えたイベントデータも削除できること
+        assertThat(mController.removeEvent(event2), is(EventError.NONE));
+        assertThat(mController.getEvents("origin1").size(), is(0));
+    }
+
+    /**
+     * 取得したリストを変更してもキャッシュに影響しないこと.
+     */
+    @Test
+    public void testGetEvents_copy() {
+        Event event = createEvent("service", "battery", null, "onchargingchange", "origin1", "receiver");
+        mController.addEvent(event);
+
+        mController.getEvents("service", "battery", null, "onchargingchange").clear();
+        mController.getEvents("origin1").add(createEvent("service", "battery", null, "onchargingchange", "origin2", null));
+        mController.getEvents("service", "battery", null, "light").add(event);
+
+        assertThat(mController.getEvents("service", "battery", null, "onchargingchange").size(), is(1));
+        assertThat(mController.getEvents("origin1").size(), is(1));
+        assertThat(mController.getEvents("service", "battery", null, "light").size(), is(0));
+    }
+
+    /**
+     * プロファイルまたはオリジンが無いイベントは登録できないこと.
+     */
+    @Test
+    public void testAddEvent_invalid() {
+        assertThat(mController.addEvent(null), is(EventError.INVALID_PARAMETER));
+        assertThat(mController.addEvent(createEvent("service", null, null, "a", "origin", null)),
+                is(EventError.INVALID_PARAMETER));
+        assertThat(mController.addEvent(createEvent("service", "battery", null, "a", null, null)),
+                is(EventError.INVALID_PARAMETER));
+    }
+
+    /**
+     * イベントを削除した場合に、両方のインデックスから削除されること.
+     * 削除前に取得したリストは変更されないこと.
+     */
+    @Test
+    public void testRemoveEvent() {
+        Event event1 = createEvent("service", "battery", null, "onchargingchange", "origin1", "receiver");
+        Event event2 = createEvent("service", "battery", null, "onchargingchange", "origin2", "receiver");
+        mController.addEvent(event1);
+        mController.addEvent(event2);
+
+        List<Event> snapshot = mController.getEvents("service", "battery", null, "onchargingchange");
+        assertThat(snapshot.size(), is(2));
+
+        Event remove = createEvent("service", "battery", null, "onchargingchange", "origin1", "receiver");
+        assertThat(mController.removeEvent(remove), is(EventError.NONE));
+        assertThat(mController.removeEvent(remove), is(EventError.NOT_FOUND));
+
+        List<Event> events = mController.getEvents("service", "battery", null, "onchargingchange");
+        assertThat(events.size(), is(1));
+        assertThat(events.get(0), is(sameInstance(event2)));
+        assertThat(mController.getEvents("origin1").size(), is(0));
+        assertThat(snapshot.size(), is(2));
+    }
+
+    /**
+     * オリジンに紐づくイベントを全て削除できること.
+     */
+    @Test
+    public void testRemoveEvents() {
+        mController.addEvent(createEvent("service1", "battery", null, "onchargingchange", "origin1", null));
+        mController.addEvent(createEvent("service2", "battery", null, "onchargingchange", "origin1", null));
+        mController.addEvent(createEvent("service1", "battery", null, "onchargingchange", "origin2", null));
+
+        assertThat(mController.removeEvents("origin1"), is(true));
+
+        assertThat(mController.getEvents("origin1").size(), is(0));
+        assertThat(mController.getEvents("service1", "battery", null, "onchargingchange").size(), is(1));
+        assertThat(mController.getEvents("service2", "battery", null, "onchargingchange").size(), is(0));
+        assertThat(mController.getEvents("origin2").size(), is(1));
+    }
+
+    /**
+     * 全てのイベントを削除できること.
+     */
+    @Test
+    public void testRemoveAll() {
+        mController.addEvent(createEvent("service1", "battery", null, "onchargingchange", "origin1", null));
+        mController.addEvent(createEvent(null, "battery", null, "onchargingchange", "origin2", null));
+
+        assertThat(mController.getEvents(null, "battery", null, "onchargingchange").size(), is(1));
+        assertThat(mController.removeAll(), is(true));
+        assertThat(mController.getEvents("origin1").size(), is(0));
+        assertThat(mController.getEvents(null, "battery", null, "onchargingchange").size(), is(0));
+        assertThat(mController.getEvent(null, "battery", null, "onchargingchange", "origin2", null),
+                is(nullValue()));
+    }
+
+    /**
+     * イベントの登録・解除と並行して取得したリストに、登録済みのイベントが全て含まれること.
+     */
+    @Test
+    public void testGetEvents_concurrent() throws Exception {
+        final int origins = 10;
+        for (int i = 0; i < origins; i++) {
+            mController.addEvent(createEvent("service", "battery", null, "onchargingchange", "origin" + i, null));
+        }
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            while (running.get()) {
+                Event event = createEvent("service", "battery", null, "onchargingchange", "subscriber", null);
+                mController.addEvent(event);
+                mController.removeEvent(event);
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 10000; i++) {
+                int size = mController.getEvents("service", "battery", null, "onchargingchange").size();
+                // 登録・解除中のイベントが含まれる場合がある
+                assertThat(size == origins || size == origins + 1, is(true));
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        assertThat(mController.getEvents("service", "battery", null, "onchargingchange").size(), is(origins));
+    }
+
+    private static Event createEvent(final String serviceId, final String profile, final String inter,
+                                     final String attribute, final String origin, final String receiver) {
+        Event event = new Event();
+        event.setServiceId(serviceId);
+        event.setProfile(profile);
+        event.setInterface(inter);
+        event.setAttribute(attribute);
+        event.setOrigin(origin);
+        event.setReceiverName(receiver);
+        return event;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ JournalCacheControllerTest.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.event.cache;
+
+import org.deviceconnect.android.event.Event;
+import org.deviceconnect.android.event.EventError;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.sql.Timestamp;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class JournalCacheControllerTest {
+
+    private static final String JOURNAL_FILE = "org_deviceconnect_android_event_cache.journal";
+
+    private static final String SNAPSHOT_FILE = "org_deviceconnect_android_event_cache.snapshot";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = mFolder.newFolder();
+    }
+
+    /**
+     * 再起動後にジャーナルからイベントが復元されること.
+     */
+    @Test
+    public void testReplay() {
+        JournalCacheController controller = new JournalCacheController(mDirectory, 100);
+        Event event1 = createEvent("service1", "origin1", "receiver");
+        event1.setAccessToken("token1");
+        controller.addEvent(event1);
+        controller.addEvent(createEvent("service1", "origin2", null));
+        controller.addEvent(createEvent("service2", "origin2", null));
+        controller.addEvent(createEvent("service3", "origin3", null));
+        controller.removeEvent(createEvent("service3", "origin3", null));
+        controller.removeEvents("origin2");
+        Timestamp createDate = event1.getCreateDate();
+        controller.close();
+
+        JournalCacheController restored = new JournalCacheController(mDirectory, 100);
+        List<Event> events = restored.getEvents("service1", "battery", null, "onchargingchange");
+        assertThat(events.size(), is(1));
+        assertThat(events.get(0).getOrigin(), is("origin1"));
+        assertThat(events.get(0).getReceiverName(), is("receiver"));
+        assertThat(events.get(0).getAccessToken(), is("token1"));
+        assertThat(events.get(0).getCreateDate(), is(createDate));
+        assertThat(restored.getEvents("origin2").size(), is(0));
+        assertThat(restored.getEvents("origin3").size(), is(0));
+        restored.close();
+    }
+
+    /**
+     * 全てのイベントを削除した後に再起動した場合は、イベントが復元されないこと.
+     */
+    @Test
+    public void testReplay_removeAll() {
+        JournalCacheController controller = new JournalCacheController(mDirectory, 100);
+        controller.addEvent(createEvent("service1", "origin1", null));
+        controller.removeAll();
+        controller.addEvent(createEvent("service2", "origin2", null));
+        controller.close();
+
+        JournalCacheController restored = new JournalCacheController(mDirectory, 100);
+        assertThat(restored.getEvents("origin1").size(), is(0));
+        assertThat(restored.getEvents("origin2").size(), is(1));
+        restored.close();
+    }
+
+    /**
+     * 最後のレコードの書き込み中にプロセスが終了した場合は、途中までのレコードが復元され、
+     * その後の登録が正しく追記されること.
+     */
+    @Test
+    public void testRecover_truncated() throws Exception {
+        JournalCacheController controller = new JournalCacheController(mDirectory, 100);
+        controller.addEvent(createEvent("service1", "origin1", null));
+        controller.addEvent(createEvent("service2", "origin2", null));
+        controller.close();
+
+        File journal = new File(mDirectory, JOURNAL_FILE);
+        truncate(journal, journal.length() - 3);
+
+        JournalCacheController restored = new JournalCacheController(mDirectory, 100);
+        assertThat(restored.getEvents("origin1").size(), is(1));
+        assertThat(restored.getEvents("origin2").size(), is(0));
+        restored.addEvent(createEvent("service3", "origin3", null));
+        restored.close();
+
+        JournalCacheController restored2 = new JournalCacheController(mDirectory, 100);
+        assertThat(restored2.getEvents("origin1").size(), is(1));
+        assertThat(restored2.getEvents("origin2").size(), is(0));
+        assertThat(restored2.getEvents("origin3").size(), is(1));
+        restored2.close();
+    }
+
+    /**
+     * ヘッダーの途中でファイルが切れている場合は、ジャーナルが作り直されること.
+     */
+    @Test
+    public void testRecover_truncatedHeader() throws Exception {
+        JournalCacheController controller = new JournalCacheController(mDirectory, 100);
+        controller.addEvent(createEvent("service1", "origin1", null));
+        controller.close();
+
+        truncate(new File(mDirectory, JOURNAL_FILE), 6);
+
+        JournalCacheController restored = new JournalCacheController(mDirectory, 100);
+        assertThat(restored.getEvents("origin1").size(), is(0));
+        restored.addEvent(createEvent("service2", "origin2", null));
+        restored.close();
+
+        JournalCacheController restored2 = new JournalCacheController(mDirectory, 100);
+        assertThat(restored2.getEvents("origin2").size(), is(1));
+        restored2.close();
+    }
+
+    /**
+     * CRC が一致しないレコード以降は破棄されること.
+     */
+    @Test
+    public void testRecover_corrupted() throws Exception {
+        JournalCacheController controller = new JournalCacheController(mDirectory, 100);
+        controller.addEvent(createEvent("service1", "origin1", null));
+        controller.close();
+        long length = new File(mDirectory, JOURNAL_FILE).length();
+
+        controller = new JournalCacheController(mDirectory, 100);
+        controller.addEvent(createEvent("service2", "origin2", null));
+        controller.addEvent(createEvent("service3", "origin3", null));
+        controller.close();
+
+        // 2番目のレコードのペイロードを書き換える
+        RandomAccessFile raf = new RandomAccessFile(new File(mDirectory, JOURNAL_FILE), "rw");
+        try {
+            raf.seek(length + 8);
+            int b = raf.read();
+            raf.seek(length + 8);
+            raf.write(b ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+
+        JournalCacheController restored = new JournalCacheController(mDirectory, 100);
+        assertThat(restored.getEvents("origin1").size(), is(1));
+        assertThat(restored.getEvents("origin2").size(), is(0));
+        assertThat(restored.getEvents("origin3").size(), is(0));
+        restored.close();
+        assertThat(new File(mDirectory, JOURNAL_FILE).length(), is(length));
+    }
+
+    /**
+     * コンパクションの後に再起動した場合に、スナップショットとジャーナルから復元されること.
+     */
+    @Test
+    public void testCompaction() {
+        JournalCacheController controller = new JournalCacheController(mDirectory, 10);
+        for (int i = 0; i < 25; i++) {
+            controller.addEvent(createEvent("service" + i, "origin" + (i % 5), null));
+        }
+        controller.removeEvents("origin0");
+        controller.close();
+
+        assertThat(new File(mDirectory, SNAPSHOT_FILE).exists(), is(true));
+
+        JournalCacheController restored = new JournalCacheController(mDirectory, 10);
+        assertThat(restored.getEvents("origin0").size(), is(0));
+        for (int i = 1; i < 5; i++) {
+            assertThat(restored.getEvents("origin" + i).size(), is(5));
+        }
+        assertThat(restored.getEvent("service1", "battery", null, "onchargingchange", "origin1", null),
+                is(notNullValue()));
+        assertThat(restored.getEvent("service0", "battery", null, "onchargingchange", "origin0", null),
+                is(nullValue()));
+        restored.close();
+    }
+
+    /**
+     * スナップショットより古い世代のジャーナルは読み込まれないこと.
+     */
+    @Test
+    public void testRecover_staleJournal() throws Exception {
+        JournalCacheController controller = new JournalCacheController(mDirectory, 100);
+        controller.addEvent(createEvent("service1", "origin1", null));
+        controller.close();
+
+        File journal = new File(mDirectory, JOURNAL_FILE);
+        File stale = new File(mDirectory, "stale.journal");
+        copy(journal, stale);
+
+        controller = new JournalCacheController(mDirectory, 100);
+        controller.removeAll();
+        controller.compact();
+        controller.close();
+
+        // スナップショットの作成後、ジャーナルを作り直す前に終了した状態を再現する
+        copy(stale, journal);
+
+        JournalCacheController restored = new JournalCacheController(mDirectory, 100);
+        assertThat(restored.getEvents("origin1").size(), is(0));
+        restored.close();
+    }
+
+    /**
+     * 同じイベントを再度登録した場合にアクセストークンが上書きされ、復元後も重複しないこと.
+     */
+    @Test
+    public void testReplay_duplicate() {
+        JournalCacheController controller = new JournalCacheController(mDirectory, 100);
+        Event event = createEvent("service1", "origin1", null);
+        event.setAccessToken("token1");
+        controller.addEvent(event);
+        Event event2 = createEvent("service1", "origin1", null);
+        event2.setAccessToken("token2");
+        assertThat(controller.addEvent(event2), is(EventError.NONE));
+        controller.close();
+
+        JournalCacheController restored = new JournalCacheController(mDirectory, 100);
+        List<Event> events = restored.getEvents("origin1");
+        assertThat(events.size(), is(1));
+        assertThat(events.get(0).getAccessToken(), is("token2"));
+        restored.close();
+    }
+
+    private static void truncate(final File file, final long length) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void copy(final File src, final File dst) throws Exception {
+        RandomAccessFile in = new RandomAccessFile(src, "r");
+        RandomAccessFile out = new RandomAccessFile(dst, "rw");
+        try {
+            byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+            out.setLength(0);
+            out.write(data);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    private static Event createEvent(final String serviceId, final String origin, final String receiver) {
+        Event event = new Event();
+        event.setServiceId(serviceId);
+        event.setProfile("battery");
+        event.setAttribute("onchargingchange");
+        event.setOrigin(origin);
+        event.setReceiverName(receiver);
+        return event;
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ CompiledValidatorTest.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.profile.spec;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import org.deviceconnect.android.PluginSDKTestRunner;
+import org.deviceconnect.android.message.DevicePluginContext;
+import org.deviceconnect.android.profile.spec.models.DataFormat;
+import org.deviceconnect.android.profile.spec.models.DataType;
+import org.deviceconnect.android.profile.spec.models.Items;
+import org.deviceconnect.android.profile.spec.models.Method;
+import org.deviceconnect.android.profile.spec.models.Operation;
+import org.deviceconnect.android.profile.spec.models.Path;
+import org.deviceconnect.android.profile.spec.models.Paths;
+import org.deviceconnect.android.profile.spec.models.Swagger;
+import org.deviceconnect.android.profile.spec.models.parameters.Parameter;
+import org.deviceconnect.android.profile.spec.models.parameters.QueryParameter;
+import org.deviceconnect.android.profile.spec.parser.OpenAPIParser;
+import org.deviceconnect.android.utils.FileLoader;
+import org.deviceconnect.message.intent.message.IntentDConnectMessage;
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+@RunWith(PluginSDKTestRunner.class)
+public class CompiledValidatorTest {
+
+    /**
+     * 確認に使用するパラメータの値.
+     */
+    private static final Object[] VALUES = {
+            0, 1, 2, 3, 9, 10, 11, -5, -10, 10000000000L, 0.5f, 1.5f, 5.5f, 2.5, 1.5,
+            "0", "1", "11", "-11", "1.5", "5.5f", "abc", "ABC", "a", "abcdef", "", "ff00FF", "ff00F",
+            "1,2,3", "1,a", "1,1", "1|2|3", "a,b,c,d", true, false, "true", "TRUE", "no"
+    };
+
+    /**
+     * testParameterSpec.json の API 定義から CompiledValidator を作成して、パラメータの妥当性を確認する。
+     * <pre>
+     * 【期待する動作】
+     * ・OpenAPIValidator#validate(Parameter, Object) と同じ結果になること。
+     * </pre>
+     */
+    @Test
+    public void testParameterSpec() throws JSONException {
+        Swagger swagger = OpenAPIParser.parse(FileLoader.readString("parser/testParameterSpec.json"));
+        assertSameResult(swagger, Method.GET, "/parameter/test");
+    }
+
+    /**
+     * 範囲、パターン、配列の設定をしたパラメータで CompiledValidator を作成して、パラメータの妥当性を確認する。
+     * <pre>
+     * 【期待する動作】
+     * ・OpenAPIValidator#validate(Parameter, Object) と同じ結果になること。
+     * </pre>
+     */
+    @Test
+    public void testProperties() {
+        Operation operation = new Operation();
+
+        QueryParameter p = createParameter("int32", DataType.INTEGER, DataFormat.INT32);
+        p.setMaximum(10);
+        p.setExclusiveMaximum(true);
+        p.setMinimum(-10);
+        p.setMultipleOf(3);
+        operation.addParameter(p);
+
+        p = createParameter("int64", DataType.INTEGER, DataFormat.INT64);
+        p.setMaximum(10000000000L);
+        p.setMinimum(-10);
+        p.setExclusiveMinimum(true);
+        operation.addParameter(p);
+
+        p = createParameter("intEnum", DataType.INTEGER, null);
+        p.setEnum(Arrays.asList((Object) 1, 2, 3));
+        operation.addParameter(p);
+
+        p = createParameter("float", DataType.NUMBER, DataFormat.FLOAT);
+        p.setMaximum(5.5f);
+        p.setMinimum(0.5f);
+        p.setExclusiveMinimum(true);
+        operation.addParameter(p);
+
+        p = createParameter("double", DataType.NUMBER, DataFormat.DOUBLE);
+        p.setEnum(Arrays.asList((Object) 1.5, 2.5));
+        operation.addParameter(p);
+
+        p = createParameter("pattern", DataType.STRING, null);
+        p.setPattern("^[a-z]+$");
+        p.setMaxLength(5);
+        operation.addParameter(p);
+
+        p = createParameter("length", DataType.STRING, DataFormat.TEXT);
+        p.setMinLength(1);
+        operation.addParameter(p);
+
+        p = createParameter("rgb", DataType.STRING, DataFormat.RGB);
+        operation.addParameter(p);
+
+        Items items = new Items();
+        items.setType(DataType.INTEGER);
+        p = createParameter("csv", DataType.ARRAY, null);
+        p.setItems(items);
+        p.setMaxItems(3);
+        p.setUniqueItems(true);
+        operation.addParameter(p);
+
+        Items stringItems = new Items();
+        stringItems.setType(DataType.STRING);
+        p = createParameter("pipes", DataType.ARRAY, null);
+        p.setItems(stringItems);
+        p.setCollectionFormat("pipes");
+        p.setMinItems(2);
+        p.setAllowEmptyValue(true);
+        operation.addParameter(p);
+
+        p = createParameter("boolean", DataType.BOOLEAN, null);
+        operation.addParameter(p);
+
+        p = createParameter("booleanEnum", DataType.BOOLEAN, null);
+        p.setEnum(Arrays.asList((Object) true));
+        operation.addParameter(p);
+
+        Path path = new Path();
+        path.setGet(operation);
+        Paths paths = new Paths();
+        paths.addPath("/a0", path);
+        Swagger swagger = new Swagger();
+        swagger.setBasePath("/gotapi/test");
+        swagger.setPaths(paths);
+
+        assertSameResult(swagger, Method.GET, "/gotapi/test/a0");
+    }
+
+    /**
+     * 必須のパラメータが無いリクエストの妥当性を確認する。
+     * <pre>
+     * 【期待する動作】
+     * ・必須のパラメータが無い場合は false が返ること。
+     * ・パラメータが無いリクエストの場合は true が返ること。
+     * </pre>
+     */
+    @Test
+    public void testRequired() throws JSONException {
+        Swagger swagger = OpenAPIParser.parse(FileLoader.readString("testProfile.json"));
+        CompiledValidator validator = CompiledValidator.compile(swagger, Method.GET, "/gotapi/testProfile/a0");
+
+        Bundle extras = new Bundle();
+        extras.putString("serviceId", "lazy");
+        assertThat(validator.validate(extras), is(false));
+        assertThat(validator.findInvalidParameters(extras), is(Arrays.asList("num")));
+
+        extras.putInt("num", 1);
+        assertThat(validator.validate(extras), is(true));
+        assertThat(validator.findInvalidParameters(extras).size(), is(0));
+
+        assertThat(validator.validate(null), is(true));
+    }
+
+    /**
+     * CompiledValidator の作成後に API 定義のパラメータを追加する。
+     * <pre>
+     * 【期待する動作】
+     * ・CompiledValidator#isUpToDate(Swagger) が false を返すこと。
+     * </pre>
+     */
+    @Test
+    public void testIsUpToDate() {
+        Operation operation = new Operation();
+        Path path = new Path();
+        path.setGet(operation);
+        Paths paths = new Paths();
+        paths.addPath("/a0", path);
+        Swagger swagger = new Swagger();
+        swagger.setBasePath("/gotapi/test");
+        swagger.setPaths(paths);
+
+        CompiledValidator validator = CompiledValidator.compile(swagger, Method.GET, "/gotapi/test/a0");
+        assertThat(validator.isUpToDate(swagger), is(true));
+        assertThat(validator.isUpToDate(new Swagger()), is(false));
+
+        operation.addParameter(createParameter("a", DataType.STRING, null));
+        assertThat(validator.isUpToDate(swagger), is(false));
+
+        validator = CompiledValidator.compile(swagger, Method.GET, "/gotapi/test/a0");
+        path.addParameter(createParameter("b", DataType.STRING, null));
+        assertThat(validator.isUpToDate(swagger), is(false));
+
+        validator = CompiledValidator.compile(swagger, Method.GET, "/gotapi/test/a0");
+        swagger.addParameter("c", createParameter("c", DataType.STRING, null));
+        assertThat(validator.isUpToDate(swagger), is(false));
+
+        validator = CompiledValidator.compile(swagger, Method.GET, "/gotapi/test/a0");
+        path.setGet(new Operation());
+        assertThat(validator.isUpToDate(swagger), is(false));
+    }
+
+    /**
+     * CompiledValidator の作成後に、パラメータやパスの数を変えずに API 定義を変更する。
+     * <pre>
+     * 【期待する動作】
+     * ・CompiledValidator#isUpToDate(Swagger) が false を返すこと。
+     * ・変更していない場合は CompiledValidator#isUpToDate(Swagger) が true を返すこと。
+     * </pre>
+     */
+    @Test
+    public void testIsUpToDate_sameSize() {
+        Operation operation = new Operation();
+        operation.addParameter(createParameter("a", DataType.STRING, null));
+        Path path = new Path();
+        path.setGet(operation);
+        Paths paths = new Paths();
+        paths.addPath("/a0", path);
+        Swagger swagger = new Swagger();
+        swagger.setBasePath("/gotapi/test");
+        swagger.setPaths(paths);
+
+        // パラメータのリストを同じ要素数のリストに置き換える
+        CompiledValidator validator = CompiledValidator.compile(swagger, Method.GET, "/gotapi/test/a0");
+        assertThat(validator.isUpToDate(swagger), is(true));
+        operation.setParameters(new ArrayList<>(Arrays.asList((Parameter) createParameter("b", DataType.STRING, null))));
+        assertThat(validator.isUpToDate(swagger), is(false));
+
+        // getter で取得したリストの要素を直接置き換える
+        validator = CompiledValidator.compile(swagger, Method.GET, "/gotapi/test/a0");
+        operation.getParameters().set(0, createParameter("c", DataType.INTEGER, null));
+        assertThat(validator.isUpToDate(swagger), is(false));
+
+        // パスを削除して、同じ数になるように別のパスを追加する
+        validator = CompiledValidator.compile(swagger, Method.GET, "/gotapi/test/a0");
+        paths.removePath("/a0");
+        paths.addPath("/a1", path);
+        assertThat(validator.isUpToDate(swagger), is(false));
+
+        // ベースパスを変更する
+        validator = CompiledValidator.compile(swagger, Method.GET, "/gotapi/test/a1");
+        swagger.setBasePath("/gotapi/test2");
+        assertThat(validator.isUpToDate(swagger), is(false));
+
+        validator = CompiledValidator.compile(swagger, Method.GET, "/gotapi/test2/a1");
+        assertThat(validator.isUpToDate(swagger), is(true));
+    }
+
+    /**
+     * DConnectServiceSpec#findValidator(Intent) で CompiledValidator を取得する。
+     * <pre>
+     * 【期待する動作】
+     * ・同じ API のリクエストでは同じ CompiledValidator が返ること。
+     * ・プロファイル定義を追加し直した場合は、新しい CompiledValidator が返ること。
+     * ・プロファイル定義が存在しない場合は null が返ること。
+     * </pre>
+     */
+    @Test
+    public void testFindValidator() throws JSONException {
+        DevicePluginContext pluginContext = Mockito.mock(DevicePluginContext.class);
+        DConnectServiceSpec spec = new DConnectServiceSpec(pluginContext);
+        spec.addProfileSpec("testProfile", FileLoader.readString("testProfile.json"));
+
+        Intent request = new Intent();
+        request.setAction(IntentDConnectMessage.ACTION_GET);
+        request.putExtra("api", "gotapi");
+        request.putExtra("profile", "testProfile");
+        request.putExtra("attribute", "a0");
+        request.putExtra("serviceId", "lazy");
+        request.putExtra("num", "a");
+
+        CompiledValidator validator = spec.findValidator(request);
+        assertThat(validator.validate(request.getExtras()), is(false));
+        assertThat(spec.findValidator(request), is(sameInstance(validator)));
+
+        spec.addProfileSpec("testProfile", FileLoader.readString("testProfile.json"));
+        assertThat(spec.findValidator(request), is(not(sameInstance(validator))));
+
+        request.putExtra("profile", "unknown");
+        assertThat(spec.findValidator(request) == null, is(true));
+    }
+
+    /**
+     * DConnectServiceSpec#findValidator(Intent) で取得した CompiledValidator でリクエストの妥当性を確認する。
+     * <pre>
+     * 【期待する動作】
+     * ・OpenAPIValidator#validate(Swagger, Intent) と同じ結果になること。
+     * </pre>
+     */
+    @Test
+    public void testFindValidator_sameResult() throws JSONException {
+        DevicePluginContext pluginContext = Mockito.mock(DevicePluginContext.class);
+        DConnectServiceSpec spec = new DConnectServiceSpec(pluginContext);
+        spec.addProfileSpec("testProfile", FileLoader.readString("testProfile.json"));
+        Swagger swagger = spec.findProfileSpec("testProfile");
+
+        Intent request = new Intent();
+        request.setAction(IntentDConnectMessage.ACTION_GET);
+        request.putExtra("api", "gotapi");
+        request.putExtra("profile", "testProfile");
+        request.putExtra("attribute", "a0");
+        request.putExtra("serviceId", "lazy");
+
+        for (Object value : VALUES) {
+            Bundle extras = request.getExtras();
+            put(extras, "num", value);
+            request.replaceExtras(extras);
+            assertThat(String.valueOf(value), spec.findValidator(request).validate(request.getExtras()),
+                    is(OpenAPIValidator.validate(swagger, request)));
+        }
+    }
+
+    /**
+     * API 定義のパラメータに全て同じ値を指定して、CompiledValidator と OpenAPIValidator の結果を比較します.
+     *
+     * @param swagger API 定義
+     * @param method HTTPメソッド
+     * @param requestPath リクエストのパス
+     */
+    private static void assertSameResult(Swagger swagger, Method method, String requestPath) {
+        CompiledValidator validator = CompiledValidator.compile(swagger, method, requestPath);
+        List<Parameter> parameters = OpenAPIValidator.findParameters(swagger, method, requestPath);
+        assertThat(parameters.isEmpty(), is(false));
+
+        for (Object value : VALUES) {
+            Bundle extras = new Bundle();
+            List<String> expected = new ArrayList<>();
+            for (Parameter parameter : parameters) {
+                put(extras, parameter.getName(), value);
+                if (!OpenAPIValidator.validate(parameter, value)) {
+                    expected.add(parameter.getName());
+                }
+            }
+            assertThat(String.valueOf(value), validator.findInvalidParameters(extras), is(expected));
+            assertThat(String.valueOf(value), validator.validate(extras), is(expected.isEmpty()));
+        }
+    }
+
+    private static QueryParameter createParameter(String name, DataType type, DataFormat format) {
+        QueryParameter p = new QueryParameter();
+        p.setName(name);
+        p.setType(type);
+        p.setFormat(format);
+        p.setRequired(true);
+        return p;
+    }
+
+    private static void put(Bundle bundle, String key, Object value) {
+        if (value instanceof Integer) {
+            bundle.putInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+            bundle.putLong(key, (Long) value);
+        } else if (value instanceof Float) {
+            bundle.putFloat(key, (Float) value);
+        } else if (value instanceof Double) {
+            bundle.putDouble(key, (Double) value);
+        } else if (value instanceof Boolean) {
+            bundle.putBoolean(key, (Boolean) value);
+        } else {
+            bundle.putString(key, (String) value);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ ProfileSpecCacheTest.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.profile.spec;
+
+import org.deviceconnect.android.PluginSDKTestRunner;
+import org.deviceconnect.android.profile.spec.models.Swagger;
+import org.deviceconnect.android.profile.spec.parser.OpenAPIParser;
+import org.deviceconnect.android.utils.FileLoader;
+import org.deviceconnect.utils.JSONUtils;
+import org.json.JSONException;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+@RunWith(PluginSDKTestRunner.class)
+public class ProfileSpecCacheTest {
+
+    /**
+     * Host プラグインのプロファイル定義ファイルを格納するディレクトリ.
+     */
+    private static final String HOST_API_DIR =
+            "../../dConnectDeviceHost/app/src/main/assets/org_deviceconnect_android_deviceplugin_host/api";
+
+    /**
+     * テストで使用する定義ファイルのバージョン.
+     */
+    private static final long VERSION = 1000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * ProfileSpecCache#load(String, Source) でプロファイル定義を読み込む。
+     * <pre>
+     * 【期待する動作】
+     * ・JSON を解析した場合と同じ Swagger オブジェクトが取得できること。
+     * ・キャッシュファイルが作成されること。
+     * ・同じインスタンスでの2回目以降の読み込みでは、定義ファイルを読み込まないこと。
+     * ・同じバージョンの別のインスタンスでは、キャッシュファイルから同じ Swagger オブジェクトが取得でき、キャッシュファイルが作り直されないこと。
+     * ・読み込みのたびに新しい Swagger オブジェクトが作成されること。
+     * </pre>
+     */
+    @Test
+    public void testLoad() throws Exception {
+        File dir = mFolder.newFolder();
+        CountingSource source = new CountingSource(FileLoader.readFile("testProfile.json"));
+        String expected = toString(OpenAPIParser.parse(new String(source.mData)));
+
+        ProfileSpecCache cache = new ProfileSpecCache(dir, VERSION);
+        Swagger swagger1 = cache.load("api/testProfile.json", source);
+        assertThat(toString(swagger1), is(expected));
+        assertThat(source.mCount, is(1));
+
+        File cacheFile = new File(dir, "api_testProfile.json.bin");
+        assertThat(cacheFile.isFile(), is(true));
+        long lastModified = cacheFile.lastModified();
+
+        Swagger swagger2 = cache.load("api/testProfile.json", source);
+        assertThat(toString(swagger2), is(expected));
+        assertThat(swagger2, is(not(sameInstance(swagger1))));
+        assertThat(source.mCount, is(1));
+
+        Swagger swagger3 = new ProfileSpecCache(dir, VERSION).load("api/testProfile.json", source);
+        assertThat(toString(swagger3), is(expected));
+        assertThat(source.mCount, is(2));
+        assertThat(cacheFile.lastModified(), is(lastModified));
+    }
+
+    /**
+     * ProfileSpecCache#load(String, Source) で取得した Swagger オブジェクトを変更する。
+     * <pre>
+     * 【期待する動作】
+     * ・変更した内容が、次に読み込んだ Swagger オブジェクトに反映されないこと。
+     * </pre>
+     */
+    @Test
+    public void testLoad_modified() throws Exception {
+        byte[] data = FileLoader.readFile("testProfile.json");
+        String expected = toString(OpenAPIParser.parse(new String(data)));
+
+        ProfileSpecCache cache = new ProfileSpecCache(mFolder.newFolder(), VERSION);
+        Swagger swagger1 = cache.load("api/testProfile.json", new CountingSource(data));
+        swagger1.setBasePath("/modified");
+        swagger1.getPaths().getPaths().clear();
+        swagger1.addVendorExtension("x-modified", "modified");
+
+        Swagger swagger2 = cache.load("api/testProfile.json", new CountingSource(data));
+        assertThat(toString(swagger2), is(expected));
+    }
+
+    /**
+     * アプリが更新された後に ProfileSpecCache#load(String, Source) でプロファイル定義を読み込む。
+     * <pre>
+     * 【期待する動作】
+     * ・キャッシュファイルを使用せずに、更新後の定義ファイルの Swagger オブジェクトが取得できること。
+     * </pre>
+     */
+    @Test
+    public void testLoad_updated() throws Exception {
+        File dir = mFolder.newFolder();
+        new ProfileSpecCache(dir, VERSION).load("api/testProfile.json",
+                new CountingSource(FileLoader.readFile("testProfile.json")));
+
+        CountingSource source = new CountingSource(FileLoader.readFile("parser/testMinimumJson.json"));
+        String expected = toString(OpenAPIParser.parse(new String(source.mData)));
+
+        Swagger swagger = new ProfileSpecCache(dir, VERSION + 1).load("api/testProfile.json", source);
+        assertThat(toString(swagger), is(expected));
+        assertThat(source.mCount, is(1));
+    }
+
+    /**
+     * アプリのバージョンを変えずに定義ファイルを変更した後に ProfileSpecCache#load(String, Source) でプロファイル定義を読み込む。
+     * <pre>
+     * 【期待する動作】
+     * ・キャッシュファイルを使用せずに、変更後の定義ファイルの Swagger オブジェクトが取得できること。
+     * ・変更後の定義ファイルでキャッシュファイルが作り直されること。
+     * </pre>
+     */
+    @Test
+    public void testLoad_assetChanged() throws Exception {
+        File dir = mFolder.newFolder();
+        new ProfileSpecCache(dir, VERSION).load("api/testProfile.json",
+                new CountingSource(FileLoader.readFile("testProfile.json")));
+
+        byte[] data = FileLoader.readFile("parser/testMinimumJson.json");
+        String expected = toString(OpenAPIParser.parse(new String(data)));
+
+        Swagger swagger1 = new ProfileSpecCache(dir, VERSION).load("api/testProfile.json", new CountingSource(data));
+        assertThat(toString(swagger1), is(expected));
+
+        Swagger swagger2 = new ProfileSpecCache(dir, VERSION).load("api/testProfile.json", new CountingSource(data));
+        assertThat(toString(swagger2), is(expected));
+    }
+
+    /**
+     * アプリのバージョンが分からない場合に ProfileSpecCache#load(String, Source) でプロファイル定義を読み込む。
+     * <pre>
+     * 【期待する動作】
+     * ・Swagger オブジェクトが取得できること。
+     * ・キャッシュファイルが作成されないこと。
+     * </pre>
+     */
+    @Test
+    public void testLoad_unknownVersion() throws Exception {
+        File dir = mFolder.newFolder();
+        Swagger swagger = new ProfileSpecCache(dir, ProfileSpecCache.UNKNOWN_VERSION).load("api/testProfile.json",
+                new CountingSource(FileLoader.readFile("testProfile.json")));
+        assertThat(swagger, is(notNullValue()));
+        assertThat(new File(dir, "api_testProfile.json.bin").exists(), is(false));
+    }
+
+    /**
+     * キャッシュファイルが壊れている場合に ProfileSpecCache#load(String, Source) でプロファイル定義を読み込む。
+     * <pre>
+     * 【期待する動作】
+     * ・定義ファイルから Swagger オブジェクトが取得できること。
+     * ・キャッシュファイルが作り直されること。
+     * </pre>
+     */
+    @Test
+    public void testLoad_broken() throws Exception {
+        File dir = mFolder.newFolder();
+        CountingSource source = new CountingSource(FileLoader.readFile("testProfile.json"));
+        String expected = toString(OpenAPIParser.parse(new String(source.mData)));
+        new ProfileSpecCache(dir, VERSION).load("api/testProfile.json", source);
+
+        File cacheFile = new File(dir, "api_testProfile.json.bin");
+        long length = cacheFile.length();
+        RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw");
+        try {
+            raf.setLength(length - 10);
+        } finally {
+            raf.close();
+        }
+
+        Swagger swagger = new ProfileSpecCache(dir, VERSION).load("api/testProfile.json", source);
+        assertThat(toString(swagger), is(expected));
+        assertThat(source.mCount, is(2));
+        assertThat(cacheFile.length(), is(length));
+    }
+
+    /**
+     * 不正な定義ファイルを ProfileSpecCache#load(String, Source) で読み込む。
+     * <pre>
+     * 【期待する動作】
+     * ・JSONException が発生すること。
+     * </pre>
+     */
+    @Test(expected = JSONException.class)
+    public void testLoad_invalid() throws Exception {
+        new ProfileSpecCache(mFolder.newFolder(), VERSION).load("api/testInvalidJson.json",
+                new CountingSource(FileLoader.readFile("parser/testInvalidJson.json")));
+    }
+
+    /**
+     * Host プラグインのプロファイル定義を ProfileSpecCache#load(String, Source) で読み込む。
+     * <pre>
+     * 【期待する動作】
+     * ・定義ファイルから変換した場合とキャッシュファイルから読み込んだ場合のどちらでも、
+     *   JSON を解析した場合と同じ Swagger オブジェクトが取得できること。
+     * ・Host プラグインのソースが無い場合には、テストを行わないこと。
+     * </pre>
+     */
+    @Test
+    public void testLoad_hostProfiles() throws Exception {
+        File[] files = new File(HOST_API_DIR).listFiles();
+        Assume.assumeTrue(files != null && files.length > 0);
+
+        File dir = mFolder.newFolder();
+        for (File file : files) {
+            byte[] data = readFile(file);
+            String expected = toString(OpenAPIParser.parse(new String(data)));
+
+            Swagger parsed = new ProfileSpecCache(dir, VERSION).load(file.getName(), new CountingSource(data));
+            assertThat(file.getName(), toString(parsed), is(expected));
+
+            Swagger cached = new ProfileSpecCache(dir, VERSION).load(file.getName(), new CountingSource(data));
+            assertThat(file.getName(), toString(cached), is(expected));
+        }
+    }
+
+    private static String toString(final Swagger swagger) throws JSONException {
+        return JSONUtils.convertBundleToJSON(swagger.toBundle()).toString();
+    }
+
+    private static byte[] readFile(final File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 読み込まれた回数を数える定義ファイル.
+     */
+    private static class CountingSource implements ProfileSpecCache.Source {
+        private final byte[] mData;
+        private int mCount;
+
+        CountingSource(final byte[] data) {
+            mData = data;
+        }
+
+        @Override
+        public byte[] read() {
+            mCount++;
+            return mData;
+        }
+    }
+}
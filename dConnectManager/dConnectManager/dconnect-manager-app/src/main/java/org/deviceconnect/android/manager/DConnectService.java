@@ -44,6 +44,7 @@ import org.deviceconnect.android.manager.core.plugin.ConnectionType;
 import org.deviceconnect.android.manager.core.plugin.DevicePlugin;
 import org.deviceconnect.android.manager.core.plugin.DevicePluginManager;
 import org.deviceconnect.android.manager.core.plugin.MessagingException;
+import org.deviceconnect.android.manager.core.request.DConnectRequestManager;
 import org.deviceconnect.android.manager.core.util.DConnectUtil;
 import org.deviceconnect.android.manager.core.util.VersionName;
 import org.deviceconnect.android.manager.profile.DConnectSettingProfile;
@@ -629,4 +630,15 @@ public class DConnectService extends Service {
     public DevicePluginManager getPluginManager() {
         return mManager.getPluginManager();
     }
+
+    /**
+     * リクエスト管理クラスを取得します.
+     * <p>
+     * レスポンス待ちのリクエスト数や応答時間の統計を取得するために使用します。
+     * </p>
+     * @return リクエスト管理クラス
+     */
+    public DConnectRequestManager getRequestManager() {
+        return mManager.getRequestManager();
+    }
 }
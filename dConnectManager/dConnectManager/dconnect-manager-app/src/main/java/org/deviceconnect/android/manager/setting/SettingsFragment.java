@@ -40,6 +40,9 @@ import org.deviceconnect.android.manager.DConnectService;
 import org.deviceconnect.android.manager.DConnectWebService;
 import org.deviceconnect.android.manager.R;
 import org.deviceconnect.android.manager.core.DConnectSettings;
+import org.deviceconnect.android.manager.core.request.DConnectRequestManager;
+import org.deviceconnect.android.manager.core.request.RequestLatencyHistogram;
+import org.deviceconnect.android.manager.core.request.RequestScheduler;
 import org.deviceconnect.android.manager.core.util.DConnectUtil;
 import org.deviceconnect.android.manager.setting.OpenSourceLicenseFragment.OpenSourceSoftware;
 import org.deviceconnect.android.manager.util.PauseHandler;
@@ -444,6 +447,8 @@ public class SettingsFragment extends PreferenceFragment implements Preference.O
             newFragment.show(((SettingActivity) getActivity()).getSupportFragmentManager(),null);
         } else if (getString(R.string.key_settings_install_server_certificate).equals(preference.getKey())) {
             mDConnectService.installRootCertificate();
+        } else if (getString(R.string.key_settings_request_statistics).equals(preference.getKey())) {
+            showRequestStatistics();
         }
         showIPAddress();
 
@@ -475,6 +480,7 @@ public class SettingsFragment extends PreferenceFragment implements Preference.O
             serverPreferences.setChecked(isRunning);
 
             checkServiceConnections();
+            showRequestStatistics();
         });
     }
 
@@ -856,6 +862,36 @@ public class SettingsFragment extends PreferenceFragment implements Preference.O
         RestartingDialogFragment.show((BaseSettingActivity) getActivity());
     }
 
+    /**
+     * リクエストの統計情報を表示します.
+     */
+    private void showRequestStatistics() {
+        Preference statisticsPreference = getPreferenceScreen()
+                .findPreference(getString(R.string.key_settings_request_statistics));
+        if (statisticsPreference == null) {
+            return;
+        }
+
+        if (mDConnectService == null || !mDConnectService.isRunning()) {
+            statisticsPreference.setSummary(R.string.activity_settings_request_statistics_none);
+            return;
+        }
+
+        DConnectRequestManager requestManager = mDConnectService.getRequestManager();
+        RequestLatencyHistogram histogram = requestManager.getLatencyHistogram();
+        RequestScheduler scheduler = requestManager.getScheduler();
+        statisticsPreference.setSummary(getString(R.string.activity_settings_request_statistics_summary,
+                requestManager.getPendingRequestCount(),
+                histogram.getAverage(),
+                histogram.getPercentile(95),
+                histogram.getMax(),
+                histogram.getCount(),
+                histogram.getTimeoutCount(),
+                scheduler.getQueuedCount(),
+                scheduler.getQueueTimeHistogram().getPercentile(95),
+                scheduler.getPoolSize()));
+    }
+
     /**
      * Show IP Address.
      */
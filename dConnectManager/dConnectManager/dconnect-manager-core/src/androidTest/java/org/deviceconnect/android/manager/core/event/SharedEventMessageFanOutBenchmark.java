@@ -0,0 +1,139 @@
+/*
+ SharedEventMessageFanOutBenchmark.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.manager.core.event;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.deviceconnect.android.manager.core.DConnectSettings;
+import org.deviceconnect.android.manager.core.util.DConnectUtil;
+import org.deviceconnect.message.DConnectMessage;
+import org.deviceconnect.message.intent.message.IntentDConnectMessage;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * イベントを複数の送信先に配送する場合の JSON 変換のベンチマーク.
+ *
+ * <p>
+ * 送信先ごとに JSON に変換する場合と、{@link SharedEventMessage} で変換結果を共有する場合の、
+ * 1イベントあたりの処理時間を送信先が 1, 10, 100 の場合で計測します。
+ * 計測結果は androidx.benchmark が出力します。
+ * </p>
+ */
+@RunWith(Parameterized.class)
+public class SharedEventMessageFanOutBenchmark {
+    /**
+     * UTF-8 の文字コード.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    /**
+     * 送信先のセッションキー.
+     */
+    private final String[] mSessionKeys;
+
+    private DConnectSettings mSettings;
+
+    private Intent mEvent;
+
+    @Parameterized.Parameters(name = "subscribers={0}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][] {{1}, {10}, {100}});
+    }
+
+    public SharedEventMessageFanOutBenchmark(final int subscribers) {
+        mSessionKeys = new String[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            mSessionKeys[i] = "session-" + i;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mSettings = new DConnectSettings(InstrumentationRegistry.getInstrumentation().getTargetContext());
+        mEvent = createEvent();
+    }
+
+    /**
+     * 送信先ごとにイベントを JSON に変換する処理時間を計測する.
+     *
+     * @throws JSONException JSON への変換に失敗した場合
+     */
+    @Test
+    public void perRecipient() throws JSONException {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (String sessionKey : mSessionKeys) {
+                convert(sessionKey);
+            }
+        }
+    }
+
+    /**
+     * SharedEventMessage で変換結果を共有してイベントを JSON に変換する処理時間を計測する.
+     *
+     * @throws JSONException JSON への変換に失敗した場合
+     */
+    @Test
+    public void shared() throws JSONException {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            SharedEventMessage message = new SharedEventMessage(mSettings, mEvent);
+            for (String sessionKey : mSessionKeys) {
+                message.createFrame(sessionKey);
+            }
+        }
+    }
+
+    /**
+     * SharedEventMessage を使用する前と同じように、送信先ごとにイベントを JSON に変換します.
+     *
+     * @param sessionKey セッションキー
+     * @return UTF-8 でエンコードされた JSON
+     * @throws JSONException JSON への変換に失敗した場合
+     */
+    private byte[] convert(final String sessionKey) throws JSONException {
+        Intent message = new Intent(mEvent);
+        message.putExtra(IntentDConnectMessage.EXTRA_SESSION_KEY, sessionKey);
+        JSONObject root = new JSONObject();
+        DConnectUtil.convertBundleToJSON(mSettings, root, message.getExtras());
+        return root.toString().getBytes(UTF_8);
+    }
+
+    private static Intent createEvent() {
+        Bundle payload = new Bundle();
+        payload.putString("name", "test");
+        payload.putInt("level", 80);
+        payload.putDouble("temperature", 36.5);
+        payload.putStringArray("tags", new String[] {"a", "b", "c"});
+
+        Intent event = new Intent(IntentDConnectMessage.ACTION_EVENT);
+        event.putExtra(DConnectMessage.EXTRA_API, "gotapi");
+        event.putExtra(DConnectMessage.EXTRA_PROFILE, "battery");
+        event.putExtra(DConnectMessage.EXTRA_ATTRIBUTE, "onbatterychange");
+        event.putExtra(DConnectMessage.EXTRA_SERVICE_ID, "host.de0b4d5d8f1a6e04e6e6e7f3c5dd21ee.localhost.deviceconnect.org");
+        event.putExtra("payload", payload);
+        return event;
+    }
+}
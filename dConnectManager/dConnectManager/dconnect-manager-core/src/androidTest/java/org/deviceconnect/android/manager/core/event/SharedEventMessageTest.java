@@ -0,0 +1,104 @@
+/*
+ SharedEventMessageTest.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.manager.core.event;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.deviceconnect.android.manager.core.DConnectSettings;
+import org.deviceconnect.android.manager.core.util.DConnectUtil;
+import org.deviceconnect.message.DConnectMessage;
+import org.deviceconnect.message.intent.message.IntentDConnectMessage;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.Charset;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * {@link SharedEventMessage} のテスト.
+ *
+ * <p>
+ * 処理時間の計測は {@link SharedEventMessageFanOutBenchmark} で行います。
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class SharedEventMessageTest {
+    /**
+     * UTF-8 の文字コード.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private DConnectSettings mSettings;
+
+    private Intent mEvent;
+
+    @Before
+    public void setUp() {
+        mSettings = new DConnectSettings(InstrumentationRegistry.getInstrumentation().getTargetContext());
+        mEvent = createEvent();
+    }
+
+    /**
+     * SharedEventMessage#createFrame(String) で作成した JSON を確認する。
+     * <pre>
+     * 【期待する動作】
+     * ・送信先ごとに変換した JSON と同じ内容になること。
+     * </pre>
+     */
+    @Test
+    public void testCreateFrame() throws JSONException {
+        SharedEventMessage message = new SharedEventMessage(mSettings, mEvent);
+        for (int i = 0; i < 3; i++) {
+            String sessionKey = "session-" + i;
+            JSONObject shared = new JSONObject(new String(message.createFrame(sessionKey), UTF_8));
+            JSONObject expected = new JSONObject(new String(convert(sessionKey), UTF_8));
+            assertThat(shared.getString(IntentDConnectMessage.EXTRA_SESSION_KEY), is(sessionKey));
+            assertThat(shared.toString().length(), is(expected.toString().length()));
+            assertThat(shared.getJSONObject("payload").toString(), is(expected.getJSONObject("payload").toString()));
+        }
+    }
+
+    /**
+     * SharedEventMessage を使用する前と同じように、送信先ごとにイベントを JSON に変換します.
+     *
+     * @param sessionKey セッションキー
+     * @return UTF-8 でエンコードされた JSON
+     * @throws JSONException JSON への変換に失敗した場合
+     */
+    private byte[] convert(final String sessionKey) throws JSONException {
+        Intent message = new Intent(mEvent);
+        message.putExtra(IntentDConnectMessage.EXTRA_SESSION_KEY, sessionKey);
+        JSONObject root = new JSONObject();
+        DConnectUtil.convertBundleToJSON(mSettings, root, message.getExtras());
+        return root.toString().getBytes(UTF_8);
+    }
+
+    private static Intent createEvent() {
+        Bundle payload = new Bundle();
+        payload.putString("name", "test");
+        payload.putInt("level", 80);
+        payload.putDouble("temperature", 36.5);
+        payload.putStringArray("tags", new String[] {"a", "b", "c"});
+
+        Intent event = new Intent(IntentDConnectMessage.ACTION_EVENT);
+        event.putExtra(DConnectMessage.EXTRA_API, "gotapi");
+        event.putExtra(DConnectMessage.EXTRA_PROFILE, "battery");
+        event.putExtra(DConnectMessage.EXTRA_ATTRIBUTE, "onbatterychange");
+        event.putExtra(DConnectMessage.EXTRA_SERVICE_ID, "host.de0b4d5d8f1a6e04e6e6e7f3c5dd21ee.localhost.deviceconnect.org");
+        event.putExtra("payload", payload);
+        return event;
+    }
+}
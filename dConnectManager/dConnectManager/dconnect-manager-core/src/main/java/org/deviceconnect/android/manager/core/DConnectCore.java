@@ -31,6 +31,7 @@ import org.deviceconnect.android.manager.core.profile.DConnectDeliveryProfile;
 import org.deviceconnect.android.manager.core.profile.DConnectServiceDiscoveryProfile;
 import org.deviceconnect.android.manager.core.profile.DConnectSystemProfile;
 import org.deviceconnect.android.manager.core.request.DConnectRequestManager;
+import org.deviceconnect.android.manager.core.request.ServiceDiscoveryCache;
 import org.deviceconnect.android.manager.core.util.DConnectUtil;
 import org.deviceconnect.android.manager.core.util.VersionName;
 import org.deviceconnect.android.message.DevicePluginContext;
@@ -79,6 +80,11 @@ public class DConnectCore extends DevicePluginContext {
      */
     private DConnectRequestManager mRequestManager;
 
+    /**
+     * Service Discovery で取得したサービスのキャッシュ.
+     */
+    private final ServiceDiscoveryCache mServiceDiscoveryCache = new ServiceDiscoveryCache();
+
     /**
      * Origin妥当性確認クラス.
      */
@@ -178,6 +184,7 @@ public class DConnectCore extends DevicePluginContext {
 
         // プラグイン管理クラスの初期化
         mPluginManager = pluginManager;
+        mRequestManager.setDevicePluginManager(pluginManager);
         mPluginManager.addEventListener(new DevicePluginManager.DevicePluginEventListener() {
             @Override
             public void onDeviceFound(final DevicePlugin plugin) {
@@ -191,6 +198,7 @@ public class DConnectCore extends DevicePluginContext {
             @Override
             public void onDeviceLost(final DevicePlugin plugin) {
                 mEventBroker.removeSessionForPlugin(plugin.getPluginId());
+                mServiceDiscoveryCache.remove(plugin.getPluginId());
                 mLocalOAuth.deleteOAuthDatas(plugin.getPluginId());
                 getServiceProvider().removeService(plugin);
             }
@@ -222,10 +230,14 @@ public class DConnectCore extends DevicePluginContext {
             }
         });
 
+        mEventBroker.setServiceChangeListener((plugin, service) ->
+                mServiceDiscoveryCache.updateService(plugin.getPluginId(), service));
+
         // プロファイルの追加
         addProfile(new AuthorizationProfile(mSettings, mRequestManager, getLocalOAuth2Main()));
         addProfile(new DConnectAvailabilityProfile(mSettings));
-        addProfile(new DConnectServiceDiscoveryProfile(null, mPluginManager, mRequestManager));
+        addProfile(new DConnectServiceDiscoveryProfile(null, mSettings, mPluginManager, mRequestManager,
+                mServiceDiscoveryCache));
 
         // 各プラグインに配送するプロファイル
         mDeliveryProfile = new DConnectDeliveryProfile(mPluginManager, mRequestManager,
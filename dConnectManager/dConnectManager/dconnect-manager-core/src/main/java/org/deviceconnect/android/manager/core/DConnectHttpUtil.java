@@ -10,7 +10,9 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
-import androidx.annotation.NonNull;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
 
 import org.deviceconnect.android.manager.core.util.DConnectUtil;
 import org.deviceconnect.android.provider.FileManager;
@@ -18,14 +20,18 @@ import org.deviceconnect.android.service.DConnectService;
 import org.deviceconnect.message.DConnectMessage;
 import org.deviceconnect.message.intent.message.IntentDConnectMessage;
 import org.deviceconnect.profile.FileProfileConstants;
+import org.deviceconnect.server.http.ByteRange;
+import org.deviceconnect.server.http.FileChannelBody;
 import org.deviceconnect.server.http.HttpRequest;
 import org.deviceconnect.server.http.HttpResponse;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -223,6 +229,10 @@ final class DConnectHttpUtil {
 
     /**
      * ファイルを読み込み.
+     * <p>
+     * ファイルディスクリプタを開いて、ファイルのチャンネルからレスポンスに直接送信します。
+     * Range ヘッダーで複数の範囲が指定された場合には multipart/byteranges で返却します。
+     * </p>
      *
      * @param context コンテキスト
      * @param request リクエスト
@@ -230,37 +240,33 @@ final class DConnectHttpUtil {
      */
     private static void serveFile(final Context context, final HttpRequest request, final HttpResponse response) {
         String uri = request.getQueryParameters().get("uri");
-        String range = request.getHeaders().get("range");
-
-        long startFrom = 0;
-        long endAt = -1;
-        if (range != null) {
-            if (range.startsWith("bytes=")) {
-                range = range.substring("bytes=".length());
-                int minus = range.indexOf('-');
-                try {
-                    if (minus > 0) {
-                        startFrom = Long.parseLong(range.substring(0, minus));
-                        endAt = Long.parseLong(range.substring(minus + 1));
-                    }
-                } catch (NumberFormatException ignored) {
-                    // ignored.
-                }
-            }
+        if (uri == null) {
+            response.setCode(HttpResponse.StatusCode.NOT_FOUND);
+            setErrorResponse(response, 1, "Not found a resource.");
+            return;
         }
 
+        ParcelFileDescriptor pfd = null;
         try {
             ContentResolver r = context.getContentResolver();
-            InputStream in = r.openInputStream(Uri.parse(uri));
-            if (in == null) {
+            Uri contentUri = Uri.parse(uri);
+            pfd = r.openFileDescriptor(contentUri, "r");
+            if (pfd == null) {
                 response.setCode(HttpResponse.StatusCode.NOT_FOUND);
                 setErrorResponse(response, 1, "Not found a resource.");
                 return;
             }
 
-            int fileLen = in.available();
+            long fileLen = pfd.getStatSize();
+            if (fileLen < 0) {
+                // パイプなどでサイズが分からない場合は、範囲指定には対応せずにストリームで返却する
+                pfd.close();
+                pfd = null;
+                serveStream(r, contentUri, response);
+                return;
+            }
 
-            String etag = Integer.toHexString((uri + fileLen).hashCode());
+            String etag = createETag(uri, fileLen, pfd);
 
             String ifRange = request.getHeaders().get("if-range");
             boolean headerIfRangeMissingOrMatching = (ifRange == null || etag.equals(ifRange));
@@ -268,106 +274,83 @@ final class DConnectHttpUtil {
             String ifNoneMatch = request.getHeaders().get("if-none-match");
             boolean headerIfNoneMatchPresentAndMatching = ifNoneMatch != null && ("*".equals(ifNoneMatch) || ifNoneMatch.equals(etag));
 
-            if (headerIfRangeMissingOrMatching && range != null && startFrom >= 0 && startFrom < fileLen) {
-                if (headerIfNoneMatchPresentAndMatching) {
-                    response.setCode(HttpResponse.StatusCode.NOT_MODIFIED);
-                    response.addHeader("ETag", etag);
-                } else {
-                    if (endAt < 0) {
-                        endAt = fileLen - 1;
-                    }
-
-                    int newLen = (int) (endAt - startFrom + 1);
-                    if (newLen < 0) {
-                        newLen = 0;
-                    }
-
-                    in = new TempInputStream(in, newLen);
-                    if (startFrom > 0) {
-                        in.skip(startFrom);
-                    }
+            // If-Range が一致しない場合は範囲指定を無視してファイル全体を返却する
+            List<ByteRange> ranges = null;
+            if (headerIfRangeMissingOrMatching) {
+                ranges = ByteRange.parse(request.getHeaders().get("range"), fileLen);
+            }
 
-                    response.addHeader("Accept-Ranges", "bytes");
-                    response.addHeader("Content-Range", "bytes " + startFrom + "-" + endAt + "/" + fileLen);
-                    response.addHeader("Content-Length", String.valueOf(newLen));
-                    response.addHeader("ETag", etag);
-                    response.setBody(in);
-                    response.setContentLength(newLen);
-                    response.setCode(HttpResponse.StatusCode.PARTIAL_CONTENT);
-                }
+            if (ranges != null && ranges.isEmpty()) {
+                // return the size of the file
+                // 4xx responses are not trumped by if-none-match
+                response.setCode(HttpResponse.StatusCode.REQUEST_RANGE_NOT_SATISFIABLE);
+                response.addHeader("Content-Range", "bytes */" + fileLen);
+                response.addHeader("ETag", etag);
+            } else if (headerIfNoneMatchPresentAndMatching) {
+                // respond with not-modified
+                response.setCode(HttpResponse.StatusCode.NOT_MODIFIED);
+                response.addHeader("ETag", etag);
             } else {
-                if (headerIfRangeMissingOrMatching && range != null && startFrom >= fileLen) {
-                    // return the size of the file
-                    // 4xx responses are not trumped by if-none-match
-                    response.setCode(HttpResponse.StatusCode.REQUEST_RANGE_NOT_SATISFIABLE);
-                    response.addHeader("Content-Range", "bytes */" + fileLen);
-                    response.addHeader("ETag", etag);
-                } else if (range == null && headerIfNoneMatchPresentAndMatching) {
-                    // full-file-fetch request
-                    // would return entire file
-                    // respond with not-modified
-                    response.setCode(HttpResponse.StatusCode.NOT_MODIFIED);
-                    response.addHeader("ETag", etag);
-                } else if (!headerIfRangeMissingOrMatching && headerIfNoneMatchPresentAndMatching) {
-                    // range request that doesn't match current etag
-                    // would return entire (different) file
-                    // respond with not-modified
-                    response.setCode(HttpResponse.StatusCode.NOT_MODIFIED);
-                    response.addHeader("ETag", etag);
-                } else {
-                    // supply the file
-                    response.setBody(in);
-                    response.setCode(HttpResponse.StatusCode.OK);
-                    response.addHeader("Content-Length", String.valueOf(fileLen));
-                    response.addHeader("ETag", etag);
-                    response.addHeader("Accept-Ranges", "bytes");
-                }
+                FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+                pfd = null;
+                response.setBody(new FileChannelBody(in.getChannel(), in, fileLen, r.getType(contentUri), ranges));
+                response.setCode(ranges != null ? HttpResponse.StatusCode.PARTIAL_CONTENT : HttpResponse.StatusCode.OK);
+                response.addHeader("ETag", etag);
             }
         } catch (Exception e) {
             response.setCode(HttpResponse.StatusCode.NOT_FOUND);
             setErrorResponse(response, 1, "Not found a resource.");
+        } finally {
+            if (pfd != null) {
+                try {
+                    pfd.close();
+                } catch (IOException e) {
+                    // ignore.
+                }
+            }
         }
     }
 
-    private static class TempInputStream extends InputStream {
-
-        private InputStream mInputStream;
-        private int mFileSize;
-
-        TempInputStream(InputStream in, int fileSize) {
-            mInputStream = in;
-            mFileSize = fileSize;
-        }
-
-        @Override
-        public int read(@NonNull byte[] b) throws IOException {
-            return mInputStream.read(b);
-        }
-
-        @Override
-        public int read(@NonNull byte[] b, int off, int len) throws IOException {
-            return mInputStream.read(b, off, len);
-        }
-
-        @Override
-        public long skip(long n) throws IOException {
-            return mInputStream.skip(n);
-        }
-
-        @Override
-        public int available() throws IOException {
-            return mFileSize;
-        }
-
-        @Override
-        public void close() throws IOException {
-            mInputStream.close();
+    /**
+     * サイズの分からないファイルをストリームで返却します.
+     *
+     * @param resolver コンテントリゾルバ
+     * @param uri ファイルのURI
+     * @param response レスポンス
+     * @throws IOException ファイルが開けなかった場合に発生
+     */
+    private static void serveStream(final ContentResolver resolver, final Uri uri, final HttpResponse response) throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            response.setCode(HttpResponse.StatusCode.NOT_FOUND);
+            setErrorResponse(response, 1, "Not found a resource.");
+            return;
         }
+        // InputStream#available() はバッファ済みのサイズしか返さないので、Content-Length は指定せずに chunked で送信する
+        response.setBody(in);
+        response.setCode(HttpResponse.StatusCode.OK);
+        response.addHeader("Accept-Ranges", "none");
+    }
 
-        @Override
-        public int read() throws IOException {
-            return mInputStream.read();
+    /**
+     * ETagを作成します.
+     * <p>
+     * ファイルの更新日時を含めて、同じURIのファイルが書き換えられた場合にも異なる値になるようにします。
+     * </p>
+     *
+     * @param uri ファイルのURI
+     * @param fileLen ファイルのサイズ
+     * @param pfd ファイルディスクリプタ
+     * @return ETag
+     */
+    private static String createETag(final String uri, final long fileLen, final ParcelFileDescriptor pfd) {
+        long modified = 0;
+        try {
+            modified = Os.fstat(pfd.getFileDescriptor()).st_mtime;
+        } catch (ErrnoException e) {
+            // ignore.
         }
+        return Integer.toHexString((uri + fileLen + "-" + modified).hashCode());
     }
 
     /**
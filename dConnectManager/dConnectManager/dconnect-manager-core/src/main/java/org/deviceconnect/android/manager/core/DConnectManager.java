@@ -19,8 +19,13 @@ import org.deviceconnect.android.logger.AndroidHandler;
 import org.deviceconnect.android.manager.core.event.AbstractEventSessionFactory;
 import org.deviceconnect.android.manager.core.event.EventSession;
 import org.deviceconnect.android.manager.core.event.KeepAliveManager;
+import org.deviceconnect.android.manager.core.event.SharedEventMessage;
 import org.deviceconnect.android.manager.core.plugin.DevicePluginManager;
+import org.deviceconnect.android.manager.core.request.DConnectRequest;
+import org.deviceconnect.android.manager.core.request.DConnectRequestManager;
+import org.deviceconnect.android.manager.core.request.ResponseCorrelator;
 import org.deviceconnect.android.manager.core.util.DConnectUtil;
+import org.deviceconnect.android.message.MessageUtils;
 import org.deviceconnect.android.profile.DConnectProfile;
 import org.deviceconnect.android.ssl.EndPointKeyStoreManager;
 import org.deviceconnect.android.ssl.KeyStoreCallback;
@@ -49,9 +54,11 @@ import java.security.SecureRandom;
 import java.security.cert.Certificate;
 import java.util.ArrayList;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
@@ -107,6 +114,20 @@ public abstract class DConnectManager implements DConnectInterface {
      */
     private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
 
+    /**
+     * DConnectCore からのレスポンスを待っているリクエストを管理するクラス.
+     */
+    private ResponseCorrelator mResponseCorrelator;
+
+    /**
+     * WebSocketへのイベント送信を行うスレッドプール.
+     * <p>
+     * 各 WebSocket のイベント送信キューで共有します。
+     * </p>
+     */
+    private final ExecutorService mEventExecutor = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+
     /**
      * Device Connect Managerの処理を行うクラス.
      */
@@ -156,6 +177,7 @@ public abstract class DConnectManager implements DConnectInterface {
 
         mCore = new DConnectCore(mContext, mSettings, pluginManager, mEventSessionFactory);
         mCore.setDConnectInterface(this);
+        mResponseCorrelator = new ResponseCorrelator(mCore.getRequestManager().getTimer());
         mCore.setIDConnectCallback(new IDConnectCallback.Stub() {
             @Override
             public void sendMessage(final Intent message) {
@@ -208,6 +230,15 @@ public abstract class DConnectManager implements DConnectInterface {
         return mCore.getPluginManager();
     }
 
+    /**
+     * リクエスト管理クラスを取得します.
+     *
+     * @return リクエスト管理クラス
+     */
+    public DConnectRequestManager getRequestManager() {
+        return mCore.getRequestManager();
+    }
+
     /**
      * WebSocket情報管理クラスを取得します.
      *
@@ -319,9 +350,7 @@ public abstract class DConnectManager implements DConnectInterface {
 
             mCore.stop();
 
-            synchronized (mRequestMap) {
-                mRequestMap.clear();
-            }
+            mResponseCorrelator.clear();
         });
     }
 
@@ -426,7 +455,21 @@ public abstract class DConnectManager implements DConnectInterface {
                 mLogger.warning("sendEvent: key is not specified.");
                 return;
             }
+            offer(key, new SharedEventMessage(getSettings(), event));
+        }
 
+        @Override
+        public void sendEvent(final SharedEventMessage message) {
+            offer(getReceiverId(), message);
+        }
+
+        /**
+         * イベントを WebSocket のイベント送信キューに追加します.
+         *
+         * @param key セッションキー
+         * @param message イベントメッセージ
+         */
+        private void offer(final String key, final SharedEventMessage message) {
             if (mRESTServer != null && mRESTServer.isRunning()) {
                 WebSocketInfo info = getWebSocketInfo(key);
                 if (info == null) {
@@ -434,72 +477,36 @@ public abstract class DConnectManager implements DConnectInterface {
                     return;
                 }
 
-                DConnectWebSocket webSocket = mRESTServer.getWebSocket(info.getRawId());
-                if (webSocket != null) {
+                WebSocketEventQueue queue = info.getEventQueue();
+                if (queue != null) {
                     if (BuildConfig.DEBUG) {
-                        mLogger.info(String.format("sendEvent: %s extra: %s", key, event.getExtras()));
+                        mLogger.info(String.format("sendEvent: %s queue: %s", key, queue));
                     }
-
-                    mExecutor.execute(() -> {
-                        try {
-                            JSONObject root = new JSONObject();
-                            DConnectUtil.convertBundleToJSON(getSettings(), root, event.getExtras());
-                            webSocket.sendMessage(root.toString());
-                        } catch (Exception e) {
-                            mLogger.warning("JSONException in sendMessage: " + e.toString());
-                        }
-                    });
+                    queue.offer(createEventKey(), message, key);
                 }
             }
         }
-    }
-
-    /**
-     * リクエストを一時的に格納するマップ.
-     */
-    private final ConcurrentHashMap<Integer, ResponseHolder> mRequestMap = new ConcurrentHashMap<>();
-
-    /**
-     * リクエストとレスポンスを一時的に格納するクラス
-     */
-    private class ResponseHolder {
-        /**
-         * リクエスト.
-         */
-        private Intent mRequest;
-
-        /**
-         * レスポンス.
-         */
-        private Intent mResponse;
-
-        /**
-         * レスポンスを設定し、{@link #waitResponse()} で停止しているスレッドを解除します.
-         *
-         * @param response レスポンス
-         */
-        synchronized void setResponse(final Intent response) {
-            mResponse = response;
-            notify();
-        }
 
         /**
-         * レスポンスが存在するか確認します.
+         * イベント送信キューで同じイベントを判別するためのキーを作成します.
          *
-         * @return レスポンスが存在する場合はtrue、それ以外はfalse
+         * @return イベントキー
          */
-        synchronized boolean hasResponse() {
-            return mResponse != null;
+        private String createEventKey() {
+            return getServiceId() + "/" + getProfileName() + "/"
+                    + getInterfaceName() + "/" + getAttributeName();
         }
+    }
 
-        /**
-         * レスポンスが設定されるのを待ちます.
-         *
-         * @throws InterruptedException タイムアウトした場合に発生
-         */
-        synchronized void waitResponse() throws InterruptedException {
-            wait(mSettings.getRequestTimeout());
-        }
+    /**
+     * WebSocketのイベント送信キューを作成します.
+     *
+     * @param webSocket 送信先のWebSocket
+     * @return イベント送信キュー
+     */
+    private WebSocketEventQueue createEventQueue(final DConnectWebSocket webSocket) {
+        return new WebSocketEventQueue(webSocket, mEventExecutor,
+                mSettings.getWebSocketEventQueueSize(), mSettings.getWebSocketEventOverflowPolicy());
     }
 
     /**
@@ -512,42 +519,75 @@ public abstract class DConnectManager implements DConnectInterface {
         if (requestCode == Integer.MIN_VALUE) {
             return;
         }
-
-        ResponseHolder holder = mRequestMap.get(requestCode);
-        if (holder != null) {
-            holder.setResponse(mCore.createResponseIntent(holder.mRequest, response));
-        }
+        mResponseCorrelator.complete(requestCode, response);
     }
 
     /**
      * リクエストを DConnectCore に送信して実行します.
+     * <p>
+     * レスポンスを待っている間はスレッドを使用しません。
+     * タイムアウトした場合には、コールバックに null を通知します。
+     * </p>
      *
      * @param request リクエスト
-     * @return レスポンス
+     * @param callback レスポンスを通知するコールバック
+     * @return リクエストコード
      */
-    private Intent executeRequest(final Intent request) {
-        final int requestCode = UUID.randomUUID().hashCode();
+    private int executeRequest(final Intent request, final DConnectRequest.OnResponseCallback callback) {
+        final ResponseCorrelator.OnCompleteCallback onComplete = new ResponseCorrelator.OnCompleteCallback() {
+            @Override
+            public void onResponse(final Intent response) {
+                callback.onResponse(mCore.createResponseIntent(request, response));
+            }
 
-        ResponseHolder holder = new ResponseHolder();
-        holder.mRequest = request;
-        holder.mRequest.putExtra(IntentDConnectMessage.EXTRA_REQUEST_CODE, requestCode);
-        try {
-            mRequestMap.put(requestCode, holder);
+            @Override
+            public void onTimeout() {
+                callback.onResponse(null);
+            }
+        };
+
+        int requestCode;
+        do {
+            requestCode = UUID.randomUUID().hashCode();
+        } while (!mResponseCorrelator.register(requestCode, mSettings.getRequestTimeout(), onComplete));
 
+        request.putExtra(IntentDConnectMessage.EXTRA_REQUEST_CODE, requestCode);
+        try {
             mCore.handleMessage(request);
+        } catch (RuntimeException e) {
+            mResponseCorrelator.cancel(requestCode);
+            throw e;
+        }
+        return requestCode;
+    }
 
-            // 既にレスポンスが設定されている場合には wait せずに結果を返す
-            if (!holder.hasResponse()) {
-                try {
-                    holder.waitResponse();
-                } catch (InterruptedException e) {
-                    // ignore.
-                }
+    /**
+     * リクエストを DConnectCore に送信して、レスポンスが返ってくるまで待ちます.
+     * <p>
+     * HTTP サーバはリクエストを受け付けたスレッド上でレスポンスを返却する必要があるので、
+     * HTTP リクエストの場合にのみ使用します。
+     * </p>
+     *
+     * @param request リクエスト
+     * @return レスポンス、タイムアウトした場合には null
+     */
+    private Intent executeRequestAndWait(final Intent request) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Intent> result = new AtomicReference<>();
+        int requestCode = executeRequest(request, (response) -> {
+            result.set(response);
+            latch.countDown();
+        });
+
+        try {
+            // タイマーが停止された場合に備えて、タイムアウト時間で待機を打ち切る
+            if (!latch.await(mSettings.getRequestTimeout(), TimeUnit.MILLISECONDS)) {
+                mResponseCorrelator.cancel(requestCode);
             }
-        } finally {
-            mRequestMap.remove(requestCode);
+        } catch (InterruptedException e) {
+            mResponseCorrelator.cancel(requestCode);
         }
-        return holder.mResponse;
+        return result.get();
     }
 
     /**
@@ -593,7 +633,7 @@ public abstract class DConnectManager implements DConnectInterface {
                 public boolean onReceivedHttpRequest(final HttpRequest request, final HttpResponse response) {
                     Intent requestIntent = DConnectHttpUtil.convertHttp2Intent(mContext, mCore.getFileMgr(), request, response);
                     if (requestIntent != null) {
-                        Intent responseIntent = executeRequest(requestIntent);
+                        Intent responseIntent = executeRequestAndWait(requestIntent);
                         try {
                             if (responseIntent == null) {
                                 DConnectHttpUtil.setTimeoutResponse(response);
@@ -706,7 +746,8 @@ public abstract class DConnectManager implements DConnectInterface {
                             return;
                         }
 
-                        mWebSocketInfoManager.addWebSocketInfo(eventKey, origin + uri, webSocket.getId());
+                        mWebSocketInfoManager.addWebSocketInfo(eventKey, origin + uri, webSocket.getId(),
+                                createEventQueue(webSocket));
                     } catch (Exception e) {
                         mLogger.warning("onWebSocketMessage: Failed to parse message as JSON object: " + message);
 
@@ -886,10 +927,16 @@ public abstract class DConnectManager implements DConnectInterface {
                 mExecutor.execute(() -> {
                     int requestCode = message.getIntExtra(IntentDConnectMessage.EXTRA_REQUEST_CODE, -1);
                     ComponentName cn = message.getParcelableExtra(IntentDConnectMessage.EXTRA_RECEIVER);
-                    Intent responseIntent = executeRequest(message);
-                    responseIntent.putExtra(IntentDConnectMessage.EXTRA_REQUEST_CODE, requestCode);
-                    responseIntent.setComponent(cn);
-                    mContext.sendBroadcast(responseIntent);
+                    executeRequest(message, (response) -> {
+                        Intent responseIntent = response;
+                        if (responseIntent == null) {
+                            responseIntent = new Intent(IntentDConnectMessage.ACTION_RESPONSE);
+                            MessageUtils.setTimeoutError(responseIntent);
+                        }
+                        responseIntent.putExtra(IntentDConnectMessage.EXTRA_REQUEST_CODE, requestCode);
+                        responseIntent.setComponent(cn);
+                        mContext.sendBroadcast(responseIntent);
+                    });
                 });
             } else {
                 mCore.onReceivedMessage(message);
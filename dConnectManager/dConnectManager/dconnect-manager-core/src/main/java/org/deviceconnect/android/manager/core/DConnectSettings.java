@@ -41,6 +41,16 @@ public final class DConnectSettings {
      */
     private static final int DEFAULT_INTERVAL = 1000 * 60 * 5;
 
+    /**
+     * WebSocketのイベント送信キューのデフォルトの上限を定義.
+     */
+    private static final int DEFAULT_WEBSOCKET_EVENT_QUEUE_SIZE = 64;
+
+    /**
+     * Service Discovery のキャッシュのデフォルトの有効期限(ミリ秒)を定義.
+     */
+    private static final long DEFAULT_SERVICE_DISCOVERY_CACHE_TTL = 30 * 1000;
+
     /**
      * デフォルトのキーワード.
      */
@@ -630,6 +640,126 @@ public final class DConnectSettings {
         return 60 * 1000;
     }
 
+    /**
+     * WebSocketのイベント送信キューの上限を取得します.
+     *
+     * @return イベント送信キューの上限
+     */
+    public int getWebSocketEventQueueSize() {
+        try {
+            int size = Integer.parseInt(mPreferences.getString(
+                    mContext.getString(R.string.key_settings_websocket_event_queue_size),
+                    String.valueOf(DEFAULT_WEBSOCKET_EVENT_QUEUE_SIZE)));
+            return size > 0 ? size : DEFAULT_WEBSOCKET_EVENT_QUEUE_SIZE;
+        } catch (NumberFormatException e) {
+            return DEFAULT_WEBSOCKET_EVENT_QUEUE_SIZE;
+        }
+    }
+
+    /**
+     * WebSocketのイベント送信キューの上限を設定します.
+     *
+     * @param size イベント送信キューの上限
+     */
+    public void setWebSocketEventQueueSize(final int size) {
+        SharedPreferences.Editor editor = mPreferences.edit();
+        editor.putString(mContext.getString(R.string.key_settings_websocket_event_queue_size),
+                String.valueOf(size));
+        editor.apply();
+    }
+
+    /**
+     * WebSocketのイベント送信キューが溢れた場合の処理を取得します.
+     *
+     * @return イベント送信キューが溢れた場合の処理
+     */
+    public WebSocketEventQueue.OverflowPolicy getWebSocketEventOverflowPolicy() {
+        return WebSocketEventQueue.OverflowPolicy.fromName(mPreferences.getString(
+                mContext.getString(R.string.key_settings_websocket_event_overflow_policy),
+                WebSocketEventQueue.OverflowPolicy.DROP_OLDEST.name()));
+    }
+
+    /**
+     * WebSocketのイベント送信キューが溢れた場合の処理を設定します.
+     *
+     * @param policy イベント送信キューが溢れた場合の処理
+     */
+    public void setWebSocketEventOverflowPolicy(final WebSocketEventQueue.OverflowPolicy policy) {
+        SharedPreferences.Editor editor = mPreferences.edit();
+        editor.putString(mContext.getString(R.string.key_settings_websocket_event_overflow_policy),
+                policy.name());
+        editor.apply();
+    }
+
+    /**
+     * Service Discovery のキャッシュが有効か確認します.
+     *
+     * @return 有効の場合はtrue、それ以外はfalse
+     */
+    public boolean isServiceDiscoveryCacheEnabled() {
+        return mPreferences.getBoolean(mContext.getString(R.string.key_settings_service_discovery_cache), true);
+    }
+
+    /**
+     * Service Discovery のキャッシュの有効・無効を設定します.
+     *
+     * @param enabled 有効にする場合はtrue、それ以外はfalse
+     */
+    public void setServiceDiscoveryCacheEnabled(final boolean enabled) {
+        SharedPreferences.Editor editor = mPreferences.edit();
+        editor.putBoolean(mContext.getString(R.string.key_settings_service_discovery_cache), enabled);
+        editor.apply();
+    }
+
+    /**
+     * Service Discovery のキャッシュの有効期限を取得します.
+     *
+     * @return 有効期限(ミリ秒)
+     */
+    public long getServiceDiscoveryCacheTtl() {
+        try {
+            long ttl = Long.parseLong(mPreferences.getString(
+                    mContext.getString(R.string.key_settings_service_discovery_cache_ttl),
+                    String.valueOf(DEFAULT_SERVICE_DISCOVERY_CACHE_TTL)));
+            return ttl >= 0 ? ttl : DEFAULT_SERVICE_DISCOVERY_CACHE_TTL;
+        } catch (NumberFormatException e) {
+            return DEFAULT_SERVICE_DISCOVERY_CACHE_TTL;
+        }
+    }
+
+    /**
+     * Service Discovery のキャッシュの有効期限を設定します.
+     *
+     * @param ttl 有効期限(ミリ秒)
+     */
+    public void setServiceDiscoveryCacheTtl(final long ttl) {
+        SharedPreferences.Editor editor = mPreferences.edit();
+        editor.putString(mContext.getString(R.string.key_settings_service_discovery_cache_ttl),
+                String.valueOf(ttl));
+        editor.apply();
+    }
+
+    /**
+     * 有効期限切れの Service Discovery のキャッシュをバックグラウンドで更新するか確認します.
+     *
+     * @return バックグラウンドで更新する場合はtrue、プラグインの応答を待つ場合はfalse
+     */
+    public boolean isServiceDiscoveryBackgroundRefresh() {
+        return mPreferences.getBoolean(
+                mContext.getString(R.string.key_settings_service_discovery_background_refresh), true);
+    }
+
+    /**
+     * 有効期限切れの Service Discovery のキャッシュをバックグラウンドで更新するか設定します.
+     *
+     * @param refresh バックグラウンドで更新する場合はtrue、プラグインの応答を待つ場合はfalse
+     */
+    public void setServiceDiscoveryBackgroundRefresh(final boolean refresh) {
+        SharedPreferences.Editor editor = mPreferences.edit();
+        editor.putBoolean(mContext.getString(R.string.key_settings_service_discovery_background_refresh), refresh);
+        editor.apply();
+    }
+
     /**
      * アクセスログの設定を取得します.
      *
@@ -0,0 +1,450 @@
+/*
+ WebSocketEventQueue.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.manager.core;
+
+import org.deviceconnect.android.manager.core.event.SharedEventMessage;
+import org.deviceconnect.server.websocket.DConnectWebSocket;
+import org.json.JSONException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * WebSocket ごとのイベント送信キュー.
+ * <p>
+ * イベントは WebSocket ごとに上限付きのキューに格納され、共有のスレッドプール上で順番に送信されます。
+ * JSON への変換は {@link SharedEventMessage} で送信先の間で共有されます。
+ * 1つの WebSocket の送信が遅れても、他の WebSocket へのイベント送信は影響を受けません。
+ * </p>
+ * <p>
+ * キューが溢れた場合には {@link OverflowPolicy} に従って処理します。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public class WebSocketEventQueue {
+    /**
+     * 1回の送信処理で送信するイベントの最大数.
+     * <p>
+     * 1つの WebSocket がスレッドを占有し続けないように、この数を超えた場合には送信処理を積み直します。
+     * </p>
+     */
+    private static final int MAX_BATCH_SIZE = 16;
+
+    /**
+     * キューが溢れた場合の処理.
+     */
+    public enum OverflowPolicy {
+        /**
+         * 一番古いイベントを破棄します.
+         */
+        DROP_OLDEST,
+
+        /**
+         * 同じイベントキーのイベントが送信待ちの場合には、最新のイベントで置き換えます.
+         * <p>
+         * 同じイベントキーのイベントが存在しない場合には、一番古いイベントを破棄します。
+         * </p>
+         */
+        COALESCE_LATEST,
+
+        /**
+         * WebSocket を切断します.
+         */
+        DISCONNECT;
+
+        /**
+         * 名前から OverflowPolicy を取得します.
+         * <p>
+         * 該当する OverflowPolicy が存在しない場合には {@link #DROP_OLDEST} を返却します。
+         * </p>
+         * @param name 名前
+         * @return OverflowPolicy
+         */
+        public static OverflowPolicy fromName(final String name) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            return DROP_OLDEST;
+        }
+    }
+
+    /**
+     * ロガー.
+     */
+    private final Logger mLogger = Logger.getLogger("dconnect.manager");
+
+    /**
+     * 送信先の WebSocket.
+     */
+    private final DConnectWebSocket mWebSocket;
+
+    /**
+     * 送信処理を行うスレッドプール.
+     */
+    private final Executor mExecutor;
+
+    /**
+     * キューの上限.
+     */
+    private final int mCapacity;
+
+    /**
+     * キューが溢れた場合の処理.
+     */
+    private final OverflowPolicy mPolicy;
+
+    /**
+     * 送信待ちのイベント.
+     */
+    private final Deque<Entry> mQueue = new ArrayDeque<>();
+
+    /**
+     * 送信待ちのイベントをイベントキーで引くためのマップ.
+     * <p>
+     * {@link OverflowPolicy#COALESCE_LATEST} の場合のみ使用します。
+     * </p>
+     */
+    private final Map<String, Entry> mPending = new HashMap<>();
+
+    /**
+     * 送信処理がスレッドプールに積まれているか.
+     */
+    private boolean mScheduled;
+
+    /**
+     * キューが閉じられているか.
+     */
+    private boolean mClosed;
+
+    /**
+     * キューに追加されたイベント数.
+     */
+    private long mOfferedCount;
+
+    /**
+     * 送信したイベント数.
+     */
+    private long mSentCount;
+
+    /**
+     * 破棄したイベント数.
+     */
+    private long mDroppedCount;
+
+    /**
+     * 最新のイベントで置き換えたイベント数.
+     */
+    private long mCoalescedCount;
+
+    /**
+     * キューの最大長.
+     */
+    private int mMaxDepth;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param webSocket 送信先の WebSocket
+     * @param executor 送信処理を行うスレッドプール
+     * @param capacity キューの上限
+     * @param policy キューが溢れた場合の処理
+     */
+    public WebSocketEventQueue(final DConnectWebSocket webSocket,
+                               final Executor executor,
+                               final int capacity,
+                               final OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity is invalid.");
+        }
+        mWebSocket = webSocket;
+        mExecutor = executor;
+        mCapacity = capacity;
+        mPolicy = policy;
+    }
+
+    /**
+     * イベントを送信キューに追加します.
+     *
+     * @param key イベントキー
+     * @param message イベントメッセージ
+     * @param sessionKey イベントメッセージに埋め込むセッションキー
+     * @return キューに追加した場合はtrue、それ以外はfalse
+     */
+    public boolean offer(final String key, final SharedEventMessage message, final String sessionKey) {
+        boolean disconnect = false;
+        synchronized (mQueue) {
+            if (mClosed) {
+                return false;
+            }
+            mOfferedCount++;
+
+            if (mPolicy == OverflowPolicy.COALESCE_LATEST) {
+                Entry pending = mPending.get(key);
+                if (pending != null) {
+                    pending.mMessage = message;
+                    mCoalescedCount++;
+                    return true;
+                }
+            }
+
+            if (mQueue.size() >= mCapacity) {
+                if (mPolicy == OverflowPolicy.DISCONNECT) {
+                    mDroppedCount += mQueue.size() + 1;
+                    clear();
+                    mClosed = true;
+                    disconnect = true;
+                } else {
+                    Entry oldest = mQueue.poll();
+                    removePending(oldest);
+                    mDroppedCount++;
+                }
+            }
+
+            if (!disconnect) {
+                Entry entry = new Entry(key, message, sessionKey);
+                mQueue.offer(entry);
+                if (mPolicy == OverflowPolicy.COALESCE_LATEST) {
+                    mPending.put(key, entry);
+                }
+                if (mQueue.size() > mMaxDepth) {
+                    mMaxDepth = mQueue.size();
+                }
+                schedule();
+            }
+        }
+
+        if (disconnect) {
+            mLogger.warning("WebSocketEventQueue: queue is overflowed. Disconnect webSocket: id = " + mWebSocket.getId());
+            mExecutor.execute(mWebSocket::disconnect);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * キューを閉じます.
+     * <p>
+     * 送信待ちのイベントは破棄されます。
+     * </p>
+     */
+    public void close() {
+        synchronized (mQueue) {
+            mClosed = true;
+            clear();
+        }
+    }
+
+    /**
+     * 送信先の WebSocket を取得します.
+     *
+     * @return WebSocket
+     */
+    public DConnectWebSocket getWebSocket() {
+        return mWebSocket;
+    }
+
+    /**
+     * キューの上限を取得します.
+     *
+     * @return キューの上限
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * キューが溢れた場合の処理を取得します.
+     *
+     * @return キューが溢れた場合の処理
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * 送信待ちのイベント数を取得します.
+     *
+     * @return 送信待ちのイベント数
+     */
+    public int getDepth() {
+        synchronized (mQueue) {
+            return mQueue.size();
+        }
+    }
+
+    /**
+     * キューの最大長を取得します.
+     *
+     * @return キューの最大長
+     */
+    public int getMaxDepth() {
+        synchronized (mQueue) {
+            return mMaxDepth;
+        }
+    }
+
+    /**
+     * キューに追加されたイベント数を取得します.
+     *
+     * @return キューに追加されたイベント数
+     */
+    public long getOfferedCount() {
+        synchronized (mQueue) {
+            return mOfferedCount;
+        }
+    }
+
+    /**
+     * 送信したイベント数を取得します.
+     *
+     * @return 送信したイベント数
+     */
+    public long getSentCount() {
+        synchronized (mQueue) {
+            return mSentCount;
+        }
+    }
+
+    /**
+     * 破棄したイベント数を取得します.
+     *
+     * @return 破棄したイベント数
+     */
+    public long getDroppedCount() {
+        synchronized (mQueue) {
+            return mDroppedCount;
+        }
+    }
+
+    /**
+     * 最新のイベントで置き換えたイベント数を取得します.
+     *
+     * @return 最新のイベントで置き換えたイベント数
+     */
+    public long getCoalescedCount() {
+        synchronized (mQueue) {
+            return mCoalescedCount;
+        }
+    }
+
+    /**
+     * 送信処理をスレッドプールに積みます.
+     * <p>
+     * mQueue で同期した状態で呼び出すこと。
+     * </p>
+     */
+    private void schedule() {
+        if (!mScheduled) {
+            mScheduled = true;
+            mExecutor.execute(this::drain);
+        }
+    }
+
+    /**
+     * 送信待ちのイベントを破棄します.
+     * <p>
+     * mQueue で同期した状態で呼び出すこと。
+     * </p>
+     */
+    private void clear() {
+        mQueue.clear();
+        mPending.clear();
+    }
+
+    /**
+     * 送信待ちのマップからエントリーを削除します.
+     * <p>
+     * mQueue で同期した状態で呼び出すこと。
+     * </p>
+     * @param entry 削除するエントリー
+     */
+    private void removePending(final Entry entry) {
+        if (entry != null && mPending.get(entry.mKey) == entry) {
+            mPending.remove(entry.mKey);
+        }
+    }
+
+    /**
+     * 送信待ちのイベントを送信します.
+     */
+    private void drain() {
+        for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+            Entry entry;
+            synchronized (mQueue) {
+                entry = mQueue.poll();
+                if (entry == null || mClosed) {
+                    mScheduled = false;
+                    return;
+                }
+                removePending(entry);
+            }
+
+            try {
+                mWebSocket.sendTextMessage(entry.mMessage.createFrame(entry.mSessionKey));
+            } catch (JSONException e) {
+                mLogger.warning("JSONException in sendMessage: " + e.getMessage());
+            } catch (RuntimeException e) {
+                // 送信に失敗しても、残りのイベントの送信は続ける
+                mLogger.warning("Failed to send an event: " + e.toString());
+            }
+
+            synchronized (mQueue) {
+                mSentCount++;
+            }
+        }
+
+        synchronized (mQueue) {
+            mScheduled = false;
+            if (!mQueue.isEmpty() && !mClosed) {
+                // 他の WebSocket の送信処理を待たせないように積み直す
+                schedule();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mQueue) {
+            return "{ depth=" + mQueue.size() + ", maxDepth=" + mMaxDepth
+                    + ", offered=" + mOfferedCount + ", sent=" + mSentCount
+                    + ", dropped=" + mDroppedCount + ", coalesced=" + mCoalescedCount + " }";
+        }
+    }
+
+    /**
+     * 送信待ちのイベント.
+     */
+    private static class Entry {
+        /**
+         * イベントキー.
+         */
+        private final String mKey;
+
+        /**
+         * イベントメッセージに埋め込むセッションキー.
+         */
+        private final String mSessionKey;
+
+        /**
+         * イベントメッセージ.
+         */
+        private SharedEventMessage mMessage;
+
+        Entry(final String key, final SharedEventMessage message, final String sessionKey) {
+            mKey = key;
+            mMessage = message;
+            mSessionKey = sessionKey;
+        }
+    }
+}
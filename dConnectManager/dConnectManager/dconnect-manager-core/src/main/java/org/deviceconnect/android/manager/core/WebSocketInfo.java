@@ -44,6 +44,11 @@ public class WebSocketInfo {
      */
     private long mConnectTime;
 
+    /**
+     * イベント送信キュー.
+     */
+    private WebSocketEventQueue mEventQueue;
+
     /**
      * WebSocketの識別子を取得する.
      * @return WebSocketの識別子
@@ -111,12 +116,29 @@ public class WebSocketInfo {
         mConnectTime = connectTime;
     }
 
+    /**
+     * WebSocketのイベント送信キューを取得する.
+     * @return イベント送信キュー
+     */
+    public WebSocketEventQueue getEventQueue() {
+        return mEventQueue;
+    }
+
+    /**
+     * WebSocketのイベント送信キューを設定する.
+     * @param eventQueue イベント送信キュー
+     */
+    public void setEventQueue(final WebSocketEventQueue eventQueue) {
+        mEventQueue = eventQueue;
+    }
+
     @Override
     public String toString() {
         return "WebSocketInfo: {\n" +
                 "    mRawId: " + mRawId + "\n" +
                 "    mOrigin: " + mOrigin + "\n" +
                 "    mUri: " + mUri + "\n" +
+                "    mEventQueue: " + mEventQueue + "\n" +
                 "}";
     }
 }
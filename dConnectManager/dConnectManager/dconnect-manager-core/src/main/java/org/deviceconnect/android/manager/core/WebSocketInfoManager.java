@@ -80,14 +80,17 @@ public class WebSocketInfoManager {
      * @param origin WebSocketのオリジン、もしくはセッションキー
      * @param uri URI
      * @param webSocketId WebSocketの識別子.
+     * @param eventQueue イベント送信キュー
      */
-    void addWebSocketInfo(final String origin, final String uri, final String webSocketId) {
+    void addWebSocketInfo(final String origin, final String uri, final String webSocketId,
+                          final WebSocketEventQueue eventQueue) {
         WebSocketInfo info = new WebSocketInfo();
         info.setRawId(webSocketId);
         info.setUri(uri);
         info.setOrigin(origin);
         info.setConnectTime(System.currentTimeMillis());
-        mWebSocketInfoMap.put(origin, info);
+        info.setEventQueue(eventQueue);
+        closeEventQueue(mWebSocketInfoMap.put(origin, info));
     }
 
     /**
@@ -98,10 +101,22 @@ public class WebSocketInfoManager {
     void removeWebSocketInfo(final String origin) {
         WebSocketInfo info = mWebSocketInfoMap.remove(origin);
         if (info != null) {
+            closeEventQueue(info);
             notifyOnDisconnect(origin);
         }
     }
 
+    /**
+     * WebSocketのイベント送信キューを閉じる.
+     *
+     * @param info WebSocketの情報
+     */
+    private void closeEventQueue(final WebSocketInfo info) {
+        if (info != null && info.getEventQueue() != null) {
+            info.getEventQueue().close();
+        }
+    }
+
     /**
      * 指定されたオリジン、もしくはセッションキーに対応するWebSocketを取得する.
      *
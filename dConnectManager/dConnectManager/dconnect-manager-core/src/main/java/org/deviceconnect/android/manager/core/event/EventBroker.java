@@ -22,6 +22,7 @@ import org.deviceconnect.message.DConnectMessage;
 import org.deviceconnect.message.intent.message.IntentDConnectMessage;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -34,6 +35,8 @@ public class EventBroker {
 
     private final Logger mLogger = Logger.getLogger("dconnect.manager");
 
+    private final DConnectSettings mSettings;
+
     private final EventSessionTable mTable;
 
     private final DConnectLocalOAuth mLocalOAuth;
@@ -44,6 +47,8 @@ public class EventBroker {
 
     private RegistrationListener mListener;
 
+    private ServiceChangeListener mServiceChangeListener;
+
     /**
      * コンストラクタ.
      *
@@ -56,6 +61,7 @@ public class EventBroker {
     public EventBroker(final DConnectSettings settings, final EventSessionTable table,
                        final DConnectLocalOAuth localOAuth, final DevicePluginManager pluginManager,
                        final AbstractEventSessionFactory factory) {
+        mSettings = settings;
         mTable = table;
         mLocalOAuth = localOAuth;
         mPluginManager = pluginManager;
@@ -71,6 +77,15 @@ public class EventBroker {
         mListener = listener;
     }
 
+    /**
+     * プラグインからの onServiceChange イベントを通知するリスナーを設定します.
+     *
+     * @param listener リスナー
+     */
+    public void setServiceChangeListener(final ServiceChangeListener listener) {
+        mServiceChangeListener = listener;
+    }
+
     /**
      * 指定されたレシーバーIDのセッションを削除します.
      *
@@ -157,18 +172,10 @@ public class EventBroker {
         String interfaceName = DConnectProfile.getInterface(event);
         String attributeName = DConnectProfile.getAttribute(event);
 
-        EventSession targetSession = null;
+        List<EventSession> targetSessions;
         if (pluginAccessToken != null) {
-            for (EventSession session : mTable.getAll()) {
-                if (isSameNameCaseSensitive(pluginAccessToken, session.getAccessToken()) &&
-                    isSameNameCaseSensitive(serviceId, session.getServiceId()) &&
-                    isSameName(profileName, session.getProfileName()) &&
-                    isSameName(interfaceName, session.getInterfaceName()) &&
-                    isSameName(attributeName, session.getAttributeName())) {
-                    targetSession = session;
-                    break;
-                }
-            }
+            targetSessions = mTable.findEventSessionsForAccessToken(pluginAccessToken,
+                    serviceId, profileName, interfaceName, attributeName);
         } else {
             // 旧バージョンのイベントAPIとの互換性保持
             String sessionKey = DConnectProfile.getSessionKey(event);
@@ -176,27 +183,28 @@ public class EventBroker {
                 sessionKey = trimReceiverName(sessionKey);
                 String pluginId = EventProtocol.convertSessionKey2PluginId(sessionKey);
                 String receiverId = EventProtocol.convertSessionKey2Key(sessionKey);
-                for (EventSession session : mTable.getAll()) {
-                    if (isSameNameCaseSensitive(pluginId, session.getPluginId()) &&
-                        isSameNameCaseSensitive(receiverId, session.getReceiverId()) &&
-                        isSameNameCaseSensitive(serviceId, session.getServiceId()) &&
-                        isSameName(profileName, session.getProfileName()) &&
-                        isSameName(interfaceName, session.getInterfaceName()) &&
-                        isSameName(attributeName, session.getAttributeName())) {
-                        targetSession = session;
-                        break;
-                    }
-                }
+                targetSessions = mTable.findEventSessionsForReceiver(pluginId, receiverId,
+                        serviceId, profileName, interfaceName, attributeName);
+            } else {
+                targetSessions = Collections.emptyList();
             }
         }
 
-        if (targetSession != null) {
+        // 同じイベントを購読している全てのセッションに配送する
+        // JSON への変換は SharedEventMessage で送信先のプラグインごとに1回だけ行う
+        SharedEventMessage message = null;
+        DevicePlugin messagePlugin = null;
+        for (EventSession targetSession : targetSessions) {
             try {
                 DevicePlugin plugin = mPluginManager.getDevicePlugin(targetSession.getPluginId());
                 if (plugin != null) {
-                    event.putExtra(IntentDConnectMessage.EXTRA_SESSION_KEY, targetSession.getReceiverId());
-                    event.putExtra(DConnectMessage.EXTRA_SERVICE_ID, mPluginManager.appendServiceId(plugin, serviceId));
-                    targetSession.sendEvent(event);
+                    if (message == null || messagePlugin != plugin) {
+                        Intent base = new Intent(event);
+                        base.putExtra(DConnectMessage.EXTRA_SERVICE_ID, mPluginManager.appendServiceId(plugin, serviceId));
+                        message = new SharedEventMessage(mSettings, base);
+                        messagePlugin = plugin;
+                    }
+                    targetSession.sendEvent(message);
                 } else {
                     mLogger.warning("onEvent: Plugin is not found: id = " + targetSession.getPluginId());
                 }
@@ -217,20 +225,15 @@ public class EventBroker {
         String interfaceName = DConnectProfile.getInterface(event);
         String attributeName = DConnectProfile.getAttribute(event);
 
-        EventSession targetSession = null;
-        for (EventSession session : mTable.getAll()) {
-            if (isSameName(profileName, session.getProfileName()) &&
-                isSameName(interfaceName, session.getInterfaceName()) &&
-                isSameName(attributeName, session.getAttributeName())) {
-                targetSession = session;
-                break;
-            }
+        List<EventSession> targetSessions = mTable.findEventSessionsForPath(profileName, interfaceName, attributeName);
+        if (targetSessions.isEmpty()) {
+            return;
         }
 
-        if (targetSession != null) {
+        SharedEventMessage message = new SharedEventMessage(mSettings, event);
+        for (EventSession targetSession : targetSessions) {
             try {
-                event.putExtra(IntentDConnectMessage.EXTRA_SESSION_KEY, targetSession.getReceiverId());
-                targetSession.sendEvent(event);
+                targetSession.sendEvent(message);
             } catch (IOException e) {
                 error("Failed to send event.");
             }
@@ -316,6 +319,12 @@ public class EventBroker {
         // サービスIDを変更
         replaceServiceId(event, plugin);
 
+        if (mServiceChangeListener != null && id != null) {
+            Bundle changedService = new Bundle(service);
+            changedService.putString(ServiceDiscoveryProfile.PARAM_ID, mPluginManager.appendServiceId(plugin, id));
+            mServiceChangeListener.onServiceChange(plugin, changedService);
+        }
+
         // 送信先のセッションを取得
         List<Event> evts = EventManager.INSTANCE.getEventList(
             ServiceDiscoveryProfile.PROFILE_NAME,
@@ -356,40 +365,6 @@ public class EventBroker {
             mPluginManager.appendServiceId(plugin, serviceId));
     }
 
-    /**
-     * 大文字小文字を無視して文字列が一致するか確認します.
-     * @param a
-     * @param b
-     * @return
-     */
-    private boolean isSameName(final String a, final  String b) {
-        if (a == null && b == null) {
-            return true;
-        }
-        if (a != null) {
-            return a.equalsIgnoreCase(b);
-        } else {
-            return b.equalsIgnoreCase(a);
-        }
-    }
-
-    /**
-     * 大文字小文字を区別して文字列が一致するか確認します.
-     * @param a
-     * @param b
-     * @return
-     */
-    private boolean isSameNameCaseSensitive(final String a, final  String b) {
-        if (a == null && b == null) {
-            return true;
-        }
-        if (a != null) {
-            return a.equals(b);
-        } else {
-            return b.equals(a);
-        }
-    }
-
     /**
      * 指定されたリクエストがイベント登録のリクエストか確認します.
      * <p>
@@ -426,4 +401,17 @@ public class EventBroker {
         void onPutEventSession(final Intent request, final DevicePlugin plugin);
         void onDeleteEventSession(final Intent request, final DevicePlugin plugin);
     }
+
+    /**
+     * プラグインからの onServiceChange イベントを通知するリスナー.
+     */
+    public interface ServiceChangeListener {
+        /**
+         * サービスの状態が変更されたことを通知します.
+         *
+         * @param plugin プラグイン
+         * @param service 変更されたサービス. サービスIDにはプラグインIDが付加されている
+         */
+        void onServiceChange(final DevicePlugin plugin, final Bundle service);
+    }
 }
@@ -134,6 +134,19 @@ public abstract class EventSession {
 
     public abstract void sendEvent(final Intent event) throws IOException;
 
+    /**
+     * 複数のイベントセッションで共有するイベントを送信します.
+     * <p>
+     * デフォルトでは、レシーバーIDをセッションキーに設定した Intent を作成して
+     * {@link #sendEvent(Intent)} で送信します。
+     * </p>
+     * @param message 共有するイベントメッセージ
+     * @throws IOException 送信に失敗した場合に発生
+     */
+    public void sendEvent(final SharedEventMessage message) throws IOException {
+        sendEvent(message.createIntent(getReceiverId()));
+    }
+
     @Override
     public String toString() {
         return "{\n" +
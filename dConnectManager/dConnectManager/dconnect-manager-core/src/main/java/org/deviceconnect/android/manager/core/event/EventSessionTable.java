@@ -3,30 +3,131 @@ package org.deviceconnect.android.manager.core.event;
 import org.deviceconnect.android.manager.core.plugin.DevicePlugin;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * イベントのセッションを保持するクラス.
+ * <p>
+ * イベント配送時の検索を高速化するために、セッションのリストとは別に以下のキーでインデックスを作成します。
+ * </p>
+ * <ul>
+ *     <li>アクセストークン、サービスID、プロファイル名、インターフェース名、アトリビュート名</li>
+ *     <li>プラグインID、レシーバーID、サービスID、プロファイル名、インターフェース名、アトリビュート名</li>
+ *     <li>プロファイル名、インターフェース名、アトリビュート名</li>
+ * </ul>
+ * <p>
+ * インデックスは更新時に作り直した不変なスナップショットとして公開するので、
+ * イベント配送時の読み込みではロックを取得しません。
+ * </p>
  *
  * @author NTT DOCOMO, INC.
  */
 public class EventSessionTable {
 
+    /**
+     * インデックスのキーで null を表す文字.
+     */
+    private static final char NULL_MARK = '\u0000';
+
+    /**
+     * インデックスのキーの区切り文字.
+     */
+    private static final char KEY_SEPARATOR = '\u0001';
+
+    /**
+     * 更新処理用のロックオブジェクト.
+     */
+    private final Object mLock = new Object();
+
     /**
      * セッションのリスト.
+     * <p>
+     * 更新は {@link #mLock} で同期して行い、更新後に {@link #mSnapshot} を作り直します。
+     * </p>
      */
     private final List<EventSession> mEventSessions = new ArrayList<>();
 
+    /**
+     * 読み込み用のスナップショット.
+     */
+    private volatile Snapshot mSnapshot = new Snapshot(Collections.<EventSession>emptyList());
+
     /**
      * セッションのリストを取得します.
      *
      * @return セッションのリスト
      */
     public List<EventSession> getAll() {
-        synchronized (mEventSessions) {
-            return new ArrayList<>(mEventSessions);
-        }
+        return new ArrayList<>(mSnapshot.mAll);
+    }
+
+    /**
+     * アクセストークンを持つプラグインからのイベントの送信先となるイベントセッションを取得します.
+     * <p>
+     * プロファイル名、インターフェース名、アトリビュート名の大文字小文字は無視します。
+     * イベントセッションが存在しない場合は、空のリストを返却します。
+     * </p>
+     * @param accessToken プラグインのアクセストークン
+     * @param serviceId サービスID
+     * @param profileName プロファイル名
+     * @param interfaceName インターフェース名
+     * @param attributeName アトリビュート名
+     * @return イベントセッションのリスト
+     */
+    List<EventSession> findEventSessionsForAccessToken(final String accessToken,
+                                                       final String serviceId,
+                                                       final String profileName,
+                                                       final String interfaceName,
+                                                       final String attributeName) {
+        String key = createKey(accessToken, serviceId,
+                lower(profileName), lower(interfaceName), lower(attributeName));
+        return lookup(mSnapshot.mByAccessToken, key);
+    }
+
+    /**
+     * セッションキーを使用する旧バージョンのプラグインからのイベントの送信先となるイベントセッションを取得します.
+     * <p>
+     * イベントセッションが存在しない場合は、空のリストを返却します。
+     * </p>
+     * @param pluginId プラグインID
+     * @param receiverId レシーバーID
+     * @param serviceId サービスID
+     * @param profileName プロファイル名
+     * @param interfaceName インターフェース名
+     * @param attributeName アトリビュート名
+     * @return イベントセッションのリスト
+     */
+    List<EventSession> findEventSessionsForReceiver(final String pluginId,
+                                                    final String receiverId,
+                                                    final String serviceId,
+                                                    final String profileName,
+                                                    final String interfaceName,
+                                                    final String attributeName) {
+        String key = createKey(pluginId, receiverId, serviceId,
+                lower(profileName), lower(interfaceName), lower(attributeName));
+        return lookup(mSnapshot.mByReceiver, key);
+    }
+
+    /**
+     * 指定されたパスのイベントセッションを取得します.
+     * <p>
+     * Device Connect Manager 自身のイベントの送信先を検索するために使用します。
+     * イベントセッションが存在しない場合は、空のリストを返却します。
+     * </p>
+     * @param profileName プロファイル名
+     * @param interfaceName インターフェース名
+     * @param attributeName アトリビュート名
+     * @return イベントセッションのリスト
+     */
+    List<EventSession> findEventSessionsForPath(final String profileName,
+                                                final String interfaceName,
+                                                final String attributeName) {
+        String key = createKey(lower(profileName), lower(interfaceName), lower(attributeName));
+        return lookup(mSnapshot.mByPath, key);
     }
 
     /**
@@ -39,11 +140,9 @@ public class EventSessionTable {
      */
     List<EventSession> findEventSessionsForPlugin(final DevicePlugin plugin) {
         List<EventSession> result = new ArrayList<>();
-        synchronized (mEventSessions) {
-            for (EventSession session : mEventSessions) {
-                if (plugin.getPluginId().equals(session.getPluginId())) {
-                    result.add(session);
-                }
+        for (EventSession session : mSnapshot.mAll) {
+            if (plugin.getPluginId().equals(session.getPluginId())) {
+                result.add(session);
             }
         }
         return result;
@@ -55,8 +154,9 @@ public class EventSessionTable {
      * @param session 追加するイベントセッション
      */
     void add(final EventSession session) {
-        synchronized(mEventSessions) {
+        synchronized (mLock) {
             mEventSessions.add(session);
+            publish();
         }
     }
 
@@ -66,8 +166,10 @@ public class EventSessionTable {
      * @param session イベントセッション
      */
     void remove(final EventSession session) {
-        synchronized (mEventSessions) {
-            mEventSessions.remove(session);
+        synchronized (mLock) {
+            if (mEventSessions.remove(session)) {
+                publish();
+            }
         }
     }
 
@@ -78,12 +180,14 @@ public class EventSessionTable {
      * @param newAccessToken アクセストークン
      */
     void updateAccessTokenForPlugin(final String pluginId, final String newAccessToken) {
-        synchronized (mEventSessions) {
+        synchronized (mLock) {
             for (EventSession session : mEventSessions) {
                 if (session.getPluginId() != null && session.getPluginId().equals(pluginId)) {
                     session.setAccessToken(newAccessToken);
                 }
             }
+            // アクセストークンはインデックスのキーに含まれるので作り直す
+            publish();
         }
     }
 
@@ -93,13 +197,18 @@ public class EventSessionTable {
      * @param pluginId プラグインID
      */
     void removeForPlugin(final String pluginId) {
-        synchronized (mEventSessions) {
-            for (Iterator<EventSession> it = mEventSessions.iterator(); it.hasNext(); ) {
-                EventSession session = it.next();
+        synchronized (mLock) {
+            boolean removed = false;
+            for (int i = mEventSessions.size() - 1; i >= 0; i--) {
+                EventSession session = mEventSessions.get(i);
                 if (session.getPluginId() != null && session.getPluginId().equals(pluginId)) {
-                    it.remove();
+                    mEventSessions.remove(i);
+                    removed = true;
                 }
             }
+            if (removed) {
+                publish();
+            }
         }
     }
 
@@ -109,17 +218,133 @@ public class EventSessionTable {
      * @param receiverId レシーバーID
      */
     void removeForReceiverId(final String receiverId) {
-        synchronized (mEventSessions) {
-            for (Iterator<EventSession> it = mEventSessions.iterator(); it.hasNext(); ) {
-                if (it.next().getReceiverId().equals(receiverId)) {
-                    it.remove();
+        synchronized (mLock) {
+            boolean removed = false;
+            for (int i = mEventSessions.size() - 1; i >= 0; i--) {
+                if (mEventSessions.get(i).getReceiverId().equals(receiverId)) {
+                    mEventSessions.remove(i);
+                    removed = true;
                 }
             }
+            if (removed) {
+                publish();
+            }
+        }
+    }
+
+    /**
+     * 現在のセッションのリストからスナップショットを作成して公開します.
+     * <p>
+     * {@link #mLock} を取得した状態で呼び出すこと。
+     * </p>
+     */
+    private void publish() {
+        mSnapshot = new Snapshot(new ArrayList<>(mEventSessions));
+    }
+
+    /**
+     * インデックスからイベントセッションのリストを取得します.
+     *
+     * @param index インデックス
+     * @param key キー
+     * @return イベントセッションのリスト
+     */
+    private static List<EventSession> lookup(final Map<String, List<EventSession>> index, final String key) {
+        List<EventSession> sessions = index.get(key);
+        if (sessions == null) {
+            return Collections.emptyList();
+        }
+        return sessions;
+    }
+
+    /**
+     * インデックスに登録します.
+     *
+     * @param index インデックス
+     * @param key キー
+     * @param session イベントセッション
+     */
+    private static void put(final Map<String, List<EventSession>> index, final String key, final EventSession session) {
+        List<EventSession> sessions = index.get(key);
+        if (sessions == null) {
+            sessions = new ArrayList<>(1);
+            index.put(key, sessions);
+        }
+        sessions.add(session);
+    }
+
+    /**
+     * 大文字小文字を無視して比較するために小文字に変換します.
+     *
+     * @param name 変換する文字列
+     * @return 小文字に変換した文字列
+     */
+    private static String lower(final String name) {
+        return name == null ? null : name.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * インデックスのキーを作成します.
+     * <p>
+     * null は空文字とは区別します。
+     * </p>
+     * @param values キーの要素
+     * @return キー
+     */
+    private static String createKey(final String... values) {
+        StringBuilder key = new StringBuilder();
+        for (String value : values) {
+            if (value == null) {
+                key.append(NULL_MARK);
+            } else {
+                key.append(value);
+            }
+            key.append(KEY_SEPARATOR);
         }
+        return key.toString();
     }
 
     @Override
     public String toString() {
-        return mEventSessions.toString();
+        return mSnapshot.mAll.toString();
+    }
+
+    /**
+     * イベントセッションのリストとインデックスの不変なスナップショット.
+     */
+    private static class Snapshot {
+        /**
+         * 全てのイベントセッション.
+         */
+        private final List<EventSession> mAll;
+
+        /**
+         * アクセストークンをキーに含むインデックス.
+         */
+        private final Map<String, List<EventSession>> mByAccessToken = new HashMap<>();
+
+        /**
+         * プラグインIDとレシーバーIDをキーに含むインデックス.
+         */
+        private final Map<String, List<EventSession>> mByReceiver = new HashMap<>();
+
+        /**
+         * パスのみをキーにしたインデックス.
+         */
+        private final Map<String, List<EventSession>> mByPath = new HashMap<>();
+
+        Snapshot(final List<EventSession> sessions) {
+            mAll = Collections.unmodifiableList(sessions);
+            for (EventSession session : sessions) {
+                String profileName = lower(session.getProfileName());
+                String interfaceName = lower(session.getInterfaceName());
+                String attributeName = lower(session.getAttributeName());
+                put(mByAccessToken, createKey(session.getAccessToken(), session.getServiceId(),
+                        profileName, interfaceName, attributeName), session);
+                put(mByReceiver, createKey(session.getPluginId(), session.getReceiverId(), session.getServiceId(),
+                        profileName, interfaceName, attributeName), session);
+                put(mByPath, createKey(profileName, interfaceName, attributeName), session);
+            }
+        }
     }
 }
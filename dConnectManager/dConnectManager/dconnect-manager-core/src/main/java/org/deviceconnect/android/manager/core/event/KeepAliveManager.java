@@ -15,11 +15,11 @@ import org.deviceconnect.android.manager.core.DConnectConst;
 import org.deviceconnect.android.manager.core.DConnectInterface;
 import org.deviceconnect.android.manager.core.plugin.DevicePlugin;
 import org.deviceconnect.message.intent.message.IntentDConnectMessage;
+import org.deviceconnect.server.util.KeepAliveScheduler;
 
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -28,6 +28,11 @@ import java.util.logging.Logger;
  * @author NTT DOCOMO, INC.
  */
 public class KeepAliveManager {
+    /**
+     * 定期処理間隔のデフォルト値(mSec).
+     */
+    public static final long DEFAULT_PROCESS_INTERVAL = 30000;
+
     /**
      * ロガー.
      */
@@ -54,9 +59,22 @@ public class KeepAliveManager {
     private Boolean mEnableKeepAlive = true;
 
     /**
-     * タイマーハンドラー.
+     * 定期処理を実行するスケジューラ.
+     * <p>
+     * WebSocket の生存確認と同じスケジューラを共有します。
+     * </p>
+     */
+    private KeepAliveScheduler mScheduler = KeepAliveScheduler.getDefault();
+
+    /**
+     * 定期処理の登録情報.
      */
-    private Timer mTimer;
+    private KeepAliveScheduler.Registration mRegistration;
+
+    /**
+     * 定期処理間隔(mSec).
+     */
+    private long mProcessInterval = DEFAULT_PROCESS_INTERVAL;
 
     /**
      * 定期処理中フラグ.
@@ -88,6 +106,36 @@ public class KeepAliveManager {
     public void setDConnectInterface(final DConnectInterface i) {
         mInterface = i;
     }
+
+    /**
+     * 定期処理を実行するスケジューラを設定する.
+     * <p>
+     * 設定したスケジューラは、次に定期処理を開始した時から使用されます。
+     * </p>
+     *
+     * @param scheduler スケジューラ
+     */
+    public synchronized void setKeepAliveScheduler(final KeepAliveScheduler scheduler) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler is null.");
+        }
+        mScheduler = scheduler;
+    }
+
+    /**
+     * 定期処理間隔を設定する.
+     * <p>
+     * 設定した間隔は、次に定期処理を開始した時から使用されます。
+     * </p>
+     *
+     * @param interval 定期処理間隔(mSec). 1以上を指定すること。
+     */
+    public synchronized void setProcessInterval(final long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be larger than 0.");
+        }
+        mProcessInterval = interval;
+    }
     /**
      * KeepAlive機能無効.
      *
@@ -293,16 +341,19 @@ public class KeepAliveManager {
      * 定期処理開始.
      */
     private void startPeriodicProcess() {
-        if (mTimer == null) {
-            mTimer = new Timer(true);
-            /* 定期処理間隔(mSec). */
-            int PROCESS_INTERVAL = 30000;
-            mTimer.schedule(new TimerTask() {
+        if (mRegistration == null) {
+            mRegistration = mScheduler.schedule(new KeepAliveScheduler.Target() {
                 @Override
-                public void run() {
+                public boolean onKeepAlive() {
                     periodicProcess();
+                    // プラグインの生存確認は periodicProcess で行うので、定期処理自体は停止されるまで継続する
+                    return true;
+                }
+
+                @Override
+                public void onEvicted() {
                 }
-            }, PROCESS_INTERVAL, PROCESS_INTERVAL);
+            }, mProcessInterval, TimeUnit.MILLISECONDS);
             mRunningPeriodicProcess = true;
         }
     }
@@ -312,9 +363,9 @@ public class KeepAliveManager {
      */
     private void stopPeriodicProcess() {
         mRunningPeriodicProcess = false;
-        if (mTimer != null) {
-            mTimer.cancel();
-            mTimer = null;
+        if (mRegistration != null) {
+            mRegistration.cancel();
+            mRegistration = null;
         }
     }
 }
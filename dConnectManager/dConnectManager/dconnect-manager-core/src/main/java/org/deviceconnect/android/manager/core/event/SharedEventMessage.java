@@ -0,0 +1,165 @@
+/*
+ SharedEventMessage.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.manager.core.event;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import org.deviceconnect.android.manager.core.DConnectSettings;
+import org.deviceconnect.android.manager.core.util.DConnectUtil;
+import org.deviceconnect.message.intent.message.IntentDConnectMessage;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * 複数のイベントセッションで共有するイベントメッセージ.
+ * <p>
+ * 1つのイベントを複数の送信先に配送する場合に、イベントの JSON 変換を1回だけ行うためのクラスです。
+ * セッションキー以外の値は全ての送信先で共通なので、セッションキーの位置で分割した
+ * UTF-8 のテンプレートを作成しておき、送信先ごとにセッションキーだけを埋め込みます。
+ * </p>
+ * <p>
+ * JSON 変換は、最初に {@link #createFrame(String)} が呼び出された時に行います。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public class SharedEventMessage {
+    /**
+     * UTF-8 の文字コード.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * セッションキーの位置を特定するためのプレースホルダー.
+     */
+    private static final String PLACEHOLDER = "@@dconnect-session-key-" + UUID.randomUUID() + "@@";
+
+    /**
+     * JSON 変換後のプレースホルダー.
+     */
+    private static final String QUOTED_PLACEHOLDER = JSONObject.quote(PLACEHOLDER);
+
+    /**
+     * Device Connect Manager の設定.
+     */
+    private final DConnectSettings mSettings;
+
+    /**
+     * 送信するイベント.
+     * <p>
+     * セッションキー以外の値が設定済みであること。
+     * </p>
+     */
+    private final Intent mEvent;
+
+    /**
+     * セッションキーより前の UTF-8 のバイト列.
+     */
+    private byte[] mPrefix;
+
+    /**
+     * セッションキーより後ろの UTF-8 のバイト列.
+     */
+    private byte[] mSuffix;
+
+    /**
+     * JSON 変換に失敗したか.
+     */
+    private boolean mFailed;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param settings Device Connect Manager の設定
+     * @param event 送信するイベント
+     */
+    public SharedEventMessage(final DConnectSettings settings, final Intent event) {
+        mSettings = settings;
+        mEvent = event;
+    }
+
+    /**
+     * 指定されたセッションキーを設定したイベントの Intent を作成します.
+     * <p>
+     * 送信処理が非同期で行われる場合があるので、送信先ごとに Intent を複製します。
+     * </p>
+     * @param sessionKey セッションキー
+     * @return イベントの Intent
+     */
+    public Intent createIntent(final String sessionKey) {
+        Intent message = new Intent(mEvent);
+        message.putExtra(IntentDConnectMessage.EXTRA_SESSION_KEY, sessionKey);
+        return message;
+    }
+
+    /**
+     * 指定されたセッションキーを埋め込んだ UTF-8 の JSON を作成します.
+     *
+     * @param sessionKey セッションキー
+     * @return UTF-8 でエンコードされた JSON
+     * @throws JSONException JSON への変換に失敗した場合に発生
+     */
+    public byte[] createFrame(final String sessionKey) throws JSONException {
+        if (!prepare()) {
+            // テンプレートが作成できない場合には、送信先ごとに変換する
+            return toJSON(createIntent(sessionKey).getExtras()).getBytes(UTF_8);
+        }
+
+        byte[] key = JSONObject.quote(sessionKey).getBytes(UTF_8);
+        byte[] frame = new byte[mPrefix.length + key.length + mSuffix.length];
+        System.arraycopy(mPrefix, 0, frame, 0, mPrefix.length);
+        System.arraycopy(key, 0, frame, mPrefix.length, key.length);
+        System.arraycopy(mSuffix, 0, frame, mPrefix.length + key.length, mSuffix.length);
+        return frame;
+    }
+
+    /**
+     * UTF-8 のテンプレートを作成します.
+     *
+     * @return テンプレートが作成できた場合はtrue、それ以外はfalse
+     */
+    private synchronized boolean prepare() {
+        if (mPrefix != null) {
+            return true;
+        }
+        if (mFailed) {
+            return false;
+        }
+
+        try {
+            String json = toJSON(createIntent(PLACEHOLDER).getExtras());
+            int index = json.indexOf(QUOTED_PLACEHOLDER);
+            if (index < 0) {
+                mFailed = true;
+                return false;
+            }
+            mPrefix = json.substring(0, index).getBytes(UTF_8);
+            mSuffix = json.substring(index + QUOTED_PLACEHOLDER.length()).getBytes(UTF_8);
+            return true;
+        } catch (JSONException e) {
+            mFailed = true;
+            return false;
+        }
+    }
+
+    /**
+     * Bundle を JSON の文字列に変換します.
+     *
+     * @param extras 変換する Bundle
+     * @return JSON の文字列
+     * @throws JSONException JSON への変換に失敗した場合に発生
+     */
+    private String toJSON(final Bundle extras) throws JSONException {
+        JSONObject root = new JSONObject();
+        DConnectUtil.convertBundleToJSON(mSettings, root, extras);
+        return root.toString();
+    }
+}
@@ -7,11 +7,15 @@
 package org.deviceconnect.android.manager.core.profile;
 
 import android.content.Intent;
+import android.os.Bundle;
 
 import org.deviceconnect.android.event.EventError;
 import org.deviceconnect.android.event.EventManager;
+import org.deviceconnect.android.manager.core.DConnectSettings;
+import org.deviceconnect.android.manager.core.plugin.DevicePlugin;
 import org.deviceconnect.android.manager.core.plugin.DevicePluginManager;
 import org.deviceconnect.android.manager.core.request.DConnectRequestManager;
+import org.deviceconnect.android.manager.core.request.ServiceDiscoveryCache;
 import org.deviceconnect.android.manager.core.request.ServiceDiscoveryRequest;
 import org.deviceconnect.android.message.MessageUtils;
 import org.deviceconnect.android.profile.ServiceDiscoveryProfile;
@@ -20,14 +24,30 @@ import org.deviceconnect.android.profile.api.DeleteApi;
 import org.deviceconnect.android.profile.api.GetApi;
 import org.deviceconnect.android.profile.api.PutApi;
 import org.deviceconnect.android.service.DConnectServiceProvider;
+import org.deviceconnect.message.DConnectMessage;
 import org.deviceconnect.message.intent.message.IntentDConnectMessage;
 
+import java.util.List;
+
 /**
  * Service Discovery プロファイル.
  *
  * @author NTT DOCOMO, INC.
  */
 public class DConnectServiceDiscoveryProfile extends ServiceDiscoveryProfile {
+    /**
+     * ストリーミングモードを指定するパラメータ名: {@value}.
+     * <p>
+     * true が指定された場合は、キャッシュされているサービスだけで即座にレスポンスを返却し、
+     * 残りのプラグインから取得したサービスは onServiceChange イベントで通知します。
+     * </p>
+     */
+    public static final String PARAM_STREAM = "stream";
+
+    /**
+     * Device Connect Managerの設定.
+     */
+    private DConnectSettings mSettings;
 
     /**
      * デバイスプラグイン管理クラス.
@@ -39,19 +59,30 @@ public class DConnectServiceDiscoveryProfile extends ServiceDiscoveryProfile {
      */
     private DConnectRequestManager mRequestManager;
 
+    /**
+     * サービスのキャッシュ.
+     */
+    private ServiceDiscoveryCache mServiceDiscoveryCache;
+
     /**
      * コンストラクタ.
      *
      * @param provider プロファイルプロバイダ
+     * @param settings Device Connect Managerの設定
      * @param pluginManager デバイスプラグイン管理クラス
      * @param requestManager リクエスト管理クラス
+     * @param cache サービスのキャッシュ
      */
     public DConnectServiceDiscoveryProfile(final DConnectServiceProvider provider,
+                                           final DConnectSettings settings,
                                            final DevicePluginManager pluginManager,
-                                           final DConnectRequestManager requestManager) {
+                                           final DConnectRequestManager requestManager,
+                                           final ServiceDiscoveryCache cache) {
         super(provider);
+        mSettings = settings;
         mDevicePluginManager = pluginManager;
         mRequestManager = requestManager;
+        mServiceDiscoveryCache = cache;
         addApi(mGetRequest);
         addApi(mPutRequest);
         addApi(mDeleteRequest);
@@ -68,12 +99,39 @@ public class DConnectServiceDiscoveryProfile extends ServiceDiscoveryProfile {
             req.setRequest(request);
             req.setTimeout(ServiceDiscoveryRequest.TIMEOUT);
             req.setDevicePluginManager(mDevicePluginManager);
+            if (mSettings.isServiceDiscoveryCacheEnabled()) {
+                mServiceDiscoveryCache.setDefaultTtl(mSettings.getServiceDiscoveryCacheTtl());
+                req.setServiceDiscoveryCache(mServiceDiscoveryCache);
+                req.setBackgroundRefresh(mSettings.isServiceDiscoveryBackgroundRefresh());
+                req.setStreaming("true".equalsIgnoreCase(request.getStringExtra(PARAM_STREAM)));
+                req.setOnServiceDiscoveredListener(mOnServiceDiscoveredListener);
+            }
             req.setOnResponseCallback((resp) -> sendResponse(resp));
-            new Thread(req::run).start();
+            mRequestManager.addRequest(req);
             return false;
         }
     };
 
+    /**
+     * バックグラウンドで取得したサービスを onServiceChange イベントで通知するリスナー.
+     */
+    private final ServiceDiscoveryRequest.OnServiceDiscoveredListener mOnServiceDiscoveredListener =
+            new ServiceDiscoveryRequest.OnServiceDiscoveredListener() {
+        @Override
+        public void onServiceDiscovered(final DevicePlugin plugin, final List<Bundle> services) {
+            for (Bundle service : services) {
+                Bundle networkService = new Bundle(service);
+                setState(networkService, true);
+
+                Intent event = MessageUtils.createEventIntent();
+                event.putExtra(DConnectMessage.EXTRA_PROFILE, PROFILE_NAME);
+                event.putExtra(DConnectMessage.EXTRA_ATTRIBUTE, ATTRIBUTE_ON_SERVICE_CHANGE);
+                setNetworkService(event, networkService);
+                sendEvent(event, null);
+            }
+        }
+    };
+
     /**
      * PUT /gotapi/onServiceChange.
      */
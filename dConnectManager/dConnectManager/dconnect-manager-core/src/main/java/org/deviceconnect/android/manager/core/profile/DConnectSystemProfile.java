@@ -142,6 +142,7 @@ public class DConnectSystemProfile extends SystemProfile {
 
                     // リクエストコードを作成する
                     mRequestCode = UUID.randomUUID().hashCode();
+                    registerRequestCode(mRequestCode);
 
                     // キーワード表示用のダイアログを表示
                     Intent intent = new Intent(getContext(), mInterface.getKeywordActivityClass());
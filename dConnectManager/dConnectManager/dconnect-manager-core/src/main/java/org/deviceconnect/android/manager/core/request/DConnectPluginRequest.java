@@ -24,11 +24,6 @@ public abstract class DConnectPluginRequest extends DConnectRequest {
      */
     DevicePlugin mDevicePlugin;
 
-    /**
-     * ロックオブジェクト.
-     */
-    private final Object mLockObj = new Object();
-
     /**
      * リクエストコード.
      */
@@ -62,6 +57,12 @@ public abstract class DConnectPluginRequest extends DConnectRequest {
         mDevicePlugin = plugin;
     }
 
+    @Override
+    public String getDestinationPluginId() {
+        DevicePlugin plugin = mDevicePlugin;
+        return plugin != null ? plugin.getPluginId() : null;
+    }
+
     /**
      * プラグインにリクエストを送信します.
      * <p>
@@ -86,41 +87,53 @@ public abstract class DConnectPluginRequest extends DConnectRequest {
     }
 
     /**
-     * 指定したリクエストを送信した後、プラグインからのレスポンスを待機する.
+     * 指定したリクエストを送信します.
+     * <p>
+     * プラグインからのレスポンスは待たずに戻ります。
+     * レスポンスを受信した場合には {@link #onResponseReceived(Intent, Intent)}、
+     * タイムアウトした場合には {@link #onResponseTimeout()} がリクエストを実行するスレッド上で呼び出されます。
+     * </p>
      *
      * @param request プラグインへのリクエスト
-     * @return レスポンスの受信に成功した場合は<code>true</code>、そうでない場合は<code>false</code>
+     * @return 送信に成功した場合は<code>true</code>、そうでない場合は<code>false</code>
      */
     boolean sendRequest(final Intent request) {
-        boolean forwarded = false;
-        boolean responded = false;
-
-        long startDateTime = System.currentTimeMillis();
-        try {
-            forwarded = forwardRequest(request);
-            if (!forwarded) {
-                return false;
-            }
+        if (mDevicePlugin == null) {
+            throw new IllegalStateException("destination is not set.");
+        }
 
-            if (mResponse == null) {
-                waitForResponse();
+        final int requestCode = mRequestCode;
+        final long startDateTime = System.currentTimeMillis();
+
+        // 送信直後にレスポンスが返ってくる場合があるので、送信前に登録しておく
+        boolean registered = mRequestManager.awaitResponse(this, requestCode, mTimeout, new ResponseCorrelator.OnCompleteCallback() {
+            @Override
+            public void onResponse(final Intent response) {
+                long endDateTime = System.currentTimeMillis();
+                mRequestManager.getLatencyHistogram().record(endDateTime - startDateTime);
+                setResponse(response);
+                reportHistory(request, true, startDateTime, endDateTime);
+                onResponseReceived(request, response);
             }
 
-            final Intent response = mResponse;
-            responded = response != null;
-            if (responded) {
-                onResponseReceived(request, response);
-                return true;
-            } else {
+            @Override
+            public void onTimeout() {
+                mRequestManager.getLatencyHistogram().recordTimeout();
+                reportHistory(request, false, startDateTime, System.currentTimeMillis());
                 onResponseTimeout();
-                return false;
-            }
-        } finally {
-            long endDateTime = System.currentTimeMillis();
-            if (forwarded) {
-                reportHistory(request, responded, startDateTime, endDateTime);
             }
+        });
+        if (!registered) {
+            // 同じリクエストコードのリクエストがレスポンスを待っている場合は、レスポンスを対応付けられないので送信しない
+            onRequestCodeConflict(requestCode);
+            return false;
+        }
+
+        if (!forwardRequest(request)) {
+            mRequestManager.cancelResponse(this, requestCode);
+            return false;
         }
+        return true;
     }
 
     /**
@@ -141,34 +154,6 @@ public abstract class DConnectPluginRequest extends DConnectRequest {
         }
     }
 
-    /**
-     * 各デバイスからのレスポンスを待つ.
-     * <p>
-     * この関数から返答があるのは以下の条件になる。
-     * <ul>
-     * <li>デバイスプラグインからレスポンスがあった場合
-     * <li>指定された時間無いにレスポンスが返ってこない場合
-     * </ul>
-     */
-    private void waitForResponse() {
-        synchronized (mLockObj) {
-            try {
-                mLockObj.wait(mTimeout);
-            } catch (InterruptedException e) {
-                // ignore
-            }
-        }
-    }
-
-    @Override
-    public void setResponse(final Intent response) {
-        super.setResponse(response);
-
-        synchronized (mLockObj) {
-            mLockObj.notifyAll();
-        }
-    }
-
     /**
      * エラーを受け取ります.
      * @param e エラーの原因
@@ -187,6 +172,15 @@ public abstract class DConnectPluginRequest extends DConnectRequest {
         }
     }
 
+    /**
+     * 同じリクエストコードのリクエストがレスポンスを待っていたために、リクエストを送信できなかったことを受け取ります.
+     *
+     * @param requestCode リクエストコード
+     */
+    protected void onRequestCodeConflict(final int requestCode) {
+        sendIllegalServerStateError("Request code is already in use: " + requestCode);
+    }
+
     /**
      * プラグインへのリクエストがタイムアウトになったことを受け取ります.
      */
@@ -17,6 +17,9 @@ import org.deviceconnect.android.message.MessageUtils;
 import org.deviceconnect.message.DConnectMessage;
 import org.deviceconnect.message.intent.message.IntentDConnectMessage;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * DConnectリクエスト.
  *
@@ -68,6 +71,11 @@ public abstract class DConnectRequest {
      */
     protected DConnectInterface mInterface;
 
+    /**
+     * {@link DConnectRequestManager} に登録したリクエストコードのリスト.
+     */
+    private final List<Integer> mRegisteredRequestCodes = new ArrayList<>(1);
+
     /**
      * コンストラクタ.
      */
@@ -147,6 +155,18 @@ public abstract class DConnectRequest {
         mTimeout = timeout;
     }
 
+    /**
+     * リクエストの送信先のプラグインIDを取得する.
+     * <p>
+     * {@link RequestScheduler} がプラグインごとの同時実行数を制限するために使用します。
+     * </p>
+     *
+     * @return プラグインID、特定のプラグイン宛てではない場合はnull
+     */
+    public String getDestinationPluginId() {
+        return null;
+    }
+
     /**
      * リクエストを設定する.
      *
@@ -298,6 +318,40 @@ public abstract class DConnectRequest {
         return response;
     }
 
+    /**
+     * レスポンスを受け取るリクエストコードを登録します.
+     * <p>
+     * 登録したリクエストコードのレスポンスは {@link #setResponse(Intent)} に通知されます。
+     * 登録したリクエストコードは、{@link #run()} の終了時に解除されます。
+     * </p>
+     *
+     * @param requestCode リクエストコード
+     */
+    protected void registerRequestCode(final int requestCode) {
+        if (mRequestManager == null) {
+            return;
+        }
+        synchronized (mRegisteredRequestCodes) {
+            mRegisteredRequestCodes.add(requestCode);
+        }
+        mRequestManager.registerRequestCode(requestCode, this);
+    }
+
+    /**
+     * 登録したリクエストコードを全て解除します.
+     */
+    void unregisterRequestCodes() {
+        if (mRequestManager == null) {
+            return;
+        }
+        synchronized (mRegisteredRequestCodes) {
+            for (Integer requestCode : mRegisteredRequestCodes) {
+                mRequestManager.unregisterRequestCode(requestCode, this);
+            }
+            mRegisteredRequestCodes.clear();
+        }
+    }
+
     /**
      * 指定されたリクエストコードを持っているかチェックする.
      *
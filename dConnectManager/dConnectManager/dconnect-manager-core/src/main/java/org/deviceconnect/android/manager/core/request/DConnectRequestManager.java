@@ -12,12 +12,14 @@ import android.util.Log;
 
 import org.deviceconnect.android.manager.core.BuildConfig;
 import org.deviceconnect.android.manager.core.DConnectInterface;
+import org.deviceconnect.android.manager.core.plugin.CommunicationHistory;
+import org.deviceconnect.android.manager.core.plugin.DevicePlugin;
+import org.deviceconnect.android.manager.core.plugin.DevicePluginManager;
 import org.deviceconnect.message.intent.message.IntentDConnectMessage;
+import org.deviceconnect.server.util.HashedWheelTimer;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * dConnect Managerで処理されるリクエストを管理するクラス.
@@ -31,19 +33,63 @@ public class DConnectRequestManager {
     private static final int ERROR_CODE = Integer.MIN_VALUE;
 
     /**
-     * 最大スレッド数を定義する.
+     * タイムアウトを管理するタイマーの刻み幅(ミリ秒).
      */
-    private static final int MAX_THREAD_SIZE = 32;
+    private static final long TIMER_TICK_DURATION = 100;
 
     /**
-     * リクエスト一覧.
+     * タイムアウトを管理するタイマーのバケット数.
      */
-    private final List<DConnectRequest> mRequestList = new ArrayList<>();
+    private static final int TIMER_TICKS_PER_WHEEL = 512;
 
     /**
-     * リクエストを実行するためのスレッドを管理するExecutor.
+     * プラグインとの通信状況をスケジューラに通知する間隔(ミリ秒).
      */
-    private ExecutorService mExecutor;
+    private static final long ROUND_TRIP_SAMPLING_INTERVAL = 10 * 1000;
+
+    /**
+     * スケジューラに通知する通信状況の集計期間(ミリ秒).
+     */
+    private static final long ROUND_TRIP_SAMPLING_PERIOD = 30 * 1000;
+
+    /**
+     * レスポンスを待っているリクエストのマップ.
+     * <p>
+     * {@link DConnectRequest#registerRequestCode(int)} で登録されたリクエストコードをキーにします。
+     * </p>
+     */
+    private final ConcurrentHashMap<Integer, DConnectRequest> mPendingRequests = new ConcurrentHashMap<>();
+
+    /**
+     * プラグインへのリクエストの応答時間のヒストグラム.
+     */
+    private final RequestLatencyHistogram mLatencyHistogram = new RequestLatencyHistogram();
+
+    /**
+     * リクエストのタイムアウトを管理するタイマー.
+     */
+    private final HashedWheelTimer mTimer = new HashedWheelTimer("DConnectRequestTimer",
+            TIMER_TICK_DURATION, TimeUnit.MILLISECONDS, TIMER_TICKS_PER_WHEEL);
+
+    /**
+     * プラグインからのレスポンスを待っているリクエストを管理するクラス.
+     */
+    private final ResponseCorrelator mCorrelator = new ResponseCorrelator(mTimer);
+
+    /**
+     * リクエストを実行するスケジューラ.
+     */
+    private volatile RequestScheduler mScheduler = new PriorityRequestScheduler();
+
+    /**
+     * 通信状況を通知するためのタイムアウト.
+     */
+    private volatile HashedWheelTimer.Timeout mSamplingTimeout;
+
+    /**
+     * 通信状況を取得するプラグイン管理クラス.
+     */
+    private DevicePluginManager mPluginManager;
 
     /**
      * コンテキスト.
@@ -63,28 +109,100 @@ public class DConnectRequestManager {
         mInterface = i;
     }
 
+    /**
+     * プラグイン管理クラスを設定します.
+     * <p>
+     * 設定されている場合は、各プラグインの {@link CommunicationHistory} から通信状況を集計して
+     * スケジューラに通知します。
+     * </p>
+     *
+     * @param pluginManager プラグイン管理クラス
+     */
+    public void setDevicePluginManager(final DevicePluginManager pluginManager) {
+        mPluginManager = pluginManager;
+    }
+
+    /**
+     * リクエストを実行するスケジューラを設定します.
+     * <p>
+     * リクエスト管理を開始する前に設定してください。
+     * </p>
+     *
+     * @param scheduler スケジューラ
+     */
+    public synchronized void setScheduler(final RequestScheduler scheduler) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler is null.");
+        }
+        if (mScheduler.isRunning()) {
+            throw new IllegalStateException("scheduler is running.");
+        }
+        mScheduler = scheduler;
+    }
+
+    /**
+     * リクエストを実行するスケジューラを取得します.
+     *
+     * @return スケジューラ
+     */
+    public RequestScheduler getScheduler() {
+        return mScheduler;
+    }
+
     /**
      * リクエスト管理を開始します.
      */
     public synchronized void start() {
-        if (mExecutor != null) {
+        if (mScheduler.isRunning()) {
             return;
         }
-        mExecutor = Executors.newFixedThreadPool(MAX_THREAD_SIZE);
+        mScheduler.start();
+        scheduleRoundTripSampling();
     }
 
     /**
      * リクエスト管理を終了する.
      */
     public synchronized void stop() {
-        if (mExecutor != null) {
-            mExecutor.shutdown();
-            mExecutor = null;
+        mScheduler.stop();
+        if (mSamplingTimeout != null) {
+            mSamplingTimeout.cancel();
+            mSamplingTimeout = null;
         }
 
-        synchronized (mRequestList) {
-            mRequestList.clear();
-        }
+        mPendingRequests.clear();
+        mCorrelator.clear();
+        mTimer.stop();
+    }
+
+    /**
+     * リクエストのタイムアウトを管理するタイマーを取得します.
+     * <p>
+     * Device Connect Manager 内でタイムアウトを管理する場合には、このタイマーを共有します。
+     * </p>
+     *
+     * @return タイマー
+     */
+    public HashedWheelTimer getTimer() {
+        return mTimer;
+    }
+
+    /**
+     * レスポンスを待っているリクエストの数を取得します.
+     *
+     * @return レスポンスを待っているリクエストの数
+     */
+    public int getPendingRequestCount() {
+        return mCorrelator.getPendingCount() + mPendingRequests.size();
+    }
+
+    /**
+     * プラグインへのリクエストの応答時間のヒストグラムを取得します.
+     *
+     * @return ヒストグラム
+     */
+    public RequestLatencyHistogram getLatencyHistogram() {
+        return mLatencyHistogram;
     }
 
     /**
@@ -92,31 +210,168 @@ public class DConnectRequestManager {
      *
      * @param request 追加するリクエスト
      */
-    public synchronized void addRequest(final DConnectRequest request) {
-        if (mExecutor.isShutdown()) {
-            return;
+    public void addRequest(final DConnectRequest request) {
+        request.setRequestManager(this);
+        request.setDConnectInterface(mInterface);
+
+        // 停止中の場合は何もしない
+        mScheduler.execute(request, () -> {
+            try {
+                request.run();
+            } catch (Throwable e) {
+                request.sendRuntimeException(e.getMessage());
+                if (BuildConfig.DEBUG) {
+                    Log.e("dConnectManager", "runtime", e);
+                }
+            } finally {
+                request.unregisterRequestCodes();
+            }
+        });
+    }
+
+    /**
+     * レスポンスを受け取るリクエストコードを登録します.
+     *
+     * @param requestCode リクエストコード
+     * @param request リクエスト
+     */
+    void registerRequestCode(final int requestCode, final DConnectRequest request) {
+        mPendingRequests.put(requestCode, request);
+    }
+
+    /**
+     * レスポンスを受け取るリクエストコードを解除します.
+     *
+     * @param requestCode リクエストコード
+     * @param request リクエスト
+     */
+    void unregisterRequestCode(final int requestCode, final DConnectRequest request) {
+        mPendingRequests.remove(requestCode, request);
+    }
+
+    /**
+     * プラグインからのレスポンスを待つリクエストを登録します.
+     * <p>
+     * レスポンスを待っている間はスレッドを使用しません。
+     * レスポンスの受信、またはタイムアウトした時に、リクエストを実行するスレッド上でコールバックを呼び出します。
+     * </p>
+     *
+     * @param request レスポンスを待つリクエスト
+     * @param requestCode リクエストコード
+     * @param timeout タイムアウト時間(ミリ秒)
+     * @param callback レスポンスを通知するコールバック
+     * @return 登録できた場合はtrue、それ以外はfalse
+     */
+    boolean awaitResponse(final DConnectRequest request, final int requestCode, final long timeout,
+                          final ResponseCorrelator.OnCompleteCallback callback) {
+        // 送信直後にレスポンスが返ってくる場合があるので、登録する前に同時実行数に数えておく
+        mScheduler.acquirePluginSlot(request);
+        boolean registered = mCorrelator.register(requestCode, timeout, new ResponseCorrelator.OnCompleteCallback() {
+            @Override
+            public void onResponse(final Intent response) {
+                continueAwaitedRequest(request, () -> callback.onResponse(response));
+            }
+
+            @Override
+            public void onTimeout() {
+                continueAwaitedRequest(request, callback::onTimeout);
+            }
+        });
+        if (!registered) {
+            mScheduler.releasePluginSlot(request);
         }
+        return registered;
+    }
 
-        synchronized (mRequestList) {
-            request.setRequestManager(this);
-            request.setDConnectInterface(mInterface);
-            mRequestList.add(request);
+    /**
+     * プラグインからのレスポンスの待機を中止します.
+     *
+     * @param request レスポンスを待っているリクエスト
+     * @param requestCode リクエストコード
+     */
+    void cancelResponse(final DConnectRequest request, final int requestCode) {
+        if (mCorrelator.cancel(requestCode)) {
+            mScheduler.releasePluginSlot(request);
         }
+    }
 
-        mExecutor.execute(() -> {
+    /**
+     * レスポンスを受け取った後やタイムアウトした後のリクエストの処理を、リクエストを実行するスレッド上で実行します.
+     *
+     * @param request リクエスト
+     * @param task 実行する処理
+     * @return 処理を追加できた場合はtrue、停止中の場合はfalse
+     */
+    boolean continueRequest(final DConnectRequest request, final Runnable task) {
+        // 停止中の場合は何もしない
+        return mScheduler.executeContinuation(request, () -> {
             try {
-                request.run();
+                task.run();
             } catch (Throwable e) {
                 request.sendRuntimeException(e.getMessage());
                 if (BuildConfig.DEBUG) {
                     Log.e("dConnectManager", "runtime", e);
                 }
+            }
+        });
+    }
+
+    /**
+     * レスポンスを待っていたリクエストの続きの処理を実行します.
+     * <p>
+     * 続きの処理の中で次のリクエストを送信する場合があるので、処理が終わってから同時実行数を減らします。
+     * </p>
+     *
+     * @param request リクエスト
+     * @param task 実行する処理
+     */
+    private void continueAwaitedRequest(final DConnectRequest request, final Runnable task) {
+        boolean queued = continueRequest(request, () -> {
+            try {
+                task.run();
             } finally {
-                synchronized (mRequestList) {
-                    mRequestList.remove(request);
-                }
+                mScheduler.releasePluginSlot(request);
             }
         });
+        if (!queued) {
+            mScheduler.releasePluginSlot(request);
+        }
+    }
+
+    /**
+     * プラグインとの通信状況を定期的にスケジューラに通知します.
+     */
+    private void scheduleRoundTripSampling() {
+        // stop() がタイマーのスレッドの終了を待つので、ここでは DConnectRequestManager のロックを取らない
+        mSamplingTimeout = mTimer.newTimeout(() -> {
+            if (mScheduler.isRunning()) {
+                sampleRoundTrip();
+                scheduleRoundTripSampling();
+            }
+        }, ROUND_TRIP_SAMPLING_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 各プラグインの通信履歴から、集計期間中の通信状況を集計してスケジューラに通知します.
+     */
+    private void sampleRoundTrip() {
+        DevicePluginManager pluginManager = mPluginManager;
+        if (pluginManager == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int count = 0;
+        long totalTime = 0;
+        for (DevicePlugin plugin : pluginManager.getEnabledDevicePlugins()) {
+            for (CommunicationHistory.Info info : plugin.getHistory().getRespondedCommunications()) {
+                if (now - info.getEndTime() <= ROUND_TRIP_SAMPLING_PERIOD) {
+                    count++;
+                    totalTime += info.getRoundTripTime();
+                }
+            }
+        }
+        mScheduler.onRoundTripStatistics(count, count == 0 ? 0 : totalTime / count, ROUND_TRIP_SAMPLING_PERIOD);
     }
 
     /**
@@ -126,13 +381,13 @@ public class DConnectRequestManager {
      */
     public void setResponse(final Intent response) {
         int code = response.getIntExtra(IntentDConnectMessage.EXTRA_REQUEST_CODE, ERROR_CODE);
-        synchronized (mRequestList) {
-            for (DConnectRequest request : mRequestList) {
-                if (request.hasRequestCode(code)) {
-                    request.setResponse(response);
-                    return;
-                }
-            }
+        if (mCorrelator.complete(code, response)) {
+            return;
+        }
+
+        DConnectRequest request = mPendingRequests.get(code);
+        if (request != null && request.hasRequestCode(code)) {
+            request.setResponse(response);
         }
     }
 }
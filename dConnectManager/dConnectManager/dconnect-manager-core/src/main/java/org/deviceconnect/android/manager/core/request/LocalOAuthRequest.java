@@ -13,6 +13,7 @@ import org.deviceconnect.android.manager.core.DConnectLocalOAuth;
 import org.deviceconnect.android.manager.core.DConnectLocalOAuth.OAuthData;
 import org.deviceconnect.android.manager.core.R;
 import org.deviceconnect.android.manager.core.plugin.DevicePlugin;
+import org.deviceconnect.android.manager.core.plugin.MessagingException;
 import org.deviceconnect.android.message.MessageUtils;
 import org.deviceconnect.message.DConnectMessage;
 import org.deviceconnect.message.intent.message.IntentDConnectMessage;
@@ -21,7 +22,6 @@ import org.deviceconnect.profile.DConnectProfileConstants;
 
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.CountDownLatch;
 
 /**
  * LocalOAuthを行うためのリクエスト.
@@ -138,11 +138,15 @@ public abstract class LocalOAuthRequest extends DConnectPluginRequest {
 
     /**
      * Local OAuthの有効期限切れの場合にリトライを行う.
+     * <p>
+     * アクセストークンの取得のためにプラグインへの要求が必要な場合には、
+     * プラグインからのレスポンスを待たずに戻り、レスポンスを受信した後に命令を実行します。
+     * </p>
      */
     void executeRequest() {
-        String profile = mRequest.getStringExtra(DConnectMessage.EXTRA_PROFILE);
-        String serviceId = mRequest.getStringExtra(DConnectMessage.EXTRA_SERVICE_ID);
-        String origin = getRequestOrigin(mRequest);
+        final String profile = mRequest.getStringExtra(DConnectMessage.EXTRA_PROFILE);
+        final String serviceId = mRequest.getStringExtra(DConnectMessage.EXTRA_SERVICE_ID);
+        final String origin = getRequestOrigin(mRequest);
 
         if (mUseAccessToken && !isIgnoredPluginProfile(profile)) {
             String accessToken = getAccessTokenForPlugin(origin, serviceId);
@@ -152,35 +156,20 @@ public abstract class LocalOAuthRequest extends DConnectPluginRequest {
                 OAuthData oauth = mLocalOAuth.getOAuthData(origin, serviceId);
                 if (oauth == null) {
                     // OAuthData が存在しない場合には、プラグインに生成要求を行う
-                    ClientData clientData = executeClient(serviceId, origin);
-                    if (clientData == null) {
-                        sendResponse(mResponse);
-                        return;
-                    } else if (clientData.mClientId == null) {
-                        // プラグイン側で、アクセストークン不要のレスポンスが返ってきた場合の処理
-                        executeRequest(null);
-                        return;
-                    } else {
-                        // クライアントデータを保存
-                        mLocalOAuth.setOAuthData(origin, serviceId, clientData.mClientId);
-                        oauth = mLocalOAuth.getOAuthData(origin, serviceId);
-                    }
-                }
-
-                accessToken = mLocalOAuth.getAccessToken(oauth.getId());
-                if (accessToken == null) {
-                    // 再度アクセストークンを取得してから再度実行
-                    accessToken = executeGetAccessToken(serviceId, origin, oauth.getClientId());
-                    if (accessToken == null) {
-                        sendResponse(mResponse);
-                    } else {
-                        // アクセストークンを保存
-                        mLocalOAuth.setAccessToken(oauth.getId(), accessToken);
-                        onAccessTokenUpdated(mDevicePlugin, accessToken);
-                        executeRequest(accessToken);
-                    }
+                    executeClient(serviceId, origin, (clientData) -> {
+                        if (clientData == null) {
+                            sendResponse(mResponse);
+                        } else if (clientData.mClientId == null) {
+                            // プラグイン側で、アクセストークン不要のレスポンスが返ってきた場合の処理
+                            executeRequest(null);
+                        } else {
+                            // クライアントデータを保存
+                            mLocalOAuth.setOAuthData(origin, serviceId, clientData.mClientId);
+                            executeRequestWithOAuthData(serviceId, origin, mLocalOAuth.getOAuthData(origin, serviceId));
+                        }
+                    });
                 } else {
-                    executeRequest(accessToken);
+                    executeRequestWithOAuthData(serviceId, origin, oauth);
                 }
             }
         } else {
@@ -189,16 +178,44 @@ public abstract class LocalOAuthRequest extends DConnectPluginRequest {
     }
 
     /**
-     * ClientData を作成するためのリクエストを実行します.
+     * OAuthData に対応するアクセストークンを使用して命令を実行する.
+     * <p>
+     * アクセストークンが存在しない場合には、プラグインにアクセストークンを要求してから実行します。
+     * </p>
      *
      * @param serviceId サービスID
      * @param origin オリジン
-     * @return ClientDataのインスタンス、エラーの場合は null
+     * @param oauth OAuthData
      */
-    private ClientData executeClient(final String serviceId, final String origin) {
-        CountDownLatch latch = new CountDownLatch(1);
+    private void executeRequestWithOAuthData(final String serviceId, final String origin, final OAuthData oauth) {
+        String accessToken = mLocalOAuth.getAccessToken(oauth.getId());
+        if (accessToken != null) {
+            executeRequest(accessToken);
+            return;
+        }
+
+        // 再度アクセストークンを取得してから再度実行
+        executeGetAccessToken(serviceId, origin, oauth.getClientId(), (newAccessToken) -> {
+            if (newAccessToken == null) {
+                sendResponse(mResponse);
+            } else {
+                // アクセストークンを保存
+                mLocalOAuth.setAccessToken(oauth.getId(), newAccessToken);
+                onAccessTokenUpdated(mDevicePlugin, newAccessToken);
+                executeRequest(newAccessToken);
+            }
+        });
+    }
 
-        CreateClientRequest request = new CreateClientRequest();
+    /**
+     * ClientData を作成するためのリクエストを実行します.
+     *
+     * @param serviceId サービスID
+     * @param origin オリジン
+     * @param callback 作成した ClientData を通知するコールバック、エラーの場合は null が通知される
+     */
+    private void executeClient(final String serviceId, final String origin, final OnClientDataCallback callback) {
+        final CreateClientRequest request = new CreateClientRequest();
         request.setDestination(mDevicePlugin);
         request.setDevicePluginManager(mPluginMgr);
         request.setRequest(mRequest);
@@ -210,17 +227,9 @@ public abstract class LocalOAuthRequest extends DConnectPluginRequest {
         request.setReportedRoundTrip(false);
         request.setOnResponseCallback((response) -> {
             mResponse = response;
-            latch.countDown();
+            callback.onClientData(request.getClientData());
         });
         mRequestManager.addRequest(request);
-
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            // ignore.
-        }
-
-        return request.getClientData();
     }
 
     /**
@@ -229,12 +238,11 @@ public abstract class LocalOAuthRequest extends DConnectPluginRequest {
      * @param serviceId サービスID
      * @param origin オリジン
      * @param clientId クライアントID
-     * @return アクセストークン、エラーの場合には null
+     * @param callback 作成したアクセストークンを通知するコールバック、エラーの場合は null が通知される
      */
-    private String executeGetAccessToken(String serviceId, String origin, String clientId) {
-        CountDownLatch latch = new CountDownLatch(1);
-
-        GetAccessTokenRequest request = new GetAccessTokenRequest();
+    private void executeGetAccessToken(final String serviceId, final String origin, final String clientId,
+                                       final OnAccessTokenCallback callback) {
+        final GetAccessTokenRequest request = new GetAccessTokenRequest();
         request.setDestination(mDevicePlugin);
         request.setDevicePluginManager(mPluginMgr);
         request.setRequest(mRequest);
@@ -247,17 +255,9 @@ public abstract class LocalOAuthRequest extends DConnectPluginRequest {
         request.setReportedRoundTrip(false);
         request.setOnResponseCallback((response) -> {
             mResponse = response;
-            latch.countDown();
+            callback.onAccessToken(request.getAccessToken());
         });
         mRequestManager.addRequest(request);
-
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            // ignore.
-        }
-
-        return request.getAccessToken();
     }
 
     /**
@@ -440,6 +440,44 @@ public abstract class LocalOAuthRequest extends DConnectPluginRequest {
         DConnectLocalOAuth getLocalOAuth() {
             return mLocalOAuth;
         }
+
+        @Override
+        protected void onMessagingError(final MessagingException e) {
+            sendAccessFailedError();
+        }
+
+        @Override
+        protected void onRequestCodeConflict(final int requestCode) {
+            sendAccessFailedError();
+        }
+
+        @Override
+        protected void onResponseTimeout() {
+            sendAccessFailedError();
+        }
+
+        /**
+         * プラグインにアクセスできなかったことを通知します.
+         */
+        private void sendAccessFailedError() {
+            mResponse = new Intent(IntentDConnectMessage.ACTION_RESPONSE);
+            MessageUtils.setPluginDisabledError(mResponse, "Failed to access a plugin.");
+            sendResponse(mResponse);
+        }
+    }
+
+    /**
+     * ClientData の作成結果を受け取るコールバック.
+     */
+    private interface OnClientDataCallback {
+        void onClientData(ClientData clientData);
+    }
+
+    /**
+     * アクセストークンの作成結果を受け取るコールバック.
+     */
+    private interface OnAccessTokenCallback {
+        void onAccessToken(String accessToken);
     }
 
 
@@ -499,30 +537,30 @@ public abstract class LocalOAuthRequest extends DConnectPluginRequest {
             request.putExtra(DConnectProfileConstants.PARAM_SERVICE_ID, serviceId);
             request.putExtra(AuthorizationProfileConstants.PARAM_PACKAGE, origin);
 
-            if (sendRequest(request)) {
-                int result = getResult(mResponse);
-                if (result == DConnectMessage.RESULT_OK) {
-                    String clientId = mResponse.getStringExtra(AuthorizationProfileConstants.PARAM_CLIENT_ID);
-                    if (clientId == null) {
-                        // クライアントの作成エラー
-                        mResponse = new Intent(IntentDConnectMessage.ACTION_RESPONSE);
-                        MessageUtils.setAuthorizationError(mResponse, "Cannot create client data.");
-                    } else {
-                        // クライアントデータを作成
-                        mClientData = new ClientData();
-                        mClientData.mClientId = clientId;
-                        mClientData.mClientSecret = null;
-                    }
+            sendRequest(request);
+        }
+
+        @Override
+        protected void onResponseReceived(final Intent request, final Intent response) {
+            int result = getResult(mResponse);
+            if (result == DConnectMessage.RESULT_OK) {
+                String clientId = mResponse.getStringExtra(AuthorizationProfileConstants.PARAM_CLIENT_ID);
+                if (clientId == null) {
+                    // クライアントの作成エラー
+                    mResponse = new Intent(IntentDConnectMessage.ACTION_RESPONSE);
+                    MessageUtils.setAuthorizationError(mResponse, "Cannot create client data.");
                 } else {
-                    int errorCode = getErrorCode(mResponse);
-                    if (errorCode == DConnectMessage.ErrorCode.NOT_SUPPORT_PROFILE.getCode()) {
-                        // authorizationプロファイルに対応していないのでアクセストークンはいらない。
-                        mClientData = new ClientData();
-                    }
+                    // クライアントデータを作成
+                    mClientData = new ClientData();
+                    mClientData.mClientId = clientId;
+                    mClientData.mClientSecret = null;
                 }
             } else {
-                mResponse = new Intent(IntentDConnectMessage.ACTION_RESPONSE);
-                MessageUtils.setPluginDisabledError(mResponse, "Failed to access a plugin.");
+                int errorCode = getErrorCode(mResponse);
+                if (errorCode == DConnectMessage.ErrorCode.NOT_SUPPORT_PROFILE.getCode()) {
+                    // authorizationプロファイルに対応していないのでアクセストークンはいらない。
+                    mClientData = new ClientData();
+                }
             }
 
             sendResponse(mResponse);
@@ -600,28 +638,28 @@ public abstract class LocalOAuthRequest extends DConnectPluginRequest {
             request.putExtra(AuthorizationProfileConstants.PARAM_APPLICATION_NAME, mContext.getString(R.string.app_name));
             request.putExtra(AuthorizationProfileConstants.PARAM_SCOPE, combineStr(getScope()));
 
-            if (sendRequest(request)) {
-                int result = getResult(mResponse);
-                if (result == DConnectMessage.RESULT_OK) {
-                    String accessToken = mResponse.getStringExtra(DConnectMessage.EXTRA_ACCESS_TOKEN);
-                    if (accessToken == null) {
-                        // アクセストークン作成失敗
-                        mResponse = new Intent(IntentDConnectMessage.ACTION_RESPONSE);
-                        MessageUtils.setAuthorizationError(mResponse, "Cannot create access token.");
-                    } else {
-                        mAccessToken = accessToken;
-                    }
+            sendRequest(request);
+        }
+
+        @Override
+        protected void onResponseReceived(final Intent request, final Intent response) {
+            int result = getResult(mResponse);
+            if (result == DConnectMessage.RESULT_OK) {
+                String accessToken = mResponse.getStringExtra(DConnectMessage.EXTRA_ACCESS_TOKEN);
+                if (accessToken == null) {
+                    // アクセストークン作成失敗
+                    mResponse = new Intent(IntentDConnectMessage.ACTION_RESPONSE);
+                    MessageUtils.setAuthorizationError(mResponse, "Cannot create access token.");
                 } else {
-                    int errorCode = getErrorCode(mResponse);
-                    if (errorCode == DConnectMessage.ErrorCode.NOT_FOUND_CLIENT_ID.getCode()
-                            || errorCode == DConnectMessage.ErrorCode.AUTHORIZATION.getCode()) {
-                        // 認証エラーで、有効期限切れ・スコープ範囲外以外は ClientId を作り直す処理を入れる
-                        getLocalOAuth().deleteOAuthData(getOrigin(), getServiceId());
-                    }
+                    mAccessToken = accessToken;
                 }
             } else {
-                mResponse = new Intent(IntentDConnectMessage.ACTION_RESPONSE);
-                MessageUtils.setPluginDisabledError(mResponse, "Failed to access a plugin.");
+                int errorCode = getErrorCode(mResponse);
+                if (errorCode == DConnectMessage.ErrorCode.NOT_FOUND_CLIENT_ID.getCode()
+                        || errorCode == DConnectMessage.ErrorCode.AUTHORIZATION.getCode()) {
+                    // 認証エラーで、有効期限切れ・スコープ範囲外以外は ClientId を作り直す処理を入れる
+                    getLocalOAuth().deleteOAuthData(getOrigin(), getServiceId());
+                }
             }
 
             sendResponse(mResponse);
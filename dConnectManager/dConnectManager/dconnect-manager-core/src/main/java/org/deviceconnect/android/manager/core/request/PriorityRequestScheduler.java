@@ -0,0 +1,591 @@
+/*
+ PriorityRequestScheduler.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.manager.core.request;
+
+import android.content.Intent;
+import android.util.Log;
+
+import org.deviceconnect.android.manager.core.BuildConfig;
+import org.deviceconnect.message.DConnectMessage;
+import org.deviceconnect.message.intent.message.IntentDConnectMessage;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 優先度ごとのキューでリクエストを実行するスケジューラ.
+ * <p>
+ * リクエストの優先度は、オリジンとプロファイル名から決定します。
+ * 優先度の高いキューから順に実行するので、サービス検索などの時間のかかるリクエストが大量にあっても、
+ * 他のリクエストが待たされることはありません。
+ * 優先度の低いキューの処理が一定時間以上待たされている場合には、優先度に関係なく先に実行します。
+ * </p>
+ * <p>
+ * 1つのプラグイン宛てのリクエストが同時に実行できる数には上限があり、上限に達したプラグイン宛てのリクエストは
+ * 実行中のリクエストが終わるまで待ちます。
+ * プラグインからのレスポンスを待っているリクエストは、スレッドを使用していなくても実行中として数えるので、
+ * 応答の遅いプラグインに送信済みのリクエストが上限を超えて溜まることはありません。
+ * </p>
+ * <p>
+ * スレッド数は {@link #onRoundTripStatistics(int, long, long)} で通知されたプラグインとの通信状況から、
+ * 最小値と最大値の範囲で調整します。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public class PriorityRequestScheduler implements RequestScheduler {
+    /**
+     * スレッド数の最小値のデフォルト値.
+     */
+    public static final int DEFAULT_MIN_POOL_SIZE = 4;
+
+    /**
+     * スレッド数の最大値のデフォルト値.
+     */
+    public static final int DEFAULT_MAX_POOL_SIZE = 32;
+
+    /**
+     * 1つのプラグイン宛てに同時に実行できるリクエスト数のデフォルト値.
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY_PER_PLUGIN = 8;
+
+    /**
+     * 優先度の低い処理を優先度に関係なく実行するまでの待ち時間(ミリ秒).
+     */
+    private static final long STARVATION_TIME = 2000;
+
+    /**
+     * 通信状況から求めたスレッド数に掛ける余裕.
+     */
+    private static final int POOL_SIZE_HEADROOM = 2;
+
+    /**
+     * スレッド名のプレフィックス.
+     */
+    private static final String THREAD_NAME_PREFIX = "DConnectRequest-";
+
+    /**
+     * キューを操作する時の排他処理用オブジェクト.
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * 優先度ごとのキュー.
+     * <p>
+     * {@link RequestPriority#ordinal()} をインデックスにします。
+     * </p>
+     */
+    private final LinkedList<Task>[] mLanes;
+
+    /**
+     * プラグインごとの実行中の処理とレスポンスを待っているリクエストの数.
+     */
+    private final Map<String, Integer> mRunningCounts = new HashMap<>();
+
+    /**
+     * プロファイル名ごとの優先度.
+     */
+    private final Map<String, RequestPriority> mProfilePriorities = new ConcurrentHashMap<>();
+
+    /**
+     * オリジンごとの優先度.
+     */
+    private final Map<String, RequestPriority> mOriginPriorities = new ConcurrentHashMap<>();
+
+    /**
+     * 実行待ちの時間のヒストグラム.
+     */
+    private final RequestLatencyHistogram mQueueTimeHistogram = new RequestLatencyHistogram();
+
+    /**
+     * スレッド数の最小値.
+     */
+    private int mMinPoolSize = DEFAULT_MIN_POOL_SIZE;
+
+    /**
+     * スレッド数の最大値.
+     */
+    private int mMaxPoolSize = DEFAULT_MAX_POOL_SIZE;
+
+    /**
+     * 1つのプラグイン宛てに同時に実行できる処理の数.
+     */
+    private int mMaxConcurrencyPerPlugin = DEFAULT_MAX_CONCURRENCY_PER_PLUGIN;
+
+    /**
+     * 目標のスレッド数.
+     */
+    private int mPoolSize = DEFAULT_MIN_POOL_SIZE;
+
+    /**
+     * 起動しているスレッドの数.
+     */
+    private int mWorkerCount;
+
+    /**
+     * 処理を待っているスレッドの数.
+     */
+    private int mIdleCount;
+
+    /**
+     * 実行待ちの処理の数.
+     */
+    private int mQueuedCount;
+
+    /**
+     * スレッドの通し番号.
+     */
+    private int mThreadNumber;
+
+    /**
+     * 動作中フラグ.
+     */
+    private boolean mRunning;
+
+    /**
+     * コンストラクタ.
+     * <p>
+     * サービス検索とファイル操作のプロファイルを優先度低に設定します。
+     * </p>
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityRequestScheduler() {
+        mLanes = new LinkedList[RequestPriority.values().length];
+        for (int i = 0; i < mLanes.length; i++) {
+            mLanes[i] = new LinkedList<>();
+        }
+        setProfilePriority("serviceDiscovery", RequestPriority.LOW);
+        setProfilePriority("file", RequestPriority.LOW);
+    }
+
+    /**
+     * プロファイル名に対する優先度を設定します.
+     *
+     * @param profile プロファイル名
+     * @param priority 優先度、nullの場合は設定を削除
+     */
+    public void setProfilePriority(final String profile, final RequestPriority priority) {
+        if (profile == null) {
+            throw new IllegalArgumentException("profile is null.");
+        }
+        String key = profile.toLowerCase(Locale.ENGLISH);
+        if (priority == null) {
+            mProfilePriorities.remove(key);
+        } else {
+            mProfilePriorities.put(key, priority);
+        }
+    }
+
+    /**
+     * オリジンに対する優先度を設定します.
+     * <p>
+     * プロファイル名に対する優先度よりも優先されます。
+     * </p>
+     *
+     * @param origin オリジン
+     * @param priority 優先度、nullの場合は設定を削除
+     */
+    public void setOriginPriority(final String origin, final RequestPriority priority) {
+        if (origin == null) {
+            throw new IllegalArgumentException("origin is null.");
+        }
+        if (priority == null) {
+            mOriginPriorities.remove(origin);
+        } else {
+            mOriginPriorities.put(origin, priority);
+        }
+    }
+
+    /**
+     * スレッド数の範囲を設定します.
+     *
+     * @param minPoolSize スレッド数の最小値
+     * @param maxPoolSize スレッド数の最大値
+     */
+    public void setPoolSizeRange(final int minPoolSize, final int maxPoolSize) {
+        if (minPoolSize <= 0 || maxPoolSize < minPoolSize) {
+            throw new IllegalArgumentException("pool size range is invalid.");
+        }
+        synchronized (mLock) {
+            mMinPoolSize = minPoolSize;
+            mMaxPoolSize = maxPoolSize;
+            setPoolSizeLocked(mPoolSize);
+        }
+    }
+
+    /**
+     * 1つのプラグイン宛てに同時に実行できる処理の数を設定します.
+     *
+     * @param maxConcurrency 同時に実行できる処理の数
+     */
+    public void setMaxConcurrencyPerPlugin(final int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency is invalid.");
+        }
+        synchronized (mLock) {
+            mMaxConcurrencyPerPlugin = maxConcurrency;
+            mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void start() {
+        synchronized (mLock) {
+            mRunning = true;
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (mLock) {
+            mRunning = false;
+            for (LinkedList<Task> lane : mLanes) {
+                lane.clear();
+            }
+            mQueuedCount = 0;
+            // 停止時にはレスポンスの待機も破棄されるので、同時実行数も数え直す
+            mRunningCounts.clear();
+            mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        synchronized (mLock) {
+            return mRunning;
+        }
+    }
+
+    @Override
+    public boolean execute(final DConnectRequest request, final Runnable task) {
+        return enqueue(new Task(task, resolvePriority(request), request.getDestinationPluginId()));
+    }
+
+    @Override
+    public boolean executeContinuation(final DConnectRequest request, final Runnable task) {
+        // 実行中のリクエストの続きなので、プラグインごとの上限には数えない
+        return enqueue(new Task(task, RequestPriority.HIGH, null));
+    }
+
+    @Override
+    public void acquirePluginSlot(final DConnectRequest request) {
+        String pluginId = request.getDestinationPluginId();
+        if (pluginId == null) {
+            return;
+        }
+        synchronized (mLock) {
+            incrementLocked(pluginId);
+        }
+    }
+
+    @Override
+    public void releasePluginSlot(final DConnectRequest request) {
+        String pluginId = request.getDestinationPluginId();
+        if (pluginId == null) {
+            return;
+        }
+        synchronized (mLock) {
+            decrementLocked(pluginId);
+        }
+    }
+
+    @Override
+    public int getQueuedCount() {
+        synchronized (mLock) {
+            return mQueuedCount;
+        }
+    }
+
+    @Override
+    public int getPoolSize() {
+        synchronized (mLock) {
+            return mPoolSize;
+        }
+    }
+
+    @Override
+    public RequestLatencyHistogram getQueueTimeHistogram() {
+        return mQueueTimeHistogram;
+    }
+
+    /**
+     * プラグインとの通信状況からスレッド数を調整します.
+     * <p>
+     * リトルの法則から、期間中に同時に通信していたリクエストの平均数を求めて、余裕を持たせたスレッド数にします。
+     * </p>
+     *
+     * @param count 期間中にレスポンスを受信したリクエストの数
+     * @param averageRoundTripTime 期間中の平均ラウンドトリップ時間(ミリ秒)
+     * @param period 期間(ミリ秒)
+     */
+    @Override
+    public void onRoundTripStatistics(final int count, final long averageRoundTripTime, final long period) {
+        if (period <= 0) {
+            return;
+        }
+        long concurrency = (count * averageRoundTripTime + period - 1) / period;
+        synchronized (mLock) {
+            setPoolSizeLocked((int) Math.min(Integer.MAX_VALUE, mMinPoolSize + concurrency * POOL_SIZE_HEADROOM));
+        }
+    }
+
+    /**
+     * リクエストの優先度を決定します.
+     * <p>
+     * オリジン、プロファイル名の順に設定を確認して、どちらも設定されていない場合には {@link RequestPriority#NORMAL} にします。
+     * </p>
+     *
+     * @param request リクエスト
+     * @return 優先度
+     */
+    protected RequestPriority resolvePriority(final DConnectRequest request) {
+        Intent intent = request.getRequest();
+        if (intent == null) {
+            return RequestPriority.NORMAL;
+        }
+
+        String origin = intent.getStringExtra(IntentDConnectMessage.EXTRA_ORIGIN);
+        if (origin != null) {
+            RequestPriority priority = mOriginPriorities.get(origin);
+            if (priority != null) {
+                return priority;
+            }
+        }
+
+        String profile = intent.getStringExtra(DConnectMessage.EXTRA_PROFILE);
+        if (profile != null) {
+            RequestPriority priority = mProfilePriorities.get(profile.toLowerCase(Locale.ENGLISH));
+            if (priority != null) {
+                return priority;
+            }
+        }
+        return RequestPriority.NORMAL;
+    }
+
+    /**
+     * 処理をキューに追加します.
+     *
+     * @param task 追加する処理
+     * @return 追加できた場合はtrue、それ以外はfalse
+     */
+    private boolean enqueue(final Task task) {
+        synchronized (mLock) {
+            if (!mRunning) {
+                return false;
+            }
+            mLanes[task.mPriority.ordinal()].add(task);
+            mQueuedCount++;
+
+            if (mIdleCount == 0 && mWorkerCount < mPoolSize) {
+                startWorkerLocked();
+            } else {
+                mLock.notify();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 目標のスレッド数を設定します.
+     * <p>
+     * スレッド数を減らす場合には、処理を終えたスレッドから順に終了します。
+     * </p>
+     *
+     * @param poolSize スレッド数
+     */
+    private void setPoolSizeLocked(final int poolSize) {
+        mPoolSize = Math.max(mMinPoolSize, Math.min(mMaxPoolSize, poolSize));
+        if (mPoolSize < mWorkerCount) {
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * 処理を実行するスレッドを起動します.
+     */
+    private void startWorkerLocked() {
+        mWorkerCount++;
+        Thread thread = new Thread(this::runWorker, THREAD_NAME_PREFIX + (++mThreadNumber));
+        thread.start();
+    }
+
+    /**
+     * 次に実行する処理をキューから取り出します.
+     * <p>
+     * 優先度の高いキューから順に、同時実行数の上限に達していないプラグイン宛ての処理を探します。
+     * ただし、優先度の低いキューに {@link #STARVATION_TIME} 以上待っている処理がある場合には、そちらを先に取り出します。
+     * </p>
+     *
+     * @param now 現在時刻
+     * @return 実行する処理、実行できる処理がない場合はnull
+     */
+    private Task pollLocked(final long now) {
+        Task candidate = null;
+        LinkedList<Task> candidateLane = null;
+        for (LinkedList<Task> lane : mLanes) {
+            Task task = findRunnableLocked(lane);
+            if (task == null) {
+                continue;
+            }
+            if (candidate == null || (now - task.mEnqueueTime >= STARVATION_TIME
+                    && task.mEnqueueTime < candidate.mEnqueueTime)) {
+                candidate = task;
+                candidateLane = lane;
+            }
+        }
+
+        if (candidate != null) {
+            candidateLane.remove(candidate);
+            mQueuedCount--;
+            if (candidate.mPluginId != null) {
+                incrementLocked(candidate.mPluginId);
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * キューの中から、同時実行数の上限に達していないプラグイン宛ての最初の処理を探します.
+     *
+     * @param lane キュー
+     * @return 実行できる処理、存在しない場合はnull
+     */
+    private Task findRunnableLocked(final LinkedList<Task> lane) {
+        for (Task task : lane) {
+            if (task.mPluginId == null) {
+                return task;
+            }
+            Integer count = mRunningCounts.get(task.mPluginId);
+            if (count == null || count < mMaxConcurrencyPerPlugin) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 処理の終了を記録します.
+     *
+     * @param task 終了した処理
+     */
+    private void finishLocked(final Task task) {
+        if (task.mPluginId != null) {
+            decrementLocked(task.mPluginId);
+        }
+    }
+
+    /**
+     * プラグインの同時実行数を1つ増やします.
+     *
+     * @param pluginId プラグインID
+     */
+    private void incrementLocked(final String pluginId) {
+        Integer count = mRunningCounts.get(pluginId);
+        mRunningCounts.put(pluginId, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * プラグインの同時実行数を1つ減らします.
+     *
+     * @param pluginId プラグインID
+     */
+    private void decrementLocked(final String pluginId) {
+        Integer count = mRunningCounts.get(pluginId);
+        if (count == null || count <= 1) {
+            mRunningCounts.remove(pluginId);
+        } else {
+            mRunningCounts.put(pluginId, count - 1);
+        }
+
+        // 上限に達して待っていた処理を実行できるようになった可能性があるので、待機中のスレッドを起こす
+        if (mQueuedCount > 0) {
+            mLock.notify();
+        }
+    }
+
+    /**
+     * スレッドで処理を実行します.
+     */
+    private void runWorker() {
+        Task task = null;
+        while (true) {
+            synchronized (mLock) {
+                if (task != null) {
+                    finishLocked(task);
+                }
+
+                task = null;
+                while (task == null) {
+                    if (!mRunning || mWorkerCount > mPoolSize) {
+                        mWorkerCount--;
+                        if (mQueuedCount > 0) {
+                            // 終了するスレッドが受け取った通知を他のスレッドに渡す
+                            mLock.notify();
+                        }
+                        return;
+                    }
+
+                    task = pollLocked(System.currentTimeMillis());
+                    if (task == null) {
+                        mIdleCount++;
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            mWorkerCount--;
+                            return;
+                        } finally {
+                            mIdleCount--;
+                        }
+                    }
+                }
+            }
+
+            mQueueTimeHistogram.record(System.currentTimeMillis() - task.mEnqueueTime);
+            try {
+                task.mRunnable.run();
+            } catch (Throwable e) {
+                if (BuildConfig.DEBUG) {
+                    Log.e("dConnectManager", "runtime", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * キューに格納する処理.
+     */
+    private static class Task {
+        /**
+         * 実行する処理.
+         */
+        private final Runnable mRunnable;
+
+        /**
+         * 優先度.
+         */
+        private final RequestPriority mPriority;
+
+        /**
+         * 送信先のプラグインID.
+         */
+        private final String mPluginId;
+
+        /**
+         * キューに追加した時刻.
+         */
+        private final long mEnqueueTime = System.currentTimeMillis();
+
+        Task(final Runnable runnable, final RequestPriority priority, final String pluginId) {
+            mRunnable = runnable;
+            mPriority = priority;
+            mPluginId = pluginId;
+        }
+    }
+}
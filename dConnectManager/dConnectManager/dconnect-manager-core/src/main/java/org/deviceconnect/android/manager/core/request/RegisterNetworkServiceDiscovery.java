@@ -70,6 +70,7 @@ public class RegisterNetworkServiceDiscovery extends DConnectRequest {
     public void run() {
         // リクエストコードを作成する
         mRequestCode = UUID.randomUUID().hashCode();
+        registerRequestCode(mRequestCode);
 
         // リクエストを作成
         Intent request = EventProtocol.createRegistrationRequestForServiceChange(mContext, mDevicePlugin, mInterface.getDConnectBroadcastReceiverClass());
@@ -90,6 +90,7 @@ public class RemoveEventsRequest extends DConnectRequest {
             // リクエストコード作成
             int requestCode = UUID.randomUUID().hashCode();
             mRequestCodeArray.put(requestCode, plugin);
+            registerRequestCode(requestCode);
 
             request.setComponent(plugin.getComponentName());
             request.putExtra(IntentDConnectMessage.EXTRA_REQUEST_CODE, requestCode);
@@ -0,0 +1,208 @@
+/*
+ RequestLatencyHistogram.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.manager.core.request;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * プラグインへのリクエストの応答時間を集計するヒストグラム.
+ * <p>
+ * 応答時間は固定の区間に振り分けて数えるので、記録はロックを使用せずに O(1) で行えます。
+ * パーセンタイルは区間の上限値で近似します。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public class RequestLatencyHistogram {
+    /**
+     * 区間の上限値(ミリ秒).
+     * <p>
+     * 最後の区間より大きい値は、上限なしの区間に数えます。
+     * </p>
+     */
+    private static final long[] BUCKET_BOUNDS = {
+            5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000
+    };
+
+    /**
+     * 区間ごとの件数.
+     */
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+    /**
+     * 記録した件数.
+     */
+    private final AtomicLong mTotalCount = new AtomicLong();
+
+    /**
+     * 記録した応答時間の合計(ミリ秒).
+     */
+    private final AtomicLong mTotalTime = new AtomicLong();
+
+    /**
+     * 記録した応答時間の最大値(ミリ秒).
+     */
+    private final AtomicLong mMaxTime = new AtomicLong();
+
+    /**
+     * タイムアウトした件数.
+     */
+    private final AtomicLong mTimeoutCount = new AtomicLong();
+
+    /**
+     * 応答時間を記録します.
+     *
+     * @param latency 応答時間(ミリ秒)
+     */
+    public void record(final long latency) {
+        long value = Math.max(0, latency);
+        mCounts.incrementAndGet(indexOf(value));
+        mTotalCount.incrementAndGet();
+        mTotalTime.addAndGet(value);
+
+        long max;
+        do {
+            max = mMaxTime.get();
+        } while (value > max && !mMaxTime.compareAndSet(max, value));
+    }
+
+    /**
+     * タイムアウトを記録します.
+     */
+    public void recordTimeout() {
+        mTimeoutCount.incrementAndGet();
+    }
+
+    /**
+     * 記録した件数を取得します.
+     *
+     * @return 記録した件数
+     */
+    public long getCount() {
+        return mTotalCount.get();
+    }
+
+    /**
+     * タイムアウトした件数を取得します.
+     *
+     * @return タイムアウトした件数
+     */
+    public long getTimeoutCount() {
+        return mTimeoutCount.get();
+    }
+
+    /**
+     * 応答時間の平均値を取得します.
+     *
+     * @return 応答時間の平均値(ミリ秒)、記録がない場合は 0
+     */
+    public long getAverage() {
+        long count = mTotalCount.get();
+        return count == 0 ? 0 : mTotalTime.get() / count;
+    }
+
+    /**
+     * 応答時間の最大値を取得します.
+     *
+     * @return 応答時間の最大値(ミリ秒)
+     */
+    public long getMax() {
+        return mMaxTime.get();
+    }
+
+    /**
+     * 応答時間のパーセンタイルを取得します.
+     * <p>
+     * 該当する区間の上限値を返却します。上限なしの区間に該当する場合は最大値を返却します。
+     * </p>
+     *
+     * @param percentile パーセンタイル(0〜100)
+     * @return 応答時間(ミリ秒)、記録がない場合は 0
+     */
+    public long getPercentile(final double percentile) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long threshold = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100.0);
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += counts[i];
+            if (sum >= threshold && counts[i] > 0) {
+                return i < BUCKET_BOUNDS.length ? Math.min(BUCKET_BOUNDS[i], getMax()) : getMax();
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * 区間の上限値を取得します.
+     *
+     * @return 区間の上限値(ミリ秒)の配列
+     */
+    public long[] getBucketBounds() {
+        return BUCKET_BOUNDS.clone();
+    }
+
+    /**
+     * 区間ごとの件数を取得します.
+     * <p>
+     * 配列の長さは {@link #getBucketBounds()} より1つ多く、最後の要素は上限なしの区間の件数になります。
+     * </p>
+     *
+     * @return 区間ごとの件数の配列
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[mCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * 記録をクリアします.
+     */
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mTotalTime.set(0);
+        mMaxTime.set(0);
+        mTimeoutCount.set(0);
+    }
+
+    /**
+     * 応答時間が該当する区間のインデックスを取得します.
+     *
+     * @param latency 応答時間(ミリ秒)
+     * @return 区間のインデックス
+     */
+    private static int indexOf(final long latency) {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            if (latency <= BUCKET_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS.length;
+    }
+
+    @Override
+    public String toString() {
+        return "{ count=" + getCount() + ", timeout=" + getTimeoutCount()
+                + ", avg=" + getAverage() + ", p50=" + getPercentile(50)
+                + ", p95=" + getPercentile(95) + ", p99=" + getPercentile(99)
+                + ", max=" + getMax() + " }";
+    }
+}
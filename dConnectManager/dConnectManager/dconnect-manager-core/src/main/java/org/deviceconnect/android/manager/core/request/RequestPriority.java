@@ -0,0 +1,38 @@
+/*
+ RequestPriority.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.manager.core.request;
+
+/**
+ * リクエストを実行する優先度.
+ * <p>
+ * {@link RequestScheduler} は優先度の高いリクエストから順に実行します。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public enum RequestPriority {
+    /**
+     * 優先度高.
+     * <p>
+     * プラグインからのレスポンスを受け取った後の処理など、すぐに終わる処理に使用します。
+     * </p>
+     */
+    HIGH,
+
+    /**
+     * 通常の優先度.
+     */
+    NORMAL,
+
+    /**
+     * 優先度低.
+     * <p>
+     * サービス検索やファイル操作など、時間のかかるリクエストに使用します。
+     * </p>
+     */
+    LOW
+}
@@ -0,0 +1,114 @@
+/*
+ RequestScheduler.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.manager.core.request;
+
+/**
+ * {@link DConnectRequestManager} に追加されたリクエストを、どのスレッドでどの順番に実行するかを決めるインターフェース.
+ * <p>
+ * {@link DConnectRequestManager#setScheduler(RequestScheduler)} で差し替えることができます。
+ * 標準では {@link PriorityRequestScheduler} を使用します。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public interface RequestScheduler {
+    /**
+     * スケジューラを開始します.
+     */
+    void start();
+
+    /**
+     * スケジューラを停止します.
+     * <p>
+     * 実行待ちの処理は破棄します。
+     * </p>
+     */
+    void stop();
+
+    /**
+     * スケジューラが動作中か確認します.
+     *
+     * @return 動作中の場合はtrue、それ以外はfalse
+     */
+    boolean isRunning();
+
+    /**
+     * リクエストを実行する処理を追加します.
+     *
+     * @param request リクエスト
+     * @param task リクエストを実行する処理
+     * @return 追加できた場合はtrue、停止中などで追加できなかった場合はfalse
+     */
+    boolean execute(DConnectRequest request, Runnable task);
+
+    /**
+     * プラグインからのレスポンスを受け取った後、またはタイムアウトした後の処理を追加します.
+     * <p>
+     * 既に実行を開始したリクエストの続きなので、新しいリクエストよりも先に実行します。
+     * </p>
+     *
+     * @param request リクエスト
+     * @param task 実行する処理
+     * @return 追加できた場合はtrue、停止中などで追加できなかった場合はfalse
+     */
+    boolean executeContinuation(DConnectRequest request, Runnable task);
+
+    /**
+     * リクエストがプラグインからのレスポンスを待ち始めたことを通知します.
+     * <p>
+     * レスポンスを待っている間はスレッドを使用しませんが、送信先のプラグインの同時実行数には数えます。
+     * {@link #releasePluginSlot(DConnectRequest)} が呼び出されるまで、同時実行数は減りません。
+     * </p>
+     *
+     * @param request リクエスト
+     */
+    void acquirePluginSlot(DConnectRequest request);
+
+    /**
+     * リクエストがプラグインからのレスポンスの待機を終えたことを通知します.
+     * <p>
+     * レスポンスの受信、タイムアウト、送信エラーのいずれの場合にも、
+     * {@link #acquirePluginSlot(DConnectRequest)} 1回に対して1回だけ呼び出されます。
+     * </p>
+     *
+     * @param request リクエスト
+     */
+    void releasePluginSlot(DConnectRequest request);
+
+    /**
+     * 実行待ちの処理の数を取得します.
+     *
+     * @return 実行待ちの処理の数
+     */
+    int getQueuedCount();
+
+    /**
+     * 処理を実行しているスレッドの数を取得します.
+     *
+     * @return スレッドの数
+     */
+    int getPoolSize();
+
+    /**
+     * 処理が追加されてから実行されるまでの待ち時間のヒストグラムを取得します.
+     *
+     * @return ヒストグラム
+     */
+    RequestLatencyHistogram getQueueTimeHistogram();
+
+    /**
+     * プラグインとの通信状況を通知します.
+     * <p>
+     * スケジューラは、この値を元にスレッド数を調整します。
+     * </p>
+     *
+     * @param count 期間中にレスポンスを受信したリクエストの数
+     * @param averageRoundTripTime 期間中の平均ラウンドトリップ時間(ミリ秒)
+     * @param period 期間(ミリ秒)
+     */
+    void onRoundTripStatistics(int count, long averageRoundTripTime, long period);
+}
@@ -0,0 +1,194 @@
+/*
+ ResponseCorrelator.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.manager.core.request;
+
+import android.content.Intent;
+
+import org.deviceconnect.server.util.HashedWheelTimer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * リクエストコードをキーにして、レスポンスを待っているリクエストとレスポンスを対応付けるクラス.
+ * <p>
+ * レスポンスを待っている間はスレッドを停止せずに、レスポンスを受信した時、
+ * またはタイムアウトした時に {@link OnCompleteCallback} を呼び出します。
+ * タイムアウトは {@link HashedWheelTimer} で管理するので、リクエストごとにスレッドやタイマーは作成しません。
+ * </p>
+ * <p>
+ * 1つのリクエストに対して {@link OnCompleteCallback#onResponse(Intent)} と
+ * {@link OnCompleteCallback#onTimeout()} のどちらか一方が、1回だけ呼び出されます。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public class ResponseCorrelator {
+    /**
+     * レスポンスを待っているリクエストのマップ.
+     */
+    private final ConcurrentHashMap<Integer, Pending> mPendingMap = new ConcurrentHashMap<>();
+
+    /**
+     * タイムアウトを管理するタイマー.
+     */
+    private final HashedWheelTimer mTimer;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param timer タイムアウトを管理するタイマー
+     */
+    public ResponseCorrelator(final HashedWheelTimer timer) {
+        if (timer == null) {
+            throw new IllegalArgumentException("timer is null.");
+        }
+        mTimer = timer;
+    }
+
+    /**
+     * レスポンスを待つリクエストを登録します.
+     * <p>
+     * 同じリクエストコードのリクエストが既に登録されている場合には登録しません。
+     * </p>
+     *
+     * @param requestCode リクエストコード
+     * @param timeout タイムアウト時間(ミリ秒)
+     * @param callback レスポンスを通知するコールバック
+     * @return 登録できた場合はtrue、それ以外はfalse
+     */
+    public boolean register(final int requestCode, final long timeout, final OnCompleteCallback callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("callback is null.");
+        }
+
+        final Pending pending = new Pending(callback);
+        if (mPendingMap.putIfAbsent(requestCode, pending) != null) {
+            return false;
+        }
+
+        pending.mTimeout = mTimer.newTimeout(() -> {
+            // レスポンスと同時に発生した場合には、先にマップから削除した方だけを通知する
+            if (mPendingMap.remove(requestCode, pending)) {
+                pending.mCallback.onTimeout();
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * レスポンスを受け取り、リクエストコードが一致するリクエストに通知します.
+     *
+     * @param requestCode リクエストコード
+     * @param response レスポンス
+     * @return 通知した場合はtrue、一致するリクエストが存在しない場合はfalse
+     */
+    public boolean complete(final int requestCode, final Intent response) {
+        Pending pending = mPendingMap.remove(requestCode);
+        if (pending == null) {
+            return false;
+        }
+        pending.cancelTimeout();
+        pending.mCallback.onResponse(response);
+        return true;
+    }
+
+    /**
+     * レスポンスの待機を中止します.
+     * <p>
+     * コールバックは呼び出されません。
+     * </p>
+     *
+     * @param requestCode リクエストコード
+     * @return 待機を中止した場合はtrue、一致するリクエストが存在しない場合はfalse
+     */
+    public boolean cancel(final int requestCode) {
+        Pending pending = mPendingMap.remove(requestCode);
+        if (pending == null) {
+            return false;
+        }
+        pending.cancelTimeout();
+        return true;
+    }
+
+    /**
+     * 指定されたリクエストコードのリクエストがレスポンスを待っているか確認します.
+     *
+     * @param requestCode リクエストコード
+     * @return レスポンスを待っている場合はtrue、それ以外はfalse
+     */
+    public boolean isPending(final int requestCode) {
+        return mPendingMap.containsKey(requestCode);
+    }
+
+    /**
+     * レスポンスを待っているリクエストの数を取得します.
+     *
+     * @return レスポンスを待っているリクエストの数
+     */
+    public int getPendingCount() {
+        return mPendingMap.size();
+    }
+
+    /**
+     * レスポンスを待っている全てのリクエストの待機を中止します.
+     * <p>
+     * コールバックは呼び出されません。
+     * </p>
+     */
+    public void clear() {
+        for (Integer requestCode : mPendingMap.keySet()) {
+            cancel(requestCode);
+        }
+    }
+
+    /**
+     * レスポンスを待っているリクエスト.
+     */
+    private static class Pending {
+        /**
+         * レスポンスを通知するコールバック.
+         */
+        private final OnCompleteCallback mCallback;
+
+        /**
+         * 登録したタイムアウト.
+         */
+        private volatile HashedWheelTimer.Timeout mTimeout;
+
+        Pending(final OnCompleteCallback callback) {
+            mCallback = callback;
+        }
+
+        /**
+         * タイムアウトを解除します.
+         */
+        void cancelTimeout() {
+            HashedWheelTimer.Timeout timeout = mTimeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
+
+    /**
+     * リクエストの完了を通知するコールバック.
+     */
+    public interface OnCompleteCallback {
+        /**
+         * レスポンスを受信したことを通知します.
+         *
+         * @param response レスポンス
+         */
+        void onResponse(Intent response);
+
+        /**
+         * レスポンスを受信する前にタイムアウトしたことを通知します.
+         */
+        void onTimeout();
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ ServiceDiscoveryCache.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.manager.core.request;
+
+import android.os.Bundle;
+
+import org.deviceconnect.android.profile.ServiceDiscoveryProfile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * プラグインごとに、Service Discovery で取得したサービスの一覧を保持するキャッシュ.
+ * <p>
+ * プラグインごとに有効期限を持ち、有効期限内のサービスの一覧はプラグインに問い合わせずに使用できます。
+ * プラグインからの onServiceChange イベントを {@link #updateService(String, Bundle)} に渡すことで、
+ * 有効期限内でもサービスの状態を最新に保ちます。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public class ServiceDiscoveryCache {
+    /**
+     * 有効期限のデフォルト値(ミリ秒).
+     */
+    public static final long DEFAULT_TTL = 30 * 1000;
+
+    /**
+     * プラグインIDをキーにしたキャッシュのマップ.
+     */
+    private final ConcurrentHashMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+
+    /**
+     * プラグインIDごとの有効期限(ミリ秒).
+     */
+    private final ConcurrentHashMap<String, Long> mTtls = new ConcurrentHashMap<>();
+
+    /**
+     * バックグラウンドで更新中のプラグインID.
+     */
+    private final ConcurrentHashMap<String, Boolean> mRefreshing = new ConcurrentHashMap<>();
+
+    /**
+     * 有効期限のデフォルト値(ミリ秒).
+     */
+    private volatile long mDefaultTtl = DEFAULT_TTL;
+
+    /**
+     * 有効期限のデフォルト値を設定します.
+     *
+     * @param ttl 有効期限(ミリ秒)
+     */
+    public void setDefaultTtl(final long ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("ttl is negative.");
+        }
+        mDefaultTtl = ttl;
+    }
+
+    /**
+     * 指定したプラグインの有効期限を設定します.
+     * <p>
+     * BLE などの応答の遅いプラグインに長い有効期限を設定する場合などに使用します。
+     * </p>
+     *
+     * @param pluginId プラグインID
+     * @param ttl 有効期限(ミリ秒)、負の値の場合はデフォルト値に戻す
+     */
+    public void setTtl(final String pluginId, final long ttl) {
+        if (ttl < 0) {
+            mTtls.remove(pluginId);
+        } else {
+            mTtls.put(pluginId, ttl);
+        }
+    }
+
+    /**
+     * 指定したプラグインの有効期限を取得します.
+     *
+     * @param pluginId プラグインID
+     * @return 有効期限(ミリ秒)
+     */
+    public long getTtl(final String pluginId) {
+        Long ttl = mTtls.get(pluginId);
+        return ttl != null ? ttl : mDefaultTtl;
+    }
+
+    /**
+     * プラグインから取得したサービスの一覧を格納します.
+     *
+     * @param pluginId プラグインID
+     * @param services サービスの一覧. サービスIDにはプラグインIDを付加しておくこと
+     */
+    public void put(final String pluginId, final List<Bundle> services) {
+        mEntries.put(pluginId, new Entry(copy(services), System.currentTimeMillis()));
+    }
+
+    /**
+     * プラグインから取得したサービスの一覧を格納して、前回の一覧から変わったサービスを返却します.
+     * <p>
+     * 前回の一覧に無かったサービスと、同じサービスIDで内容が異なるサービスを返却します。
+     * キャッシュが存在しなかった場合には、全てのサービスを返却します。
+     * </p>
+     *
+     * @param pluginId プラグインID
+     * @param services サービスの一覧. サービスIDにはプラグインIDを付加しておくこと
+     * @return 変わったサービスの一覧、変わっていない場合は空のリスト
+     */
+    public List<Bundle> update(final String pluginId, final List<Bundle> services) {
+        Entry old = mEntries.put(pluginId, new Entry(copy(services), System.currentTimeMillis()));
+        if (old == null) {
+            return copy(services);
+        }
+
+        Map<String, Bundle> oldServices = new HashMap<>();
+        for (Bundle b : old.mServices) {
+            oldServices.put(b.getString(ServiceDiscoveryProfile.PARAM_ID), b);
+        }
+        List<Bundle> changed = new ArrayList<>();
+        for (Bundle b : services) {
+            Bundle oldService = oldServices.get(b.getString(ServiceDiscoveryProfile.PARAM_ID));
+            if (oldService == null || !equalsBundle(oldService, b)) {
+                changed.add(new Bundle(b));
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * サービスの状態の変更を反映します.
+     * <p>
+     * キャッシュが存在しないプラグインの場合は、サービスの一覧が分からないので何もしません。
+     * 同じサービスIDのサービスがある場合には置き換え、ない場合には追加します。
+     * 有効期限は延長しません。
+     * </p>
+     *
+     * @param pluginId プラグインID
+     * @param service サービス. サービスIDにはプラグインIDを付加しておくこと
+     */
+    public void updateService(final String pluginId, final Bundle service) {
+        String serviceId = service.getString(ServiceDiscoveryProfile.PARAM_ID);
+        if (serviceId == null) {
+            return;
+        }
+
+        Entry entry;
+        Entry newEntry;
+        do {
+            entry = mEntries.get(pluginId);
+            if (entry == null) {
+                return;
+            }
+
+            List<Bundle> services = new ArrayList<>(entry.mServices.size() + 1);
+            boolean replaced = false;
+            for (Bundle b : entry.mServices) {
+                if (serviceId.equals(b.getString(ServiceDiscoveryProfile.PARAM_ID))) {
+                    services.add(new Bundle(service));
+                    replaced = true;
+                } else {
+                    services.add(b);
+                }
+            }
+            if (!replaced) {
+                services.add(new Bundle(service));
+            }
+            newEntry = new Entry(services, entry.mUpdateTime);
+        } while (!mEntries.replace(pluginId, entry, newEntry));
+    }
+
+    /**
+     * 指定したプラグインのキャッシュを取得します.
+     *
+     * @param pluginId プラグインID
+     * @return キャッシュ、存在しない場合はnull
+     */
+    public Entry get(final String pluginId) {
+        return mEntries.get(pluginId);
+    }
+
+    /**
+     * 指定したプラグインのキャッシュが有効期限内か確認します.
+     *
+     * @param pluginId プラグインID
+     * @param entry キャッシュ
+     * @param now 現在時刻
+     * @return 有効期限内の場合はtrue、それ以外はfalse
+     */
+    public boolean isFresh(final String pluginId, final Entry entry, final long now) {
+        return entry != null && now - entry.mUpdateTime < getTtl(pluginId);
+    }
+
+    /**
+     * 指定したプラグインのキャッシュを削除します.
+     *
+     * @param pluginId プラグインID
+     */
+    public void remove(final String pluginId) {
+        mEntries.remove(pluginId);
+    }
+
+    /**
+     * 全てのキャッシュを削除します.
+     */
+    public void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * バックグラウンドでの更新を開始します.
+     * <p>
+     * 同じプラグインに対して更新が重複しないように、既に更新中の場合は false を返却します。
+     * </p>
+     *
+     * @param pluginId プラグインID
+     * @return 更新を開始できる場合はtrue、既に更新中の場合はfalse
+     */
+    boolean beginRefresh(final String pluginId) {
+        return mRefreshing.putIfAbsent(pluginId, Boolean.TRUE) == null;
+    }
+
+    /**
+     * バックグラウンドでの更新を終了します.
+     *
+     * @param pluginId プラグインID
+     */
+    void endRefresh(final String pluginId) {
+        mRefreshing.remove(pluginId);
+    }
+
+    /**
+     * 2つの Bundle の内容が同じか確認します.
+     * <p>
+     * 配列と入れ子の Bundle は要素ごとに比較します。
+     * </p>
+     *
+     * @param a 比較する Bundle
+     * @param b 比較する Bundle
+     * @return 同じ内容の場合はtrue、それ以外はfalse
+     */
+    private static boolean equalsBundle(final Bundle a, final Bundle b) {
+        if (!a.keySet().equals(b.keySet())) {
+            return false;
+        }
+        for (String key : a.keySet()) {
+            if (!equalsValue(a.get(key), b.get(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Bundle に格納された2つの値が同じか確認します.
+     *
+     * @param a 比較する値
+     * @param b 比較する値
+     * @return 同じ値の場合はtrue、それ以外はfalse
+     */
+    private static boolean equalsValue(final Object a, final Object b) {
+        if (a instanceof Bundle && b instanceof Bundle) {
+            return equalsBundle((Bundle) a, (Bundle) b);
+        }
+        if (a instanceof Object[] && b instanceof Object[]) {
+            Object[] arrayA = (Object[]) a;
+            Object[] arrayB = (Object[]) b;
+            if (arrayA.length != arrayB.length) {
+                return false;
+            }
+            for (int i = 0; i < arrayA.length; i++) {
+                if (!equalsValue(arrayA[i], arrayB[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return Arrays.deepEquals(new Object[] {a}, new Object[] {b});
+    }
+
+    /**
+     * サービスの一覧をコピーします.
+     *
+     * @param services サービスの一覧
+     * @return コピーしたサービスの一覧
+     */
+    private static List<Bundle> copy(final List<Bundle> services) {
+        List<Bundle> copies = new ArrayList<>(services.size());
+        for (Bundle b : services) {
+            copies.add(new Bundle(b));
+        }
+        return copies;
+    }
+
+    /**
+     * 1つのプラグインのキャッシュ.
+     */
+    public static class Entry {
+        /**
+         * サービスの一覧.
+         */
+        private final List<Bundle> mServices;
+
+        /**
+         * プラグインからサービスの一覧を取得した時刻.
+         */
+        private final long mUpdateTime;
+
+        Entry(final List<Bundle> services, final long updateTime) {
+            mServices = Collections.unmodifiableList(services);
+            mUpdateTime = updateTime;
+        }
+
+        /**
+         * サービスの一覧のコピーを取得します.
+         *
+         * @return サービスの一覧
+         */
+        public List<Bundle> getServices() {
+            return copy(mServices);
+        }
+
+        /**
+         * プラグインからサービスの一覧を取得した時刻を取得します.
+         *
+         * @return 時刻
+         */
+        public long getUpdateTime() {
+            return mUpdateTime;
+        }
+    }
+}
@@ -18,12 +18,14 @@ import org.deviceconnect.android.profile.ServiceDiscoveryProfile;
 import org.deviceconnect.message.DConnectMessage;
 import org.deviceconnect.message.intent.message.IntentDConnectMessage;
 import org.deviceconnect.profile.ServiceDiscoveryProfileConstants;
+import org.deviceconnect.server.util.HashedWheelTimer;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
@@ -34,6 +36,12 @@ import java.util.logging.Logger;
  * になり、他方Network Service Discovery用リクエストでは登録されているデバイスプラグイン
  * の数だけレスポンスを受け取ったかどうかになっている.
  * </p>
+ * <p>
+ * {@link ServiceDiscoveryCache} が設定されている場合には、有効期限内のキャッシュがあるプラグインには問い合わせません。
+ * 有効期限切れのキャッシュは、バックグラウンド更新が有効な場合にはそのまま使用して、裏でプラグインに問い合わせます。
+ * ストリーミングモードの場合には、キャッシュだけで即座にレスポンスを返却し、キャッシュのないプラグインの結果は
+ * 応答があった順に {@link OnServiceDiscoveredListener} に通知します。
+ * </p>
  *
  * @author NTT DOCOMO, INC.
  */
@@ -69,15 +77,45 @@ public class ServiceDiscoveryRequest extends DConnectRequest {
     private final List<Bundle> mServices = new ArrayList<>();
 
     /**
-     * カウントダウン.
+     * レスポンスを待っているプラグインの数.
+     */
+    private final AtomicInteger mRemainingCount = new AtomicInteger();
+
+    /**
+     * レスポンスを返却したかどうかのフラグ.
+     */
+    private final AtomicBoolean mFinished = new AtomicBoolean();
+
+    /**
+     * 全体のタイムアウト.
      */
-    private CountDownLatch mCountDownLatch;
+    private HashedWheelTimer.Timeout mDiscoveryTimeout;
 
     /**
      * リクエスト管理クラス.
      */
     private DConnectRequestManager mRequestManager;
 
+    /**
+     * サービスのキャッシュ.
+     */
+    private ServiceDiscoveryCache mCache;
+
+    /**
+     * 有効期限切れのキャッシュをバックグラウンドで更新するフラグ.
+     */
+    private boolean mBackgroundRefresh;
+
+    /**
+     * ストリーミングモードのフラグ.
+     */
+    private boolean mStreaming;
+
+    /**
+     * プラグインからサービスの一覧を取得したことを通知するリスナー.
+     */
+    private OnServiceDiscoveredListener mOnServiceDiscoveredListener;
+
     /**
      * コンストラクタ.
      * @param requestManager リクエスト管理クラス
@@ -86,6 +124,45 @@ public class ServiceDiscoveryRequest extends DConnectRequest {
         mRequestManager = requestManager;
     }
 
+    /**
+     * サービスのキャッシュを設定します.
+     *
+     * @param cache キャッシュ、nullの場合はキャッシュを使用しない
+     */
+    public void setServiceDiscoveryCache(final ServiceDiscoveryCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * 有効期限切れのキャッシュをバックグラウンドで更新するか設定します.
+     *
+     * @param backgroundRefresh バックグラウンドで更新する場合はtrue、更新が終わるまで待つ場合はfalse
+     */
+    public void setBackgroundRefresh(final boolean backgroundRefresh) {
+        mBackgroundRefresh = backgroundRefresh;
+    }
+
+    /**
+     * ストリーミングモードを設定します.
+     * <p>
+     * ストリーミングモードの場合は、プラグインの応答を待たずにキャッシュだけでレスポンスを返却します。
+     * </p>
+     *
+     * @param streaming ストリーミングモードの場合はtrue
+     */
+    public void setStreaming(final boolean streaming) {
+        mStreaming = streaming;
+    }
+
+    /**
+     * プラグインからサービスの一覧を取得したことを通知するリスナーを設定します.
+     *
+     * @param listener リスナー
+     */
+    public void setOnServiceDiscoveredListener(final OnServiceDiscoveredListener listener) {
+        mOnServiceDiscoveredListener = listener;
+    }
+
     @Override
     public synchronized boolean hasRequestCode(final int requestCode) {
         return false;
@@ -101,25 +178,100 @@ public class ServiceDiscoveryRequest extends DConnectRequest {
             throw new RuntimeException("mDevicePluginManager is null.");
         }
 
-        List<DevicePlugin> plugins = mPluginMgr.getEnabledDevicePlugins();
+        // キャッシュを使用できないプラグインだけに問い合わせる
+        List<DevicePlugin> waitPlugins = new ArrayList<>();
+        List<DevicePlugin> refreshPlugins = new ArrayList<>();
+        List<DevicePlugin> streamPlugins = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (DevicePlugin plugin : mPluginMgr.getEnabledDevicePlugins()) {
+            String pluginId = plugin.getPluginId();
+            ServiceDiscoveryCache.Entry entry = mCache != null ? mCache.get(pluginId) : null;
+            if (entry != null && mCache.isFresh(pluginId, entry, now)) {
+                addServices(entry.getServices());
+            } else if (entry != null && (mBackgroundRefresh || mStreaming)) {
+                // 古いキャッシュを返却して、同じプラグインへの更新が重複しないように1つだけ問い合わせる
+                addServices(entry.getServices());
+                if (mCache.beginRefresh(pluginId)) {
+                    refreshPlugins.add(plugin);
+                }
+            } else if (mStreaming && mCache != null) {
+                streamPlugins.add(plugin);
+            } else {
+                waitPlugins.add(plugin);
+            }
+        }
+
+        for (DevicePlugin plugin : refreshPlugins) {
+            sendDiscoveryRequest(plugin, false, true);
+        }
+        for (DevicePlugin plugin : streamPlugins) {
+            sendDiscoveryRequest(plugin, false, false);
+        }
 
-        mCountDownLatch = new CountDownLatch(plugins.size());
-        for (int i = 0; i < plugins.size(); i++) {
-            DiscoveryRequestForPlugin request = new DiscoveryRequestForPlugin();
-            request.setContext(mContext);
-            request.setRequest(getRequest());
-            request.setDevicePluginManager(mPluginMgr);
-            request.setDestination(plugins.get(i));
-            request.setTimeout(TIMEOUT);
-            mRequestManager.addRequest(request);
+        if (waitPlugins.isEmpty()) {
+            finish();
+            return;
         }
 
-        if (mCountDownLatch.getCount() > 0) {
-            try {
-                mCountDownLatch.await(TIMEOUT, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                mLogger.warning("Exception occurred in wait.");
-            }
+        // 全てのプラグインのレスポンスを待たずに戻り、最後のレスポンスかタイムアウトで結果を返却する
+        mRemainingCount.set(waitPlugins.size());
+        mDiscoveryTimeout = mRequestManager.getTimer().newTimeout(() -> mRequestManager.continueRequest(this, this::finish),
+                TIMEOUT, TimeUnit.MILLISECONDS);
+        for (DevicePlugin plugin : waitPlugins) {
+            sendDiscoveryRequest(plugin, true, false);
+        }
+    }
+
+    /**
+     * プラグインにサービスの一覧を要求します.
+     *
+     * @param plugin プラグイン
+     * @param waitResponse レスポンスを返却する前に応答を待つ場合はtrue、バックグラウンドで更新する場合はfalse
+     * @param refresh {@link ServiceDiscoveryCache#beginRefresh(String)} で更新を開始した場合はtrue
+     */
+    private void sendDiscoveryRequest(final DevicePlugin plugin, final boolean waitResponse, final boolean refresh) {
+        DiscoveryRequestForPlugin request = new DiscoveryRequestForPlugin(waitResponse, refresh);
+        request.setContext(mContext);
+        request.setRequest(getRequest());
+        request.setDevicePluginManager(mPluginMgr);
+        request.setDestination(plugin);
+        request.setTimeout(TIMEOUT);
+        mRequestManager.addRequest(request);
+    }
+
+    /**
+     * 発見したサービスを追加します.
+     *
+     * @param services サービスの一覧
+     */
+    private void addServices(final List<Bundle> services) {
+        synchronized (mServices) {
+            mServices.addAll(services);
+        }
+    }
+
+    /**
+     * プラグインからのレスポンスの待機が1つ終わったことを通知します.
+     */
+    private void countDown() {
+        if (mRemainingCount.decrementAndGet() <= 0) {
+            finish();
+        }
+    }
+
+    /**
+     * 発見したサービスの一覧をレスポンスとして返却します.
+     * <p>
+     * 2回目以降の呼び出しでは何もしません。
+     * </p>
+     */
+    private void finish() {
+        if (!mFinished.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (mDiscoveryTimeout != null) {
+            mDiscoveryTimeout.cancel();
         }
 
         // レスポンスの無かったプラグインをOFFにする
@@ -127,10 +279,15 @@ public class ServiceDiscoveryRequest extends DConnectRequest {
             outputNotRespondedPlugins(mRequestCodeArray);
         }
 
+        Bundle[] services;
+        synchronized (mServices) {
+            services = mServices.toArray(new Bundle[0]);
+        }
+
         // パラメータを設定する
         mResponse = new Intent(IntentDConnectMessage.ACTION_RESPONSE);
         mResponse.putExtra(IntentDConnectMessage.EXTRA_RESULT, IntentDConnectMessage.RESULT_OK);
-        mResponse.putExtra(ServiceDiscoveryProfile.PARAM_SERVICES, mServices.toArray(new Bundle[0]));
+        mResponse.putExtra(ServiceDiscoveryProfile.PARAM_SERVICES, services);
 
         // レスポンスを返却する
         sendResponse(mResponse);
@@ -166,13 +323,36 @@ public class ServiceDiscoveryRequest extends DConnectRequest {
      * プラグインに対して Service Discovery を要求するクラス.
      */
     private class DiscoveryRequestForPlugin extends DConnectPluginRequest {
+        /**
+         * レスポンスを返却する前に応答を待つフラグ.
+         */
+        private final boolean mWaitResponse;
+
+        /**
+         * {@link ServiceDiscoveryCache#beginRefresh(String)} で更新を開始したフラグ.
+         */
+        private final boolean mRefresh;
+
+        /**
+         * コンストラクタ.
+         *
+         * @param waitResponse レスポンスを返却する前に応答を待つ場合はtrue、バックグラウンドで更新する場合はfalse
+         * @param refresh {@link ServiceDiscoveryCache#beginRefresh(String)} で更新を開始した場合はtrue
+         */
+        DiscoveryRequestForPlugin(final boolean waitResponse, final boolean refresh) {
+            mWaitResponse = waitResponse;
+            mRefresh = refresh;
+        }
+
         @Override
         public void run() {
             // リクエストコード発行
             mRequestCode = UUID.randomUUID().hashCode();
 
-            synchronized (mRequestCodeArray) {
-                mRequestCodeArray.put(mRequestCode, mDevicePlugin);
+            if (mWaitResponse) {
+                synchronized (mRequestCodeArray) {
+                    mRequestCodeArray.put(mRequestCode, mDevicePlugin);
+                }
             }
 
             // 送信用のIntentを作成
@@ -194,6 +374,7 @@ public class ServiceDiscoveryRequest extends DConnectRequest {
             int result = response.getIntExtra(IntentDConnectMessage.EXTRA_RESULT, -1);
             if (result == IntentDConnectMessage.RESULT_OK) {
                 // 送られてきたサービスIDにデバイスプラグインのIDを付加して保存
+                List<Bundle> discovered = new ArrayList<>();
                 Parcelable[] services = response.getParcelableArrayExtra(
                         ServiceDiscoveryProfileConstants.PARAM_SERVICES);
                 if (services != null) {
@@ -201,24 +382,78 @@ public class ServiceDiscoveryRequest extends DConnectRequest {
                         Bundle b = (Bundle) p;
                         String id = b.getString(ServiceDiscoveryProfile.PARAM_ID);
                         b.putString(ServiceDiscoveryProfile.PARAM_ID, mPluginMgr.appendServiceId(mDevicePlugin, id));
-                        mServices.add(b);
+                        discovered.add(b);
                     }
                 }
-            }
 
-            // レスポンス個数を追加
-            synchronized (mRequestCodeArray) {
-                mRequestCodeArray.remove(mRequestCode);
+                List<Bundle> changed = discovered;
+                if (mCache != null) {
+                    changed = mCache.update(mDevicePlugin.getPluginId(), discovered);
+                }
+                if (mWaitResponse) {
+                    addServices(discovered);
+                } else if (mOnServiceDiscoveredListener != null && !changed.isEmpty()) {
+                    // バックグラウンドでの更新では、キャッシュから変わったサービスだけを通知する
+                    mOnServiceDiscoveredListener.onServiceDiscovered(mDevicePlugin, changed);
+                }
             }
-            mCountDownLatch.countDown();
+            done(true);
         }
 
         @Override
         protected void onMessagingError(final MessagingException e) {
-            synchronized (mRequestCodeArray) {
-                mRequestCodeArray.remove(mRequestCode);
+            done(true);
+        }
+
+        @Override
+        protected void onRequestCodeConflict(final int requestCode) {
+            done(true);
+        }
+
+        @Override
+        protected void onResponseTimeout() {
+            // 応答のないプラグインの古いキャッシュは使用しない
+            if (mCache != null && !mWaitResponse) {
+                mCache.remove(mDevicePlugin.getPluginId());
+            }
+            // レスポンスの無かったプラグインとして残しておく
+            done(false);
+        }
+
+        /**
+         * プラグインへの問い合わせが終わったことを通知します.
+         *
+         * @param responded プラグインから応答があった場合はtrue、タイムアウトした場合はfalse
+         */
+        private void done(final boolean responded) {
+            if (mRefresh) {
+                mCache.endRefresh(mDevicePlugin.getPluginId());
+            }
+            if (mWaitResponse) {
+                if (responded) {
+                    synchronized (mRequestCodeArray) {
+                        mRequestCodeArray.remove(mRequestCode);
+                    }
+                }
+                countDown();
             }
-            mCountDownLatch.countDown();
         }
     }
+
+    /**
+     * プラグインからサービスの一覧を取得したことを通知するリスナー.
+     * <p>
+     * バックグラウンドで問い合わせたプラグインの結果を通知します。
+     * キャッシュが設定されている場合には、キャッシュから変わったサービスだけを通知し、変わったサービスが無い場合には通知しません。
+     * </p>
+     */
+    public interface OnServiceDiscoveredListener {
+        /**
+         * プラグインからサービスの一覧を取得したことを通知します.
+         *
+         * @param plugin プラグイン
+         * @param services 新しく発見したサービスと状態が変わったサービスの一覧
+         */
+        void onServiceDiscovered(DevicePlugin plugin, List<Bundle> services);
+    }
 }
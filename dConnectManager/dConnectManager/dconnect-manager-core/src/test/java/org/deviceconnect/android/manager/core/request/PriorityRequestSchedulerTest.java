@@ -0,0 +1,145 @@
+/*
+ PriorityRequestSchedulerTest.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.android.manager.core.request;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityRequestSchedulerTest {
+    /**
+     * 応答の遅いプラグインのID.
+     */
+    private static final String SLOW_PLUGIN_ID = "slow.plugin";
+
+    /**
+     * 応答の速いプラグインのID.
+     */
+    private static final String FAST_PLUGIN_ID = "fast.plugin";
+
+    /**
+     * 1つのプラグイン宛てに同時に実行できるリクエスト数.
+     */
+    private static final int MAX_CONCURRENCY = 2;
+
+    /**
+     * 応答の遅いプラグインに送信するリクエスト数.
+     */
+    private static final int REQUESTS = 5;
+
+    /**
+     * 処理の実行を待つ時間(秒).
+     */
+    private static final long TIMEOUT = 5;
+
+    private PriorityRequestScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mScheduler = new PriorityRequestScheduler();
+        mScheduler.setMaxConcurrencyPerPlugin(MAX_CONCURRENCY);
+        mScheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.stop();
+    }
+
+    /**
+     * レスポンスを待っているリクエストがある状態で、同じプラグイン宛てのリクエストを実行する。
+     * <pre>
+     * 【期待する動作】
+     * ・レスポンスを待っているリクエストが上限に達している間は、次のリクエストが実行されないこと。
+     * ・レスポンスの待機を終えたリクエストの数だけ、次のリクエストが実行されること。
+     * ・他のプラグイン宛てのリクエストは待たされないこと。
+     * </pre>
+     */
+    @Test
+    public void testMaxConcurrencyWhileAwaitingResponse() throws Exception {
+        final List<TestRequest> sent = Collections.synchronizedList(new ArrayList<>());
+        final Semaphore sentCount = new Semaphore(0);
+        for (int i = 0; i < REQUESTS; i++) {
+            final TestRequest request = new TestRequest(SLOW_PLUGIN_ID);
+            mScheduler.execute(request, () -> {
+                // プラグインにリクエストを送信して、レスポンスを待たずにスレッドを返す
+                mScheduler.acquirePluginSlot(request);
+                sent.add(request);
+                sentCount.release();
+            });
+        }
+
+        assertTrue(sentCount.tryAcquire(MAX_CONCURRENCY, TIMEOUT, TimeUnit.SECONDS));
+        assertThat(sent.size(), is(MAX_CONCURRENCY));
+        assertThat(mScheduler.getQueuedCount(), is(REQUESTS - MAX_CONCURRENCY));
+
+        final CountDownLatch fast = new CountDownLatch(1);
+        mScheduler.execute(new TestRequest(FAST_PLUGIN_ID), fast::countDown);
+        assertTrue(fast.await(TIMEOUT, TimeUnit.SECONDS));
+        assertThat(sent.size(), is(MAX_CONCURRENCY));
+
+        for (int i = MAX_CONCURRENCY; i < REQUESTS; i++) {
+            // 一番古いリクエストのレスポンスを受信する
+            mScheduler.releasePluginSlot(sent.get(i - MAX_CONCURRENCY));
+            assertTrue(sentCount.tryAcquire(1, TIMEOUT, TimeUnit.SECONDS));
+            assertThat(sent.size(), is(i + 1));
+        }
+        assertThat(mScheduler.getQueuedCount(), is(0));
+    }
+
+    /**
+     * レスポンスを待たないリクエストを、同時実行数の上限を超える数だけ実行する。
+     * <pre>
+     * 【期待する動作】
+     * ・処理が終わった時点で同時実行数が減り、全てのリクエストが実行されること。
+     * </pre>
+     */
+    @Test
+    public void testReleaseOnFinish() throws Exception {
+        final CountDownLatch done = new CountDownLatch(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            mScheduler.execute(new TestRequest(SLOW_PLUGIN_ID), done::countDown);
+        }
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 送信先のプラグインを指定したテスト用のリクエスト.
+     */
+    private static class TestRequest extends DConnectRequest {
+        private final String mPluginId;
+
+        TestRequest(final String pluginId) {
+            mPluginId = pluginId;
+        }
+
+        @Override
+        public String getDestinationPluginId() {
+            return mPluginId;
+        }
+
+        @Override
+        public boolean hasRequestCode(final int requestCode) {
+            return false;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+}
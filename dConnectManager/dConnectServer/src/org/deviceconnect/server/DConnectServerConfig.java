@@ -52,6 +52,9 @@ public final class DConnectServerConfig {
     /** アクセスログ機能の有効. */
     private boolean mEnableAccessLog;
 
+    /** WebSocketの生存確認の間隔(ミリ秒). */
+    private long mWebSocketKeepAliveInterval;
+
     /**
      * 最大コネクション数を取得する.
      * 
@@ -140,6 +143,15 @@ public final class DConnectServerConfig {
         return mEnableAccessLog;
     }
 
+    /**
+     * WebSocketの生存確認の間隔を取得する.
+     *
+     * @return 生存確認の間隔(ミリ秒)
+     */
+    public long getWebSocketKeepAliveInterval() {
+        return mWebSocketKeepAliveInterval;
+    }
+
     /**
      * コンストラクタ.
      * 
@@ -157,6 +169,7 @@ public final class DConnectServerConfig {
         this.mIpAllowList = builder.mIpAllowList;
         this.mCharset = builder.mCharset;
         this.mEnableAccessLog = builder.mEnableAccessLog;
+        this.mWebSocketKeepAliveInterval = builder.mWebSocketKeepAliveInterval;
     }
 
     /**
@@ -197,6 +210,9 @@ public final class DConnectServerConfig {
         /** アクセスログ機能の設定. **/
         private boolean mEnableAccessLog;
 
+        /** WebSocketの生存確認の間隔(ミリ秒). */
+        private long mWebSocketKeepAliveInterval = 3000;
+
         /**
          * DConnectServerConfigのインスタンスを設定された設定値で生成する.
          * 
@@ -225,6 +241,7 @@ public final class DConnectServerConfig {
                     ", mIpAllowList=" + mIpAllowList +
                     ", mCharset='" + mCharset + '\'' +
                     ", mEnableAccessLog='" + mEnableAccessLog + '\'' +
+                    ", mWebSocketKeepAliveInterval=" + mWebSocketKeepAliveInterval +
                     '}';
         }
 
@@ -363,5 +380,21 @@ public final class DConnectServerConfig {
             mEnableAccessLog = enable;
             return this;
         }
+
+        /**
+         * WebSocketの生存確認の間隔を設定する.
+         * <p>
+         * デフォルトでは、3000ミリ秒が設定してあります。
+         * </p>
+         * @param interval 生存確認の間隔(ミリ秒)。1以上を指定すること。
+         * @return ビルダー。
+         */
+        public Builder webSocketKeepAliveInterval(final long interval) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("WebSocketKeepAliveInterval must be larger than 0.");
+            }
+            mWebSocketKeepAliveInterval = interval;
+            return this;
+        }
     }
 }
@@ -0,0 +1,162 @@
+/*
+ ByteRange.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.server.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HTTP の Range ヘッダーで指定されたバイト範囲.
+ * <p>
+ * RFC 7233 の bytes 単位の範囲指定 (例: {@code bytes=0-499, 1000-, -500}) を解析します。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public final class ByteRange {
+    /**
+     * 範囲指定の単位.
+     */
+    private static final String BYTES_UNIT = "bytes=";
+
+    /**
+     * 1つのリクエストで受け付ける範囲の最大数.
+     * <p>
+     * これより多い範囲が指定された場合には、Range ヘッダーを無視してファイル全体を返却します。
+     * </p>
+     */
+    private static final int MAX_RANGES = 16;
+
+    /**
+     * 範囲の開始位置.
+     */
+    private final long mStart;
+
+    /**
+     * 範囲の終了位置(この位置を含む).
+     */
+    private final long mEnd;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param start 範囲の開始位置
+     * @param end 範囲の終了位置(この位置を含む)
+     */
+    public ByteRange(final long start, final long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("range is invalid.");
+        }
+        mStart = start;
+        mEnd = end;
+    }
+
+    /**
+     * 範囲の開始位置を取得します.
+     *
+     * @return 範囲の開始位置
+     */
+    public long getStart() {
+        return mStart;
+    }
+
+    /**
+     * 範囲の終了位置を取得します.
+     *
+     * @return 範囲の終了位置(この位置を含む)
+     */
+    public long getEnd() {
+        return mEnd;
+    }
+
+    /**
+     * 範囲のバイト数を取得します.
+     *
+     * @return バイト数
+     */
+    public long getLength() {
+        return mEnd - mStart + 1;
+    }
+
+    /**
+     * Content-Range ヘッダーの値を作成します.
+     *
+     * @param totalLength ファイル全体のサイズ
+     * @return Content-Range ヘッダーの値
+     */
+    public String toContentRange(final long totalLength) {
+        return "bytes " + mStart + "-" + mEnd + "/" + totalLength;
+    }
+
+    /**
+     * Range ヘッダーを解析します.
+     * <p>
+     * ヘッダーが存在しない場合や書式が不正な場合には null を返却します。この場合はファイル全体を返却してください。<br>
+     * 書式は正しいが、ファイルのサイズに対して満たせる範囲が1つもない場合には空のリストを返却します。
+     * この場合は 416 Range Not Satisfiable を返却してください。
+     * </p>
+     *
+     * @param header Range ヘッダーの値
+     * @param totalLength ファイル全体のサイズ
+     * @return 範囲のリスト
+     */
+    public static List<ByteRange> parse(final String header, final long totalLength) {
+        if (header == null || !header.startsWith(BYTES_UNIT)) {
+            return null;
+        }
+
+        String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int minus = spec.indexOf('-');
+            if (minus < 0) {
+                return null;
+            }
+
+            String first = spec.substring(0, minus).trim();
+            String last = spec.substring(minus + 1).trim();
+            try {
+                if (first.isEmpty()) {
+                    // 末尾から指定されたバイト数
+                    if (last.isEmpty()) {
+                        return null;
+                    }
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix > 0 && totalLength > 0) {
+                        ranges.add(new ByteRange(Math.max(0, totalLength - suffix), totalLength - 1));
+                    }
+                } else {
+                    long start = Long.parseLong(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start < totalLength) {
+                        ranges.add(new ByteRange(start, Math.min(end, totalLength - 1)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return Collections.unmodifiableList(ranges);
+    }
+
+    @Override
+    public String toString() {
+        return mStart + "-" + mEnd;
+    }
+}
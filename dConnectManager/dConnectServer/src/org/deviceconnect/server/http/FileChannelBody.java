@@ -0,0 +1,363 @@
+/*
+ FileChannelBody.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.server.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@link FileChannel} から直接送信するレスポンスのボディ.
+ * <p>
+ * ファイルの内容をヒープにコピーせずに {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+ * で送信します。範囲の指定はファイルの位置を指定するだけなので、ファイルの先頭から読み飛ばす必要はありません。
+ * </p>
+ * <p>
+ * 複数の範囲が指定された場合には multipart/byteranges 形式で送信します。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public class FileChannelBody implements Closeable {
+    /**
+     * ヘッダーの文字コード.
+     */
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * 改行コード.
+     */
+    private static final String CRLF = "\r\n";
+
+    /**
+     * 書き込み先が書き込めるようになるまで待つ時間の上限(ミリ秒).
+     */
+    private static final long WRITE_TIMEOUT = 30 * 1000;
+
+    /**
+     * 書き込めなかった場合に待つ時間の上限(ミリ秒).
+     */
+    private static final long MAX_BACKOFF = 64;
+
+    /**
+     * 送信するファイルのチャンネル.
+     */
+    private final FileChannel mChannel;
+
+    /**
+     * チャンネルと一緒に閉じるリソース.
+     */
+    private final Closeable mOwner;
+
+    /**
+     * ファイル全体のサイズ.
+     */
+    private final long mFileLength;
+
+    /**
+     * ファイルの Content-Type.
+     */
+    private final String mFileContentType;
+
+    /**
+     * 送信する範囲.
+     */
+    private final List<ByteRange> mRanges;
+
+    /**
+     * 範囲が指定されたか.
+     */
+    private final boolean mPartial;
+
+    /**
+     * multipart/byteranges の境界文字列.
+     */
+    private final String mBoundary;
+
+    /**
+     * multipart/byteranges の各パートのヘッダー.
+     */
+    private final byte[][] mPartHeaders;
+
+    /**
+     * multipart/byteranges の終端.
+     */
+    private final byte[] mTrailer;
+
+    /**
+     * 送信するボディのサイズ.
+     */
+    private final long mContentLength;
+
+    /**
+     * ファイル全体を送信するボディを作成します.
+     *
+     * @param channel ファイルのチャンネル
+     * @param owner チャンネルと一緒に閉じるリソース、不要な場合はnull
+     * @param fileLength ファイル全体のサイズ
+     * @param contentType ファイルの Content-Type
+     */
+    public FileChannelBody(final FileChannel channel, final Closeable owner,
+                           final long fileLength, final String contentType) {
+        this(channel, owner, fileLength, contentType, null);
+    }
+
+    /**
+     * 指定した範囲を送信するボディを作成します.
+     *
+     * @param channel ファイルのチャンネル
+     * @param owner チャンネルと一緒に閉じるリソース、不要な場合はnull
+     * @param fileLength ファイル全体のサイズ
+     * @param contentType ファイルの Content-Type
+     * @param ranges 送信する範囲、null または空の場合はファイル全体
+     */
+    public FileChannelBody(final FileChannel channel, final Closeable owner,
+                           final long fileLength, final String contentType,
+                           final List<ByteRange> ranges) {
+        if (channel == null) {
+            throw new IllegalArgumentException("channel is null.");
+        }
+        mChannel = channel;
+        mOwner = owner;
+        mFileLength = fileLength;
+        mFileContentType = contentType;
+
+        mPartial = ranges != null && !ranges.isEmpty();
+        if (mPartial) {
+            mRanges = ranges;
+        } else {
+            mRanges = Collections.singletonList(new ByteRange(0, Math.max(0, fileLength - 1)));
+        }
+
+        if (mRanges.size() > 1) {
+            mBoundary = createBoundary();
+            mPartHeaders = new byte[mRanges.size()][];
+            long length = 0;
+            for (int i = 0; i < mRanges.size(); i++) {
+                ByteRange range = mRanges.get(i);
+                StringBuilder sb = new StringBuilder();
+                if (i > 0) {
+                    sb.append(CRLF);
+                }
+                sb.append("--").append(mBoundary).append(CRLF);
+                if (contentType != null) {
+                    sb.append("Content-Type: ").append(contentType).append(CRLF);
+                }
+                sb.append("Content-Range: ").append(range.toContentRange(fileLength)).append(CRLF);
+                sb.append(CRLF);
+                mPartHeaders[i] = sb.toString().getBytes(ASCII);
+                length += mPartHeaders[i].length + range.getLength();
+            }
+            mTrailer = (CRLF + "--" + mBoundary + "--" + CRLF).getBytes(ASCII);
+            mContentLength = length + mTrailer.length;
+        } else {
+            mBoundary = null;
+            mPartHeaders = null;
+            mTrailer = null;
+            mContentLength = fileLength == 0 ? 0 : mRanges.get(0).getLength();
+        }
+    }
+
+    /**
+     * multipart/byteranges 形式で送信するか確認します.
+     *
+     * @return multipart/byteranges 形式の場合はtrue、それ以外はfalse
+     */
+    public boolean isMultipart() {
+        return mBoundary != null;
+    }
+
+    /**
+     * レスポンスの Content-Type を取得します.
+     *
+     * @return Content-Type
+     */
+    public String getContentType() {
+        if (isMultipart()) {
+            return "multipart/byteranges; boundary=" + mBoundary;
+        }
+        return mFileContentType;
+    }
+
+    /**
+     * レスポンスの Content-Length を取得します.
+     *
+     * @return Content-Length
+     */
+    public long getContentLength() {
+        return mContentLength;
+    }
+
+    /**
+     * 範囲が1つだけ指定されている場合の Content-Range ヘッダーの値を取得します.
+     * <p>
+     * 範囲が指定されたレスポンスは 206 で返却するので、指定された範囲がファイル全体の場合にも値を返却します。
+     * </p>
+     *
+     * @return Content-Range ヘッダーの値、範囲が指定されていない場合または複数の範囲の場合はnull
+     */
+    public String getContentRange() {
+        if (!mPartial || isMultipart()) {
+            return null;
+        }
+        return mRanges.get(0).toContentRange(mFileLength);
+    }
+
+    /**
+     * ボディを書き込みます.
+     *
+     * @param out 書き込み先のストリーム
+     * @throws IOException 書き込みに失敗した場合に発生
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        writeTo(Channels.newChannel(out));
+        out.flush();
+    }
+
+    /**
+     * ボディを書き込みます.
+     * <p>
+     * 書き込み先がソケットやファイルのチャンネルの場合には、カーネル内でコピーされます。
+     * </p>
+     *
+     * @param target 書き込み先のチャンネル
+     * @throws IOException 書き込みに失敗した場合に発生
+     */
+    public void writeTo(final WritableByteChannel target) throws IOException {
+        if (mContentLength == 0) {
+            return;
+        }
+        for (int i = 0; i < mRanges.size(); i++) {
+            if (mPartHeaders != null) {
+                writeBytes(target, mPartHeaders[i]);
+            }
+            ByteRange range = mRanges.get(i);
+            transfer(target, range.getStart(), range.getLength());
+        }
+        if (mTrailer != null) {
+            writeBytes(target, mTrailer);
+        }
+    }
+
+    /**
+     * ファイルの指定された範囲をチャンネルに転送します.
+     *
+     * @param target 転送先のチャンネル
+     * @param position 転送を開始するファイルの位置
+     * @param length 転送するサイズ
+     * @throws IOException 転送に失敗した場合に発生
+     */
+    private void transfer(final WritableByteChannel target, final long position, final long length) throws IOException {
+        long pos = position;
+        long remaining = length;
+        int stalls = 0;
+        while (remaining > 0) {
+            long n = mChannel.transferTo(pos, remaining, target);
+            if (n <= 0) {
+                // 転送中にファイルが切り詰められた場合
+                if (pos >= mChannel.size()) {
+                    throw new IOException("File was truncated during transfer.");
+                }
+                awaitWritable(target, ++stalls);
+                continue;
+            }
+            stalls = 0;
+            pos += n;
+            remaining -= n;
+        }
+    }
+
+    /**
+     * バイト配列をチャンネルに書き込みます.
+     *
+     * @param target 書き込み先のチャンネル
+     * @param data 書き込むデータ
+     * @throws IOException 書き込みに失敗した場合に発生
+     */
+    private static void writeBytes(final WritableByteChannel target, final byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int stalls = 0;
+        while (buf.hasRemaining()) {
+            if (target.write(buf) > 0) {
+                stalls = 0;
+            } else {
+                awaitWritable(target, ++stalls);
+            }
+        }
+    }
+
+    /**
+     * 書き込み先に1バイトも書き込めなかった場合に、書き込めるようになるまで待ちます.
+     * <p>
+     * ノンブロッキングのチャンネルの場合は書き込み可能になるまで {@link Selector} で待ちます。
+     * それ以外の場合は、連続して書き込めなかった回数に応じて待ち時間を延ばします。
+     * どちらの場合も {@link #WRITE_TIMEOUT} を超えた場合には例外を発生させます。
+     * </p>
+     *
+     * @param target 書き込み先のチャンネル
+     * @param stalls 連続して書き込めなかった回数
+     * @throws IOException 書き込めるようにならなかった場合に発生
+     */
+    private static void awaitWritable(final WritableByteChannel target, final int stalls) throws IOException {
+        if (target instanceof SelectableChannel && !((SelectableChannel) target).isBlocking()) {
+            SelectableChannel channel = (SelectableChannel) target;
+            Selector selector = Selector.open();
+            try {
+                channel.register(selector, SelectionKey.OP_WRITE);
+                if (selector.select(WRITE_TIMEOUT) == 0) {
+                    throw new IOException("Timed out waiting for the channel to become writable.");
+                }
+            } finally {
+                selector.close();
+            }
+            return;
+        }
+
+        long backoff = Math.min(1L << Math.min(stalls - 1, 6), MAX_BACKOFF);
+        if ((stalls - 1) * MAX_BACKOFF > WRITE_TIMEOUT) {
+            throw new IOException("Timed out waiting for the channel to become writable.");
+        }
+        try {
+            Thread.sleep(backoff);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the channel.");
+        }
+    }
+
+    /**
+     * multipart/byteranges の境界文字列を作成します.
+     *
+     * @return 境界文字列
+     */
+    private static String createBoundary() {
+        return "DConnectByteRanges" + Long.toHexString(new Random().nextLong());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            mChannel.close();
+        } finally {
+            if (mOwner != null) {
+                mOwner.close();
+            }
+        }
+    }
+}
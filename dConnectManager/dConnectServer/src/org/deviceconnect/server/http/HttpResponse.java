@@ -157,10 +157,23 @@ public interface HttpResponse {
 
     /**
      * Bodyにデータを設定する.
+     * <p>
+     * {@link #setContentLength(int)} でサイズが指定されていない場合は、chunked で送信される。
+     * </p>
      * @param in 設定するデータのストリーム
      */
     void setBody(final InputStream in);
 
+    /**
+     * Bodyにファイルのデータを設定する.
+     * <p>
+     * ファイルの内容はヒープにコピーせずに、ファイルのチャンネルから直接送信される。
+     * Content-Type、Content-Length、Content-Range はボディの値が使用される。
+     * </p>
+     * @param body 設定するファイルのデータ
+     */
+    void setBody(final FileChannelBody body);
+
     /**
      * レスポンスにヘッダーを追加する.
      *
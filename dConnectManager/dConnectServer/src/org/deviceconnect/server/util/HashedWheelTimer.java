@@ -0,0 +1,534 @@
+/*
+ HashedWheelTimer.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.server.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 大量のタイムアウトを1つのスレッドで管理するためのタイマー.
+ * <p>
+ * タイムアウトは指定された刻み幅ごとのバケットに振り分けられ、1つのスレッドが刻み幅ごとに
+ * 該当するバケットのタイムアウトだけを処理します。登録と解除は O(1) で行えるので、
+ * リクエストごとのタイムアウトのように、ほとんどが時間切れになる前に解除される用途に向いています。
+ * </p>
+ * <p>
+ * タイムアウトの精度は刻み幅に依存します。また、タイムアウトの処理はタイマーのスレッド上で
+ * 実行されるので、時間の掛かる処理は別のスレッドに渡してください。
+ * </p>
+ * <p>
+ * タイマーのスレッドは最初のタイムアウトが登録された時に開始します。
+ * {@link #stop()} で停止した後にタイムアウトが登録された場合には、再度スレッドを開始します。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public class HashedWheelTimer {
+    /**
+     * ロガー.
+     */
+    private final Logger mLogger = Logger.getLogger("dconnect.server");
+
+    /**
+     * スレッド名.
+     */
+    private final String mName;
+
+    /**
+     * 刻み幅(ナノ秒).
+     */
+    private final long mTickDuration;
+
+    /**
+     * バケットの数.
+     * <p>
+     * インデックスの計算をマスクで行うために 2 の累乗にします。
+     * </p>
+     */
+    private final int mWheelSize;
+
+    /**
+     * 登録されてから、まだバケットに振り分けられていないタイムアウト.
+     */
+    private final Queue<Timeout> mNewTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+    /**
+     * 解除されたタイムアウト.
+     */
+    private final Queue<Timeout> mCancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+    /**
+     * スレッドの開始と停止を行うためのロックオブジェクト.
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * 実行中のワーカー.
+     */
+    private Worker mWorker;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param name スレッド名
+     * @param tickDuration 刻み幅
+     * @param unit 刻み幅の単位
+     * @param ticksPerWheel バケットの数
+     */
+    public HashedWheelTimer(final String name, final long tickDuration, final TimeUnit unit, final int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration is invalid.");
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel is invalid.");
+        }
+        mName = name;
+        mTickDuration = unit.toNanos(tickDuration);
+        mWheelSize = normalizeTicksPerWheel(ticksPerWheel);
+    }
+
+    /**
+     * 指定時間後に実行するタスクを登録します.
+     *
+     * @param task 実行するタスク
+     * @param delay 実行するまでの時間
+     * @param unit 時間の単位
+     * @return 登録したタイムアウト
+     */
+    public Timeout newTimeout(final Runnable task, final long delay, final TimeUnit unit) {
+        if (task == null) {
+            throw new IllegalArgumentException("task is null.");
+        }
+        Timeout timeout = new Timeout(this, task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        mNewTimeouts.add(timeout);
+        start();
+        return timeout;
+    }
+
+    /**
+     * タイマーのスレッドが動作しているか確認します.
+     *
+     * @return タイマーのスレッドが動作している場合はtrue、それ以外はfalse
+     */
+    public boolean isRunning() {
+        synchronized (mLock) {
+            return mWorker != null;
+        }
+    }
+
+    /**
+     * タイマーを停止します.
+     * <p>
+     * 未処理のタイムアウトは全て解除され、タスクは実行されません。
+     * </p>
+     */
+    public void stop() {
+        Worker worker;
+        synchronized (mLock) {
+            worker = mWorker;
+            mWorker = null;
+        }
+
+        if (worker != null) {
+            worker.shutdown();
+            if (Thread.currentThread() != worker.mThread) {
+                try {
+                    worker.mThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            worker.cancelAll();
+        }
+
+        Timeout timeout;
+        while ((timeout = mNewTimeouts.poll()) != null) {
+            timeout.cancel();
+        }
+        mCancelledTimeouts.clear();
+    }
+
+    /**
+     * タイマーのスレッドが動作していない場合には開始します.
+     */
+    private void start() {
+        synchronized (mLock) {
+            if (mWorker == null) {
+                mWorker = new Worker();
+                mWorker.mThread.start();
+            }
+        }
+    }
+
+    /**
+     * バケットの数を 2 の累乗に切り上げます.
+     *
+     * @param ticksPerWheel バケットの数
+     * @return 2 の累乗に切り上げたバケットの数
+     */
+    private static int normalizeTicksPerWheel(final int ticksPerWheel) {
+        int normalized = 1;
+        while (normalized < ticksPerWheel) {
+            normalized <<= 1;
+        }
+        return normalized;
+    }
+
+    /**
+     * 登録されたタイムアウト.
+     */
+    public static final class Timeout {
+        /**
+         * 初期状態.
+         */
+        private static final int ST_INIT = 0;
+
+        /**
+         * 解除された状態.
+         */
+        private static final int ST_CANCELLED = 1;
+
+        /**
+         * 時間切れになった状態.
+         */
+        private static final int ST_EXPIRED = 2;
+
+        /**
+         * 登録先のタイマー.
+         */
+        private final HashedWheelTimer mTimer;
+
+        /**
+         * 実行するタスク.
+         */
+        private final Runnable mTask;
+
+        /**
+         * 時間切れになる時刻({@link System#nanoTime()} の値).
+         */
+        private final long mDeadline;
+
+        /**
+         * 状態.
+         */
+        private final AtomicInteger mState = new AtomicInteger(ST_INIT);
+
+        /**
+         * 時間切れになるまでに残っているホイールの周回数.
+         * <p>
+         * タイマーのスレッドからのみアクセスします。
+         * </p>
+         */
+        private long mRemainingRounds;
+
+        /**
+         * 振り分けられたバケット.
+         */
+        private Bucket mBucket;
+
+        /**
+         * バケット内の次のタイムアウト.
+         */
+        private Timeout mNext;
+
+        /**
+         * バケット内の前のタイムアウト.
+         */
+        private Timeout mPrev;
+
+        /**
+         * コンストラクタ.
+         *
+         * @param timer 登録先のタイマー
+         * @param task 実行するタスク
+         * @param deadline 時間切れになる時刻
+         */
+        private Timeout(final HashedWheelTimer timer, final Runnable task, final long deadline) {
+            mTimer = timer;
+            mTask = task;
+            mDeadline = deadline;
+        }
+
+        /**
+         * タイムアウトを解除します.
+         * <p>
+         * 既に時間切れになっている場合には何もしません。
+         * </p>
+         *
+         * @return 解除できた場合はtrue、それ以外はfalse
+         */
+        public boolean cancel() {
+            if (!mState.compareAndSet(ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            mTimer.mCancelledTimeouts.add(this);
+            return true;
+        }
+
+        /**
+         * タイムアウトが解除されているか確認します.
+         *
+         * @return 解除されている場合はtrue、それ以外はfalse
+         */
+        public boolean isCancelled() {
+            return mState.get() == ST_CANCELLED;
+        }
+
+        /**
+         * タイムアウトが時間切れになったか確認します.
+         *
+         * @return 時間切れになった場合はtrue、それ以外はfalse
+         */
+        public boolean isExpired() {
+            return mState.get() == ST_EXPIRED;
+        }
+
+        /**
+         * タスクを実行します.
+         *
+         * @return 実行した場合はtrue、既に解除されていた場合はfalse
+         */
+        private boolean expire() {
+            if (!mState.compareAndSet(ST_INIT, ST_EXPIRED)) {
+                return false;
+            }
+            mTask.run();
+            return true;
+        }
+    }
+
+    /**
+     * 同じ刻みで時間切れになるタイムアウトを格納するバケット.
+     * <p>
+     * タイマーのスレッドからのみアクセスします。
+     * </p>
+     */
+    private static final class Bucket {
+        /**
+         * 先頭のタイムアウト.
+         */
+        private Timeout mHead;
+
+        /**
+         * 末尾のタイムアウト.
+         */
+        private Timeout mTail;
+
+        /**
+         * タイムアウトを追加します.
+         *
+         * @param timeout 追加するタイムアウト
+         */
+        void add(final Timeout timeout) {
+            timeout.mBucket = this;
+            if (mHead == null) {
+                mHead = mTail = timeout;
+            } else {
+                mTail.mNext = timeout;
+                timeout.mPrev = mTail;
+                mTail = timeout;
+            }
+        }
+
+        /**
+         * タイムアウトを削除します.
+         *
+         * @param timeout 削除するタイムアウト
+         * @return 次のタイムアウト
+         */
+        Timeout remove(final Timeout timeout) {
+            Timeout next = timeout.mNext;
+            if (timeout.mPrev != null) {
+                timeout.mPrev.mNext = next;
+            }
+            if (timeout.mNext != null) {
+                timeout.mNext.mPrev = timeout.mPrev;
+            }
+            if (timeout == mHead) {
+                mHead = next;
+            }
+            if (timeout == mTail) {
+                mTail = timeout.mPrev;
+            }
+            timeout.mPrev = null;
+            timeout.mNext = null;
+            timeout.mBucket = null;
+            return next;
+        }
+    }
+
+    /**
+     * 刻み幅ごとにバケットを処理するワーカー.
+     */
+    private final class Worker implements Runnable {
+        /**
+         * バケットの配列.
+         */
+        private final Bucket[] mWheel = new Bucket[mWheelSize];
+
+        /**
+         * ワーカーを実行するスレッド.
+         */
+        private final Thread mThread;
+
+        /**
+         * 実行中フラグ.
+         */
+        private volatile boolean mRunning = true;
+
+        /**
+         * ワーカーの開始時刻.
+         */
+        private long mStartTime;
+
+        /**
+         * 現在の刻み.
+         */
+        private long mTick;
+
+        /**
+         * コンストラクタ.
+         */
+        Worker() {
+            for (int i = 0; i < mWheel.length; i++) {
+                mWheel[i] = new Bucket();
+            }
+            mThread = new Thread(this, mName);
+            mThread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            mStartTime = System.nanoTime();
+            while (mRunning) {
+                long now = waitForNextTick();
+                if (now < 0) {
+                    break;
+                }
+                processCancelledTimeouts();
+                transferTimeoutsToBuckets();
+                expireTimeouts(mWheel[(int) (mTick & (mWheel.length - 1))], now);
+                mTick++;
+            }
+        }
+
+        /**
+         * ワーカーを停止します.
+         */
+        void shutdown() {
+            mRunning = false;
+            mThread.interrupt();
+        }
+
+        /**
+         * バケットに残っているタイムアウトを全て解除します.
+         * <p>
+         * ワーカーのスレッドが終了した後に呼び出すこと。
+         * </p>
+         */
+        void cancelAll() {
+            for (Bucket bucket : mWheel) {
+                Timeout timeout = bucket.mHead;
+                while (timeout != null) {
+                    Timeout next = bucket.remove(timeout);
+                    timeout.cancel();
+                    timeout = next;
+                }
+            }
+        }
+
+        /**
+         * 次の刻みまで待機します.
+         *
+         * @return 次の刻みの時刻(ナノ秒)、停止された場合は -1
+         */
+        private long waitForNextTick() {
+            long deadline = mStartTime + mTickDuration * (mTick + 1);
+            while (true) {
+                long now = System.nanoTime();
+                long sleepTimeMs = (deadline - now + 999999) / 1000000;
+                if (sleepTimeMs <= 0) {
+                    return now;
+                }
+                try {
+                    Thread.sleep(sleepTimeMs);
+                } catch (InterruptedException e) {
+                    if (!mRunning) {
+                        return -1;
+                    }
+                }
+            }
+        }
+
+        /**
+         * 登録されたタイムアウトをバケットに振り分けます.
+         */
+        private void transferTimeoutsToBuckets() {
+            // 1回の刻みで処理する数を制限して、タイムアウトの処理が遅れないようにする
+            for (int i = 0; i < 100000; i++) {
+                Timeout timeout = mNewTimeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                if (timeout.isCancelled()) {
+                    continue;
+                }
+
+                long calculated = Math.max(0, timeout.mDeadline - mStartTime) / mTickDuration;
+                timeout.mRemainingRounds = (calculated - mTick) / mWheel.length;
+
+                // 既に過ぎている刻みには入れられないので、現在の刻みに入れる
+                long ticks = Math.max(calculated, mTick);
+                mWheel[(int) (ticks & (mWheel.length - 1))].add(timeout);
+            }
+        }
+
+        /**
+         * 解除されたタイムアウトをバケットから削除します.
+         */
+        private void processCancelledTimeouts() {
+            Timeout timeout;
+            while ((timeout = mCancelledTimeouts.poll()) != null) {
+                if (timeout.mBucket != null) {
+                    timeout.mBucket.remove(timeout);
+                }
+            }
+        }
+
+        /**
+         * バケット内の時間切れになったタイムアウトのタスクを実行します.
+         *
+         * @param bucket バケット
+         * @param now 現在の時刻(ナノ秒)
+         */
+        private void expireTimeouts(final Bucket bucket, final long now) {
+            Timeout timeout = bucket.mHead;
+            while (timeout != null) {
+                if (timeout.isCancelled()) {
+                    timeout = bucket.remove(timeout);
+                } else if (timeout.mRemainingRounds <= 0 && timeout.mDeadline <= now) {
+                    Timeout next = bucket.remove(timeout);
+                    try {
+                        timeout.expire();
+                    } catch (Throwable t) {
+                        mLogger.log(Level.WARNING, "HashedWheelTimer: Failed to execute a task.", t);
+                    }
+                    timeout = next;
+                } else {
+                    if (timeout.mRemainingRounds > 0) {
+                        timeout.mRemainingRounds--;
+                    }
+                    timeout = timeout.mNext;
+                }
+            }
+        }
+    }
+}
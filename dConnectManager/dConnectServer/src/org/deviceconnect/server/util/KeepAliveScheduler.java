@@ -0,0 +1,454 @@
+/*
+ KeepAliveScheduler.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.server.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 生存確認(Keep-Alive)を定期的に行うためのスケジューラ.
+ * <p>
+ * 生存確認の対象ごとにスレッドやタイマーを作成せずに、1つの {@link HashedWheelTimer} で全ての対象の
+ * 生存確認の時刻を管理します。生存確認の処理自体はタイマーのスレッドをブロックしないように、
+ * 別のスレッドで実行します。
+ * </p>
+ * <p>
+ * 多数の対象が同じ時刻に生存確認を行わないように、生存確認の間隔には揺らぎ(ジッター)を加えます。
+ * 生存確認に失敗した対象はすぐには切断せずに、一定時間ごとにまとめて切断します。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public class KeepAliveScheduler {
+    /**
+     * 生存確認の間隔に加える揺らぎのデフォルト値(間隔に対する割合).
+     */
+    public static final double DEFAULT_JITTER = 0.1;
+
+    /**
+     * 生存確認に失敗した対象をまとめて切断する間隔のデフォルト値(ミリ秒).
+     */
+    public static final long DEFAULT_EVICTION_DELAY = 1000;
+
+    /**
+     * 生存確認と切断の処理を実行するデフォルトのスレッド数.
+     * <p>
+     * 生存確認の処理がソケットへの書き込みなどでブロックしても、他の対象の生存確認が遅れないように複数のスレッドで実行します。
+     * </p>
+     */
+    public static final int DEFAULT_WORKER_COUNT = 4;
+
+    /**
+     * プロセス内で共有するスケジューラ.
+     */
+    private static KeepAliveScheduler sDefault;
+
+    /**
+     * ロガー.
+     */
+    private final Logger mLogger = Logger.getLogger("dconnect.server");
+
+    /**
+     * 生存確認の時刻を管理するタイマー.
+     */
+    private final HashedWheelTimer mTimer;
+
+    /**
+     * 生存確認と切断の処理を実行するスレッド.
+     */
+    private final Executor mExecutor;
+
+    /**
+     * 切断待ちの対象.
+     */
+    private final Queue<Registration> mDeadRegistrations = new ConcurrentLinkedQueue<Registration>();
+
+    /**
+     * 切断処理が予約済みか示すフラグ.
+     */
+    private final AtomicBoolean mEvictionScheduled = new AtomicBoolean();
+
+    /**
+     * 揺らぎを計算するための乱数.
+     */
+    private final Random mRandom = new Random();
+
+    /**
+     * 生存確認の間隔に加える揺らぎ(間隔に対する割合).
+     */
+    private volatile double mJitter = DEFAULT_JITTER;
+
+    /**
+     * 生存確認に失敗した対象をまとめて切断する間隔(ミリ秒).
+     */
+    private volatile long mEvictionDelay = DEFAULT_EVICTION_DELAY;
+
+    /**
+     * 生存確認の対象.
+     */
+    public interface Target {
+        /**
+         * 生存確認を行います.
+         * <p>
+         * 前回の生存確認に応答がなかった場合など、対象が切断されていると判断した場合には false を返却してください。
+         * false を返却した対象は、以降の生存確認を行わずに {@link #onEvicted()} が呼び出されます。
+         * </p>
+         *
+         * @return 生存している場合はtrue、それ以外はfalse
+         */
+        boolean onKeepAlive();
+
+        /**
+         * 生存確認に失敗したので、対象を切断します.
+         */
+        void onEvicted();
+    }
+
+    /**
+     * プロセス内で共有するスケジューラを取得します.
+     *
+     * @return スケジューラ
+     */
+    public static synchronized KeepAliveScheduler getDefault() {
+        if (sDefault == null) {
+            sDefault = new KeepAliveScheduler(new HashedWheelTimer("KeepAliveScheduler", 100, TimeUnit.MILLISECONDS, 512));
+        }
+        return sDefault;
+    }
+
+    /**
+     * コンストラクタ.
+     * <p>
+     * 生存確認の処理は、このスケジューラ専用の {@link #DEFAULT_WORKER_COUNT} 個のスレッドで実行します。
+     * </p>
+     *
+     * @param timer 生存確認の時刻を管理するタイマー
+     */
+    public KeepAliveScheduler(final HashedWheelTimer timer) {
+        this(timer, createDefaultExecutor());
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param timer 生存確認の時刻を管理するタイマー
+     * @param executor 生存確認と切断の処理を実行するスレッド
+     */
+    public KeepAliveScheduler(final HashedWheelTimer timer, final Executor executor) {
+        if (timer == null) {
+            throw new IllegalArgumentException("timer is null.");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null.");
+        }
+        mTimer = timer;
+        mExecutor = executor;
+    }
+
+    /**
+     * 生存確認の時刻を管理するタイマーを取得します.
+     * <p>
+     * 一時ファイルの削除など、サーバ内で遅延して実行する短い処理にもこのタイマーを共有します。
+     * タイマーのスレッドで実行されるので、ブロックする処理は登録しないでください。
+     * </p>
+     *
+     * @return タイマー
+     */
+    public HashedWheelTimer getTimer() {
+        return mTimer;
+    }
+
+    /**
+     * 生存確認の間隔に加える揺らぎを設定します.
+     * <p>
+     * 例えば 0.1 を設定した場合には、生存確認の間隔は設定値の ±10% の範囲でばらつきます。
+     * </p>
+     *
+     * @param jitter 揺らぎ(0以上1未満の間隔に対する割合)
+     */
+    public void setJitter(final double jitter) {
+        if (jitter < 0 || jitter >= 1) {
+            throw new IllegalArgumentException("jitter is invalid.");
+        }
+        mJitter = jitter;
+    }
+
+    /**
+     * 生存確認に失敗した対象をまとめて切断する間隔を設定します.
+     *
+     * @param delay 間隔
+     * @param unit 間隔の単位
+     */
+    public void setEvictionDelay(final long delay, final TimeUnit unit) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("delay is negative.");
+        }
+        mEvictionDelay = unit.toMillis(delay);
+    }
+
+    /**
+     * 生存確認の対象を登録します.
+     *
+     * @param target 生存確認の対象
+     * @param interval 生存確認の間隔
+     * @param unit 間隔の単位
+     * @return 登録情報. 生存確認を停止する場合には {@link Registration#cancel()} を呼び出すこと
+     */
+    public Registration schedule(final Target target, final long interval, final TimeUnit unit) {
+        if (target == null) {
+            throw new IllegalArgumentException("target is null.");
+        }
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval is invalid.");
+        }
+        Registration registration = new Registration(target, unit.toMillis(interval));
+        registration.scheduleNext();
+        return registration;
+    }
+
+    /**
+     * 揺らぎを加えた生存確認の間隔を計算します.
+     *
+     * @param interval 生存確認の間隔(ミリ秒)
+     * @return 揺らぎを加えた間隔(ミリ秒)
+     */
+    private long jitter(final long interval) {
+        double jitter = mJitter;
+        if (jitter <= 0) {
+            return interval;
+        }
+        double factor;
+        synchronized (mRandom) {
+            factor = 1.0 + jitter * (mRandom.nextDouble() * 2.0 - 1.0);
+        }
+        return Math.max(1, (long) (interval * factor));
+    }
+
+    /**
+     * 生存確認に失敗した対象を切断待ちに追加します.
+     *
+     * @param registration 登録情報
+     */
+    private void addDeadRegistration(final Registration registration) {
+        mDeadRegistrations.add(registration);
+        if (mEvictionScheduled.compareAndSet(false, true)) {
+            mTimer.newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    executeSafely(new Runnable() {
+                        @Override
+                        public void run() {
+                            evictDeadRegistrations();
+                        }
+                    });
+                }
+            }, mEvictionDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 切断待ちの対象をまとめて切断します.
+     */
+    private void evictDeadRegistrations() {
+        mEvictionScheduled.set(false);
+
+        List<Registration> batch = new ArrayList<Registration>();
+        Registration registration;
+        while ((registration = mDeadRegistrations.poll()) != null) {
+            batch.add(registration);
+        }
+
+        int evicted = 0;
+        for (Registration r : batch) {
+            if (r.mCancelled.compareAndSet(false, true)) {
+                try {
+                    r.mTarget.onEvicted();
+                } catch (Throwable t) {
+                    mLogger.log(Level.WARNING, "KeepAliveScheduler: Failed to evict a target.", t);
+                }
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            mLogger.fine("KeepAliveScheduler: evicted " + evicted + " targets.");
+        }
+    }
+
+    /**
+     * 処理をスレッドで実行します.
+     * <p>
+     * スレッドが停止されている場合には処理を破棄します。
+     * </p>
+     *
+     * @param task 処理
+     */
+    private void executeSafely(final Runnable task) {
+        try {
+            mExecutor.execute(task);
+        } catch (RuntimeException e) {
+            mLogger.log(Level.WARNING, "KeepAliveScheduler: Failed to execute a task.", e);
+        }
+    }
+
+    /**
+     * 生存確認と切断の処理を実行するデフォルトのスレッドプールを作成します.
+     * <p>
+     * 処理がない間はスレッドを終了します。
+     * </p>
+     *
+     * @return スレッドプール
+     */
+    private static Executor createDefaultExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_WORKER_COUNT, DEFAULT_WORKER_COUNT,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r, "KeepAliveScheduler-Worker-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 生存確認の対象の登録情報.
+     */
+    public final class Registration {
+        /**
+         * 生存確認の対象.
+         */
+        private final Target mTarget;
+
+        /**
+         * 生存確認の間隔(ミリ秒).
+         */
+        private final long mInterval;
+
+        /**
+         * 解除フラグ.
+         */
+        private final AtomicBoolean mCancelled = new AtomicBoolean();
+
+        /**
+         * 次の生存確認のタイムアウト.
+         */
+        private volatile HashedWheelTimer.Timeout mTimeout;
+
+        /**
+         * 生存確認を実行する処理.
+         */
+        private final Runnable mCheckTask = new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        };
+
+        /**
+         * タイマーのスレッドから生存確認の処理をスレッドに渡す処理.
+         */
+        private final Runnable mTimerTask = new Runnable() {
+            @Override
+            public void run() {
+                executeSafely(mCheckTask);
+            }
+        };
+
+        /**
+         * コンストラクタ.
+         *
+         * @param target 生存確認の対象
+         * @param interval 生存確認の間隔(ミリ秒)
+         */
+        private Registration(final Target target, final long interval) {
+            mTarget = target;
+            mInterval = interval;
+        }
+
+        /**
+         * 生存確認の間隔を取得します.
+         *
+         * @return 生存確認の間隔(ミリ秒)
+         */
+        public long getInterval() {
+            return mInterval;
+        }
+
+        /**
+         * 生存確認を停止します.
+         */
+        public void cancel() {
+            mCancelled.set(true);
+            HashedWheelTimer.Timeout timeout = mTimeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+        /**
+         * 生存確認が停止されているか確認します.
+         *
+         * @return 停止されている場合はtrue、それ以外はfalse
+         */
+        public boolean isCancelled() {
+            return mCancelled.get();
+        }
+
+        /**
+         * 次の生存確認を予約します.
+         */
+        private void scheduleNext() {
+            if (mCancelled.get()) {
+                return;
+            }
+            mTimeout = mTimer.newTimeout(mTimerTask, jitter(mInterval), TimeUnit.MILLISECONDS);
+            // 予約中に解除された場合にタイムアウトが残らないようにする
+            if (mCancelled.get()) {
+                mTimeout.cancel();
+            }
+        }
+
+        /**
+         * 生存確認を行います.
+         */
+        private void check() {
+            if (mCancelled.get()) {
+                return;
+            }
+
+            boolean alive;
+            try {
+                alive = mTarget.onKeepAlive();
+            } catch (Throwable t) {
+                mLogger.log(Level.WARNING, "KeepAliveScheduler: Failed to check a target.", t);
+                alive = false;
+            }
+
+            if (alive) {
+                scheduleNext();
+            } else {
+                addDeadRegistration(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+/*
+ org.deviceconnect.server.util
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+/**
+ * Device Connect 仮想サーバーユーティリティパッケージ.
+ */
+package org.deviceconnect.server.util;
@@ -27,6 +27,16 @@ public interface DConnectWebSocket {
      */
     void sendMessage(byte[] buffer);
 
+    /**
+     * クライアントに UTF-8 でエンコード済みのテキストメッセージを送信します.
+     * <p>
+     * 同じメッセージを複数のクライアントに送信する場合に、文字列の変換を省略するために使用します。
+     * </p>
+     *
+     * @param utf8 UTF-8 でエンコードされたテキストメッセージ
+     */
+    void sendTextMessage(byte[] utf8);
+
     /**
      * WebSocketを切断します.
      */
@@ -0,0 +1,219 @@
+/*
+ KeepAliveSchedulerTest.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.server.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * KeepAliveScheduler のテスト.
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public class KeepAliveSchedulerTest {
+    /**
+     * 非同期の処理を待つ最大時間(秒).
+     */
+    private static final long TIMEOUT = 10;
+
+    private HashedWheelTimer mTimer;
+
+    private KeepAliveScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mTimer = new HashedWheelTimer("KeepAliveSchedulerTest", 10, TimeUnit.MILLISECONDS, 64);
+        mScheduler = new KeepAliveScheduler(mTimer);
+        mScheduler.setJitter(0);
+        mScheduler.setEvictionDelay(50, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        mTimer.stop();
+    }
+
+    /**
+     * 生存確認に失敗する対象を登録する。
+     * <pre>
+     * 【期待する動作】
+     * ・onEvicted が1回だけ呼び出されること。
+     * ・切断された後は onKeepAlive が呼び出されないこと。
+     * ・登録情報が停止された状態になること。
+     * </pre>
+     */
+    @Test
+    public void testEviction() throws Exception {
+        final CountDownLatch evicted = new CountDownLatch(1);
+        final AtomicInteger keepAliveCount = new AtomicInteger();
+        final AtomicInteger evictedCount = new AtomicInteger();
+        KeepAliveScheduler.Registration registration = mScheduler.schedule(new KeepAliveScheduler.Target() {
+            @Override
+            public boolean onKeepAlive() {
+                keepAliveCount.incrementAndGet();
+                return false;
+            }
+
+            @Override
+            public void onEvicted() {
+                evictedCount.incrementAndGet();
+                evicted.countDown();
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+
+        assertThat(evicted.await(TIMEOUT, TimeUnit.SECONDS), is(true));
+        Thread.sleep(200);
+
+        assertThat(evictedCount.get(), is(1));
+        assertThat(keepAliveCount.get(), is(1));
+        assertThat(registration.isCancelled(), is(true));
+    }
+
+    /**
+     * 生存確認に失敗した複数の対象を登録する。
+     * <pre>
+     * 【期待する動作】
+     * ・全ての対象の onEvicted が呼び出されること。
+     * ・生存確認に成功している対象は切断されないこと。
+     * </pre>
+     */
+    @Test
+    public void testEviction_multipleTargets() throws Exception {
+        final int count = 20;
+        final CountDownLatch evicted = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            mScheduler.schedule(new KeepAliveScheduler.Target() {
+                @Override
+                public boolean onKeepAlive() {
+                    return false;
+                }
+
+                @Override
+                public void onEvicted() {
+                    evicted.countDown();
+                }
+            }, 20, TimeUnit.MILLISECONDS);
+        }
+        final AtomicInteger aliveEvicted = new AtomicInteger();
+        final CountDownLatch aliveChecked = new CountDownLatch(5);
+        KeepAliveScheduler.Registration alive = mScheduler.schedule(new KeepAliveScheduler.Target() {
+            @Override
+            public boolean onKeepAlive() {
+                aliveChecked.countDown();
+                return true;
+            }
+
+            @Override
+            public void onEvicted() {
+                aliveEvicted.incrementAndGet();
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+
+        assertThat(evicted.await(TIMEOUT, TimeUnit.SECONDS), is(true));
+        assertThat(aliveChecked.await(TIMEOUT, TimeUnit.SECONDS), is(true));
+        assertThat(aliveEvicted.get(), is(0));
+        assertThat(alive.isCancelled(), is(false));
+        alive.cancel();
+    }
+
+    /**
+     * 生存確認の処理がブロックする対象と、他の対象を登録する。
+     * <pre>
+     * 【期待する動作】
+     * ・生存確認の処理がブロックしている間も、他の対象の生存確認が行われること。
+     * ・ブロックしている対象の生存確認は、処理が終わるまで重ねて呼び出されないこと。
+     * </pre>
+     */
+    @Test
+    public void testSlowKeepAlive() throws Exception {
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger slowCount = new AtomicInteger();
+        KeepAliveScheduler.Registration slow = mScheduler.schedule(new KeepAliveScheduler.Target() {
+            @Override
+            public boolean onKeepAlive() {
+                slowCount.incrementAndGet();
+                slowStarted.countDown();
+                try {
+                    release.await(TIMEOUT, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+
+            @Override
+            public void onEvicted() {
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+
+        assertThat(slowStarted.await(TIMEOUT, TimeUnit.SECONDS), is(true));
+
+        final CountDownLatch fastChecked = new CountDownLatch(10);
+        KeepAliveScheduler.Registration fast = mScheduler.schedule(new KeepAliveScheduler.Target() {
+            @Override
+            public boolean onKeepAlive() {
+                fastChecked.countDown();
+                return true;
+            }
+
+            @Override
+            public void onEvicted() {
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+
+        try {
+            assertThat(fastChecked.await(TIMEOUT, TimeUnit.SECONDS), is(true));
+            assertThat(slowCount.get(), is(1));
+        } finally {
+            release.countDown();
+            slow.cancel();
+            fast.cancel();
+        }
+    }
+
+    /**
+     * 生存確認を停止する。
+     * <pre>
+     * 【期待する動作】
+     * ・停止した後は onKeepAlive が呼び出されないこと。
+     * </pre>
+     */
+    @Test
+    public void testCancel() throws Exception {
+        final CountDownLatch checked = new CountDownLatch(1);
+        final AtomicInteger keepAliveCount = new AtomicInteger();
+        KeepAliveScheduler.Registration registration = mScheduler.schedule(new KeepAliveScheduler.Target() {
+            @Override
+            public boolean onKeepAlive() {
+                keepAliveCount.incrementAndGet();
+                checked.countDown();
+                return true;
+            }
+
+            @Override
+            public void onEvicted() {
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+
+        assertThat(checked.await(TIMEOUT, TimeUnit.SECONDS), is(true));
+        registration.cancel();
+        int count = keepAliveCount.get();
+        Thread.sleep(200);
+
+        assertThat(registration.isCancelled(), is(true));
+        assertThat(keepAliveCount.get() <= count + 1, is(true));
+    }
+}
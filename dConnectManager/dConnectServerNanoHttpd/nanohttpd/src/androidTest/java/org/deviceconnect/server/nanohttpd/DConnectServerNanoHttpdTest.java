@@ -26,6 +26,7 @@ import org.json.JSONObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -1233,6 +1234,76 @@ public class DConnectServerNanoHttpdTest {
         }
     }
 
+    /**
+     * サイズの分からないストリームをボディに設定して、HTTP通信を行う。
+     * <pre>
+     * 【期待する動作】
+     * ・DConnectServerNanoHttpdにHTTP通信して、レスポンスのステータスコードに200が返却されること。
+     * ・InputStream#available() が 0 を返すストリームでも、全てのデータが返却されること。
+     * </pre>
+     */
+    @Test
+    public void DConnectServerNanoHttpd_unknown_length_response() throws IOException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final String path = "/root/path";
+        final int dataSize = 256 * 1024;
+
+        File file = getContext().getFilesDir();
+        DConnectServerConfig config = new DConnectServerConfig.Builder().port(PORT).documentRootPath(file.getPath()).build();
+        DConnectServer server = new DConnectServerNanoHttpd(config, getContext());
+        server.setServerEventListener(new DConnectServerEventListener() {
+            @Override
+            public boolean onReceivedHttpRequest(final HttpRequest req, final HttpResponse res) {
+                res.setCode(HttpResponse.StatusCode.OK);
+                res.setContentType("application/octet-stream");
+                // パイプやソケットのように、バッファ済みのデータが無いストリーム
+                res.setBody(new ByteArrayInputStream(new byte[dataSize]) {
+                    @Override
+                    public synchronized int available() {
+                        return 0;
+                    }
+                });
+                return true;
+            }
+
+            @Override
+            public void onError(final DConnectServerError errorCode) {
+            }
+
+            @Override
+            public void onServerLaunched() {
+                latch.countDown();
+            }
+
+            @Override
+            public void onWebSocketConnected(final DConnectWebSocket webSocket) {
+            }
+
+            @Override
+            public void onWebSocketDisconnected(final DConnectWebSocket webSocket) {
+            }
+
+            @Override
+            public void onWebSocketMessage(final DConnectWebSocket webSocket, final String message) {
+            }
+        });
+        server.start();
+
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+
+            HttpUtils.Response response = HttpUtils.get(HTTP_LOCALHOST_PORT + path);
+            assertThat(response, is(notNullValue()));
+            assertThat(response.getStatusCode(), is(200));
+            assertThat(response.getBody(), is(notNullValue()));
+            assertThat(response.getBody().length(), is((long) dataSize));
+        } catch (InterruptedException e) {
+            fail("timeout");
+        } finally {
+            server.shutdown();
+        }
+    }
+
     /**
      * onReceivedHttpRequestの中で例外を発生させて、通信を行う。
      * <pre>
@@ -0,0 +1,310 @@
+/*
+ DConnectWebServerNanoHttpdTest.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.server.nanohttpd;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+/**
+ * DConnectWebServerNanoHttpd のファイル送信のテスト.
+ *
+ * @author NTT DOCOMO, INC.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DConnectWebServerNanoHttpdTest {
+    /**
+     * デバッグタグ.
+     */
+    private static final String TAG = "NanoWebTest";
+
+    /**
+     * ポート番号.
+     */
+    private static final int PORT = 9998;
+
+    /**
+     * HTTP通信用URIを定義.
+     */
+    private static final String HTTP_LOCALHOST_PORT = "http://localhost:" + PORT;
+
+    /**
+     * テスト用ファイルのサイズ.
+     */
+    private static final int SMALL_FILE_SIZE = 64 * 1024;
+
+    /**
+     * スループット計測用ファイルのサイズ.
+     */
+    private static final long LARGE_FILE_SIZE = 300L * 1024 * 1024;
+
+    private File mDocRoot;
+    private DConnectWebServerNanoHttpd mServer;
+
+    private Context getContext() {
+        return InstrumentationRegistry.getInstrumentation().getTargetContext();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mDocRoot = new File(getContext().getCacheDir(), "www");
+        if (!mDocRoot.exists() && !mDocRoot.mkdirs()) {
+            throw new IOException("Failed to create a document root.");
+        }
+        writeSmallFile(new File(mDocRoot, "small.bin"));
+
+        mServer = new DConnectWebServerNanoHttpd.Builder()
+                .context(getContext())
+                .host("localhost")
+                .port(PORT)
+                .addDocumentRoot(mDocRoot.getAbsolutePath())
+                .build();
+        mServer.start();
+        waitForServer();
+    }
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.stop();
+        }
+        File[] files = mDocRoot.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Range ヘッダーに1つの範囲を指定してファイルを取得する.
+     * <pre>
+     * 【期待する動作】
+     * ・206 が返却されること。
+     * ・Content-Range が指定した範囲であること。
+     * ・指定した範囲のデータが返却されること。
+     * </pre>
+     */
+    @Test
+    public void serveFile_single_range() throws IOException {
+        HttpURLConnection conn = open("/small.bin");
+        conn.setRequestProperty("Range", "bytes=100-199");
+        try {
+            assertThat(conn.getResponseCode(), is(206));
+            assertThat(conn.getHeaderField("Content-Range"), is("bytes 100-199/" + SMALL_FILE_SIZE));
+            byte[] data = readAll(conn.getInputStream());
+            assertThat(data.length, is(100));
+            for (int i = 0; i < data.length; i++) {
+                assertThat(data[i], is(expected(100 + i)));
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Range ヘッダーにファイル全体の範囲を指定してファイルを取得する.
+     * <pre>
+     * 【期待する動作】
+     * ・206 が返却されること。
+     * ・Content-Range がファイル全体の範囲であること。
+     * ・ファイル全体のデータが返却されること。
+     * </pre>
+     */
+    @Test
+    public void serveFile_whole_range() throws IOException {
+        HttpURLConnection conn = open("/small.bin");
+        conn.setRequestProperty("Range", "bytes=0-");
+        try {
+            assertThat(conn.getResponseCode(), is(206));
+            assertThat(conn.getHeaderField("Content-Range"),
+                    is("bytes 0-" + (SMALL_FILE_SIZE - 1) + "/" + SMALL_FILE_SIZE));
+            byte[] data = readAll(conn.getInputStream());
+            assertThat(data.length, is(SMALL_FILE_SIZE));
+            assertThat(data[SMALL_FILE_SIZE - 1], is(expected(SMALL_FILE_SIZE - 1)));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Range ヘッダーに末尾からのバイト数を指定してファイルを取得する.
+     * <pre>
+     * 【期待する動作】
+     * ・206 が返却されること。
+     * ・ファイルの末尾のデータが返却されること。
+     * </pre>
+     */
+    @Test
+    public void serveFile_suffix_range() throws IOException {
+        HttpURLConnection conn = open("/small.bin");
+        conn.setRequestProperty("Range", "bytes=-10");
+        try {
+            assertThat(conn.getResponseCode(), is(206));
+            assertThat(conn.getHeaderField("Content-Range"),
+                    is("bytes " + (SMALL_FILE_SIZE - 10) + "-" + (SMALL_FILE_SIZE - 1) + "/" + SMALL_FILE_SIZE));
+            byte[] data = readAll(conn.getInputStream());
+            assertThat(data.length, is(10));
+            assertThat(data[9], is(expected(SMALL_FILE_SIZE - 1)));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Range ヘッダーに複数の範囲を指定してファイルを取得する.
+     * <pre>
+     * 【期待する動作】
+     * ・206 が返却されること。
+     * ・Content-Type が multipart/byteranges であること。
+     * ・Content-Length とボディのサイズが一致すること。
+     * </pre>
+     */
+    @Test
+    public void serveFile_multiple_ranges() throws IOException {
+        HttpURLConnection conn = open("/small.bin");
+        conn.setRequestProperty("Range", "bytes=0-9, 20-29");
+        try {
+            assertThat(conn.getResponseCode(), is(206));
+            assertThat(conn.getContentType(), startsWith("multipart/byteranges; boundary="));
+            String body = new String(readAll(conn.getInputStream()), "ISO-8859-1");
+            assertThat(body.length(), is(conn.getContentLength()));
+            assertThat(body.contains("Content-Range: bytes 0-9/" + SMALL_FILE_SIZE), is(true));
+            assertThat(body.contains("Content-Range: bytes 20-29/" + SMALL_FILE_SIZE), is(true));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * ファイルのサイズを超える範囲を指定してファイルを取得する.
+     * <pre>
+     * 【期待する動作】
+     * ・416 が返却されること。
+     * </pre>
+     */
+    @Test
+    public void serveFile_range_not_satisfiable() throws IOException {
+        HttpURLConnection conn = open("/small.bin");
+        conn.setRequestProperty("Range", "bytes=" + SMALL_FILE_SIZE + "-");
+        try {
+            assertThat(conn.getResponseCode(), is(416));
+            assertThat(conn.getHeaderField("Content-Range"), is("bytes */" + SMALL_FILE_SIZE));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * 数百MBのファイルを取得して、スループットを計測する.
+     * <pre>
+     * 【期待する動作】
+     * ・ファイル全体のデータが返却されること。
+     * </pre>
+     */
+    @Test
+    public void serveFile_throughput() throws IOException {
+        File file = new File(mDocRoot, "large.bin");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(LARGE_FILE_SIZE);
+        } finally {
+            raf.close();
+        }
+
+        HttpURLConnection conn = open("/large.bin");
+        try {
+            long start = System.nanoTime();
+            assertThat(conn.getResponseCode(), is(200));
+            InputStream in = conn.getInputStream();
+            byte[] buf = new byte[64 * 1024];
+            long total = 0;
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                total += len;
+            }
+            in.close();
+            long elapsed = System.nanoTime() - start;
+
+            assertThat(total, is(LARGE_FILE_SIZE));
+            double mbps = (total / (1024.0 * 1024.0)) / (elapsed / 1000000000.0);
+            Log.i(TAG, String.format("Served %d bytes in %d ms (%.1f MB/s)", total, elapsed / 1000000, mbps));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(final String path) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(HTTP_LOCALHOST_PORT + path).openConnection();
+        conn.setConnectTimeout(10 * 1000);
+        conn.setReadTimeout(30 * 1000);
+        assertThat(conn, is(notNullValue()));
+        return conn;
+    }
+
+    private void waitForServer() throws InterruptedException {
+        // Webサーバは別スレッドで起動するので、接続できるようになるまで待つ
+        for (int i = 0; i < 50; i++) {
+            try {
+                new Socket("localhost", PORT).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static byte expected(final int position) {
+        return (byte) (position % 251);
+    }
+
+    private static void writeSmallFile(final File file) throws IOException {
+        byte[] data = new byte[SMALL_FILE_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = expected(i);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int len;
+        while ((len = in.read(buf)) != -1) {
+            out.write(buf, 0, len);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
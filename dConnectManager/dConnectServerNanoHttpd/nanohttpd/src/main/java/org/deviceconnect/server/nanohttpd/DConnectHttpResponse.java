@@ -6,6 +6,7 @@
  */
 package org.deviceconnect.server.nanohttpd;
 
+import org.deviceconnect.server.http.FileChannelBody;
 import org.deviceconnect.server.http.HttpResponse;
 
 import java.io.ByteArrayInputStream;
@@ -25,7 +26,9 @@ class DConnectHttpResponse implements HttpResponse {
     private InputStream mInputStream;
     private StatusCode mStatusCode = StatusCode.OK;
     private int mContentLength;
+    private boolean mContentLengthSpecified;
     private byte[] mBody;
+    private FileChannelBody mFileBody;
 
     DConnectHttpResponse() {
     }
@@ -54,6 +57,27 @@ class DConnectHttpResponse implements HttpResponse {
         return mInputStream;
     }
 
+    /**
+     * ファイルのチャンネルから直接送信するボディを返します.
+     *
+     * @return ボディ、設定されていない場合はnull
+     */
+    FileChannelBody getFileBody() {
+        return mFileBody;
+    }
+
+    /**
+     * サイズの分からないストリームがボディに設定されているか確認します.
+     * <p>
+     * {@link #setBody(InputStream)} でストリームを設定して、{@link #setContentLength(int)} でサイズを
+     * 指定していない場合は true を返却します。
+     * </p>
+     * @return サイズが分からない場合はtrue、それ以外はfalse
+     */
+    boolean isUnknownLength() {
+        return mInputStream != null && mBody == null && !mContentLengthSpecified;
+    }
+
     @Override
     public int getContentLength() {
         return mContentLength;
@@ -72,6 +96,7 @@ class DConnectHttpResponse implements HttpResponse {
     @Override
     public void setContentLength(int contentLength) {
         mContentLength = contentLength;
+        mContentLengthSpecified = true;
     }
 
     @Override
@@ -86,6 +111,12 @@ class DConnectHttpResponse implements HttpResponse {
         mInputStream = in;
     }
 
+    @Override
+    public void setBody(final FileChannelBody body) {
+        mFileBody = body;
+        mContentType = body.getContentType();
+    }
+
     @Override
     public void addHeader(final String name, final String value) {
         mHeaders.put(name, value);
@@ -18,10 +18,9 @@ import org.deviceconnect.server.nanohttpd.accesslog.AccessLog;
 import org.deviceconnect.server.nanohttpd.accesslog.AccessLogProvider;
 import org.deviceconnect.server.nanohttpd.logger.AndroidHandler;
 import org.deviceconnect.server.nanohttpd.security.Firewall;
+import org.deviceconnect.server.util.KeepAliveScheduler;
 import org.deviceconnect.server.websocket.DConnectWebSocket;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
@@ -29,7 +28,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Field;
@@ -44,9 +42,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.StringTokenizer;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -85,6 +83,11 @@ public class DConnectServerNanoHttpd extends DConnectServer {
      */
     private final Logger mLogger = Logger.getLogger("dconnect.server");
 
+    /**
+     * multipart のアップロードのスループットの統計.
+     */
+    private final UploadStatistics mUploadStatistics = new UploadStatistics();
+
     /**
      * ヘッダーの最大サイズを定義.
      */
@@ -100,6 +103,16 @@ public class DConnectServerNanoHttpd extends DConnectServer {
      */
     private static final int MEMORY_STORE_LIMIT = 1024;
 
+    /**
+     * multipart のファイル以外のパートをメモリに保持する最大サイズ.
+     */
+    private static final int MAX_MEMORY_PART_SIZE = 64 * 1024;
+
+    /**
+     * 一時ファイルを閉じてから削除するまでの時間(ミリ秒).
+     */
+    private static final long TEMP_FILE_DELETE_DELAY = 30 * 1000;
+
     /**
      * Content-Dispositionヘッダーを見つける正規表現を定義.
      */
@@ -135,11 +148,6 @@ public class DConnectServerNanoHttpd extends DConnectServer {
      */
     private static final String VERSION = "2.0.0";
 
-    /**
-     * WebSocketのKeepAlive処理のインターバル(ms).
-     */
-    private static final int WEBSOCKET_KEEP_ALIVE_INTERVAL = 3000;
-
     /**
      * application/jsonのContent-Typeを定義.
      */
@@ -166,21 +174,9 @@ public class DConnectServerNanoHttpd extends DConnectServer {
     private SSLServerSocketFactory mServerSocketFactory;
 
     /**
-     * Keep-Aliveの状態定数.
-     *
-     * @author NTT DOCOMO, INC.
+     * WebSocketの生存確認を行うスケジューラ.
      */
-    private enum KeepAliveState {
-        /**
-         * クライアントの返事待ち状態.
-         */
-        WAITING_PONG,
-
-        /**
-         * pong受信完了状態.
-         */
-        GOT_PONG,
-    }
+    private KeepAliveScheduler mKeepAliveScheduler = KeepAliveScheduler.getDefault();
 
     /**
      * 設定値を元にサーバーを構築します.
@@ -316,6 +312,31 @@ public class DConnectServerNanoHttpd extends DConnectServer {
         return mServer != null && mServer.isAlive();
     }
 
+    /**
+     * multipart のアップロードのスループットの統計を取得します.
+     *
+     * @return アップロードの統計
+     */
+    public UploadStatistics getUploadStatistics() {
+        return mUploadStatistics;
+    }
+
+    /**
+     * WebSocketの生存確認を行うスケジューラを設定します.
+     * <p>
+     * 設定しない場合には、プロセス内で共有するスケジューラを使用します。
+     * 設定したスケジューラは、設定後に接続された WebSocket から使用されます。
+     * </p>
+     *
+     * @param scheduler スケジューラ
+     */
+    public void setKeepAliveScheduler(final KeepAliveScheduler scheduler) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler is null.");
+        }
+        mKeepAliveScheduler = scheduler;
+    }
+
     @Override
     public String getVersion() {
         return VERSION;
@@ -607,7 +628,7 @@ public class DConnectServerNanoHttpd extends DConnectServer {
          */
         private void saveAccessLog(DConnectHttpResponse response, AccessLog accessLog) {
             String contentType = response.getContentType();
-            if (contentType != null && contentType.startsWith("application/json")) {
+            if (contentType != null && contentType.startsWith("application/json") && response.getBody() != null) {
                 accessLog.setResponseBody(new String(response.getBody()));
             }
             accessLog.setResponseContentType(contentType);
@@ -705,6 +726,22 @@ public class DConnectServerNanoHttpd extends DConnectServer {
             }
 
             Map<String, String> files = new HashMap<>();
+            if (Method.POST.equals(session.getMethod()) || Method.PUT.equals(session.getMethod())) {
+                ContentType contentType = new ContentType(headers.get("content-type"));
+                if (contentType.isMultipart()) {
+                    // multipart はボディを溜めずに受信しながら解析する
+                    String boundary = contentType.getBoundary();
+                    if (boundary == null) {
+                        skipBody(session.getInputStream(), getBodySize(session));
+                        throw new ResponseException(BAD_REQUEST,
+                                "BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html");
+                    }
+                    decodeMultipartFormData(session, contentType, getBodySize(session), request.getQueryParameters(), files);
+                    request.setFiles(files);
+                    return;
+                }
+            }
+
             RandomAccessFile randomAccessFile = null;
             try {
                 long size = getBodySize(session);
@@ -744,24 +781,15 @@ public class DConnectServerNanoHttpd extends DConnectServer {
 
                 if (Method.POST.equals(session.getMethod()) || Method.PUT.equals(session.getMethod())) {
                     ContentType contentType = new ContentType(session.getHeaders().get("content-type"));
-                    if (contentType.isMultipart()) {
-                        String boundary = contentType.getBoundary();
-                        if (boundary == null) {
-                            throw new ResponseException(BAD_REQUEST,
-                                    "BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html");
-                        }
-                        decodeMultipartFormData(session, contentType, tmpBuf, request.getQueryParameters(), files);
-                    } else {
-                        byte[] postBytes = new byte[tmpBuf.remaining()];
-                        tmpBuf.get(postBytes);
-                        // MEMO: contentTypeの文字コードを設定するとデフォルトでASCIIになり文字化けを起こす
-//                      String postLine = new String(postBytes, contentType.getEncoding()).trim();
-                        String postLine = new String(postBytes, mConfig.getCharset()).trim();
-                        if ("application/x-www-form-urlencoded".equalsIgnoreCase(contentType.getContentType())) {
-                            decodeParms(postLine, request.getQueryParameters());
-                        } else if (postLine.length() != 0) {
-                            files.put("postData", postLine);
-                        }
+                    byte[] postBytes = new byte[tmpBuf.remaining()];
+                    tmpBuf.get(postBytes);
+                    // MEMO: contentTypeの文字コードを設定するとデフォルトでASCIIになり文字化けを起こす
+//                  String postLine = new String(postBytes, contentType.getEncoding()).trim();
+                    String postLine = new String(postBytes, mConfig.getCharset()).trim();
+                    if ("application/x-www-form-urlencoded".equalsIgnoreCase(contentType.getContentType())) {
+                        decodeParms(postLine, request.getQueryParameters());
+                    } else if (postLine.length() != 0) {
+                        files.put("postData", postLine);
                     }
                 }
 
@@ -777,6 +805,24 @@ public class DConnectServerNanoHttpd extends DConnectServer {
             }
         }
 
+        /**
+         * 解析しないbodyを読み捨てる.
+         *
+         * @param inputStream bodyを読み込むストリーム
+         * @param size bodyのサイズ
+         * @throws IOException bodyの読み込みに失敗した場合
+         */
+        private void skipBody(final InputStream inputStream, long size) throws IOException {
+            byte[] buf = new byte[REQUEST_BUFFER_LEN];
+            while (size > 0) {
+                int len = inputStream.read(buf, 0, (int) Math.min(size, REQUEST_BUFFER_LEN));
+                if (len < 0) {
+                    break;
+                }
+                size -= len;
+            }
+        }
+
         /**
          * Content-Lengthのサイズを取得する.
          * <p>
@@ -836,65 +882,6 @@ public class DConnectServerNanoHttpd extends DConnectServer {
             }
         }
 
-        /**
-         * Find the byte positions where multipart boundaries start. This reads
-         * a large block at a time and uses a temporary buffer to optimize
-         * (memory mapped) file access.
-         */
-        private int[] getBoundaryPositions(final TempBuffer b, final byte[] boundary) throws IOException {
-            int[] res = new int[0];
-            if (b.remaining() < boundary.length) {
-                return res;
-            }
-
-            int search_window_pos = 0;
-            byte[] search_window = new byte[4 * 1024 + boundary.length];
-
-            int first_fill = (b.remaining() < search_window.length) ? b.remaining() : search_window.length;
-            b.get(search_window, 0, first_fill);
-            int new_bytes = first_fill - boundary.length;
-
-            do {
-                // Search the search_window
-                for (int j = 0; j < new_bytes; j++) {
-                    for (int i = 0; i < boundary.length; i++) {
-                        if (search_window[j + i] != boundary[i])
-                            break;
-                        if (i == boundary.length - 1) {
-                            // Match found, add it to results
-                            int[] new_res = new int[res.length + 1];
-                            System.arraycopy(res, 0, new_res, 0, res.length);
-                            new_res[res.length] = search_window_pos + j;
-                            res = new_res;
-                        }
-                    }
-                }
-                search_window_pos += new_bytes;
-
-                // Copy the end of the buffer to the start
-                System.arraycopy(search_window, search_window.length - boundary.length, search_window, 0, boundary.length);
-
-                // Refill search_window
-                new_bytes = search_window.length - boundary.length;
-                new_bytes = (b.remaining() < new_bytes) ? b.remaining() : new_bytes;
-                b.get(search_window, boundary.length, new_bytes);
-            } while (new_bytes > 0);
-            return res;
-        }
-
-        /**
-         * 改行コードまでオフセットを移動する.
-         * @param partHeaderBuff データ
-         * @param index オフセット
-         * @return 移動したインデックス
-         */
-        private int scipOverNewLine(final byte[] partHeaderBuff, int index) {
-            while (partHeaderBuff[index] != '\n') {
-                index++;
-            }
-            return ++index;
-        }
-
         /**
          * Decodes parameters in percent-encoded URI-format ( e.g.
          * "name=Jack%20Daniels&pass=Single%20Malt" ) and adds them to given
@@ -920,147 +907,176 @@ public class DConnectServerNanoHttpd extends DConnectServer {
 
         /**
          * multipartをデコードする.
+         * <p>
+         * ボディを受信しながら1回の走査で解析し、ファイルのパートは一時ファイルに直接書き込みます。
+         * </p>
          * @param session Httpリクエストのセッションデータ
          * @param contentType コンテントタイプ
-         * @param fbuf bodyデータ
+         * @param size bodyのサイズ
          * @param parms queryデータ
          * @param files multipartのファイルパスを格納するマップ
+         * @throws IOException bodyの受信に失敗した場合
          * @throws ResponseException レスポンスの作成に失敗した場合
          */
-        private void decodeMultipartFormData(final IHTTPSession session, final ContentType contentType, final TempBuffer fbuf,
-                                             final Map<String, String> parms, final Map<String, String> files) throws ResponseException {
-            int pcount = 0;
+        private void decodeMultipartFormData(final IHTTPSession session, final ContentType contentType, final long size,
+                                             final Map<String, String> parms, final Map<String, String> files) throws IOException, ResponseException {
+            long startTime = System.nanoTime();
+            MultipartStreamParser parser = new MultipartStreamParser(session.getInputStream(), size,
+                    contentType.getBoundary(), Charset.forName(contentType.getEncoding()), MAX_HEADER_SIZE);
             try {
-                int[] boundaryIdxs = getBoundaryPositions(fbuf, contentType.getBoundary().getBytes());
-                if (boundaryIdxs.length < 2) {
-                    throw new ResponseException(BAD_REQUEST,
-                            "BAD REQUEST: Content type is multipart/form-data but contains less than two boundary strings.");
-                }
+                parser.parse(new MultipartFormHandler(session, parms, files));
+            } catch (ResponseException e) {
+                parser.skipRemaining();
+                throw e;
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                parser.skipRemaining();
+                throw new ResponseException(Response.Status.INTERNAL_ERROR, "INTERNAL ERROR: Exception. e=" + e.toString());
+            }
 
-                byte[] partHeaderBuff = new byte[MAX_HEADER_SIZE];
-                for (int boundaryIdx = 0; boundaryIdx < boundaryIdxs.length - 1; boundaryIdx++) {
-                    fbuf.position(boundaryIdxs[boundaryIdx]);
-                    int len = (fbuf.remaining() < MAX_HEADER_SIZE) ? fbuf.remaining() : MAX_HEADER_SIZE;
-                    fbuf.get(partHeaderBuff, 0, len);
-                    BufferedReader in =
-                            new BufferedReader(new InputStreamReader(
-                                    new ByteArrayInputStream(partHeaderBuff, 0, len),
-                                        Charset.forName(contentType.getEncoding())), len);
-
-                    int headerLines = 0;
-                    // First line is boundary string
-                    String mpline = in.readLine();
-                    headerLines++;
-                    if (mpline == null || !mpline.contains(contentType.getBoundary())) {
-                        throw new ResponseException(BAD_REQUEST,
-                                "BAD REQUEST: Content type is multipart/form-data but chunk does not start with boundary.");
-                    }
+            mUploadStatistics.record(parser.getBytesRead(), System.nanoTime() - startTime);
+        }
+
+        /**
+         * multipart の各パートを、クエリまたは一時ファイルに格納するハンドラ.
+         */
+        private class MultipartFormHandler implements MultipartStreamParser.PartHandler {
+            /**
+             * Httpリクエストのセッションデータ.
+             */
+            private final IHTTPSession mSession;
+
+            /**
+             * queryデータ.
+             */
+            private final Map<String, String> mParms;
+
+            /**
+             * multipartのファイルパスを格納するマップ.
+             */
+            private final Map<String, String> mFiles;
+
+            /**
+             * ファイルのパートの数.
+             */
+            private int mPcount;
 
-                    String partName = null, fileName = null, partContentType = null;
-                    // Parse the reset of the header lines
-                    mpline = in.readLine();
-                    headerLines++;
-                    while (mpline != null && mpline.trim().length() > 0) {
-                        Matcher matcher = CONTENT_DISPOSITION_PATTERN.matcher(mpline);
-                        if (matcher.matches()) {
-                            String attributeString = matcher.group(2);
-                            matcher = CONTENT_DISPOSITION_ATTRIBUTE_PATTERN.matcher(attributeString);
-                            while (matcher.find()) {
-                                String key = matcher.group(1);
-                                if ("name".equalsIgnoreCase(key)) {
-                                    partName = matcher.group(2);
-                                } else if ("filename".equalsIgnoreCase(key)) {
-                                    fileName = matcher.group(2);
-                                    // add these two line to support multiple
-                                    // files uploaded using the same field Id
-                                    if (!fileName.isEmpty()) {
-                                        if (pcount > 0)
-                                            partName = partName + String.valueOf(pcount++);
-                                        else
-                                            pcount++;
-                                    }
+            /**
+             * 受信中のパートの名前.
+             */
+            private String mPartName;
+
+            /**
+             * 受信中のパートのデータを書き込んでいる一時ファイル.
+             */
+            private TempFile mTempFile;
+
+            MultipartFormHandler(final IHTTPSession session, final Map<String, String> parms, final Map<String, String> files) {
+                mSession = session;
+                mParms = parms;
+                mFiles = files;
+            }
+
+            @Override
+            public OutputStream onPartBegin(final List<String> headers) throws IOException {
+                String partName = null, fileName = null, partContentType = null;
+                for (String mpline : headers) {
+                    Matcher matcher = CONTENT_DISPOSITION_PATTERN.matcher(mpline);
+                    if (matcher.matches()) {
+                        String attributeString = matcher.group(2);
+                        matcher = CONTENT_DISPOSITION_ATTRIBUTE_PATTERN.matcher(attributeString);
+                        while (matcher.find()) {
+                            String key = matcher.group(1);
+                            if ("name".equalsIgnoreCase(key)) {
+                                partName = matcher.group(2);
+                            } else if ("filename".equalsIgnoreCase(key)) {
+                                fileName = matcher.group(2);
+                                // add these two line to support multiple
+                                // files uploaded using the same field Id
+                                if (!fileName.isEmpty()) {
+                                    if (mPcount > 0)
+                                        partName = partName + String.valueOf(mPcount++);
+                                    else
+                                        mPcount++;
                                 }
                             }
                         }
-                        matcher = CONTENT_TYPE_PATTERN.matcher(mpline);
-                        if (matcher.matches()) {
-                            partContentType = matcher.group(2).trim();
-                        }
-                        mpline = in.readLine();
-                        headerLines++;
-                    }
-                    int partHeaderLength = 0;
-                    while (headerLines-- > 0) {
-                        partHeaderLength = scipOverNewLine(partHeaderBuff, partHeaderLength);
                     }
-                    // Read the part data
-                    if (partHeaderLength >= len - 4) {
-                        throw new ResponseException(Response.Status.INTERNAL_ERROR, "Multipart header size exceeds MAX_HEADER_SIZE.");
+                    matcher = CONTENT_TYPE_PATTERN.matcher(mpline);
+                    if (matcher.matches()) {
+                        partContentType = matcher.group(2).trim();
                     }
-                    int partDataStart = boundaryIdxs[boundaryIdx] + partHeaderLength;
-                    int partDataEnd = boundaryIdxs[boundaryIdx + 1] - 4;
-
-                    fbuf.position(partDataStart);
-                    if (partContentType == null) {
-                        // Read the part into a string
-                        byte[] data_bytes = new byte[partDataEnd - partDataStart];
-                        fbuf.get(data_bytes);
+                }
+
+                mPartName = partName;
+                if (partContentType == null) {
+                    // Read the part into a string
+                    // MAX_MEMORY_PART_SIZE を超える場合は一時ファイルに書き込む
+                    mTempFile = null;
+                    return new SpillableOutputStream(MAX_MEMORY_PART_SIZE, () -> createTempFile(null));
+                } else {
+                    // Read it into a file
+                    mTempFile = createTempFile(fileName);
+                    return new FileOutputStream(mTempFile.getName());
+                }
+            }
+
+            @Override
+            public void onPartEnd(final List<String> headers, final OutputStream out, final long length) throws IOException {
+                out.close();
+                if (mTempFile == null) {
+                    SpillableOutputStream field = (SpillableOutputStream) out;
+                    if (field.isInMemory()) {
                         // MEMO: デフォルトの文字コードでマルチパートの文字列は取得する
-//                        parms.put(partName, new String(data_bytes, contentType.getEncoding()));
-                        parms.put(partName, new String(data_bytes, mConfig.getCharset()));
+                        mParms.put(mPartName, new String(field.toByteArray(), mConfig.getCharset()));
                     } else {
-                        // Read it into a file
-                        String path = saveTmpFile(session, fbuf, partDataStart, partDataEnd - partDataStart, fileName);
-                        if (!files.containsKey(partName)) {
-                            files.put(partName, path);
-                        } else {
-                            int count = 2;
-                            while (files.containsKey(partName + count)) {
-                                count++;
-                            }
-                            files.put(partName + count, path);
-                        }
-                        // MEMO: パラメータ名はクエリに追加しない
-//                        parms.put(partName, fileName);
+                        // メモリに保持しないサイズのパートは、ファイルのパートと同じように一時ファイルのパスを渡す
+                        putFile(field.getTempFile().getName());
                     }
+                } else {
+                    putFile(length > 0 ? mTempFile.getName() : "");
                 }
-            } catch (ResponseException re) {
-                throw re;
-            } catch (Exception e) {
-                throw new ResponseException(Response.Status.INTERNAL_ERROR, "INTERNAL ERROR: Exception. e=" + e.toString());
             }
-        }
 
-        /**
-         * Retrieves the content of a sent file and saves it to a temporary
-         * file. The full path to the saved file is returned.
-         */
-        private String saveTmpFile(final IHTTPSession session, final TempBuffer b, final int offset, final int len, final String filename_hint) {
-            String path = "";
-            if (len > 0) {
-                FileOutputStream fileOutputStream = null;
-                try {
-                    TempFileManager mgr = getTempFileManager(session);
-                    if (mgr == null) {
-                        throw new RuntimeException("Cannot get a TempFileManager.");
-                    }
-                    TempFile tempFile = mgr.createTempFile(filename_hint);
-                    fileOutputStream = new FileOutputStream(tempFile.getName());
-                    b.write(fileOutputStream, offset, len);
-                    path = tempFile.getName();
-                } catch (Exception e) { // Catch exception if any
-                    throw new Error(e); // we won't recover, so throw an error
-                } finally {
-                    if (fileOutputStream != null) {
-                        try {
-                            fileOutputStream.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
+            /**
+             * 一時ファイルのパスを、パートの名前で格納します.
+             * <p>
+             * 同じ名前のパートが既にある場合には、名前の末尾に番号を付けます。
+             * </p>
+             * @param path 一時ファイルのパス
+             */
+            private void putFile(final String path) {
+                if (!mFiles.containsKey(mPartName)) {
+                    mFiles.put(mPartName, path);
+                } else {
+                    int count = 2;
+                    while (mFiles.containsKey(mPartName + count)) {
+                        count++;
                     }
+                    mFiles.put(mPartName + count, path);
+                }
+                // MEMO: パラメータ名はクエリに追加しない
+            }
+
+            /**
+             * パートのデータを書き込む一時ファイルを作成します.
+             *
+             * @param fileName ファイル名
+             * @return 一時ファイル
+             * @throws IOException 一時ファイルの作成に失敗した場合に発生
+             */
+            private TempFile createTempFile(final String fileName) throws IOException {
+                TempFileManager mgr = getTempFileManager(mSession);
+                if (mgr == null) {
+                    throw new IOException("Cannot get a TempFileManager.");
+                }
+                try {
+                    return mgr.createTempFile(fileName);
+                } catch (Exception e) {
+                    throw new IOException("Cannot create a temporary file.", e);
                 }
             }
-            return path;
         }
 
         /**
@@ -1096,7 +1112,15 @@ public class DConnectServerNanoHttpd extends DConnectServer {
          */
         private Response newFixedLengthResponse(final DConnectHttpResponse res) {
             HttpResponse.StatusCode statusCode = res.getStatusCode();
-            Response nanoRes = newFixedLengthResponse(getStatus(statusCode), res.getContentType(), res.getInputStream(), res.getContentLength());
+            Response nanoRes;
+            if (res.getFileBody() != null) {
+                nanoRes = new FileChannelResponse(getStatus(statusCode), res.getFileBody());
+            } else if (res.isUnknownLength()) {
+                // サイズが分からないので、chunked で送信する
+                nanoRes = newChunkedResponse(getStatus(statusCode), res.getContentType(), res.getInputStream());
+            } else {
+                nanoRes = newFixedLengthResponse(getStatus(statusCode), res.getContentType(), res.getInputStream(), res.getContentLength());
+            }
             Map<String, String> headers = res.getHeaders();
             for (Entry<String, String> head : headers.entrySet()) {
                 nanoRes.addHeader(head.getKey(), head.getValue());
@@ -1130,14 +1154,14 @@ public class DConnectServerNanoHttpd extends DConnectServer {
     private class NanoWebSocket extends NanoWSD.WebSocket implements DConnectWebSocket {
 
         /**
-         * KeepAlive実行用のタイマー.
+         * Keep-Aliveの登録情報.
          */
-        private Timer mKeepAliveTimer;
+        private final KeepAliveScheduler.Registration mKeepAlive;
 
         /**
-         * Keep-Aliveのタスク.
+         * pongの返事待ち状態フラグ.
          */
-        private final KeepAliveTask mKeepAliveTask;
+        private final AtomicBoolean mWaitingPong = new AtomicBoolean();
 
         /**
          * WebSocketを識別するID.
@@ -1151,10 +1175,8 @@ public class DConnectServerNanoHttpd extends DConnectServer {
          */
         NanoWebSocket(final IHTTPSession handshakeRequest) {
             super(handshakeRequest);
-            mKeepAliveTask = new KeepAliveTask();
-            mKeepAliveTimer = new Timer();
-            mKeepAliveTimer.scheduleAtFixedRate(mKeepAliveTask,
-                    WEBSOCKET_KEEP_ALIVE_INTERVAL, WEBSOCKET_KEEP_ALIVE_INTERVAL);
+            mKeepAlive = mKeepAliveScheduler.schedule(new KeepAliveTarget(),
+                    mConfig.getWebSocketKeepAliveInterval(), TimeUnit.MILLISECONDS);
 
             mSockets.put(getId(), this);
             if (mListener != null) {
@@ -1214,6 +1236,21 @@ public class DConnectServerNanoHttpd extends DConnectServer {
             }
         }
 
+        @Override
+        public void sendTextMessage(final byte[] utf8) {
+            try {
+                if (isOpen()) {
+                    sendFrame(new NanoWSD.WebSocketFrame(NanoWSD.WebSocketFrame.OpCode.Text, true, utf8));
+                }
+            } catch (IOException e) {
+                mLogger.warning("Exception in the NanoWebSocket#sendTextMessage() method. " + e.toString());
+                if (mListener != null) {
+                    mListener.onError(DConnectServerError.SEND_EVENT_FAILED);
+                    mListener.onWebSocketDisconnected(this);
+                }
+            }
+        }
+
         @Override
         public void disconnect() {
             try {
@@ -1231,11 +1268,7 @@ public class DConnectServerNanoHttpd extends DConnectServer {
 
         @Override
         protected void onPong(final NanoWSD.WebSocketFrame pongFrame) {
-            synchronized (mKeepAliveTask) {
-                if (mKeepAliveTask.getState() == KeepAliveState.WAITING_PONG) {
-                    mKeepAliveTask.setState(KeepAliveState.GOT_PONG);
-                }
-            }
+            mWaitingPong.set(false);
         }
 
         @Override
@@ -1259,7 +1292,7 @@ public class DConnectServerNanoHttpd extends DConnectServer {
             if (mListener != null) {
                 mListener.onWebSocketDisconnected(this);
             }
-            mKeepAliveTimer.cancel();
+            mKeepAlive.cancel();
         }
 
         @Override
@@ -1273,56 +1306,33 @@ public class DConnectServerNanoHttpd extends DConnectServer {
         }
 
         /**
-         * Keep-Alive用タイマータスク.
+         * Keep-Aliveの対象.
+         * <p>
+         * 前回送信したpingに対するpongを受信していない場合には、クライアントが切断されたと判断します。
+         * </p>
          *
          * @author NTT DOCOMO, INC.
          */
-        private class KeepAliveTask extends TimerTask {
-
-            /**
-             * 処理状態.
-             */
-            private KeepAliveState mState;
-
-            /**
-             * コンストラクタ.
-             */
-            KeepAliveTask() {
-                setState(KeepAliveState.GOT_PONG);
-            }
-
-            /**
-             * 状態を変更する.
-             *
-             * @param state 状態
-             */
-            void setState(final KeepAliveState state) {
-                mState = state;
-            }
-
-            /**
-             * 状態を取得する.
-             *
-             * @return 状態
-             */
-            KeepAliveState getState() {
-                return mState;
+        private class KeepAliveTarget implements KeepAliveScheduler.Target {
+            @Override
+            public boolean onKeepAlive() {
+                if (!mWaitingPong.compareAndSet(false, true)) {
+                    return false;
+                }
+                try {
+                    ping("DConnectServer".getBytes());
+                    return true;
+                } catch (IOException e) {
+                    return false;
+                }
             }
 
             @Override
-            public void run() {
+            public void onEvicted() {
                 try {
-                    synchronized (this) {
-                        if (mState == KeepAliveState.GOT_PONG) {
-                            setState(KeepAliveState.WAITING_PONG);
-                            ping("DConnectServer".getBytes());
-                        } else {
-                            close(NanoWSD.WebSocketFrame.CloseCode.GoingAway, "Client is dead.", false);
-                        }
-                    }
+                    close(NanoWSD.WebSocketFrame.CloseCode.GoingAway, "Client is dead.", false);
                 } catch (IOException e) {
-                    // 例外が発生したらタスクを終了し、タイムアウトに任せる
-                    cancel();
+                    // ignore.
                 }
             }
         }
@@ -1435,15 +1445,12 @@ public class DConnectServerNanoHttpd extends DConnectServer {
                     mOutputStream.close();
                 }
 
-                Timer t = new Timer();
-                t.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        if (!mFile.delete()) {
-                            mLogger.warning("Failed to delete file." + mFile.getName());
-                        }
+                // 一時ファイルごとにタイマーのスレッドを作成しないように、生存確認のタイマーを共有する
+                mKeepAliveScheduler.getTimer().newTimeout(() -> {
+                    if (!mFile.delete()) {
+                        mLogger.warning("Failed to delete file." + mFile.getName());
                     }
-                }, 30 * 1000);
+                }, TEMP_FILE_DELETE_DELAY, TimeUnit.MILLISECONDS);
             }
 
             @Override
@@ -8,17 +8,22 @@ package org.deviceconnect.server.nanohttpd;
 
 import android.content.Context;
 import android.util.Log;
+import android.util.LruCache;
 
 import org.deviceconnect.server.DConnectServerConfig;
+import org.deviceconnect.server.http.ByteRange;
+import org.deviceconnect.server.http.FileChannelBody;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -46,6 +51,19 @@ public class DConnectWebServerNanoHttpd {
     private static final boolean DEBUG = BuildConfig.DEBUG;
     private static final String TAG = "NanoWeb";
 
+    /**
+     * Assets のキャッシュの最大サイズのデフォルト値(バイト).
+     */
+    private static final int DEFAULT_ASSET_CACHE_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Assets のキャッシュに格納する1ファイルの最大サイズ(バイト).
+     * <p>
+     * これより大きいファイルはキャッシュせずに、毎回 Assets から読み込みます。
+     * </p>
+     */
+    private static final int MAX_CACHED_ASSET_SIZE = 512 * 1024;
+
     /**
      * Default Index file names.
      */
@@ -175,6 +193,14 @@ public class DConnectWebServerNanoHttpd {
          */
         private Context mContext;
 
+        /**
+         * Assets から読み込んだファイルのキャッシュ.
+         * <p>
+         * キャッシュしない設定の場合はnull.
+         * </p>
+         */
+        private final LruCache<String, byte[]> mAssetCache;
+
         /**
          * コンストラクタ.
          *
@@ -186,6 +212,16 @@ public class DConnectWebServerNanoHttpd {
             mCors = config.mCors;
             mRootDirs = new ArrayList<>(config.mDocRootList);
             mVersion = config.mVersion;
+            if (config.mAssetCacheSize > 0) {
+                mAssetCache = new LruCache<String, byte[]>(config.mAssetCacheSize) {
+                    @Override
+                    protected int sizeOf(final String key, final byte[] value) {
+                        return value.length;
+                    }
+                };
+            } else {
+                mAssetCache = null;
+            }
 
             try {
                 mimeTypes();
@@ -374,19 +410,35 @@ public class DConnectWebServerNanoHttpd {
                 mime = getMimeTypeFromURI(filePath);
             }
 
+            // If-None-Match対応
+            String etag = createETag(filePath, queryString);
+            if (etag.equals(header.get("if-none-match"))) {
+                retValue = newFixedLengthResponse(Response.Status.NOT_MODIFIED, mime, "");
+                retValue.addHeader("Accept-Ranges", "none");
+                return retValue;
+            }
+
             InputStream in = null;
             try {
-                in = mContext.getAssets().open(filePath);
-
-                // If-None-Match対応
-                String etag = createETag(filePath, queryString);
-                if (etag.equals(header.get("if-none-match"))) {
-                    retValue = newFixedLengthResponse(Response.Status.NOT_MODIFIED, mime, "");
+                byte[] cached = getCachedAsset(filePath);
+                if (cached != null) {
+                    retValue = newFixedLengthResponse(Response.Status.OK, mime, new ByteArrayInputStream(cached), cached.length);
+                    retValue.addHeader("Content-Length", "" + cached.length);
                 } else {
-                    retValue = newFixedLengthResponse(Response.Status.OK, mime, in, in.available());
-                    retValue.addHeader("Content-Length", "" + in.available());
-                    retValue.addHeader("ETag", etag);
+                    in = mContext.getAssets().open(filePath);
+                    int length = in.available();
+                    if (mAssetCache != null && length <= MAX_CACHED_ASSET_SIZE) {
+                        byte[] data = readFully(in, length);
+                        in = null;
+                        mAssetCache.put(filePath, data);
+                        retValue = newFixedLengthResponse(Response.Status.OK, mime, new ByteArrayInputStream(data), data.length);
+                        retValue.addHeader("Content-Length", "" + data.length);
+                    } else {
+                        retValue = newFixedLengthResponse(Response.Status.OK, mime, in, length);
+                        retValue.addHeader("Content-Length", "" + length);
+                    }
                 }
+                retValue.addHeader("ETag", etag);
 
                 // ByteRangeへの対応は必須ではないため、noneを指定して対応しないことを伝える。
                 // 対応が必要な場合はbyteを設定して実装すること。
@@ -408,8 +460,44 @@ public class DConnectWebServerNanoHttpd {
             return retValue;
         }
 
+        /**
+         * キャッシュされている Assets のファイルを取得します.
+         *
+         * @param filePath Assets にあるファイルパス
+         * @return ファイルのデータ、キャッシュされていない場合はnull
+         */
+        private byte[] getCachedAsset(final String filePath) {
+            return mAssetCache != null ? mAssetCache.get(filePath) : null;
+        }
+
+        /**
+         * ストリームから全てのデータを読み込み、ストリームを閉じます.
+         *
+         * @param in ストリーム
+         * @param sizeHint 予想されるデータサイズ
+         * @return 読み込んだデータ
+         * @throws IOException 読み込みに失敗した場合に発生
+         */
+        private byte[] readFully(final InputStream in, final int sizeHint) throws IOException {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(sizeHint, 32));
+                byte[] buf = new byte[8192];
+                int len;
+                while ((len = in.read(buf)) != -1) {
+                    out.write(buf, 0, len);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        }
+
         /**
          * 静的ファイルを読み込みレスポンスに格納します.
+         * <p>
+         * ファイルのチャンネルからソケットに直接送信します。
+         * Range ヘッダーで複数の範囲が指定された場合には multipart/byteranges で返却します。
+         * </p>
          *
          * @param uri リクエストURI
          * @param header リクエストヘッダー
@@ -419,27 +507,14 @@ public class DConnectWebServerNanoHttpd {
          */
         private Response serveFile(final String uri, final String queryString, final Map<String, String> header, final File file, final String mime) {
             Response res;
+            FileInputStream fis = null;
             try {
                 // If-None-Match対応
                 String etag = createETag(file, queryString);
 
-                // Support (simple) skipping:
-                long startFrom = 0;
-                long endAt = -1;
-                String range = header.get("range");
-                if (range != null) {
-                    if (range.startsWith("bytes=")) {
-                        range = range.substring("bytes=".length());
-                        int minus = range.indexOf('-');
-                        try {
-                            if (minus > 0) {
-                                startFrom = Long.parseLong(range.substring(0, minus));
-                                endAt = Long.parseLong(range.substring(minus + 1));
-                            }
-                        } catch (NumberFormatException ignored) {
-                        }
-                    }
-                }
+                fis = new FileInputStream(file);
+                FileChannel channel = fis.getChannel();
+                long fileLen = channel.size();
 
                 // get if-range header. If present, it must match etag or else we
                 // should ignore the range request
@@ -449,74 +524,43 @@ public class DConnectWebServerNanoHttpd {
                 String ifNoneMatch = header.get("if-none-match");
                 boolean headerIfNoneMatchPresentAndMatching = ifNoneMatch != null && ("*".equals(ifNoneMatch) || ifNoneMatch.equals(etag));
 
-                // Change return code and add Content-Range header when skipping is
-                // requested
-                long fileLen = file.length();
-
-                if (headerIfRangeMissingOrMatching && range != null && startFrom >= 0 && startFrom < fileLen) {
-                    // range request that matches current etag
-                    // and the startFrom of the range is satisfiable
-                    if (headerIfNoneMatchPresentAndMatching) {
-                        // range request that matches current etag
-                        // and the startFrom of the range is satisfiable
-                        // would return range from file
-                        // respond with not-modified
-                        res = newFixedLengthResponse(Response.Status.NOT_MODIFIED, mime, "");
-                        res.addHeader("Accept-Ranges", "bytes");
-                        res.addHeader("ETag", etag);
-                    } else {
-                        if (endAt < 0) {
-                            endAt = fileLen - 1;
-                        }
-                        long newLen = endAt - startFrom + 1;
-                        if (newLen < 0) {
-                            newLen = 0;
-                        }
-
-                        FileInputStream fis = new FileInputStream(file);
-                        fis.skip(startFrom);
+                List<ByteRange> ranges = null;
+                if (headerIfRangeMissingOrMatching) {
+                    ranges = ByteRange.parse(header.get("range"), fileLen);
+                }
 
-                        res = newFixedLengthResponse(Response.Status.PARTIAL_CONTENT, mime, fis, newLen);
-                        res.addHeader("Accept-Ranges", "bytes");
-                        res.addHeader("Content-Length", "" + newLen);
-                        res.addHeader("Content-Range", "bytes " + startFrom + "-" + endAt + "/" + fileLen);
-                        res.addHeader("ETag", etag);
-                    }
+                if (ranges != null && ranges.isEmpty()) {
+                    // return the size of the file
+                    // 4xx responses are not trumped by if-none-match
+                    res = newFixedLengthResponse(Response.Status.RANGE_NOT_SATISFIABLE, NanoHTTPD.MIME_PLAINTEXT, "");
+                    res.addHeader("Accept-Ranges", "bytes");
+                    res.addHeader("Content-Range", "bytes */" + fileLen);
+                    res.addHeader("ETag", etag);
+                } else if (headerIfNoneMatchPresentAndMatching) {
+                    // respond with not-modified
+                    res = newFixedLengthResponse(Response.Status.NOT_MODIFIED, mime, "");
+                    res.addHeader("Accept-Ranges", "bytes");
+                    res.addHeader("ETag", etag);
                 } else {
-
-                    if (headerIfRangeMissingOrMatching && range != null && startFrom >= fileLen) {
-                        // return the size of the file
-                        // 4xx responses are not trumped by if-none-match
-                        res = newFixedLengthResponse(Response.Status.RANGE_NOT_SATISFIABLE, NanoHTTPD.MIME_PLAINTEXT, "");
-                        res.addHeader("Accept-Ranges", "bytes");
-                        res.addHeader("Content-Range", "bytes */" + fileLen);
-                        res.addHeader("ETag", etag);
-                    } else if (range == null && headerIfNoneMatchPresentAndMatching) {
-                        // full-file-fetch request
-                        // would return entire file
-                        // respond with not-modified
-                        res = newFixedLengthResponse(Response.Status.NOT_MODIFIED, mime, "");
-                        res.addHeader("Accept-Ranges", "bytes");
-                        res.addHeader("ETag", etag);
-                    } else if (!headerIfRangeMissingOrMatching && headerIfNoneMatchPresentAndMatching) {
-                        // range request that doesn't match current etag
-                        // would return entire (different) file
-                        // respond with not-modified
-                        res = newFixedLengthResponse(Response.Status.NOT_MODIFIED, mime, "");
-                        res.addHeader("Accept-Ranges", "bytes");
-                        res.addHeader("ETag", etag);
-                    } else {
-                        // supply the file
-                        res = newFixedFileResponse(file, mime);
-                        res.addHeader("Content-Length", "" + fileLen);
-                        res.addHeader("ETag", etag);
-                    }
+                    // supply the file
+                    Response.Status status = ranges != null ? Response.Status.PARTIAL_CONTENT : Response.Status.OK;
+                    res = new FileChannelResponse(status, new FileChannelBody(channel, fis, fileLen, mime, ranges));
+                    res.addHeader("ETag", etag);
+                    fis = null;
                 }
             } catch (IOException ioe) {
                 if (DEBUG) {
                     Log.w(TAG, "IOException occurred.", ioe);
                 }
                 res = newForbiddenResponse("Reading file failed.");
+            } finally {
+                if (fis != null) {
+                    try {
+                        fis.close();
+                    } catch (IOException e) {
+                        // ignore.
+                    }
+                }
             }
 
             return res;
@@ -660,21 +704,6 @@ public class DConnectWebServerNanoHttpd {
                     "Error 405, The method specified in the request is not allowed.");
         }
 
-        /**
-         * Accept-Rangesヘッダーを付加したレスポンスを作成します.
-         *
-         * @param file ファイル
-         * @param mime マイムタイプ
-         * @return レスポンス
-         * @throws FileNotFoundException ファイルが存在しない場合
-         */
-        private Response newFixedFileResponse(final File file, final String mime) throws FileNotFoundException {
-            Response res;
-            res = newFixedLengthResponse(Response.Status.OK, mime, new FileInputStream(file), (int) file.length());
-            res.addHeader("Accept-Ranges", "bytes");
-            return res;
-        }
-
         /**
          * 指定されたフォルダのファイルをリスト化したHTMLを返却します.
          *
@@ -815,6 +844,9 @@ public class DConnectWebServerNanoHttpd {
         private boolean canServeUri(final String uri, final String homeDir) {
             if (isAssets(homeDir)) {
                 String filePath = renameUriForAssets(homeDir + uri, homeDir);
+                if (getCachedAsset(filePath) != null) {
+                    return true;
+                }
                 InputStream in = null;
                 try {
                     in = mContext.getAssets().open(filePath);
@@ -899,6 +931,11 @@ public class DConnectWebServerNanoHttpd {
          * SSLサーバーソケットファクトリ.
          */
         private SSLServerSocketFactory mServerSocketFactory;
+
+        /**
+         * Assets のキャッシュの最大サイズ(バイト).
+         */
+        private int mAssetCacheSize = DEFAULT_ASSET_CACHE_SIZE;
     }
 
     /**
@@ -993,6 +1030,23 @@ public class DConnectWebServerNanoHttpd {
             return this;
         }
 
+        /**
+         * Assets から読み込んだファイルをキャッシュする最大サイズを設定します.
+         * <p>
+         * 0 を設定した場合はキャッシュしません。
+         * </p>
+         *
+         * @param size キャッシュの最大サイズ(バイト)
+         * @return Builder
+         */
+        public Builder assetCacheSize(final int size) {
+            if (size < 0) {
+                throw new IllegalArgumentException("size is negative.");
+            }
+            mConfig.mAssetCacheSize = size;
+            return this;
+        }
+
         /**
          * {@link DConnectWebServerNanoHttpd} のインスタンスを作成します.
          *
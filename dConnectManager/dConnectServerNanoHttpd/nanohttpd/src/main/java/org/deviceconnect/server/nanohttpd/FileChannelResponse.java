@@ -0,0 +1,99 @@
+/*
+ FileChannelResponse.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.server.nanohttpd;
+
+import org.deviceconnect.server.http.FileChannelBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * {@link FileChannelBody} のボディを送信する NanoHTTPD のレスポンス.
+ * <p>
+ * NanoHTTPD の標準のレスポンスは InputStream からヒープ上のバッファにコピーしながら送信しますが、
+ * このレスポンスはヘッダーを NanoHTTPD に送信させた後、ボディを {@link FileChannelBody#writeTo(OutputStream)}
+ * で送信します。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+class FileChannelResponse extends NanoHTTPD.Response {
+    /**
+     * 送信するボディ.
+     */
+    private final FileChannelBody mBody;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param status ステータスコード
+     * @param body 送信するボディ
+     */
+    FileChannelResponse(final IStatus status, final FileChannelBody body) {
+        // ボディは send で送信するので、NanoHTTPD には空のストリームを渡す
+        super(status, body.getContentType(), new ByteArrayInputStream(new byte[0]), body.getContentLength());
+        mBody = body;
+        addHeader("Accept-Ranges", "bytes");
+        addHeader("Content-Length", String.valueOf(body.getContentLength()));
+        String contentRange = body.getContentRange();
+        if (contentRange != null) {
+            addHeader("Content-Range", contentRange);
+        }
+    }
+
+    @Override
+    public void setChunkedTransfer(final boolean chunkedTransfer) {
+        // Content-Length を送信するので chunked にはしない
+        super.setChunkedTransfer(false);
+    }
+
+    @Override
+    public void setGzipEncoding(final boolean encodeAsGzip) {
+        // gzip で圧縮すると Content-Length と一致しなくなるので圧縮しない
+        super.setGzipEncoding(false);
+    }
+
+    @Override
+    public void send(final OutputStream outputStream) {
+        super.send(outputStream);
+        if (getRequestMethod() == NanoHTTPD.Method.HEAD) {
+            return;
+        }
+        try {
+            mBody.writeTo(outputStream);
+        } catch (IOException e) {
+            // 送信中にクライアントが切断した場合など
+            // ボディの途中で送信をやめるので、コネクションを閉じて次のリクエストと混ざらないようにする
+            closeConnection(outputStream);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            mBody.close();
+        }
+    }
+
+    /**
+     * コネクションを閉じます.
+     *
+     * @param outputStream コネクションのストリーム
+     */
+    private static void closeConnection(final OutputStream outputStream) {
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            // ignore.
+        }
+    }
+}
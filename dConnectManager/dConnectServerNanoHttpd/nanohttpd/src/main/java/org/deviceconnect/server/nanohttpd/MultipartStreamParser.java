@@ -0,0 +1,385 @@
+/*
+ MultipartStreamParser.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.server.nanohttpd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import static fi.iki.elonen.NanoHTTPD.Response.Status.BAD_REQUEST;
+
+/**
+ * multipart/form-data のボディをストリームから1回の走査で解析するクラス.
+ * <p>
+ * ボディ全体をメモリや一時ファイルに溜めずに、受信したデータを固定サイズのバッファで走査しながら、
+ * 各パートのデータを {@link PartHandler} が返却した出力先に直接書き込みます。
+ * 使用するメモリはパートのサイズに関わらずバッファのサイズで一定です。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+class MultipartStreamParser {
+    /**
+     * 受信用バッファのサイズ.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 改行コード.
+     */
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    /**
+     * マルチパートのデータを読み込むストリーム.
+     */
+    private final InputStream mInputStream;
+
+    /**
+     * ストリームから読み込める残りのサイズ.
+     */
+    private long mRemaining;
+
+    /**
+     * パートの区切り (CRLF + "--" + boundary).
+     */
+    private final byte[] mDelimiter;
+
+    /**
+     * パートのヘッダーの文字コード.
+     */
+    private final Charset mHeaderCharset;
+
+    /**
+     * パートのヘッダーの最大サイズ.
+     */
+    private final int mMaxHeaderSize;
+
+    /**
+     * 受信用バッファ.
+     */
+    private final byte[] mBuffer;
+
+    /**
+     * バッファ内の未処理データの開始位置.
+     */
+    private int mStart;
+
+    /**
+     * バッファ内の未処理データの終了位置.
+     */
+    private int mEnd;
+
+    /**
+     * ストリームから読み込んだバイト数.
+     */
+    private long mBytesRead;
+
+    /**
+     * パートの受信を通知するハンドラ.
+     */
+    interface PartHandler {
+        /**
+         * パートのヘッダーを受信したことを通知します.
+         *
+         * @param headers パートのヘッダー行のリスト
+         * @return パートのデータの書き込み先
+         * @throws IOException 書き込み先の作成に失敗した場合に発生
+         */
+        OutputStream onPartBegin(List<String> headers) throws IOException;
+
+        /**
+         * パートのデータを全て書き込んだことを通知します.
+         * <p>
+         * 書き込み先のストリームはハンドラで閉じてください。
+         * </p>
+         *
+         * @param headers パートのヘッダー行のリスト
+         * @param out パートのデータの書き込み先
+         * @param length パートのデータのサイズ
+         * @throws IOException 書き込み先の処理に失敗した場合に発生
+         */
+        void onPartEnd(List<String> headers, OutputStream out, long length) throws IOException;
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param in マルチパートのデータを読み込むストリーム
+     * @param contentLength ボディのサイズ
+     * @param boundary 境界文字列
+     * @param headerCharset パートのヘッダーの文字コード
+     * @param maxHeaderSize パートのヘッダーの最大サイズ
+     */
+    MultipartStreamParser(final InputStream in, final long contentLength, final String boundary,
+                          final Charset headerCharset, final int maxHeaderSize) {
+        mInputStream = in;
+        mRemaining = contentLength;
+        mDelimiter = ("\r\n--" + boundary).getBytes(Charset.forName("US-ASCII"));
+        mHeaderCharset = headerCharset;
+        mMaxHeaderSize = maxHeaderSize;
+        mBuffer = new byte[Math.max(BUFFER_SIZE, (maxHeaderSize + mDelimiter.length) * 2)];
+
+        // 最初の境界は改行なしで始まるので、先頭に改行があるものとして扱う
+        mBuffer[0] = CR;
+        mBuffer[1] = LF;
+        mEnd = 2;
+    }
+
+    /**
+     * ストリームから読み込んだバイト数を取得します.
+     *
+     * @return 読み込んだバイト数
+     */
+    long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * マルチパートのデータを解析します.
+     *
+     * @param handler パートの受信を通知するハンドラ
+     * @throws IOException データの読み込み、または書き込みに失敗した場合に発生
+     * @throws NanoHTTPD.ResponseException マルチパートの書式が不正な場合に発生
+     */
+    void parse(final PartHandler handler) throws IOException, NanoHTTPD.ResponseException {
+        // 最初の境界までのプリアンブルは読み捨てる
+        if (!skipToDelimiter()) {
+            throw new NanoHTTPD.ResponseException(BAD_REQUEST,
+                    "BAD REQUEST: Content type is multipart/form-data but contains less than two boundary strings.");
+        }
+
+        while (true) {
+            if (!ensure(2)) {
+                throw new NanoHTTPD.ResponseException(BAD_REQUEST,
+                        "BAD REQUEST: Content type is multipart/form-data but chunk does not start with boundary.");
+            }
+            if (mBuffer[mStart] == '-' && mBuffer[mStart + 1] == '-') {
+                // 終端の境界
+                break;
+            }
+
+            // 境界の行の残り(transport-padding)を読み捨てる
+            if (readLine() == null) {
+                throw new NanoHTTPD.ResponseException(BAD_REQUEST,
+                        "BAD REQUEST: Content type is multipart/form-data but chunk does not start with boundary.");
+            }
+
+            List<String> headers = readHeaders();
+            OutputStream out = handler.onPartBegin(headers);
+            long length = copyToDelimiter(out);
+            handler.onPartEnd(headers, out, length);
+        }
+
+        // エピローグはキープアライブのために読み捨てる
+        skipRemaining();
+    }
+
+    /**
+     * 未処理のデータを全て読み捨てます.
+     * <p>
+     * 解析に失敗した場合にも、キープアライブで次のリクエストを正しく読み込めるように、ボディの残りを読み捨てます。
+     * </p>
+     *
+     * @throws IOException データの読み込みに失敗した場合に発生
+     */
+    void skipRemaining() throws IOException {
+        mStart = mEnd;
+        while (fill()) {
+            mStart = mEnd;
+        }
+    }
+
+    /**
+     * パートのヘッダーを読み込みます.
+     *
+     * @return ヘッダー行のリスト
+     * @throws IOException データの読み込みに失敗した場合に発生
+     * @throws NanoHTTPD.ResponseException ヘッダーが不正な場合に発生
+     */
+    private List<String> readHeaders() throws IOException, NanoHTTPD.ResponseException {
+        List<String> headers = new ArrayList<>();
+        int headerSize = 0;
+        while (true) {
+            String line = readLine();
+            if (line == null) {
+                throw new NanoHTTPD.ResponseException(BAD_REQUEST,
+                        "BAD REQUEST: Content type is multipart/form-data but part header is not terminated.");
+            }
+            // 行末の改行コードを含めたサイズ
+            headerSize += line.length() + 2;
+            if (headerSize > mMaxHeaderSize) {
+                throw new NanoHTTPD.ResponseException(NanoHTTPD.Response.Status.INTERNAL_ERROR,
+                        "Multipart header size exceeds MAX_HEADER_SIZE.");
+            }
+            if (line.isEmpty()) {
+                return Collections.unmodifiableList(headers);
+            }
+            headers.add(line);
+        }
+    }
+
+    /**
+     * 1行読み込みます.
+     * <p>
+     * 行末の改行コードは含みません。
+     * </p>
+     *
+     * @return 読み込んだ行、ストリームの終端に達した場合はnull
+     * @throws IOException データの読み込みに失敗した場合に発生
+     * @throws NanoHTTPD.ResponseException 行が最大サイズを超える場合に発生
+     */
+    private String readLine() throws IOException, NanoHTTPD.ResponseException {
+        int searchFrom = mStart;
+        while (true) {
+            for (int i = searchFrom; i < mEnd; i++) {
+                if (mBuffer[i] == LF) {
+                    int lineEnd = (i > mStart && mBuffer[i - 1] == CR) ? i - 1 : i;
+                    String line = new String(mBuffer, mStart, lineEnd - mStart, mHeaderCharset);
+                    mStart = i + 1;
+                    return line;
+                }
+            }
+            if (mEnd - mStart > mMaxHeaderSize) {
+                throw new NanoHTTPD.ResponseException(NanoHTTPD.Response.Status.INTERNAL_ERROR,
+                        "Multipart header size exceeds MAX_HEADER_SIZE.");
+            }
+            searchFrom = mEnd - mStart;
+            if (!fill()) {
+                return null;
+            }
+            searchFrom += mStart;
+        }
+    }
+
+    /**
+     * 次の境界まで読み捨てます.
+     *
+     * @return 境界が見つかった場合はtrue、それ以外はfalse
+     * @throws IOException データの読み込みに失敗した場合に発生
+     */
+    private boolean skipToDelimiter() throws IOException {
+        while (true) {
+            int index = indexOfDelimiter();
+            if (index >= 0) {
+                mStart = index + mDelimiter.length;
+                return true;
+            }
+            mStart = Math.max(mStart, mEnd - (mDelimiter.length - 1));
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 次の境界までのデータを書き込みます.
+     *
+     * @param out 書き込み先
+     * @return 書き込んだバイト数
+     * @throws IOException データの読み込み、または書き込みに失敗した場合に発生
+     * @throws NanoHTTPD.ResponseException 境界が見つからない場合に発生
+     */
+    private long copyToDelimiter(final OutputStream out) throws IOException, NanoHTTPD.ResponseException {
+        long length = 0;
+        while (true) {
+            int index = indexOfDelimiter();
+            if (index >= 0) {
+                out.write(mBuffer, mStart, index - mStart);
+                length += index - mStart;
+                mStart = index + mDelimiter.length;
+                return length;
+            }
+
+            // 境界の一部かもしれない末尾のデータは残しておく
+            int safeEnd = mEnd - (mDelimiter.length - 1);
+            if (safeEnd > mStart) {
+                out.write(mBuffer, mStart, safeEnd - mStart);
+                length += safeEnd - mStart;
+                mStart = safeEnd;
+            }
+            if (!fill()) {
+                throw new NanoHTTPD.ResponseException(BAD_REQUEST,
+                        "BAD REQUEST: Content type is multipart/form-data but chunk does not end with boundary.");
+            }
+        }
+    }
+
+    /**
+     * バッファ内の未処理データから境界を探します.
+     *
+     * @return 境界の開始位置、見つからない場合は-1
+     */
+    private int indexOfDelimiter() {
+        byte first = mDelimiter[0];
+        int last = mEnd - mDelimiter.length;
+        for (int i = mStart; i <= last; i++) {
+            if (mBuffer[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < mDelimiter.length && mBuffer[i + j] == mDelimiter[j]) {
+                j++;
+            }
+            if (j == mDelimiter.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * バッファに指定したサイズ以上の未処理データがあるようにします.
+     *
+     * @param size 必要なサイズ
+     * @return 必要なサイズのデータがある場合はtrue、ストリームの終端に達した場合はfalse
+     * @throws IOException データの読み込みに失敗した場合に発生
+     */
+    private boolean ensure(final int size) throws IOException {
+        while (mEnd - mStart < size) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * ストリームからデータを読み込み、バッファに追加します.
+     * <p>
+     * 未処理データはバッファの先頭に移動します。
+     * </p>
+     *
+     * @return データを読み込めた場合はtrue、ストリームの終端に達した場合はfalse
+     * @throws IOException データの読み込みに失敗した場合に発生
+     */
+    private boolean fill() throws IOException {
+        if (mRemaining <= 0) {
+            return false;
+        }
+        if (mStart > 0) {
+            System.arraycopy(mBuffer, mStart, mBuffer, 0, mEnd - mStart);
+            mEnd -= mStart;
+            mStart = 0;
+        }
+        int len = mInputStream.read(mBuffer, mEnd, (int) Math.min(mBuffer.length - mEnd, mRemaining));
+        if (len < 0) {
+            mRemaining = 0;
+            return false;
+        }
+        mEnd += len;
+        mRemaining -= len;
+        mBytesRead += len;
+        return true;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ SpillableOutputStream.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.server.nanohttpd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * 指定したサイズまではメモリに保持して、超えた場合には一時ファイルに書き込む出力ストリーム.
+ * <p>
+ * multipart/form-data のファイル以外のパートを受信するために使用します。
+ * 大きなパートを受信しても、メモリに保持するのは指定したサイズまでです。
+ * </p>
+ *
+ * @author NTT DOCOMO, INC.
+ */
+class SpillableOutputStream extends OutputStream {
+    /**
+     * 一時ファイルを作成するインターフェース.
+     */
+    interface TempFileFactory {
+        /**
+         * 一時ファイルを作成します.
+         *
+         * @return 一時ファイル
+         * @throws IOException 一時ファイルの作成に失敗した場合に発生
+         */
+        NanoHTTPD.TempFile create() throws IOException;
+    }
+
+    /**
+     * メモリに保持する最大サイズ.
+     */
+    private final int mMaxMemorySize;
+
+    /**
+     * 一時ファイルを作成するファクトリ.
+     */
+    private final TempFileFactory mFactory;
+
+    /**
+     * メモリに保持しているデータ.
+     */
+    private ByteArrayOutputStream mMemory = new ByteArrayOutputStream();
+
+    /**
+     * データを書き込んでいる一時ファイル.
+     */
+    private NanoHTTPD.TempFile mTempFile;
+
+    /**
+     * 一時ファイルへの出力ストリーム.
+     */
+    private OutputStream mFileOut;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param maxMemorySize メモリに保持する最大サイズ
+     * @param factory 一時ファイルを作成するファクトリ
+     */
+    SpillableOutputStream(final int maxMemorySize, final TempFileFactory factory) {
+        mMaxMemorySize = maxMemorySize;
+        mFactory = factory;
+    }
+
+    /**
+     * データをメモリに保持しているか確認します.
+     *
+     * @return メモリに保持している場合はtrue、一時ファイルに書き込んだ場合はfalse
+     */
+    boolean isInMemory() {
+        return mTempFile == null;
+    }
+
+    /**
+     * メモリに保持しているデータを取得します.
+     *
+     * @return データ、一時ファイルに書き込んだ場合はnull
+     */
+    byte[] toByteArray() {
+        return mMemory != null ? mMemory.toByteArray() : null;
+    }
+
+    /**
+     * データを書き込んだ一時ファイルを取得します.
+     *
+     * @return 一時ファイル、メモリに保持している場合はnull
+     */
+    NanoHTTPD.TempFile getTempFile() {
+        return mTempFile;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (mFileOut == null && mMemory.size() + len > mMaxMemorySize) {
+            spill();
+        }
+        if (mFileOut != null) {
+            mFileOut.write(b, off, len);
+        } else {
+            mMemory.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (mFileOut != null) {
+            mFileOut.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mFileOut != null) {
+            mFileOut.close();
+        }
+    }
+
+    /**
+     * メモリに保持しているデータを一時ファイルに書き込み、以降のデータも一時ファイルに書き込むようにします.
+     *
+     * @throws IOException 一時ファイルの作成、または書き込みに失敗した場合に発生
+     */
+    private void spill() throws IOException {
+        mTempFile = mFactory.create();
+        try {
+            mFileOut = mTempFile.open();
+        } catch (Exception e) {
+            throw new IOException("Cannot open a temporary file.", e);
+        }
+        mMemory.writeTo(mFileOut);
+        mMemory = null;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ UploadStatistics.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.server.nanohttpd;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * multipart/form-data でアップロードされたデータのスループットの統計.
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public class UploadStatistics {
+    /**
+     * アップロードの回数.
+     */
+    private final AtomicLong mCount = new AtomicLong();
+
+    /**
+     * アップロードされたデータの合計サイズ(バイト).
+     */
+    private final AtomicLong mTotalBytes = new AtomicLong();
+
+    /**
+     * アップロードにかかった合計時間(ナノ秒).
+     */
+    private final AtomicLong mTotalTime = new AtomicLong();
+
+    /**
+     * 最後のアップロードのスループット(バイト/秒).
+     */
+    private volatile long mLastThroughput;
+
+    /**
+     * アップロードの結果を記録します.
+     *
+     * @param bytes アップロードされたデータのサイズ(バイト)
+     * @param elapsedNanos アップロードにかかった時間(ナノ秒)
+     * @return このアップロードのスループット(バイト/秒)
+     */
+    long record(final long bytes, final long elapsedNanos) {
+        mCount.incrementAndGet();
+        mTotalBytes.addAndGet(bytes);
+        mTotalTime.addAndGet(elapsedNanos);
+        long throughput = toThroughput(bytes, elapsedNanos);
+        mLastThroughput = throughput;
+        return throughput;
+    }
+
+    /**
+     * アップロードの回数を取得します.
+     *
+     * @return アップロードの回数
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * アップロードされたデータの合計サイズを取得します.
+     *
+     * @return 合計サイズ(バイト)
+     */
+    public long getTotalBytes() {
+        return mTotalBytes.get();
+    }
+
+    /**
+     * これまでのアップロードの平均スループットを取得します.
+     *
+     * @return 平均スループット(バイト/秒)
+     */
+    public long getAverageThroughput() {
+        return toThroughput(mTotalBytes.get(), mTotalTime.get());
+    }
+
+    /**
+     * 最後のアップロードのスループットを取得します.
+     *
+     * @return スループット(バイト/秒)
+     */
+    public long getLastThroughput() {
+        return mLastThroughput;
+    }
+
+    private static long toThroughput(final long bytes, final long elapsedNanos) {
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+        return (long) (bytes * 1000000000.0 / elapsedNanos);
+    }
+}
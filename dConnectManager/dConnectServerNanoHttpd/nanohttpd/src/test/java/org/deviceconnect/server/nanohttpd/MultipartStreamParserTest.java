@@ -0,0 +1,258 @@
+/*
+ MultipartStreamParserTest.java
+ Copyright (c) 2021 NTT DOCOMO,INC.
+ Released under the MIT license
+ http://opensource.org/licenses/mit-license.php
+ */
+package org.deviceconnect.server.nanohttpd;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * MultipartStreamParser のテスト.
+ *
+ * @author NTT DOCOMO, INC.
+ */
+public class MultipartStreamParserTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String BOUNDARY = "----dConnectBoundary7MA4YWxkTrZu0gW";
+    private static final int MAX_HEADER_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * 境界がストリームの読み込みの途中で分割されるデータを解析する。
+     * <pre>
+     * 【期待する動作】
+     * ・1回の読み込みのサイズに関わらず、全てのパートのヘッダーとデータが取得できること。
+     * </pre>
+     */
+    @Test
+    public void testParse_splitBoundary() throws Exception {
+        byte[] file = new byte[3000];
+        for (int i = 0; i < file.length; i++) {
+            // 境界の一部と同じバイト列を含める
+            file[i] = (byte) (i % 7 == 0 ? '\r' : i % 7 == 1 ? '\n' : i % 7 < 4 ? '-' : 'a' + i % 26);
+        }
+        byte[] body = concat(
+                part("name=\"text\"", null, "hello".getBytes(UTF_8)),
+                part("name=\"data\"; filename=\"data.bin\"", "application/octet-stream", file),
+                finalBoundary());
+
+        for (int chunk : new int[] {1, 2, 3, 5, 7, 13, BOUNDARY.length() + 3, 4096}) {
+            RecordingHandler handler = new RecordingHandler();
+            parse(new ChunkedInputStream(body, chunk), body.length, handler);
+
+            assertThat("chunk=" + chunk, handler.mParts.size(), is(2));
+            assertThat("chunk=" + chunk, handler.mParts.get(0).mHeaders.get(0),
+                    is("Content-Disposition: form-data; name=\"text\""));
+            assertThat("chunk=" + chunk, new String(handler.mParts.get(0).mData, UTF_8), is("hello"));
+            assertThat("chunk=" + chunk, handler.mParts.get(1).mHeaders.size(), is(2));
+            assertThat("chunk=" + chunk, Arrays.equals(handler.mParts.get(1).mData, file), is(true));
+            assertThat("chunk=" + chunk, handler.mParts.get(1).mLength, is((long) file.length));
+        }
+    }
+
+    /**
+     * 終端の境界が無いデータを解析する。
+     * <pre>
+     * 【期待する動作】
+     * ・BAD_REQUEST の NanoHTTPD.ResponseException が発生すること。
+     * </pre>
+     */
+    @Test
+    public void testParse_missingFinalBoundary() throws Exception {
+        byte[] body = concat(
+                part("name=\"text\"", null, "hello".getBytes(UTF_8)),
+                ("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"rest\"\r\n\r\nno end").getBytes(UTF_8));
+        try {
+            parse(new ChunkedInputStream(body, 16), body.length, new RecordingHandler());
+            fail("ResponseException is not thrown.");
+        } catch (NanoHTTPD.ResponseException e) {
+            assertThat(e.getStatus(), is(NanoHTTPD.Response.Status.BAD_REQUEST));
+        }
+    }
+
+    /**
+     * 境界が1つも無いデータを解析する。
+     * <pre>
+     * 【期待する動作】
+     * ・BAD_REQUEST の NanoHTTPD.ResponseException が発生すること。
+     * </pre>
+     */
+    @Test
+    public void testParse_noBoundary() throws Exception {
+        byte[] body = "no boundary in this body".getBytes(UTF_8);
+        try {
+            parse(new ByteArrayInputStream(body), body.length, new RecordingHandler());
+            fail("ResponseException is not thrown.");
+        } catch (NanoHTTPD.ResponseException e) {
+            assertThat(e.getStatus(), is(NanoHTTPD.Response.Status.BAD_REQUEST));
+        }
+    }
+
+    /**
+     * 最大サイズを超えるパートのヘッダーを解析する。
+     * <pre>
+     * 【期待する動作】
+     * ・NanoHTTPD.ResponseException が発生すること。
+     * </pre>
+     */
+    @Test(expected = NanoHTTPD.ResponseException.class)
+    public void testParse_oversizedHeader() throws Exception {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < MAX_HEADER_SIZE; i++) {
+            name.append('x');
+        }
+        byte[] body = concat(part("name=\"" + name + "\"", null, new byte[1]), finalBoundary());
+        parse(new ByteArrayInputStream(body), body.length, new RecordingHandler());
+    }
+
+    /**
+     * メモリに保持する最大サイズを超えるファイル以外のパートを SpillableOutputStream で受信する。
+     * <pre>
+     * 【期待する動作】
+     * ・最大サイズ以下のパートはメモリに保持されること。
+     * ・最大サイズを超えるパートは一時ファイルに書き込まれ、メモリには保持されないこと。
+     * ・一時ファイルに書き込まれたデータが、送信したデータと同じであること。
+     * </pre>
+     */
+    @Test
+    public void testParse_oversizedField() throws Exception {
+        final int maxMemorySize = 1024;
+        byte[] small = new byte[maxMemorySize];
+        Arrays.fill(small, (byte) 's');
+        byte[] large = new byte[maxMemorySize * 100 + 1];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) ('a' + i % 26);
+        }
+        byte[] body = concat(
+                part("name=\"small\"", null, small),
+                part("name=\"large\"", null, large),
+                finalBoundary());
+
+        final File dir = mFolder.newFolder();
+        final List<SpillableOutputStream> fields = new ArrayList<>();
+        parse(new ChunkedInputStream(body, 1000), body.length, new MultipartStreamParser.PartHandler() {
+            @Override
+            public OutputStream onPartBegin(final List<String> headers) {
+                SpillableOutputStream out = new SpillableOutputStream(maxMemorySize,
+                        () -> new NanoHTTPD.DefaultTempFile(dir));
+                fields.add(out);
+                return out;
+            }
+
+            @Override
+            public void onPartEnd(final List<String> headers, final OutputStream out, final long length) throws IOException {
+                out.close();
+            }
+        });
+
+        assertThat(fields.size(), is(2));
+        assertThat(fields.get(0).isInMemory(), is(true));
+        assertThat(Arrays.equals(fields.get(0).toByteArray(), small), is(true));
+
+        assertThat(fields.get(1).isInMemory(), is(false));
+        assertThat(fields.get(1).toByteArray(), is(nullValue()));
+        assertThat(fields.get(1).getTempFile(), is(notNullValue()));
+        byte[] spilled = Files.readAllBytes(new File(fields.get(1).getTempFile().getName()).toPath());
+        assertThat(Arrays.equals(spilled, large), is(true));
+    }
+
+    private static void parse(final InputStream in, final long length, final MultipartStreamParser.PartHandler handler)
+            throws IOException, NanoHTTPD.ResponseException {
+        new MultipartStreamParser(in, length, BOUNDARY, UTF_8, MAX_HEADER_SIZE).parse(handler);
+    }
+
+    private static byte[] part(final String disposition, final String contentType, final byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(("--" + BOUNDARY + "\r\n").getBytes(UTF_8));
+        out.write(("Content-Disposition: form-data; " + disposition + "\r\n").getBytes(UTF_8));
+        if (contentType != null) {
+            out.write(("Content-Type: " + contentType + "\r\n").getBytes(UTF_8));
+        }
+        out.write("\r\n".getBytes(UTF_8));
+        out.write(data);
+        out.write("\r\n".getBytes(UTF_8));
+        return out.toByteArray();
+    }
+
+    private static byte[] finalBoundary() {
+        return ("--" + BOUNDARY + "--\r\n").getBytes(UTF_8);
+    }
+
+    private static byte[] concat(final byte[]... arrays) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] a : arrays) {
+            out.write(a);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 1回の読み込みで指定したサイズまでしか返さないストリーム.
+     */
+    private static class ChunkedInputStream extends ByteArrayInputStream {
+        private final int mChunkSize;
+
+        ChunkedInputStream(final byte[] data, final int chunkSize) {
+            super(data);
+            mChunkSize = chunkSize;
+        }
+
+        @Override
+        public synchronized int read(final byte[] b, final int off, final int len) {
+            return super.read(b, off, Math.min(len, mChunkSize));
+        }
+    }
+
+    /**
+     * 受信したパートを記録するハンドラ.
+     */
+    private static class RecordingHandler implements MultipartStreamParser.PartHandler {
+        private final List<Part> mParts = new ArrayList<>();
+
+        @Override
+        public OutputStream onPartBegin(final List<String> headers) {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void onPartEnd(final List<String> headers, final OutputStream out, final long length) {
+            Part part = new Part();
+            part.mHeaders = headers;
+            part.mData = ((ByteArrayOutputStream) out).toByteArray();
+            part.mLength = length;
+            mParts.add(part);
+        }
+    }
+
+    private static class Part {
+        private List<String> mHeaders;
+        private byte[] mData;
+        private long mLength;
+    }
+}
@@ -230,6 +230,16 @@ public abstract class MediaEncoder {
     protected void onInputData(ByteBuffer inputData, int index) {
     }
 
+    /**
+     * エンコード中に要求されたパラメータの変更を MediaCodec に反映します.
+     *
+     * <p>
+     * MediaCodec からエンコードしたデータを受け取るたびに、コールバックのスレッドで呼び出されます。
+     * </p>
+     */
+    protected void executeRequest() {
+    }
+
     /**
      * エンコーダの処理を開始処理を行います.
      *
@@ -315,6 +325,14 @@ public abstract class MediaEncoder {
 
         @Override
         public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+            try {
+                executeRequest();
+            } catch (Exception e) {
+                if (DEBUG) {
+                    Log.w(TAG, "Failed to change the parameters of MediaCodec.", e);
+                }
+            }
+
             try {
                 ByteBuffer encodedData = mMediaCodec.getOutputBuffer(index);
                 info.presentationTimeUs = getPTSUs();
@@ -4,6 +4,8 @@ import android.opengl.EGL14;
 import android.opengl.EGLSurface;
 import android.opengl.GLES20;
 
+import org.deviceconnect.android.libmedia.streaming.util.FrameRateLimiter;
+
 import java.nio.Buffer;
 
 /**
@@ -15,6 +17,7 @@ public abstract class EGLSurfaceBase {
     private int mWidth = -1;
     private int mHeight = -1;
     private Object mTag;
+    private final FrameRateLimiter mFrameRateLimiter = new FrameRateLimiter();
 
     EGLSurfaceBase() {
     }
@@ -159,4 +162,27 @@ public abstract class EGLSurfaceBase {
     public Object getTag() {
         return mTag;
     }
+
+    /**
+     * 描画する最大のフレームレートを設定します.
+     *
+     * <p>
+     * 上限を超えるフレームは、この EGLSurfaceBase には描画しません。
+     * </p>
+     *
+     * @param frameRate フレームレート. 0 の場合は上限なし
+     */
+    public void setMaxFrameRate(int frameRate) {
+        mFrameRateLimiter.setMaxFrameRate(frameRate);
+    }
+
+    /**
+     * 指定された時刻のフレームを描画するか確認します.
+     *
+     * @param timestamp フレームの時刻(ナノ秒)
+     * @return 描画する場合はtrue、それ以外はfalse
+     */
+    boolean acceptFrame(long timestamp) {
+        return mFrameRateLimiter.accept(timestamp);
+    }
 }
@@ -540,12 +540,16 @@ public class EGLSurfaceDrawingThread {
                 while (mState == STATE_RUNNING) {
                     mStManager.awaitNewImage();
 
+                    long timestamp = st.getTimestamp();
                     synchronized (mEGLSurfaceBases) {
                         for (EGLSurfaceBase eglSurfaceBase : mEGLSurfaceBases) {
+                            if (!eglSurfaceBase.acceptFrame(timestamp)) {
+                                continue;
+                            }
                             eglSurfaceBase.makeCurrent();
                             mStManager.setViewport(0, 0, eglSurfaceBase.getWidth(), eglSurfaceBase.getHeight());
                             mStManager.drawImage(getDisplayRotation());
-                            eglSurfaceBase.setPresentationTime(st.getTimestamp());
+                            eglSurfaceBase.setPresentationTime(timestamp);
                             eglSurfaceBase.swapBuffers();
                             postOnDrawn(eglSurfaceBase);
                         }
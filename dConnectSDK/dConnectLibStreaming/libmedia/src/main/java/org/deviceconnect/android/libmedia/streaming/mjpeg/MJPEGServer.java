@@ -228,6 +228,15 @@ public class MJPEGServer {
         return mMixedReplaceMediaServer != null ? mMixedReplaceMediaServer.getBPS() : 0;
     }
 
+    /**
+     * 最後に接続したクライアントに最初のフレームを送信するまでにかかった時間を取得します.
+     *
+     * @return 最初のフレームを送信するまでの時間(ミリ秒)、計測していない場合は -1
+     */
+    public long getTimeToFirstFrame() {
+        return mMixedReplaceMediaServer != null ? mMixedReplaceMediaServer.getTimeToFirstFrame() : -1;
+    }
+
     private synchronized void startMJPEGEncoder() {
         if (mMJPEGEncoder != null) {
             return;
@@ -33,6 +33,21 @@ public abstract class AacH26xTsPacketWriter {
      */
     private PacketListener mPacketListener;
 
+    /**
+     * TS パケットを書き込んだバッファを送るリスナー.
+     */
+    private BufferListener mBufferListener;
+
+    /**
+     * TS パケットを 1 つずつ通知する場合に使用するパケット.
+     */
+    private final byte[] mPacket = new byte[TsConstants.TS_PACKET_SIZE];
+
+    /**
+     * TS パケットを書き込むバッファ.
+     */
+    private ByteBuffer mBuffer = ByteBuffer.wrap(mPacket);
+
     /**
      * 初期化を行います.
      *
@@ -43,7 +58,8 @@ public abstract class AacH26xTsPacketWriter {
      */
     public void initialize(float sampleRate, int sampleSizeInBits, int channels, int fps) {
         mTsWriter = new TsPacketWriter();
-        mTsWriter.setCallback(packet -> mPacketListener.onPacketAvailable(packet));
+        mTsWriter.setBuffer(mBuffer);
+        mTsWriter.setCallback(this::onBuffer);
 
         mMixed = (fps > 0 && sampleRate > 0);
         mPatPmtSendTime = 0;
@@ -57,6 +73,74 @@ public abstract class AacH26xTsPacketWriter {
      */
     public void setPacketListener(PacketListener listener) {
         mPacketListener = listener;
+        mBufferListener = null;
+        setBuffer(ByteBuffer.wrap(mPacket));
+    }
+
+    /**
+     * TS パケットを書き込むバッファと、書き込んだバッファを通知するリスナーを設定します.
+     *
+     * <p>
+     * TS パケットは指定されたバッファに直接書き込まれ、バッファに空きがなくなった場合と
+     * PES の最後の TS パケットを書き込んだ場合にリスナーに通知されます。
+     * バッファの容量を 7 * 188 にすることで、SRT や UDP のペイロードとしてそのまま送信できます。
+     * </p>
+     *
+     * <p>
+     * {@link #setPacketListener(PacketListener)} で設定したリスナーには通知されなくなります。
+     * </p>
+     *
+     * @param buffer TS パケットを書き込むバッファ
+     * @param listener リスナー
+     * @throws IllegalArgumentException バッファの容量が TS パケットのサイズよりも小さい場合に発生
+     */
+    public void setBufferListener(ByteBuffer buffer, BufferListener listener) {
+        if (buffer.capacity() < TsConstants.TS_PACKET_SIZE) {
+            throw new IllegalArgumentException("buffer is too small.");
+        }
+        mBufferListener = listener;
+        mPacketListener = null;
+        setBuffer(buffer);
+    }
+
+    /**
+     * TS パケットを書き込むバッファを設定します.
+     *
+     * @param buffer バッファ
+     */
+    private void setBuffer(ByteBuffer buffer) {
+        mBuffer = buffer;
+        if (mTsWriter != null) {
+            mTsWriter.setBuffer(buffer);
+        }
+    }
+
+    /**
+     * TS パケットを書き込んだバッファをリスナーに通知します.
+     *
+     * @param buffer TS パケットを書き込んだバッファ
+     * @param endOfPes PES の最後の TS パケットを含む場合は true、それ以外は false
+     */
+    private void onBuffer(ByteBuffer buffer, boolean endOfPes) {
+        if (mBufferListener != null) {
+            mBufferListener.onBufferAvailable(buffer);
+        } else if (mPacketListener != null) {
+            mPacketListener.onPacketAvailable(mPacket);
+            if (endOfPes) {
+                mPacketListener.onPacketAvailable(null);
+            }
+        }
+    }
+
+    /**
+     * 次に書き込むデータの前に PAT、PMT を送信するように要求します.
+     *
+     * <p>
+     * 途中から受信を開始したクライアントが、キーフレームから復号を開始できるようにするために使用します。
+     * </p>
+     */
+    public void requestPatPmt() {
+        mPatPmtSendTime = 0;
     }
 
     /**
@@ -128,4 +212,21 @@ public abstract class AacH26xTsPacketWriter {
          */
         void onPacketAvailable(byte[] packet);
     }
+
+    /**
+     * TS パケットを書き込んだバッファを通知するリスナー.
+     */
+    public interface BufferListener {
+        /**
+         * TS パケットを書き込んだバッファを通知します.
+         *
+         * <p>
+         * バッファの position は 0、limit は書き込んだサイズになっています。
+         * 通知から戻った後にバッファは再利用されるので、データはこのメソッドの中で送信してください。
+         * </p>
+         *
+         * @param buffer TS パケットを書き込んだバッファ
+         */
+        void onBufferAvailable(ByteBuffer buffer);
+    }
 }
@@ -0,0 +1,965 @@
+package org.deviceconnect.android.libmedia.streaming.mpeg2ts;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * TS パケットを逐次解析して、PES を取り出すクラス.
+ *
+ * <p>
+ * 受信したデータを TS パケットのオブジェクトに変換せずに、受信したバッファから直接解析します。
+ * TS パケットの途中でデータが区切られている場合には、次に渡されたデータと合わせて解析します。
+ * PAT、PMT のセクションや PES ヘッダーが複数の TS パケットに分かれている場合には、揃うまで保持してから解析します。
+ * </p>
+ *
+ * <p>
+ * PMT で通知されたストリームのうち、{@link Callback#onConfig(int, int)} で true を返却した PID の
+ * PES だけを取り出します。それ以外の PID の TS パケットは、ヘッダーだけを確認して破棄します。
+ * </p>
+ *
+ * <p>
+ * PES のペイロードは、プールしている {@link Pes} のバッファに直接書き込みます。
+ * 通知された Pes は使用後に {@link Pes#release()} でプールに戻してください。
+ * バッファは再利用するので、PES のサイズが最大値を更新しない限りメモリの確保は行いません。
+ * </p>
+ */
+public class TsDemuxer implements TsConstants {
+    /**
+     * PID の最大値.
+     */
+    private static final int MAX_PID = 0x1FFF;
+
+    /**
+     * デフォルトのプールする PES の数.
+     */
+    public static final int DEFAULT_POOL_SIZE = 32;
+
+    /**
+     * デフォルトの PES のバッファサイズ.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * PAT、PMT のセクションの最大サイズ.
+     */
+    private static final int MAX_SECTION_SIZE = 1024;
+
+    /**
+     * PES ヘッダーの最大サイズ.
+     *
+     * <p>
+     * 固定部分の 6 バイト、オプションのヘッダーの 3 バイト、PES_header_data_length の最大値の合計です。
+     * </p>
+     */
+    private static final int MAX_PES_HEADER_SIZE = 6 + 3 + 255;
+
+    /**
+     * 受信データの途中で区切られた TS パケットを格納するバッファ.
+     */
+    private final byte[] mPacket = new byte[TS_PACKET_SIZE];
+
+    /**
+     * 途中で区切られた TS パケットのサイズ.
+     */
+    private int mPacketLength;
+
+    /**
+     * 複数の TS パケットに分かれている PAT、PMT のセクションを格納するバッファ.
+     */
+    private final byte[] mSection = new byte[MAX_SECTION_SIZE];
+
+    /**
+     * mSection に格納したセクションのサイズ.
+     */
+    private int mSectionLength;
+
+    /**
+     * mSection に格納しているセクションの PID. 格納していない場合は -1.
+     */
+    private int mSectionPid = -1;
+
+    /**
+     * PID ごとのストリーム.
+     *
+     * <p>
+     * 取り出す PID の場合のみストリームを格納します。
+     * </p>
+     */
+    private final Stream[] mStreams = new Stream[MAX_PID + 1];
+
+    /**
+     * PMT の PID の場合は true を格納します.
+     */
+    private final boolean[] mPmtPids = new boolean[MAX_PID + 1];
+
+    /**
+     * 未使用の PES のプール.
+     */
+    private final ArrayDeque<Pes> mFreePes;
+
+    /**
+     * 取り出した PES を通知するコールバック.
+     */
+    private Callback mCallback;
+
+    /**
+     * 解析した TS パケットの数.
+     */
+    private long mPacketCount;
+
+    /**
+     * continuity_counter が連続していなかった回数.
+     */
+    private long mDiscontinuityCount;
+
+    /**
+     * プールに空きがないため、またはエラーのために破棄した PES の数.
+     */
+    private long mDroppedPesCount;
+
+    /**
+     * コンストラクタ.
+     */
+    public TsDemuxer() {
+        this(DEFAULT_POOL_SIZE, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param poolSize プールする PES の数
+     * @param bufferSize PES のバッファの初期サイズ
+     */
+    public TsDemuxer(int poolSize, int bufferSize) {
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("poolSize is invalid.");
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize is invalid.");
+        }
+        mFreePes = new ArrayDeque<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            mFreePes.offer(new Pes(this, bufferSize));
+        }
+    }
+
+    /**
+     * 取り出した PES を通知するコールバックを設定します.
+     *
+     * @param callback コールバック
+     */
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * 解析した TS パケットの数を取得します.
+     *
+     * @return TS パケットの数
+     */
+    public long getPacketCount() {
+        return mPacketCount;
+    }
+
+    /**
+     * continuity_counter が連続していなかった回数を取得します.
+     *
+     * @return 連続していなかった回数
+     */
+    public long getDiscontinuityCount() {
+        return mDiscontinuityCount;
+    }
+
+    /**
+     * 破棄した PES の数を取得します.
+     *
+     * @return 破棄した PES の数
+     */
+    public long getDroppedPesCount() {
+        return mDroppedPesCount;
+    }
+
+    /**
+     * TS パケットのデータを解析します.
+     *
+     * <p>
+     * データは TS パケットの境界で区切られている必要はありません。
+     * 同期バイト以外のデータ (例えば、SRT のペイロードを埋めている 0x00) は読み飛ばします。
+     * </p>
+     *
+     * @param data データ
+     * @param offset データの開始位置
+     * @param length データサイズ
+     */
+    public void feed(byte[] data, int offset, int length) {
+        int pos = offset;
+        int end = offset + length;
+
+        // 前回の途中で区切られた TS パケットを補完
+        if (mPacketLength > 0) {
+            int size = Math.min(TS_PACKET_SIZE - mPacketLength, length);
+            System.arraycopy(data, pos, mPacket, mPacketLength, size);
+            mPacketLength += size;
+            pos += size;
+            if (mPacketLength < TS_PACKET_SIZE) {
+                return;
+            }
+            mPacketLength = 0;
+            parsePacket(mPacket, 0);
+        }
+
+        while (pos < end) {
+            if (data[pos] != SYNC_BYTE) {
+                pos++;
+            } else if (end - pos < TS_PACKET_SIZE) {
+                mPacketLength = end - pos;
+                System.arraycopy(data, pos, mPacket, 0, mPacketLength);
+                pos = end;
+            } else {
+                parsePacket(data, pos);
+                pos += TS_PACKET_SIZE;
+            }
+        }
+    }
+
+    /**
+     * 解析途中の PES を通知します.
+     *
+     * <p>
+     * 映像の PES はサイズが指定されていないので、次の PES が始まるまで通知されません。
+     * ストリームの終わりで呼び出すことで、最後の PES を通知します。
+     * </p>
+     */
+    public void flush() {
+        for (Stream stream : mStreams) {
+            if (stream != null) {
+                finishPes(stream);
+            }
+        }
+    }
+
+    /**
+     * 解析の状態を初期化します.
+     *
+     * <p>
+     * 解析途中の PES は破棄します。PAT、PMT を受信するまで PES は取り出しません。
+     * </p>
+     */
+    public void reset() {
+        for (int pid = 0; pid <= MAX_PID; pid++) {
+            Stream stream = mStreams[pid];
+            if (stream != null) {
+                dropPes(stream);
+                mStreams[pid] = null;
+            }
+            mPmtPids[pid] = false;
+        }
+        mPacketLength = 0;
+        mSectionPid = -1;
+    }
+
+    /**
+     * TS パケットを解析します.
+     *
+     * @param packet TS パケットを格納したバッファ
+     * @param offset TS パケットの開始位置
+     */
+    private void parsePacket(byte[] packet, int offset) {
+        mPacketCount++;
+
+        int b1 = packet[offset + 1] & 0xFF;
+        int b3 = packet[offset + 3] & 0xFF;
+        boolean transportErrorIndicator = (b1 & 0x80) != 0;
+        boolean payloadUnitStartIndicator = (b1 & 0x40) != 0;
+        int pid = ((b1 & 0x1F) << 8) | (packet[offset + 2] & 0xFF);
+        int adaptationFieldControl = (b3 >> 4) & 0x03;
+        int continuityCounter = b3 & 0x0F;
+
+        if (transportErrorIndicator) {
+            return;
+        }
+
+        Stream stream = null;
+        if (pid != TS_PAT_PID && !mPmtPids[pid]) {
+            // 取り出さない PID の場合は、ここで破棄します
+            stream = mStreams[pid];
+            if (stream == null) {
+                return;
+            }
+        }
+
+        int end = offset + TS_PACKET_SIZE;
+        int pos = offset + TS_HEADER_SIZE;
+        boolean randomAccessIndicator = false;
+        if ((adaptationFieldControl & 0x02) != 0) {
+            int adaptationFieldLength = packet[pos] & 0xFF;
+            if (adaptationFieldLength > 0) {
+                randomAccessIndicator = (packet[pos + 1] & 0x40) != 0;
+            }
+            pos += 1 + adaptationFieldLength;
+        }
+
+        // ペイロードを含まない TS パケットは continuity_counter が増えないので、ここで終了
+        if ((adaptationFieldControl & 0x01) == 0 || pos >= end) {
+            return;
+        }
+
+        if (stream == null) {
+            readSection(pid, packet, pos, end, payloadUnitStartIndicator);
+            return;
+        }
+
+        if (stream.mContinuityCounter != -1) {
+            int expected = (stream.mContinuityCounter + 1) & 0x0F;
+            if (continuityCounter == stream.mContinuityCounter) {
+                // 重複して送信された TS パケットは破棄します
+                return;
+            } else if (continuityCounter != expected) {
+                mDiscontinuityCount++;
+                dropPes(stream);
+            }
+        }
+        stream.mContinuityCounter = continuityCounter;
+
+        if (payloadUnitStartIndicator) {
+            finishPes(stream);
+            if (stream.mHeaderLength > 0) {
+                // PES ヘッダーが揃う前に次の PES が始まった
+                mDroppedPesCount++;
+                stream.mHeaderLength = 0;
+            }
+            stream.mRandomAccess = randomAccessIndicator;
+            readPesHeader(stream, packet, pos, end);
+        } else if (stream.mHeaderLength > 0) {
+            readPesHeader(stream, packet, pos, end);
+        } else if (stream.mPes != null) {
+            writePes(stream, packet, pos, end - pos);
+        }
+    }
+
+    /**
+     * PAT、PMT のセクションを読み込みます.
+     *
+     * <p>
+     * セクションが TS パケットに収まっている場合は、TS パケットから直接解析します。
+     * 複数の TS パケットに分かれている場合は、揃うまで mSection に格納してから解析します。
+     * </p>
+     *
+     * @param pid PID
+     * @param packet TS パケットを格納したバッファ
+     * @param pos ペイロードの開始位置
+     * @param end TS パケットの終了位置
+     * @param start payload_unit_start_indicator の値
+     */
+    private void readSection(int pid, byte[] packet, int pos, int end, boolean start) {
+        if (start) {
+            // pointer_field
+            pos += 1 + (packet[pos] & 0xFF);
+            mSectionPid = -1;
+            mSectionLength = 0;
+            if (pos >= end) {
+                return;
+            }
+            if (pos + 3 <= end) {
+                int size = getSectionSize(packet, pos);
+                if (pos + size <= end) {
+                    parseSection(pid, packet, pos, pos + size);
+                    return;
+                }
+            }
+            mSectionPid = pid;
+        } else if (mSectionPid != pid) {
+            return;
+        }
+
+        while (true) {
+            int size = mSectionLength >= 3 ? getSectionSize(mSection, 0) : 3;
+            if (size > MAX_SECTION_SIZE) {
+                mSectionPid = -1;
+                return;
+            }
+            if (mSectionLength >= 3 && mSectionLength >= size) {
+                mSectionPid = -1;
+                parseSection(pid, mSection, 0, size);
+                return;
+            }
+            if (pos >= end) {
+                return;
+            }
+            int length = Math.min(size - mSectionLength, end - pos);
+            System.arraycopy(packet, pos, mSection, mSectionLength, length);
+            mSectionLength += length;
+            pos += length;
+        }
+    }
+
+    /**
+     * PAT、PMT のセクションを解析します.
+     *
+     * @param pid PID
+     * @param section セクションを格納したバッファ
+     * @param pos セクションの開始位置
+     * @param end セクションの終了位置
+     */
+    private void parseSection(int pid, byte[] section, int pos, int end) {
+        if (pid == TS_PAT_PID) {
+            parsePAT(section, pos, end);
+        } else {
+            parsePMT(section, pos, end);
+        }
+    }
+
+    /**
+     * Program Association Tables (PAT) を解析します.
+     *
+     * @param packet セクションを格納したバッファ
+     * @param pos セクションの開始位置
+     * @param end セクションの終了位置
+     */
+    private void parsePAT(byte[] packet, int pos, int end) {
+        if (pos + 8 > end) {
+            return;
+        }
+
+        int sectionLength = ((packet[pos + 1] & 0x0F) << 8) | (packet[pos + 2] & 0xFF);
+        int sectionEnd = Math.min(pos + 3 + sectionLength - 4, end);
+        for (int i = pos + 8; i + 4 <= sectionEnd; i += 4) {
+            int programNumber = ((packet[i] & 0xFF) << 8) | (packet[i + 1] & 0xFF);
+            int programMapPid = ((packet[i + 2] & 0x1F) << 8) | (packet[i + 3] & 0xFF);
+            // program_number が 0 の場合は Network PID
+            if (programNumber != 0) {
+                mPmtPids[programMapPid] = true;
+            }
+        }
+    }
+
+    /**
+     * PMT (Program Map Table) を解析します.
+     *
+     * @param packet セクションを格納したバッファ
+     * @param pos セクションの開始位置
+     * @param end セクションの終了位置
+     */
+    private void parsePMT(byte[] packet, int pos, int end) {
+        if (pos + 12 > end) {
+            return;
+        }
+
+        int sectionLength = ((packet[pos + 1] & 0x0F) << 8) | (packet[pos + 2] & 0xFF);
+        int programInfoLength = ((packet[pos + 10] & 0x0F) << 8) | (packet[pos + 11] & 0xFF);
+        int sectionEnd = Math.min(pos + 3 + sectionLength - 4, end);
+        int i = pos + 12 + programInfoLength;
+        while (i + 5 <= sectionEnd) {
+            int streamType = packet[i] & 0xFF;
+            int elementaryPid = ((packet[i + 1] & 0x1F) << 8) | (packet[i + 2] & 0xFF);
+            int esInfoLength = ((packet[i + 3] & 0x0F) << 8) | (packet[i + 4] & 0xFF);
+            configStream(elementaryPid, streamType);
+            i += 5 + esInfoLength;
+        }
+    }
+
+    /**
+     * PMT で通知されたストリームを取り出すか設定します.
+     *
+     * @param pid PID
+     * @param streamType ストリームタイプ
+     */
+    private void configStream(int pid, int streamType) {
+        boolean selected = mCallback == null || mCallback.onConfig(pid, streamType);
+        Stream stream = mStreams[pid];
+        if (selected) {
+            if (stream == null) {
+                stream = new Stream(pid);
+                mStreams[pid] = stream;
+            }
+            stream.mStreamType = streamType;
+        } else if (stream != null) {
+            dropPes(stream);
+            mStreams[pid] = null;
+        }
+    }
+
+    /**
+     * PES ヘッダーを読み込んで、PES の書き込みを開始します.
+     *
+     * <p>
+     * PES ヘッダーが TS パケットに収まっている場合は、TS パケットから直接解析します。
+     * 複数の TS パケットに分かれている場合は、揃うまでストリームのバッファに格納してから解析します。
+     * </p>
+     *
+     * @param stream ストリーム
+     * @param packet TS パケットを格納したバッファ
+     * @param pos ペイロードの開始位置
+     * @param end TS パケットの終了位置
+     */
+    private void readPesHeader(Stream stream, byte[] packet, int pos, int end) {
+        if (stream.mHeaderLength == 0) {
+            int size = getPesHeaderSize(packet, pos, end - pos);
+            if (size > 0 && pos + size <= end) {
+                startPes(stream, packet, pos, size);
+                if (stream.mPes != null) {
+                    writePes(stream, packet, pos + size, end - pos - size);
+                }
+                return;
+            }
+        }
+
+        byte[] header = stream.mHeader;
+        while (true) {
+            int size = getPesHeaderSize(header, 0, stream.mHeaderLength);
+            if (size < 0) {
+                mDroppedPesCount++;
+                stream.mHeaderLength = 0;
+                return;
+            }
+            if (size > 0 && stream.mHeaderLength >= size) {
+                stream.mHeaderLength = 0;
+                startPes(stream, header, 0, size);
+                if (stream.mPes != null && pos < end) {
+                    writePes(stream, packet, pos, end - pos);
+                }
+                return;
+            }
+            if (pos >= end) {
+                return;
+            }
+            // サイズが分かるまでは、固定部分とオプションのヘッダーの先頭まで読み込む
+            int target = size > 0 ? size : (stream.mHeaderLength < 6 ? 6 : 9);
+            int length = Math.min(target - stream.mHeaderLength, end - pos);
+            System.arraycopy(packet, pos, header, stream.mHeaderLength, length);
+            stream.mHeaderLength += length;
+            pos += length;
+        }
+    }
+
+    /**
+     * PES ヘッダーのサイズを取得します.
+     *
+     * @param header PES ヘッダーを格納したバッファ
+     * @param pos PES ヘッダーの開始位置
+     * @param length 格納されている PES ヘッダーのサイズ
+     * @return PES ヘッダーのサイズ、サイズを求めるためのデータが足りない場合は 0、PES ヘッダーではない場合は -1
+     */
+    private static int getPesHeaderSize(byte[] header, int pos, int length) {
+        // packet_start_code_prefix
+        for (int i = 0; i < 3 && i < length; i++) {
+            if (header[pos + i] != (i < 2 ? 0x00 : 0x01)) {
+                return -1;
+            }
+        }
+        if (length < 6) {
+            return 0;
+        }
+        if (!hasOptionalHeader(header[pos + 3] & 0xFF)) {
+            return 6;
+        }
+        if (length < 9) {
+            return 0;
+        }
+        return 9 + (header[pos + 8] & 0xFF);
+    }
+
+    /**
+     * PES ヘッダーを解析して、PES の書き込みを開始します.
+     *
+     * @param stream ストリーム
+     * @param header PES ヘッダーを格納したバッファ
+     * @param pos PES ヘッダーの開始位置
+     * @param headerSize PES ヘッダーのサイズ
+     */
+    private void startPes(Stream stream, byte[] header, int pos, int headerSize) {
+        int streamId = header[pos + 3] & 0xFF;
+        int pesPacketLength = ((header[pos + 4] & 0xFF) << 8) | (header[pos + 5] & 0xFF);
+        long pts = 0;
+        long dts = 0;
+
+        if (streamId == STREAM_ID_PADDING_STREAM) {
+            return;
+        } else if (hasOptionalHeader(streamId)) {
+            int ptsDtsFlag = (header[pos + 7] & 0xC0) >> 6;
+            int pesHeaderLength = header[pos + 8] & 0xFF;
+            if ((ptsDtsFlag & 0x02) != 0 && pesHeaderLength >= 5) {
+                pts = parsePtsDts(header, pos + 9);
+            }
+            if (ptsDtsFlag == 0x03 && pesHeaderLength >= 10) {
+                dts = parsePtsDts(header, pos + 14);
+            }
+        }
+
+        Pes pes = obtainPes();
+        if (pes == null) {
+            mDroppedPesCount++;
+            return;
+        }
+
+        pes.mPid = stream.mPid;
+        pes.mStreamId = streamId;
+        pes.mStreamType = stream.mStreamType;
+        pes.mPts = pts;
+        pes.mDts = dts;
+        pes.mRandomAccess = stream.mRandomAccess;
+        pes.mBuffer.clear();
+
+        stream.mPes = pes;
+        stream.mRemaining = (pesPacketLength == 0) ? -1 : pesPacketLength - (headerSize - 6);
+    }
+
+    /**
+     * PES のペイロードを書き込みます.
+     *
+     * <p>
+     * PES_packet_length が指定されている場合には、全てのペイロードを受信した時点で通知します。
+     * </p>
+     *
+     * @param stream ストリーム
+     * @param packet TS パケットを格納したバッファ
+     * @param pos ペイロードの開始位置
+     * @param length ペイロードのサイズ
+     */
+    private void writePes(Stream stream, byte[] packet, int pos, int length) {
+        if (stream.mRemaining >= 0) {
+            length = Math.min(length, stream.mRemaining);
+            stream.mRemaining -= length;
+        }
+
+        Pes pes = stream.mPes;
+        pes.ensureCapacity(length);
+        pes.mBuffer.put(packet, pos, length);
+
+        if (stream.mRemaining == 0) {
+            finishPes(stream);
+        }
+    }
+
+    /**
+     * 書き込んでいた PES をコールバックに通知します.
+     *
+     * @param stream ストリーム
+     */
+    private void finishPes(Stream stream) {
+        Pes pes = stream.mPes;
+        if (pes == null) {
+            return;
+        }
+        stream.mPes = null;
+
+        if (pes.mBuffer.position() == 0 || mCallback == null) {
+            pes.release();
+            return;
+        }
+
+        pes.mBuffer.flip();
+        mCallback.onPes(pes);
+    }
+
+    /**
+     * 書き込んでいた PES を破棄します.
+     *
+     * @param stream ストリーム
+     */
+    private void dropPes(Stream stream) {
+        if (stream.mHeaderLength > 0) {
+            mDroppedPesCount++;
+            stream.mHeaderLength = 0;
+        }
+        if (stream.mPes != null) {
+            mDroppedPesCount++;
+            stream.mPes.release();
+            stream.mPes = null;
+        }
+    }
+
+    /**
+     * プールから未使用の PES を取得します.
+     *
+     * @return 未使用の PES、プールに空きがない場合は null
+     */
+    private Pes obtainPes() {
+        synchronized (mFreePes) {
+            Pes pes = mFreePes.poll();
+            if (pes != null) {
+                pes.mReleased = false;
+            }
+            return pes;
+        }
+    }
+
+    /**
+     * PES をプールに戻します.
+     *
+     * <p>
+     * 同じ PES が二重にプールに戻されると、別の PES として同時に使用されてしまうので例外を発生させます。
+     * </p>
+     *
+     * @param pes PES
+     * @throws IllegalStateException 既にプールに戻されている場合に発生
+     */
+    private void recyclePes(Pes pes) {
+        synchronized (mFreePes) {
+            if (pes.mReleased) {
+                throw new IllegalStateException("PES is already released.");
+            }
+            pes.mReleased = true;
+            mFreePes.offer(pes);
+        }
+    }
+
+    /**
+     * PAT、PMT のセクションのサイズを取得します.
+     *
+     * @param section セクションを格納したバッファ
+     * @param pos セクションの開始位置
+     * @return table_id から CRC までのサイズ
+     */
+    private static int getSectionSize(byte[] section, int pos) {
+        return 3 + (((section[pos + 1] & 0x0F) << 8) | (section[pos + 2] & 0xFF));
+    }
+
+    /**
+     * PES ヘッダーにオプションのヘッダーが含まれるか確認します.
+     *
+     * @param streamId ストリーム ID
+     * @return オプションのヘッダーが含まれる場合は true、それ以外は false
+     */
+    private static boolean hasOptionalHeader(int streamId) {
+        return streamId != STREAM_ID_PROGRAM_STREAM_MAP &&
+                streamId != STREAM_ID_PADDING_STREAM &&
+                streamId != STREAM_ID_PRIVATE_STREAM_2 &&
+                streamId != STREAM_ID_ECM_STREAM &&
+                streamId != STREAM_ID_EMM_STREAM &&
+                streamId != STREAM_ID_PROGRAM_STREAM_DIRECTORY &&
+                streamId != STREAM_ID_DSMCC_STREAM &&
+                streamId != STREAM_ID_H222_STREAM;
+    }
+
+    /**
+     * PTS, DTS を解析します.
+     *
+     * @param packet TS パケットを格納したバッファ
+     * @param pos PTS, DTS の開始位置
+     * @return PTS or DTS の値
+     */
+    private static long parsePtsDts(byte[] packet, int pos) {
+        return (((long) (packet[pos] & 0x0E)) << 29) |
+                ((packet[pos + 1] & 0xFF) << 22) |
+                ((packet[pos + 2] & 0xFE) << 14) |
+                ((packet[pos + 3] & 0xFF) << 7) |
+                ((packet[pos + 4] & 0xFE) >> 1);
+    }
+
+    /**
+     * PID ごとの解析状態を保持するクラス.
+     */
+    private static class Stream {
+        /**
+         * PID.
+         */
+        final int mPid;
+
+        /**
+         * ストリームタイプ.
+         */
+        int mStreamType;
+
+        /**
+         * 前回送られてきた continuity_counter の値.
+         */
+        int mContinuityCounter = -1;
+
+        /**
+         * 書き込み中の PES.
+         */
+        Pes mPes;
+
+        /**
+         * PES の残りのペイロードサイズ. サイズが指定されていない場合は -1.
+         */
+        int mRemaining;
+
+        /**
+         * 複数の TS パケットに分かれている PES ヘッダーを格納するバッファ.
+         */
+        final byte[] mHeader = new byte[MAX_PES_HEADER_SIZE];
+
+        /**
+         * mHeader に格納した PES ヘッダーのサイズ. 格納していない場合は 0.
+         */
+        int mHeaderLength;
+
+        /**
+         * PES の先頭の TS パケットの random_access_indicator の値.
+         */
+        boolean mRandomAccess;
+
+        Stream(int pid) {
+            mPid = pid;
+        }
+    }
+
+    /**
+     * TS パケットから取り出した PES.
+     */
+    public static final class Pes {
+        /**
+         * PES をプールしている TsDemuxer.
+         */
+        private final TsDemuxer mOwner;
+
+        /**
+         * PES のペイロードを格納するバッファ.
+         */
+        private ByteBuffer mBuffer;
+
+        private int mPid;
+        private int mStreamId;
+        private int mStreamType;
+        private long mPts;
+        private long mDts;
+        private boolean mRandomAccess;
+
+        /**
+         * プールに戻されている場合は true.
+         *
+         * <p>
+         * TsDemuxer の PES のプールで同期して参照します。
+         * </p>
+         */
+        private boolean mReleased = true;
+
+        /**
+         * コンストラクタ.
+         *
+         * @param owner PES をプールしている TsDemuxer
+         * @param bufferSize バッファの初期サイズ
+         */
+        private Pes(TsDemuxer owner, int bufferSize) {
+            mOwner = owner;
+            mBuffer = ByteBuffer.allocate(bufferSize);
+        }
+
+        /**
+         * 指定されたサイズを書き込めるようにバッファを拡張します.
+         *
+         * @param length 書き込むサイズ
+         */
+        private void ensureCapacity(int length) {
+            if (mBuffer.remaining() < length) {
+                ByteBuffer buffer = ByteBuffer.allocate(Math.max(mBuffer.capacity() * 2, mBuffer.position() + length));
+                mBuffer.flip();
+                buffer.put(mBuffer);
+                mBuffer = buffer;
+            }
+        }
+
+        /**
+         * PES のペイロードを格納したバッファを取得します.
+         *
+         * <p>
+         * バッファの position は 0、limit はペイロードのサイズになっています。
+         * バッファはヒープに確保しているので、{@link ByteBuffer#array()} で配列としても参照できます。
+         * </p>
+         *
+         * @return バッファ
+         */
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        /**
+         * PES の PID を取得します.
+         *
+         * @return PID
+         */
+        public int getPid() {
+            return mPid;
+        }
+
+        /**
+         * ストリーム ID を取得します.
+         *
+         * @return ストリーム ID
+         */
+        public int getStreamId() {
+            return mStreamId;
+        }
+
+        /**
+         * PMT で通知されたストリームタイプを取得します.
+         *
+         * @return ストリームタイプ
+         */
+        public int getStreamType() {
+            return mStreamType;
+        }
+
+        /**
+         * Presentation timestamp を取得します.
+         *
+         * @return Presentation timestamp
+         */
+        public long getPts() {
+            return mPts;
+        }
+
+        /**
+         * Decode timestamp を取得します.
+         *
+         * @return Decode timestamp, 含まれていない場合は 0
+         */
+        public long getDts() {
+            return mDts;
+        }
+
+        /**
+         * random_access_indicator が設定されていたか確認します.
+         *
+         * @return 設定されていた場合は true、それ以外は false
+         */
+        public boolean isRandomAccess() {
+            return mRandomAccess;
+        }
+
+        /**
+         * PES をプールに戻します.
+         *
+         * <p>
+         * 呼び出した後は、バッファを参照しないでください。
+         * </p>
+         *
+         * @throws IllegalStateException 既にプールに戻されている場合に発生
+         */
+        public void release() {
+            mOwner.recyclePes(this);
+        }
+    }
+
+    /**
+     * 取り出した PES を通知するコールバック.
+     */
+    public interface Callback {
+        /**
+         * PMT に含まれるストリームを通知します.
+         *
+         * <p>
+         * PMT を受信するたびに、全てのストリームを通知します。
+         * </p>
+         *
+         * @param pid PID
+         * @param streamType ストリームタイプ
+         * @return PES を取り出す場合は true、破棄する場合は false
+         */
+        boolean onConfig(int pid, int streamType);
+
+        /**
+         * 取り出した PES を通知します.
+         *
+         * <p>
+         * 使用後は {@link Pes#release()} を呼び出してプールに戻してください。
+         * 別のスレッドでデコードする場合には、デコーダに渡した後に戻すことができます。
+         * </p>
+         *
+         * @param pes PES
+         */
+        void onPes(Pes pes);
+    }
+}
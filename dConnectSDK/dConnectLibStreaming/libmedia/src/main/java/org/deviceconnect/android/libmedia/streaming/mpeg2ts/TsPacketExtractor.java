@@ -2,8 +2,16 @@ package org.deviceconnect.android.libmedia.streaming.mpeg2ts;
 
 import org.deviceconnect.android.libmedia.streaming.util.QueueThread;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
 /**
  * TS パケットからストリームを取り出すためのクラス.
+ *
+ * <p>
+ * TS パケットの解析は {@link TsDemuxer} で行います。
+ * 追加されたデータを格納する Buffer は、解析後に再利用します。
+ * </p>
  */
 public class TsPacketExtractor extends QueueThread<Buffer> {
     /**
@@ -16,6 +24,11 @@ public class TsPacketExtractor extends QueueThread<Buffer> {
      */
     private boolean mStopFlag;
 
+    /**
+     * 解析が終わった Buffer のプール.
+     */
+    private final ArrayDeque<Buffer> mFreeBuffers = new ArrayDeque<>();
+
     /**
      * コンストラクタ.
      */
@@ -39,9 +52,17 @@ public class TsPacketExtractor extends QueueThread<Buffer> {
      * @param dataLength データサイズ
      */
     public void add(byte[] data, int dataLength) {
-        // TODO 常に new しているので、GC が発生しやすい。
-        //      オブジェクトを使い回すようにすること。
-        add(new Buffer(data, dataLength));
+        Buffer buffer;
+        synchronized (mFreeBuffers) {
+            buffer = mFreeBuffers.poll();
+        }
+
+        if (buffer == null || buffer.mData.length < dataLength) {
+            buffer = new Buffer(data, dataLength);
+        } else {
+            buffer.setData(data, dataLength);
+        }
+        add(buffer);
     }
 
     /**
@@ -62,17 +83,47 @@ public class TsPacketExtractor extends QueueThread<Buffer> {
     @Override
     public void run() {
         try {
-            TsPacketReader packetReader = new TsPacketReader();
-            packetReader.setCallback(mCallback);
+            TsDemuxer demuxer = new TsDemuxer();
+            demuxer.setCallback(mDemuxerCallback);
 
             while (!mStopFlag) {
-                packetReader.readPacket(get());
+                Buffer buffer = get();
+                demuxer.feed(buffer.mData, 0, buffer.mLength);
+                synchronized (mFreeBuffers) {
+                    mFreeBuffers.offer(buffer);
+                }
             }
         } catch (Exception e) {
             // ignore.
         }
     }
 
+    /**
+     * TsDemuxer で取り出した PES をコールバックに通知します.
+     */
+    private final TsDemuxer.Callback mDemuxerCallback = new TsDemuxer.Callback() {
+        @Override
+        public boolean onConfig(int pid, int streamType) {
+            if (mCallback != null) {
+                mCallback.onConfig(pid, streamType);
+            }
+            return true;
+        }
+
+        @Override
+        public void onPes(TsDemuxer.Pes pes) {
+            try {
+                if (mCallback != null) {
+                    ByteBuffer buffer = pes.getBuffer();
+                    mCallback.onByteStream(pes.getPid(), pes.getStreamId(),
+                            buffer.array(), buffer.limit(), pes.getPts());
+                }
+            } finally {
+                pes.release();
+            }
+        }
+    };
+
     /**
      * ストリームから抽出した TS パケット通知するリスナー.
      */
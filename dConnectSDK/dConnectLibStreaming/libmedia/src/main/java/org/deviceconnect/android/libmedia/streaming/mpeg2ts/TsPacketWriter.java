@@ -3,7 +3,21 @@ package org.deviceconnect.android.libmedia.streaming.mpeg2ts;
 import org.deviceconnect.android.libmedia.streaming.util.CrcUtil;
 
 import java.nio.ByteBuffer;
-
+import java.util.Arrays;
+
+/**
+ * PES を TS パケットに変換して、指定されたバッファに書き込むクラス.
+ *
+ * <p>
+ * TS パケットは中間のバッファを介さずに、{@link #setBuffer(ByteBuffer)} で指定されたバッファに直接書き込みます。
+ * バッファに TS パケットを書き込む空きがなくなった場合と、PES の最後のパケットを書き込んだ場合に
+ * {@link Callback} に通知します。
+ * </p>
+ *
+ * <p>
+ * PAT、PMT は CRC を含めて事前に作成しておき、書き込み時には continuity_counter だけを更新します。
+ * </p>
+ */
 class TsPacketWriter implements TsConstants {
     private static final int TS_AUDIO_PID = 0x101;   // 257
     private static final int TS_VIDEO_PID = 0x100;   // 256
@@ -13,8 +27,13 @@ class TsPacketWriter implements TsConstants {
     private static final int TS_PMT_TABLE_ID = 0x02;
 
     // H264, H265 AUD NALU
-    private static byte[] H264_NAL = {0x00, 0x00, 0x00, 0x01, 0x09, (byte) 0xF0};
-    private static byte[] H265_NAL = {0x00, 0x00, 0x00, 0x01, 0x46, 0x01, 0x50};
+    private static final byte[] H264_NAL = {0x00, 0x00, 0x00, 0x01, 0x09, (byte) 0xF0};
+    private static final byte[] H265_NAL = {0x00, 0x00, 0x00, 0x01, 0x46, 0x01, 0x50};
+
+    /**
+     * 事前に作成した PAT のパケット.
+     */
+    private static final byte[] PAT_PACKET = createPAT();
 
     // ContinuityCounter
     private byte mAudioContinuityCounter = 0;
@@ -22,15 +41,44 @@ class TsPacketWriter implements TsConstants {
     private int mPatContinuityCounter = 0;
     private int mPmtContinuityCounter = 0;
 
-    private final TsPacket mPacket = new TsPacket();
+    /**
+     * 事前に作成した PMT のパケット.
+     */
+    private byte[] mPmtPacket;
+
+    /**
+     * PMT を作成したフレームタイプ.
+     */
+    private FrameType mPmtFrameType;
+
+    /**
+     * PMT を作成した映像ストリームのタイプ.
+     */
+    private int mPmtVideoStreamType;
+
+    /**
+     * PMT を作成した音声ストリームのタイプ.
+     */
+    private int mPmtAudioStreamType;
+
+    /**
+     * TS パケットを書き込むバッファ.
+     */
+    private ByteBuffer mBuffer;
 
     public interface Callback {
         /**
-         * TS パケットを通知します.
+         * TS パケットを書き込んだバッファを通知します.
          *
-         * @param packet パケット
+         * <p>
+         * バッファの position は 0、limit は書き込んだサイズになっています。
+         * 通知から戻った後にバッファはクリアして再利用するので、必要なデータはコールバックの中で処理してください。
+         * </p>
+         *
+         * @param buffer TS パケットを書き込んだバッファ
+         * @param endOfPes PES の最後の TS パケットを含む場合は true、それ以外は false
          */
-        void onPacket(final byte[] packet);
+        void onBuffer(ByteBuffer buffer, boolean endOfPes);
     }
 
     /**
@@ -48,76 +96,89 @@ class TsPacketWriter implements TsConstants {
     }
 
     /**
-     * TS パケットに指定された値を書き込みます.
+     * TS パケットを書き込むバッファを設定します.
      *
-     * @param b 書き込む値
-     */
-    private void writePacket(byte b) {
-        mPacket.add(b);
-    }
-
-    /**
-     * TS パケットに指定されたバッファを書き込みます.
-     * @param buffer 書き込むバッファ
-     * @param offset 書き込むバッファのオフセット
-     * @param length 書き込むバッファのサイズ
-     */
-    private void writePacket(byte[] buffer, int offset, int length) {
-        mPacket.add(buffer, offset, length);
-    }
-
-    /**
-     * TS パケットのデータを指定されたパケットで初期化します.
+     * <p>
+     * バッファには TS パケット単位で書き込むので、容量は {@link #TS_PACKET_SIZE} の倍数を指定してください。
+     * 例えば、SRT や UDP のペイロードに合わせる場合には 7 * 188 を指定します。
+     * </p>
      *
-     * @param b 初期化する値
+     * @param buffer バッファ
+     * @throws IllegalArgumentException バッファの容量が TS パケットのサイズよりも小さい場合に発生
      */
-    private void resetPacket(final byte b) {
-        mPacket.reset(b);
+    public void setBuffer(final ByteBuffer buffer) {
+        if (buffer.capacity() < TS_PACKET_SIZE) {
+            throw new IllegalArgumentException("buffer is too small.");
+        }
+        buffer.clear();
+        mBuffer = buffer;
     }
 
     /**
-     * TS パケットを送信します.
+     * TS パケットの書き込みを終了します.
+     *
+     * <p>
+     * バッファに TS パケットを書き込む空きがなくなった場合と、PES の最後の場合にはコールバックに通知します。
+     * </p>
      *
-     * @param flush パケットを強制送信する場合はtrue、それ以外はfalse
+     * @param endOfPes PES の最後の TS パケットの場合は true、それ以外は false
      */
-    private void notifyPacket(boolean flush) {
-        if (mCallback != null) {
-            mCallback.onPacket(mPacket.mData);
-            if (flush) {
-                mCallback.onPacket(null);
+    private void notifyPacket(boolean endOfPes) {
+        if (endOfPes || mBuffer.remaining() < TS_PACKET_SIZE) {
+            mBuffer.flip();
+            if (mCallback != null) {
+                mCallback.onBuffer(mBuffer, endOfPes);
             }
+            mBuffer.clear();
         }
     }
 
     /**
-     * TS パケットのヘッダーを作成します.
+     * PAT、PMT の TS パケットのヘッダーを作成します.
      *
+     * @param packet 書き込み先のパケット
      * @param pid PID
-     * @param continuity_counter カウンター
      */
-    private void writeTsHeader(int pid, int continuity_counter) {
+    private static void writeTsHeader(ByteBuffer packet, int pid) {
         int transport_error_indicator = 0;
         int payload_unit_start_indicator = 1;
         int transport_priority = 0;
         int transport_scrambling_control = 0;
         int adaptation_field_control = 1;
 
-        writePacket(SYNC_BYTE);
-        writePacket((byte) ((transport_error_indicator << 7) | (payload_unit_start_indicator << 6) | (transport_priority << 5) | ((pid >> 8) & 0x1F)));
-        writePacket((byte) (pid & 0xff));
-        writePacket((byte) ((transport_scrambling_control << 6) | (adaptation_field_control << 4) | (continuity_counter & 0x0F)));
-        writePacket((byte) 0x00);
+        packet.put(SYNC_BYTE);
+        packet.put((byte) ((transport_error_indicator << 7) | (payload_unit_start_indicator << 6) | (transport_priority << 5) | ((pid >> 8) & 0x1F)));
+        packet.put((byte) (pid & 0xff));
+        // continuity_counter は書き込み時に設定します
+        packet.put((byte) ((transport_scrambling_control << 6) | (adaptation_field_control << 4)));
+        packet.put((byte) 0x00);
+    }
+
+    /**
+     * セクションの CRC を書き込みます.
+     *
+     * @param packet 書き込み先のパケット
+     */
+    private static void writeCrc(ByteBuffer packet) {
+        long crc = CrcUtil.crc32(packet.array(), 5, packet.position() - 5);
+        packet.put((byte) ((crc >> 24) & 0xFF));
+        packet.put((byte) ((crc >> 16) & 0xFF));
+        packet.put((byte) ((crc >> 8) & 0xFF));
+        packet.put((byte) ((crc) & 0xFF));
     }
 
     /**
-     * PAT を作成します.
+     * PAT のパケットを作成します.
+     *
+     * @return PAT のパケット
      */
-    void writePAT() {
-        resetPacket((byte) 0xFF);
+    private static byte[] createPAT() {
+        byte[] data = new byte[TS_PACKET_SIZE];
+        Arrays.fill(data, (byte) 0xFF);
+        ByteBuffer packet = ByteBuffer.wrap(data);
 
         // TS Header
-        writeTsHeader(TS_PAT_PID, mPatContinuityCounter);
-        mPatContinuityCounter = (mPatContinuityCounter + 1) & 0x0F;
+        writeTsHeader(packet, TS_PAT_PID);
 
         // PAT body
         int section_syntax_indicator = 1;
@@ -134,31 +195,26 @@ class TsPacketWriter implements TsConstants {
         int reserved_3 = 7;
         int program_id = TS_PMT_PID;
 
-        writePacket((byte) TS_PAT_TABLE_ID);
-        writePacket((byte) ((section_syntax_indicator << 7) | (zero << 6) | (reserved_1 << 4) | ((section_length >> 8) & 0x0F)));
-        writePacket((byte) (section_length & 0xFF));
-        writePacket((byte) ((transport_stream_id >> 8) & 0xFF));
-        writePacket((byte) (transport_stream_id & 0xFF));
-        writePacket((byte) ((reserved_2 << 6) | (version_number << 1) | (current_next_indicator & 0x01)));
-        writePacket((byte) (section_number & 0xFF));
-        writePacket((byte) (last_section_number & 0xFF));
-        writePacket((byte) ((program_number >> 8) & 0xFF));
-        writePacket((byte) (program_number & 0xFF));
-        writePacket((byte) ((reserved_3 << 5) | ((program_id >> 8) & 0x1F)));
-        writePacket((byte) (program_id & 0xFF));
-
-        // set crc32
-        long crc = CrcUtil.crc32(mPacket.mData, 5, 12);
-        writePacket((byte) ((crc >> 24) & 0xFF));
-        writePacket((byte) ((crc >> 16) & 0xFF));
-        writePacket((byte) ((crc >> 8) & 0xFF));
-        writePacket((byte) ((crc) & 0xFF));
-
-        notifyPacket(false);
+        packet.put((byte) TS_PAT_TABLE_ID);
+        packet.put((byte) ((section_syntax_indicator << 7) | (zero << 6) | (reserved_1 << 4) | ((section_length >> 8) & 0x0F)));
+        packet.put((byte) (section_length & 0xFF));
+        packet.put((byte) ((transport_stream_id >> 8) & 0xFF));
+        packet.put((byte) (transport_stream_id & 0xFF));
+        packet.put((byte) ((reserved_2 << 6) | (version_number << 1) | (current_next_indicator & 0x01)));
+        packet.put((byte) (section_number & 0xFF));
+        packet.put((byte) (last_section_number & 0xFF));
+        packet.put((byte) ((program_number >> 8) & 0xFF));
+        packet.put((byte) (program_number & 0xFF));
+        packet.put((byte) ((reserved_3 << 5) | ((program_id >> 8) & 0x1F)));
+        packet.put((byte) (program_id & 0xFF));
+
+        writeCrc(packet);
+
+        return data;
     }
 
     /**
-     * PMT を作成します.
+     * PMT のパケットを作成します.
      *
      * <p>
      *     only audio , section_length = 18
@@ -168,13 +224,15 @@ class TsPacketWriter implements TsConstants {
      * @param frameType フレームタイプ
      * @param videoStreamType 映像ストリームのタイプ
      * @param audioStreamType 音声ストリームのタイプ
+     * @return PMT のパケット
      */
-    void writePMT(FrameType frameType, int videoStreamType, int audioStreamType) {
-        resetPacket((byte) 0xFF);
+    private static byte[] createPMT(FrameType frameType, int videoStreamType, int audioStreamType) {
+        byte[] data = new byte[TS_PACKET_SIZE];
+        Arrays.fill(data, (byte) 0xFF);
+        ByteBuffer packet = ByteBuffer.wrap(data);
 
         // TS Header
-        writeTsHeader(TS_PMT_PID, mPmtContinuityCounter);
-        mPmtContinuityCounter = (mPmtContinuityCounter + 1) & 0x0F;
+        writeTsHeader(packet, TS_PMT_PID);
 
         // PMT body
         int section_syntax_indicator = 1;
@@ -192,59 +250,97 @@ class TsPacketWriter implements TsConstants {
         int reserved_4 = 15;
         int program_info_length = 0;
 
-        writePacket((byte) TS_PMT_TABLE_ID);
-        writePacket((byte) ((section_syntax_indicator << 7) | (zero << 6) | (reserved_1 << 4) | ((section_length >> 8) & 0x0F)));
-        writePacket((byte) (section_length & 0xFF));
-        writePacket((byte) ((program_number >> 8) & 0xFF));
-        writePacket((byte) (program_number & 0xFF));
-        writePacket((byte) ((reserved_2 << 6) | (version_number << 1) | (current_next_indicator & 0x01)));
-        writePacket((byte) section_number);
-        writePacket((byte) last_section_number);
-        writePacket((byte) ((reserved_3 << 5) | ((pcr_pid >> 8) & 0xFF)));
-        writePacket((byte) (pcr_pid & 0xFF));
-        writePacket((byte) ((reserved_4 << 4) | ((program_info_length >> 8) & 0xFF)));
-        writePacket((byte) (program_info_length & 0xFF));
+        packet.put((byte) TS_PMT_TABLE_ID);
+        packet.put((byte) ((section_syntax_indicator << 7) | (zero << 6) | (reserved_1 << 4) | ((section_length >> 8) & 0x0F)));
+        packet.put((byte) (section_length & 0xFF));
+        packet.put((byte) ((program_number >> 8) & 0xFF));
+        packet.put((byte) (program_number & 0xFF));
+        packet.put((byte) ((reserved_2 << 6) | (version_number << 1) | (current_next_indicator & 0x01)));
+        packet.put((byte) section_number);
+        packet.put((byte) last_section_number);
+        packet.put((byte) ((reserved_3 << 5) | ((pcr_pid >> 8) & 0xFF)));
+        packet.put((byte) (pcr_pid & 0xFF));
+        packet.put((byte) ((reserved_4 << 4) | ((program_info_length >> 8) & 0xFF)));
+        packet.put((byte) (program_info_length & 0xFF));
 
         // set video stream info
         if (frameType == FrameType.VIDEO || frameType == FrameType.MIXED) {
-            int stream_type = videoStreamType;
-            int reserved_5 = 7;
-            int elementary_pid = TS_VIDEO_PID;
-            int reserved_6 = 15;
-            int ES_info_length = 0;
-
-            writePacket((byte) stream_type);
-            writePacket((byte) ((reserved_5 << 5) | ((elementary_pid >> 8) & 0x1F)));
-            writePacket((byte) (elementary_pid & 0xFF));
-            writePacket((byte) ((reserved_6 << 4) | ((ES_info_length >> 4) & 0x0F)));
-            writePacket((byte) (ES_info_length & 0xFF));
+            writeStreamInfo(packet, videoStreamType, TS_VIDEO_PID);
         }
 
         // set audio stream info
         if (frameType == FrameType.AUDIO || frameType == FrameType.MIXED) {
-            int stream_type = audioStreamType;
-            int reserved_5 = 7;
-            int elementary_pid = TS_AUDIO_PID;
-            int reserved_6 = 15;
-            int ES_info_length = 0;
-
-            writePacket((byte) stream_type);
-            writePacket((byte) ((reserved_5 << 5) | ((elementary_pid >> 8) & 0x1F)));
-            writePacket((byte) (elementary_pid & 0xFF));
-            writePacket((byte) ((reserved_6 << 4) | ((ES_info_length >> 4) & 0x0F)));
-            writePacket((byte) (ES_info_length & 0xFF));
+            writeStreamInfo(packet, audioStreamType, TS_AUDIO_PID);
         }
 
-        // set crc32
-        long crc = CrcUtil.crc32(mPacket.mData, 5, (frameType == FrameType.MIXED) ? 22 : 17);
-        writePacket((byte) ((crc >> 24) & 0xFF));
-        writePacket((byte) ((crc >> 16) & 0xFF));
-        writePacket((byte) ((crc >> 8) & 0xFF));
-        writePacket((byte) ((crc) & 0xFF));
+        writeCrc(packet);
+
+        return data;
+    }
+
+    /**
+     * PMT にストリームの情報を書き込みます.
+     *
+     * @param packet 書き込み先のパケット
+     * @param stream_type ストリームのタイプ
+     * @param elementary_pid ストリームの PID
+     */
+    private static void writeStreamInfo(ByteBuffer packet, int stream_type, int elementary_pid) {
+        int reserved_5 = 7;
+        int reserved_6 = 15;
+        int ES_info_length = 0;
+
+        packet.put((byte) stream_type);
+        packet.put((byte) ((reserved_5 << 5) | ((elementary_pid >> 8) & 0x1F)));
+        packet.put((byte) (elementary_pid & 0xFF));
+        packet.put((byte) ((reserved_6 << 4) | ((ES_info_length >> 4) & 0x0F)));
+        packet.put((byte) (ES_info_length & 0xFF));
+    }
 
+    /**
+     * 事前に作成したパケットに continuity_counter を設定して書き込みます.
+     *
+     * @param packet 事前に作成したパケット
+     * @param continuity_counter カウンター
+     */
+    private void writeTable(byte[] packet, int continuity_counter) {
+        int start = mBuffer.position();
+        mBuffer.put(packet);
+        mBuffer.put(start + 3, (byte) (packet[3] | (continuity_counter & 0x0F)));
         notifyPacket(false);
     }
 
+    /**
+     * PAT を書き込みます.
+     */
+    void writePAT() {
+        writeTable(PAT_PACKET, mPatContinuityCounter);
+        mPatContinuityCounter = (mPatContinuityCounter + 1) & 0x0F;
+    }
+
+    /**
+     * PMT を書き込みます.
+     *
+     * <p>
+     * 前回と同じストリームの構成の場合には、作成済みの PMT を使用します。
+     * </p>
+     *
+     * @param frameType フレームタイプ
+     * @param videoStreamType 映像ストリームのタイプ
+     * @param audioStreamType 音声ストリームのタイプ
+     */
+    void writePMT(FrameType frameType, int videoStreamType, int audioStreamType) {
+        if (mPmtPacket == null || mPmtFrameType != frameType
+                || mPmtVideoStreamType != videoStreamType || mPmtAudioStreamType != audioStreamType) {
+            mPmtPacket = createPMT(frameType, videoStreamType, audioStreamType);
+            mPmtFrameType = frameType;
+            mPmtVideoStreamType = videoStreamType;
+            mPmtAudioStreamType = audioStreamType;
+        }
+        writeTable(mPmtPacket, mPmtContinuityCounter);
+        mPmtContinuityCounter = (mPmtContinuityCounter + 1) & 0x0F;
+    }
+
     /**
      * PTS、DTS のデータを書き込みます.
      *
@@ -256,189 +352,220 @@ class TsPacketWriter implements TsConstants {
         int pts2 = (int) ((value >> 15) & 0x7FFF);
         int pts3 = (int) (value & 0x7FFF);
 
-        writePacket((byte) ((guard_bits << 4) | (pts1 << 1) | 0x01));
-        writePacket((byte) ((pts2 & 0x7F80) >> 7));
-        writePacket((byte) (((pts2 & 0x007F) << 1) | 0x01));
-        writePacket((byte) ((pts3 & 0x7F80) >> 7));
-        writePacket((byte) (((pts3 & 0x007F) << 1) | 0x01));
+        mBuffer.put((byte) ((guard_bits << 4) | (pts1 << 1) | 0x01));
+        mBuffer.put((byte) ((pts2 & 0x7F80) >> 7));
+        mBuffer.put((byte) (((pts2 & 0x007F) << 1) | 0x01));
+        mBuffer.put((byte) ((pts3 & 0x7F80) >> 7));
+        mBuffer.put((byte) (((pts3 & 0x007F) << 1) | 0x01));
+    }
+
+    /**
+     * PES の先頭に挿入する AUD を取得します.
+     *
+     * <p>
+     * データの先頭に AUD が含まれている場合には挿入しないので null を返却します。
+     * </p>
+     *
+     * @param pes PES データ
+     * @return 挿入する AUD、挿入しない場合は null
+     */
+    private static byte[] getAud(PES pes) {
+        if (pes.isAudio()) {
+            return null;
+        }
+
+        // TODO この記述は必要か確認すること。
+        byte[] aud;
+        switch (pes.mStreamType) {
+            case STREAM_TYPE_VIDEO_H264:
+                aud = H264_NAL;
+                break;
+            case STREAM_TYPE_VIDEO_H265:
+                aud = H265_NAL;
+                break;
+            default:
+                // not implements
+                return null;
+        }
+        return startsWith(pes.mData, pes.mDataLength, aud) ? null : aud;
     }
 
     /**
      * PES のデータを書き込みます.
      *
+     * <p>
+     * PES のデータはコピーせずに、TS パケットのペイロードとしてバッファに直接書き込みます。
+     * 書き込み後、PES のデータのバッファの position は書き込んだサイズだけ進みます。
+     * </p>
+     *
      * @param pes PES データ
      */
     void writePES(PES pes) {
-        boolean isFirstTs = true;
-        int frameBufPtr = 0;
+        ByteBuffer data = pes.mData;
+        int dataLimit = data.limit();
         int pid = pes.isAudio() ? TS_AUDIO_PID : TS_VIDEO_PID;
+        byte[] aud = getAud(pes);
+        byte PTS_DTS_flags = pes.isFrame() ? (byte) (pes.hasDTS() ? 0xC0 : 0x80) : (byte) 0x00;
 
-        while (frameBufPtr < pes.mDataLength) {
-            int frameBufRemaining = pes.mDataLength - frameBufPtr;
+        boolean isFirstTs = true;
+        int frameBufRemaining = pes.mDataLength;
+
+        while (frameBufRemaining > 0) {
             boolean isAdaptationField = (isFirstTs || (frameBufRemaining < TS_PAYLOAD_SIZE));
 
-            // TS パケットを 0x00 で初期化しておく
-            resetPacket((byte) 0x00);
+            // TS ヘッダー以降のヘッダーサイズを計算して、ペイロードに入りきらない分をパディングにする
+            int adaptationFieldLength;
+            int headerSize = TS_HEADER_SIZE;
+            if (isFirstTs) {
+                adaptationFieldLength = pes.isFrame() ? 7 : 1;
+                headerSize += 1 + adaptationFieldLength + getPesHeaderSize(PTS_DTS_flags) + (aud != null ? aud.length : 0);
+            } else if (isAdaptationField) {
+                adaptationFieldLength = 1;
+                headerSize += 1 + adaptationFieldLength;
+            } else {
+                adaptationFieldLength = 0;
+            }
+
+            int payloadSize = TS_PACKET_SIZE - headerSize;
+            int paddingSize = 0;
+            if (frameBufRemaining < payloadSize) {
+                paddingSize = payloadSize - frameBufRemaining;
+                payloadSize = frameBufRemaining;
+            }
 
             // write ts header
-            writePacket(SYNC_BYTE);
-            writePacket((byte) ((isFirstTs ? 0x40 : 0x00) | ((pid >> 8) & 0x1F)));
-            writePacket((byte) (pid & 0xFF));
-            writePacket((byte) ((isAdaptationField ? 0x30 : 0x10) | ((pes.isAudio() ? mAudioContinuityCounter++ : mVideoContinuityCounter++) & 0xF)));
+            mBuffer.put(SYNC_BYTE);
+            mBuffer.put((byte) ((isFirstTs ? 0x40 : 0x00) | ((pid >> 8) & 0x1F)));
+            mBuffer.put((byte) (pid & 0xFF));
+            mBuffer.put((byte) ((isAdaptationField ? 0x30 : 0x10) | ((pes.isAudio() ? mAudioContinuityCounter++ : mVideoContinuityCounter++) & 0xF)));
 
-            if (isFirstTs) {
-                if (pes.isFrame()) {
-                    writePacket((byte) 0x07); // adaptation_field_length
-                    writePacket((byte) 0x50); // random_access_indicator, PCR_flag
+            if (isAdaptationField) {
+                mBuffer.put((byte) (adaptationFieldLength + paddingSize)); // adaptation_field_length
 
-                    // write PCR
-                    writePacket((byte) ((pes.mPCR >> 25) & 0xFF));
-                    writePacket((byte) ((pes.mPCR >> 17) & 0xFF));
-                    writePacket((byte) ((pes.mPCR >> 9) & 0xFF));
-                    writePacket((byte) ((pes.mPCR >> 1) & 0xFF));
-                    writePacket((byte) 0x00); //(byte) (pcr << 7 | 0x7E); // (6bit) reserved， 0x00
-                    writePacket((byte) 0x00);
-                } else {
-                    writePacket((byte) 0x01); // adaptation_field_length
-                    writePacket((byte) ((pes.isAudio() || pes.isFrame() ? 0x40 : 0x00)));
-                }
+                if (isFirstTs && pes.isFrame()) {
+                    mBuffer.put((byte) 0x50); // random_access_indicator, PCR_flag
 
-                // write packet_start_code_prefix
-                writePacket((byte) 0x00);
-                writePacket((byte) 0x00);
-                writePacket((byte) 0x01);
-                writePacket((byte) (pes.mStreamId & 0xFF));
-
-                // PES パケットサイズ
-                if (pes.isAudio()) {
-                    int header_size = pes.hasDTS() ? 10 : 5;
-                    int pes_size = pes.mDataLength + header_size + 3;
-                    writePacket((byte) ((pes_size >> 8) & 0xFF));
-                    writePacket((byte) (pes_size & 0xFF));
+                    // write PCR
+                    mBuffer.put((byte) ((pes.mPCR >> 25) & 0xFF));
+                    mBuffer.put((byte) ((pes.mPCR >> 17) & 0xFF));
+                    mBuffer.put((byte) ((pes.mPCR >> 9) & 0xFF));
+                    mBuffer.put((byte) ((pes.mPCR >> 1) & 0xFF));
+                    mBuffer.put((byte) 0x00); //(byte) (pcr << 7 | 0x7E); // (6bit) reserved， 0x00
+                    mBuffer.put((byte) 0x00);
+                } else if (isFirstTs) {
+                    mBuffer.put((byte) (pes.isAudio() ? 0x40 : 0x00));
                 } else {
-                    writePacket((byte) 0x00); // 0x00==無制限
-                    writePacket((byte) 0x00);
+                    mBuffer.put((byte) 0x00);
                 }
 
-                // PES ヘッダーの識別
-                byte PTS_DTS_flags = pes.isFrame() ? (byte) (pes.hasDTS() ? 0xC0 : 0x80) : (byte) 0x00;
-                writePacket((byte) 0x80);     // 0x80 no flags set,  0x84 just data alignment indicator flag set
-                writePacket(PTS_DTS_flags);   // 0xC0 PTS & DTS,  0x80 PTS,  0x00 no PTS/DTS
-
-                // write pts & dts
-                if (PTS_DTS_flags == (byte) 0xC0) {
-                    writePacket((byte) 0x0A);
-                    writePtsDts(3, pes.mPTS);
-                    writePtsDts(1, pes.mDTS);
-                } else if (PTS_DTS_flags == (byte) 0x80) {
-                    writePacket((byte) 0x05);
-                    writePtsDts(2, pes.mPTS);
-                } else {
-                    writePacket((byte) 0x00);
+                // stuffing_byte
+                for (int i = 0; i < paddingSize; i++) {
+                    mBuffer.put((byte) 0xFF);
                 }
+            }
 
-                if (!pes.isAudio()) {
-                    // TODO この記述は必要か確認すること。
-                    switch (pes.mStreamType) {
-                        case STREAM_TYPE_VIDEO_H264:
-                            if (indexOf(pes.mData, H264_NAL) == -1) {
-                                writePacket(H264_NAL, 0, H264_NAL.length);
-                            }
-                            break;
-                        case STREAM_TYPE_VIDEO_H265:
-                            if (indexOf(pes.mData, H265_NAL) == -1) {
-                                writePacket(H265_NAL, 0, H265_NAL.length);
-                            }
-                            break;
-                        default:
-                            // not implements
-                            break;
-                    }
-                }
-            } else {
-                // has adaptation
-                if (isAdaptationField) {
-                    writePacket((byte) 1);
-                    writePacket((byte) 0x00);
-                } else {
-                    // no adaptation
-                    // ts_header + ts_payload
+            if (isFirstTs) {
+                writePesHeader(pes, PTS_DTS_flags);
+                if (aud != null) {
+                    mBuffer.put(aud);
                 }
             }
 
             // fill data
-            int tsBufRemaining = TS_PACKET_SIZE - mPacket.mOffset;
-            if (frameBufRemaining >= tsBufRemaining) {
-                writePacket(pes.mData, frameBufPtr, tsBufRemaining);
-                frameBufPtr += tsBufRemaining;
-            } else {
-                int paddingSize = tsBufRemaining - frameBufRemaining;
-                byte[] tsBuf = mPacket.mData;
-                int offset = mPacket.mOffset;
-
-                // 0x30  0011 0000
-                // 0x10  0001 0000
-                // has adaptation
-                if (isAdaptationField) {
-                    int adaptationFieldLength = (tsBuf[4] & 0xFF);
-                    int start = TS_HEADER_SIZE + adaptationFieldLength + 1;
-                    int end = offset - 1;
-
-                    // move
-                    for (int i = end; i >= start; i--) {
-                        tsBuf[i + paddingSize] = tsBuf[i];
-                    }
-
-                    // fill data, 0xff
-                    for (int i = 0; i < paddingSize; i++) {
-                        tsBuf[start + i] = (byte) 0xFF;
-                    }
-
-                    tsBuf[4] += paddingSize;
-
-                    // no adaptation
-                } else {
-                    // set adaptation
-                    tsBuf[3] |= 0x20;
-                    tsBuf[4] = (byte) paddingSize;
-                    tsBuf[5] = 0;
-
-                    for (int i = 0; i < paddingSize; i++) {
-                        tsBuf[6 + i] = (byte) 0xFF;
-                    }
-                }
-
-                System.arraycopy(pes.mData, frameBufPtr, tsBuf, offset + paddingSize, frameBufRemaining);
-                frameBufPtr += frameBufRemaining;
-            }
+            data.limit(data.position() + payloadSize);
+            mBuffer.put(data);
+            data.limit(dataLimit);
+            frameBufRemaining -= payloadSize;
 
             isFirstTs = false;
 
-            notifyPacket(frameBufPtr >= pes.mDataLength);
+            notifyPacket(frameBufRemaining == 0);
         }
     }
 
-    private static int indexOf(byte[] array, byte[] target) {
-        if (target.length == 0) {
-            return 0;
+    /**
+     * PES ヘッダーのサイズを取得します.
+     *
+     * @param PTS_DTS_flags PTS、DTS のフラグ
+     * @return PES ヘッダーのサイズ
+     */
+    private static int getPesHeaderSize(byte PTS_DTS_flags) {
+        if (PTS_DTS_flags == (byte) 0xC0) {
+            return 19;
+        } else if (PTS_DTS_flags == (byte) 0x80) {
+            return 14;
+        } else {
+            return 9;
         }
+    }
 
-        outer:
-        for (int i = 0; i < array.length - target.length + 1; i++) {
-            for (int j = 0; j < target.length; j++) {
-                if (array[i + j] != target[j]) {
-                    continue outer;
-                }
+    /**
+     * PES ヘッダーを書き込みます.
+     *
+     * @param pes PES データ
+     * @param PTS_DTS_flags PTS、DTS のフラグ
+     */
+    private void writePesHeader(PES pes, byte PTS_DTS_flags) {
+        // write packet_start_code_prefix
+        mBuffer.put((byte) 0x00);
+        mBuffer.put((byte) 0x00);
+        mBuffer.put((byte) 0x01);
+        mBuffer.put((byte) (pes.mStreamId & 0xFF));
+
+        // PES パケットサイズ
+        if (pes.isAudio()) {
+            int header_size = pes.hasDTS() ? 10 : 5;
+            int pes_size = pes.mDataLength + header_size + 3;
+            mBuffer.put((byte) ((pes_size >> 8) & 0xFF));
+            mBuffer.put((byte) (pes_size & 0xFF));
+        } else {
+            mBuffer.put((byte) 0x00); // 0x00==無制限
+            mBuffer.put((byte) 0x00);
+        }
+
+        // PES ヘッダーの識別
+        mBuffer.put((byte) 0x80);     // 0x80 no flags set,  0x84 just data alignment indicator flag set
+        mBuffer.put(PTS_DTS_flags);   // 0xC0 PTS & DTS,  0x80 PTS,  0x00 no PTS/DTS
+
+        // write pts & dts
+        if (PTS_DTS_flags == (byte) 0xC0) {
+            mBuffer.put((byte) 0x0A);
+            writePtsDts(3, pes.mPTS);
+            writePtsDts(1, pes.mDTS);
+        } else if (PTS_DTS_flags == (byte) 0x80) {
+            mBuffer.put((byte) 0x05);
+            writePtsDts(2, pes.mPTS);
+        } else {
+            mBuffer.put((byte) 0x00);
+        }
+    }
+
+    /**
+     * バッファのデータが指定されたデータで始まっているか確認します.
+     *
+     * @param buffer バッファ
+     * @param length バッファのデータサイズ
+     * @param target 確認するデータ
+     * @return 指定されたデータで始まっている場合は true、それ以外は false
+     */
+    private static boolean startsWith(ByteBuffer buffer, int length, byte[] target) {
+        if (length < target.length) {
+            return false;
+        }
+
+        int offset = buffer.position();
+        for (int i = 0; i < target.length; i++) {
+            if (buffer.get(offset + i) != target[i]) {
+                return false;
             }
-            return i;
         }
-        return -1;
+        return true;
     }
 
     static class PES {
         private int mStreamId;
         private int mStreamType;
-        private byte[] mData = new byte[1024];
+        private ByteBuffer mData;
         private int mDataLength;
         private long mPCR;
         private long mPTS;
@@ -465,11 +592,19 @@ class TsPacketWriter implements TsConstants {
             mStreamType = streamType;
         }
 
+        /**
+         * PES のデータを設定します.
+         *
+         * <p>
+         * データはコピーせずにバッファの現在の position から参照するので、
+         * {@link TsPacketWriter#writePES(PES)} が終わるまでバッファを変更しないでください。
+         * </p>
+         *
+         * @param buffer データ
+         * @param length データサイズ
+         */
         void setData(ByteBuffer buffer, int length) {
-            if (mData == null || mData.length < length) {
-                mData = new byte[length];
-            }
-            buffer.get(mData, 0, length);
+            mData = buffer;
             mDataLength = length;
         }
 
@@ -0,0 +1,356 @@
+package org.deviceconnect.android.libmedia.streaming.rtp;
+
+import org.deviceconnect.android.libmedia.streaming.util.TimeStamp;
+
+/**
+ * RTCP パケットの作成と解析を行うクラス.
+ *
+ * <p>
+ * 以下のパケットに対応します。
+ * <ul>
+ * <li>SR (Sender Report, RFC 3550)</li>
+ * <li>RR (Receiver Report, RFC 3550)</li>
+ * <li>Generic NACK (RFC 4585)</li>
+ * </ul>
+ * </p>
+ */
+public final class RtcpPacket {
+    /**
+     * パケットタイプ: Sender Report.
+     */
+    public static final int TYPE_SR = 200;
+
+    /**
+     * パケットタイプ: Receiver Report.
+     */
+    public static final int TYPE_RR = 201;
+
+    /**
+     * パケットタイプ: Transport layer FB message.
+     */
+    public static final int TYPE_RTPFB = 205;
+
+    /**
+     * Transport layer FB message のフォーマット: Generic NACK.
+     */
+    public static final int FMT_NACK = 1;
+
+    /**
+     * レセプションレポートブロックのサイズ.
+     */
+    private static final int REPORT_BLOCK_LENGTH = 24;
+
+    /**
+     * Sender Report の送信者情報を含むヘッダーのサイズ.
+     */
+    private static final int SR_HEADER_LENGTH = 28;
+
+    /**
+     * Receiver Report のヘッダーのサイズ.
+     */
+    private static final int RR_HEADER_LENGTH = 8;
+
+    /**
+     * Generic NACK の1つの FCI で通知できるシーケンス番号の範囲.
+     */
+    private static final int NACK_RANGE = 17;
+
+    private RtcpPacket() {
+    }
+
+    /**
+     * レセプションレポートブロックを1つ含む Receiver Report を書き込みます.
+     *
+     * @param buffer 書き込み先のバッファ
+     * @param offset 書き込みを開始する位置
+     * @param ssrc レポートの送信者の SSRC
+     * @param block レセプションレポートブロック
+     * @return 書き込んだサイズ
+     */
+    public static int writeReceiverReport(byte[] buffer, int offset, int ssrc, ReportBlock block) {
+        int length = RR_HEADER_LENGTH + REPORT_BLOCK_LENGTH;
+        writeHeader(buffer, offset, 1, TYPE_RR, length);
+        writeInt(buffer, offset + 4, ssrc);
+
+        int p = offset + RR_HEADER_LENGTH;
+        int cumulativeLost = Math.max(-0x800000, Math.min(0x7FFFFF, block.mCumulativeLost));
+        writeInt(buffer, p, block.mSsrc);
+        writeInt(buffer, p + 4, ((block.mFractionLost & 0xFF) << 24) | (cumulativeLost & 0xFFFFFF));
+        writeInt(buffer, p + 8, (int) block.mExtendedHighestSequenceNumber);
+        writeInt(buffer, p + 12, (int) block.mJitter);
+        writeInt(buffer, p + 16, (int) block.mLastSenderReport);
+        writeInt(buffer, p + 20, (int) block.mDelaySinceLastSenderReport);
+        return length;
+    }
+
+    /**
+     * Generic NACK を書き込みます.
+     *
+     * <p>
+     * 連続するシーケンス番号は、1つの FCI (PID と BLP) にまとめます。
+     * </p>
+     *
+     * @param buffer 書き込み先のバッファ
+     * @param offset 書き込みを開始する位置
+     * @param senderSsrc NACK の送信者の SSRC
+     * @param mediaSsrc 損失したパケットの送信者の SSRC
+     * @param sequenceNumbers 損失したパケットのシーケンス番号 (昇順)
+     * @param count シーケンス番号の個数
+     * @return 書き込んだサイズ
+     */
+    public static int writeNack(byte[] buffer, int offset, int senderSsrc, int mediaSsrc,
+                                int[] sequenceNumbers, int count) {
+        int p = offset + 12;
+        int i = 0;
+        while (i < count) {
+            int pid = sequenceNumbers[i++] & 0xFFFF;
+            int blp = 0;
+            while (i < count) {
+                int diff = (sequenceNumbers[i] - pid) & 0xFFFF;
+                if (diff == 0 || diff >= NACK_RANGE) {
+                    break;
+                }
+                blp |= 1 << (diff - 1);
+                i++;
+            }
+            writeShort(buffer, p, pid);
+            writeShort(buffer, p + 2, blp);
+            p += 4;
+        }
+
+        int length = p - offset;
+        writeHeader(buffer, offset, FMT_NACK, TYPE_RTPFB, length);
+        writeInt(buffer, offset + 4, senderSsrc);
+        writeInt(buffer, offset + 8, mediaSsrc);
+        return length;
+    }
+
+    /**
+     * RTCP の複合パケットを解析します.
+     *
+     * <p>
+     * 対応していないパケットは読み飛ばします。
+     * </p>
+     *
+     * @param data RTCP パケットデータ
+     * @param dataLength RTCP パケットデータサイズ
+     * @param handler 解析結果を通知するハンドラ
+     */
+    public static void parse(byte[] data, int dataLength, Handler handler) {
+        int offset = 0;
+        while (offset + 4 <= dataLength) {
+            int version = (data[offset] >> 6) & 0x03;
+            if (version != 2) {
+                return;
+            }
+
+            int count = data[offset] & 0x1F;
+            int type = data[offset + 1] & 0xFF;
+            int length = (readShort(data, offset + 2) + 1) * 4;
+            if (offset + length > dataLength) {
+                return;
+            }
+
+            switch (type) {
+                case TYPE_SR:
+                    if (length >= SR_HEADER_LENGTH) {
+                        int ssrc = readInt(data, offset + 4);
+                        long ntpMiddle = ((readInt(data, offset + 8) & 0xFFFFL) << 16)
+                                | ((readInt(data, offset + 12) >>> 16) & 0xFFFFL);
+                        handler.onSenderReport(ssrc, ntpMiddle);
+                        parseReportBlocks(data, offset, offset + SR_HEADER_LENGTH, count, length, ssrc, handler);
+                    }
+                    break;
+
+                case TYPE_RR:
+                    if (length >= RR_HEADER_LENGTH) {
+                        int ssrc = readInt(data, offset + 4);
+                        parseReportBlocks(data, offset, offset + RR_HEADER_LENGTH, count, length, ssrc, handler);
+                    }
+                    break;
+
+                case TYPE_RTPFB:
+                    if (count == FMT_NACK && length >= 12) {
+                        int senderSsrc = readInt(data, offset + 4);
+                        int mediaSsrc = readInt(data, offset + 8);
+                        for (int p = offset + 12; p + 4 <= offset + length; p += 4) {
+                            int pid = readShort(data, p);
+                            int blp = readShort(data, p + 2);
+                            handler.onNack(senderSsrc, mediaSsrc, pid);
+                            for (int bit = 0; bit < 16; bit++) {
+                                if ((blp & (1 << bit)) != 0) {
+                                    handler.onNack(senderSsrc, mediaSsrc, (pid + bit + 1) & 0xFFFF);
+                                }
+                            }
+                        }
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+
+            offset += length;
+        }
+    }
+
+    /**
+     * NTP タイムスタンプの中央の 32 ビットを取得します.
+     *
+     * <p>
+     * Sender Report の LSR と DLSR の計算に使用します。単位は 1/65536 秒です。
+     * </p>
+     *
+     * @param timeStamp NTP タイムスタンプ
+     * @return NTP タイムスタンプの中央の 32 ビット
+     */
+    public static long getNtpMiddle(TimeStamp timeStamp) {
+        return ((timeStamp.getSeconds() & 0xFFFFL) << 16) | ((timeStamp.getFraction() >>> 16) & 0xFFFFL);
+    }
+
+    private static void parseReportBlocks(byte[] data, int packetOffset, int offset, int count,
+                                          int length, int reporterSsrc, Handler handler) {
+        for (int i = 0; i < count; i++) {
+            int p = offset + i * REPORT_BLOCK_LENGTH;
+            if (p + REPORT_BLOCK_LENGTH > packetOffset + length) {
+                return;
+            }
+            ReportBlock block = new ReportBlock();
+            block.mSsrc = readInt(data, p);
+            block.mFractionLost = data[p + 4] & 0xFF;
+            // 24 ビットの符号付き整数
+            block.mCumulativeLost = (readInt(data, p + 4) << 8) >> 8;
+            block.mExtendedHighestSequenceNumber = readInt(data, p + 8) & 0xFFFFFFFFL;
+            block.mJitter = readInt(data, p + 12) & 0xFFFFFFFFL;
+            block.mLastSenderReport = readInt(data, p + 16) & 0xFFFFFFFFL;
+            block.mDelaySinceLastSenderReport = readInt(data, p + 20) & 0xFFFFFFFFL;
+            handler.onReportBlock(reporterSsrc, block);
+        }
+    }
+
+    private static void writeHeader(byte[] buffer, int offset, int count, int type, int length) {
+        int words = length / 4 - 1;
+        buffer[offset] = (byte) ((2 << 6) | (count & 0x1F));
+        buffer[offset + 1] = (byte) type;
+        writeShort(buffer, offset + 2, words);
+    }
+
+    private static void writeShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) ((value >> 8) & 0xFF);
+        buffer[offset + 1] = (byte) (value & 0xFF);
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) ((value >> 24) & 0xFF);
+        buffer[offset + 1] = (byte) ((value >> 16) & 0xFF);
+        buffer[offset + 2] = (byte) ((value >> 8) & 0xFF);
+        buffer[offset + 3] = (byte) (value & 0xFF);
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    /**
+     * レセプションレポートブロック.
+     */
+    public static class ReportBlock {
+        /**
+         * レポート対象の送信者の SSRC.
+         */
+        int mSsrc;
+
+        /**
+         * 前回のレポートからの損失率 (1/256 単位).
+         */
+        int mFractionLost;
+
+        /**
+         * 累積の損失パケット数.
+         */
+        int mCumulativeLost;
+
+        /**
+         * 受信した最大の拡張シーケンス番号.
+         */
+        long mExtendedHighestSequenceNumber;
+
+        /**
+         * 到着間隔のジッター (RTP タイムスタンプの単位).
+         */
+        long mJitter;
+
+        /**
+         * 最後に受信した Sender Report の NTP タイムスタンプの中央の 32 ビット.
+         */
+        long mLastSenderReport;
+
+        /**
+         * 最後に Sender Report を受信してからの経過時間 (1/65536 秒).
+         */
+        long mDelaySinceLastSenderReport;
+
+        public int getSsrc() {
+            return mSsrc;
+        }
+
+        public int getFractionLost() {
+            return mFractionLost;
+        }
+
+        public int getCumulativeLost() {
+            return mCumulativeLost;
+        }
+
+        public long getExtendedHighestSequenceNumber() {
+            return mExtendedHighestSequenceNumber;
+        }
+
+        public long getJitter() {
+            return mJitter;
+        }
+
+        public long getLastSenderReport() {
+            return mLastSenderReport;
+        }
+
+        public long getDelaySinceLastSenderReport() {
+            return mDelaySinceLastSenderReport;
+        }
+    }
+
+    /**
+     * RTCP パケットの解析結果を通知するハンドラ.
+     */
+    public interface Handler {
+        /**
+         * Sender Report を受信したことを通知します.
+         *
+         * @param ssrc 送信者の SSRC
+         * @param ntpMiddle NTP タイムスタンプの中央の 32 ビット
+         */
+        void onSenderReport(int ssrc, long ntpMiddle);
+
+        /**
+         * レセプションレポートブロックを受信したことを通知します.
+         *
+         * @param reporterSsrc レポートの送信者の SSRC
+         * @param block レセプションレポートブロック
+         */
+        void onReportBlock(int reporterSsrc, ReportBlock block);
+
+        /**
+         * Generic NACK で損失したパケットが通知されたことを通知します.
+         *
+         * @param senderSsrc NACK の送信者の SSRC
+         * @param mediaSsrc 損失したパケットの送信者の SSRC
+         * @param sequenceNumber 損失したパケットのシーケンス番号
+         */
+        void onNack(int senderSsrc, int mediaSsrc, int sequenceNumber);
+    }
+}
@@ -0,0 +1,512 @@
+package org.deviceconnect.android.libmedia.streaming.rtp;
+
+import java.util.Random;
+
+/**
+ * RTP の受信状況を集計して、送信元に返す RTCP の Receiver Report と Generic NACK を作成するクラス.
+ *
+ * <p>
+ * 損失数とジッターの計算は RFC 3550 の付録 A.1、A.3、A.8 に従います。
+ * シーケンス番号が飛んだ場合には、抜けたパケットの再送を要求する NACK を作成します。
+ * 経路上でパケットが並び替えられただけの場合に再送を要求しないように、抜けたパケットは
+ * {@link #REORDER_THRESHOLD} 個後のパケットを受信するか、{@link #REORDER_TIME} ミリ秒経過するまで
+ * 損失と判断しません。
+ * </p>
+ */
+class RtcpReporter {
+    /**
+     * Receiver Report を送信する間隔のデフォルト値(ミリ秒).
+     */
+    static final int DEFAULT_INTERVAL = 5000;
+
+    /**
+     * 1回の NACK で再送を要求する最大のパケット数.
+     *
+     * <p>
+     * これより大きく飛んだ場合には、再送が間に合わないとみなして要求しません。
+     * </p>
+     */
+    static final int MAX_NACK_COUNT = 64;
+
+    /**
+     * 抜けたパケットを損失と判断するまでに受信する後続のパケット数.
+     */
+    static final int REORDER_THRESHOLD = 3;
+
+    /**
+     * 抜けたパケットを損失と判断するまでの時間(ミリ秒).
+     */
+    static final long REORDER_TIME = 20;
+
+    /**
+     * 連続したパケットとみなすシーケンス番号の最大の差.
+     */
+    private static final int MAX_DROPOUT = 3000;
+
+    /**
+     * 並び替えとみなすシーケンス番号の最大の差.
+     */
+    private static final int MAX_MISORDER = 100;
+
+    /**
+     * シーケンス番号の周期.
+     */
+    private static final int SEQ_MOD = 1 << 16;
+
+    /**
+     * レポートの送信者の SSRC.
+     */
+    private final int mSsrc;
+
+    /**
+     * RTP の送信者の SSRC.
+     */
+    private int mSourceSsrc;
+
+    /**
+     * RTP タイムスタンプのクロック周波数.
+     */
+    private int mClockFrequency;
+
+    /**
+     * パケットを受信済みか示すフラグ.
+     */
+    private boolean mInitialized;
+
+    /**
+     * 最初に受信したシーケンス番号.
+     */
+    private int mBaseSeq;
+
+    /**
+     * 受信した最大のシーケンス番号.
+     */
+    private int mMaxSeq;
+
+    /**
+     * シーケンス番号が一周した回数 (SEQ_MOD の倍数).
+     */
+    private long mCycles;
+
+    /**
+     * 受信したパケット数.
+     */
+    private long mReceived;
+
+    /**
+     * 前回のレポート時点の受信予定パケット数.
+     */
+    private long mExpectedPrior;
+
+    /**
+     * 前回のレポート時点の受信したパケット数.
+     */
+    private long mReceivedPrior;
+
+    /**
+     * 前回のパケットの送信から受信までの時間 (RTP タイムスタンプの単位).
+     */
+    private long mTransit;
+
+    /**
+     * 到着間隔のジッター (RTP タイムスタンプの単位).
+     */
+    private double mJitter;
+
+    /**
+     * 最後に受信した Sender Report の NTP タイムスタンプの中央の 32 ビット.
+     */
+    private long mLastSenderReport;
+
+    /**
+     * 最後に Sender Report を受信した時刻(ミリ秒).
+     */
+    private long mLastSenderReportTime;
+
+    /**
+     * Receiver Report を送信する間隔(ミリ秒).
+     */
+    private int mInterval = DEFAULT_INTERVAL;
+
+    /**
+     * 最後に Receiver Report を作成した時刻(ミリ秒).
+     */
+    private long mLastReportTime;
+
+    /**
+     * 再送を要求するシーケンス番号.
+     */
+    private final int[] mNackList = new int[MAX_NACK_COUNT];
+
+    /**
+     * 再送を要求するシーケンス番号の数.
+     */
+    private int mNackCount;
+
+    /**
+     * 抜けているが、まだ損失と判断していないシーケンス番号.
+     */
+    private final int[] mMissingList = new int[MAX_NACK_COUNT];
+
+    /**
+     * 抜けていることを検出した時刻(ミリ秒).
+     */
+    private final long[] mMissingTime = new long[MAX_NACK_COUNT];
+
+    /**
+     * 抜けているが、まだ損失と判断していないシーケンス番号の数.
+     */
+    private int mMissingCount;
+
+    /**
+     * 再送を要求したパケット数の合計.
+     */
+    private long mTotalNackCount;
+
+    /**
+     * コンストラクタ.
+     */
+    RtcpReporter() {
+        this(new Random().nextInt());
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param ssrc レポートの送信者の SSRC
+     */
+    RtcpReporter(int ssrc) {
+        mSsrc = ssrc;
+    }
+
+    /**
+     * RTP タイムスタンプのクロック周波数を設定します.
+     *
+     * <p>
+     * 0 の場合にはジッターを計算しません。
+     * </p>
+     *
+     * @param clockFrequency クロック周波数
+     */
+    synchronized void setClockFrequency(int clockFrequency) {
+        mClockFrequency = clockFrequency;
+    }
+
+    /**
+     * Receiver Report を送信する間隔を設定します.
+     *
+     * @param interval 間隔(ミリ秒)
+     */
+    synchronized void setInterval(int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval is negative.");
+        }
+        mInterval = interval;
+    }
+
+    /**
+     * 受信した RTP パケットを集計します.
+     *
+     * @param data RTP パケットデータ
+     * @param dataLength RTP パケットデータサイズ
+     * @param now 受信時刻(ミリ秒)
+     * @return 再送を要求するパケットがある場合はtrue、それ以外はfalse
+     */
+    synchronized boolean onRtpPacket(byte[] data, int dataLength, long now) {
+        if (dataLength < RtpPacket.RTP_HEADER_LENGTH) {
+            return false;
+        }
+
+        int seq = ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+        long timestamp = ((data[4] & 0xFFL) << 24) | ((data[5] & 0xFFL) << 16)
+                | ((data[6] & 0xFFL) << 8) | (data[7] & 0xFFL);
+        mSourceSsrc = ((data[8] & 0xFF) << 24) | ((data[9] & 0xFF) << 16)
+                | ((data[10] & 0xFF) << 8) | (data[11] & 0xFF);
+
+        if (!mInitialized) {
+            init(seq);
+            mInitialized = true;
+            updateJitter(timestamp, now, true);
+            return false;
+        }
+
+        int delta = (seq - mMaxSeq) & 0xFFFF;
+        if (delta == 0) {
+            // 重複したパケット
+            return false;
+        } else if (delta < MAX_DROPOUT) {
+            if (seq < mMaxSeq) {
+                mCycles += SEQ_MOD;
+            }
+            addMissing(mMaxSeq, delta - 1, now);
+            mMaxSeq = seq;
+        } else if (delta <= SEQ_MOD - MAX_MISORDER) {
+            // シーケンス番号が大きく飛んだので送信元が再起動したとみなす
+            init(seq);
+            updateJitter(timestamp, now, true);
+            return false;
+        } else {
+            // 並び替えられた、または再送されたパケットは再送の要求から外す
+            if (!removeMissing(seq)) {
+                removeNack(seq);
+            }
+        }
+
+        mReceived++;
+        updateJitter(timestamp, now, false);
+        detectLoss(now);
+        return mNackCount > 0;
+    }
+
+    /**
+     * 受信した RTCP パケットから Sender Report を取得します.
+     *
+     * @param data RTCP パケットデータ
+     * @param dataLength RTCP パケットデータサイズ
+     * @param now 受信時刻(ミリ秒)
+     */
+    void onRtcpPacket(byte[] data, int dataLength, final long now) {
+        RtcpPacket.parse(data, dataLength, new RtcpPacket.Handler() {
+            @Override
+            public void onSenderReport(int ssrc, long ntpMiddle) {
+                synchronized (RtcpReporter.this) {
+                    mLastSenderReport = ntpMiddle;
+                    mLastSenderReportTime = now;
+                }
+            }
+
+            @Override
+            public void onReportBlock(int reporterSsrc, RtcpPacket.ReportBlock block) {
+            }
+
+            @Override
+            public void onNack(int senderSsrc, int mediaSsrc, int sequenceNumber) {
+            }
+        });
+    }
+
+    /**
+     * Receiver Report を送信する時刻か確認します.
+     *
+     * @param now 現在時刻(ミリ秒)
+     * @return 送信する時刻の場合はtrue、それ以外はfalse
+     */
+    synchronized boolean isReportDue(long now) {
+        return mInitialized && now - mLastReportTime >= mInterval;
+    }
+
+    /**
+     * Receiver Report を書き込みます.
+     *
+     * <p>
+     * 再送を要求するパケットがある場合には、Generic NACK を続けて書き込みます。
+     * </p>
+     *
+     * @param buffer 書き込み先のバッファ. {@link RtpPacket#MTU} 以上のサイズが必要
+     * @param now 現在時刻(ミリ秒)
+     * @return 書き込んだサイズ、パケットを受信していない場合は 0
+     */
+    synchronized int writeReport(byte[] buffer, long now) {
+        if (!mInitialized) {
+            return 0;
+        }
+        detectLoss(now);
+
+        long extendedMax = mCycles + mMaxSeq;
+        long expected = extendedMax - mBaseSeq + 1;
+        long lost = expected - mReceived;
+
+        long expectedInterval = expected - mExpectedPrior;
+        long receivedInterval = mReceived - mReceivedPrior;
+        long lostInterval = expectedInterval - receivedInterval;
+        mExpectedPrior = expected;
+        mReceivedPrior = mReceived;
+
+        RtcpPacket.ReportBlock block = new RtcpPacket.ReportBlock();
+        block.mSsrc = mSourceSsrc;
+        block.mFractionLost = (expectedInterval == 0 || lostInterval <= 0) ? 0
+                : (int) ((lostInterval << 8) / expectedInterval);
+        block.mCumulativeLost = (int) Math.max(-0x800000, Math.min(0x7FFFFF, lost));
+        block.mExtendedHighestSequenceNumber = extendedMax & 0xFFFFFFFFL;
+        block.mJitter = (long) mJitter;
+        if (mLastSenderReportTime > 0) {
+            block.mLastSenderReport = mLastSenderReport;
+            block.mDelaySinceLastSenderReport = (now - mLastSenderReportTime) * 65536 / 1000;
+        }
+
+        int length = RtcpPacket.writeReceiverReport(buffer, 0, mSsrc, block);
+        if (mNackCount > 0) {
+            length += RtcpPacket.writeNack(buffer, length, mSsrc, mSourceSsrc, mNackList, mNackCount);
+            mNackCount = 0;
+        }
+        mLastReportTime = now;
+        return length;
+    }
+
+    /**
+     * 受信予定だったパケット数を取得します.
+     *
+     * @return 受信予定だったパケット数
+     */
+    synchronized long getExpectedCount() {
+        return mInitialized ? mCycles + mMaxSeq - mBaseSeq + 1 : 0;
+    }
+
+    /**
+     * 受信したパケット数を取得します.
+     *
+     * @return 受信したパケット数
+     */
+    synchronized long getReceivedCount() {
+        return mReceived;
+    }
+
+    /**
+     * 再送を要求したパケット数の合計を取得します.
+     *
+     * @return 再送を要求したパケット数
+     */
+    synchronized long getNackCount() {
+        return mTotalNackCount;
+    }
+
+    /**
+     * 到着間隔のジッターを取得します.
+     *
+     * @return ジッター (RTP タイムスタンプの単位)
+     */
+    synchronized long getJitter() {
+        return (long) mJitter;
+    }
+
+    /**
+     * シーケンス番号の集計を初期化します.
+     *
+     * @param seq 基準にするシーケンス番号
+     */
+    private void init(int seq) {
+        mBaseSeq = seq;
+        mMaxSeq = seq;
+        mCycles = 0;
+        mReceived = 1;
+        mExpectedPrior = 0;
+        mReceivedPrior = 0;
+        mNackCount = 0;
+        mMissingCount = 0;
+    }
+
+    /**
+     * 抜けたシーケンス番号を、損失と判断するまで保持します.
+     *
+     * @param lastSeq 最後に受信したシーケンス番号
+     * @param count 抜けたパケット数
+     * @param now 検出した時刻(ミリ秒)
+     */
+    private void addMissing(int lastSeq, int count, long now) {
+        if (count <= 0 || count > MAX_NACK_COUNT) {
+            return;
+        }
+        for (int i = 1; i <= count; i++) {
+            if (mMissingCount == mMissingList.length) {
+                // 損失と判断する前に溢れた古いシーケンス番号は再送が間に合わないので捨てる
+                System.arraycopy(mMissingList, 1, mMissingList, 0, mMissingList.length - 1);
+                System.arraycopy(mMissingTime, 1, mMissingTime, 0, mMissingTime.length - 1);
+                mMissingCount--;
+            }
+            mMissingList[mMissingCount] = (lastSeq + i) & 0xFFFF;
+            mMissingTime[mMissingCount] = now;
+            mMissingCount++;
+        }
+    }
+
+    /**
+     * 損失と判断する前のシーケンス番号を削除します.
+     *
+     * @param seq シーケンス番号
+     * @return 削除した場合はtrue、それ以外はfalse
+     */
+    private boolean removeMissing(int seq) {
+        for (int i = 0; i < mMissingCount; i++) {
+            if (mMissingList[i] == seq) {
+                System.arraycopy(mMissingList, i + 1, mMissingList, i, mMissingCount - i - 1);
+                System.arraycopy(mMissingTime, i + 1, mMissingTime, i, mMissingCount - i - 1);
+                mMissingCount--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 後続のパケットを {@link #REORDER_THRESHOLD} 個受信した、または {@link #REORDER_TIME} ミリ秒経過した
+     * シーケンス番号を損失と判断して、再送の要求に追加します.
+     *
+     * @param now 現在時刻(ミリ秒)
+     */
+    private void detectLoss(long now) {
+        int remaining = 0;
+        for (int i = 0; i < mMissingCount; i++) {
+            int seq = mMissingList[i];
+            long time = mMissingTime[i];
+            if (((mMaxSeq - seq) & 0xFFFF) >= REORDER_THRESHOLD || now - time >= REORDER_TIME) {
+                addNack(seq);
+            } else {
+                mMissingList[remaining] = seq;
+                mMissingTime[remaining] = time;
+                remaining++;
+            }
+        }
+        mMissingCount = remaining;
+    }
+
+    /**
+     * シーケンス番号を再送の要求に追加します.
+     *
+     * @param seq シーケンス番号
+     */
+    private void addNack(int seq) {
+        if (mNackCount == mNackList.length) {
+            // 古い要求は再送が間に合わないので捨てる
+            System.arraycopy(mNackList, 1, mNackList, 0, mNackList.length - 1);
+            mNackCount--;
+        }
+        mNackList[mNackCount++] = seq;
+        mTotalNackCount++;
+    }
+
+    /**
+     * 再送の要求からシーケンス番号を削除します.
+     *
+     * @param seq シーケンス番号
+     */
+    private void removeNack(int seq) {
+        for (int i = 0; i < mNackCount; i++) {
+            if (mNackList[i] == seq) {
+                System.arraycopy(mNackList, i + 1, mNackList, i, mNackCount - i - 1);
+                mNackCount--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 到着間隔のジッターを更新します.
+     *
+     * @param timestamp RTP タイムスタンプ
+     * @param now 受信時刻(ミリ秒)
+     * @param reset 基準を初期化する場合はtrue
+     */
+    private void updateJitter(long timestamp, long now, boolean reset) {
+        if (mClockFrequency <= 0) {
+            return;
+        }
+        long arrival = now * mClockFrequency / 1000;
+        long transit = arrival - timestamp;
+        if (!reset) {
+            // RTP タイムスタンプは 32 ビットで一周するので差分は int で計算する
+            long d = Math.abs((long) (int) (transit - mTransit));
+            mJitter += (d - mJitter) / 16.0;
+        }
+        mTransit = transit;
+    }
+}
@@ -1,13 +1,27 @@
 package org.deviceconnect.android.libmedia.streaming.rtp;
 
+import android.util.Log;
+
+import org.deviceconnect.android.libmedia.BuildConfig;
 import org.deviceconnect.android.libmedia.streaming.util.TimeStamp;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
 
 public class RtcpSocket {
+    /**
+     * ログ出力用タグ.
+     */
+    private static final String TAG = "RTCP";
+
+    /**
+     * デバッグフラグ.
+     */
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+
     /**
      * RTCP パケットのサイズを定義します.
      */
@@ -53,6 +67,31 @@ public class RtcpSocket {
      */
     private int mInterval = 5000;
 
+    /**
+     * RTP タイムスタンプのクロック周波数.
+     */
+    private int mClockFrequency;
+
+    /**
+     * 受信した RTCP を通知するコールバック.
+     */
+    private Callback mCallback;
+
+    /**
+     * RTCP 受信用のスレッド.
+     */
+    private ReceiverThread mReceiverThread;
+
+    /**
+     * RTP over TCP (RTSP の interleaved) で送信する場合の送信先.
+     */
+    private volatile RtpSocket.InterleavedWriter mInterleavedWriter;
+
+    /**
+     * RTCP を送信する interleaved のチャンネル番号.
+     */
+    private int mInterleavedChannel;
+
     /**
      * コンストラクタ.
      * @throws IOException ソケットの作成に失敗した場合に発生します.
@@ -73,19 +112,57 @@ public class RtcpSocket {
 
     /**
      * RTCP 送信用のソケットを開きます.
+     *
+     * <p>
+     * 送信先から返される Receiver Report と NACK の受信を開始します。
+     * </p>
      */
-    public void open() {
+    public synchronized void open() {
+        if (mReceiverThread != null) {
+            return;
+        }
+
+        mReceiverThread = new ReceiverThread();
+        mReceiverThread.setName("RTCP-RECEIVER");
+        mReceiverThread.start();
     }
 
     /**
      * RTCP 送信用のソケットを閉じます.
      */
-    public void close() {
+    public synchronized void close() {
         try {
             mSocket.close();
         } catch (Exception e) {
             // ignore.
         }
+
+        if (mReceiverThread != null) {
+            mReceiverThread.terminate();
+            mReceiverThread = null;
+        }
+    }
+
+    /**
+     * 受信した RTCP を通知するコールバックを設定します.
+     *
+     * @param callback コールバック
+     */
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * RTP タイムスタンプのクロック周波数を設定します.
+     *
+     * <p>
+     * Receiver Report のジッターをミリ秒に変換するために使用します。
+     * </p>
+     *
+     * @param clockFrequency クロック周波数
+     */
+    public void setClockFrequency(int clockFrequency) {
+        mClockFrequency = clockFrequency;
     }
 
     /**
@@ -120,6 +197,17 @@ public class RtcpSocket {
         mPacket.setPort(port);
     }
 
+    /**
+     * RTP over TCP (RTSP の interleaved) で送信するように設定します.
+     *
+     * @param writer 送信先
+     * @param channel RTCP のチャンネル番号
+     */
+    public void setInterleaved(RtpSocket.InterleavedWriter writer, int channel) {
+        mInterleavedChannel = channel;
+        mInterleavedWriter = writer;
+    }
+
     /**
      * 送信先のポート番号を取得します.
      *
@@ -195,6 +283,12 @@ public class RtcpSocket {
         mBuffer[26] = (byte) ((mOctetCount >> 8) & 0xFF);
         mBuffer[27] = (byte) ((mOctetCount) & 0xFF);
 
+        RtpSocket.InterleavedWriter writer = mInterleavedWriter;
+        if (writer != null) {
+            writer.writeInterleaved(mInterleavedChannel, mBuffer, PACKET_LENGTH);
+            return;
+        }
+
         try {
             mPacket.setLength(PACKET_LENGTH);
             mSocket.send(mPacket);
@@ -202,4 +296,136 @@ public class RtcpSocket {
             // ignore.
         }
     }
+
+    /**
+     * 受信した RTCP パケットを解析します.
+     *
+     * @param data RTCP パケットデータ
+     * @param dataLength RTCP パケットデータサイズ
+     */
+    void onReceived(byte[] data, int dataLength) {
+        Callback callback = mCallback;
+        if (callback == null) {
+            return;
+        }
+
+        RtcpPacket.parse(data, dataLength, new RtcpPacket.Handler() {
+            @Override
+            public void onSenderReport(int ssrc, long ntpMiddle) {
+            }
+
+            @Override
+            public void onReportBlock(int reporterSsrc, RtcpPacket.ReportBlock block) {
+                if (block.getSsrc() != mSsrc) {
+                    return;
+                }
+                callback.onReceiverReport(block, calculateRoundTripTime(block), toMillis(block.getJitter()));
+            }
+
+            @Override
+            public void onNack(int senderSsrc, int mediaSsrc, int sequenceNumber) {
+                if (mediaSsrc != mSsrc) {
+                    return;
+                }
+                callback.onNack(sequenceNumber);
+            }
+        });
+    }
+
+    /**
+     * Receiver Report の LSR と DLSR から往復遅延時間を計算します.
+     *
+     * @param block レセプションレポートブロック
+     * @return 往復遅延時間(ミリ秒)、計算できない場合は -1
+     */
+    private long calculateRoundTripTime(RtcpPacket.ReportBlock block) {
+        long lsr = block.getLastSenderReport();
+        if (lsr == 0) {
+            return -1;
+        }
+        long now = RtcpPacket.getNtpMiddle(TimeStamp.getCurrentTime());
+        long rtt = (now - lsr - block.getDelaySinceLastSenderReport()) & 0xFFFFFFFFL;
+        if (rtt > 0x7FFFFFFFL) {
+            return -1;
+        }
+        return rtt * 1000 / 65536;
+    }
+
+    /**
+     * RTP タイムスタンプの単位の時間をミリ秒に変換します.
+     *
+     * @param value RTP タイムスタンプの単位の時間
+     * @return ミリ秒
+     */
+    private double toMillis(long value) {
+        return mClockFrequency > 0 ? value * 1000.0 / mClockFrequency : 0;
+    }
+
+    /**
+     * RTCP 受信用のスレッド.
+     */
+    private class ReceiverThread extends Thread {
+        /**
+         * 停止フラグ.
+         */
+        private volatile boolean mStopFlag;
+
+        /**
+         * スレッドの停止処理を行います.
+         */
+        void terminate() {
+            mStopFlag = true;
+
+            interrupt();
+
+            try {
+                join(500);
+            } catch (InterruptedException e) {
+                // ignore.
+            }
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[RtpPacket.MTU];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            while (!mStopFlag) {
+                try {
+                    packet.setLength(buffer.length);
+                    mSocket.receive(packet);
+                    onReceived(packet.getData(), packet.getLength());
+                } catch (SocketTimeoutException e) {
+                    // ignore.
+                } catch (IOException e) {
+                    // ソケットが閉じられた
+                    break;
+                } catch (Exception e) {
+                    if (DEBUG) {
+                        Log.w(TAG, "Failed to parse a RTCP packet.", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 受信した RTCP を通知するコールバック.
+     */
+    public interface Callback {
+        /**
+         * 送信先から Receiver Report を受信したことを通知します.
+         *
+         * @param block レセプションレポートブロック
+         * @param roundTripTime 往復遅延時間(ミリ秒)、計算できない場合は -1
+         * @param jitter ジッター(ミリ秒)
+         */
+        void onReceiverReport(RtcpPacket.ReportBlock block, long roundTripTime, double jitter);
+
+        /**
+         * 送信先から NACK でパケットの再送を要求されたことを通知します.
+         *
+         * @param sequenceNumber 再送を要求されたパケットのシーケンス番号
+         */
+        void onNack(int sequenceNumber);
+    }
 }
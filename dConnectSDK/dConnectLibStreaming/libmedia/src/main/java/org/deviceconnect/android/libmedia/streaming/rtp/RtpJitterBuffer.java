@@ -0,0 +1,635 @@
+package org.deviceconnect.android.libmedia.streaming.rtp;
+
+/**
+ * RTP パケットをシーケンス番号順に並び替えるためのジッターバッファ.
+ *
+ * <p>
+ * シーケンス番号が連続しているパケットはコピーせずにそのまま通知します。
+ * シーケンス番号が抜けている場合には、後続のパケットを保持して抜けたパケットの到着を待ちます。
+ * 待ち時間がレイテンシを超えた場合には、抜けたパケットを損失とみなして後続のパケットを通知します。
+ * </p>
+ *
+ * <p>
+ * レイテンシは到着間隔のジッター(RFC 3550 6.4.1)と遅れて到着したパケットの数に応じて、
+ * 最小値と最大値の範囲で調整します。
+ * </p>
+ *
+ * <p>
+ * 損失したパケットは通知しないので、デパケッタイザーはシーケンス番号の不連続を検知して、
+ * 不完全なフレームを破棄します。
+ * </p>
+ */
+public class RtpJitterBuffer {
+    /**
+     * レイテンシの最小値のデフォルト値(ミリ秒).
+     */
+    public static final int DEFAULT_MIN_LATENCY = 20;
+
+    /**
+     * レイテンシの最大値のデフォルト値(ミリ秒).
+     */
+    public static final int DEFAULT_MAX_LATENCY = 300;
+
+    /**
+     * 保持できるパケット数のデフォルト値.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * ジッターに掛けてレイテンシを求める係数.
+     */
+    private static final int JITTER_MULTIPLIER = 3;
+
+    /**
+     * レイテンシを小さくする間隔(ミリ秒).
+     */
+    private static final long LATENCY_DECAY_INTERVAL = 1000;
+
+    /**
+     * パケットを格納するスロット.
+     */
+    private final Slot[] mSlots;
+
+    /**
+     * シーケンス番号からスロットの位置を求めるためのマスク.
+     */
+    private final int mMask;
+
+    /**
+     * 並び替えたパケットを通知するコールバック.
+     */
+    private final Callback mCallback;
+
+    /**
+     * クロック周波数.
+     */
+    private int mClockFrequency = 90000;
+
+    /**
+     * レイテンシの最小値(ミリ秒).
+     */
+    private int mMinLatency = DEFAULT_MIN_LATENCY;
+
+    /**
+     * レイテンシの最大値(ミリ秒).
+     */
+    private int mMaxLatency = DEFAULT_MAX_LATENCY;
+
+    /**
+     * 現在のレイテンシ(ミリ秒).
+     */
+    private int mLatency = DEFAULT_MIN_LATENCY;
+
+    /**
+     * 最後にレイテンシを小さくした時刻(ミリ秒).
+     */
+    private long mLastDecayTime = -1;
+
+    /**
+     * 次に通知するシーケンス番号. 未受信の場合は -1.
+     */
+    private int mNextSequenceNumber = -1;
+
+    /**
+     * これまでに受信した最大のシーケンス番号.
+     */
+    private int mHighestSequenceNumber;
+
+    /**
+     * 保持しているパケット数.
+     */
+    private int mCount;
+
+    /**
+     * 前回のパケットの転送時間(RTP タイムスタンプの単位).
+     */
+    private long mLastTransit = Long.MIN_VALUE;
+
+    /**
+     * 到着間隔のジッター(RTP タイムスタンプの単位).
+     */
+    private double mJitter;
+
+    /**
+     * 受信したパケット数.
+     */
+    private long mReceivedCount;
+
+    /**
+     * 順番が入れ替わって到着したパケット数.
+     */
+    private long mReorderedCount;
+
+    /**
+     * 通知が終わった後に到着したパケット数.
+     */
+    private long mLateCount;
+
+    /**
+     * 損失したとみなしたパケット数.
+     */
+    private long mLostCount;
+
+    /**
+     * 重複して到着したパケット数.
+     */
+    private long mDuplicateCount;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param callback 並び替えたパケットを通知するコールバック
+     */
+    public RtpJitterBuffer(Callback callback) {
+        this(DEFAULT_CAPACITY, callback);
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param capacity 保持できるパケット数. 2 のべき乗に切り上げます
+     * @param callback 並び替えたパケットを通知するコールバック
+     */
+    public RtpJitterBuffer(int capacity, Callback callback) {
+        if (capacity <= 0 || capacity > 32768) {
+            throw new IllegalArgumentException("capacity is invalid.");
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("callback is null.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mSlots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            mSlots[i] = new Slot();
+        }
+        mMask = size - 1;
+        mCallback = callback;
+    }
+
+    /**
+     * クロック周波数を設定します.
+     *
+     * <p>
+     * ジッターの計算に使用します。
+     * </p>
+     *
+     * @param clockFrequency クロック周波数
+     */
+    public synchronized void setClockFrequency(int clockFrequency) {
+        if (clockFrequency <= 0) {
+            throw new IllegalArgumentException("clockFrequency is invalid.");
+        }
+        mClockFrequency = clockFrequency;
+    }
+
+    /**
+     * レイテンシの範囲を設定します.
+     *
+     * <p>
+     * 最小値と最大値に同じ値を指定した場合には、レイテンシを固定します。
+     * </p>
+     *
+     * @param minLatency レイテンシの最小値(ミリ秒)
+     * @param maxLatency レイテンシの最大値(ミリ秒)
+     */
+    public synchronized void setLatency(int minLatency, int maxLatency) {
+        if (minLatency < 0 || maxLatency < minLatency) {
+            throw new IllegalArgumentException("latency is invalid.");
+        }
+        mMinLatency = minLatency;
+        mMaxLatency = maxLatency;
+        mLatency = clampLatency(mLatency);
+    }
+
+    /**
+     * 現在のレイテンシを取得します.
+     *
+     * @return レイテンシ(ミリ秒)
+     */
+    public synchronized int getLatency() {
+        return mLatency;
+    }
+
+    /**
+     * 到着間隔のジッターを取得します.
+     *
+     * @return ジッター(ミリ秒)
+     */
+    public synchronized double getJitter() {
+        return mJitter * 1000 / mClockFrequency;
+    }
+
+    /**
+     * 受信したパケット数を取得します.
+     *
+     * @return 受信したパケット数
+     */
+    public synchronized long getReceivedCount() {
+        return mReceivedCount;
+    }
+
+    /**
+     * 順番が入れ替わって到着したパケット数を取得します.
+     *
+     * @return 順番が入れ替わったパケット数
+     */
+    public synchronized long getReorderedCount() {
+        return mReorderedCount;
+    }
+
+    /**
+     * 損失とみなした後に到着して破棄したパケット数を取得します.
+     *
+     * @return 遅れて到着したパケット数
+     */
+    public synchronized long getLateCount() {
+        return mLateCount;
+    }
+
+    /**
+     * 損失したとみなしたパケット数を取得します.
+     *
+     * @return 損失したパケット数
+     */
+    public synchronized long getLostCount() {
+        return mLostCount;
+    }
+
+    /**
+     * 重複して到着したパケット数を取得します.
+     *
+     * @return 重複したパケット数
+     */
+    public synchronized long getDuplicateCount() {
+        return mDuplicateCount;
+    }
+
+    /**
+     * 保持しているパケット数を取得します.
+     *
+     * @return 保持しているパケット数
+     */
+    public synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * RTP パケットを書き込みます.
+     *
+     * <p>
+     * 通知できるパケットは、このメソッドを呼び出したスレッドで通知します。
+     * </p>
+     *
+     * @param data RTP パケットデータ
+     * @param dataLength RTP パケットデータサイズ
+     */
+    public void write(byte[] data, int dataLength) {
+        write(data, dataLength, currentTimeMillis());
+    }
+
+    /**
+     * レイテンシを超えたパケットを通知します.
+     *
+     * <p>
+     * パケットの受信が止まった場合にも保持しているパケットを通知するために、定期的に呼び出してください。
+     * </p>
+     *
+     * @return 次に呼び出すまでの時間(ミリ秒). 保持しているパケットがない場合は -1
+     */
+    public long process() {
+        return process(currentTimeMillis());
+    }
+
+    /**
+     * 保持しているパケットを全て通知して、初期状態に戻します.
+     */
+    public synchronized void flush() {
+        releaseAll();
+        mNextSequenceNumber = -1;
+        mLastTransit = Long.MIN_VALUE;
+    }
+
+    /**
+     * 保持しているパケットを破棄して、初期状態に戻します.
+     */
+    public synchronized void clear() {
+        for (Slot slot : mSlots) {
+            slot.mUsed = false;
+            slot.mLost = false;
+        }
+        mCount = 0;
+        mNextSequenceNumber = -1;
+        mLastTransit = Long.MIN_VALUE;
+        mJitter = 0;
+        mLatency = mMinLatency;
+    }
+
+    /**
+     * RTP パケットを書き込みます.
+     *
+     * @param data RTP パケットデータ
+     * @param dataLength RTP パケットデータサイズ
+     * @param now 現在時刻(ミリ秒)
+     */
+    synchronized void write(byte[] data, int dataLength, long now) {
+        if (dataLength < RtpPacket.RTP_HEADER_LENGTH) {
+            return;
+        }
+
+        int seq = getSequenceNumber(data);
+        mReceivedCount++;
+        updateJitter(getTimestamp(data), now);
+
+        if (mNextSequenceNumber == -1) {
+            mNextSequenceNumber = seq;
+            mHighestSequenceNumber = seq;
+        }
+
+        int diff = diff(seq, mNextSequenceNumber);
+        if (diff >= mSlots.length || diff <= -mSlots.length) {
+            // 送信元の再起動やシークなどでシーケンス番号が前後どちらかに大きく飛んだ場合は、
+            // 保持しているパケットを全て通知して同期し直す
+            releaseAll();
+            mNextSequenceNumber = seq;
+            mHighestSequenceNumber = seq;
+            diff = 0;
+        }
+
+        if (diff < 0) {
+            Slot slot = mSlots[seq & mMask];
+            if (slot.mLost && slot.mSequenceNumber == seq) {
+                // 損失とみなしたパケットが遅れて到着したので、レイテンシを大きくする
+                slot.mLost = false;
+                mLateCount++;
+                mLatency = clampLatency(mLatency + Math.max(10, mLatency / 2));
+            } else {
+                mDuplicateCount++;
+            }
+            return;
+        }
+
+        if (diff(seq, mHighestSequenceNumber) < 0) {
+            mReorderedCount++;
+        } else {
+            mHighestSequenceNumber = seq;
+        }
+
+        if (diff == 0 && mCount == 0) {
+            // 順番通りに到着したパケットはコピーせずに通知する
+            mNextSequenceNumber = (seq + 1) & 0xFFFF;
+            mCallback.onPacket(data, dataLength);
+        } else {
+            Slot slot = mSlots[seq & mMask];
+            if (slot.mUsed) {
+                mDuplicateCount++;
+                return;
+            }
+            slot.set(data, dataLength, now);
+            mCount++;
+            release(now);
+        }
+
+        decayLatency(now);
+    }
+
+    /**
+     * レイテンシを超えたパケットを通知します.
+     *
+     * @param now 現在時刻(ミリ秒)
+     * @return 次に呼び出すまでの時間(ミリ秒). 保持しているパケットがない場合は -1
+     */
+    synchronized long process(long now) {
+        release(now);
+        decayLatency(now);
+
+        Slot head = findFirstSlot();
+        if (head == null) {
+            return -1;
+        }
+        return Math.max(0, head.mArrivalTime + mLatency - now);
+    }
+
+    /**
+     * 通知できるパケットを通知します.
+     *
+     * @param now 現在時刻(ミリ秒)
+     */
+    private void release(long now) {
+        while (mCount > 0) {
+            Slot slot = mSlots[mNextSequenceNumber & mMask];
+            if (slot.mUsed) {
+                deliver(slot);
+                continue;
+            }
+
+            // 先頭のパケットが抜けている場合は、後続のパケットがレイテンシを超えて待っていれば損失とみなす
+            Slot head = findFirstSlot();
+            if (head == null || now - head.mArrivalTime < mLatency) {
+                return;
+            }
+            skipTo(head.mSequenceNumber);
+        }
+    }
+
+    /**
+     * 保持しているパケットをシーケンス番号順に全て通知します.
+     */
+    private void releaseAll() {
+        while (mCount > 0) {
+            Slot slot = mSlots[mNextSequenceNumber & mMask];
+            if (slot.mUsed) {
+                deliver(slot);
+            } else {
+                Slot head = findFirstSlot();
+                skipTo(head.mSequenceNumber);
+            }
+        }
+    }
+
+    /**
+     * 指定したシーケンス番号の手前までのパケットを損失とみなします.
+     *
+     * @param seq 次に通知するシーケンス番号
+     */
+    private void skipTo(int seq) {
+        while (mNextSequenceNumber != seq) {
+            Slot slot = mSlots[mNextSequenceNumber & mMask];
+            slot.mLost = true;
+            slot.mSequenceNumber = mNextSequenceNumber;
+            mLostCount++;
+            mNextSequenceNumber = (mNextSequenceNumber + 1) & 0xFFFF;
+        }
+    }
+
+    /**
+     * スロットのパケットを通知します.
+     *
+     * @param slot 通知するスロット
+     */
+    private void deliver(Slot slot) {
+        slot.mUsed = false;
+        mCount--;
+        mNextSequenceNumber = (slot.mSequenceNumber + 1) & 0xFFFF;
+        mCallback.onPacket(slot.mData, slot.mLength);
+    }
+
+    /**
+     * 次に通知するシーケンス番号以降で、最初にパケットが格納されているスロットを探します.
+     *
+     * @return スロット. 見つからない場合は null
+     */
+    private Slot findFirstSlot() {
+        if (mCount == 0) {
+            return null;
+        }
+        for (int i = 0; i < mSlots.length; i++) {
+            Slot slot = mSlots[(mNextSequenceNumber + i) & mMask];
+            if (slot.mUsed) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 到着間隔のジッターを更新します.
+     *
+     * @param timestamp RTP タイムスタンプ
+     * @param now 現在時刻(ミリ秒)
+     */
+    private void updateJitter(long timestamp, long now) {
+        long arrival = now * mClockFrequency / 1000;
+        long transit = arrival - timestamp;
+        if (mLastTransit != Long.MIN_VALUE) {
+            long d = Math.abs(transit - mLastTransit);
+            // タイムスタンプの一周やストリームの切り替えによる外れ値は無視する
+            if (d < mClockFrequency) {
+                mJitter += (d - mJitter) / 16.0;
+            }
+        }
+        mLastTransit = transit;
+
+        int jitterLatency = (int) (JITTER_MULTIPLIER * mJitter * 1000 / mClockFrequency);
+        if (jitterLatency > mLatency) {
+            mLatency = clampLatency(jitterLatency);
+        }
+    }
+
+    /**
+     * 遅れて到着したパケットがない場合に、レイテンシを徐々に小さくします.
+     *
+     * @param now 現在時刻(ミリ秒)
+     */
+    private void decayLatency(long now) {
+        if (mLastDecayTime == -1) {
+            mLastDecayTime = now;
+            return;
+        }
+        if (now - mLastDecayTime < LATENCY_DECAY_INTERVAL) {
+            return;
+        }
+        mLastDecayTime = now;
+
+        int floor = (int) (JITTER_MULTIPLIER * mJitter * 1000 / mClockFrequency);
+        mLatency = clampLatency(Math.max(floor, mLatency - mLatency / 10));
+    }
+
+    private int clampLatency(int latency) {
+        return Math.max(mMinLatency, Math.min(mMaxLatency, latency));
+    }
+
+    private static long currentTimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * シーケンス番号の差を求めます.
+     *
+     * <p>
+     * シーケンス番号の一周を考慮して、-32768 から 32767 の範囲で返却します。
+     * </p>
+     *
+     * @param a シーケンス番号
+     * @param b シーケンス番号
+     * @return a - b
+     */
+    private static int diff(int a, int b) {
+        return (short) (a - b);
+    }
+
+    private static int getSequenceNumber(byte[] data) {
+        return ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+    }
+
+    private static long getTimestamp(byte[] data) {
+        return ((long) (data[4] & 0xFF) << 24) | ((data[5] & 0xFF) << 16) |
+                ((data[6] & 0xFF) << 8) | (data[7] & 0xFF);
+    }
+
+    /**
+     * パケットを格納するスロット.
+     */
+    private static class Slot {
+        /**
+         * パケットデータ. 初めてパケットを格納する時に確保します.
+         */
+        private byte[] mData;
+
+        /**
+         * パケットデータサイズ.
+         */
+        private int mLength;
+
+        /**
+         * シーケンス番号.
+         */
+        private int mSequenceNumber;
+
+        /**
+         * 到着時刻(ミリ秒).
+         */
+        private long mArrivalTime;
+
+        /**
+         * パケットが格納されている場合は true.
+         */
+        private boolean mUsed;
+
+        /**
+         * 損失とみなしたシーケンス番号のスロットの場合は true.
+         */
+        private boolean mLost;
+
+        private void set(byte[] data, int length, long arrivalTime) {
+            if (mData == null || mData.length < length) {
+                mData = new byte[Math.max(length, RtpPacket.MTU)];
+            }
+            System.arraycopy(data, 0, mData, 0, length);
+            mLength = length;
+            mSequenceNumber = getSequenceNumber(data);
+            mArrivalTime = arrivalTime;
+            mUsed = true;
+            mLost = false;
+        }
+    }
+
+    /**
+     * 並び替えたパケットを通知するコールバック.
+     */
+    public interface Callback {
+        /**
+         * シーケンス番号順に並び替えたパケットを通知します.
+         *
+         * <p>
+         * data はこのメソッドから戻った後に再利用されるので、保持する場合はコピーすること。
+         * </p>
+         *
+         * @param data RTP パケットデータ
+         * @param dataLength RTP パケットデータサイズ
+         */
+        void onPacket(byte[] data, int dataLength);
+    }
+}
@@ -1,5 +1,7 @@
 package org.deviceconnect.android.libmedia.streaming.rtp;
 
+import java.nio.ByteBuffer;
+
 public class RtpPacket {
     /**
      * RTP のヘッダーサイズを定義します.
@@ -16,6 +18,15 @@ public class RtpPacket {
      */
     private final byte[] mBuffer = new byte[MTU];
 
+    /**
+     * RTP データを送信するための {@link ByteBuffer}.
+     *
+     * <p>
+     * {@link #mBuffer} をラップしているので、送信のたびに ByteBuffer を作成しません。
+     * </p>
+     */
+    private final ByteBuffer mByteBuffer = ByteBuffer.wrap(mBuffer);
+
     /**
      * RTP パケットのサイズ.
      */
@@ -24,7 +35,7 @@ public class RtpPacket {
     /**
      * 使用フラグ.
      */
-    private boolean mUsed;
+    private volatile boolean mUsed;
 
     /**
      * タイムスタンプ.
@@ -40,6 +51,21 @@ public class RtpPacket {
         return mBuffer;
     }
 
+    /**
+     * 送信する RTP パケットのデータを {@link ByteBuffer} で取得します.
+     *
+     * <p>
+     * {@link #getBuffer()} と同じデータを参照し、先頭から {@link #getLength()} までを送信範囲に設定します。
+     * </p>
+     *
+     * @return RTP パケットのデータ
+     */
+    public ByteBuffer getByteBuffer() {
+        mByteBuffer.clear();
+        mByteBuffer.limit(mLength);
+        return mByteBuffer;
+    }
+
     /**
      * RTP パケットのデータサイズを取得します.
      *
@@ -81,21 +107,21 @@ public class RtpPacket {
      *
      * @return 使用中の場合はtrue、それ以外はfalse
      */
-    public synchronized boolean isUsed() {
+    public boolean isUsed() {
         return mUsed;
     }
 
     /**
      * 使用を開始します.
      */
-    public synchronized void consume() {
+    public void consume() {
         mUsed = true;
     }
 
     /**
      * 使用をやめます.
      */
-    public synchronized void release() {
+    public void release() {
         mUsed = false;
     }
 }
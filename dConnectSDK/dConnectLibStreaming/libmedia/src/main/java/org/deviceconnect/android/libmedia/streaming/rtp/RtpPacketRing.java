@@ -0,0 +1,212 @@
+package org.deviceconnect.android.libmedia.streaming.rtp;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * RtpPacket を再利用するためのリングバッファ.
+ *
+ * <p>
+ * パケットを作成するスレッド(プロデューサ)と送信するスレッド(コンシューマ)がそれぞれ1つの場合に限り、
+ * ロックを使用せずにパケットを受け渡します。パケットは全て事前に確保するので、送信中にメモリを確保しません。
+ * </p>
+ *
+ * <p>
+ * プロデューサは {@link #acquire(long)} で取得したパケットにデータを書き込み {@link #publish()} で公開します。
+ * コンシューマは {@link #take(long)} で取得したパケットを送信した後に {@link #remove()} で返却します。
+ * </p>
+ */
+class RtpPacketRing {
+    /**
+     * パケットの配列.
+     */
+    private final RtpPacket[] mPackets;
+
+    /**
+     * インデックスを計算するためのマスク.
+     */
+    private final int mMask;
+
+    /**
+     * 次にプロデューサが書き込む位置.
+     *
+     * <p>
+     * プロデューサのみが更新します。
+     * </p>
+     */
+    private volatile long mHead;
+
+    /**
+     * 次にコンシューマが読み込む位置.
+     *
+     * <p>
+     * コンシューマのみが更新します。
+     * </p>
+     */
+    private volatile long mTail;
+
+    /**
+     * パケットの公開を待っているコンシューマのスレッド.
+     */
+    private volatile Thread mWaitingConsumer;
+
+    /**
+     * パケットの返却を待っているプロデューサのスレッド.
+     */
+    private volatile Thread mWaitingProducer;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param capacity 容量. 2 のべき乗に切り上げます
+     */
+    RtpPacketRing(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 16)) {
+            throw new IllegalArgumentException("capacity is invalid.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mPackets = new RtpPacket[size];
+        for (int i = 0; i < size; i++) {
+            mPackets[i] = new RtpPacket();
+        }
+        mMask = size - 1;
+    }
+
+    /**
+     * 容量を取得します.
+     *
+     * @return 容量
+     */
+    int capacity() {
+        return mPackets.length;
+    }
+
+    /**
+     * 公開済みで、まだ返却されていないパケット数を取得します.
+     *
+     * @return パケット数
+     */
+    int size() {
+        return (int) (mHead - mTail);
+    }
+
+    /**
+     * データを書き込むパケットを取得します.
+     *
+     * <p>
+     * プロデューサから呼び出します。{@link #publish()} を呼び出すまでは同じパケットを返却します。
+     * 空きがない場合は、指定した時間だけコンシューマがパケットを返却するのを待ちます。
+     * </p>
+     *
+     * @param timeoutNanos 待つ最大時間(ナノ秒)
+     * @return パケット、空きがない場合は null
+     */
+    RtpPacket acquire(long timeoutNanos) {
+        long head = mHead;
+        if (head - mTail < mPackets.length) {
+            return mPackets[(int) head & mMask];
+        }
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        Thread current = Thread.currentThread();
+        while (true) {
+            mWaitingProducer = current;
+            if (head - mTail < mPackets.length) {
+                mWaitingProducer = null;
+                return mPackets[(int) head & mMask];
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || current.isInterrupted()) {
+                mWaitingProducer = null;
+                return null;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    /**
+     * {@link #acquire(long)} で取得したパケットをコンシューマに公開します.
+     */
+    void publish() {
+        mHead = mHead + 1;
+        Thread consumer = mWaitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * 公開されたパケットを取得します.
+     *
+     * <p>
+     * コンシューマから呼び出します。{@link #remove()} を呼び出すまでは同じパケットを返却します。
+     * 公開されたパケットがない場合は、指定した時間だけ待ちます。
+     * </p>
+     *
+     * @param timeoutNanos 待つ最大時間(ナノ秒)
+     * @return パケット、公開されたパケットがない場合は null
+     */
+    RtpPacket take(long timeoutNanos) {
+        return peek(0, timeoutNanos);
+    }
+
+    /**
+     * 公開されたパケットのうち、先頭から指定した位置にあるパケットを取得します.
+     *
+     * <p>
+     * コンシューマから呼び出します。複数のパケットをまとめて送信する場合に、
+     * 返却する前に後続のパケットを確認するために使用します。
+     * 指定した位置のパケットが公開されていない場合は、指定した時間だけ待ちます。
+     * </p>
+     *
+     * @param index 先頭からの位置
+     * @param timeoutNanos 待つ最大時間(ナノ秒)
+     * @return パケット、公開されたパケットがない場合は null
+     */
+    RtpPacket peek(int index, long timeoutNanos) {
+        long position = mTail + index;
+        if (position < mHead) {
+            return mPackets[(int) position & mMask];
+        }
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        Thread current = Thread.currentThread();
+        while (true) {
+            mWaitingConsumer = current;
+            if (position < mHead) {
+                mWaitingConsumer = null;
+                return mPackets[(int) position & mMask];
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || current.isInterrupted()) {
+                mWaitingConsumer = null;
+                return null;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    /**
+     * {@link #take(long)} で取得したパケットをプロデューサに返却します.
+     */
+    void remove() {
+        mTail = mTail + 1;
+        Thread producer = mWaitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    /**
+     * 公開済みのパケットを全て破棄します.
+     *
+     * <p>
+     * プロデューサとコンシューマが停止している時に呼び出してください。
+     * </p>
+     */
+    void clear() {
+        mTail = mHead;
+    }
+}
@@ -2,7 +2,15 @@ package org.deviceconnect.android.libmedia.streaming.rtp;
 
 import org.deviceconnect.android.libmedia.streaming.util.UDPReceiverThread;
 
+import java.io.IOException;
+import java.net.InetAddress;
+
 public class RtpReceiver {
+    /**
+     * ジッターバッファの処理を行う間隔の最大値(ミリ秒).
+     */
+    private static final long JITTER_BUFFER_PROCESS_INTERVAL = 10;
+
     /**
      * RTP を受信するためのポート番号.
      */
@@ -28,6 +36,41 @@ public class RtpReceiver {
      */
     private Callback mCallback;
 
+    /**
+     * 受信した RTP パケットをシーケンス番号順に並び替えるジッターバッファ.
+     */
+    private final RtpJitterBuffer mJitterBuffer;
+
+    /**
+     * ジッターバッファの有効フラグ.
+     */
+    private boolean mJitterBufferEnabled = true;
+
+    /**
+     * ジッターバッファのレイテンシを超えたパケットを通知するスレッド.
+     */
+    private JitterBufferThread mJitterBufferThread;
+
+    /**
+     * Receiver Report と NACK を作成するクラス.
+     */
+    private final RtcpReporter mRtcpReporter = new RtcpReporter();
+
+    /**
+     * Receiver Report と NACK を書き込むバッファ.
+     */
+    private final byte[] mRtcpBuffer = new byte[RtpPacket.MTU];
+
+    /**
+     * Receiver Report と NACK の送信先のアドレス.
+     */
+    private volatile InetAddress mRemoteRtcpAddress;
+
+    /**
+     * Receiver Report と NACK の送信先のポート番号.
+     */
+    private volatile int mRemoteRtcpPort;
+
     /**
      * コンストラクタ.
      *
@@ -37,6 +80,7 @@ public class RtpReceiver {
     public RtpReceiver(int rtpPort, int rtcpPort) {
         mRtpPort = rtpPort;
         mRtcpPort = rtcpPort;
+        mJitterBuffer = new RtpJitterBuffer(this::postOnRtpReceived);
     }
 
     @Override
@@ -57,6 +101,72 @@ public class RtpReceiver {
         mCallback = callback;
     }
 
+    /**
+     * ジッターバッファの有効・無効を設定します.
+     *
+     * <p>
+     * 無効にした場合は、受信した RTP パケットを受信した順番でそのまま通知します。
+     * {@link #open()} を呼び出す前に設定してください。
+     * </p>
+     *
+     * @param enabled 有効にする場合はtrue、それ以外はfalse
+     */
+    public void setJitterBufferEnabled(boolean enabled) {
+        mJitterBufferEnabled = enabled;
+    }
+
+    /**
+     * ジッターバッファを取得します.
+     *
+     * <p>
+     * レイテンシの設定や、損失したパケット数などの統計情報の取得に使用します。
+     * </p>
+     *
+     * @return ジッターバッファ
+     */
+    public RtpJitterBuffer getJitterBuffer() {
+        return mJitterBuffer;
+    }
+
+    /**
+     * RTP タイムスタンプのクロック周波数を設定します.
+     *
+     * <p>
+     * ジッターバッファのレイテンシと、Receiver Report のジッターの計算に使用します。
+     * </p>
+     *
+     * @param clockFrequency クロック周波数
+     */
+    public void setClockFrequency(int clockFrequency) {
+        mJitterBuffer.setClockFrequency(clockFrequency);
+        mRtcpReporter.setClockFrequency(clockFrequency);
+    }
+
+    /**
+     * Receiver Report と NACK の送信先を設定します.
+     *
+     * <p>
+     * 送信先を設定した場合は、RTP の受信状況を定期的に Receiver Report で送信元に通知し、
+     * 損失したパケットを NACK で再送要求します。
+     * </p>
+     *
+     * @param address 送信先のアドレス
+     * @param port 送信先の RTCP のポート番号
+     */
+    public void setRemoteRtcp(InetAddress address, int port) {
+        mRemoteRtcpAddress = address;
+        mRemoteRtcpPort = port;
+    }
+
+    /**
+     * NACK で再送を要求したパケット数を取得します.
+     *
+     * @return 再送を要求したパケット数
+     */
+    public long getNackCount() {
+        return mRtcpReporter.getNackCount();
+    }
+
     /**
      * RTP・RTCP パケットの受信用のソケットを開きます.
      */
@@ -65,10 +175,23 @@ public class RtpReceiver {
             return;
         }
 
+        final boolean jitterBufferEnabled = mJitterBufferEnabled;
+        if (jitterBufferEnabled) {
+            mJitterBuffer.clear();
+            mJitterBufferThread = new JitterBufferThread();
+            mJitterBufferThread.setName("RTP-JITTER-BUFFER-" + mRtpPort);
+            mJitterBufferThread.start();
+        }
+
         mReceiverThread = new UDPReceiverThread(mRtpPort, RtpPacket.MTU) {
             @Override
             public void onReceived(byte[] data, int dataLength) {
-                postOnRtpReceived(data, dataLength);
+                report(data, dataLength);
+                if (jitterBufferEnabled) {
+                    mJitterBuffer.write(data, dataLength);
+                } else {
+                    postOnRtpReceived(data, dataLength);
+                }
             }
             @Override
             public void onError(Exception e) {
@@ -83,6 +206,7 @@ public class RtpReceiver {
             mRtcpReceiverThread = new UDPReceiverThread(mRtcpPort, RtpPacket.MTU) {
                 @Override
                 public void onReceived(byte[] data, int dataLength) {
+                    mRtcpReporter.onRtcpPacket(data, dataLength, System.currentTimeMillis());
                     postOnRtcpReceived(data, dataLength);
                 }
 
@@ -109,6 +233,11 @@ public class RtpReceiver {
             mRtcpReceiverThread.terminate();
             mRtcpReceiverThread = null;
         }
+
+        if (mJitterBufferThread != null) {
+            mJitterBufferThread.terminate();
+            mJitterBufferThread = null;
+        }
     }
 
     /**
@@ -169,6 +298,38 @@ public class RtpReceiver {
         return bps;
     }
 
+    /**
+     * 受信した RTP パケットを集計して、必要な場合は Receiver Report と NACK を送信します.
+     *
+     * <p>
+     * パケットの損失を検出した場合には、再送が間に合うように Receiver Report の送信間隔を待たずに送信します。
+     * </p>
+     *
+     * @param data RTP パケットデータ
+     * @param dataLength RTP パケットデータサイズ
+     */
+    private void report(byte[] data, int dataLength) {
+        long now = System.currentTimeMillis();
+        boolean nack = mRtcpReporter.onRtpPacket(data, dataLength, now);
+
+        InetAddress address = mRemoteRtcpAddress;
+        UDPReceiverThread rtcpThread = mRtcpReceiverThread;
+        if (address == null || rtcpThread == null) {
+            return;
+        }
+
+        if (nack || mRtcpReporter.isReportDue(now)) {
+            int length = mRtcpReporter.writeReport(mRtcpBuffer, now);
+            if (length > 0) {
+                try {
+                    rtcpThread.send(mRtcpBuffer, length, address, mRemoteRtcpPort);
+                } catch (IOException e) {
+                    // ignore.
+                }
+            }
+        }
+    }
+
     /**
      * エラーを通知します.
      *
@@ -204,6 +365,50 @@ public class RtpReceiver {
         }
     }
 
+    /**
+     * ジッターバッファのレイテンシを超えたパケットを通知するスレッド.
+     *
+     * <p>
+     * パケットの受信が途切れた場合にも、保持しているパケットをレイテンシ内に通知するために使用します。
+     * </p>
+     */
+    private class JitterBufferThread extends Thread {
+        /**
+         * 停止フラグ.
+         */
+        private volatile boolean mStopFlag;
+
+        /**
+         * スレッドの停止処理を行います.
+         */
+        void terminate() {
+            mStopFlag = true;
+
+            interrupt();
+
+            try {
+                join(500);
+            } catch (InterruptedException e) {
+                // ignore.
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!mStopFlag) {
+                long wait = mJitterBuffer.process();
+                if (wait < 0 || wait > JITTER_BUFFER_PROCESS_INTERVAL) {
+                    wait = JITTER_BUFFER_PROCESS_INTERVAL;
+                }
+                try {
+                    Thread.sleep(Math.max(1, wait));
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
     public interface Callback {
         /**
          * RTP・RTCP の受信で発生したエラーを通知します.
@@ -219,6 +424,10 @@ public class RtpReceiver {
          * RTP を受信しているので、この通知の中では重い処理を行わないこと。
          * </p>
          *
+         * <p>
+         * ジッターバッファが有効な場合は、シーケンス番号順に並び替えて通知します。
+         * </p>
+         *
          * @param data RTP パケットデータ
          * @param dataLength RTP パケットデータサイズ
          */
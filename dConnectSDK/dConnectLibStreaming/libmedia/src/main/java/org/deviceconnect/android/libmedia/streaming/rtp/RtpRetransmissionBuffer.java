@@ -0,0 +1,144 @@
+package org.deviceconnect.android.libmedia.streaming.rtp;
+
+/**
+ * 送信した RTP パケットを再送のために保持するリングバッファ.
+ *
+ * <p>
+ * パケットはシーケンス番号の下位ビットをインデックスにして保持するので、
+ * NACK で要求されたパケットを探索せずに取り出せます。
+ * 容量を超えた古いパケットは、新しいパケットで上書きされます。
+ * </p>
+ */
+class RtpRetransmissionBuffer {
+    /**
+     * デフォルトの容量.
+     */
+    static final int DEFAULT_CAPACITY = 512;
+
+    /**
+     * パケットを保持する最大時間のデフォルト値(ミリ秒).
+     */
+    static final long DEFAULT_MAX_AGE = 1000;
+
+    /**
+     * パケットのデータ.
+     */
+    private final byte[][] mData;
+
+    /**
+     * パケットのデータサイズ.
+     */
+    private final int[] mLength;
+
+    /**
+     * パケットのシーケンス番号.
+     */
+    private final int[] mSequenceNumber;
+
+    /**
+     * パケットを保持した時刻(ミリ秒).
+     */
+    private final long[] mTime;
+
+    /**
+     * インデックスを計算するためのマスク.
+     */
+    private final int mMask;
+
+    /**
+     * パケットを保持する最大時間(ミリ秒).
+     */
+    private long mMaxAge = DEFAULT_MAX_AGE;
+
+    /**
+     * コンストラクタ.
+     */
+    RtpRetransmissionBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param capacity 容量. 2 のべき乗に切り上げます
+     */
+    RtpRetransmissionBuffer(int capacity) {
+        if (capacity <= 0 || capacity > 0x10000) {
+            throw new IllegalArgumentException("capacity is invalid.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mData = new byte[size][];
+        mLength = new int[size];
+        mSequenceNumber = new int[size];
+        mTime = new long[size];
+        mMask = size - 1;
+        clear();
+    }
+
+    /**
+     * パケットを保持する最大時間を設定します.
+     *
+     * @param maxAge 最大時間(ミリ秒)
+     */
+    synchronized void setMaxAge(long maxAge) {
+        mMaxAge = maxAge;
+    }
+
+    /**
+     * 送信したパケットを保持します.
+     *
+     * @param data RTP パケットデータ
+     * @param dataLength RTP パケットデータサイズ
+     * @param now 現在時刻(ミリ秒)
+     */
+    synchronized void put(byte[] data, int dataLength, long now) {
+        if (dataLength < RtpPacket.RTP_HEADER_LENGTH) {
+            return;
+        }
+        int seq = ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+        int index = seq & mMask;
+        byte[] buf = mData[index];
+        if (buf == null || buf.length < dataLength) {
+            buf = new byte[Math.max(dataLength, RtpPacket.MTU)];
+            mData[index] = buf;
+        }
+        System.arraycopy(data, 0, buf, 0, dataLength);
+        mLength[index] = dataLength;
+        mSequenceNumber[index] = seq;
+        mTime[index] = now;
+    }
+
+    /**
+     * 保持しているパケットを取り出します.
+     *
+     * @param sequenceNumber シーケンス番号
+     * @param out パケットデータの書き込み先
+     * @param now 現在時刻(ミリ秒)
+     * @return パケットデータサイズ、保持していない場合は -1
+     */
+    synchronized int get(int sequenceNumber, byte[] out, long now) {
+        int index = sequenceNumber & mMask;
+        if (mSequenceNumber[index] != sequenceNumber || now - mTime[index] > mMaxAge) {
+            return -1;
+        }
+        int length = mLength[index];
+        if (out.length < length) {
+            return -1;
+        }
+        System.arraycopy(mData[index], 0, out, 0, length);
+        return length;
+    }
+
+    /**
+     * 保持しているパケットを全て破棄します.
+     */
+    synchronized void clear() {
+        for (int i = 0; i < mSequenceNumber.length; i++) {
+            mSequenceNumber[i] = -1;
+            mLength[i] = 0;
+        }
+    }
+}
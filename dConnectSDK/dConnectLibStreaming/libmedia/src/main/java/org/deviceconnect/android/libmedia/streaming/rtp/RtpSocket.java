@@ -1,18 +1,43 @@
 package org.deviceconnect.android.libmedia.streaming.rtp;
 
-import org.deviceconnect.android.libmedia.streaming.util.QueueThread;
+import org.deviceconnect.android.libmedia.streaming.util.UDPPacer;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
+import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.MulticastSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 public class RtpSocket implements RtpPacketize.Callback {
     /**
      * バッファサイズを定義.
+     *
+     * <p>
+     * 1080p30 の H.264 の I フレーム(約 200 パケット)を溜められるサイズにします。
+     * </p>
      */
-    private static final int MAX_BUF_SIZE = 300;
+    private static final int MAX_BUF_SIZE = 512;
+
+    /**
+     * 送信用のスレッドがパケットを待つ最大時間(ナノ秒).
+     *
+     * <p>
+     * この時間ごとにスレッドの停止を確認します。
+     * </p>
+     */
+    private static final long MAX_TAKE_WAIT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * バッチ送信で、アクセスユニットの後続のパケットを待つ最大時間(ナノ秒).
+     *
+     * <p>
+     * マーカービットのあるパケットが届かない場合は、この時間で集めたパケットを送信します。
+     * </p>
+     */
+    private static final long MAX_GATHER_WAIT = TimeUnit.MILLISECONDS.toNanos(5);
 
     /**
      * 送信者識別子.
@@ -30,19 +55,56 @@ public class RtpSocket implements RtpPacketize.Callback {
     private int mRemotePort;
 
     /**
-     * 送信する RTP のデータを一時的にするバッファ.
+     * 送信先のアドレスとポート番号.
+     */
+    private volatile InetSocketAddress mRemoteSocketAddress;
+
+    /**
+     * 送信する RTP のデータを一時的に格納するリングバッファ.
+     *
+     * <p>
+     * パケット化を行うスレッドから送信用のスレッドにロックなしでパケットを受け渡します。
+     * </p>
      */
-    private final RtpPacket[] mRtpPackets = new RtpPacket[MAX_BUF_SIZE];
+    private final RtpPacketRing mRtpPackets = new RtpPacketRing(MAX_BUF_SIZE);
 
     /**
-     * マルチキャスト用のソケット.
+     * バッファに空きがない場合にパケット化に渡す破棄用のパケット.
      */
-    private final MulticastSocket mSocket;
+    private final RtpPacket mDiscardPacket = new RtpPacket();
 
     /**
-     * 送信用の UDP パケット.
+     * バッファに空きがなく破棄したパケット数.
      */
-    private final DatagramPacket mDatagramPacket;
+    private volatile long mDiscardedCount;
+
+    /**
+     * interleaved の送信キューに空きがなく破棄したパケット数.
+     *
+     * <p>
+     * 送信用のスレッドのみが更新します。
+     * </p>
+     */
+    private volatile long mDroppedCount;
+
+    /**
+     * RTP over TCP (RTSP の interleaved) で送信する場合の送信先.
+     *
+     * <p>
+     * null の場合は UDP で送信します。
+     * </p>
+     */
+    private volatile InterleavedWriter mInterleavedWriter;
+
+    /**
+     * RTP を送信する interleaved のチャンネル番号.
+     */
+    private int mInterleavedChannel;
+
+    /**
+     * RTP 送信用のチャンネル.
+     */
+    private final DatagramChannel mChannel;
 
     /**
      * RTCP 送信用のソケット.
@@ -69,17 +131,50 @@ public class RtpSocket implements RtpPacketize.Callback {
      */
     private long mBPS;
 
+    /**
+     * 送信した RTP パケットを再送のために保持するバッファ.
+     */
+    private final RtpRetransmissionBuffer mRetransmissionBuffer = new RtpRetransmissionBuffer();
+
+    /**
+     * 再送用のバッファ.
+     */
+    private final ByteBuffer mRetransmissionPacket = ByteBuffer.allocate(RtpPacket.MTU);
+
+    /**
+     * 再送の有効フラグ.
+     */
+    private volatile boolean mRetransmissionEnabled = true;
+
+    /**
+     * バッチ送信の有効フラグ.
+     */
+    private volatile boolean mPacingEnabled;
+
+    /**
+     * バッチ送信でパケットの送信間隔を調整するクラス.
+     */
+    private final UDPPacer mPacer = new UDPPacer();
+
+    /**
+     * 送信先の受信状況の統計情報.
+     */
+    private final RtpStatistics mStatistics = new RtpStatistics();
+
+    /**
+     * Receiver Report の受信を通知するリスナー.
+     */
+    private volatile OnReceiverReportListener mOnReceiverReportListener;
+
     /**
      * コンストラクタ.
      * @throws IOException ソケットの作成に失敗した場合に発生
      */
     public RtpSocket() throws IOException {
-        mSocket = new MulticastSocket();
-        for (int i = 0; i < MAX_BUF_SIZE; i++) {
-            mRtpPackets[i] = new RtpPacket();
-        }
+        mChannel = DatagramChannel.open();
+        mChannel.socket().bind(new InetSocketAddress(0));
         mRtcpSocket = new RtcpSocket();
-        mDatagramPacket = new DatagramPacket(new byte[1], 1);
+        mRtcpSocket.setCallback(mRtcpCallback);
         setSsrc(Math.abs(new Random().nextInt()));
     }
 
@@ -115,6 +210,35 @@ public class RtpSocket implements RtpPacketize.Callback {
         mThreadHighPriority = threadHighPriority;
     }
 
+    /**
+     * バッチ送信の有効・無効を設定します.
+     *
+     * <p>
+     * 有効にした場合は、アクセスユニット(マーカービットのあるパケットまで)のパケットを集めてから、
+     * 直近の送信レートに合わせてフレーム間隔に分散させて送信します。
+     * 送信が遅れてパケットが溜まっている場合は、間隔を空けずに送信します。
+     * </p>
+     *
+     * <p>
+     * 無効の場合は、パケット化されたパケットをすぐに送信します。
+     * </p>
+     *
+     * @param enabled 有効にする場合はtrue、それ以外はfalse
+     */
+    public void setPacingEnabled(boolean enabled) {
+        mPacingEnabled = enabled;
+    }
+
+    /**
+     * バッチ送信で、送信レートに掛ける係数を設定します.
+     *
+     * @param factor 係数 (1.0 以上)
+     * @see UDPPacer#setPacingFactor(float)
+     */
+    public void setPacingFactor(float factor) {
+        mPacer.setPacingFactor(factor);
+    }
+
     /**
      * ソケットを開始します.
      */
@@ -125,6 +249,8 @@ public class RtpSocket implements RtpPacketize.Callback {
 
         mRtcpSocket.open();
 
+        mRtpPackets.clear();
+        mPacer.reset();
         mSenderThread = new SenderThread();
         mSenderThread.setName("RTP-SENDER");
         if (mThreadHighPriority) {
@@ -139,7 +265,7 @@ public class RtpSocket implements RtpPacketize.Callback {
     public synchronized void close() {
         if (mSenderThread != null) {
             try {
-                mSocket.close();
+                mChannel.close();
             } catch (Exception e) {
                 // ignore.
             }
@@ -153,6 +279,94 @@ public class RtpSocket implements RtpPacketize.Callback {
 
         mBPS = 0;
         mSentSize = 0;
+        mRetransmissionBuffer.clear();
+    }
+
+    /**
+     * NACK で要求されたパケットの再送の有効・無効を設定します.
+     *
+     * @param enabled 有効にする場合はtrue、それ以外はfalse
+     */
+    public void setRetransmissionEnabled(boolean enabled) {
+        mRetransmissionEnabled = enabled;
+        if (!enabled) {
+            mRetransmissionBuffer.clear();
+        }
+    }
+
+    /**
+     * 再送のためにパケットを保持する最大時間を設定します.
+     *
+     * <p>
+     * 保持する時間を超えたパケットは、NACK で要求されても再送しません。
+     * </p>
+     *
+     * @param maxAge 最大時間(ミリ秒)
+     */
+    public void setRetransmissionMaxAge(long maxAge) {
+        mRetransmissionBuffer.setMaxAge(maxAge);
+    }
+
+    /**
+     * RTP タイムスタンプのクロック周波数を設定します.
+     *
+     * @param clockFrequency クロック周波数
+     */
+    public void setClockFrequency(int clockFrequency) {
+        mRtcpSocket.setClockFrequency(clockFrequency);
+    }
+
+    /**
+     * RTP over TCP (RTSP の interleaved) で送信するように設定します.
+     *
+     * <p>
+     * RTP と RTCP は指定された送信先に、チャンネル番号を付けて送信します。
+     * TCP で送達が保証されるので、NACK による再送は無効にします。
+     * </p>
+     *
+     * @param writer 送信先
+     * @param rtpChannel RTP のチャンネル番号
+     * @param rtcpChannel RTCP のチャンネル番号
+     */
+    public void setInterleaved(InterleavedWriter writer, int rtpChannel, int rtcpChannel) {
+        mInterleavedChannel = rtpChannel;
+        mInterleavedWriter = writer;
+        mRtcpSocket.setInterleaved(writer, rtcpChannel);
+        setRetransmissionEnabled(false);
+    }
+
+    /**
+     * interleaved のチャンネルで受信した RTCP を処理します.
+     *
+     * @param data RTCP パケットデータ
+     * @param dataLength RTCP パケットデータサイズ
+     */
+    public void onInterleavedRtcp(byte[] data, int dataLength) {
+        mRtcpSocket.onReceived(data, dataLength);
+    }
+
+    /**
+     * 送信先の受信状況の統計情報を取得します.
+     *
+     * @return 統計情報のコピー
+     */
+    public RtpStatistics getStatistics() {
+        synchronized (mStatistics) {
+            RtpStatistics statistics = new RtpStatistics(mStatistics);
+            statistics.mRemoteAddress = mRemoteAddress;
+            statistics.mRemotePort = mRemotePort;
+            statistics.mSsrc = mSsrc;
+            return statistics;
+        }
+    }
+
+    /**
+     * Receiver Report の受信を通知するリスナーを設定します.
+     *
+     * @param listener リスナー
+     */
+    public void setOnReceiverReportListener(OnReceiverReportListener listener) {
+        mOnReceiverReportListener = listener;
     }
 
     /**
@@ -171,6 +385,33 @@ public class RtpSocket implements RtpPacketize.Callback {
         mSentSize = 0;
     }
 
+    /**
+     * 送信用のバッファに空きがなく、破棄したパケット数を取得します.
+     *
+     * <p>
+     * interleaved で送信している場合には、TCP の送信キューに空きがなく破棄したパケット数も含みます。
+     * </p>
+     *
+     * @return 破棄したパケット数
+     */
+    public long getDiscardedCount() {
+        return mDiscardedCount + mDroppedCount;
+    }
+
+    /**
+     * 送信用のバッファの空きパケット数を取得します.
+     *
+     * <p>
+     * パケット化を行うスレッドから呼び出すこと。
+     * この数を超えてパケット化した場合には破棄されます。
+     * </p>
+     *
+     * @return 空きパケット数
+     */
+    public int getAvailablePacketCount() {
+        return mRtpPackets.capacity() - mRtpPackets.size();
+    }
+
     /**
      * 送信したデータの BPS (bits per second) を取得します.
      *
@@ -188,8 +429,7 @@ public class RtpSocket implements RtpPacketize.Callback {
      * @param rtcpPort RTCPを送信するポート番号
      */
     public void setDestination(InetAddress dest, int rtpPort, int rtcpPort) {
-        mDatagramPacket.setAddress(dest);
-        mDatagramPacket.setPort(rtpPort);
+        mRemoteSocketAddress = new InetSocketAddress(dest, rtpPort);
         mRemoteAddress = dest;
         mRemotePort = rtpPort;
         mRtcpSocket.setDestination(dest, rtcpPort);
@@ -222,7 +462,7 @@ public class RtpSocket implements RtpPacketize.Callback {
      */
     public int[] getLocalPorts() {
         return new int[] {
-            mSocket.getLocalPort(),
+            mChannel.socket().getLocalPort(),
             mRtcpSocket.getLocalPort()
       };
     }
@@ -246,32 +486,130 @@ public class RtpSocket implements RtpPacketize.Callback {
         mRtcpSocket.setSsrc(ssrc);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * パケット化は1つのスレッドから行うこと。
+     * 送信用のバッファに空きがない場合は、送信用のスレッドを待たずに破棄用のパケットを返却します。
+     * 1つのエンコーダから複数のソケットに送信するので、送信の遅い送信先のために他の送信先を待たせないようにします。
+     * </p>
+     */
     @Override
     public RtpPacket getRtpPacket() {
-        for (RtpPacket packet : mRtpPackets) {
-            if (!packet.isUsed()) {
-                packet.consume();
-                return packet;
-            }
+        RtpPacket packet = null;
+        if (mSenderThread != null) {
+            packet = mRtpPackets.acquire(0);
+        }
+        if (packet == null) {
+            mDiscardedCount++;
+            return mDiscardPacket;
         }
-        return null;
+        return packet;
     }
 
     @Override
     public void send(RtpPacket packet) {
-        if (mSenderThread != null) {
-            mSenderThread.add(packet);
+        if (packet == mDiscardPacket || mSenderThread == null) {
+            return;
         }
+        mRtpPackets.publish();
     }
 
+    /**
+     * NACK で要求されたパケットを再送します.
+     *
+     * <p>
+     * RFC 4588 の再送用ストリームは使用せずに、元のシーケンス番号のままパケットを送信します。
+     * 受信側のジッターバッファは、レイテンシ内に届いたパケットを並び替えて使用します。
+     * </p>
+     *
+     * @param sequenceNumber シーケンス番号
+     */
+    private void retransmit(int sequenceNumber) {
+        synchronized (mStatistics) {
+            mStatistics.mNackCount++;
+        }
+
+        if (!mRetransmissionEnabled) {
+            return;
+        }
+
+        synchronized (mRetransmissionPacket) {
+            byte[] buffer = mRetransmissionPacket.array();
+            int length = mRetransmissionBuffer.get(sequenceNumber, buffer, System.currentTimeMillis());
+            if (length < 0) {
+                return;
+            }
+            try {
+                mRetransmissionPacket.clear();
+                mRetransmissionPacket.limit(length);
+                mChannel.send(mRetransmissionPacket, mRemoteSocketAddress);
+            } catch (IOException e) {
+                return;
+            }
+        }
+
+        synchronized (mStatistics) {
+            mStatistics.mRetransmittedCount++;
+        }
+    }
+
+    /**
+     * 送信先から受信した RTCP を処理するコールバック.
+     */
+    private final RtcpSocket.Callback mRtcpCallback = new RtcpSocket.Callback() {
+        @Override
+        public void onReceiverReport(RtcpPacket.ReportBlock block, long roundTripTime, double jitter) {
+            synchronized (mStatistics) {
+                mStatistics.mFractionLost = block.getFractionLost() / 256.0f;
+                mStatistics.mCumulativeLost = block.getCumulativeLost();
+                mStatistics.mExtendedHighestSequenceNumber = block.getExtendedHighestSequenceNumber();
+                mStatistics.mJitter = jitter;
+                if (roundTripTime >= 0) {
+                    mStatistics.mRoundTripTime = roundTripTime;
+                }
+                mStatistics.mReportCount++;
+                mStatistics.mLastReportTime = System.currentTimeMillis();
+            }
+
+            OnReceiverReportListener listener = mOnReceiverReportListener;
+            if (listener != null) {
+                listener.onReceiverReport(getStatistics());
+            }
+        }
+
+        @Override
+        public void onNack(int sequenceNumber) {
+            retransmit(sequenceNumber);
+        }
+    };
+
     /**
      * RTP 送信用のスレッド.
      */
-    private class SenderThread extends QueueThread<RtpPacket> {
+    private class SenderThread extends Thread {
+        /**
+         * 停止フラグ.
+         */
+        private volatile boolean mStopFlag;
+
+        /**
+         * BPS の計測を開始した時刻(ミリ秒).
+         */
+        private long mStartTime;
+
+        /**
+         * BPS の計測を開始してから送信したサイズ.
+         */
+        private long mIntervalSentSize;
+
         /**
          * RTP送信用スレッドを停止します.
          */
         private void terminate() {
+            mStopFlag = true;
+
             interrupt();
 
             try {
@@ -284,45 +622,133 @@ public class RtpSocket implements RtpPacketize.Callback {
         @Override
         public void run() {
             try {
+                DatagramSocket socket = mChannel.socket();
                 // IPTOS_LOWCOST (0x02)
                 // IPTOS_RELIABILITY (0x04)
                 // IPTOS_THROUGHPUT (0x08)
                 // IPTOS_LOWDELAY (0x10)
-                mSocket.setTrafficClass(0xB8);
-                mSocket.setSoTimeout(5000);
-                mSocket.setSendBufferSize(2 * 1024 * 1024);
+                socket.setTrafficClass(0xB8);
+                socket.setSendBufferSize(2 * 1024 * 1024);
             } catch (IOException e) {
                 // ignore.
             }
 
-            long sentSize = 0;
-            long startTime = System.currentTimeMillis();
+            mStartTime = System.currentTimeMillis();
             try {
-                while (!isInterrupted()) {
-                    RtpPacket packet = get();
-                    try {
-                        mDatagramPacket.setData(packet.getBuffer());
-                        mDatagramPacket.setLength(packet.getLength());
-                        mSocket.send(mDatagramPacket);
-                        mRtcpSocket.update(packet.getLength(), packet.getTimeStamp());
-
-                        // 送信量と BPS を計算
-                        mSentSize += packet.getLength();
-                        sentSize += packet.getLength();
-                        if (System.currentTimeMillis() - startTime >= 1000) {
-                            mBPS = sentSize * 8;
-                            sentSize = 0;
-                            startTime = System.currentTimeMillis();
+                while (!mStopFlag) {
+                    if (mPacingEnabled) {
+                        sendAccessUnit();
+                    } else {
+                        RtpPacket packet = mRtpPackets.take(MAX_TAKE_WAIT);
+                        if (packet != null) {
+                            sendPacket(packet);
                         }
-                    } catch (IOException e) {
-                        // ignore
-                    } finally {
-                        packet.release();
                     }
                 }
             } catch (Exception e) {
                 // ignore.
             }
         }
+
+        /**
+         * アクセスユニットのパケットを集めて、送信間隔を調整しながら送信します.
+         *
+         * @throws IOException ソケットが閉じられた場合に発生
+         */
+        private void sendAccessUnit() throws IOException {
+            int count = 0;
+            int maxCount = mRtpPackets.capacity() / 2;
+            while (!mStopFlag && count < maxCount) {
+                RtpPacket packet = mRtpPackets.peek(count, count == 0 ? MAX_TAKE_WAIT : MAX_GATHER_WAIT);
+                if (packet == null) {
+                    break;
+                }
+                count++;
+                if ((packet.getBuffer()[1] & 0x80) != 0) {
+                    break;
+                }
+            }
+
+            for (int i = 0; i < count && !mStopFlag; i++) {
+                RtpPacket packet = mRtpPackets.take(0);
+                // 次のアクセスユニットが既に溜まっている場合は、遅れを取り戻すために間隔を空けない
+                if (mRtpPackets.size() <= count - i) {
+                    mPacer.await(packet.getLength());
+                }
+                sendPacket(packet);
+                mPacer.onSent(packet.getLength());
+            }
+        }
+
+        /**
+         * パケットを送信して、バッファに返却します.
+         *
+         * @param packet 送信するパケット
+         * @throws IOException ソケットが閉じられた場合に発生
+         */
+        private void sendPacket(RtpPacket packet) throws IOException {
+            try {
+                InterleavedWriter writer = mInterleavedWriter;
+                if (writer != null) {
+                    if (!writer.writeInterleaved(mInterleavedChannel, packet.getBuffer(), packet.getLength())) {
+                        mDroppedCount++;
+                        return;
+                    }
+                } else {
+                    mChannel.send(packet.getByteBuffer(), mRemoteSocketAddress);
+                }
+                if (mRetransmissionEnabled) {
+                    mRetransmissionBuffer.put(packet.getBuffer(), packet.getLength(), System.currentTimeMillis());
+                }
+                mRtcpSocket.update(packet.getLength(), packet.getTimeStamp());
+
+                // 送信量と BPS を計算
+                mSentSize += packet.getLength();
+                mIntervalSentSize += packet.getLength();
+                if (System.currentTimeMillis() - mStartTime >= 1000) {
+                    mBPS = mIntervalSentSize * 8;
+                    mIntervalSentSize = 0;
+                    mStartTime = System.currentTimeMillis();
+                }
+            } catch (IOException e) {
+                if (!mChannel.isOpen()) {
+                    throw e;
+                }
+            } finally {
+                mRtpPackets.remove();
+            }
+        }
+    }
+
+    /**
+     * 送信先から Receiver Report を受信したことを通知するリスナー.
+     */
+    public interface OnReceiverReportListener {
+        /**
+         * Receiver Report を反映した統計情報を通知します.
+         *
+         * @param statistics 統計情報のコピー
+         */
+        void onReceiverReport(RtpStatistics statistics);
+    }
+
+    /**
+     * RTP over TCP (RTSP の interleaved) でパケットを送信するインターフェース.
+     */
+    public interface InterleavedWriter {
+        /**
+         * パケットに interleaved のヘッダを付けて送信します.
+         *
+         * <p>
+         * 送信用のスレッドから呼び出されるので、ブロックせずに処理を返却してください。
+         * 送信待ちのデータが多く送信できない場合には、パケットを破棄して false を返却します。
+         * </p>
+         *
+         * @param channel チャンネル番号
+         * @param data パケットのデータ
+         * @param dataLength パケットのサイズ
+         * @return 送信した場合はtrue、破棄した場合はfalse
+         */
+        boolean writeInterleaved(int channel, byte[] data, int dataLength);
     }
 }
@@ -0,0 +1,226 @@
+package org.deviceconnect.android.libmedia.streaming.rtp;
+
+import java.net.InetAddress;
+
+/**
+ * RTP の送信先ごとの受信状況の統計情報.
+ *
+ * <p>
+ * 送信先から受信した RTCP の Receiver Report と Generic NACK から作成します。
+ * </p>
+ */
+public class RtpStatistics {
+    /**
+     * 送信先のアドレス.
+     */
+    InetAddress mRemoteAddress;
+
+    /**
+     * 送信先の RTP のポート番号.
+     */
+    int mRemotePort;
+
+    /**
+     * 送信者識別子.
+     */
+    int mSsrc;
+
+    /**
+     * 前回のレポートからの損失率 (0.0 〜 1.0).
+     */
+    float mFractionLost;
+
+    /**
+     * 累積の損失パケット数.
+     */
+    int mCumulativeLost;
+
+    /**
+     * 送信先が受信した最大の拡張シーケンス番号.
+     */
+    long mExtendedHighestSequenceNumber;
+
+    /**
+     * 到着間隔のジッター(ミリ秒).
+     */
+    double mJitter;
+
+    /**
+     * 往復遅延時間(ミリ秒).
+     */
+    long mRoundTripTime = -1;
+
+    /**
+     * 受信した Receiver Report の数.
+     */
+    int mReportCount;
+
+    /**
+     * NACK で再送を要求されたパケット数.
+     */
+    int mNackCount;
+
+    /**
+     * 再送したパケット数.
+     */
+    int mRetransmittedCount;
+
+    /**
+     * 最後に Receiver Report を受信した時刻(ミリ秒).
+     */
+    long mLastReportTime;
+
+    /**
+     * コンストラクタ.
+     */
+    RtpStatistics() {
+    }
+
+    /**
+     * コピーコンストラクタ.
+     *
+     * @param other コピー元
+     */
+    RtpStatistics(RtpStatistics other) {
+        mRemoteAddress = other.mRemoteAddress;
+        mRemotePort = other.mRemotePort;
+        mSsrc = other.mSsrc;
+        mFractionLost = other.mFractionLost;
+        mCumulativeLost = other.mCumulativeLost;
+        mExtendedHighestSequenceNumber = other.mExtendedHighestSequenceNumber;
+        mJitter = other.mJitter;
+        mRoundTripTime = other.mRoundTripTime;
+        mReportCount = other.mReportCount;
+        mNackCount = other.mNackCount;
+        mRetransmittedCount = other.mRetransmittedCount;
+        mLastReportTime = other.mLastReportTime;
+    }
+
+    /**
+     * 送信先のアドレスを取得します.
+     *
+     * @return 送信先のアドレス
+     */
+    public InetAddress getRemoteAddress() {
+        return mRemoteAddress;
+    }
+
+    /**
+     * 送信先の RTP のポート番号を取得します.
+     *
+     * @return 送信先の RTP のポート番号
+     */
+    public int getRemotePort() {
+        return mRemotePort;
+    }
+
+    /**
+     * 送信者識別子を取得します.
+     *
+     * @return 送信者識別子
+     */
+    public int getSsrc() {
+        return mSsrc;
+    }
+
+    /**
+     * 前回のレポートからの損失率を取得します.
+     *
+     * @return 損失率 (0.0 〜 1.0)
+     */
+    public float getFractionLost() {
+        return mFractionLost;
+    }
+
+    /**
+     * 累積の損失パケット数を取得します.
+     *
+     * @return 累積の損失パケット数
+     */
+    public int getCumulativeLost() {
+        return mCumulativeLost;
+    }
+
+    /**
+     * 送信先が受信した最大の拡張シーケンス番号を取得します.
+     *
+     * @return 拡張シーケンス番号
+     */
+    public long getExtendedHighestSequenceNumber() {
+        return mExtendedHighestSequenceNumber;
+    }
+
+    /**
+     * 到着間隔のジッターを取得します.
+     *
+     * @return ジッター(ミリ秒)
+     */
+    public double getJitter() {
+        return mJitter;
+    }
+
+    /**
+     * 往復遅延時間を取得します.
+     *
+     * @return 往復遅延時間(ミリ秒)、まだ計測できていない場合は -1
+     */
+    public long getRoundTripTime() {
+        return mRoundTripTime;
+    }
+
+    /**
+     * 受信した Receiver Report の数を取得します.
+     *
+     * @return Receiver Report の数
+     */
+    public int getReportCount() {
+        return mReportCount;
+    }
+
+    /**
+     * NACK で再送を要求されたパケット数を取得します.
+     *
+     * @return 再送を要求されたパケット数
+     */
+    public int getNackCount() {
+        return mNackCount;
+    }
+
+    /**
+     * 再送したパケット数を取得します.
+     *
+     * <p>
+     * 再送用のバッファから既に破棄されていたパケットは再送できないので、
+     * {@link #getNackCount()} より小さくなることがあります。
+     * </p>
+     *
+     * @return 再送したパケット数
+     */
+    public int getRetransmittedCount() {
+        return mRetransmittedCount;
+    }
+
+    /**
+     * 最後に Receiver Report を受信した時刻を取得します.
+     *
+     * @return 受信した時刻(ミリ秒)、受信していない場合は 0
+     */
+    public long getLastReportTime() {
+        return mLastReportTime;
+    }
+
+    @Override
+    public String toString() {
+        return "RtpStatistics{" +
+                "remote=" + mRemoteAddress + ":" + mRemotePort +
+                ", ssrc=" + (mSsrc & 0xFFFFFFFFL) +
+                ", fractionLost=" + mFractionLost +
+                ", cumulativeLost=" + mCumulativeLost +
+                ", highestSeq=" + mExtendedHighestSequenceNumber +
+                ", jitter=" + mJitter +
+                ", rtt=" + mRoundTripTime +
+                ", nack=" + mNackCount +
+                ", retransmitted=" + mRetransmittedCount +
+                '}';
+    }
+}
@@ -4,11 +4,13 @@ import android.net.Uri;
 import android.util.Log;
 
 import org.deviceconnect.android.libmedia.BuildConfig;
+import org.deviceconnect.android.libmedia.streaming.rtp.RtpJitterBuffer;
 import org.deviceconnect.android.libmedia.streaming.rtp.RtpReceiver;
 import org.deviceconnect.android.libmedia.streaming.sdp.Attribute;
 import org.deviceconnect.android.libmedia.streaming.sdp.MediaDescription;
 import org.deviceconnect.android.libmedia.streaming.sdp.SessionDescription;
 import org.deviceconnect.android.libmedia.streaming.sdp.SessionDescriptionParser;
+import org.deviceconnect.android.libmedia.streaming.sdp.attribute.RtpMapAttribute;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
@@ -68,6 +70,16 @@ public class RtspClient {
      */
     private final List<Integer> mUsePortList = new ArrayList<>();
 
+    /**
+     * ジッターバッファのレイテンシの最小値(ミリ秒).
+     */
+    private int mMinJitterBufferLatency = RtpJitterBuffer.DEFAULT_MIN_LATENCY;
+
+    /**
+     * ジッターバッファのレイテンシの最大値(ミリ秒).
+     */
+    private int mMaxJitterBufferLatency = RtpJitterBuffer.DEFAULT_MAX_LATENCY;
+
     /**
      * コンストラクタ.
      * @param url RTSP サーバの URL
@@ -131,6 +143,25 @@ public class RtspClient {
         mUserAgent = userAgent;
     }
 
+    /**
+     * 受信した RTP パケットを並び替えるジッターバッファのレイテンシの範囲を設定します.
+     *
+     * 単位: ミリ秒
+     *
+     * デフォルトでは、20 から 300 の範囲で、到着間隔のジッターに合わせて調整します。
+     * 最小値に 0 を指定した場合には、パケットの抜けがない間は遅延なく通知します。
+     *
+     * @param minLatency レイテンシの最小値
+     * @param maxLatency レイテンシの最大値
+     */
+    public void setJitterBufferLatency(int minLatency, int maxLatency) {
+        if (minLatency < 0 || maxLatency < minLatency) {
+            throw new IllegalArgumentException("latency is invalid.");
+        }
+        mMinJitterBufferLatency = minLatency;
+        mMaxJitterBufferLatency = maxLatency;
+    }
+
     /**
      * RTSP サーバとの接続を開始します.
      * <p>
@@ -421,9 +452,19 @@ public class RtspClient {
          * RTP を受信するためのレシーバを追加します.
          *
          * @param md メディア情報
+         * @return 追加したレシーバ
          */
-        private void addRtpReceiver(MediaDescription md, int rtpPort, int rtcpPort) {
+        private RtpReceiver addRtpReceiver(MediaDescription md, int rtpPort, int rtcpPort) {
             RtpReceiver receiver = new RtpReceiver(rtpPort, rtcpPort);
+            receiver.getJitterBuffer().setLatency(mMinJitterBufferLatency, mMaxJitterBufferLatency);
+            for (Attribute attribute : md.getAttributes()) {
+                if (attribute instanceof RtpMapAttribute) {
+                    Integer rate = ((RtpMapAttribute) attribute).getRate();
+                    if (rate != null && rate > 0) {
+                        receiver.setClockFrequency(rate);
+                    }
+                }
+            }
             receiver.setCallback(new RtpReceiver.Callback() {
                 @Override
                 public void onError(Exception e) {
@@ -445,6 +486,7 @@ public class RtspClient {
             synchronized (mRtpReceivers) {
                 mRtpReceivers.add(receiver);
             }
+            return receiver;
         }
 
         /**
@@ -609,7 +651,7 @@ public class RtspClient {
             }
 
             // RTP の受信を開始
-            addRtpReceiver(md, rtpPort, rtspPort);
+            RtpReceiver receiver = addRtpReceiver(md, rtpPort, rtspPort);
 
             RtspRequest request = new RtspRequest();
             request.setMethod(RtspRequest.Method.SETUP);
@@ -628,6 +670,11 @@ public class RtspClient {
             mClientPorts = RtspResponseParser.parseClientPort(response);
             mServerPorts = RtspResponseParser.parseServerPort(response);
 
+            // Receiver Report と NACK をサーバの RTCP ポートに送信する
+            if (mServerPorts != null && mServerPorts.length > 1 && mServerPorts[1] > 0) {
+                receiver.setRemoteRtcp(mSocket.getInetAddress(), mServerPorts[1]);
+            }
+
             if (DEBUG) {
                 Log.d(TAG, "ClientPorts: " + Arrays.toString(mClientPorts));
                 Log.d(TAG, "ServerPorts: " + Arrays.toString(mServerPorts));
@@ -41,6 +41,16 @@ class RtspRequestParser {
      */
     private static final Pattern CLIENT_PORT = Pattern.compile("client_port=(\\d+)-(\\d+)", Pattern.CASE_INSENSITIVE);
 
+    /**
+     * interleaved (RTP over TCP で使用するチャンネル番号)を取得するための正規表現を定義します.
+     */
+    private static final Pattern INTERLEAVED = Pattern.compile("interleaved=(\\d+)-(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * RTP over TCP のトランスポートを判定するための正規表現を定義します.
+     */
+    private static final Pattern TCP_TRANSPORT = Pattern.compile("RTP/AVP/TCP", Pattern.CASE_INSENSITIVE);
+
     private RtspRequestParser() {
     }
 
@@ -133,4 +143,40 @@ class RtspRequestParser {
         }
         return null;
     }
+
+    /**
+     * RTSP リクエストのトランスポートが RTP over TCP か確認します.
+     *
+     * @param request RTSP リクエスト
+     * @return RTP over TCP の場合はtrue、それ以外はfalse
+     */
+    static boolean isTcpTransport(RtspRequest request) {
+        String transport = request.getHeader("transport");
+        return transport != null && TCP_TRANSPORT.matcher(transport).find();
+    }
+
+    /**
+     * RTSP リクエストから RTP と RTCP の interleaved のチャンネル番号を取得します.
+     *
+     * <p>
+     * RTSP リクエストにチャンネル番号が格納されていない場合には null を返却します。
+     * </p>
+     *
+     * @param request RTSP リクエスト
+     * @return interleaved のチャンネル番号
+     */
+    static int[] parseInterleaved(RtspRequest request) {
+        String transport = request.getHeader("transport");
+        if (transport == null) {
+            return null;
+        }
+        Matcher matcher = INTERLEAVED.matcher(transport);
+        if (matcher.find()) {
+            return new int[]{
+                    Integer.parseInt(matcher.group(1)),
+                    Integer.parseInt(matcher.group(2))
+            };
+        }
+        return null;
+    }
 }
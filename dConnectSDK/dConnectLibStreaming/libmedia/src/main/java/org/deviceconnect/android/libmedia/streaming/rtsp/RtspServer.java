@@ -5,24 +5,45 @@ import android.util.Log;
 import org.deviceconnect.android.libmedia.BuildConfig;
 import org.deviceconnect.android.libmedia.streaming.MediaEncoderException;
 import org.deviceconnect.android.libmedia.streaming.rtp.RtpSocket;
+import org.deviceconnect.android.libmedia.streaming.rtp.RtpStatistics;
 import org.deviceconnect.android.libmedia.streaming.rtsp.session.MediaStream;
 import org.deviceconnect.android.libmedia.streaming.rtsp.session.RtspSession;
 import org.deviceconnect.android.libmedia.streaming.util.IpAddressManager;
+import org.deviceconnect.android.libmedia.streaming.util.QueueThread;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.StringReader;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * RTSP サーバ.
+ *
+ * <p>
+ * 全ての RTSP の接続を Selector を使用する1つのスレッドで送受信して、
+ * リクエストの処理は1つのスレッドで順番に行います。
+ * RTP は UDP の他に、RTSP の接続の上で interleaved で送信することもできます。
+ * </p>
+ */
 public class RtspServer {
     /**
      * デバッグフラグ.
@@ -34,10 +55,38 @@ public class RtspServer {
      */
     private static final String TAG = "RTSP-SERVER";
 
+    /**
+     * RTSP の接続から受信するデータを格納するバッファのサイズ.
+     */
+    private static final int INPUT_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * RTSP の接続ごとに送信待ちにできるデータの最大サイズ.
+     *
+     * <p>
+     * interleaved で送信する RTP パケットは、このサイズを超えた場合に破棄します。
+     * 8Mbps の映像で約 0.5 秒分になります。
+     * </p>
+     */
+    private static final int MAX_OUTPUT_SIZE = 512 * 1024;
+
+    /**
+     * リクエストの本文の最大サイズ.
+     *
+     * <p>
+     * 本文は使用せずに読み捨てます。これを超える Content-Length のリクエストには 400 を返却して切断します。
+     * </p>
+     */
+    private static final int MAX_CONTENT_LENGTH = 64 * 1024;
+
     /**
      * RTSP のセッションを管理するクラス.
+     *
+     * <p>
+     * リクエスト処理用のスレッドからのみ作成・破棄します。
+     * </p>
      */
-    private RtspSession mRtspSession;
+    private volatile RtspSession mRtspSession;
 
     /**
      * サーバ名.
@@ -50,14 +99,23 @@ public class RtspServer {
     private int mServerPort = 10000;
 
     /**
-     * サーバのソケットを処理するスレッド.
+     * RTSP の接続の送受信を行うスレッド.
      */
-    private ServerSocketThread mServerThread;
+    private SelectorThread mServerThread;
 
     /**
-     * サーバに接続されたクライアントの処理を行うスレッドを格納するリスト.
+     * RTSP のリクエストを処理するスレッド.
      */
-    private final List<ClientSocketThread> mClientSocketThreads = new ArrayList<>();
+    private RequestThread mRequestThread;
+
+    /**
+     * サーバに接続されたクライアントを格納するリスト.
+     *
+     * <p>
+     * リクエスト処理用のスレッドからのみ追加・削除します。
+     * </p>
+     */
+    private final List<ClientConnection> mClientConnections = new CopyOnWriteArrayList<>();
 
     /**
      * コールバック.
@@ -65,11 +123,9 @@ public class RtspServer {
     private Callback mCallback;
 
     /**
-     * エラーが発生フラグ.
-     *
-     * RtspSession 内部でエラーが発生した場合に、このフラグは true になります。
+     * RTP のバッチ送信の有効フラグ.
      */
-    private boolean mErrorFlag;
+    private boolean mPacingEnabled;
 
     /**
      * RTSP のエンコードを行うセッションを取得します.
@@ -93,6 +149,21 @@ public class RtspServer {
         mServerPort = serverPort;
     }
 
+    /**
+     * RTP のバッチ送信の有効・無効を設定します.
+     *
+     * <p>
+     * 有効にした場合は、フレームのパケットをまとめてフレーム間隔に分散させて送信します。
+     * 設定は、この後に接続したクライアントから有効になります。
+     * </p>
+     *
+     * @param enabled 有効にする場合はtrue、それ以外はfalse
+     * @see RtpSocket#setPacingEnabled(boolean)
+     */
+    public void setPacingEnabled(boolean enabled) {
+        mPacingEnabled = enabled;
+    }
+
     /**
      * サーバ名を設定します.
      *
@@ -117,7 +188,8 @@ public class RtspServer {
      * @return データ送信量
      */
     public long getSentSize() {
-        return mRtspSession != null ? mRtspSession.getSentSize() : 0;
+        RtspSession session = mRtspSession;
+        return session != null ? session.getSentSize() : 0;
     }
 
     /**
@@ -126,7 +198,8 @@ public class RtspServer {
      * @return データ送信の BPS
      */
     public long getBPS() {
-        return mRtspSession != null ? mRtspSession.getBPS() : 0;
+        RtspSession session = mRtspSession;
+        return session != null ? session.getBPS() : 0;
     }
 
     /**
@@ -142,11 +215,18 @@ public class RtspServer {
             return;
         }
 
-        synchronized (mClientSocketThreads) {
-            mClientSocketThreads.clear();
-        }
+        mClientConnections.clear();
+
+        mRequestThread = new RequestThread();
+        mRequestThread.start();
 
-        mServerThread = new ServerSocketThread(mServerPort);
+        try {
+            mServerThread = new SelectorThread(mServerPort, mRequestThread);
+        } catch (IOException e) {
+            mRequestThread.terminate();
+            mRequestThread = null;
+            throw e;
+        }
         mServerThread.start();
     }
 
@@ -158,6 +238,12 @@ public class RtspServer {
             mServerThread.terminate();
             mServerThread = null;
         }
+
+        if (mRequestThread != null) {
+            mRequestThread.add(this::closeAllClientConnections);
+            mRequestThread.terminate();
+            mRequestThread = null;
+        }
     }
 
     /**
@@ -166,59 +252,110 @@ public class RtspServer {
      * @return RTSP サーバに接続しているクライアント数
      */
     public int getConnectionCount() {
-        synchronized (mClientSocketThreads) {
-            return mClientSocketThreads.size();
+        return mClientConnections.size();
+    }
+
+    /**
+     * RTSP サーバに接続しているクライアントの受信状況の統計情報を取得します.
+     *
+     * <p>
+     * クライアントから受信した RTCP の Receiver Report と NACK から作成した、
+     * 損失率、ジッター、往復遅延時間などをストリームごとに返却します。
+     * </p>
+     *
+     * @return 統計情報のリスト
+     */
+    public List<RtpStatistics> getClientStatistics() {
+        List<RtpStatistics> statistics = new ArrayList<>();
+        for (ClientConnection connection : mClientConnections) {
+            synchronized (connection.mRtpSockets) {
+                for (RtpSocket socket : connection.mRtpSockets) {
+                    statistics.add(socket.getStatistics());
+                }
+            }
         }
+        return statistics;
     }
 
     /**
-     * サーバソケットの処理を行うスレッド.
+     * RTSP の接続の受付と送受信を行うスレッド.
      */
-    private class ServerSocketThread extends Thread {
+    private class SelectorThread extends Thread {
         /**
-         * サーバソケット.
+         * サーバソケットのチャンネル.
          */
-        private ServerSocket mServerSocket;
+        private final ServerSocketChannel mServerChannel;
+
+        /**
+         * 全ての接続を監視する Selector.
+         */
+        private final Selector mSelector;
+
+        /**
+         * 受信したリクエストを処理するスレッド.
+         */
+        private final RequestThread mRequestThread;
+
+        /**
+         * 送信待ちのデータが追加された接続のキュー.
+         */
+        private final Queue<ClientConnection> mWriteRequests = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 停止フラグ.
+         */
+        private volatile boolean mStopFlag;
 
         /**
          * コンストラクタ.
          *
          * @param port ポート番号
+         * @param requestThread 受信したリクエストを処理するスレッド
          * @throws IOException ソケットを開くのに失敗した場合に発生
          */
-        ServerSocketThread(int port) throws IOException {
-            mServerSocket = new ServerSocket(port);
-            mServerSocket.setReuseAddress(true);
+        SelectorThread(int port, RequestThread requestThread) throws IOException {
+            mRequestThread = requestThread;
+            mServerChannel = ServerSocketChannel.open();
+            try {
+                mServerChannel.socket().setReuseAddress(true);
+                mServerChannel.socket().bind(new InetSocketAddress(port));
+                mServerChannel.configureBlocking(false);
+                mSelector = Selector.open();
+                mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+            } catch (IOException e) {
+                mServerChannel.close();
+                throw e;
+            }
             setName("RTSP-SERVER-SOCKET");
         }
 
         /**
-         * サーバソケットの処理を停止します.
+         * 送受信の処理を停止します.
+         *
+         * <p>
+         * 接続している全てのクライアントを切断します。
+         * </p>
          */
         void terminate() {
-            if (mServerSocket != null) {
-                try {
-                    mServerSocket.close();
-                } catch (IOException e) {
-                    // ignore.
-                }
-                mServerSocket = null;
-            }
+            mStopFlag = true;
 
-            interrupt();
+            mSelector.wakeup();
 
             try {
                 join(200);
             } catch (InterruptedException e) {
                 // ignore.
             }
+        }
 
-            synchronized (mClientSocketThreads) {
-                for (ClientSocketThread thread : mClientSocketThreads) {
-                    thread.terminate();
-                }
-                mClientSocketThreads.clear();
-            }
+        /**
+         * 送信待ちのデータが追加されたことを通知します.
+         *
+         * @param connection 送信待ちのデータが追加された接続
+         */
+        void requestWrite(ClientConnection connection) {
+            mWriteRequests.offer(connection);
+            mSelector.wakeup();
         }
 
         @Override
@@ -232,51 +369,220 @@ public class RtspServer {
                 Log.d(TAG, "  PORT: " + mServerPort);
             }
 
-            mErrorFlag = false;
             try {
-                while (!isInterrupted()) {
-                    new ClientSocketThread(mServerSocket.accept()).start();
+                while (!mStopFlag) {
+                    mSelector.select();
+
+                    ClientConnection connection;
+                    while ((connection = mWriteRequests.poll()) != null) {
+                        connection.updateInterestOps();
+                    }
+
+                    Iterator<SelectionKey> it = mSelector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+
+                        if (!key.isValid()) {
+                            continue;
+                        }
+
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+
+                        ClientConnection client = (ClientConnection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                client.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                client.onWritable();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            // 1つの接続の異常で Selector のスレッドを止めないように、その接続だけを閉じる
+                            if (DEBUG) {
+                                Log.w(TAG, "client: " + client.mClientSocket.getInetAddress(), e);
+                            }
+                            client.close();
+                        }
+                    }
                 }
-            } catch (SocketException e) {
-                // ignore.
             } catch (Exception e) {
                 if (DEBUG) {
                     Log.e(TAG, "", e);
                 }
+            } finally {
+                for (SelectionKey key : new ArrayList<>(mSelector.keys())) {
+                    Object attachment = key.attachment();
+                    if (attachment instanceof ClientConnection) {
+                        ((ClientConnection) attachment).close();
+                    }
+                }
+
+                try {
+                    mSelector.close();
+                } catch (IOException e) {
+                    // ignore.
+                }
+
+                try {
+                    mServerChannel.close();
+                } catch (IOException e) {
+                    // ignore.
+                }
             }
 
             if (DEBUG) {
                 Log.d(TAG, "Rtsp Server stopped.");
             }
         }
+
+        /**
+         * 接続を受け付けて Selector に登録します.
+         */
+        private void accept() {
+            SocketChannel channel;
+            try {
+                while ((channel = mServerChannel.accept()) != null) {
+                    try {
+                        channel.configureBlocking(false);
+                        channel.socket().setKeepAlive(true);
+                        channel.socket().setTcpNoDelay(true);
+
+                        ClientConnection connection = new ClientConnection(channel, this, mRequestThread);
+                        connection.mKey = channel.register(mSelector, SelectionKey.OP_READ, connection);
+                        mRequestThread.add(() -> addClientConnection(connection));
+                    } catch (IOException e) {
+                        try {
+                            channel.close();
+                        } catch (IOException e1) {
+                            // ignore.
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                if (DEBUG) {
+                    Log.w(TAG, "Failed to accept a socket.", e);
+                }
+            }
+        }
     }
 
     /**
-     * RTSP サーバに接続されたクライアント用のスレッドを追加します.
-     *
-     * @param thread 追加するクライアント用のスレッド
+     * RTSP のリクエストとセッションの作成・破棄を順番に処理するスレッド.
      */
-    private void addClientSocketThread(ClientSocketThread thread) {
-        synchronized (mClientSocketThreads) {
-            if (mClientSocketThreads.isEmpty()) {
-               createSession();
+    private static class RequestThread extends QueueThread<Runnable> {
+        /**
+         * 停止フラグ.
+         */
+        private boolean mStopFlag;
+
+        /**
+         * コンストラクタ.
+         */
+        RequestThread() {
+            setName("RTSP-SERVER-REQUEST");
+        }
+
+        /**
+         * 追加済みの処理を全て実行してから、スレッドを停止します.
+         */
+        void terminate() {
+            add(() -> mStopFlag = true);
+
+            try {
+                join(500);
+            } catch (InterruptedException e) {
+                // ignore.
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!mStopFlag) {
+                try {
+                    get().run();
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    if (DEBUG) {
+                        Log.w(TAG, "Failed to process a task.", e);
+                    }
+                }
             }
-            mClientSocketThreads.add(thread);
         }
     }
 
     /**
-     * RTSP サーバから切断されたクライアント用のスレッドを削除します.
+     * RTSP サーバに接続されたクライアントを追加します.
+     *
+     * <p>
+     * リクエスト処理用のスレッドから呼び出します。
+     * </p>
      *
-     * @param thread 削除するクライアント用のスレッド
+     * @param connection 追加するクライアント
      */
-    private void removeClientSocketThread(ClientSocketThread thread) {
-        synchronized (mClientSocketThreads) {
-            mClientSocketThreads.remove(thread);
-            if (mClientSocketThreads.isEmpty()) {
+    private void addClientConnection(ClientConnection connection) {
+        if (connection.isClosed()) {
+            return;
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "Rtsp Client Socket started.");
+            Log.d(TAG, "  Client Socket: " + connection.mClientSocket.getInetAddress());
+        }
+
+        if (mClientConnections.isEmpty()) {
+            try {
+                createSession();
+            } catch (Exception e) {
+                if (DEBUG) {
+                    Log.e(TAG, "Failed to create a RtspSession.", e);
+                }
                 releaseSession();
+                connection.close();
+                return;
             }
         }
+        mClientConnections.add(connection);
+    }
+
+    /**
+     * RTSP サーバから切断されたクライアントを削除します.
+     *
+     * <p>
+     * リクエスト処理用のスレッドから呼び出します。
+     * </p>
+     *
+     * @param connection 削除するクライアント
+     */
+    private void removeClientConnection(ClientConnection connection) {
+        if (!mClientConnections.remove(connection)) {
+            return;
+        }
+
+        RtspSession session = mRtspSession;
+        synchronized (connection.mRtpSockets) {
+            for (RtpSocket socket : connection.mRtpSockets) {
+                if (session != null) {
+                    for (MediaStream stream : session.getStreams()) {
+                        stream.removeRtpSocket(socket);
+                    }
+                }
+                socket.close();
+            }
+            connection.mRtpSockets.clear();
+        }
+
+        if (mClientConnections.isEmpty()) {
+            releaseSession();
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "Rtsp Client Socket stopped.");
+        }
     }
 
     /**
@@ -299,21 +605,26 @@ public class RtspServer {
      * RTP を管理するセッションを破棄します.
      */
     private void releaseSession() {
-        if (mRtspSession != null) {
-            mRtspSession.stop();
-            mCallback.releaseSession(mRtspSession);
+        RtspSession session = mRtspSession;
+        if (session != null) {
             mRtspSession = null;
+            session.stop();
+            mCallback.releaseSession(session);
         }
     }
 
     /**
-     * クライアント Socket を全て閉じます.
+     * クライアントの接続を全て閉じます.
+     *
+     * <p>
+     * リクエスト処理用のスレッドから呼び出します。
+     * 全てのクライアントを削除するので、セッションも破棄されます。
+     * </p>
      */
-    private void closeAllClientSocket() {
-        synchronized (mClientSocketThreads) {
-            for (ClientSocketThread t : mClientSocketThreads) {
-                t.terminate();
-            }
+    private void closeAllClientConnections() {
+        for (ClientConnection connection : mClientConnections) {
+            connection.close();
+            removeClientConnection(connection);
         }
     }
 
@@ -341,136 +652,484 @@ public class RtspServer {
                 Log.e(TAG, "Error occurred on MediaStreamer.", e);
             }
 
-            mErrorFlag = true;
-            closeAllClientSocket();
+            // 全ての接続を閉じてセッションを破棄し、次の接続で RtspSession を作成し直す
+            RequestThread requestThread = mRequestThread;
+            if (requestThread != null) {
+                requestThread.add(RtspServer.this::closeAllClientConnections);
+            }
         }
     };
 
     /**
-     * クライアントとの接続を行うスレッド.
+     * クライアントとの接続.
+     *
+     * <p>
+     * 受信は Selector のスレッドで行い、解析したリクエストはリクエスト処理用のスレッドで処理します。
+     * 送信はどのスレッドからでも行えます。送信待ちのデータがない場合はその場で書き込み、
+     * 書き込めなかったデータは Selector のスレッドで送信します。
+     * </p>
      */
-    private class ClientSocketThread extends Thread {
+    private class ClientConnection implements RtpSocket.InterleavedWriter {
+        /**
+         * クライアントと接続しているチャンネル.
+         */
+        private final SocketChannel mChannel;
+
         /**
          * クライアントと接続しているソケット.
          */
         private final Socket mClientSocket;
 
         /**
-         * クライアントから送られてくるデータを読み込むためのストリーム.
+         * Selector の送受信を行うスレッド.
+         */
+        private final SelectorThread mSelectorThread;
+
+        /**
+         * リクエストを処理するスレッド.
+         */
+        private final RequestThread mRequestThread;
+
+        /**
+         * Selector に登録したキー.
+         */
+        private SelectionKey mKey;
+
+        /**
+         * クライアントから受信したデータを格納するバッファ.
+         *
+         * <p>
+         * Selector のスレッドからのみ使用します。
+         * </p>
+         */
+        private final ByteBuffer mInput = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+
+        /**
+         * 読み捨てる残りのバイト数.
+         *
+         * <p>
+         * バッファに入りきらない interleaved のデータを読み捨てるために使用します。
+         * </p>
+         */
+        private int mSkipSize;
+
+        /**
+         * 受信したデータを処理せずに読み捨てるフラグ.
+         *
+         * <p>
+         * 不正なリクエストで以降のデータの区切りが分からなくなった場合に、レスポンスを送信して切断するまで使用します。
+         * Selector のスレッドからのみ使用します。
+         * </p>
+         */
+        private boolean mDiscardInput;
+
+        /**
+         * 送信待ちのデータのキュー.
+         */
+        private final ArrayDeque<ByteBuffer> mOutput = new ArrayDeque<>();
+
+        /**
+         * 送信待ちのデータのサイズ.
+         */
+        private int mOutputSize;
+
+        /**
+         * interleaved のヘッダを書き込むバッファ.
          */
-        private final BufferedReader mInput;
+        private final ByteBuffer mInterleavedHeader = ByteBuffer.allocate(4);
 
         /**
-         * クライアントにデータを送信するためのストリーム.
+         * 切断済みフラグ.
          */
-        private final OutputStream mOutput;
+        private boolean mClosed;
 
         /**
-         * 接続された UDP のソケットのリスト.
+         * 送信待ちのデータを送信した後に切断するフラグ.
+         */
+        private boolean mCloseAfterOutput;
+
+        /**
+         * 接続された RTP のソケットのリスト.
          */
         private final List<RtpSocket> mRtpSockets = new ArrayList<>();
 
+        /**
+         * interleaved の RTCP のチャンネル番号と RTP のソケットのマップ.
+         */
+        private final Map<Integer, RtpSocket> mInterleavedRtcpSockets = new ConcurrentHashMap<>();
+
         /**
          * コンストラクタ.
-         * @param socket クライアントと接続しているソケット
-         * @throws IOException ソケットからストリームを取得するのに失敗した場合に発生
+         *
+         * @param channel クライアントと接続しているチャンネル
+         * @param selectorThread Selector の送受信を行うスレッド
+         * @param requestThread リクエストを処理するスレッド
          */
-        ClientSocketThread(Socket socket) throws IOException {
-            mClientSocket = socket;
-            mClientSocket.setReuseAddress(true);
-            mClientSocket.setKeepAlive(true);
-            mInput = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            mOutput = socket.getOutputStream();
-            setName("RTSP-CLIENT-SOCKET");
+        ClientConnection(SocketChannel channel, SelectorThread selectorThread, RequestThread requestThread) {
+            mChannel = channel;
+            mClientSocket = channel.socket();
+            mSelectorThread = selectorThread;
+            mRequestThread = requestThread;
         }
 
         /**
-         * スレッドの停止処理を行います.
+         * 切断済みか確認します.
+         *
+         * @return 切断済みの場合はtrue、それ以外はfalse
          */
-        private void terminate() {
+        boolean isClosed() {
+            synchronized (mOutput) {
+                return mClosed;
+            }
+        }
+
+        /**
+         * 接続を閉じます.
+         *
+         * <p>
+         * どのスレッドからでも呼び出せます。接続の後処理はリクエスト処理用のスレッドで行います。
+         * </p>
+         */
+        void close() {
+            synchronized (mOutput) {
+                if (mClosed) {
+                    return;
+                }
+                mClosed = true;
+                mOutput.clear();
+                mOutputSize = 0;
+            }
+
             try {
-                mClientSocket.close();
+                mChannel.close();
             } catch (IOException e) {
                 // ignore.
             }
 
-            interrupt();
+            mRequestThread.add(() -> removeClientConnection(this));
+        }
+
+        /**
+         * 受信したデータを処理します.
+         *
+         * @throws IOException 受信に失敗した場合に発生
+         */
+        void onReadable() throws IOException {
+            if (mChannel.read(mInput) == -1) {
+                throw new IOException("Client socket disconnected.");
+            }
 
+            if (mDiscardInput) {
+                mInput.clear();
+                return;
+            }
+
+            mInput.flip();
             try {
-                join(200);
-            } catch (InterruptedException e) {
-                // ignore.
+                while (processInput()) {
+                    // 処理できるデータがなくなるまで繰り返す
+                }
+            } finally {
+                mInput.compact();
+            }
+
+            if (!mInput.hasRemaining()) {
+                throw new IOException("RTSP request is too large.");
             }
         }
 
-        @Override
-        public void run() {
-            if (DEBUG) {
-                Log.d(TAG, "Rtsp Client Socket started.");
-                Log.d(TAG, "  Client Socket: " + mClientSocket.getInetAddress());
+        /**
+         * バッファに溜まったデータから、リクエストまたは interleaved のデータを1つ処理します.
+         *
+         * @return 処理した場合はtrue、データが足りない場合はfalse
+         */
+        private boolean processInput() {
+            if (mSkipSize > 0) {
+                int size = Math.min(mSkipSize, mInput.remaining());
+                mInput.position(mInput.position() + size);
+                mSkipSize -= size;
+                return mSkipSize == 0;
             }
 
+            // リクエストの間の改行は読み飛ばす
+            while (mInput.hasRemaining()) {
+                byte b = mInput.get(mInput.position());
+                if (b != '\r' && b != '\n') {
+                    break;
+                }
+                mInput.get();
+            }
+
+            if (mInput.remaining() < 4) {
+                return false;
+            }
+
+            int start = mInput.position();
+            if (mInput.get(start) == '$') {
+                return processInterleaved(start);
+            }
+
+            byte[] buf = mInput.array();
+            int headerEnd = -1;
+            for (int i = start; i + 3 < mInput.limit(); i++) {
+                if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n') {
+                    headerEnd = i + 4;
+                    break;
+                }
+            }
+            if (headerEnd == -1) {
+                return false;
+            }
+
+            RtspRequest request = null;
+            RtspResponse.Status error = null;
+            int contentLength = 0;
             try {
-                // 事前にエラーがあった場合には、RtspSession を作成し直すために
-                // 他の Socket が閉じて、RtspSession が削除されるのを待ちます。
-                while (mErrorFlag) {
-                    synchronized (mClientSocketThreads) {
-                        if (mClientSocketThreads.isEmpty()) {
-                            mErrorFlag = false;
-                            break;
-                        }
-                    }
-                    Thread.sleep(50);
+                request = RtspRequestParser.parse(new BufferedReader(
+                        new StringReader(new String(buf, start, headerEnd - start))));
+                String length = request.getHeader("content-length");
+                if (length != null) {
+                    contentLength = parseContentLength(length);
                 }
+            } catch (RtspRequestParserException e) {
+                if (DEBUG) {
+                    Log.w(TAG, "RTSP Request is error.", e);
+                }
+                error = e.getStatus();
+            } catch (Exception e) {
+                error = RtspResponse.Status.STATUS_BAD_REQUEST;
+            }
 
-                addClientSocketThread(this);
+            if (contentLength < 0) {
+                // 本文の終わりが分からないので、以降のデータは処理せずに 400 を返却して切断する
+                if (DEBUG) {
+                    Log.w(TAG, "Content-Length is invalid.");
+                }
+                mInput.position(mInput.limit());
+                mDiscardInput = true;
+                mRequestThread.add(() -> {
+                    processRequest(null, RtspResponse.Status.STATUS_BAD_REQUEST);
+                    closeAfterOutput();
+                });
+                return false;
+            }
 
-                while (!isInterrupted()) {
-                    RtspRequest request = null;
-                    RtspResponse response = null;
+            // 本文は使用しないので読み捨てる
+            if (contentLength > mInput.limit() - headerEnd) {
+                if (headerEnd - start + contentLength > mInput.capacity()) {
+                    mInput.position(mInput.limit());
+                    mSkipSize = contentLength - (mInput.limit() - headerEnd);
+                } else {
+                    return false;
+                }
+            } else {
+                mInput.position(headerEnd + contentLength);
+            }
 
-                    try {
-                        request = RtspRequestParser.parse(mInput);
-                    } catch (RtspRequestParserException e) {
-                        if (DEBUG) {
-                            Log.w(TAG, "RTSP Request is error.", e);
-                        }
-                        response = createResponse(null, e.getStatus());
+            final RtspRequest req = request;
+            final RtspResponse.Status status = error;
+            mRequestThread.add(() -> processRequest(req, status));
+            return true;
+        }
+
+        /**
+         * Content-Length ヘッダの値を解析します.
+         *
+         * @param value Content-Length ヘッダの値
+         * @return 本文のサイズ、不正な値または {@link #MAX_CONTENT_LENGTH} を超える場合は -1
+         */
+        private int parseContentLength(String value) {
+            try {
+                int length = Integer.parseInt(value.trim());
+                return (length < 0 || length > MAX_CONTENT_LENGTH) ? -1 : length;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * interleaved のデータを処理します.
+         *
+         * <p>
+         * RTCP のチャンネルで受信した Receiver Report と NACK を RTP のソケットに渡します。
+         * </p>
+         *
+         * @param start interleaved のデータの開始位置
+         * @return 処理した場合はtrue、データが足りない場合はfalse
+         */
+        private boolean processInterleaved(int start) {
+            int channel = mInput.get(start + 1) & 0xFF;
+            int length = mInput.getShort(start + 2) & 0xFFFF;
+            if (4 + length > mInput.capacity()) {
+                mInput.position(start + 4);
+                mSkipSize = length;
+                return true;
+            }
+            if (mInput.remaining() < 4 + length) {
+                return false;
+            }
+
+            RtpSocket socket = mInterleavedRtcpSockets.get(channel);
+            if (socket != null) {
+                byte[] data = new byte[length];
+                mInput.position(start + 4);
+                mInput.get(data);
+                try {
+                    socket.onInterleavedRtcp(data, length);
+                } catch (Exception e) {
+                    if (DEBUG) {
+                        Log.w(TAG, "Failed to parse a RTCP packet.", e);
                     }
+                }
+            } else {
+                mInput.position(start + 4 + length);
+            }
+            return true;
+        }
 
-                    if (request != null) {
-                        try {
-                            response = processRequest(request);
-                        } catch (Exception e) {
-                            response = createResponse(request, RtspResponse.Status.STATUS_INTERNAL_SERVER_ERROR);
-                        }
+        /**
+         * 送信待ちのデータを送信します.
+         *
+         * @throws IOException 送信に失敗した場合に発生
+         */
+        void onWritable() throws IOException {
+            synchronized (mOutput) {
+                while (!mOutput.isEmpty()) {
+                    ByteBuffer buffer = mOutput.peek();
+                    mOutputSize -= mChannel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        break;
                     }
+                    mOutput.poll();
+                }
+                if (mCloseAfterOutput && mOutput.isEmpty()) {
+                    close();
+                    return;
+                }
+            }
+            updateInterestOps();
+        }
 
-                    response.send(mOutput);
+        /**
+         * 送信待ちのデータを送信した後に切断します.
+         *
+         * <p>
+         * 送信待ちのデータがない場合には、すぐに切断します。
+         * </p>
+         */
+        private void closeAfterOutput() {
+            synchronized (mOutput) {
+                if (mOutput.isEmpty()) {
+                    close();
+                } else {
+                    mCloseAfterOutput = true;
                 }
-            } catch (Exception e) {
-                if (DEBUG) {
-                    Log.w(TAG, "client: " + mClientSocket.getInetAddress(), e);
+            }
+        }
+
+        /**
+         * 送信待ちのデータの有無に合わせて、Selector で監視するイベントを更新します.
+         *
+         * <p>
+         * Selector のスレッドから呼び出します。
+         * </p>
+         */
+        void updateInterestOps() {
+            int ops = SelectionKey.OP_READ;
+            synchronized (mOutput) {
+                if (mClosed || !mKey.isValid()) {
+                    return;
                 }
-            } finally {
-                for (RtpSocket socket : mRtpSockets) {
-                    for (MediaStream stream : mRtspSession.getStreams()) {
-                        stream.removeRtpSocket(socket);
+                if (!mOutput.isEmpty()) {
+                    ops |= SelectionKey.OP_WRITE;
+                }
+            }
+            if (mKey.interestOps() != ops) {
+                mKey.interestOps(ops);
+            }
+        }
+
+        /**
+         * データを送信します.
+         *
+         * <p>
+         * 送信待ちのデータがない場合には、ブロックせずに書き込めるだけ書き込みます。
+         * 書き込めなかったデータはコピーして送信待ちのキューに追加します。
+         * </p>
+         *
+         * @param buffers 送信するデータ
+         * @param size 送信するデータのサイズ
+         * @param force 送信待ちのデータのサイズの上限を無視する場合はtrue
+         * @return 送信または送信待ちにした場合はtrue、破棄した場合はfalse
+         */
+        private boolean write(ByteBuffer[] buffers, int size, boolean force) {
+            synchronized (mOutput) {
+                if (mClosed) {
+                    return false;
+                }
+
+                if (!force && mOutputSize + size > MAX_OUTPUT_SIZE) {
+                    return false;
+                }
+
+                int remaining = size;
+                if (mOutput.isEmpty()) {
+                    try {
+                        remaining -= (int) mChannel.write(buffers);
+                    } catch (IOException e) {
+                        // 切断は Selector のスレッドで検知する
+                        return false;
+                    }
+                    if (remaining == 0) {
+                        return true;
                     }
                 }
-                mRtpSockets.clear();
 
-                try {
-                    mClientSocket.close();
-                } catch (IOException e) {
-                    // ignore.
+                ByteBuffer copy = ByteBuffer.allocate(remaining);
+                for (ByteBuffer buffer : buffers) {
+                    copy.put(buffer);
                 }
+                copy.flip();
 
-                removeClientSocketThread(this);
+                boolean wasEmpty = mOutput.isEmpty();
+                mOutput.add(copy);
+                mOutputSize += remaining;
+                if (wasEmpty) {
+                    mSelectorThread.requestWrite(this);
+                }
+                return true;
             }
+        }
 
-            if (DEBUG) {
-                Log.d(TAG, "Rtsp Client Socket stopped.");
+        /**
+         * レスポンスを送信します.
+         *
+         * @param response レスポンス
+         */
+        private void send(RtspResponse response) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                response.send(out);
+            } catch (IOException e) {
+                // ByteArrayOutputStream では発生しない
+                return;
+            }
+            byte[] data = out.toByteArray();
+            write(new ByteBuffer[] {ByteBuffer.wrap(data)}, data.length, true);
+        }
+
+        @Override
+        public boolean writeInterleaved(int channel, byte[] data, int dataLength) {
+            synchronized (mOutput) {
+                mInterleavedHeader.clear();
+                mInterleavedHeader.put((byte) '$');
+                mInterleavedHeader.put((byte) channel);
+                mInterleavedHeader.putShort((short) dataLength);
+                mInterleavedHeader.flip();
+                return write(new ByteBuffer[] {
+                        mInterleavedHeader,
+                        ByteBuffer.wrap(data, 0, dataLength)
+                }, 4 + dataLength, false);
             }
         }
 
@@ -551,33 +1210,54 @@ public class RtspServer {
                 return;
             }
 
-            int[] clientPort = RtspRequestParser.parseClientPort(request);
-            if (clientPort == null) {
-                clientPort = new int[]{
-                        stream.getDestinationPort(),
-                        stream.getDestinationPort() + 1
-                };
-            }
+            String destination = mClientSocket.getInetAddress().getHostAddress();
 
-            RtpSocket rtpSocket = new RtpSocket(mClientSocket.getInetAddress(), clientPort[0], clientPort[1]);
+            Map<String, String> transports = new LinkedHashMap<>();
+            RtpSocket rtpSocket;
+            if (RtspRequestParser.isTcpTransport(request)) {
+                int[] interleaved = RtspRequestParser.parseInterleaved(request);
+                if (interleaved == null) {
+                    int channel;
+                    synchronized (mRtpSockets) {
+                        channel = mRtpSockets.size() * 2;
+                    }
+                    interleaved = new int[] {channel, channel + 1};
+                }
 
-            mRtpSockets.add(rtpSocket);
-            stream.addRtpSocket(rtpSocket);
+                rtpSocket = new RtpSocket();
+                rtpSocket.setInterleaved(this, interleaved[0], interleaved[1]);
+                mInterleavedRtcpSockets.put(interleaved[1], rtpSocket);
 
-            int[] serverPort = rtpSocket.getLocalPorts();
-            int ssrc = rtpSocket.getSsrc();
+                transports.put("RTP/AVP/TCP", "");
+                transports.put("unicast", "");
+                transports.put("interleaved", interleaved[0] + "-" + interleaved[1]);
+            } else {
+                int[] clientPort = RtspRequestParser.parseClientPort(request);
+                if (clientPort == null) {
+                    clientPort = new int[]{
+                            stream.getDestinationPort(),
+                            stream.getDestinationPort() + 1
+                    };
+                }
 
-            String destination = mClientSocket.getInetAddress().getHostAddress();
+                rtpSocket = new RtpSocket(mClientSocket.getInetAddress(), clientPort[0], clientPort[1]);
 
-            Map<String, String> transports = new LinkedHashMap<>();
-            transports.put("RTP/AVP/UDP", "");
-            transports.put((isMulticastAddress(destination)) ? "multicast" : "unicast", "");
-            transports.put("destination", destination);
-            transports.put("client_port", clientPort[0] + "-" + clientPort[1]);
-            transports.put("server_port", serverPort[0] + "-" + serverPort[1]);
-            transports.put("ssrc", Integer.toHexString(ssrc));
+                int[] serverPort = rtpSocket.getLocalPorts();
+                transports.put("RTP/AVP/UDP", "");
+                transports.put((isMulticastAddress(destination)) ? "multicast" : "unicast", "");
+                transports.put("destination", destination);
+                transports.put("client_port", clientPort[0] + "-" + clientPort[1]);
+                transports.put("server_port", serverPort[0] + "-" + serverPort[1]);
+            }
+            rtpSocket.setPacingEnabled(mPacingEnabled);
+            transports.put("ssrc", Integer.toHexString(rtpSocket.getSsrc()));
             transports.put("mode", "play");
 
+            synchronized (mRtpSockets) {
+                mRtpSockets.add(rtpSocket);
+            }
+            stream.addRtpSocket(rtpSocket);
+
             StringBuilder builder = new StringBuilder();
             for (Map.Entry<String, String> entry : transports.entrySet()) {
                 if (builder.length() > 0) {
@@ -635,6 +1315,35 @@ public class RtspServer {
             response.setStatus(RtspResponse.Status.STATUS_OK);
         }
 
+        /**
+         * リクエストの処理を行い、レスポンスを送信します.
+         *
+         * <p>
+         * リクエスト処理用のスレッドから呼び出します。
+         * </p>
+         *
+         * @param request リクエスト、解析に失敗した場合は null
+         * @param error 解析に失敗した場合のステータスコード
+         */
+        private void processRequest(RtspRequest request, RtspResponse.Status error) {
+            if (isClosed()) {
+                return;
+            }
+
+            RtspResponse response;
+            if (request == null) {
+                response = createResponse(null, error);
+            } else {
+                try {
+                    response = processRequest(request);
+                } catch (Exception e) {
+                    response = createResponse(request, RtspResponse.Status.STATUS_INTERNAL_SERVER_ERROR);
+                }
+            }
+
+            send(response);
+        }
+
         /**
          * リクエストの処理を行います.
          *
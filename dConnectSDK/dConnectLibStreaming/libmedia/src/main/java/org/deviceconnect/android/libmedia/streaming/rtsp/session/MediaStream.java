@@ -1,19 +1,63 @@
 package org.deviceconnect.android.libmedia.streaming.rtsp.session;
 
+import android.util.Log;
+
+import org.deviceconnect.android.libmedia.BuildConfig;
+import org.deviceconnect.android.libmedia.streaming.rtp.RtpPacket;
 import org.deviceconnect.android.libmedia.streaming.rtp.RtpPacketize;
 import org.deviceconnect.android.libmedia.streaming.rtp.RtpSocket;
 import org.deviceconnect.android.libmedia.streaming.sdp.MediaDescription;
+import org.deviceconnect.android.libmedia.streaming.util.GopCache;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
 public abstract class MediaStream {
+    /**
+     * デバッグフラグ.
+     */
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+
+    /**
+     * デバッグ用タグ.
+     */
+    private static final String TAG = "RTSP-STREAM";
+
     /**
      * 送信先のパケットを管理.
      */
     private final Map<RtpSocket, RtpPacketize> mRtpPacketizes = new HashMap<>();
 
+    /**
+     * 最初のキーフレームを待っている RtpSocket と追加された時間を管理.
+     *
+     * <p>
+     * キーフレームを受け取るまでは復号できないので、キーフレーム以外のフレームは送信しません。
+     * </p>
+     */
+    private final Map<RtpSocket, Long> mWaitingSockets = new HashMap<>();
+
+    /**
+     * GOP のキャッシュを送信している途中の RtpSocket と送信の状態を管理.
+     *
+     * <p>
+     * 送信用のバッファに収まる分だけ送信して、残りはフレームを書き込むたびに続きから送信します。
+     * 送信している間のフレームはキャッシュに追加されるので、キャッシュから送信します。
+     * </p>
+     */
+    private final Map<RtpSocket, Replay> mReplays = new HashMap<>();
+
+    /**
+     * 途中から追加された RtpSocket に送信する GOP のキャッシュ.
+     */
+    private final GopCache mGopCache = new GopCache();
+
+    /**
+     * 最後に追加された RtpSocket に最初のフレームを送信するまでにかかった時間(ミリ秒).
+     */
+    private volatile long mTimeToFirstFrame = -1;
+
     /**
      * トラック ID.
      */
@@ -29,6 +73,17 @@ public abstract class MediaStream {
      */
     private final String mSession = createSession();
 
+    /**
+     * コンストラクタ.
+     *
+     * <p>
+     * GOP のキャッシュは無効になっています。
+     * </p>
+     */
+    public MediaStream() {
+        mGopCache.setEnabled(false);
+    }
+
     /**
      * セッション名を作成します.
      *
@@ -56,20 +111,92 @@ public abstract class MediaStream {
                 socket.close();
             }
             mRtpPacketizes.clear();
+            mWaitingSockets.clear();
+            mReplays.clear();
+            mGopCache.clear();
+        }
+    }
+
+    /**
+     * GOP のキャッシュの有効・無効を設定します.
+     *
+     * <p>
+     * 有効にした場合は、最後のキーフレームからのフレームを保持して、
+     * 途中から追加された RtpSocket に送信します。
+     * </p>
+     *
+     * @param enabled 有効にする場合はtrue、それ以外はfalse
+     */
+    public void setGopCacheEnabled(boolean enabled) {
+        mGopCache.setEnabled(enabled);
+    }
+
+    /**
+     * コーデックの設定データ (SPS、PPS、VPS) を設定します.
+     *
+     * <p>
+     * 設定データは、キーフレームを送信する前に毎回送信します。
+     * </p>
+     *
+     * @param data 設定データ
+     * @param dataLength 設定データのサイズ
+     */
+    public void setCodecConfig(byte[] data, int dataLength) {
+        synchronized (mRtpPacketizes) {
+            mGopCache.setConfig(data, 0, dataLength);
         }
     }
 
     /**
      * パケットにデータを書き込みます.
      *
+     * <p>
+     * 全てのデータをキーフレームとして扱います。
+     * </p>
+     *
      * @param data 書き込むデータ
      * @param dataLength 書き込むデータサイズ
      * @param pts プレゼンテーションタイム
      */
     public void writePacket(byte[] data, int dataLength, long pts) {
+        writePacket(data, dataLength, pts, true);
+    }
+
+    /**
+     * パケットにデータを書き込みます.
+     *
+     * @param data 書き込むデータ
+     * @param dataLength 書き込むデータサイズ
+     * @param pts プレゼンテーションタイム
+     * @param keyFrame キーフレームの場合はtrue、それ以外はfalse
+     */
+    public void writePacket(byte[] data, int dataLength, long pts, boolean keyFrame) {
         synchronized (mRtpPacketizes) {
-            for (RtpPacketize packet : mRtpPacketizes.values()) {
+            // GOP のキャッシュを送信している RtpSocket には、キャッシュからこのフレームを送信する
+            mGopCache.add(data, 0, dataLength, pts, keyFrame);
+
+            byte[] config = mGopCache.getConfig();
+            int configLength = mGopCache.getConfigLength();
+
+            for (Map.Entry<RtpSocket, RtpPacketize> entry : mRtpPacketizes.entrySet()) {
+                RtpSocket socket = entry.getKey();
+                RtpPacketize packet = entry.getValue();
+                if (!mWaitingSockets.isEmpty() && mWaitingSockets.containsKey(socket)) {
+                    if (!keyFrame) {
+                        if (mReplays.containsKey(socket)) {
+                            continueReplay(socket, packet);
+                        }
+                        continue;
+                    }
+                    // キーフレームから復号できるので、送信途中の GOP は破棄する
+                    mReplays.remove(socket);
+                    onFirstFrame(socket);
+                }
+
                 try {
+                    if (keyFrame && configLength > 0) {
+                        packet.write(config, configLength, pts);
+                    }
                     packet.write(data, dataLength, pts);
                 } catch (Exception e) {
                     // ignore.
@@ -78,6 +205,36 @@ public abstract class MediaStream {
         }
     }
 
+    /**
+     * 最後に追加された RtpSocket に最初のフレームを送信するまでにかかった時間を取得します.
+     *
+     * <p>
+     * GOP のキャッシュがある場合にはキャッシュを送信した時間、
+     * ない場合には次のキーフレームを送信した時間になります。
+     * </p>
+     *
+     * @return 最初のフレームを送信するまでの時間(ミリ秒)、計測していない場合は -1
+     */
+    public long getTimeToFirstFrame() {
+        return mTimeToFirstFrame;
+    }
+
+    /**
+     * RtpSocket に最初のフレームを送信する時に呼び出して、送信までにかかった時間を計測します.
+     *
+     * @param socket 送信先の RtpSocket
+     */
+    private void onFirstFrame(RtpSocket socket) {
+        Long joinTime = mWaitingSockets.remove(socket);
+        if (joinTime != null) {
+            mTimeToFirstFrame = System.currentTimeMillis() - joinTime;
+
+            if (DEBUG) {
+                Log.d(TAG, "Time to first frame: " + mTimeToFirstFrame + "ms trackId=" + mTrackId);
+            }
+        }
+    }
+
     /**
      * 送信先のポート番号を取得します.
      *
@@ -123,13 +280,96 @@ public abstract class MediaStream {
         RtpPacketize packet = createRtpPacketize();
         packet.setCallback(socket);
         packet.setSsrc(socket.getSsrc());
+        socket.setClockFrequency(packet.getClockFrequency());
 
         socket.setThreadHighPriority(isHighPriority());
         socket.open();
 
         synchronized (mRtpPacketizes) {
             mRtpPacketizes.put(socket, packet);
+            mWaitingSockets.put(socket, System.currentTimeMillis());
+            replayGop(socket, packet);
+        }
+    }
+
+    /**
+     * キーフレームを待たずに再生を開始できるように、キャッシュしている GOP の送信を開始します.
+     *
+     * @param socket 送信先の RtpSocket
+     * @param packet 送信先のパケット化を行うクラス
+     */
+    private void replayGop(RtpSocket socket, RtpPacketize packet) {
+        if (!mGopCache.isAvailable()) {
+            return;
+        }
+        mReplays.put(socket, new Replay(mGopCache.getGeneration()));
+        continueReplay(socket, packet);
+    }
+
+    /**
+     * キャッシュしている GOP の続きを、送信用のバッファに収まる分だけ送信します.
+     *
+     * <p>
+     * 送信を待つとライブのフレームの送信が止まるので、バッファに収まらないフレームは次の呼び出しで送信します。
+     * 全てのフレームを送信した場合には、以降のフレームはライブで送信します。
+     * キャッシュが破棄された場合や途中で破棄されたパケットがある場合は復号できないので、
+     * 送信を中止して次のキーフレームを待ちます。
+     * </p>
+     *
+     * @param socket 送信先の RtpSocket
+     * @param packet 送信先のパケット化を行うクラス
+     */
+    private void continueReplay(RtpSocket socket, RtpPacketize packet) {
+        Replay replay = mReplays.get(socket);
+        if (replay.mGeneration != mGopCache.getGeneration() || !mGopCache.isAvailable()) {
+            mReplays.remove(socket);
+            if (DEBUG) {
+                Log.d(TAG, "GOP replay was cancelled. trackId=" + mTrackId);
+            }
+            return;
+        }
+
+        int frameCount = mGopCache.getFrameCount();
+        while (replay.mIndex < frameCount) {
+            if (estimatePacketCount(mGopCache.getFrameSize(replay.mIndex)) > socket.getAvailablePacketCount()) {
+                return;
+            }
+
+            long discardedCount = socket.getDiscardedCount();
+            try {
+                mGopCache.replay(replay.mIndex, packet::write);
+            } catch (Exception e) {
+                if (DEBUG) {
+                    Log.w(TAG, "Failed to replay GOP. trackId=" + mTrackId, e);
+                }
+                mReplays.remove(socket);
+                return;
+            }
+
+            if (socket.getDiscardedCount() != discardedCount) {
+                if (DEBUG) {
+                    Log.w(TAG, "GOP replay was truncated. trackId=" + mTrackId);
+                }
+                mReplays.remove(socket);
+                return;
+            }
+            replay.mIndex++;
         }
+
+        mReplays.remove(socket);
+        onFirstFrame(socket);
+    }
+
+    /**
+     * フレームをパケット化した場合のパケット数の上限を見積もります.
+     *
+     * @param frameSize フレームのサイズ
+     * @return パケット数
+     */
+    private static int estimatePacketCount(int frameSize) {
+        // パケット化のヘッダ(RTP ヘッダと FU ヘッダなど)を多めに見積もり、設定データの分の端数のパケットを加える
+        int payloadSize = RtpPacketize.MAX_PACKET_SIZE - RtpPacket.RTP_HEADER_LENGTH - 4;
+        return frameSize / payloadSize + 2;
     }
 
     /**
@@ -142,6 +382,8 @@ public abstract class MediaStream {
 
         synchronized (mRtpPacketizes) {
             mRtpPacketizes.remove(socket);
+            mWaitingSockets.remove(socket);
+            mReplays.remove(socket);
         }
     }
 
@@ -202,4 +444,23 @@ public abstract class MediaStream {
      * @return メディアストリームの SDP 情報
      */
     public abstract MediaDescription getMediaDescription();
+
+    /**
+     * GOP のキャッシュの送信の状態.
+     */
+    private static class Replay {
+        /**
+         * 送信している GOP の世代.
+         */
+        private final int mGeneration;
+
+        /**
+         * 次に送信するフレームの位置.
+         */
+        private int mIndex;
+
+        Replay(int generation) {
+            mGeneration = generation;
+        }
+    }
 }
@@ -126,6 +126,17 @@ public class RtspSession {
         return bps;
     }
 
+    /**
+     * 途中から接続したクライアントに最初の映像フレームを送信するまでにかかった時間を取得します.
+     *
+     * @return 最初のフレームを送信するまでの時間(ミリ秒)、計測していない場合は -1
+     * @see MediaStream#getTimeToFirstFrame()
+     */
+    public long getTimeToFirstFrame() {
+        VideoStream videoStream = getVideoStream();
+        return videoStream != null ? videoStream.getTimeToFirstFrame() : -1;
+    }
+
     /**
      * セッションに登録されている MediaStream の SDP を作成します.
      *
@@ -253,16 +264,6 @@ public class RtspSession {
          */
         private byte[] mAudioBuffer = new byte[4096];
 
-        /**
-         * PPS、SPS のデータを一時的に格納するバッファ.
-         */
-        private byte[] mConfigData;
-
-        /**
-         * PPS、SPS のデータをバッファサイズ.
-         */
-        private int mConfigLength;
-
         /**
          * エンコード開始時間.
          */
@@ -287,23 +288,6 @@ public class RtspSession {
             if (videoStream != null) {
                 long pts = getPresentationTime(bufferInfo);
 
-                boolean isConfigFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
-                if (isConfigFrame) {
-                    if (mConfigData == null || mConfigData.length < bufferInfo.size) {
-                        mConfigData = new byte[bufferInfo.size];
-                    }
-                    encodedData.position(bufferInfo.offset);
-                    encodedData.limit(bufferInfo.offset + bufferInfo.size);
-                    encodedData.get(mConfigData, 0, bufferInfo.size);
-                    mConfigLength = bufferInfo.size;
-                }
-
-                boolean isKeyFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
-                if (isKeyFrame && mConfigData != null) {
-                    // H264 の SPS、PPS はキーフレームごとに送信するようにする。
-                    videoStream.writePacket(mConfigData, mConfigLength, pts);
-                }
-
                 if (mVideoBuffer.length < bufferInfo.size) {
                     mVideoBuffer = new byte[bufferInfo.size];
                 }
@@ -311,7 +295,17 @@ public class RtspSession {
                 encodedData.limit(bufferInfo.offset + bufferInfo.size);
                 encodedData.get(mVideoBuffer, 0, bufferInfo.size);
 
-                videoStream.writePacket(mVideoBuffer, bufferInfo.size, pts);
+                boolean isConfigFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                boolean isKeyFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+                if (isConfigFrame) {
+                    // SPS、PPS (H265 の場合は VPS も) は MediaStream でキーフレームごとに送信する。
+                    videoStream.setCodecConfig(mVideoBuffer, bufferInfo.size);
+                    if (!isKeyFrame) {
+                        return;
+                    }
+                }
+
+                videoStream.writePacket(mVideoBuffer, bufferInfo.size, pts, isKeyFrame);
             }
         }
 
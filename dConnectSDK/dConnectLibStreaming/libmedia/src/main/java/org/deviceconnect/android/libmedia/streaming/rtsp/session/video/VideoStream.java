@@ -1,6 +1,9 @@
 package org.deviceconnect.android.libmedia.streaming.rtsp.session.video;
 
+import org.deviceconnect.android.libmedia.streaming.rtp.RtpSocket;
+import org.deviceconnect.android.libmedia.streaming.rtp.RtpStatistics;
 import org.deviceconnect.android.libmedia.streaming.rtsp.session.MediaStream;
+import org.deviceconnect.android.libmedia.streaming.video.AdaptiveBitRateController;
 import org.deviceconnect.android.libmedia.streaming.video.VideoEncoder;
 
 public abstract class VideoStream extends MediaStream {
@@ -9,8 +12,19 @@ public abstract class VideoStream extends MediaStream {
      */
     private static final int VIDEO_PORT = 5006;
 
+    /**
+     * ビットレートの自動調整の有効フラグ.
+     */
+    private volatile boolean mAdaptiveBitRateEnabled;
+
+    /**
+     * 受信状況からエンコーダのビットレートを調整するクラス.
+     */
+    private AdaptiveBitRateController mBitRateController;
+
     public VideoStream() {
         setDestinationPort(VIDEO_PORT);
+        setGopCacheEnabled(true);
     }
 
     /**
@@ -19,4 +33,60 @@ public abstract class VideoStream extends MediaStream {
      * @return 映像用のエンコーダ
      */
     public abstract VideoEncoder getVideoEncoder();
+
+    /**
+     * ビットレートの自動調整の有効・無効を設定します.
+     *
+     * <p>
+     * 有効にした場合は、クライアントから受信した RTCP の Receiver Report の損失率と往復遅延時間から、
+     * エンコーダのビットレート、フレームレート、キーフレームの間隔を調整します。
+     * 複数のクライアントが接続している場合は、受信状況が悪いクライアントに合わせて調整されます。
+     * デフォルトは無効です。
+     * </p>
+     *
+     * @param enabled 有効にする場合はtrue、それ以外はfalse
+     * @see AdaptiveBitRateController
+     */
+    public void setAdaptiveBitRateEnabled(boolean enabled) {
+        mAdaptiveBitRateEnabled = enabled;
+    }
+
+    @Override
+    public void addRtpSocket(RtpSocket socket) {
+        socket.setOnReceiverReportListener((statistics) -> onReceiverReport(socket, statistics));
+        super.addRtpSocket(socket);
+    }
+
+    @Override
+    public void removeRtpSocket(RtpSocket socket) {
+        socket.setOnReceiverReportListener(null);
+        super.removeRtpSocket(socket);
+        synchronized (this) {
+            if (mBitRateController != null) {
+                mBitRateController.removeReceiver(socket);
+            }
+        }
+    }
+
+    /**
+     * クライアントから受信した Receiver Report をビットレートの調整に反映します.
+     *
+     * @param socket Receiver Report を受信した RtpSocket
+     * @param statistics 統計情報
+     */
+    private synchronized void onReceiverReport(RtpSocket socket, RtpStatistics statistics) {
+        if (!mAdaptiveBitRateEnabled) {
+            return;
+        }
+
+        if (mBitRateController == null) {
+            VideoEncoder encoder = getVideoEncoder();
+            if (encoder == null) {
+                return;
+            }
+            mBitRateController = AdaptiveBitRateController.create(encoder);
+        }
+        mBitRateController.onReport(socket, statistics.getFractionLost(),
+                statistics.getRoundTripTime(), statistics.getLastReportTime());
+    }
 }
@@ -1,8 +1,14 @@
 package org.deviceconnect.android.libmedia.streaming.util;
 
+/**
+ * MPEG2-TS のセクションで使用する CRC32 を計算するクラス.
+ */
 public final class CrcUtil {
 
-    private static final long[] crc_table = new long[] { 0x00000000, 0x04c11db7,
+    /**
+     * 多項式 0x04C11DB7 の CRC32 を 1 バイト単位で計算するためのテーブル.
+     */
+    private static final int[] crc_table = new int[] { 0x00000000, 0x04c11db7,
             0x09823b6e, 0x0d4326d9, 0x130476dc, 0x17c56b6b, 0x1a864db2,
             0x1e475005, 0x2608edb8, 0x22c9f00f, 0x2f8ad6d6, 0x2b4bcb61,
             0x350c9b64, 0x31cd86d3, 0x3c8ea00a, 0x384fbdbd, 0x4c11db70,
@@ -55,14 +61,20 @@ public final class CrcUtil {
             0x97ffad0c, 0xafb010b1, 0xab710d06, 0xa6322bdf, 0xa2f33668,
             0xbcb4666d, 0xb8757bda, 0xb5365d03, 0xb1f740b4 };
 
+    /**
+     * 指定されたデータの CRC32 を計算します.
+     *
+     * @param data データ
+     * @param offset データの開始位置
+     * @param len データのサイズ
+     * @return CRC32 の値 (下位 32 ビット)
+     */
     public static long crc32(byte[] data, int offset, int len) {
-        long crc = 0xffffffff;
+        int crc = 0xffffffff;
         for (int i = 0; i < len; i++) {
-            int pos = (int) ((crc >> 24) ^ data[i + offset]) & 0xff;
-            crc = (crc << 8) ^ crc_table[pos];
+            crc = (crc << 8) ^ crc_table[((crc >>> 24) ^ data[i + offset]) & 0xff];
         }
-
-        return crc;
+        return crc & 0xffffffffL;
     }
 
     private CrcUtil() {}
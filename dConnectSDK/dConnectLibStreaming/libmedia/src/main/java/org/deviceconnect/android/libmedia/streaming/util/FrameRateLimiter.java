@@ -0,0 +1,87 @@
+package org.deviceconnect.android.libmedia.streaming.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 入力されるフレームを間引いて、フレームレートを上限以下にするクラス.
+ *
+ * <p>
+ * MediaCodec はエンコード中のフレームレートの変更に対応していないので、
+ * エンコーダに入力する前にフレームを破棄してフレームレートを下げます。
+ * </p>
+ *
+ * <p>
+ * フレームの時刻が次に入力する予定の時刻に近ければ入力して、予定の時刻をフレーム間隔だけ進めます。
+ * 予定の時刻から進めるので、入力されるフレームの間隔に揺らぎがあっても、長い期間で見て上限のフレームレートになります。
+ * </p>
+ */
+public class FrameRateLimiter {
+    /**
+     * 次に入力する予定の時刻が設定されていないことを示す値.
+     */
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    /**
+     * 上限のフレームレートのフレーム間隔(ナノ秒).
+     *
+     * <p>
+     * 0 の場合はフレームを間引きません。
+     * </p>
+     */
+    private volatile long mFrameInterval;
+
+    /**
+     * 次にフレームを入力する予定の時刻(ナノ秒).
+     */
+    private long mNextFrameTime = NO_TIME;
+
+    /**
+     * 上限のフレームレートを設定します.
+     *
+     * <p>
+     * {@link #accept(long)} とは別のスレッドから呼び出すことができます。
+     * </p>
+     *
+     * @param frameRate フレームレート. 0 の場合は上限なし
+     */
+    public void setMaxFrameRate(int frameRate) {
+        if (frameRate < 0) {
+            throw new IllegalArgumentException("frameRate is negative.");
+        }
+        mFrameInterval = frameRate > 0 ? TimeUnit.SECONDS.toNanos(1) / frameRate : 0;
+    }
+
+    /**
+     * フレームを入力するか確認します.
+     *
+     * <p>
+     * フレームを入力するスレッドから、フレームごとに時刻の順に呼び出してください。
+     * 時刻が前のフレームより戻った場合は、そのフレームから数え直します。
+     * </p>
+     *
+     * @param timestamp フレームの時刻(ナノ秒)
+     * @return 入力する場合は true、破棄する場合は false
+     */
+    public boolean accept(long timestamp) {
+        long interval = mFrameInterval;
+        if (interval <= 0) {
+            mNextFrameTime = NO_TIME;
+            return true;
+        }
+
+        if (mNextFrameTime != NO_TIME && timestamp >= mNextFrameTime - interval) {
+            // 入力されるフレームの間隔の揺らぎで予定の時刻より少し早く来たフレームは入力する
+            if (timestamp < mNextFrameTime - interval / 4) {
+                return false;
+            }
+            if (timestamp - mNextFrameTime < interval) {
+                mNextFrameTime += interval;
+                return true;
+            }
+        }
+
+        // 最初のフレーム、時刻が戻ったフレーム、または予定より大幅に遅れたフレームから数え直す
+        mNextFrameTime = timestamp + interval;
+        return true;
+    }
+}
@@ -0,0 +1,417 @@
+package org.deviceconnect.android.libmedia.streaming.util;
+
+import java.io.IOException;
+
+/**
+ * GOP (Group of Pictures) をキャッシュするクラス.
+ *
+ * <p>
+ * 最後のキーフレームから現在までのフレームと、コーデックの設定データ (SPS、PPS、VPS) を保持します。
+ * 途中から接続したクライアントにキャッシュを送信することで、次のキーフレームを待たずに再生を開始できます。
+ * </p>
+ *
+ * <p>
+ * フレームを格納するバッファは再利用するので、GOP が切り替わってもメモリの確保は行いません。
+ * 保持できるフレーム数またはサイズを超えた場合には、GOP の先頭から復号できなくなるので、
+ * 次のキーフレームが来るまでキャッシュを無効にします。
+ * </p>
+ */
+public class GopCache {
+    /**
+     * デフォルトの保持できる最大フレーム数.
+     */
+    public static final int DEFAULT_MAX_FRAME_COUNT = 300;
+
+    /**
+     * デフォルトの保持できる最大サイズ.
+     */
+    public static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * フレームを格納する配列.
+     */
+    private final Entry[] mEntries;
+
+    /**
+     * 保持できる最大サイズ.
+     */
+    private final int mMaxSize;
+
+    /**
+     * 保持しているフレーム数.
+     */
+    private int mCount;
+
+    /**
+     * 保持しているフレームの合計サイズ.
+     */
+    private int mSize;
+
+    /**
+     * キーフレームから始まるフレームを保持している場合は true.
+     */
+    private boolean mAvailable;
+
+    /**
+     * 保持している GOP の世代.
+     *
+     * <p>
+     * 保持しているフレームを破棄するたびに増加します。
+     * </p>
+     */
+    private int mGeneration;
+
+    /**
+     * キャッシュの有効フラグ.
+     */
+    private boolean mEnabled = true;
+
+    /**
+     * コーデックの設定データ.
+     */
+    private byte[] mConfig;
+
+    /**
+     * コーデックの設定データのサイズ.
+     */
+    private int mConfigLength;
+
+    /**
+     * コンストラクタ.
+     */
+    public GopCache() {
+        this(DEFAULT_MAX_FRAME_COUNT, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param maxFrameCount 保持できる最大フレーム数
+     * @param maxSize 保持できる最大サイズ
+     */
+    public GopCache(int maxFrameCount, int maxSize) {
+        if (maxFrameCount <= 0) {
+            throw new IllegalArgumentException("maxFrameCount is invalid.");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize is invalid.");
+        }
+        mEntries = new Entry[maxFrameCount];
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * キャッシュの有効・無効を設定します.
+     *
+     * <p>
+     * 無効にした場合にもコーデックの設定データは保持します。
+     * </p>
+     *
+     * @param enabled 有効にする場合はtrue、それ以外はfalse
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) {
+            invalidate();
+        }
+    }
+
+    /**
+     * キャッシュの有効・無効を確認します.
+     *
+     * @return 有効の場合はtrue、それ以外はfalse
+     */
+    public synchronized boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * コーデックの設定データを設定します.
+     *
+     * <p>
+     * 設定データが変更された場合には、保持しているフレームは復号できなくなるので破棄します。
+     * </p>
+     *
+     * @param data 設定データ
+     * @param offset 設定データの開始位置
+     * @param length 設定データのサイズ
+     */
+    public synchronized void setConfig(byte[] data, int offset, int length) {
+        if (!isSameConfig(data, offset, length)) {
+            invalidate();
+        }
+        if (mConfig == null || mConfig.length < length) {
+            mConfig = new byte[length];
+        }
+        System.arraycopy(data, offset, mConfig, 0, length);
+        mConfigLength = length;
+    }
+
+    /**
+     * コーデックの設定データを取得します.
+     *
+     * <p>
+     * 返却する配列は内部で使用しているものなので、変更しないでください。
+     * 有効なサイズは {@link #getConfigLength()} で取得してください。
+     * </p>
+     *
+     * @return 設定データ、設定されていない場合は null
+     */
+    public synchronized byte[] getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * コーデックの設定データのサイズを取得します.
+     *
+     * @return 設定データのサイズ
+     */
+    public synchronized int getConfigLength() {
+        return mConfigLength;
+    }
+
+    /**
+     * フレームを追加します.
+     *
+     * <p>
+     * キーフレームの場合には、保持しているフレームを破棄して新しい GOP を開始します。
+     * キーフレームを受け取るまでは、キーフレーム以外のフレームは保持しません。
+     * </p>
+     *
+     * @param data フレームのデータ
+     * @param offset データの開始位置
+     * @param length データのサイズ
+     * @param pts プレゼンテーションタイム
+     * @param keyFrame キーフレームの場合はtrue、それ以外はfalse
+     */
+    public synchronized void add(byte[] data, int offset, int length, long pts, boolean keyFrame) {
+        if (!mEnabled) {
+            return;
+        }
+
+        if (keyFrame) {
+            invalidate();
+            mAvailable = true;
+        } else if (!mAvailable) {
+            return;
+        }
+
+        if (mCount >= mEntries.length || mSize + length > mMaxSize) {
+            invalidate();
+            return;
+        }
+
+        Entry entry = mEntries[mCount];
+        if (entry == null) {
+            entry = new Entry();
+            mEntries[mCount] = entry;
+        }
+        entry.set(data, offset, length, pts);
+        mCount++;
+        mSize += length;
+    }
+
+    /**
+     * キーフレームから始まるフレームを保持しているか確認します.
+     *
+     * @return 保持している場合はtrue、それ以外はfalse
+     */
+    public synchronized boolean isAvailable() {
+        return mAvailable;
+    }
+
+    /**
+     * 保持しているフレーム数を取得します.
+     *
+     * @return フレーム数
+     */
+    public synchronized int getFrameCount() {
+        return mCount;
+    }
+
+    /**
+     * 保持しているフレームの合計サイズを取得します.
+     *
+     * @return 合計サイズ
+     */
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    /**
+     * 保持している GOP の世代を取得します.
+     *
+     * <p>
+     * 世代が変わった場合には、以前に取得したフレームの位置は無効になります。
+     * </p>
+     *
+     * @return 世代
+     */
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * 指定した位置のフレームのサイズを取得します.
+     *
+     * <p>
+     * 先頭のフレームにはコーデックの設定データのサイズを含めます。
+     * </p>
+     *
+     * @param index フレームの位置
+     * @return フレームのサイズ
+     */
+    public synchronized int getFrameSize(int index) {
+        checkIndex(index);
+        return mEntries[index].mLength + (index == 0 ? mConfigLength : 0);
+    }
+
+    /**
+     * 指定した位置のフレームをコールバックに通知します.
+     *
+     * <p>
+     * 先頭のフレームの場合には、コーデックの設定データがあれば先に通知します。
+     * GOP を少しずつ送信する場合に使用します。
+     * </p>
+     *
+     * @param index フレームの位置
+     * @param callback 通知するコールバック
+     * @throws IOException コールバックで送信に失敗した場合に発生
+     */
+    public synchronized void replay(int index, Callback callback) throws IOException {
+        checkIndex(index);
+        Entry entry = mEntries[index];
+        if (index == 0 && mConfigLength > 0) {
+            callback.onData(mConfig, mConfigLength, entry.mPts);
+        }
+        callback.onData(entry.mData, entry.mLength, entry.mPts);
+    }
+
+    /**
+     * 保持しているフレームをコールバックに通知します.
+     *
+     * <p>
+     * コーデックの設定データがある場合には、先頭のフレームと同じプレゼンテーションタイムで最初に通知します。
+     * キャッシュを保持していない場合には何も通知しません。
+     * </p>
+     *
+     * @param callback 通知するコールバック
+     * @return キャッシュを通知した場合はtrue、それ以外はfalse
+     * @throws IOException コールバックで送信に失敗した場合に発生
+     */
+    public synchronized boolean replay(Callback callback) throws IOException {
+        if (!mAvailable || mCount == 0) {
+            return false;
+        }
+
+        if (mConfigLength > 0) {
+            callback.onData(mConfig, mConfigLength, mEntries[0].mPts);
+        }
+        for (int i = 0; i < mCount; i++) {
+            Entry entry = mEntries[i];
+            callback.onData(entry.mData, entry.mLength, entry.mPts);
+        }
+        return true;
+    }
+
+    /**
+     * 保持しているフレームとコーデックの設定データを破棄します.
+     */
+    public synchronized void clear() {
+        invalidate();
+        mConfigLength = 0;
+    }
+
+    /**
+     * 保持している設定データと同じか確認します.
+     *
+     * @param data 設定データ
+     * @param offset 設定データの開始位置
+     * @param length 設定データのサイズ
+     * @return 同じ場合はtrue、それ以外はfalse
+     */
+    private boolean isSameConfig(byte[] data, int offset, int length) {
+        if (mConfigLength != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (mConfig[i] != data[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 保持しているフレームを破棄して、次のキーフレームまでキャッシュを無効にします.
+     */
+    private void invalidate() {
+        mGeneration++;
+        mCount = 0;
+        mSize = 0;
+        mAvailable = false;
+    }
+
+    /**
+     * フレームの位置が保持しているフレームの範囲内か確認します.
+     *
+     * @param index フレームの位置
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("index=" + index + ", count=" + mCount);
+        }
+    }
+
+    /**
+     * キャッシュしたフレーム.
+     */
+    private static class Entry {
+        /**
+         * フレームのデータ.
+         */
+        private byte[] mData;
+
+        /**
+         * データのサイズ.
+         */
+        private int mLength;
+
+        /**
+         * プレゼンテーションタイム.
+         */
+        private long mPts;
+
+        /**
+         * フレームのデータをコピーします.
+         *
+         * @param data データ
+         * @param offset データの開始位置
+         * @param length データのサイズ
+         * @param pts プレゼンテーションタイム
+         */
+        void set(byte[] data, int offset, int length, long pts) {
+            if (mData == null || mData.length < length) {
+                mData = new byte[length];
+            }
+            System.arraycopy(data, offset, mData, 0, length);
+            mLength = length;
+            mPts = pts;
+        }
+    }
+
+    /**
+     * キャッシュしたフレームを通知するコールバック.
+     */
+    public interface Callback {
+        /**
+         * フレームのデータを通知します.
+         *
+         * @param data データ
+         * @param length データのサイズ
+         * @param pts プレゼンテーションタイム
+         * @throws IOException 送信に失敗した場合に発生
+         */
+        void onData(byte[] data, int length, long pts) throws IOException;
+    }
+}
@@ -6,7 +6,6 @@
  */
 package org.deviceconnect.android.libmedia.streaming.util;
 
-import android.net.Uri;
 import android.os.Build;
 import android.util.Log;
 
@@ -24,14 +23,26 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
 import java.util.StringTokenizer;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLParameters;
@@ -40,6 +51,31 @@ import javax.net.ssl.SSLServerSocketFactory;
 
 /**
  * Mixed Replace Media Server.
+ *
+ * <p>
+ * 1つのスレッドで Selector を使用して、全てのクライアントへの送信を行います。
+ * {@link #offerMedia(byte[])} で渡されたデータは、コピーせずに全てのクライアントで共有します。
+ * 各クライアントは最新のフレームだけを保持するので、送信が遅いクライアントはフレームを間引いて送信します。
+ * </p>
+ *
+ * <p>
+ * 新しく接続したクライアントには、次のフレームを待たずに最後に渡されたフレームを送信します。
+ * </p>
+ *
+ * <p>
+ * {@link Callback} は Selector のスレッドを止めないように、コールバック用のスレッドから呼び出します。
+ * 接続の受付の可否が通知されるまでは、そのクライアントのリクエストを受信しません。
+ * </p>
+ *
+ * <p>
+ * リクエストの受信やフレームの送信が {@link #setIdleTimeout(int)} で設定した時間進まないクライアントは切断します。
+ * 送信するフレームがなく待っているだけのクライアントは切断しません。
+ * </p>
+ *
+ * <p>
+ * SSLContext が設定されている場合には、SSL の通信をクライアントごとのスレッドで行います。
+ * </p>
+ *
  * @author NTT DOCOMO, INC.
  */
 public class MixedReplaceMediaServer {
@@ -77,52 +113,133 @@ public class MixedReplaceMediaServer {
      * Max value of client.
      */
     private static final int MAX_CLIENT_SIZE = 8;
-    
+
+    /**
+     * 通信が進まないクライアントを切断するまでの時間のデフォルト値(ミリ秒).
+     */
+    private static final int DEFAULT_IDLE_TIMEOUT = 10 * 1000;
+
+    /**
+     * 通信が進まないクライアントを確認する最大の間隔(ミリ秒).
+     */
+    private static final int MAX_IDLE_CHECK_INTERVAL = 1000;
+
+    /**
+     * マルチパートの各パートの末尾.
+     */
+    private static final byte[] PART_TRAILER = "\r\n\r\n".getBytes();
+
     /**
      * Port of the Socket.
      */
     private int mPort = -1;
-    
+
     /**
      * The boundary of a multipart.
      */
     private String mBoundary = UUID.randomUUID().toString();
-    
+
     /**
      * path.
      */
     private String mPath;
-    
+
     /**
      * Content type.
      * Default is "image/jpeg".
      */
     private String mContentType = "image/jpeg";
-    
+
     /**
      * Stop flag.
      */
-    private boolean mStopFlag;
-    
+    private volatile boolean mStopFlag;
+
     /**
      * Name of web server.
      */
     private String mServerName = "DevicePlugin Server";
-    
+
     /**
      * Server Socket.
      */
     private ServerSocket mServerSocket;
 
+    /**
+     * クライアントへの送信を行う Selector.
+     *
+     * <p>
+     * SSL を使用する場合には null になります。
+     * </p>
+     */
+    private Selector mSelector;
+
     /**
      * SSL Context.
      */
     private SSLContext mSSLContext;
 
     /**
-     * List a Server Runnable.
+     * 接続しているクライアントのリスト.
+     */
+    private final List<Client> mClients = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * 接続できるクライアントの最大数.
+     */
+    private int mMaxClientSize = MAX_CLIENT_SIZE;
+
+    /**
+     * 通信が進まないクライアントを切断するまでの時間(ミリ秒).
+     */
+    private volatile int mIdleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    /**
+     * 新しいフレームが追加されたことを Selector のスレッドに通知するフラグ.
+     */
+    private final AtomicBoolean mFrameOffered = new AtomicBoolean();
+
+    /**
+     * エンコード済みのパートのヘッダ.
+     *
+     * <p>
+     * Content-Length の値を除いた部分を保持します。
+     * バウンダリやコンテンツタイプが変更された場合には null にして作り直します。
+     * </p>
+     */
+    private volatile byte[] mPartHeader;
+
+    /**
+     * 最後に渡されたフレーム.
+     *
+     * <p>
+     * 新しく接続したクライアントに最初に送信します。mClients で同期して操作します。
+     * </p>
+     */
+    private Frame mLastFrame;
+
+    /**
+     * 最後に接続したクライアントに最初のフレームを送信するまでにかかった時間(ミリ秒).
+     */
+    private volatile long mTimeToFirstFrame = -1;
+
+    /**
+     * リクエストの後にクライアントから送られてきたデータを読み捨てるためのバッファ.
+     *
+     * <p>
+     * Selector のスレッドからのみ使用します。
+     * </p>
+     */
+    private final ByteBuffer mDiscardBuffer = ByteBuffer.allocate(BUF_SIZE);
+
+    /**
+     * Selector のスレッドで実行する処理のキュー.
+     *
+     * <p>
+     * コールバック用のスレッドから、コールバックの結果を Selector のスレッドに渡すために使用します。
+     * </p>
      */
-    private final List<ClientThread> mRunnables = Collections.synchronizedList(new ArrayList<>());
+    private final Queue<Runnable> mSelectorTasks = new ConcurrentLinkedQueue<>();
 
     private Callback mCallback;
 
@@ -169,8 +286,10 @@ public class MixedReplaceMediaServer {
             throw new IllegalArgumentException("boundary is empty.");
         }
         mBoundary = boundary;
+        mPartHeader = null;
+        clearLastFrame();
     }
-    
+
     /**
      * Get a boundary.
      * @return boundary
@@ -178,7 +297,7 @@ public class MixedReplaceMediaServer {
     public String getBoundary() {
         return mBoundary;
     }
-    
+
     /**
      * Set a content type.
      * <p>
@@ -188,8 +307,10 @@ public class MixedReplaceMediaServer {
      */
     public void setContentType(final String contentType) {
         mContentType = contentType;
+        mPartHeader = null;
+        clearLastFrame();
     }
-    
+
     /**
      * Get a content type.
      * @return content type
@@ -216,7 +337,7 @@ public class MixedReplaceMediaServer {
         }
         mPort = port;
     }
-    
+
     /**
      * Get a port of web server.
      * @return port
@@ -224,7 +345,50 @@ public class MixedReplaceMediaServer {
     public int getPort() {
         return mPort;
     }
-    
+
+    /**
+     * 接続できるクライアントの最大数を設定します.
+     *
+     * <p>
+     * デフォルトは 8 です。最大数を超えて接続したクライアントには 503 を返却します。
+     * </p>
+     *
+     * @param size クライアントの最大数
+     */
+    public void setMaxClientSize(final int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size is invalid.");
+        }
+        mMaxClientSize = size;
+    }
+
+    /**
+     * 通信が進まないクライアントを切断するまでの時間を設定します.
+     *
+     * <p>
+     * デフォルトは 10 秒です。0 を設定した場合は切断しません。
+     * リクエストを受信し終わらない場合と、フレームの送信が進まない場合に切断します。
+     * SSL で通信する場合には、リクエストの受信にだけ適用します。
+     * </p>
+     *
+     * @param timeout 切断するまでの時間(ミリ秒)
+     */
+    public void setIdleTimeout(final int timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout is negative.");
+        }
+        mIdleTimeout = timeout;
+    }
+
+    /**
+     * 通信が進まないクライアントを切断するまでの時間を取得します.
+     *
+     * @return 切断するまでの時間(ミリ秒)
+     */
+    public int getIdleTimeout() {
+        return mIdleTimeout;
+    }
+
     /**
      * Set a name of server.
      * @param name name of server
@@ -235,7 +399,7 @@ public class MixedReplaceMediaServer {
         }
         mServerName = name;
     }
-    
+
     /**
      * Get a name of server.
      * @return name of server
@@ -243,7 +407,7 @@ public class MixedReplaceMediaServer {
     public String getServerName() {
         return mServerName;
     }
-    
+
     /**
      * Get a url of server.
      * @return url
@@ -266,9 +430,15 @@ public class MixedReplaceMediaServer {
     public synchronized boolean isRunning() {
         return !mStopFlag;
     }
-    
+
     /**
      * Inserts the media data into queue.
+     *
+     * <p>
+     * データはコピーせずに全てのクライアントで共有するので、渡した後に配列の中身を変更しないでください。
+     * 前のデータを送信中のクライアントには、前のデータの代わりに最新のデータだけを送信します。
+     * </p>
+     *
      * @param media media data
      */
     public synchronized void offerMedia(final byte[] media) {
@@ -276,10 +446,19 @@ public class MixedReplaceMediaServer {
             return;
         }
         if (!mStopFlag) {
-            synchronized (mRunnables) {
-                for (ClientThread run : mRunnables) {
-                    run.add(media);
+            Frame frame = createFrame(media);
+            boolean offered;
+            synchronized (mClients) {
+                mLastFrame = frame;
+                for (Client client : mClients) {
+                    client.offer(frame);
                 }
+                offered = !mClients.isEmpty();
+            }
+
+            if (offered && mSelector != null) {
+                mFrameOffered.set(true);
+                mSelector.wakeup();
             }
         }
     }
@@ -291,9 +470,9 @@ public class MixedReplaceMediaServer {
      */
     public long getSentSize() {
         long sentSize = 0;
-        synchronized (mRunnables) {
-            for (ClientThread run : mRunnables) {
-                sentSize += run.getSentSize();
+        synchronized (mClients) {
+            for (Client client : mClients) {
+                sentSize += client.getSentSize();
             }
         }
         return sentSize;
@@ -303,9 +482,9 @@ public class MixedReplaceMediaServer {
      * 送信したデータサイズをリセットします.
      */
     public void resetSentSize() {
-        synchronized (mRunnables) {
-            for (ClientThread run : mRunnables) {
-                run.resetSentSize();
+        synchronized (mClients) {
+            for (Client client : mClients) {
+                client.resetSentSize();
             }
         }
     }
@@ -317,14 +496,46 @@ public class MixedReplaceMediaServer {
      */
     public long getBPS() {
         long bps = 0;
-        synchronized (mRunnables) {
-            for (ClientThread run : mRunnables) {
-                bps += run.getBPS();
+        synchronized (mClients) {
+            for (Client client : mClients) {
+                bps += client.getBPS();
             }
         }
         return bps;
     }
 
+    /**
+     * 送信が間に合わずに間引いたフレーム数を取得します.
+     *
+     * <p>
+     * 接続しているクライアントの合計値になります。
+     * </p>
+     *
+     * @return 間引いたフレーム数
+     */
+    public long getSkippedFrameCount() {
+        long count = 0;
+        synchronized (mClients) {
+            for (Client client : mClients) {
+                count += client.getSkippedFrameCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 最後に接続したクライアントに最初のフレームを送信するまでにかかった時間を取得します.
+     *
+     * <p>
+     * 接続を受け付けてから、最初のフレームの送信が完了するまでの時間になります。
+     * </p>
+     *
+     * @return 最初のフレームを送信するまでの時間(ミリ秒)、計測していない場合は -1
+     */
+    public long getTimeToFirstFrame() {
+        return mTimeToFirstFrame;
+    }
+
     /**
      * Start a mixed replace media server.
      * <p>
@@ -333,14 +544,34 @@ public class MixedReplaceMediaServer {
      * @return the local IP address of this server or {@code null} if this server cannot start.
      */
     public synchronized String start() {
+        Selector selector = null;
         try {
             if (mSSLContext != null) {
                 mServerSocket = openSSLServerSocket(mSSLContext);
             } else {
-                mServerSocket = openServerSocket();
+                ServerSocketChannel serverChannel = openServerSocketChannel();
+                mServerSocket = serverChannel.socket();
+                selector = Selector.open();
+                serverChannel.configureBlocking(false);
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
             }
         } catch (IOException e) {
             // Failed to open server socket
+            if (selector != null) {
+                try {
+                    selector.close();
+                } catch (IOException e1) {
+                    // ignore.
+                }
+            }
+            if (mServerSocket != null) {
+                try {
+                    mServerSocket.close();
+                } catch (IOException e1) {
+                    // ignore.
+                }
+                mServerSocket = null;
+            }
             mStopFlag = true;
             return null;
         }
@@ -350,21 +581,34 @@ public class MixedReplaceMediaServer {
         }
 
         mStopFlag = false;
-        new Thread(() -> {
-            try {
-                while (!mStopFlag) {
-                    new ClientThread(mServerSocket.accept()).start();
-                }
-            } catch (SocketException e) {
-                // ignore.
-            } catch (Exception e) {
-                if (DEBUG) {
-                    Log.w(TAG, "", e);
+        if (selector != null) {
+            mSelector = selector;
+            mSelectorTasks.clear();
+            final ServerSocketChannel serverChannel = mServerSocket.getChannel();
+            final Selector s = selector;
+            // コールバックの呼び出し順を保つために、1つのスレッドで呼び出す
+            final ExecutorService executor = Executors.newSingleThreadExecutor();
+            Thread thread = new Thread(() -> runSelector(s, serverChannel, executor));
+            thread.setName("MRMServer");
+            thread.start();
+        } else {
+            final ServerSocket serverSocket = mServerSocket;
+            new Thread(() -> {
+                try {
+                    while (!mStopFlag) {
+                        new SSLClient(serverSocket.accept()).start();
+                    }
+                } catch (SocketException e) {
+                    // ignore.
+                } catch (Exception e) {
+                    if (DEBUG) {
+                        Log.w(TAG, "", e);
+                    }
+                } finally {
+                    stop();
                 }
-            } finally {
-                stop();
-            }
-        }).start();
+            }).start();
+        }
         return getUrl();
     }
     /**
@@ -399,17 +643,17 @@ public class MixedReplaceMediaServer {
         }
     }
     /**
-     * Open a server socket that looking for a port that can be used.
-     * @return ServerSocket
+     * Open a server socket channel that looking for a port that can be used.
+     * @return ServerSocketChannel
      * @throws IOException if an error occurs while open socket.
      */
-    private ServerSocket openServerSocket() throws IOException {
+    private ServerSocketChannel openServerSocketChannel() throws IOException {
         if (mPort != -1) {
-            return new ServerSocket(mPort);
+            return bindServerSocketChannel(mPort);
         } else {
             for (int i = 9000; i < 10000; i++) {
                 try {
-                    return new ServerSocket(i);
+                    return bindServerSocketChannel(i);
                 } catch (IOException e) {
                     // ignore.
                 }
@@ -417,7 +661,26 @@ public class MixedReplaceMediaServer {
             throw new IOException("Cannot open server socket.");
         }
     }
-    
+
+    /**
+     * 指定されたポートにバインドした ServerSocketChannel を作成します.
+     *
+     * @param port ポート番号
+     * @return ServerSocketChannel
+     * @throws IOException バインドに失敗した場合に発生
+     */
+    private ServerSocketChannel bindServerSocketChannel(final int port) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.socket().setReuseAddress(true);
+            channel.socket().bind(new InetSocketAddress(port));
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
     /**
      * Stop a mixed replace media server.
      */
@@ -427,9 +690,17 @@ public class MixedReplaceMediaServer {
         }
         mStopFlag = true;
 
-        synchronized (mRunnables) {
-            for (ClientThread run : mRunnables) {
-                run.terminate();
+        if (mSelector != null) {
+            // クライアントは Selector のスレッドで閉じる
+            mSelector.wakeup();
+            mSelector = null;
+        } else {
+            List<Client> clients;
+            synchronized (mClients) {
+                clients = new ArrayList<>(mClients);
+            }
+            for (Client client : clients) {
+                ((SSLClient) client).terminate();
             }
         }
 
@@ -445,7 +716,7 @@ public class MixedReplaceMediaServer {
     }
 
     public synchronized boolean isEmptyConnection() {
-        return mRunnables.isEmpty();
+        return mClients.isEmpty();
     }
 
     /**
@@ -454,7 +725,7 @@ public class MixedReplaceMediaServer {
      * @return number of connected sockets.
      */
     public synchronized int getConnectionCount() {
-        return mRunnables.size();
+        return mClients.size();
     }
 
     /**
@@ -463,99 +734,859 @@ public class MixedReplaceMediaServer {
     private static final int BUF_SIZE = 1024;
 
     /**
-     * クライアントの接続を行うスレッド.
+     * クライアントを追加して、最後に渡されたフレームを送信待ちにします.
+     *
+     * @param client 追加するクライアント
      */
-    private class ClientThread extends QueueThread<byte[]> {
-        /**
-         * 停止フラグ.
-         */
-        private boolean mStopFlag;
+    private void addClient(final Client client) {
+        synchronized (mClients) {
+            mClients.add(client);
+            if (mLastFrame != null) {
+                client.offer(mLastFrame);
+            }
+        }
+    }
 
-        /**
-         * Socket.
-         */
-        private final Socket mSocket;
+    /**
+     * クライアントを削除します.
+     *
+     * <p>
+     * 全てのクライアントが削除された場合には、エンコーダが停止されるので最後に渡されたフレームも破棄します。
+     * </p>
+     *
+     * @param client 削除するクライアント
+     */
+    private void removeClient(final Client client) {
+        synchronized (mClients) {
+            mClients.remove(client);
+            if (mClients.isEmpty()) {
+                mLastFrame = null;
+            }
+        }
+    }
 
-        /**
-         * Stream for writing.
-         */
-        private OutputStream mStream;
+    /**
+     * 最後に渡されたフレームを破棄します.
+     */
+    private void clearLastFrame() {
+        synchronized (mClients) {
+            mLastFrame = null;
+        }
+    }
 
-        /**
-         * 送信サイズ.
-         */
-        private long mSentSize;
+    /**
+     * Selector で接続の受付と全てのクライアントへの送信を行います.
+     *
+     * @param selector Selector
+     * @param serverChannel 接続を受け付ける ServerSocketChannel
+     * @param executor コールバックを呼び出す ExecutorService
+     */
+    private void runSelector(final Selector selector, final ServerSocketChannel serverChannel,
+                             final ExecutorService executor) {
+        long lastIdleCheckTime = System.currentTimeMillis();
+        try {
+            while (!mStopFlag) {
+                int idleTimeout = mIdleTimeout;
+                int idleCheckInterval = Math.min(idleTimeout, MAX_IDLE_CHECK_INTERVAL);
+                if (idleTimeout > 0) {
+                    selector.select(idleCheckInterval);
+                } else {
+                    selector.select();
+                }
 
-        /**
-         * BPS (bits per second).
-         */
-        private long mBPS;
+                Runnable task;
+                while ((task = mSelectorTasks.poll()) != null) {
+                    task.run();
+                }
 
-        private long mStartTime;
-        private long mTempSentSize;
+                if (mFrameOffered.getAndSet(false)) {
+                    for (SelectionKey key : selector.keys()) {
+                        Object attachment = key.attachment();
+                        if (attachment instanceof ChannelClient) {
+                            ((ChannelClient) attachment).updateInterestOps();
+                        }
+                    }
+                }
 
-        /**
-         * コンストラクタ.
-         * @param socket 接続しているソケット
-         */
-        ClientThread(Socket socket) {
-            mSocket = socket;
-            setName("MRMServer-" + socket.getInetAddress().getHostAddress());
-        }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
 
-        /**
-         * スレッドの停止処理を行います.
-         */
-        void terminate() {
-            mStopFlag = true;
+                    if (!key.isValid()) {
+                        continue;
+                    }
 
-            interrupt();
+                    if (key.isAcceptable()) {
+                        accept(selector, serverChannel, executor);
+                        continue;
+                    }
 
-            try {
-                join(200);
-            } catch (InterruptedException e) {
-                // ignore.
-            }
-        }
+                    ChannelClient client = (ChannelClient) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            client.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            client.onWritable();
+                        }
+                    } catch (IOException e) {
+                        client.close();
+                    }
+                }
 
-        @Override
-        public synchronized void add(byte[] data) {
-            if (getCount() < 3) {
-                super.add(data);
+                long now = System.currentTimeMillis();
+                if (idleTimeout > 0 && now - lastIdleCheckTime >= idleCheckInterval) {
+                    lastIdleCheckTime = now;
+                    closeIdleClients(selector, now, idleTimeout);
+                }
             }
-        }
-
-        @Override
-        public void run() {
+        } catch (Exception e) {
             if (DEBUG) {
-                Log.d(TAG, "socket accept.");
+                Log.w(TAG, "", e);
+            }
+        } finally {
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                Object attachment = key.attachment();
+                if (attachment instanceof ChannelClient) {
+                    ((ChannelClient) attachment).close();
+                }
             }
 
-            mRunnables.add(this);
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // ignore.
+            }
 
-            mStartTime = System.currentTimeMillis();
-            mTempSentSize = 0;
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                // ignore.
+            }
 
-            boolean isAccept = false;
+            // 切断の通知は呼び出してから終了する
+            executor.shutdown();
+            mSelectorTasks.clear();
 
-            try {
-                mStream = mSocket.getOutputStream();
+            stop();
+        }
+    }
 
-                if(!notifyOnAccept(mSocket)) {
-                    mStream.write(generateInternalServerError().getBytes());
-                    mStream.flush();
-                    return;
+    /**
+     * 通信が進まないクライアントを切断します.
+     *
+     * @param selector Selector
+     * @param now 現在時刻(ミリ秒)
+     * @param idleTimeout 切断するまでの時間(ミリ秒)
+     */
+    private void closeIdleClients(final Selector selector, final long now, final int idleTimeout) {
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            Object attachment = key.attachment();
+            if (attachment instanceof ChannelClient) {
+                ChannelClient client = (ChannelClient) attachment;
+                if (client.isIdle(now, idleTimeout)) {
+                    if (DEBUG) {
+                        Log.d(TAG, "socket idle timeout.");
+                    }
+                    client.close();
                 }
+            }
+        }
+    }
 
-                byte[] buf = new byte[BUF_SIZE];
-                InputStream in = mSocket.getInputStream();
+    /**
+     * 接続を受け付けたクライアントを Selector に登録します.
+     *
+     * @param selector Selector
+     * @param serverChannel 接続を受け付ける ServerSocketChannel
+     * @param executor コールバックを呼び出す ExecutorService
+     * @throws IOException 接続の受付に失敗した場合に発生
+     */
+    private void accept(final Selector selector, final ServerSocketChannel serverChannel,
+                        final ExecutorService executor) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            try {
+                channel.configureBlocking(false);
+                ChannelClient client = new ChannelClient(channel, executor);
+                client.register(selector);
+            } catch (IOException e) {
+                if (DEBUG) {
+                    Log.w(TAG, "Failed to accept a socket.", e);
+                }
+                try {
+                    channel.close();
+                } catch (IOException e1) {
+                    // ignore.
+                }
+            }
+        }
+    }
+
+    /**
+     * 全てのクライアントで共有するフレーム.
+     *
+     * <p>
+     * パートのヘッダは1度だけエンコードして、データと共にコピーせずに各クライアントに送信します。
+     * </p>
+     */
+    private static class Frame {
+        /**
+         * エンコード済みのパートのヘッダ.
+         */
+        private final byte[] mHeader;
+
+        /**
+         * パートのヘッダの長さ.
+         */
+        private final int mHeaderLength;
+
+        /**
+         * フレームのデータ.
+         */
+        private final byte[] mMedia;
+
+        Frame(final byte[] header, final int headerLength, final byte[] media) {
+            mHeader = header;
+            mHeaderLength = headerLength;
+            mMedia = media;
+        }
+
+        /**
+         * 送信するための ByteBuffer を設定します.
+         *
+         * <p>
+         * ByteBuffer は配列をラップするだけなので、クライアントごとに送信位置を管理できます。
+         * </p>
+         *
+         * @param buffers ヘッダ、データ、末尾を格納する配列
+         */
+        void wrap(final ByteBuffer[] buffers) {
+            buffers[0] = ByteBuffer.wrap(mHeader, 0, mHeaderLength);
+            buffers[1] = ByteBuffer.wrap(mMedia);
+            buffers[2] = ByteBuffer.wrap(PART_TRAILER);
+        }
+    }
+
+    /**
+     * 全てのクライアントで共有するフレームを作成します.
+     *
+     * @param media フレームのデータ
+     * @return フレーム
+     */
+    private Frame createFrame(final byte[] media) {
+        byte[] partHeader = mPartHeader;
+        if (partHeader == null) {
+            partHeader = ("--" + mBoundary + "\r\n"
+                    + "Content-Type: " + mContentType + "\r\n"
+                    + "Content-Length: ").getBytes();
+            mPartHeader = partHeader;
+        }
+
+        // Content-Length の値(最大10桁)と空行を追加する
+        byte[] header = new byte[partHeader.length + 14];
+        System.arraycopy(partHeader, 0, header, 0, partHeader.length);
+
+        int length = media.length;
+        int digits = 1;
+        for (int n = length; n >= 10; n /= 10) {
+            digits++;
+        }
+        int pos = partHeader.length + digits;
+        for (int i = pos - 1, n = length; i >= partHeader.length; i--, n /= 10) {
+            header[i] = (byte) ('0' + n % 10);
+        }
+        header[pos++] = '\r';
+        header[pos++] = '\n';
+        header[pos++] = '\r';
+        header[pos++] = '\n';
+        return new Frame(header, pos, media);
+    }
+
+    /**
+     * 接続しているクライアント.
+     *
+     * <p>
+     * 送信待ちのフレームは最新の1つだけを保持して、古いフレームは破棄します。
+     * </p>
+     */
+    private abstract class Client {
+        /**
+         * 送信待ちのフレーム.
+         */
+        private final AtomicReference<Frame> mPendingFrame = new AtomicReference<>();
+
+        /**
+         * 送信サイズ.
+         */
+        private long mSentSize;
+
+        /**
+         * BPS (bits per second).
+         */
+        private long mBPS;
+
+        private long mStartTime = System.currentTimeMillis();
+        private long mTempSentSize;
+
+        /**
+         * 接続を受け付けた時間.
+         */
+        private final long mJoinTime = System.currentTimeMillis();
+
+        /**
+         * 最初のフレームを送信したフラグ.
+         */
+        private boolean mFirstFrameSent;
+
+        /**
+         * 間引いたフレーム数.
+         *
+         * <p>
+         * mClients のロック中に更新して、他のスレッドからも参照します。
+         * </p>
+         */
+        private volatile long mSkippedFrameCount;
+
+        /**
+         * 送信するフレームを追加します.
+         *
+         * <p>
+         * 送信待ちのフレームがある場合には、新しいフレームで置き換えます。
+         * </p>
+         *
+         * @param frame フレーム
+         */
+        void offer(final Frame frame) {
+            if (mPendingFrame.getAndSet(frame) != null) {
+                mSkippedFrameCount++;
+            }
+        }
+
+        /**
+         * 送信待ちのフレームを取り出します.
+         *
+         * @return フレーム、送信待ちのフレームがない場合は null
+         */
+        Frame poll() {
+            return mPendingFrame.getAndSet(null);
+        }
+
+        /**
+         * 送信待ちのフレームがあるか確認します.
+         *
+         * @return 送信待ちのフレームがある場合はtrue、それ以外はfalse
+         */
+        boolean hasPendingFrame() {
+            return mPendingFrame.get() != null;
+        }
+
+        /**
+         * フレームの送信が完了したことを通知して、送信量と BPS を計算します.
+         *
+         * @param frame 送信したフレーム
+         */
+        void onSent(final Frame frame) {
+            if (!mFirstFrameSent) {
+                mFirstFrameSent = true;
+                mTimeToFirstFrame = System.currentTimeMillis() - mJoinTime;
+            }
+            mSentSize += frame.mMedia.length;
+            mTempSentSize += frame.mMedia.length;
+            if (System.currentTimeMillis() - mStartTime >= 1000) {
+                mBPS = mTempSentSize * 8;
+                mTempSentSize = 0;
+                mStartTime = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * 送信したデータサイズを取得します.
+         *
+         * @return 送信したデータサイズ
+         */
+        long getSentSize() {
+            return mSentSize;
+        }
+
+        /**
+         * 送信したデータサイズをリセットします.
+         */
+        void resetSentSize() {
+            mSentSize = 0;
+        }
+
+        /**
+         * 送信したデータの BPS (bits per second) を取得します.
+         *
+         * @return BPS (bits per second)
+         */
+        long getBPS() {
+            return mBPS;
+        }
+
+        /**
+         * 間引いたフレーム数を取得します.
+         *
+         * @return 間引いたフレーム数
+         */
+        long getSkippedFrameCount() {
+            return mSkippedFrameCount;
+        }
+    }
+
+    /**
+     * Selector で送信を行うクライアント.
+     *
+     * <p>
+     * Selector のスレッドからのみ操作します。
+     * </p>
+     */
+    private class ChannelClient extends Client {
+        /**
+         * SocketChannel.
+         */
+        private final SocketChannel mChannel;
+
+        /**
+         * コールバックを呼び出す ExecutorService.
+         */
+        private final ExecutorService mCallbackExecutor;
+
+        /**
+         * Selector に登録したキー.
+         */
+        private SelectionKey mKey;
+
+        /**
+         * リクエストを受信するバッファ.
+         *
+         * <p>
+         * リクエストを処理した後は null になります。
+         * </p>
+         */
+        private ByteBuffer mRequest = ByteBuffer.allocate(BUF_SIZE);
+
+        /**
+         * 送信中のレスポンスヘッダ.
+         */
+        private ByteBuffer mResponse;
+
+        /**
+         * レスポンスヘッダを送信した後に切断するフラグ.
+         */
+        private boolean mCloseAfterResponse;
+
+        /**
+         * 送信中のフレーム.
+         */
+        private Frame mSendingFrame;
+
+        /**
+         * 送信中のフレームのヘッダ、データ、末尾.
+         */
+        private final ByteBuffer[] mSendingBuffers = new ByteBuffer[3];
+
+        /**
+         * 接続の受付の可否が通知されたフラグ.
+         */
+        private boolean mAcceptChecked;
+
+        /**
+         * フレームの送信を開始したフラグ.
+         */
+        private boolean mAccepted;
+
+        /**
+         * 切断済みフラグ.
+         */
+        private boolean mClosed;
+
+        /**
+         * 最後に受信または送信が進んだ時刻(ミリ秒).
+         */
+        private long mLastActivityTime = System.currentTimeMillis();
+
+        /**
+         * コンストラクタ.
+         * @param channel 接続している SocketChannel
+         * @param executor コールバックを呼び出す ExecutorService
+         */
+        ChannelClient(final SocketChannel channel, final ExecutorService executor) {
+            mChannel = channel;
+            mCallbackExecutor = executor;
+        }
+
+        /**
+         * Selector に登録して、接続の受付の可否をコールバック用のスレッドで確認します.
+         *
+         * <p>
+         * 受付の可否が通知されるまでは、リクエストを受信しません。
+         * </p>
+         *
+         * @param selector Selector
+         * @throws IOException 登録に失敗した場合に発生
+         */
+        void register(final Selector selector) throws IOException {
+            mKey = mChannel.register(selector, 0, this);
+
+            if (DEBUG) {
+                Log.d(TAG, "socket accept.");
+            }
+
+            addClient(this);
+
+            final Socket socket = mChannel.socket();
+            mCallbackExecutor.execute(() -> {
+                boolean accepted = false;
+                try {
+                    accepted = notifyOnAccept(socket);
+                } catch (RuntimeException e) {
+                    if (DEBUG) {
+                        Log.w(TAG, "Failed to check a socket.", e);
+                    }
+                } finally {
+                    final boolean result = accepted;
+                    mSelectorTasks.offer(() -> onAcceptChecked(result));
+                    selector.wakeup();
+                }
+            });
+        }
+
+        /**
+         * 接続の受付の可否が通知された場合の処理を行います.
+         *
+         * <p>
+         * Selector のスレッドから呼び出します。
+         * </p>
+         *
+         * @param accepted 受け付ける場合はtrue、それ以外はfalse
+         */
+        private void onAcceptChecked(final boolean accepted) {
+            if (mClosed) {
+                return;
+            }
+            mAcceptChecked = true;
+
+            if (accepted) {
+                updateInterestOps();
+            } else {
+                mRequest = null;
+                sendResponse(generateInternalServerError(), true);
+            }
+        }
+
+        /**
+         * データを受信できる場合の処理を行います.
+         *
+         * @throws IOException 受信に失敗した場合に発生
+         */
+        void onReadable() throws IOException {
+            if (mRequest == null) {
+                // リクエストの後に送られてきたデータは読み捨てて、切断だけを検知する
+                mDiscardBuffer.clear();
+                if (mChannel.read(mDiscardBuffer) == -1) {
+                    close();
+                }
+                return;
+            }
+
+            int len = mChannel.read(mRequest);
+            if (len == -1) {
+                close();
+                return;
+            } else if (len > 0) {
+                mLastActivityTime = System.currentTimeMillis();
+            }
+
+            if (mRequest.hasRemaining() && !isEndOfHeader(mRequest)) {
+                return;
+            }
+
+            byte[] buf = mRequest.array();
+            int length = mRequest.position();
+            mRequest = null;
+
+            try {
+                decodeHeader(buf, length);
+            } catch (IOException e) {
+                sendResponse(generateBadRequest(), true);
+                return;
+            }
+
+            if (mClients.size() > mMaxClientSize) {
+                sendResponse(generateServiceUnavailable(), true);
+            } else {
+                mAccepted = true;
+                sendResponse(generateHttpHeader(), false);
+            }
+        }
+
+        /**
+         * データを送信できる場合の処理を行います.
+         *
+         * @throws IOException 送信に失敗した場合に発生
+         */
+        void onWritable() throws IOException {
+            if (mResponse != null) {
+                if (mChannel.write(mResponse) > 0) {
+                    mLastActivityTime = System.currentTimeMillis();
+                }
+                if (mResponse.hasRemaining()) {
+                    return;
+                }
+                mResponse = null;
+
+                if (mCloseAfterResponse) {
+                    close();
+                    return;
+                }
+            }
+
+            if (mAccepted) {
+                sendFrames();
+            }
+            updateInterestOps();
+        }
+
+        /**
+         * 送信待ちのフレームを、送信バッファが一杯になるまで送信します.
+         *
+         * @throws IOException 送信に失敗した場合に発生
+         */
+        private void sendFrames() throws IOException {
+            while (true) {
+                if (mSendingFrame == null) {
+                    mSendingFrame = poll();
+                    if (mSendingFrame == null) {
+                        return;
+                    }
+                    mSendingFrame.wrap(mSendingBuffers);
+                }
+
+                if (mChannel.write(mSendingBuffers) > 0) {
+                    mLastActivityTime = System.currentTimeMillis();
+                }
+                if (mSendingBuffers[2].hasRemaining()) {
+                    return;
+                }
+
+                onSent(mSendingFrame);
+                mSendingFrame = null;
+            }
+        }
+
+        /**
+         * 通信が進まずに切断するクライアントか確認します.
+         *
+         * <p>
+         * リクエストの受信中か、レスポンスヘッダまたはフレームを送信できずにいる間に、指定した時間以上通信が進んでいない場合に
+         * 切断するクライアントとします。送信するフレームを待っている間は切断しません。
+         * </p>
+         *
+         * @param now 現在時刻(ミリ秒)
+         * @param idleTimeout 切断するまでの時間(ミリ秒)
+         * @return 切断する場合はtrue、それ以外はfalse
+         */
+        boolean isIdle(final long now, final int idleTimeout) {
+            if (mClosed) {
+                return false;
+            }
+            boolean waiting = mRequest != null || mResponse != null || mSendingFrame != null
+                    || (mAccepted && hasPendingFrame());
+            if (!waiting) {
+                // 送信待ちのフレームがない間は、通信が進まなくても計測を始めない
+                mLastActivityTime = now;
+                return false;
+            }
+            return now - mLastActivityTime >= idleTimeout;
+        }
+
+        /**
+         * 送信するデータの有無に合わせて、Selector で監視するイベントを更新します.
+         */
+        void updateInterestOps() {
+            if (mClosed || !mAcceptChecked) {
+                return;
+            }
+
+            int ops = SelectionKey.OP_READ;
+            if (mResponse != null || mSendingFrame != null || (mAccepted && hasPendingFrame())) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (mKey.interestOps() != ops) {
+                mKey.interestOps(ops);
+            }
+        }
+
+        /**
+         * レスポンスヘッダを送信します.
+         *
+         * @param response レスポンスヘッダ
+         * @param close 送信後に切断する場合はtrue、それ以外はfalse
+         */
+        private void sendResponse(final String response, final boolean close) {
+            mResponse = ByteBuffer.wrap(response.getBytes());
+            mCloseAfterResponse = close;
+            updateInterestOps();
+        }
+
+        /**
+         * 切断します.
+         */
+        void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+
+            if (DEBUG) {
+                Log.d(TAG, "socket close.");
+            }
+
+            removeClient(this);
+
+            if (mAccepted) {
+                final Socket socket = mChannel.socket();
+                mCallbackExecutor.execute(() -> notifyOnClose(socket));
+            }
+
+            mKey.cancel();
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                if (DEBUG) {
+                    Log.e(TAG, "", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 受信したリクエストにヘッダの終端が含まれているか確認します.
+     *
+     * @param request リクエストを受信しているバッファ
+     * @return ヘッダの終端が含まれている場合はtrue、それ以外はfalse
+     */
+    private static boolean isEndOfHeader(final ByteBuffer request) {
+        byte[] buf = request.array();
+        for (int i = request.position() - 4; i >= 0; i--) {
+            if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * SSL で接続したクライアントの送信を行うスレッド.
+     */
+    private class SSLClient extends Client implements Runnable {
+        /**
+         * 停止フラグ.
+         */
+        private boolean mStopFlag;
+
+        /**
+         * Socket.
+         */
+        private final Socket mSocket;
+
+        /**
+         * 送信を行うスレッド.
+         */
+        private final Thread mThread;
+
+        /**
+         * Stream for writing.
+         */
+        private OutputStream mStream;
+
+        /**
+         * コンストラクタ.
+         * @param socket 接続しているソケット
+         */
+        SSLClient(Socket socket) {
+            mSocket = socket;
+            mThread = new Thread(this);
+            mThread.setName("MRMServer-" + socket.getInetAddress().getHostAddress());
+        }
+
+        /**
+         * スレッドを開始します.
+         */
+        void start() {
+            mThread.start();
+        }
+
+        /**
+         * スレッドの停止処理を行います.
+         */
+        void terminate() {
+            mStopFlag = true;
+
+            mThread.interrupt();
+
+            try {
+                mThread.join(200);
+            } catch (InterruptedException e) {
+                // ignore.
+            }
+        }
+
+        @Override
+        void offer(final Frame frame) {
+            super.offer(frame);
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * 送信待ちのフレームが追加されるまで待ちます.
+         *
+         * @return フレーム
+         * @throws InterruptedException 待っている間に割り込まれた場合に発生
+         */
+        private synchronized Frame take() throws InterruptedException {
+            Frame frame;
+            while ((frame = poll()) == null) {
+                wait();
+            }
+            return frame;
+        }
+
+        @Override
+        public void run() {
+            if (DEBUG) {
+                Log.d(TAG, "socket accept.");
+            }
+
+            addClient(this);
+
+            boolean isAccept = false;
+
+            try {
+                mStream = mSocket.getOutputStream();
+
+                if(!notifyOnAccept(mSocket)) {
+                    mStream.write(generateInternalServerError().getBytes());
+                    mStream.flush();
+                    return;
+                }
+
+                byte[] buf = new byte[BUF_SIZE];
+                InputStream in = mSocket.getInputStream();
+                mSocket.setSoTimeout(mIdleTimeout);
                 int len = in.read(buf, 0, BUF_SIZE);
                 if (len == -1) {
                     return;
                 }
+                mSocket.setSoTimeout(0);
                 decodeHeader(buf, len);
 
-                if (mRunnables.size() > MAX_CLIENT_SIZE) {
+                if (mClients.size() > mMaxClientSize) {
                     mStream.write(generateServiceUnavailable().getBytes());
                     mStream.flush();
                 } else {
@@ -565,7 +1596,7 @@ public class MixedReplaceMediaServer {
                     mStream.flush();
 
                     while (!mStopFlag) {
-                        sendMedia(get());
+                        sendFrame(take());
                     }
                 }
             } catch (InterruptedException e) {
@@ -577,7 +1608,7 @@ public class MixedReplaceMediaServer {
                     Log.d(TAG, "socket close.");
                 }
 
-                mRunnables.remove(this);
+                removeClient(this);
 
                 if (isAccept) {
                     notifyOnClose(mSocket);
@@ -603,31 +1634,6 @@ public class MixedReplaceMediaServer {
             }
         }
 
-        /**
-         * 送信したデータサイズを取得します.
-         *
-         * @return 送信したデータサイズ
-         */
-        public long getSentSize() {
-            return mSentSize;
-        }
-
-        /**
-         * 送信したデータサイズをリセットします.
-         */
-        public void resetSentSize() {
-            mSentSize = 0;
-        }
-
-        /**
-         * 送信したデータの BPS (bits per second) を取得します.
-         *
-         * @return BPS (bits per second)
-         */
-        public long getBPS() {
-            return mBPS;
-        }
-
         private void sendInternalServerError() {
             if (mStream == null) {
                 return;
@@ -657,135 +1663,142 @@ public class MixedReplaceMediaServer {
                 }
             }
         }
-        
+
         /**
-         * Send a media data.
-         * @param media media data
+         * Send a frame.
+         * @param frame frame
          * @throws IOException if an error occurs while sending media data.
          */
-        private void sendMedia(final byte[] media) throws IOException {
-            mStream.write(("--" + mBoundary + "\r\n").getBytes());
-            mStream.write(("Content-Type: " + mContentType + "\r\n").getBytes());
-            mStream.write(("Content-Length: " + media.length + "\r\n").getBytes());
-            mStream.write("\r\n".getBytes());
-            mStream.write(media);
-            mStream.write("\r\n\r\n".getBytes());
+        private void sendFrame(final Frame frame) throws IOException {
+            mStream.write(frame.mHeader, 0, frame.mHeaderLength);
+            mStream.write(frame.mMedia);
+            mStream.write(PART_TRAILER);
             mStream.flush();
 
-            // 送信量と BPS を計算
-            mSentSize += media.length;
-            mTempSentSize += media.length;
-            if (System.currentTimeMillis() - mStartTime >= 1000) {
-                mBPS = mTempSentSize * 8;
-                mTempSentSize = 0;
-                mStartTime = System.currentTimeMillis();
-            }
+            onSent(frame);
         }
-        
-        /**
-         * Decode a Http header.
-         * @param buf buffer of http header
-         * @param len buffer size
-         * @throws IOException if this http header is invalid.
-         */
-        private void decodeHeader(final byte[] buf, final int len) throws IOException {
-            HashMap<String, String> pre = new HashMap<>();
-            HashMap<String, String> headers = new HashMap<>();
-            HashMap<String, String> params = new HashMap<>();
-            BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(buf, 0, len)));
+    }
 
-            // Read the request line
-            String inLine = in.readLine();
-            if (inLine == null) {
-                throw new IOException("no headers.");
-            }
+    /**
+     * Decode a Http header.
+     * @param buf buffer of http header
+     * @param len buffer size
+     * @throws IOException if this http header is invalid.
+     */
+    private void decodeHeader(final byte[] buf, final int len) throws IOException {
+        HashMap<String, String> pre = new HashMap<>();
+        HashMap<String, String> headers = new HashMap<>();
+        HashMap<String, String> params = new HashMap<>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(buf, 0, len)));
+
+        // Read the request line
+        String inLine = in.readLine();
+        if (inLine == null) {
+            throw new IOException("no headers.");
+        }
 
-            StringTokenizer st = new StringTokenizer(inLine);
-            if (!st.hasMoreTokens()) {
-                throw new IOException("Header is invalid format.");
-            }
+        StringTokenizer st = new StringTokenizer(inLine);
+        if (!st.hasMoreTokens()) {
+            throw new IOException("Header is invalid format.");
+        }
 
-            String method = st.nextToken();
-            if (!method.toLowerCase(Locale.getDefault()).equals("get")) {
-                throw new IOException("Method is invalid.");
-            }
-            pre.put("method", method);
+        String method = st.nextToken();
+        if (!method.toLowerCase(Locale.getDefault()).equals("get")) {
+            throw new IOException("Method is invalid.");
+        }
+        pre.put("method", method);
 
-            if (!st.hasMoreTokens()) {
-                throw new IOException("Header is invalid format.");
-            }
+        if (!st.hasMoreTokens()) {
+            throw new IOException("Header is invalid format.");
+        }
 
-            String uri = st.nextToken();
+        String uri = st.nextToken();
 
-            // Decode parameters from the URI
-            int qmi = uri.indexOf('?');
-            if (qmi >= 0) {
-                decodeParms(uri.substring(qmi + 1), params);
-                uri = decodePercent(uri.substring(0, qmi));
-            } else {
-                decodeParms(null, params);
-                uri = decodePercent(uri);
-            }
-            pre.put("uri", uri);
-
-            // If there's another token, it's protocol version,
-            // followed by HTTP headers. Ignore version but parse headers.
-            // NOTE: this now forces header names lowercase since they are
-            // case insensitive and vary by client.
-            if (st.hasMoreTokens()) {
-                String line = in.readLine();
-                while (line != null && line.trim().length() > 0) {
-                    int p = line.indexOf(':');
-                    if (p >= 0) {
-                        headers.put(line.substring(0, p).trim().toLowerCase(Locale.US),
-                                line.substring(p + 1).trim());
-                    }
-                    line = in.readLine();
+        // Decode parameters from the URI
+        int qmi = uri.indexOf('?');
+        if (qmi >= 0) {
+            decodeParms(uri.substring(qmi + 1), params);
+            uri = decodePercent(uri.substring(0, qmi));
+        } else {
+            decodeParms(null, params);
+            uri = decodePercent(uri);
+        }
+        pre.put("uri", uri);
+
+        // If there's another token, it's protocol version,
+        // followed by HTTP headers. Ignore version but parse headers.
+        // NOTE: this now forces header names lowercase since they are
+        // case insensitive and vary by client.
+        if (st.hasMoreTokens()) {
+            String line = in.readLine();
+            while (line != null && line.trim().length() > 0) {
+                int p = line.indexOf(':');
+                if (p >= 0) {
+                    headers.put(line.substring(0, p).trim().toLowerCase(Locale.US),
+                            line.substring(p + 1).trim());
                 }
+                line = in.readLine();
             }
+        }
 
-            String segment = Uri.parse(uri).getLastPathSegment();
-            if (segment == null || !segment.equals(mPath)) {
-                throw new IOException("Header is invalid format.");
-            }
+        String segment = getLastPathSegment(uri);
+        if (segment == null || !segment.equals(mPath)) {
+            throw new IOException("Header is invalid format.");
         }
-        
-        /**
-         * Decode of uri param.
-         * @param parms uri
-         * @param p 
-         */
-        private void decodeParms(final String parms, final Map<String, String> p) {
-            if (parms == null) {
-                return;
-            }
+    }
 
-            StringTokenizer st = new StringTokenizer(parms, "&");
-            while (st.hasMoreTokens()) {
-                String e = st.nextToken();
-                int sep = e.indexOf('=');
-                if (sep >= 0) {
-                    p.put(decodePercent(e.substring(0, sep)).trim(), decodePercent(e.substring(sep + 1)));
-                } else {
-                    p.put(decodePercent(e).trim(), "");
-                }
-            }
+    /**
+     * パスの最後のセグメントを取得します.
+     *
+     * @param path パス
+     * @return 最後のセグメント、セグメントがない場合は null
+     */
+    private static String getLastPathSegment(final String path) {
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/') {
+            end--;
         }
-        
-        /**
-         * Decode of uri.
-         * @param str uri
-         * @return The decoded URI
-         */
-        private String decodePercent(final String str) {
-            try {
-                return URLDecoder.decode(str, "UTF8");
-            } catch (UnsupportedEncodingException ignored) {
-                return null;
+        if (end == 0) {
+            return null;
+        }
+        return path.substring(path.lastIndexOf('/', end - 1) + 1, end);
+    }
+
+    /**
+     * Decode of uri param.
+     * @param parms uri
+     * @param p
+     */
+    private void decodeParms(final String parms, final Map<String, String> p) {
+        if (parms == null) {
+            return;
+        }
+
+        StringTokenizer st = new StringTokenizer(parms, "&");
+        while (st.hasMoreTokens()) {
+            String e = st.nextToken();
+            int sep = e.indexOf('=');
+            if (sep >= 0) {
+                p.put(decodePercent(e.substring(0, sep)).trim(), decodePercent(e.substring(sep + 1)));
+            } else {
+                p.put(decodePercent(e).trim(), "");
             }
         }
     }
 
+    /**
+     * Decode of uri.
+     * @param str uri
+     * @return The decoded URI
+     */
+    private String decodePercent(final String str) {
+        try {
+            return URLDecoder.decode(str, "UTF8");
+        } catch (UnsupportedEncodingException ignored) {
+            return null;
+        }
+    }
+
     /**
      * Generate a http header.
      * @return http header
@@ -805,7 +1818,7 @@ public class MixedReplaceMediaServer {
         sb.append("\r\n");
         return sb.toString();
     }
-    
+
     /**
      * Generate a Bad Request.
      * @return Bad Request
@@ -813,7 +1826,7 @@ public class MixedReplaceMediaServer {
     private String generateBadRequest() {
         return generateErrorHeader("400");
     }
-    
+
     /**
      * Generate a Internal Serve rError.
      * @return Internal Server Error
@@ -821,7 +1834,7 @@ public class MixedReplaceMediaServer {
     private String generateInternalServerError() {
         return generateErrorHeader("500");
     }
-    
+
     /**
      * Generate a Service Unavailable.
      * @return Service Unavailable
@@ -829,7 +1842,7 @@ public class MixedReplaceMediaServer {
     private String generateServiceUnavailable() {
         return generateErrorHeader("503");
     }
-    
+
     /**
      * Generate a error http header.
      * @param status status
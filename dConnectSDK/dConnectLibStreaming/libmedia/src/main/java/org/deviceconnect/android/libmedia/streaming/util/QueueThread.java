@@ -1,5 +1,6 @@
 package org.deviceconnect.android.libmedia.streaming.util;
 
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.Queue;
 
@@ -23,4 +24,14 @@ public abstract class QueueThread<T> extends Thread {
         }
         return mQueue.remove();
     }
+
+    public synchronized int getAll(Collection<T> out) throws InterruptedException {
+        while (mQueue.peek() == null) {
+            wait();
+        }
+        int count = mQueue.size();
+        out.addAll(mQueue);
+        mQueue.clear();
+        return count;
+    }
 }
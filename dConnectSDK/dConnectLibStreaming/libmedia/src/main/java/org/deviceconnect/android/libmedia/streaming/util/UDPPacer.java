@@ -0,0 +1,211 @@
+package org.deviceconnect.android.libmedia.streaming.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * UDP パケットの送信間隔を調整するクラス.
+ *
+ * <p>
+ * フレーム単位でまとめて送信されるパケットを一度に送信すると、I フレームなどの大きなフレームで
+ * 瞬間的に帯域を使い切り、Wi-Fi などでパケットが損失しやすくなります。
+ * このクラスは、直近の送信レートに係数を掛けたレートでパケットを送信するように待ち時間を計算して、
+ * フレームのパケットをフレーム間隔に分散させます。
+ * </p>
+ *
+ * <p>
+ * 送信レートは1秒ごとに計測し直すので、ビットレートが変化しても追従します。
+ * 送信レートを計測するまでは待ち時間を入れません。
+ * </p>
+ */
+public class UDPPacer {
+    /**
+     * 送信レートに掛ける係数のデフォルト値.
+     */
+    public static final float DEFAULT_PACING_FACTOR = 2.5f;
+
+    /**
+     * 待たずに送信する最大の待ち時間(ナノ秒).
+     *
+     * <p>
+     * スレッドの待機はこれより細かい精度では行えないので、この時間以内の遅れは連続して送信します。
+     * </p>
+     */
+    private static final long MIN_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    /**
+     * 送信が遅れた場合に、次の送信時刻を遡って許容する最大の時間(ナノ秒).
+     */
+    private static final long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * 送信レートを計測する間隔(ナノ秒).
+     */
+    private static final long MEASURE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * システムの時刻を使用する時計.
+     */
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void parkNanos(long nanos) {
+            LockSupport.parkNanos(nanos);
+        }
+    };
+
+    /**
+     * 送信時刻の計算と待機に使用する時計.
+     */
+    private final Clock mClock;
+
+    /**
+     * 送信レートに掛ける係数.
+     */
+    private volatile float mPacingFactor = DEFAULT_PACING_FACTOR;
+
+    /**
+     * 1ナノ秒あたりに送信するバイト数.
+     */
+    private double mBytesPerNano;
+
+    /**
+     * 次のパケットを送信する時刻(ナノ秒).
+     */
+    private long mNextSendTime;
+
+    /**
+     * 送信レートの計測を開始した時刻(ナノ秒).
+     */
+    private long mMeasureStartTime;
+
+    /**
+     * 計測中に送信したバイト数.
+     */
+    private long mMeasuredBytes;
+
+    /**
+     * 送信時刻の計算と待機に使用する時計.
+     *
+     * <p>
+     * テストで時刻を固定するために使用します。
+     * </p>
+     */
+    interface Clock {
+        /**
+         * 現在時刻を取得します.
+         *
+         * @return 現在時刻(ナノ秒)
+         */
+        long nanoTime();
+
+        /**
+         * 指定した時間だけスレッドを待機させます.
+         *
+         * @param nanos 待機する時間(ナノ秒)
+         */
+        void parkNanos(long nanos);
+    }
+
+    /**
+     * コンストラクタ.
+     */
+    public UDPPacer() {
+        this(SYSTEM_CLOCK);
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param clock 送信時刻の計算と待機に使用する時計
+     */
+    UDPPacer(Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * 送信レートに掛ける係数を設定します.
+     *
+     * <p>
+     * 1.0 の場合は平均の送信レートで送信します。大きくするほど短い時間で送信します。
+     * </p>
+     *
+     * @param factor 係数 (1.0 以上)
+     */
+    public void setPacingFactor(float factor) {
+        if (factor < 1.0f) {
+            throw new IllegalArgumentException("factor is invalid.");
+        }
+        mPacingFactor = factor;
+    }
+
+    /**
+     * 送信レートを取得します.
+     *
+     * @return 送信レート(bits per second)、計測していない場合は 0
+     */
+    public long getPacingRate() {
+        return (long) (mBytesPerNano * 8 * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * 指定したサイズのパケットを送信する時刻まで待ちます.
+     *
+     * @param size パケットのサイズ
+     * @return 待った場合はtrue、それ以外はfalse
+     */
+    public boolean await(int size) {
+        long now = mClock.nanoTime();
+        if (mBytesPerNano <= 0) {
+            return false;
+        }
+
+        // 送信が遅れている場合でも、遡って連続送信する時間を制限する
+        if (mNextSendTime < now - MAX_BURST_NANOS) {
+            mNextSendTime = now - MAX_BURST_NANOS;
+        }
+
+        long wait = mNextSendTime - now;
+        boolean waited = false;
+        if (wait > MIN_WAIT_NANOS) {
+            mClock.parkNanos(wait);
+            waited = true;
+        }
+        mNextSendTime += (long) (size / mBytesPerNano);
+        return waited;
+    }
+
+    /**
+     * 送信したパケットのサイズを通知して、送信レートを計測します.
+     *
+     * @param size 送信したパケットのサイズ
+     */
+    public void onSent(int size) {
+        long now = mClock.nanoTime();
+        if (mMeasureStartTime == 0) {
+            mMeasureStartTime = now;
+        }
+        mMeasuredBytes += size;
+
+        long elapsed = now - mMeasureStartTime;
+        if (elapsed >= MEASURE_INTERVAL) {
+            mBytesPerNano = mMeasuredBytes * (double) mPacingFactor / elapsed;
+            mMeasuredBytes = 0;
+            mMeasureStartTime = now;
+        }
+    }
+
+    /**
+     * 計測した送信レートを破棄します.
+     */
+    public void reset() {
+        mBytesPerNano = 0;
+        mNextSendTime = 0;
+        mMeasureStartTime = 0;
+        mMeasuredBytes = 0;
+    }
+}
@@ -1,7 +1,9 @@
 package org.deviceconnect.android.libmedia.streaming.util;
 
+import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetAddress;
 import java.net.SocketException;
 
 /**
@@ -16,7 +18,7 @@ public abstract class UDPReceiverThread extends Thread {
     /**
      * UDP 受信用のソケット.
      */
-    private DatagramSocket mDatagramSocket;
+    private volatile DatagramSocket mDatagramSocket;
 
     /**
      * 受信データを格納するバッファ.
@@ -96,6 +98,28 @@ public abstract class UDPReceiverThread extends Thread {
         return mBPS;
     }
 
+    /**
+     * 受信用のソケットからデータを送信します.
+     *
+     * <p>
+     * 受信しているポート番号から送信するので、RTCP の Receiver Report など
+     * 送信元のポート番号で相手を識別するプロトコルの応答に使用します。
+     * ソケットが開かれる前に呼び出された場合には送信しません。
+     * </p>
+     *
+     * @param data 送信するデータ
+     * @param dataLength 送信するデータサイズ
+     * @param address 送信先のアドレス
+     * @param port 送信先のポート番号
+     * @throws IOException 送信に失敗した場合に発生
+     */
+    public void send(byte[] data, int dataLength, InetAddress address, int port) throws IOException {
+        DatagramSocket socket = mDatagramSocket;
+        if (socket != null) {
+            socket.send(new DatagramPacket(data, dataLength, address, port));
+        }
+    }
+
     /**
      * スレッドの停止処理を行います.
      */
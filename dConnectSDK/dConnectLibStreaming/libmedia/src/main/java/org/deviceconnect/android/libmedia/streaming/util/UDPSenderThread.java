@@ -5,6 +5,8 @@ import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class UDPSenderThread extends QueueThread<byte[]> {
     /**
@@ -32,6 +34,26 @@ public class UDPSenderThread extends QueueThread<byte[]> {
      */
     private long mBPS;
 
+    /**
+     * BPS の計測を開始した時刻(ミリ秒).
+     */
+    private long mStartTime;
+
+    /**
+     * BPS の計測を開始してから送信したサイズ.
+     */
+    private long mIntervalSentSize;
+
+    /**
+     * バッチ送信の有効フラグ.
+     */
+    private volatile boolean mPacingEnabled;
+
+    /**
+     * バッチ送信でパケットの送信間隔を調整するクラス.
+     */
+    private final UDPPacer mPacer = new UDPPacer();
+
     /**
      * コンストラクタ.
      * @throws IOException ソケットの作成に失敗した場合に発生
@@ -71,6 +93,30 @@ public class UDPSenderThread extends QueueThread<byte[]> {
         mSocket.setTimeToLive(ttl);
     }
 
+    /**
+     * バッチ送信の有効・無効を設定します.
+     *
+     * <p>
+     * 有効にした場合は、溜まっているデータをまとめて取り出して、直近の送信レートに合わせて
+     * 間隔を空けながら送信します。送信中に次のデータが溜まった場合は、間隔を空けずに送信します。
+     * </p>
+     *
+     * @param enabled 有効にする場合はtrue、それ以外はfalse
+     */
+    public void setPacingEnabled(boolean enabled) {
+        mPacingEnabled = enabled;
+    }
+
+    /**
+     * バッチ送信で、送信レートに掛ける係数を設定します.
+     *
+     * @param factor 係数 (1.0 以上)
+     * @see UDPPacer#setPacingFactor(float)
+     */
+    public void setPacingFactor(float factor) {
+        mPacer.setPacingFactor(factor);
+    }
+
     /**
      * Socket のタイムアウト時間を設定します.
      *
@@ -151,29 +197,28 @@ public class UDPSenderThread extends QueueThread<byte[]> {
 
     @Override
     public void run() {
-        long sentSize = 0;
-        long startTime = System.currentTimeMillis();
+        List<byte[]> batch = new ArrayList<>();
+        mStartTime = System.currentTimeMillis();
         while (!mStopFlag) {
             try {
-                byte[] packet = get();
-                if (packet == null) {
-                    return;
-                }
-
-                try {
-                    mDatagramPacket.setData(packet);
-                    mDatagramPacket.setLength(packet.length);
-                    mSocket.send(mDatagramPacket);
-
-                    mSentSize += packet.length;
-                    sentSize += packet.length;
-                    if (System.currentTimeMillis() - startTime >= 1000) {
-                        mBPS = sentSize * 8;
-                        sentSize = 0;
-                        startTime = System.currentTimeMillis();
+                if (mPacingEnabled) {
+                    batch.clear();
+                    getAll(batch);
+                    for (int i = 0; i < batch.size() && !mStopFlag; i++) {
+                        byte[] packet = batch.get(i);
+                        // 送信中に次のデータが溜まった場合は、遅れを取り戻すために間隔を空けない
+                        if (getCount() == 0) {
+                            mPacer.await(packet.length);
+                        }
+                        send(packet);
+                        mPacer.onSent(packet.length);
                     }
-                } catch (IOException e) {
-                    // ignore.
+                } else {
+                    byte[] packet = get();
+                    if (packet == null) {
+                        return;
+                    }
+                    send(packet);
                 }
             } catch (InterruptedException e) {
                 break;
@@ -182,4 +227,27 @@ public class UDPSenderThread extends QueueThread<byte[]> {
             }
         }
     }
+
+    /**
+     * データを送信します.
+     *
+     * @param packet 送信するデータ
+     */
+    private void send(byte[] packet) {
+        try {
+            mDatagramPacket.setData(packet);
+            mDatagramPacket.setLength(packet.length);
+            mSocket.send(mDatagramPacket);
+
+            mSentSize += packet.length;
+            mIntervalSentSize += packet.length;
+            if (System.currentTimeMillis() - mStartTime >= 1000) {
+                mBPS = mIntervalSentSize * 8;
+                mIntervalSentSize = 0;
+                mStartTime = System.currentTimeMillis();
+            }
+        } catch (IOException e) {
+            // ignore.
+        }
+    }
 }
@@ -0,0 +1,541 @@
+package org.deviceconnect.android.libmedia.streaming.video;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 送信先から通知された損失率と往復遅延時間から、エンコーダのビットレートなどを調整するクラス.
+ *
+ * <p>
+ * RTCP の Receiver Report や SRT の統計情報を {@link #onReport(Object, float, long, long)} に渡すと、
+ * 次のように映像のエンコード設定を変更して {@link Listener} に通知します。
+ * </p>
+ *
+ * <ul>
+ * <li>損失率が閾値を超えた場合、またはいずれかの送信先の往復遅延時間がその送信先の最小値から閾値以上に増えた場合にビットレートを下げる</li>
+ * <li>損失がないレポートが指定回数続いた場合にビットレートを上げる</li>
+ * <li>ビットレートが最大値に対して一定の割合まで下がった場合にフレームレートを下げ、十分に戻った場合に元に戻す</li>
+ * <li>損失がある間はキーフレームの間隔を短くして、損失からの復帰を早める</li>
+ * </ul>
+ *
+ * <p>
+ * ビットレートを下げた後は一定時間下げないようにして、送信待ちのパケットが捌けるのを待ちます。
+ * また、上げる条件と下げる条件の間に幅を持たせて、レポートごとに設定が振動しないようにしています。
+ * </p>
+ *
+ * <p>
+ * 往復遅延時間の基準になる最小値は送信先ごとに保持して、最も遅延が増えている送信先に合わせて調整します。
+ * 送信先が切断された場合は {@link #removeReceiver(Object)} で基準値を破棄してください。
+ * </p>
+ */
+public class AdaptiveBitRateController {
+    /**
+     * ビットレートを下げる損失率のデフォルト値.
+     */
+    public static final float DEFAULT_DECREASE_LOSS_RATE = 0.05f;
+
+    /**
+     * ビットレートを上げることができる損失率のデフォルト値.
+     */
+    public static final float DEFAULT_INCREASE_LOSS_RATE = 0.01f;
+
+    /**
+     * ビットレートを半分にする損失率.
+     */
+    private static final float SEVERE_LOSS_RATE = 0.3f;
+
+    /**
+     * 輻輳とみなす往復遅延時間の増加量のデフォルト値(ミリ秒).
+     */
+    public static final long DEFAULT_RTT_THRESHOLD = 150;
+
+    /**
+     * ビットレートを上げるまでに必要な損失のないレポートの回数のデフォルト値.
+     */
+    public static final int DEFAULT_INCREASE_REPORT_COUNT = 2;
+
+    /**
+     * ビットレートを下げた後に、次に下げるまで待つ時間のデフォルト値(ミリ秒).
+     */
+    public static final long DEFAULT_DECREASE_HOLD_TIME = 2000;
+
+    /**
+     * 往復遅延時間が増えた場合にビットレートに掛ける値.
+     */
+    private static final float DELAY_DECREASE_FACTOR = 0.85f;
+
+    /**
+     * ビットレートを上げる場合に掛ける値.
+     */
+    private static final float INCREASE_FACTOR = 1.1f;
+
+    /**
+     * フレームレートを下げるビットレートの割合 (最大ビットレートに対する割合).
+     */
+    private static final float FRAME_RATE_DOWN_RATIO = 0.3f;
+
+    /**
+     * フレームレートを元に戻すビットレートの割合 (最大ビットレートに対する割合).
+     */
+    private static final float FRAME_RATE_UP_RATIO = 0.5f;
+
+    /**
+     * 損失がある間のキーフレームの間隔(秒).
+     */
+    private static final int LOSSY_IFRAME_INTERVAL = 1;
+
+    /**
+     * 送信先を指定せずにレポートが通知された場合に使用する送信先.
+     */
+    private static final Object DEFAULT_RECEIVER = new Object();
+
+    /**
+     * 設定の変更を通知するリスナー.
+     */
+    private final Listener mListener;
+
+    /**
+     * ビットレートの最小値.
+     */
+    private int mMinBitRate;
+
+    /**
+     * ビットレートの最大値.
+     */
+    private int mMaxBitRate;
+
+    /**
+     * フレームレートの最小値.
+     */
+    private int mMinFrameRate;
+
+    /**
+     * フレームレートの最大値.
+     */
+    private final int mMaxFrameRate;
+
+    /**
+     * ビットレートを下げる損失率.
+     */
+    private float mDecreaseLossRate = DEFAULT_DECREASE_LOSS_RATE;
+
+    /**
+     * ビットレートを上げることができる損失率.
+     */
+    private float mIncreaseLossRate = DEFAULT_INCREASE_LOSS_RATE;
+
+    /**
+     * 輻輳とみなす往復遅延時間の増加量(ミリ秒).
+     */
+    private long mRttThreshold = DEFAULT_RTT_THRESHOLD;
+
+    /**
+     * ビットレートを上げるまでに必要な損失のないレポートの回数.
+     */
+    private int mIncreaseReportCount = DEFAULT_INCREASE_REPORT_COUNT;
+
+    /**
+     * ビットレートを下げた後に、次に下げるまで待つ時間(ミリ秒).
+     */
+    private long mDecreaseHoldTime = DEFAULT_DECREASE_HOLD_TIME;
+
+    /**
+     * 現在のビットレート.
+     */
+    private int mBitRate;
+
+    /**
+     * 現在のフレームレート.
+     */
+    private int mFrameRate;
+
+    /**
+     * 現在のキーフレームの間隔(秒). 0 の場合はエンコーダの設定に従う.
+     */
+    private int mIFrameInterval;
+
+    /**
+     * 送信先ごとの往復遅延時間の情報.
+     */
+    private final Map<Object, Receiver> mReceivers = new HashMap<>();
+
+    /**
+     * 連続した損失のないレポートの回数.
+     */
+    private int mGoodReportCount;
+
+    /**
+     * 最後にビットレートを下げた時刻(ミリ秒). 下げていない場合は -1.
+     */
+    private long mLastDecreaseTime = -1;
+
+    /**
+     * コンストラクタ.
+     *
+     * <p>
+     * 指定されたビットレートとフレームレートを最大値として、そこから下げる方向で調整します。
+     * ビットレートの最小値は最大値の 1/10、フレームレートの最小値は最大値の 1/2 になります。
+     * </p>
+     *
+     * @param bitRate ビットレートの最大値
+     * @param frameRate フレームレートの最大値
+     * @param listener 設定の変更を通知するリスナー
+     */
+    public AdaptiveBitRateController(int bitRate, int frameRate, Listener listener) {
+        if (bitRate <= 0) {
+            throw new IllegalArgumentException("bitRate is invalid.");
+        }
+        if (frameRate <= 0) {
+            throw new IllegalArgumentException("frameRate is invalid.");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("listener is null.");
+        }
+        mListener = listener;
+        mMaxBitRate = bitRate;
+        mMinBitRate = Math.max(1, bitRate / 10);
+        mBitRate = bitRate;
+        mMaxFrameRate = frameRate;
+        mMinFrameRate = Math.max(1, frameRate / 2);
+        mFrameRate = frameRate;
+    }
+
+    /**
+     * 映像エンコーダを調整するコントローラを作成します.
+     *
+     * <p>
+     * エンコーダの {@link VideoQuality} のビットレートとフレームレートを最大値にします。
+     * 調整した値はエンコード中の MediaCodec にだけ設定して、{@link VideoQuality} は変更しません。
+     * </p>
+     *
+     * @param encoder 映像エンコーダ
+     * @return コントローラ
+     */
+    public static AdaptiveBitRateController create(final VideoEncoder encoder) {
+        VideoQuality quality = encoder.getVideoQuality();
+        return new AdaptiveBitRateController(quality.getBitRate(), quality.getFrameRate(), new Listener() {
+            @Override
+            public void onBitRateChanged(int bitRate) {
+                encoder.requestBitRate(bitRate);
+            }
+
+            @Override
+            public void onFrameRateChanged(int frameRate) {
+                encoder.requestFrameRate(frameRate);
+            }
+
+            @Override
+            public void onIFrameIntervalChanged(int interval) {
+                encoder.requestIFrameInterval(interval);
+            }
+        });
+    }
+
+    /**
+     * ビットレートの範囲を設定します.
+     *
+     * @param minBitRate ビットレートの最小値
+     * @param maxBitRate ビットレートの最大値
+     */
+    public synchronized void setBitRateRange(int minBitRate, int maxBitRate) {
+        if (minBitRate <= 0 || minBitRate > maxBitRate) {
+            throw new IllegalArgumentException("bit rate range is invalid.");
+        }
+        mMinBitRate = minBitRate;
+        mMaxBitRate = maxBitRate;
+        changeBitRate(mBitRate);
+    }
+
+    /**
+     * フレームレートの最小値を設定します.
+     *
+     * @param minFrameRate フレームレートの最小値
+     */
+    public synchronized void setMinFrameRate(int minFrameRate) {
+        if (minFrameRate <= 0 || minFrameRate > mMaxFrameRate) {
+            throw new IllegalArgumentException("minFrameRate is invalid.");
+        }
+        mMinFrameRate = minFrameRate;
+    }
+
+    /**
+     * ビットレートを変更する損失率の閾値を設定します.
+     *
+     * <p>
+     * decreaseLossRate 以上の場合はビットレートを下げて、increaseLossRate 以下の場合は上げます。
+     * 間の損失率の場合は、現在のビットレートを維持します。
+     * </p>
+     *
+     * @param increaseLossRate ビットレートを上げることができる損失率 (0.0 〜 1.0)
+     * @param decreaseLossRate ビットレートを下げる損失率 (0.0 〜 1.0)
+     */
+    public synchronized void setLossRateThreshold(float increaseLossRate, float decreaseLossRate) {
+        if (increaseLossRate < 0 || increaseLossRate > decreaseLossRate || decreaseLossRate > 1) {
+            throw new IllegalArgumentException("loss rate threshold is invalid.");
+        }
+        mIncreaseLossRate = increaseLossRate;
+        mDecreaseLossRate = decreaseLossRate;
+    }
+
+    /**
+     * 輻輳とみなす往復遅延時間の増加量を設定します.
+     *
+     * @param threshold 往復遅延時間の最小値からの増加量(ミリ秒)
+     */
+    public synchronized void setRoundTripTimeThreshold(long threshold) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("threshold is invalid.");
+        }
+        mRttThreshold = threshold;
+    }
+
+    /**
+     * ビットレートを上げるまでに必要な損失のないレポートの回数を設定します.
+     *
+     * @param count レポートの回数
+     */
+    public synchronized void setIncreaseReportCount(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count is invalid.");
+        }
+        mIncreaseReportCount = count;
+    }
+
+    /**
+     * ビットレートを下げた後に、次に下げるまで待つ時間を設定します.
+     *
+     * @param holdTime 待つ時間(ミリ秒)
+     */
+    public synchronized void setDecreaseHoldTime(long holdTime) {
+        if (holdTime < 0) {
+            throw new IllegalArgumentException("holdTime is negative.");
+        }
+        mDecreaseHoldTime = holdTime;
+    }
+
+    /**
+     * 現在のビットレートを取得します.
+     *
+     * @return ビットレート
+     */
+    public synchronized int getBitRate() {
+        return mBitRate;
+    }
+
+    /**
+     * 現在のフレームレートを取得します.
+     *
+     * @return フレームレート
+     */
+    public synchronized int getFrameRate() {
+        return mFrameRate;
+    }
+
+    /**
+     * 現在のキーフレームの間隔を取得します.
+     *
+     * @return キーフレームの間隔(秒)、エンコーダの設定に従う場合は 0
+     */
+    public synchronized int getIFrameInterval() {
+        return mIFrameInterval;
+    }
+
+    /**
+     * 送信先の受信状況を通知します.
+     *
+     * <p>
+     * 送信先が1つの場合に使用します。複数の送信先がある場合は {@link #onReport(Object, float, long, long)} を使用してください。
+     * </p>
+     *
+     * @param fractionLost 前回のレポートからの損失率 (0.0 〜 1.0)
+     * @param roundTripTime 往復遅延時間(ミリ秒)、計測できていない場合は負の値
+     * @param now 現在時刻(ミリ秒)
+     */
+    public void onReport(float fractionLost, long roundTripTime, long now) {
+        onReport(DEFAULT_RECEIVER, fractionLost, roundTripTime, now);
+    }
+
+    /**
+     * 送信先の受信状況を通知します.
+     *
+     * <p>
+     * 往復遅延時間は送信先ごとの最小値からの増加量で評価します。
+     * 経路の違いで往復遅延時間の最小値は送信先ごとに異なるので、送信先を区別できる値を receiver に指定してください。
+     * </p>
+     *
+     * @param receiver 送信先を識別するオブジェクト (ソケットなど)
+     * @param fractionLost 前回のレポートからの損失率 (0.0 〜 1.0)
+     * @param roundTripTime 往復遅延時間(ミリ秒)、計測できていない場合は負の値
+     * @param now 現在時刻(ミリ秒)
+     */
+    public synchronized void onReport(Object receiver, float fractionLost, long roundTripTime, long now) {
+        if (receiver == null) {
+            throw new IllegalArgumentException("receiver is null.");
+        }
+
+        if (roundTripTime >= 0) {
+            Receiver r = mReceivers.get(receiver);
+            if (r == null) {
+                r = new Receiver();
+                mReceivers.put(receiver, r);
+            }
+            r.update(roundTripTime);
+        }
+        boolean delayed = getMaxDelay() >= mRttThreshold;
+
+        if (fractionLost >= mDecreaseLossRate || delayed) {
+            mGoodReportCount = 0;
+            boolean severe = fractionLost >= SEVERE_LOSS_RATE;
+            if (severe || mLastDecreaseTime < 0 || now - mLastDecreaseTime >= mDecreaseHoldTime) {
+                float factor;
+                if (severe) {
+                    factor = 0.5f;
+                } else if (fractionLost >= mDecreaseLossRate) {
+                    factor = 1.0f - fractionLost / 2;
+                } else {
+                    factor = DELAY_DECREASE_FACTOR;
+                }
+                changeBitRate((int) (mBitRate * factor));
+                mLastDecreaseTime = now;
+            }
+        } else if (fractionLost <= mIncreaseLossRate) {
+            mGoodReportCount++;
+            if (mGoodReportCount >= mIncreaseReportCount) {
+                mGoodReportCount = 0;
+                changeBitRate((int) Math.ceil(mBitRate * INCREASE_FACTOR));
+                changeIFrameInterval(0);
+            }
+        } else {
+            mGoodReportCount = 0;
+        }
+
+        if (fractionLost > mIncreaseLossRate) {
+            changeIFrameInterval(LOSSY_IFRAME_INTERVAL);
+        }
+
+        updateFrameRate();
+    }
+
+    /**
+     * 送信先の往復遅延時間の情報を破棄します.
+     *
+     * <p>
+     * 切断された送信先の遅延が、残りの送信先の調整に影響しないようにします。
+     * </p>
+     *
+     * @param receiver 送信先を識別するオブジェクト
+     */
+    public synchronized void removeReceiver(Object receiver) {
+        mReceivers.remove(receiver);
+    }
+
+    /**
+     * 送信先ごとの往復遅延時間の最小値からの増加量のうち、最も大きい値を取得します.
+     *
+     * @return 往復遅延時間の増加量(ミリ秒)
+     */
+    private long getMaxDelay() {
+        long delay = 0;
+        for (Receiver r : mReceivers.values()) {
+            delay = Math.max(delay, r.mDelay);
+        }
+        return delay;
+    }
+
+    /**
+     * ビットレートを変更します.
+     *
+     * @param bitRate ビットレート
+     */
+    private void changeBitRate(int bitRate) {
+        bitRate = Math.max(mMinBitRate, Math.min(mMaxBitRate, bitRate));
+        if (bitRate != mBitRate) {
+            mBitRate = bitRate;
+            mListener.onBitRateChanged(bitRate);
+        }
+    }
+
+    /**
+     * ビットレートに合わせてフレームレートを変更します.
+     *
+     * <p>
+     * 下げる割合と戻す割合の間では、現在のフレームレートを維持します。
+     * </p>
+     */
+    private void updateFrameRate() {
+        int frameRate = mFrameRate;
+        if (mBitRate <= mMaxBitRate * FRAME_RATE_DOWN_RATIO) {
+            frameRate = mMinFrameRate;
+        } else if (mBitRate >= mMaxBitRate * FRAME_RATE_UP_RATIO) {
+            frameRate = mMaxFrameRate;
+        }
+
+        if (frameRate != mFrameRate) {
+            mFrameRate = frameRate;
+            mListener.onFrameRateChanged(frameRate);
+        }
+    }
+
+    /**
+     * キーフレームの間隔を変更します.
+     *
+     * @param interval キーフレームの間隔(秒)、エンコーダの設定に従う場合は 0
+     */
+    private void changeIFrameInterval(int interval) {
+        if (interval != mIFrameInterval) {
+            mIFrameInterval = interval;
+            mListener.onIFrameIntervalChanged(interval);
+        }
+    }
+
+    /**
+     * 送信先ごとの往復遅延時間の情報.
+     */
+    private static class Receiver {
+        /**
+         * 通知された往復遅延時間の最小値(ミリ秒).
+         */
+        private long mMinRoundTripTime = Long.MAX_VALUE;
+
+        /**
+         * 最後に通知された往復遅延時間の最小値からの増加量(ミリ秒).
+         */
+        private long mDelay;
+
+        /**
+         * 通知された往復遅延時間で最小値と増加量を更新します.
+         *
+         * @param roundTripTime 往復遅延時間(ミリ秒)
+         */
+        private void update(long roundTripTime) {
+            mMinRoundTripTime = Math.min(mMinRoundTripTime, roundTripTime);
+            mDelay = roundTripTime - mMinRoundTripTime;
+        }
+    }
+
+    /**
+     * エンコード設定の変更を通知するリスナー.
+     */
+    public interface Listener {
+        /**
+         * ビットレートの変更を通知します.
+         *
+         * @param bitRate ビットレート
+         */
+        void onBitRateChanged(int bitRate);
+
+        /**
+         * フレームレートの変更を通知します.
+         *
+         * @param frameRate フレームレート
+         */
+        void onFrameRateChanged(int frameRate);
+
+        /**
+         * キーフレームの間隔の変更を通知します.
+         *
+         * @param interval キーフレームの間隔(秒)、エンコーダの設定に従う場合は 0
+         */
+        void onIFrameIntervalChanged(int interval);
+    }
+}
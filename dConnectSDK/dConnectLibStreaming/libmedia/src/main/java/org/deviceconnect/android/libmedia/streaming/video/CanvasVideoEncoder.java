@@ -145,7 +145,6 @@ public abstract class CanvasVideoEncoder extends SurfaceVideoEncoder {
 
                 int width = videoQuality.getVideoWidth();
                 int height = videoQuality.getVideoHeight();
-                int fps = 1000 / videoQuality.getFrameRate();
 
                 SurfaceTexture surfaceTexture = getSurfaceTexture();
                 surfaceTexture.setDefaultBufferSize(videoQuality.getVideoWidth(), videoQuality.getVideoHeight());
@@ -154,6 +153,8 @@ public abstract class CanvasVideoEncoder extends SurfaceVideoEncoder {
 
                 while (!mStopFlag) {
                     long start = System.currentTimeMillis();
+                    // エンコード中にフレームレートが変更される場合があるので、毎回取得する
+                    int fps = 1000 / getFrameRate();
 
                     Canvas canvas = surface.lockCanvas(null);
                     if (canvas == null) {
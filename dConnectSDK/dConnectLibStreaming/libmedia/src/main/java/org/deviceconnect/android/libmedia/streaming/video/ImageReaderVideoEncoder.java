@@ -2,6 +2,9 @@ package org.deviceconnect.android.libmedia.streaming.video;
 
 import android.media.MediaCodecInfo;
 
+import org.deviceconnect.android.libmedia.streaming.util.FrameRateLimiter;
+
+import java.io.IOException;
 import java.nio.ByteBuffer;
 
 /**
@@ -10,11 +13,27 @@ import java.nio.ByteBuffer;
 public abstract class ImageReaderVideoEncoder extends VideoEncoder {
     private static final long INPUT_TIMEOUT = 500000;
 
+    /**
+     * MediaCodec に入力するフレームを間引くクラス.
+     */
+    private final FrameRateLimiter mFrameRateLimiter = new FrameRateLimiter();
+
     @Override
     public int getColorFormat() {
         return MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible;
     }
 
+    @Override
+    protected void prepare() throws IOException {
+        super.prepare();
+        mFrameRateLimiter.setMaxFrameRate(0);
+    }
+
+    @Override
+    protected void onFrameRateChanged(int frameRate) {
+        mFrameRateLimiter.setMaxFrameRate(frameRate);
+    }
+
     @Override
     protected void startRecording() {
     }
@@ -24,6 +43,10 @@ public abstract class ImageReaderVideoEncoder extends VideoEncoder {
     }
 
     void writeInputBuffer(byte[] bytes, long timestamp) throws IllegalStateException {
+        if (!mFrameRateLimiter.accept(timestamp * 1000)) {
+            return;
+        }
+
         ByteBuffer inputBuffer = null;
 
         int index = mMediaCodec.dequeueInputBuffer(INPUT_TIMEOUT);
@@ -94,6 +94,18 @@ public abstract class SurfaceVideoEncoder extends VideoEncoder {
         return MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface;
     }
 
+    @Override
+    protected void onFrameRateChanged(int frameRate) {
+        EGLSurfaceDrawingThread thread = mSurfaceDrawingThread;
+        if (thread != null) {
+            // MediaCodec の Surface に描画するフレームだけを間引き、プレビューなどはそのまま描画する
+            EGLSurfaceBase eglSurfaceBase = thread.findEGLSurfaceBaseByTag(mMediaCodecSurface);
+            if (eglSurfaceBase != null) {
+                eglSurfaceBase.setMaxFrameRate(frameRate);
+            }
+        }
+    }
+
     // private method.
 
     /**
@@ -22,12 +22,49 @@ public abstract class VideoEncoder extends MediaEncoder {
     /**
      * キーフレームの同期フラグ.
      */
-    private boolean mSyncKeyFrame;
+    private volatile boolean mSyncKeyFrame;
 
     /**
      * 映像のビットレート変更要求フラグ.
      */
-    private boolean mRequestChangeBitRate;
+    private volatile boolean mRequestChangeBitRate;
+
+    /**
+     * 映像のフレームレート変更要求フラグ.
+     */
+    private volatile boolean mRequestChangeFrameRate;
+
+    /**
+     * エンコード中に変更したビットレート.
+     *
+     * <p>
+     * 0 の場合は、{@link VideoQuality#getBitRate()} に従います。
+     * </p>
+     */
+    private volatile int mRequestBitRate;
+
+    /**
+     * エンコード中に変更したフレームレート.
+     *
+     * <p>
+     * 0 の場合は、{@link VideoQuality#getFrameRate()} に従います。
+     * </p>
+     */
+    private volatile int mRequestFrameRate;
+
+    /**
+     * エンコード中に変更したキーフレームの間隔(ミリ秒).
+     *
+     * <p>
+     * 0 の場合は、MediaCodec に設定したキーフレームの間隔に従います。
+     * </p>
+     */
+    private volatile long mRequestIFrameInterval;
+
+    /**
+     * 最後にキーフレームを要求した時刻(ミリ秒).
+     */
+    private long mLastSyncKeyFrameTime;
 
     // MediaEncoder
 
@@ -36,6 +73,9 @@ public abstract class VideoEncoder extends MediaEncoder {
         VideoQuality videoQuality = getVideoQuality();
         int w = videoQuality.getVideoWidth();
         int h = videoQuality.getVideoHeight();
+        // MediaCodec は VideoQuality の設定で作り直すので、エンコード中に変更した値は破棄する
+        mRequestBitRate = 0;
+        mRequestFrameRate = 0;
         mMediaCodec = createMediaCodec(getColorFormat(), w, h);
     }
 
@@ -71,6 +111,34 @@ public abstract class VideoEncoder extends MediaEncoder {
      */
     public abstract VideoQuality getVideoQuality();
 
+    /**
+     * エンコード中のビットレートを取得します.
+     *
+     * <p>
+     * {@link #requestBitRate(int)} で変更されていない場合は、{@link VideoQuality#getBitRate()} を返却します。
+     * </p>
+     *
+     * @return ビットレート
+     */
+    public int getBitRate() {
+        int bitRate = mRequestBitRate;
+        return bitRate > 0 ? bitRate : getVideoQuality().getBitRate();
+    }
+
+    /**
+     * エンコード中のフレームレートを取得します.
+     *
+     * <p>
+     * {@link #requestFrameRate(int)} で変更されていない場合は、{@link VideoQuality#getFrameRate()} を返却します。
+     * </p>
+     *
+     * @return フレームレート
+     */
+    public int getFrameRate() {
+        int frameRate = mRequestFrameRate;
+        return frameRate > 0 ? frameRate : getVideoQuality().getFrameRate();
+    }
+
     /**
      * キーフレームを要求します.
      */
@@ -84,12 +152,68 @@ public abstract class VideoEncoder extends MediaEncoder {
      * <p>
      * エンコード中にビットレートを変更したい場合に指定します。
      * {@link VideoQuality#getBitRate()} で取得できるビットレートを再設定します。
+     * {@link #requestBitRate(int)} で変更したビットレートは破棄します。
      * </p>
      */
     public void requestBitRate() {
+        mRequestBitRate = 0;
+        mRequestChangeBitRate = true;
+    }
+
+    /**
+     * ビットレートの変更を要求します.
+     *
+     * <p>
+     * エンコード中の MediaCodec にだけ設定して、{@link VideoQuality} のビットレートは変更しません。
+     * </p>
+     *
+     * @param bitRate ビットレート
+     */
+    public void requestBitRate(int bitRate) {
+        if (bitRate <= 0) {
+            throw new IllegalArgumentException("bitRate is invalid.");
+        }
+        mRequestBitRate = bitRate;
         mRequestChangeBitRate = true;
     }
 
+    /**
+     * フレームレートの変更を要求します.
+     *
+     * <p>
+     * MediaCodec に入力する前にフレームを間引いて、フレームレートを下げます。
+     * {@link VideoQuality} のフレームレートは変更しません。
+     * 入力する映像のフレームレートより大きい値を指定した場合には、入力する映像のフレームレートになります。
+     * </p>
+     *
+     * @param frameRate フレームレート
+     */
+    public void requestFrameRate(int frameRate) {
+        if (frameRate <= 0) {
+            throw new IllegalArgumentException("frameRate is invalid.");
+        }
+        mRequestFrameRate = frameRate;
+        mRequestChangeFrameRate = true;
+    }
+
+    /**
+     * キーフレームの間隔の変更を要求します.
+     *
+     * <p>
+     * MediaCodec のキーフレームの間隔はエンコード中に変更できないので、
+     * 指定された間隔でキーフレームを要求します。0 を指定した場合は、要求を止めて
+     * {@link VideoQuality#getIFrameInterval()} の間隔に戻します。
+     * </p>
+     *
+     * @param interval キーフレームの間隔(秒)
+     */
+    public void requestIFrameInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval is negative.");
+        }
+        mRequestIFrameInterval = interval * 1000L;
+    }
+
     /**
      * MediaCodec にキーフレームの作成を行います.
      */
@@ -98,22 +222,54 @@ public abstract class VideoEncoder extends MediaEncoder {
         b.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
         mMediaCodec.setParameters(b);
         mSyncKeyFrame = false;
+        mLastSyncKeyFrameTime = System.currentTimeMillis();
     }
 
     /**
      * MediaCodec にビットレートの変更を行います.
      */
     private void changeBitRate() {
+        mRequestChangeBitRate = false;
         Bundle b = new Bundle();
-        b.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, getVideoQuality().getBitRate());
+        b.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, getBitRate());
         mMediaCodec.setParameters(b);
-        mRequestChangeBitRate = false;
+    }
+
+    /**
+     * フレームレートの変更を行います.
+     */
+    private void changeFrameRate() {
+        mRequestChangeFrameRate = false;
+        onFrameRateChanged(getFrameRate());
+    }
+
+    /**
+     * エンコード中のフレームレートが変更されたことを通知します.
+     *
+     * <p>
+     * MediaCodec はエンコード中にフレームレートを変更するパラメータを持たないので、
+     * 継承したクラスで MediaCodec に入力するフレームを間引いてフレームレートを合わせてください。
+     * </p>
+     *
+     * @param frameRate フレームレート
+     */
+    protected void onFrameRateChanged(int frameRate) {
     }
 
     /**
      * MediaCodec へのリクエスト処理を行います.
      */
+    @Override
     protected void executeRequest() {
+        if (mMediaCodec == null) {
+            return;
+        }
+
+        long interval = mRequestIFrameInterval;
+        if (interval > 0 && System.currentTimeMillis() - mLastSyncKeyFrameTime >= interval) {
+            mSyncKeyFrame = true;
+        }
+
         if (mSyncKeyFrame) {
             syncKeyFrame();
         }
@@ -121,6 +277,10 @@ public abstract class VideoEncoder extends MediaEncoder {
         if (mRequestChangeBitRate) {
             changeBitRate();
         }
+
+        if (mRequestChangeFrameRate) {
+            changeFrameRate();
+        }
     }
 
     /**
@@ -0,0 +1,194 @@
+package org.deviceconnect.android.libmedia.streaming.mpeg2ts;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AacH264TsPacketWriter の変換性能のベンチマーク.
+ *
+ * <p>
+ * 1080p30 の H.264 を想定した 1 GOP 分のフレームを TS パケットに変換して、
+ * TS パケットを 1 つずつ受け取ってペイロードにコピーする場合と、ペイロードのバッファに直接書き込む場合を計測します。
+ * JMH が 1 秒あたりの GOP 数と、出力した TS のサイズ (bytes/s) を出力します。
+ * 大小の判定は行わないので、{@link #main(String[])} から実行して結果を比較してください。
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AacH264TsPacketWriterBenchmark {
+    /**
+     * I フレームのサイズ (約 8Mbps の 1080p30 の I フレーム相当).
+     */
+    private static final int I_FRAME_SIZE = 120 * 1024;
+
+    /**
+     * P フレームのサイズ.
+     */
+    private static final int P_FRAME_SIZE = 30 * 1024;
+
+    /**
+     * GOP のフレーム数.
+     */
+    private static final int GOP = 30;
+
+    /**
+     * SRT、UDP のペイロードのサイズ.
+     */
+    private static final int PAYLOAD_SIZE = TsConstants.TS_PACKET_SIZE * 7;
+
+    private ByteBuffer mIFrame;
+    private ByteBuffer mPFrame;
+
+    /**
+     * TS パケットを 1 つずつ受け取る AacH264TsPacketWriter.
+     */
+    private AacH264TsPacketWriter mPacketWriter;
+
+    /**
+     * ペイロードのバッファに直接書き込む AacH264TsPacketWriter.
+     */
+    private AacH264TsPacketWriter mBufferWriter;
+
+    /**
+     * TS パケットをコピーするペイロード.
+     */
+    private final byte[] mPayload = new byte[PAYLOAD_SIZE];
+
+    /**
+     * ペイロードに書き込んだ位置.
+     */
+    private int mPosition;
+
+    /**
+     * 出力した TS のサイズ.
+     */
+    private long mOutputSize;
+
+    /**
+     * 次に書き込むフレームのプレゼンテーションタイム.
+     */
+    private long mPts;
+
+    /**
+     * 出力した TS のサイズを JMH に報告するカウンタ.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Output {
+        /**
+         * 出力した TS のサイズ.
+         */
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mIFrame = createFrame(I_FRAME_SIZE, 0x65);
+        mPFrame = createFrame(P_FRAME_SIZE, 0x41);
+
+        mPacketWriter = new AacH264TsPacketWriter();
+        mPacketWriter.initialize(0, 0, 0, 30);
+        mPacketWriter.setPacketListener((packet) -> {
+            if (packet == null) {
+                mOutputSize += mPosition;
+                mPosition = 0;
+            } else {
+                System.arraycopy(packet, 0, mPayload, mPosition, packet.length);
+                mPosition += packet.length;
+                if (mPosition == PAYLOAD_SIZE) {
+                    mOutputSize += PAYLOAD_SIZE;
+                    mPosition = 0;
+                }
+            }
+        });
+
+        mBufferWriter = new AacH264TsPacketWriter();
+        mBufferWriter.initialize(0, 0, 0, 30);
+        mBufferWriter.setBufferListener(ByteBuffer.allocate(PAYLOAD_SIZE), (buffer) -> mOutputSize += buffer.limit());
+    }
+
+    /**
+     * TS パケットを 1 つずつ受け取り、ペイロードにコピーして 1 GOP を変換します.
+     *
+     * @param output 出力した TS のサイズを報告するカウンタ
+     */
+    @Benchmark
+    public void packetListener(Output output) {
+        writeGop(mPacketWriter, output);
+    }
+
+    /**
+     * TS パケットをペイロードのバッファに直接書き込んで 1 GOP を変換します.
+     *
+     * @param output 出力した TS のサイズを報告するカウンタ
+     */
+    @Benchmark
+    public void bufferListener(Output output) {
+        writeGop(mBufferWriter, output);
+    }
+
+    private void writeGop(AacH264TsPacketWriter writer, Output output) {
+        long outputSize = mOutputSize;
+        for (int i = 0; i < GOP; i++) {
+            ByteBuffer frame = (i == 0) ? mIFrame : mPFrame;
+            frame.position(0);
+            writer.writeNALU(frame, mPts);
+            mPts += 3003L;
+        }
+        output.bytes += mOutputSize - outputSize;
+    }
+
+    private static ByteBuffer createFrame(int size, int nalHeader) {
+        byte[] frame = new byte[size];
+        new Random(size).nextBytes(frame);
+        frame[0] = 0x00;
+        frame[1] = 0x00;
+        frame[2] = 0x00;
+        frame[3] = 0x01;
+        frame[4] = (byte) nalHeader;
+
+        // MediaCodec の出力と同じようにダイレクトバッファを使用する
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(frame);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * ベンチマークを実行します.
+     *
+     * @param args 使用しません
+     * @throws RunnerException ベンチマークの実行に失敗した場合に発生
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AacH264TsPacketWriterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,103 @@
+package org.deviceconnect.android.libmedia.streaming.mpeg2ts;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AacH264TsPacketWriter のテスト.
+ */
+public class AacH264TsPacketWriterTest {
+    /**
+     * GOP のフレーム数.
+     */
+    private static final int GOP = 30;
+
+    /**
+     * SRT、UDP のペイロードのサイズ.
+     */
+    private static final int PAYLOAD_SIZE = TsConstants.TS_PACKET_SIZE * 7;
+
+    /**
+     * TS パケットを 1 つずつ受け取る場合と、ペイロードのバッファに直接書き込む場合で同じ TS が出力されること.
+     *
+     * <p>
+     * PCR は書き込んだ時刻から計算されるので比較しません。
+     * </p>
+     */
+    @Test
+    public void sameOutputForPacketAndBufferListener() {
+        ByteBuffer iFrame = createFrame(120 * 1024, 0x65);
+        ByteBuffer pFrame = createFrame(30 * 1024, 0x41);
+
+        ByteArrayOutputStream packetOutput = new ByteArrayOutputStream();
+        AacH264TsPacketWriter packetWriter = new AacH264TsPacketWriter();
+        packetWriter.initialize(0, 0, 0, 30);
+        packetWriter.setPacketListener((packet) -> {
+            if (packet != null) {
+                packetOutput.write(packet, 0, packet.length);
+            }
+        });
+        write(packetWriter, iFrame, pFrame);
+
+        ByteArrayOutputStream bufferOutput = new ByteArrayOutputStream();
+        AacH264TsPacketWriter bufferWriter = new AacH264TsPacketWriter();
+        bufferWriter.initialize(0, 0, 0, 30);
+        bufferWriter.setBufferListener(ByteBuffer.allocate(PAYLOAD_SIZE), (buffer) -> {
+            assertTrue(buffer.limit() <= PAYLOAD_SIZE);
+            bufferOutput.write(buffer.array(), 0, buffer.limit());
+        });
+        write(bufferWriter, iFrame, pFrame);
+
+        assertEquals(0, bufferOutput.size() % TsConstants.TS_PACKET_SIZE);
+        assertTrue(bufferOutput.size() > 120 * 1024 + (GOP - 1) * 30 * 1024);
+        assertArrayEquals(clearPcr(packetOutput.toByteArray()), clearPcr(bufferOutput.toByteArray()));
+    }
+
+    /**
+     * TS パケットのアダプテーションフィールドの PCR を 0 にします.
+     *
+     * @param ts TS
+     * @return PCR を 0 にした TS
+     */
+    private static byte[] clearPcr(byte[] ts) {
+        for (int i = 0; i + TsConstants.TS_PACKET_SIZE <= ts.length; i += TsConstants.TS_PACKET_SIZE) {
+            boolean hasAdaptationField = (ts[i + 3] & 0x20) != 0;
+            if (hasAdaptationField && (ts[i + 4] & 0xFF) >= 7 && (ts[i + 5] & 0x10) != 0) {
+                for (int j = 6; j < 12; j++) {
+                    ts[i + j] = 0;
+                }
+            }
+        }
+        return ts;
+    }
+
+    private static void write(AacH264TsPacketWriter writer, ByteBuffer iFrame, ByteBuffer pFrame) {
+        for (int i = 0; i < GOP * 2; i++) {
+            ByteBuffer frame = (i % GOP == 0) ? iFrame : pFrame;
+            frame.position(0);
+            writer.writeNALU(frame, i * 3003L);
+        }
+    }
+
+    private static ByteBuffer createFrame(int size, int nalHeader) {
+        byte[] frame = new byte[size];
+        new Random(size).nextBytes(frame);
+        frame[0] = 0x00;
+        frame[1] = 0x00;
+        frame[2] = 0x00;
+        frame[3] = 0x01;
+        frame[4] = (byte) nalHeader;
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(frame);
+        buffer.flip();
+        return buffer;
+    }
+}
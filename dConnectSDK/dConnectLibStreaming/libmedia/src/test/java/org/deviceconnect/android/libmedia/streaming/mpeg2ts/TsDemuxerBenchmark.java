@@ -0,0 +1,148 @@
+package org.deviceconnect.android.libmedia.streaming.mpeg2ts;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TsDemuxer の解析性能のベンチマーク.
+ *
+ * <p>
+ * 映像と音声を含む録画済みの TS (src/test/resources/mpeg2ts/aac_h264_h265.ts) を
+ * SRT のペイロードと同じサイズに区切って TsDemuxer に渡します。
+ * 1回の操作で TS 全体を解析して、JMH が 1 秒あたりに解析した TS パケット数 (packets) と PES 数 (pes) を出力します。
+ * 解析中の GC は {@link #main(String[])} で有効にしている JMH の gc プロファイラが出力します。
+ * 取り出される PES の内容は TsDemuxerTest で確認します。
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TsDemuxerBenchmark {
+    /**
+     * 解析する TS ファイル.
+     */
+    private static final String TS_FILE = "mpeg2ts/aac_h264_h265.ts";
+
+    /**
+     * SRT のペイロードのサイズ.
+     */
+    private static final int PAYLOAD_SIZE = TsConstants.TS_PACKET_SIZE * 7;
+
+    private byte[] mTs;
+
+    private TsDemuxer mDemuxer;
+
+    /**
+     * 取り出した PES の数.
+     */
+    private long mPesCount;
+
+    /**
+     * 解析した TS パケット数と PES 数を JMH に報告するカウンタ.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        /**
+         * 解析した TS パケット数.
+         */
+        public long packets;
+
+        /**
+         * 取り出した PES の数.
+         */
+        public long pes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            packets = 0;
+            pes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mTs = readTsFile();
+        mDemuxer = new TsDemuxer();
+        mDemuxer.setCallback(new TsDemuxer.Callback() {
+            @Override
+            public boolean onConfig(int pid, int streamType) {
+                return true;
+            }
+
+            @Override
+            public void onPes(TsDemuxer.Pes pes) {
+                mPesCount++;
+                pes.release();
+            }
+        });
+    }
+
+    /**
+     * TS 全体を SRT のペイロードのサイズに区切って解析します.
+     *
+     * @param counters 解析した数を報告するカウンタ
+     */
+    @Benchmark
+    public void demux(Counters counters) {
+        long packetCount = mDemuxer.getPacketCount();
+        long pesCount = mPesCount;
+        for (int i = 0; i < mTs.length; i += PAYLOAD_SIZE) {
+            mDemuxer.feed(mTs, i, Math.min(PAYLOAD_SIZE, mTs.length - i));
+        }
+        mDemuxer.flush();
+        counters.packets += mDemuxer.getPacketCount() - packetCount;
+        counters.pes += mPesCount - pesCount;
+        // 先頭に戻ると continuity_counter が連続しないので初期化する
+        mDemuxer.reset();
+    }
+
+    private static byte[] readTsFile() throws IOException {
+        try (InputStream input = TsDemuxerBenchmark.class.getClassLoader().getResourceAsStream(TS_FILE)) {
+            if (input == null) {
+                throw new IOException(TS_FILE + " is not found.");
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int size;
+            while ((size = input.read(buffer)) != -1) {
+                output.write(buffer, 0, size);
+            }
+            return output.toByteArray();
+        }
+    }
+
+    /**
+     * ベンチマークを実行します.
+     *
+     * @param args 使用しません
+     * @throws RunnerException ベンチマークの実行に失敗した場合に発生
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TsDemuxerBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,423 @@
+package org.deviceconnect.android.libmedia.streaming.mpeg2ts;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * TsDemuxer のテスト.
+ *
+ * <p>
+ * TsPacketWriterTest で使用している既知の TS を解析して、書き込まれた PES が取り出せることを確認します。
+ * </p>
+ */
+public class TsDemuxerTest implements TsConstants {
+    /**
+     * 解析する TS ファイル.
+     */
+    private static final String GOLDEN_FILE = "mpeg2ts/aac_h264_h265.ts";
+
+    /**
+     * 作成する TS の PMT の PID.
+     */
+    private static final int PMT_PID = 0x1000;
+
+    /**
+     * 作成する TS の映像の PID.
+     */
+    private static final int VIDEO_PID = 0x100;
+
+    /**
+     * 既知の TS から取り出される PES (PID:サイズ@PTS).
+     *
+     * <p>
+     * 映像の PES はサイズが指定されていないので次の PES の開始時に、
+     * 音声の PES は全てのペイロードを受信した時点で通知されます。
+     * </p>
+     */
+    private static final String[] EXPECTED_PES = {
+            "256:30@0",
+            "256:4006@3003",
+            "256:7@6006",
+            "256:162@9009",
+            "256:163@12012",
+            "256:344@15015",
+            "256:345@18018",
+            "256:346@21021",
+            "257:371@1920",
+            "256:529@24024",
+            "256:500@33033",
+            "257:2000@3840",
+            "256:407@36036",
+    };
+
+    /**
+     * 一度に渡した TS から全ての PES が取り出せること.
+     */
+    @Test
+    public void demux() throws IOException {
+        List<String> result = new ArrayList<>();
+        List<byte[]> data = new ArrayList<>();
+        int[] config = new int[1];
+
+        TsDemuxer demuxer = new TsDemuxer();
+        demuxer.setCallback(new TsDemuxer.Callback() {
+            @Override
+            public boolean onConfig(int pid, int streamType) {
+                config[0]++;
+                return true;
+            }
+
+            @Override
+            public void onPes(TsDemuxer.Pes pes) {
+                result.add(TsDemuxerTest.toString(pes));
+                ByteBuffer buffer = pes.getBuffer();
+                data.add(Arrays.copyOf(buffer.array(), buffer.limit()));
+                pes.release();
+            }
+        });
+
+        byte[] ts = readGoldenFile();
+        demuxer.feed(ts, 0, ts.length);
+        demuxer.flush();
+
+        assertArrayEquals(EXPECTED_PES, result.toArray());
+        assertEquals(ts.length / TS_PACKET_SIZE, demuxer.getPacketCount());
+        assertEquals(0, demuxer.getDiscontinuityCount());
+        assertEquals(0, demuxer.getDroppedPesCount());
+        // MIXED で 2 つ、VIDEO、AUDIO で 1 つずつ
+        assertEquals(4, config[0]);
+
+        // AUD が先頭に挿入されていること
+        assertArrayEquals(concat(new byte[] {0x00, 0x00, 0x00, 0x01, 0x09, (byte) 0xF0}, createData(4000, 2)), data.get(1));
+        assertArrayEquals(createData(371, 20), data.get(8));
+        assertArrayEquals(createData(2000, 23), data.get(11));
+        assertArrayEquals(concat(new byte[] {0x00, 0x00, 0x00, 0x01, 0x46, 0x01, 0x50}, createData(400, 22)), data.get(12));
+    }
+
+    /**
+     * TS パケットの途中で区切られたデータや、0x00 で埋められたデータからも PES が取り出せること.
+     */
+    @Test
+    public void demuxSplitData() throws IOException {
+        byte[] ts = readGoldenFile();
+
+        // SRT のペイロードと同じように 7 パケットごとに 0x00 で埋める
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (int i = 0; i < ts.length; i += TS_PACKET_SIZE * 7) {
+            output.write(ts, i, Math.min(TS_PACKET_SIZE * 7, ts.length - i));
+            output.write(new byte[12], 0, 12);
+        }
+        byte[] padded = output.toByteArray();
+
+        for (int chunkSize : new int[] {1, 100, 187, 189, 1328}) {
+            List<String> result = new ArrayList<>();
+            // バッファが足りない場合は拡張されること
+            TsDemuxer demuxer = new TsDemuxer(2, 16);
+            demuxer.setCallback(new Callback(result, true));
+            for (int i = 0; i < padded.length; i += chunkSize) {
+                demuxer.feed(padded, i, Math.min(chunkSize, padded.length - i));
+            }
+            demuxer.flush();
+
+            assertArrayEquals("chunkSize=" + chunkSize, EXPECTED_PES, result.toArray());
+            assertEquals(ts.length / TS_PACKET_SIZE, demuxer.getPacketCount());
+        }
+    }
+
+    /**
+     * onConfig で false を返却した PID の PES は取り出さないこと.
+     */
+    @Test
+    public void filterPid() throws IOException {
+        List<String> result = new ArrayList<>();
+        TsDemuxer demuxer = new TsDemuxer();
+        demuxer.setCallback(new Callback(result, true) {
+            @Override
+            public boolean onConfig(int pid, int streamType) {
+                return streamType != STREAM_TYPE_AUDIO_AAC;
+            }
+        });
+
+        byte[] ts = readGoldenFile();
+        demuxer.feed(ts, 0, ts.length);
+        demuxer.flush();
+
+        assertEquals(11, result.size());
+        for (String pes : result) {
+            assertTrue(pes.startsWith("256:"));
+        }
+    }
+
+    /**
+     * continuity_counter が連続していない場合は、解析中の PES を破棄すること.
+     */
+    @Test
+    public void dropOnDiscontinuity() throws IOException {
+        byte[] ts = readGoldenFile();
+        // PAT、PMT、SPS の次から始まる I フレームの途中のパケットを削除
+        int removed = 5;
+        byte[] lost = new byte[ts.length - TS_PACKET_SIZE];
+        System.arraycopy(ts, 0, lost, 0, removed * TS_PACKET_SIZE);
+        System.arraycopy(ts, (removed + 1) * TS_PACKET_SIZE, lost, removed * TS_PACKET_SIZE, lost.length - removed * TS_PACKET_SIZE);
+
+        List<String> result = new ArrayList<>();
+        TsDemuxer demuxer = new TsDemuxer();
+        demuxer.setCallback(new Callback(result, true));
+        demuxer.feed(lost, 0, lost.length);
+        demuxer.flush();
+
+        List<String> expected = new ArrayList<>(Arrays.asList(EXPECTED_PES));
+        expected.remove("256:4006@3003");
+        assertEquals(expected, result);
+        assertEquals(1, demuxer.getDiscontinuityCount());
+        assertEquals(1, demuxer.getDroppedPesCount());
+    }
+
+    /**
+     * プールに空きがない場合は PES を破棄すること.
+     */
+    @Test
+    public void dropOnPoolExhausted() throws IOException {
+        List<String> result = new ArrayList<>();
+        TsDemuxer demuxer = new TsDemuxer(1, 1024);
+        demuxer.setCallback(new Callback(result, false));
+
+        byte[] ts = readGoldenFile();
+        demuxer.feed(ts, 0, ts.length);
+        demuxer.flush();
+
+        assertEquals(1, result.size());
+        assertEquals(EXPECTED_PES[0], result.get(0));
+        assertEquals(EXPECTED_PES.length - 1, demuxer.getDroppedPesCount());
+    }
+
+    /**
+     * 同じ PES を二重にプールに戻した場合は例外が発生して、以降の PES も取り出せること.
+     */
+    @Test
+    public void releaseTwice() throws IOException {
+        int[] count = new int[1];
+        int[] errors = new int[1];
+        TsDemuxer demuxer = new TsDemuxer(2, 1024);
+        demuxer.setCallback(new TsDemuxer.Callback() {
+            @Override
+            public boolean onConfig(int pid, int streamType) {
+                return true;
+            }
+
+            @Override
+            public void onPes(TsDemuxer.Pes pes) {
+                count[0]++;
+                pes.release();
+                try {
+                    pes.release();
+                } catch (IllegalStateException e) {
+                    errors[0]++;
+                }
+            }
+        });
+
+        byte[] ts = readGoldenFile();
+        demuxer.feed(ts, 0, ts.length);
+        demuxer.flush();
+
+        assertEquals(EXPECTED_PES.length, count[0]);
+        assertEquals(EXPECTED_PES.length, errors[0]);
+        assertEquals(0, demuxer.getDroppedPesCount());
+    }
+
+    /**
+     * PES ヘッダーが複数の TS パケットに分かれている場合も PES が取り出せること.
+     */
+    @Test
+    public void splitPesHeader() {
+        byte[] header = createPesHeader(9009);
+        byte[] payload = createData(20, 5);
+
+        for (int split = 1; split < header.length; split++) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            writeProgram(output, 0);
+            writePacket(output, VIDEO_PID, true, 0, Arrays.copyOf(header, split));
+            writePacket(output, VIDEO_PID, false, 1,
+                    concat(Arrays.copyOfRange(header, split, header.length), payload));
+            byte[] ts = output.toByteArray();
+
+            List<byte[]> data = new ArrayList<>();
+            List<String> result = new ArrayList<>();
+            TsDemuxer demuxer = new TsDemuxer();
+            demuxer.setCallback(new Callback(result, false) {
+                @Override
+                public void onPes(TsDemuxer.Pes pes) {
+                    ByteBuffer buffer = pes.getBuffer();
+                    data.add(Arrays.copyOf(buffer.array(), buffer.limit()));
+                    super.onPes(pes);
+                }
+            });
+            demuxer.feed(ts, 0, ts.length);
+            demuxer.flush();
+
+            assertEquals("split=" + split, Arrays.asList(VIDEO_PID + ":20@9009"), result);
+            assertArrayEquals("split=" + split, payload, data.get(0));
+            assertEquals(0, demuxer.getDroppedPesCount());
+        }
+    }
+
+    /**
+     * PMT のセクションが複数の TS パケットに分かれている場合もストリームが通知されること.
+     */
+    @Test
+    public void splitPmtSection() {
+        byte[] pmt = createPmtSection();
+
+        for (int split = 1; split < pmt.length; split++) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            writePacket(output, TS_PAT_PID, true, 0, concat(new byte[] {0x00}, createPatSection()));
+            writePacket(output, PMT_PID, true, 0, concat(new byte[] {0x00}, Arrays.copyOf(pmt, split)));
+            writePacket(output, PMT_PID, false, 1, Arrays.copyOfRange(pmt, split, pmt.length));
+            byte[] ts = output.toByteArray();
+
+            List<Integer> config = new ArrayList<>();
+            TsDemuxer demuxer = new TsDemuxer();
+            demuxer.setCallback(new Callback(new ArrayList<>(), true) {
+                @Override
+                public boolean onConfig(int pid, int streamType) {
+                    config.add(pid);
+                    return true;
+                }
+            });
+            demuxer.feed(ts, 0, ts.length);
+
+            assertEquals("split=" + split, Arrays.asList(VIDEO_PID), config);
+        }
+    }
+
+    /**
+     * 取り出した PES を文字列のリストに追加するコールバック.
+     */
+    private static class Callback implements TsDemuxer.Callback {
+        private final List<String> mResult;
+        private final boolean mRelease;
+
+        Callback(List<String> result, boolean release) {
+            mResult = result;
+            mRelease = release;
+        }
+
+        @Override
+        public boolean onConfig(int pid, int streamType) {
+            return true;
+        }
+
+        @Override
+        public void onPes(TsDemuxer.Pes pes) {
+            mResult.add(TsDemuxerTest.toString(pes));
+            if (mRelease) {
+                pes.release();
+            }
+        }
+    }
+
+    /**
+     * PAT と 1 つの映像ストリームを含む PMT を書き込みます.
+     */
+    private static void writeProgram(ByteArrayOutputStream output, int continuityCounter) {
+        writePacket(output, TS_PAT_PID, true, continuityCounter, concat(new byte[] {0x00}, createPatSection()));
+        writePacket(output, PMT_PID, true, continuityCounter, concat(new byte[] {0x00}, createPmtSection()));
+    }
+
+    private static byte[] createPatSection() {
+        // CRC は解析に使用しないので 0 にしておく
+        return new byte[] {
+                0x00, (byte) 0xB0, 0x0D, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                0x00, 0x01, (byte) (0xE0 | (PMT_PID >> 8)), (byte) PMT_PID,
+                0x00, 0x00, 0x00, 0x00
+        };
+    }
+
+    private static byte[] createPmtSection() {
+        return new byte[] {
+                0x02, (byte) 0xB0, 0x12, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                (byte) (0xE0 | (VIDEO_PID >> 8)), (byte) VIDEO_PID, (byte) 0xF0, 0x00,
+                STREAM_TYPE_VIDEO_H264, (byte) (0xE0 | (VIDEO_PID >> 8)), (byte) VIDEO_PID, (byte) 0xF0, 0x00,
+                0x00, 0x00, 0x00, 0x00
+        };
+    }
+
+    /**
+     * PTS を含み、PES_packet_length を指定しない映像の PES ヘッダーを作成します.
+     */
+    private static byte[] createPesHeader(long pts) {
+        return new byte[] {
+                0x00, 0x00, 0x01, (byte) 0xE0, 0x00, 0x00, (byte) 0x80, (byte) 0x80, 0x05,
+                (byte) (0x21 | ((pts >> 29) & 0x0E)), (byte) (pts >> 22),
+                (byte) (((pts >> 14) & 0xFE) | 0x01), (byte) (pts >> 7), (byte) (((pts << 1) & 0xFE) | 0x01)
+        };
+    }
+
+    /**
+     * ペイロードが TS パケットの末尾に来るように、アダプテーションフィールドで埋めた TS パケットを書き込みます.
+     */
+    private static void writePacket(ByteArrayOutputStream output, int pid, boolean start,
+                                    int continuityCounter, byte[] payload) {
+        byte[] packet = new byte[TS_PACKET_SIZE];
+        packet[0] = SYNC_BYTE;
+        packet[1] = (byte) ((start ? 0x40 : 0x00) | ((pid >> 8) & 0x1F));
+        packet[2] = (byte) pid;
+        int stuffing = TS_PACKET_SIZE - TS_HEADER_SIZE - payload.length;
+        if (stuffing > 0) {
+            packet[3] = (byte) (0x30 | continuityCounter);
+            packet[4] = (byte) (stuffing - 1);
+            if (stuffing > 1) {
+                packet[5] = 0x00;
+                Arrays.fill(packet, 6, TS_HEADER_SIZE + stuffing, (byte) 0xFF);
+            }
+        } else {
+            packet[3] = (byte) (0x10 | continuityCounter);
+        }
+        System.arraycopy(payload, 0, packet, TS_HEADER_SIZE + stuffing, payload.length);
+        output.write(packet, 0, packet.length);
+    }
+
+    private static String toString(TsDemuxer.Pes pes) {
+        return pes.getPid() + ":" + pes.getBuffer().limit() + "@" + pes.getPts();
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] data = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, data, a.length, b.length);
+        return data;
+    }
+
+    private static byte[] createData(int size, int seed) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+
+    private static byte[] readGoldenFile() throws IOException {
+        try (InputStream input = TsDemuxerTest.class.getClassLoader().getResourceAsStream(GOLDEN_FILE)) {
+            assertNotNull(input);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int size;
+            while ((size = input.read(buffer)) != -1) {
+                output.write(buffer, 0, size);
+            }
+            return output.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.deviceconnect.android.libmedia.streaming.mpeg2ts;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * TsPacketWriter のテスト.
+ *
+ * <p>
+ * 出力する TS は、PES をコピーして TS パケットを作成していた実装で出力したファイルと比較します。
+ * </p>
+ */
+public class TsPacketWriterTest implements TsConstants {
+    /**
+     * 比較する TS ファイル.
+     */
+    private static final String GOLDEN_FILE = "mpeg2ts/aac_h264_h265.ts";
+
+    /**
+     * 書き込む PES の数.
+     */
+    private static final int PES_COUNT = 13;
+
+    /**
+     * 1 パケットずつ書き込んだ TS が既知の TS と一致すること.
+     */
+    @Test
+    public void writePacket() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TsPacketWriter writer = new TsPacketWriter();
+        writer.setBuffer(ByteBuffer.allocate(TS_PACKET_SIZE));
+        writer.setCallback((buffer, endOfPes) -> {
+            assertEquals(TS_PACKET_SIZE, buffer.limit());
+            output.write(buffer.array(), 0, buffer.limit());
+        });
+        writeStream(writer);
+
+        assertArrayEquals(readGoldenFile(), output.toByteArray());
+    }
+
+    /**
+     * 7 パケットずつまとめて書き込んだ TS が既知の TS と一致し、PES の最後で通知されること.
+     */
+    @Test
+    public void writeAggregatedPackets() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int[] endOfPesCount = new int[1];
+        TsPacketWriter writer = new TsPacketWriter();
+        writer.setBuffer(ByteBuffer.allocateDirect(TS_PACKET_SIZE * 7));
+        writer.setCallback((buffer, endOfPes) -> {
+            assertEquals(0, buffer.limit() % TS_PACKET_SIZE);
+            assertTrue(endOfPes || buffer.limit() == TS_PACKET_SIZE * 7);
+            if (endOfPes) {
+                endOfPesCount[0]++;
+            }
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            output.write(data, 0, data.length);
+        });
+        writeStream(writer);
+
+        assertArrayEquals(readGoldenFile(), output.toByteArray());
+        assertEquals(PES_COUNT, endOfPesCount[0]);
+    }
+
+    /**
+     * 既知の TS と同じになるように PAT、PMT、PES を書き込みます.
+     *
+     * @param writer 書き込み先
+     */
+    private static void writeStream(TsPacketWriter writer) {
+        TsPacketWriter.PES pes = new TsPacketWriter.PES();
+
+        writer.writePAT();
+        writer.writePMT(FrameType.MIXED, STREAM_TYPE_VIDEO_H264, STREAM_TYPE_AUDIO_AAC);
+
+        // SPS、PPS
+        writeVideo(writer, pes, STREAM_TYPE_VIDEO_H264, createData(24, 1), false, 0, 0);
+        // I フレーム
+        writeVideo(writer, pes, STREAM_TYPE_VIDEO_H264, createData(4000, 2), true, 3003, 0);
+        // TS パケットの境界になるサイズのフレーム
+        int[] sizes = {1, 156, 157, 338, 339, 340, 523};
+        for (int i = 0; i < sizes.length; i++) {
+            writeVideo(writer, pes, STREAM_TYPE_VIDEO_H264, createData(sizes[i], 3 + i), true, 6006 + 3003 * i, 0);
+        }
+        writeAudio(writer, pes, createData(371, 20), 1920);
+
+        // 先頭に AUD を含み、DTS を持つフレーム
+        byte[] frame = createData(500, 21);
+        System.arraycopy(new byte[] {0x00, 0x00, 0x00, 0x01, 0x09, (byte) 0xF0}, 0, frame, 0, 6);
+        writeVideo(writer, pes, STREAM_TYPE_VIDEO_H264, frame, true, 33033, 30030);
+
+        writer.writePAT();
+        writer.writePMT(FrameType.VIDEO, STREAM_TYPE_VIDEO_H265, STREAM_TYPE_AUDIO_AAC);
+        writeVideo(writer, pes, STREAM_TYPE_VIDEO_H265, createData(400, 22), true, 36036, 0);
+
+        writer.writePMT(FrameType.AUDIO, STREAM_TYPE_VIDEO_H265, STREAM_TYPE_AUDIO_AAC);
+        writeAudio(writer, pes, createData(2000, 23), 3840);
+    }
+
+    private static void writeVideo(TsPacketWriter writer, TsPacketWriter.PES pes, int streamType,
+                                   byte[] data, boolean frame, long pts, long dts) {
+        pes.setStreamId(STREAM_ID_VIDEO);
+        pes.setStreamType(streamType);
+        pes.setFrame(frame);
+        pes.setPCR(pts - 1000);
+        pes.setPTS(pts);
+        pes.setDTS(dts);
+        writePES(writer, pes, data);
+    }
+
+    private static void writeAudio(TsPacketWriter writer, TsPacketWriter.PES pes, byte[] data, long pts) {
+        pes.setStreamId(STREAM_ID_AUDIO);
+        pes.setStreamType(STREAM_TYPE_AUDIO_AAC);
+        pes.setFrame(true);
+        pes.setPCR(pts);
+        pes.setPTS(pts);
+        pes.setDTS(0);
+        writePES(writer, pes, data);
+    }
+
+    /**
+     * PES を書き込み、データのバッファの position だけが進んでいることを確認します.
+     *
+     * @param writer 書き込み先
+     * @param pes PES
+     * @param data PES のデータ
+     */
+    private static void writePES(TsPacketWriter writer, TsPacketWriter.PES pes, byte[] data) {
+        // MediaCodec の出力と同じように前後に別のデータがあるバッファを使用する
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length + 20);
+        buffer.position(10);
+        buffer.put(data);
+        buffer.limit(buffer.position() + 10);
+        buffer.position(10);
+
+        pes.setData(buffer, data.length);
+        writer.writePES(pes);
+
+        assertEquals(10 + data.length, buffer.position());
+        assertEquals(20 + data.length, buffer.limit());
+    }
+
+    private static byte[] createData(int size, int seed) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+
+    private static byte[] readGoldenFile() throws IOException {
+        try (InputStream input = TsPacketWriterTest.class.getClassLoader().getResourceAsStream(GOLDEN_FILE)) {
+            assertNotNull(input);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int size;
+            while ((size = input.read(buffer)) != -1) {
+                output.write(buffer, 0, size);
+            }
+            return output.toByteArray();
+        }
+    }
+}
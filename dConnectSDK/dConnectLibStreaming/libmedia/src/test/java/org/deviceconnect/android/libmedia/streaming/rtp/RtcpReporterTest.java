@@ -0,0 +1,303 @@
+package org.deviceconnect.android.libmedia.streaming.rtp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RtcpReporter と RtcpPacket のテスト.
+ *
+ * <p>
+ * 受信側で作成した Receiver Report と NACK を送信側で解析して、
+ * 損失したパケットが再送用のバッファから取り出せることを確認します。
+ * </p>
+ */
+public class RtcpReporterTest {
+    /**
+     * テストで使用するクロック周波数.
+     */
+    private static final int CLOCK = 90000;
+
+    /**
+     * RTP の送信者の SSRC.
+     */
+    private static final int SOURCE_SSRC = 0x12345678;
+
+    /**
+     * レポートの送信者の SSRC.
+     */
+    private static final int REPORTER_SSRC = 0x0BADCAFE;
+
+    private final byte[] mBuffer = new byte[RtpPacket.MTU];
+    private final List<RtcpPacket.ReportBlock> mReportBlocks = new ArrayList<>();
+    private final List<Integer> mNacks = new ArrayList<>();
+    private RtcpReporter mReporter;
+
+    @Before
+    public void setUp() {
+        mReportBlocks.clear();
+        mNacks.clear();
+        mReporter = new RtcpReporter(REPORTER_SSRC);
+        mReporter.setClockFrequency(CLOCK);
+    }
+
+    /**
+     * 損失がない場合は、損失数 0 の Receiver Report が作成されること.
+     */
+    @Test
+    public void receiverReportWithoutLoss() {
+        for (int i = 0; i < 100; i++) {
+            assertFalse(mReporter.onRtpPacket(rtp(i, i * 450L), RtpPacket.RTP_HEADER_LENGTH, i * 5L));
+        }
+        assertTrue(mReporter.isReportDue(RtcpReporter.DEFAULT_INTERVAL));
+
+        parse(mReporter.writeReport(mBuffer, 1000));
+
+        assertEquals(1, mReportBlocks.size());
+        RtcpPacket.ReportBlock block = mReportBlocks.get(0);
+        assertEquals(SOURCE_SSRC, block.getSsrc());
+        assertEquals(0, block.getFractionLost());
+        assertEquals(0, block.getCumulativeLost());
+        assertEquals(99, block.getExtendedHighestSequenceNumber());
+        assertEquals(0, block.getJitter());
+        assertTrue(mNacks.isEmpty());
+        assertFalse(mReporter.isReportDue(1000));
+    }
+
+    /**
+     * 抜けたシーケンス番号が、後続のパケットを REORDER_THRESHOLD 個受信した時点で NACK で要求され、
+     * 損失率が計算されること.
+     */
+    @Test
+    public void nackForLostPackets() {
+        for (int i = 0; i < 100; i++) {
+            if (i == 10 || i == 11 || i == 40) {
+                continue;
+            }
+            boolean nack = mReporter.onRtpPacket(rtp(i, i * 450L), RtpPacket.RTP_HEADER_LENGTH, i * 5L);
+            if (i == 10 + RtcpReporter.REORDER_THRESHOLD || i == 11 + RtcpReporter.REORDER_THRESHOLD
+                    || i == 40 + RtcpReporter.REORDER_THRESHOLD) {
+                assertTrue(nack);
+                parse(mReporter.writeReport(mBuffer, i * 5L));
+            } else {
+                assertFalse(nack);
+            }
+        }
+
+        assertEquals(3, mNacks.size());
+        assertEquals(10, (int) mNacks.get(0));
+        assertEquals(11, (int) mNacks.get(1));
+        assertEquals(40, (int) mNacks.get(2));
+        assertEquals(3, mReporter.getNackCount());
+
+        mReportBlocks.clear();
+        parse(mReporter.writeReport(mBuffer, 1000));
+        assertEquals(3, mReportBlocks.get(0).getCumulativeLost());
+        assertEquals(97, mReporter.getReceivedCount());
+        assertEquals(100, mReporter.getExpectedCount());
+    }
+
+    /**
+     * 再送されたパケットを受信した場合は、NACK の要求から外れて損失数が減ること.
+     */
+    @Test
+    public void retransmittedPacket() {
+        for (int i = 0; i < 10; i++) {
+            mReporter.onRtpPacket(rtp(i, i * 450L), RtpPacket.RTP_HEADER_LENGTH, i * 5L);
+        }
+        assertFalse(mReporter.onRtpPacket(rtp(12, 12 * 450L), RtpPacket.RTP_HEADER_LENGTH, 60));
+        // 損失と判断する前に 10 が届いた
+        assertFalse(mReporter.onRtpPacket(rtp(10, 10 * 450L), RtpPacket.RTP_HEADER_LENGTH, 61));
+        assertFalse(mReporter.onRtpPacket(rtp(13, 13 * 450L), RtpPacket.RTP_HEADER_LENGTH, 65));
+        assertTrue(mReporter.onRtpPacket(rtp(14, 14 * 450L), RtpPacket.RTP_HEADER_LENGTH, 70));
+
+        parse(mReporter.writeReport(mBuffer, 70));
+        assertEquals(1, mNacks.size());
+        assertEquals(11, (int) mNacks.get(0));
+
+        // 再送された 11 を受信
+        assertFalse(mReporter.onRtpPacket(rtp(11, 11 * 450L), RtpPacket.RTP_HEADER_LENGTH, 80));
+        assertEquals(15, mReporter.getExpectedCount());
+        assertEquals(15, mReporter.getReceivedCount());
+        assertEquals(1, mReporter.getNackCount());
+    }
+
+    /**
+     * 経路上で並び替えられただけのパケットには NACK が要求されないこと.
+     */
+    @Test
+    public void reorderedPacketsWithoutNack() {
+        mReporter.onRtpPacket(rtp(0, 0), RtpPacket.RTP_HEADER_LENGTH, 0);
+        // 2つずつ入れ替えて受信する
+        for (int i = 1; i < 100; i += 2) {
+            assertFalse(mReporter.onRtpPacket(rtp(i + 1, (i + 1) * 450L), RtpPacket.RTP_HEADER_LENGTH, i * 5L));
+            assertFalse(mReporter.onRtpPacket(rtp(i, i * 450L), RtpPacket.RTP_HEADER_LENGTH, i * 5L + 1));
+        }
+
+        parse(mReporter.writeReport(mBuffer, 1000));
+        assertEquals(0, mNacks.size());
+        assertEquals(0, mReporter.getNackCount());
+        assertEquals(0, mReportBlocks.get(0).getCumulativeLost());
+    }
+
+    /**
+     * 後続のパケットが少なくても、REORDER_TIME が経過した時点で NACK が要求されること.
+     */
+    @Test
+    public void nackAfterReorderTime() {
+        mReporter.onRtpPacket(rtp(0, 0), RtpPacket.RTP_HEADER_LENGTH, 0);
+        assertFalse(mReporter.onRtpPacket(rtp(2, 2 * 450L), RtpPacket.RTP_HEADER_LENGTH, 10));
+        assertFalse(mReporter.onRtpPacket(rtp(3, 3 * 450L), RtpPacket.RTP_HEADER_LENGTH,
+                10 + RtcpReporter.REORDER_TIME - 1));
+        assertFalse(mReporter.isReportDue(10 + RtcpReporter.REORDER_TIME));
+
+        // 後続のパケットが届かなくても、Receiver Report の作成時に損失と判断する
+
+        parse(mReporter.writeReport(mBuffer, 10 + RtcpReporter.REORDER_TIME));
+        assertEquals(1, mNacks.size());
+        assertEquals(1, (int) mNacks.get(0));
+    }
+
+    /**
+     * シーケンス番号が一周しても拡張シーケンス番号が増え続けること.
+     */
+    @Test
+    public void sequenceNumberWrapAround() {
+        for (int i = 0; i < 20; i++) {
+            mReporter.onRtpPacket(rtp((65530 + i) & 0xFFFF, i * 450L), RtpPacket.RTP_HEADER_LENGTH, i * 5L);
+        }
+        parse(mReporter.writeReport(mBuffer, 1000));
+
+        RtcpPacket.ReportBlock block = mReportBlocks.get(0);
+        assertEquals(65536 + 13, block.getExtendedHighestSequenceNumber());
+        assertEquals(0, block.getCumulativeLost());
+        assertTrue(mNacks.isEmpty());
+    }
+
+    /**
+     * 到着間隔が揺らぐ場合は、ジッターが計算されること.
+     */
+    @Test
+    public void jitter() {
+        for (int i = 0; i < 200; i++) {
+            long arrival = i * 5L + ((i % 2 == 0) ? 0 : 4);
+            mReporter.onRtpPacket(rtp(i, i * 450L), RtpPacket.RTP_HEADER_LENGTH, arrival);
+        }
+        // 4 ミリ秒の揺らぎは 360 (90kHz)
+        long jitter = mReporter.getJitter();
+        assertTrue(jitter > 300 && jitter <= 360);
+    }
+
+    /**
+     * Sender Report を受信した後の Receiver Report には LSR と DLSR が設定されること.
+     */
+    @Test
+    public void lastSenderReport() {
+        mReporter.onRtpPacket(rtp(0, 0), RtpPacket.RTP_HEADER_LENGTH, 0);
+
+        byte[] sr = new byte[28];
+        sr[0] = (byte) 0x80;
+        sr[1] = (byte) RtcpPacket.TYPE_SR;
+        sr[3] = 6;
+        // NTP 秒 0x00001234, 小数部 0x56780000
+        sr[10] = 0x12;
+        sr[11] = 0x34;
+        sr[12] = 0x56;
+        sr[13] = 0x78;
+        mReporter.onRtcpPacket(sr, sr.length, 1000);
+
+        parse(mReporter.writeReport(mBuffer, 1500));
+        RtcpPacket.ReportBlock block = mReportBlocks.get(0);
+        assertEquals(0x12345678L, block.getLastSenderReport());
+        assertEquals(65536 / 2, block.getDelaySinceLastSenderReport());
+    }
+
+    /**
+     * 連続しないシーケンス番号が複数の FCI に分けて書き込まれること.
+     */
+    @Test
+    public void nackFci() {
+        int[] seqs = {100, 101, 116, 117, 65535, 0};
+        int length = RtcpPacket.writeNack(mBuffer, 0, REPORTER_SSRC, SOURCE_SSRC, seqs, seqs.length);
+        // 100 と 101, 116 は 1つ目の FCI、117 は 2つ目、65535 と 0 は 3つ目
+        assertEquals(12 + 4 * 3, length);
+
+        parse(length);
+        assertEquals(6, mNacks.size());
+        for (int i = 0; i < seqs.length; i++) {
+            assertEquals(seqs[i], (int) mNacks.get(i));
+        }
+    }
+
+    /**
+     * NACK で要求されたパケットが再送用のバッファから取り出せること.
+     */
+    @Test
+    public void retransmissionBuffer() {
+        RtpRetransmissionBuffer buffer = new RtpRetransmissionBuffer(8);
+        for (int i = 0; i < 20; i++) {
+            byte[] data = rtp(i, i * 450L);
+            data[12] = (byte) i;
+            buffer.put(data, RtpPacket.RTP_HEADER_LENGTH + 1, i);
+        }
+
+        byte[] out = new byte[RtpPacket.MTU];
+        assertEquals(RtpPacket.RTP_HEADER_LENGTH + 1, buffer.get(15, out, 20));
+        assertEquals(15, out[12]);
+
+        // 上書きされたパケット
+        assertEquals(-1, buffer.get(3, out, 20));
+
+        // 保持する時間を超えたパケット
+        buffer.setMaxAge(10);
+        assertEquals(-1, buffer.get(15, out, 100));
+
+        buffer.clear();
+        assertEquals(-1, buffer.get(19, out, 20));
+    }
+
+    private void parse(int length) {
+        assertTrue(length > 0);
+        RtcpPacket.parse(mBuffer, length, new RtcpPacket.Handler() {
+            @Override
+            public void onSenderReport(int ssrc, long ntpMiddle) {
+            }
+
+            @Override
+            public void onReportBlock(int reporterSsrc, RtcpPacket.ReportBlock block) {
+                assertEquals(REPORTER_SSRC, reporterSsrc);
+                mReportBlocks.add(block);
+            }
+
+            @Override
+            public void onNack(int senderSsrc, int mediaSsrc, int sequenceNumber) {
+                assertEquals(REPORTER_SSRC, senderSsrc);
+                assertEquals(SOURCE_SSRC, mediaSsrc);
+                mNacks.add(sequenceNumber);
+            }
+        });
+    }
+
+    private static byte[] rtp(int sequenceNumber, long timestamp) {
+        byte[] rtp = new byte[RtpPacket.RTP_HEADER_LENGTH + 4];
+        rtp[0] = (byte) 0x80;
+        rtp[1] = 96;
+        rtp[2] = (byte) (sequenceNumber >> 8);
+        rtp[3] = (byte) sequenceNumber;
+        rtp[4] = (byte) (timestamp >> 24);
+        rtp[5] = (byte) (timestamp >> 16);
+        rtp[6] = (byte) (timestamp >> 8);
+        rtp[7] = (byte) timestamp;
+        rtp[8] = (byte) (SOURCE_SSRC >> 24);
+        rtp[9] = (byte) (SOURCE_SSRC >> 16);
+        rtp[10] = (byte) (SOURCE_SSRC >> 8);
+        rtp[11] = (byte) SOURCE_SSRC;
+        return rtp;
+    }
+}
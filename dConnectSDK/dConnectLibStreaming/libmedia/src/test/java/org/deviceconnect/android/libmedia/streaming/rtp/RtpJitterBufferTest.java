@@ -0,0 +1,373 @@
+package org.deviceconnect.android.libmedia.streaming.rtp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RtpJitterBuffer のテスト.
+ *
+ * <p>
+ * 受信時刻、シーケンス番号、タイムスタンプを並べたパケットのトレースを再生して、
+ * 並び替えと損失の検出を確認します。
+ * </p>
+ */
+public class RtpJitterBufferTest {
+    /**
+     * テストで使用するクロック周波数.
+     */
+    private static final int CLOCK = 90000;
+
+    /**
+     * パケットの送信間隔(ミリ秒).
+     */
+    private static final int PACKET_INTERVAL = 5;
+
+    private final List<Integer> mDelivered = new ArrayList<>();
+    private RtpJitterBuffer mJitterBuffer;
+
+    @Before
+    public void setUp() {
+        mDelivered.clear();
+        mJitterBuffer = new RtpJitterBuffer(256, (data, dataLength) ->
+                mDelivered.add(((data[2] & 0xFF) << 8) | (data[3] & 0xFF)));
+        mJitterBuffer.setClockFrequency(CLOCK);
+        mJitterBuffer.setLatency(50, 50);
+    }
+
+    /**
+     * 順番通りに到着したパケットは遅延なく通知されること.
+     */
+    @Test
+    public void inOrder() {
+        List<TracePacket> trace = createTrace(0, 100);
+        for (TracePacket p : trace) {
+            mJitterBuffer.write(p.toRtp(), RtpPacket.RTP_HEADER_LENGTH + 4, p.mArrivalTime);
+            assertEquals(p.mSequenceNumber, (int) mDelivered.get(mDelivered.size() - 1));
+        }
+        assertEquals(100, mDelivered.size());
+        assertEquals(0, mJitterBuffer.getLostCount());
+        assertEquals(0, mJitterBuffer.getReorderedCount());
+        assertEquals(0, mJitterBuffer.size());
+    }
+
+    /**
+     * トレースに記録された並び替えが、シーケンス番号順に戻されること.
+     */
+    @Test
+    public void replayRecordedTrace() {
+        // 受信時刻(ms) シーケンス番号 タイムスタンプ
+        String trace = ""
+                + "0 100 0\n"
+                + "5 102 450\n"
+                + "6 101 450\n"
+                + "10 103 900\n"
+                + "15 106 1350\n"
+                + "16 104 1350\n"
+                + "17 105 1350\n"
+                + "20 107 1800\n";
+        replay(parseTrace(trace));
+        mJitterBuffer.process(1000);
+
+        assertDelivered(100, 107);
+        assertEquals(0, mJitterBuffer.getLostCount());
+        assertEquals(3, mJitterBuffer.getReorderedCount());
+    }
+
+    /**
+     * レイテンシ内に並び替えられたパケットは、全てシーケンス番号順に通知されること.
+     */
+    @Test
+    public void injectedReordering() {
+        List<TracePacket> trace = createTrace(1000, 2000);
+        List<TracePacket> reordered = injectReordering(trace, new Random(1234), 0.2, 4);
+        replay(reordered);
+        mJitterBuffer.process(Long.MAX_VALUE / 2);
+
+        assertDelivered(1000, 2999);
+        assertEquals(0, mJitterBuffer.getLostCount());
+        assertEquals(0, mJitterBuffer.getLateCount());
+        assertTrue(mJitterBuffer.getReorderedCount() > 0);
+    }
+
+    /**
+     * 届かなかったパケットはレイテンシを超えた時点で損失とみなされ、後続のパケットが通知されること.
+     */
+    @Test
+    public void injectedLoss() {
+        List<TracePacket> trace = createTrace(0, 200);
+        trace.remove(150);
+        trace.remove(50);
+        trace.remove(50);
+        replay(trace);
+        mJitterBuffer.process(Long.MAX_VALUE / 2);
+
+        assertEquals(197, mDelivered.size());
+        assertEquals(3, mJitterBuffer.getLostCount());
+        assertInOrder();
+    }
+
+    /**
+     * 損失とみなした後に到着したパケットは破棄され、レイテンシが大きくなること.
+     */
+    @Test
+    public void latePacket() {
+        mJitterBuffer.setLatency(20, 500);
+        List<TracePacket> trace = createTrace(0, 100);
+        TracePacket late = trace.remove(10);
+        late.mArrivalTime += 200;
+        trace.add(findIndex(trace, late.mArrivalTime), late);
+        replay(trace);
+
+        assertEquals(1, mJitterBuffer.getLostCount());
+        assertEquals(1, mJitterBuffer.getLateCount());
+        assertEquals(99, mDelivered.size());
+        assertTrue(mJitterBuffer.getLatency() > 20);
+        assertInOrder();
+    }
+
+    /**
+     * 重複したパケットは1回だけ通知されること.
+     */
+    @Test
+    public void duplicatePacket() {
+        List<TracePacket> trace = createTrace(0, 10);
+        trace.add(5, trace.get(3).copy());
+        trace.add(8, trace.get(9).copy());
+        replay(trace);
+        mJitterBuffer.process(Long.MAX_VALUE / 2);
+
+        assertDelivered(0, 9);
+        assertEquals(2, mJitterBuffer.getDuplicateCount());
+        assertEquals(0, mJitterBuffer.getLateCount());
+    }
+
+    /**
+     * シーケンス番号が一周しても順番通りに通知されること.
+     */
+    @Test
+    public void sequenceNumberWrapAround() {
+        List<TracePacket> trace = createTrace(65530, 12);
+        Collections.swap(trace, 5, 6);
+        Collections.swap(trace, 7, 8);
+        replay(trace);
+        mJitterBuffer.process(Long.MAX_VALUE / 2);
+
+        assertEquals(12, mDelivered.size());
+        for (int i = 0; i < 12; i++) {
+            assertEquals((65530 + i) & 0xFFFF, (int) mDelivered.get(i));
+        }
+        assertEquals(0, mJitterBuffer.getLostCount());
+    }
+
+    /**
+     * シーケンス番号が容量以上に後ろへ飛んだ場合には、同期し直して後続のパケットが通知されること.
+     */
+    @Test
+    public void largeBackwardJump() {
+        List<TracePacket> trace = createTrace(20000, 100);
+        List<TracePacket> restarted = createTrace(10000, 100);
+        long offset = trace.get(trace.size() - 1).mArrivalTime + PACKET_INTERVAL;
+        for (TracePacket p : restarted) {
+            p.mArrivalTime += offset;
+        }
+        replay(trace);
+        replay(restarted);
+        mJitterBuffer.process(Long.MAX_VALUE / 2);
+
+        assertEquals(200, mDelivered.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(20000 + i, (int) mDelivered.get(i));
+            assertEquals(10000 + i, (int) mDelivered.get(100 + i));
+        }
+        assertEquals(0, mJitterBuffer.getLateCount());
+        assertEquals(0, mJitterBuffer.getDuplicateCount());
+        assertEquals(0, mJitterBuffer.size());
+    }
+
+    /**
+     * シーケンス番号が容量以上に前へ飛んだ場合には、同期し直して後続のパケットが通知されること.
+     */
+    @Test
+    public void largeForwardJump() {
+        List<TracePacket> trace = createTrace(0, 100);
+        List<TracePacket> jumped = createTrace(5000, 100);
+        long offset = trace.get(trace.size() - 1).mArrivalTime + PACKET_INTERVAL;
+        for (TracePacket p : jumped) {
+            p.mArrivalTime += offset;
+        }
+        replay(trace);
+        replay(jumped);
+        mJitterBuffer.process(Long.MAX_VALUE / 2);
+
+        assertEquals(200, mDelivered.size());
+        assertEquals(5000, (int) mDelivered.get(100));
+        assertEquals(0, mJitterBuffer.getLostCount());
+        assertInOrder();
+    }
+
+    /**
+     * パケットの受信が止まった場合にも、保持しているパケットが process で通知されること.
+     */
+    @Test
+    public void processAfterStall() {
+        List<TracePacket> trace = createTrace(0, 10);
+        trace.remove(5);
+        replay(trace);
+        assertEquals(5, mDelivered.size());
+
+        long arrival = trace.get(trace.size() - 1).mArrivalTime;
+        long wait = mJitterBuffer.process(arrival);
+        assertTrue(wait > 0);
+        mJitterBuffer.process(arrival + wait);
+
+        assertEquals(9, mDelivered.size());
+        assertEquals(1, mJitterBuffer.getLostCount());
+        assertEquals(-1, mJitterBuffer.process(arrival + wait));
+    }
+
+    /**
+     * 到着間隔が揺らぐ場合には、レイテンシが大きくなること.
+     */
+    @Test
+    public void adaptiveLatency() {
+        mJitterBuffer.setLatency(10, 400);
+        List<TracePacket> trace = createTrace(0, 500);
+        Random random = new Random(42);
+        for (TracePacket p : trace) {
+            p.mArrivalTime += random.nextInt(60);
+        }
+        trace.sort((a, b) -> Long.compare(a.mArrivalTime, b.mArrivalTime));
+        replay(trace);
+
+        assertTrue(mJitterBuffer.getJitter() > 5);
+        assertTrue(mJitterBuffer.getLatency() > 10);
+        assertTrue(mJitterBuffer.getLatency() <= 400);
+    }
+
+    // トレース
+
+    private void replay(List<TracePacket> trace) {
+        for (TracePacket p : trace) {
+            byte[] rtp = p.toRtp();
+            mJitterBuffer.write(rtp, rtp.length, p.mArrivalTime);
+        }
+    }
+
+    private void assertDelivered(int from, int to) {
+        assertEquals(to - from + 1, mDelivered.size());
+        for (int i = 0; i < mDelivered.size(); i++) {
+            assertEquals((from + i) & 0xFFFF, (int) mDelivered.get(i));
+        }
+    }
+
+    private void assertInOrder() {
+        for (int i = 1; i < mDelivered.size(); i++) {
+            assertTrue(mDelivered.get(i - 1) < mDelivered.get(i));
+        }
+    }
+
+    private static int findIndex(List<TracePacket> trace, long arrivalTime) {
+        for (int i = 0; i < trace.size(); i++) {
+            if (trace.get(i).mArrivalTime > arrivalTime) {
+                return i;
+            }
+        }
+        return trace.size();
+    }
+
+    /**
+     * 一定間隔で送信されたパケットのトレースを作成します.
+     */
+    private static List<TracePacket> createTrace(int firstSequenceNumber, int count) {
+        List<TracePacket> trace = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long time = (long) i * PACKET_INTERVAL;
+            trace.add(new TracePacket(time, (firstSequenceNumber + i) & 0xFFFF, time * CLOCK / 1000));
+        }
+        return trace;
+    }
+
+    /**
+     * トレースのパケットを、指定した確率で後続のパケットと入れ替えます.
+     *
+     * <p>
+     * 入れ替えたパケットは受信時刻も入れ替えるので、受信時刻は単調増加のままです。
+     * 先頭のパケットは同期の基準になるので入れ替えません。
+     * </p>
+     */
+    private static List<TracePacket> injectReordering(List<TracePacket> trace, Random random,
+                                                      double probability, int maxDistance) {
+        List<TracePacket> result = new ArrayList<>();
+        for (TracePacket p : trace) {
+            result.add(p.copy());
+        }
+        for (int i = 1; i < result.size() - maxDistance; i++) {
+            if (random.nextDouble() < probability) {
+                int j = i + 1 + random.nextInt(maxDistance);
+                TracePacket a = result.get(i);
+                TracePacket b = result.get(j);
+                long t = a.mArrivalTime;
+                a.mArrivalTime = b.mArrivalTime;
+                b.mArrivalTime = t;
+                Collections.swap(result, i, j);
+                // 入れ替えたパケットを再度入れ替えないようにして、ずれを maxDistance 以内に収める
+                i = j;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 1行に「受信時刻(ms) シーケンス番号 タイムスタンプ」を記述したトレースを解析します.
+     */
+    private static List<TracePacket> parseTrace(String text) {
+        List<TracePacket> trace = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            trace.add(new TracePacket(Long.parseLong(fields[0]),
+                    Integer.parseInt(fields[1]), Long.parseLong(fields[2])));
+        }
+        return trace;
+    }
+
+    private static class TracePacket {
+        private long mArrivalTime;
+        private final int mSequenceNumber;
+        private final long mTimestamp;
+
+        TracePacket(long arrivalTime, int sequenceNumber, long timestamp) {
+            mArrivalTime = arrivalTime;
+            mSequenceNumber = sequenceNumber;
+            mTimestamp = timestamp;
+        }
+
+        TracePacket copy() {
+            return new TracePacket(mArrivalTime, mSequenceNumber, mTimestamp);
+        }
+
+        byte[] toRtp() {
+            byte[] rtp = new byte[RtpPacket.RTP_HEADER_LENGTH + 4];
+            rtp[0] = (byte) 0x80;
+            rtp[1] = 96;
+            rtp[2] = (byte) (mSequenceNumber >> 8);
+            rtp[3] = (byte) mSequenceNumber;
+            rtp[4] = (byte) (mTimestamp >> 24);
+            rtp[5] = (byte) (mTimestamp >> 16);
+            rtp[6] = (byte) (mTimestamp >> 8);
+            rtp[7] = (byte) mTimestamp;
+            return rtp;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.deviceconnect.android.libmedia.streaming.rtp;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RtpPacketRing のテスト.
+ */
+public class RtpPacketRingTest {
+    /**
+     * 公開したパケットが公開した順番で取得できること.
+     */
+    @Test
+    public void publishAndTake() {
+        RtpPacketRing ring = new RtpPacketRing(4);
+        assertEquals(4, ring.capacity());
+
+        for (int i = 0; i < 3; i++) {
+            RtpPacket packet = ring.acquire(0);
+            packet.setLength(i);
+            ring.publish();
+        }
+        assertEquals(3, ring.size());
+
+        for (int i = 0; i < 3; i++) {
+            RtpPacket packet = ring.take(0);
+            assertEquals(i, packet.getLength());
+            ring.remove();
+        }
+        assertEquals(0, ring.size());
+        assertNull(ring.take(0));
+    }
+
+    /**
+     * 公開するまでは同じパケットが返却されること.
+     */
+    @Test
+    public void acquireWithoutPublish() {
+        RtpPacketRing ring = new RtpPacketRing(4);
+        RtpPacket packet = ring.acquire(0);
+        assertSame(packet, ring.acquire(0));
+        assertNull(ring.take(0));
+    }
+
+    /**
+     * 空きがない場合は null が返却され、返却されたら再び取得できること.
+     */
+    @Test
+    public void full() {
+        RtpPacketRing ring = new RtpPacketRing(2);
+        ring.acquire(0);
+        ring.publish();
+        ring.acquire(0);
+        ring.publish();
+
+        long start = System.nanoTime();
+        assertNull(ring.acquire(TimeUnit.MILLISECONDS.toNanos(10)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(10));
+
+        ring.take(0);
+        ring.remove();
+        assertTrue(ring.acquire(0) != null);
+    }
+
+    /**
+     * 別スレッドのプロデューサとコンシューマの間で、全てのパケットが順番通りに受け渡されること.
+     */
+    @Test
+    public void singleProducerSingleConsumer() throws Exception {
+        final int count = 200000;
+        final RtpPacketRing ring = new RtpPacketRing(64);
+        final AtomicReference<String> error = new AtomicReference<>();
+
+        Thread consumer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                RtpPacket packet;
+                while ((packet = ring.take(TimeUnit.MILLISECONDS.toNanos(100))) == null) {
+                    // 公開されるまで待つ
+                }
+                if (packet.getLength() != (i & 0xFFFF) || packet.getTimeStamp() != i) {
+                    error.set("expected " + i + " but " + packet.getTimeStamp());
+                    return;
+                }
+                ring.remove();
+            }
+        });
+        consumer.start();
+
+        for (int i = 0; i < count; i++) {
+            RtpPacket packet;
+            while ((packet = ring.acquire(TimeUnit.MILLISECONDS.toNanos(100))) == null) {
+                // 返却されるまで待つ
+            }
+            packet.setLength(i & 0xFFFF);
+            packet.setTimeStamp(i);
+            ring.publish();
+        }
+
+        consumer.join(10000);
+        assertNull(error.get());
+        assertEquals(0, ring.size());
+    }
+}
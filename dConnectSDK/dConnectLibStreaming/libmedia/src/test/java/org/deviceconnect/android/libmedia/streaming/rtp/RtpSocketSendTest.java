@@ -0,0 +1,246 @@
+package org.deviceconnect.android.libmedia.streaming.rtp;
+
+import org.deviceconnect.android.libmedia.streaming.rtp.packet.H264Packetize;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * H264Packetize と RtpSocket を組み合わせた送信の確認.
+ *
+ * <p>
+ * 1080p30 の H.264 を想定したフレームを間隔を空けずにパケット化して、
+ * 送信用のスレッドが受け付けた全てのパケットを、シーケンス番号順にループバックに送信することを確認します。
+ * 送信用のスレッドが送信したパケット数で完了を待つので、処理速度に依存せずに結果が決まります。
+ * 送信の性能は計測しません。
+ * </p>
+ */
+public class RtpSocketSendTest {
+    /**
+     * I フレームのサイズ (約 8Mbps の 1080p30 の I フレーム相当).
+     */
+    private static final int I_FRAME_SIZE = 120 * 1024;
+
+    /**
+     * P フレームのサイズ.
+     */
+    private static final int P_FRAME_SIZE = 30 * 1024;
+
+    /**
+     * GOP のフレーム数.
+     */
+    private static final int GOP = 30;
+
+    /**
+     * 送信するフレーム数.
+     */
+    private static final int FRAMES = 900;
+
+    /**
+     * RTP を送信する interleaved のチャンネル番号.
+     */
+    private static final int RTP_CHANNEL = 0;
+
+    /**
+     * RTCP を送信する interleaved のチャンネル番号.
+     */
+    private static final int RTCP_CHANNEL = 1;
+
+    /**
+     * 送信の完了を待つ最大時間(秒).
+     */
+    private static final long TIMEOUT = 30;
+
+    /**
+     * パケット化したフレームを送信する。
+     * <pre>
+     * 【期待する動作】
+     * ・送信用のバッファが受け付けたパケットが全て送信されること。
+     * ・パケットがシーケンス番号順に送信されること。
+     * </pre>
+     */
+    @Test
+    public void sendInOrder() throws Exception {
+        send(null);
+    }
+
+    /**
+     * 送信先への書き込みが止まっている間にパケット化したフレームを送信する。
+     * <pre>
+     * 【期待する動作】
+     * ・送信用のバッファに空きがない間のパケットは、送信を待たずに破棄されること。
+     * ・書き込みが再開した後に、送信用のバッファが受け付けたパケットが全て送信されること。
+     * </pre>
+     */
+    @Test
+    public void discardWhileSenderIsBlocked() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        long discarded = send(gate);
+        assertTrue(discarded > 0);
+    }
+
+    /**
+     * フレームをパケット化して送信し、送信用のバッファが受け付けたパケットが全てシーケンス番号順に送信されたことを確認します.
+     *
+     * @param gate null 以外の場合は、フレームのパケット化が終わるまで送信先への書き込みを止める
+     * @return 送信用のバッファに空きがなく破棄したパケット数
+     */
+    private long send(CountDownLatch gate) throws Exception {
+        byte[] iFrame = createFrame(I_FRAME_SIZE, 0x65);
+        byte[] pFrame = createFrame(P_FRAME_SIZE, 0x41);
+
+        // 送信先として受信しないソケットのポートを使用する
+        DatagramSocket sink = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        SinkWriter writer = new SinkWriter(new InetSocketAddress(InetAddress.getLoopbackAddress(), sink.getLocalPort()), gate);
+        final RtpSocket socket = new RtpSocket(InetAddress.getLoopbackAddress(), sink.getLocalPort(), sink.getLocalPort());
+        // 送信用のスレッドが送信したパケットを数えるために、送信は SinkWriter から行う
+        socket.setInterleaved(writer, RTP_CHANNEL, RTCP_CHANNEL);
+
+        final long[] produced = new long[1];
+        H264Packetize packetize = new H264Packetize();
+        packetize.setCallback(new RtpPacketize.Callback() {
+            @Override
+            public RtpPacket getRtpPacket() {
+                return socket.getRtpPacket();
+            }
+
+            @Override
+            public void send(RtpPacket packet) {
+                produced[0]++;
+                socket.send(packet);
+            }
+        });
+        packetize.setSsrc(socket.getSsrc());
+        socket.open();
+
+        try {
+            for (int i = 0; i < FRAMES; i++) {
+                byte[] frame = (i % GOP == 0) ? iFrame : pFrame;
+                packetize.write(frame, frame.length, i * 33333L);
+            }
+            if (gate != null) {
+                gate.countDown();
+            }
+
+            // 送信用のバッファに空きがなく破棄したパケットは送信されない
+            long discarded = socket.getDiscardedCount();
+            long accepted = produced[0] - discarded;
+            assertTrue(accepted > 0);
+            assertTrue(writer.mSent.tryAcquire((int) accepted, TIMEOUT, TimeUnit.SECONDS));
+            assertEquals(0, writer.mOutOfOrderCount);
+            assertEquals(accepted, writer.mSentCount);
+            return discarded;
+        } finally {
+            if (gate != null) {
+                gate.countDown();
+            }
+            socket.close();
+            writer.close();
+            sink.close();
+        }
+    }
+
+    private static byte[] createFrame(int size, int nalHeader) {
+        byte[] frame = new byte[size];
+        new Random(size).nextBytes(frame);
+        frame[0] = 0x00;
+        frame[1] = 0x00;
+        frame[2] = 0x00;
+        frame[3] = 0x01;
+        frame[4] = (byte) nalHeader;
+        return frame;
+    }
+
+    /**
+     * 送信用のスレッドから渡された RTP パケットをループバックに送信して、送信したパケットを数えるクラス.
+     */
+    private static class SinkWriter implements RtpSocket.InterleavedWriter {
+        /**
+         * 送信したパケットごとに解放するセマフォ.
+         */
+        private final Semaphore mSent = new Semaphore(0);
+
+        /**
+         * 書き込みを止めるためのラッチ.
+         */
+        private final CountDownLatch mGate;
+
+        /**
+         * 送信先.
+         */
+        private final InetSocketAddress mAddress;
+
+        /**
+         * 送信用のチャンネル.
+         */
+        private final DatagramChannel mChannel;
+
+        /**
+         * 送信したパケット数.
+         */
+        private volatile long mSentCount;
+
+        /**
+         * シーケンス番号が前のパケットより小さかったパケット数.
+         */
+        private volatile long mOutOfOrderCount;
+
+        /**
+         * 前回送信したパケットのシーケンス番号.
+         */
+        private int mLastSequenceNumber = -1;
+
+        SinkWriter(InetSocketAddress address, CountDownLatch gate) throws IOException {
+            mAddress = address;
+            mGate = gate;
+            mChannel = DatagramChannel.open();
+        }
+
+        @Override
+        public boolean writeInterleaved(int channel, byte[] data, int dataLength) {
+            if (channel != RTP_CHANNEL) {
+                return true;
+            }
+
+            if (mGate != null) {
+                try {
+                    mGate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            int seq = ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+            if (mLastSequenceNumber != -1 && (short) (seq - mLastSequenceNumber) <= 0) {
+                mOutOfOrderCount++;
+            }
+            mLastSequenceNumber = seq;
+
+            try {
+                mChannel.send(ByteBuffer.wrap(data, 0, dataLength), mAddress);
+            } catch (IOException e) {
+                // ignore.
+            }
+            mSentCount++;
+            mSent.release();
+            return true;
+        }
+
+        void close() throws IOException {
+            mChannel.close();
+        }
+    }
+}
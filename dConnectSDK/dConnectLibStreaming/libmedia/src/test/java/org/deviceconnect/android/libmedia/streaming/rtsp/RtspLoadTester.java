@@ -0,0 +1,437 @@
+package org.deviceconnect.android.libmedia.streaming.rtsp;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RTSP サーバの負荷試験を行うツール.
+ *
+ * <p>
+ * 指定した数のセッションを同時に接続して、OPTIONS、DESCRIBE、SETUP、PLAY を行い、
+ * 指定した時間だけ RTP を受信してから TEARDOWN します。
+ * 各リクエストの応答時間と受信した RTP のパケット数を出力します。
+ * </p>
+ *
+ * <p>
+ * Android 端末で動作している RTSP サーバに対して、PC から実行します。
+ * </p>
+ * <pre>
+ * java RtspLoadTester &lt;host&gt; &lt;port&gt; [sessions=100] [udp|tcp] [seconds=10]
+ * </pre>
+ */
+public class RtspLoadTester {
+    /**
+     * RTSP のレスポンスを待つ最大時間(ミリ秒).
+     */
+    private static final int RESPONSE_TIMEOUT = 10000;
+
+    /**
+     * 接続先のホスト.
+     */
+    private final String mHost;
+
+    /**
+     * 接続先のポート番号.
+     */
+    private final int mPort;
+
+    /**
+     * RTP over TCP で受信するフラグ.
+     */
+    private final boolean mTcp;
+
+    /**
+     * RTP を受信する時間(ミリ秒).
+     */
+    private final long mDuration;
+
+    /**
+     * リクエストのメソッドごとの応答時間(ミリ秒)のリスト.
+     */
+    private final Map<String, List<Long>> mLatencies = new HashMap<>();
+
+    /**
+     * PLAY まで成功したセッション数.
+     */
+    private final AtomicInteger mSucceeded = new AtomicInteger();
+
+    /**
+     * 失敗したセッション数.
+     */
+    private final AtomicInteger mFailed = new AtomicInteger();
+
+    /**
+     * 受信した RTP パケット数.
+     */
+    private final AtomicLong mPackets = new AtomicLong();
+
+    /**
+     * 受信した RTP のバイト数.
+     */
+    private final AtomicLong mBytes = new AtomicLong();
+
+    /**
+     * コンストラクタ.
+     *
+     * @param host 接続先のホスト
+     * @param port 接続先のポート番号
+     * @param tcp RTP over TCP で受信する場合はtrue、UDP の場合はfalse
+     * @param duration RTP を受信する時間(ミリ秒)
+     */
+    public RtspLoadTester(String host, int port, boolean tcp, long duration) {
+        mHost = host;
+        mPort = port;
+        mTcp = tcp;
+        mDuration = duration;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: RtspLoadTester <host> <port> [sessions=100] [udp|tcp] [seconds=10]");
+            return;
+        }
+
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int sessions = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        boolean tcp = args.length > 3 && "tcp".equalsIgnoreCase(args[3]);
+        long seconds = args.length > 4 ? Long.parseLong(args[4]) : 10;
+
+        RtspLoadTester tester = new RtspLoadTester(host, port, tcp, TimeUnit.SECONDS.toMillis(seconds));
+        tester.run(sessions);
+        tester.printResult(System.out);
+    }
+
+    /**
+     * 指定された数のセッションを同時に実行して、全てのセッションが終了するまで待ちます.
+     *
+     * @param sessions セッション数
+     * @throws InterruptedException 待っている間に割り込まれた場合に発生
+     */
+    public void run(int sessions) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    runSession();
+                } catch (Exception e) {
+                    mFailed.incrementAndGet();
+                }
+            });
+            thread.setName("RTSP-LOAD-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * 結果を出力します.
+     *
+     * @param out 出力先
+     */
+    public void printResult(java.io.PrintStream out) {
+        out.println("sessions: succeeded=" + mSucceeded.get() + ", failed=" + mFailed.get());
+        synchronized (mLatencies) {
+            for (Map.Entry<String, List<Long>> entry : mLatencies.entrySet()) {
+                List<Long> values = entry.getValue();
+                Collections.sort(values);
+                long sum = 0;
+                for (long value : values) {
+                    sum += value;
+                }
+                out.println(String.format(Locale.US, "%-9s count=%d avg=%dms p50=%dms p95=%dms max=%dms",
+                        entry.getKey(), values.size(), sum / values.size(),
+                        values.get(values.size() / 2),
+                        values.get(Math.min(values.size() - 1, values.size() * 95 / 100)),
+                        values.get(values.size() - 1)));
+            }
+        }
+        out.println("rtp: packets=" + mPackets.get() + ", bytes=" + mBytes.get());
+    }
+
+    /**
+     * 1つのセッションを実行します.
+     *
+     * @throws IOException 通信に失敗した場合に発生
+     */
+    private void runSession() throws IOException {
+        List<DatagramSocket> udpSockets = new ArrayList<>();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(mHost, mPort), RESPONSE_TIMEOUT);
+            socket.setSoTimeout(RESPONSE_TIMEOUT);
+            socket.setTcpNoDelay(true);
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String url = "rtsp://" + mHost + ":" + mPort;
+            int cseq = 1;
+
+            request(in, out, "OPTIONS", url, cseq++, null);
+
+            Response describe = request(in, out, "DESCRIBE", url, cseq++, "Accept: application/sdp\r\n");
+            List<String> tracks = new ArrayList<>();
+            for (String line : describe.mContent.split("\r?\n")) {
+                if (line.startsWith("a=control:")) {
+                    tracks.add(line.substring("a=control:".length()).trim());
+                }
+            }
+            if (tracks.isEmpty()) {
+                throw new IOException("No track.");
+            }
+
+            String session = null;
+            for (int i = 0; i < tracks.size(); i++) {
+                String transport;
+                if (mTcp) {
+                    transport = "RTP/AVP/TCP;unicast;interleaved=" + (i * 2) + "-" + (i * 2 + 1);
+                } else {
+                    DatagramSocket rtp = new DatagramSocket(0);
+                    DatagramSocket rtcp = new DatagramSocket(0);
+                    udpSockets.add(rtp);
+                    udpSockets.add(rtcp);
+                    transport = "RTP/AVP/UDP;unicast;client_port=" + rtp.getLocalPort() + "-" + rtcp.getLocalPort();
+                }
+                String headers = "Transport: " + transport + "\r\n";
+                if (session != null) {
+                    headers += "Session: " + session + "\r\n";
+                }
+                Response setup = request(in, out, "SETUP", url + "/" + tracks.get(i), cseq++, headers);
+                if (session == null) {
+                    session = setup.mHeaders.get("session");
+                }
+            }
+
+            request(in, out, "PLAY", url, cseq++, session != null ? "Session: " + session + "\r\n" : null);
+            mSucceeded.incrementAndGet();
+
+            long end = System.currentTimeMillis() + mDuration;
+            if (mTcp) {
+                socket.setSoTimeout(500);
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        readInterleaved(in);
+                    } catch (SocketTimeoutException e) {
+                        // ignore.
+                    }
+                }
+                socket.setSoTimeout(RESPONSE_TIMEOUT);
+            } else {
+                receiveUdp(udpSockets, end);
+            }
+
+            request(in, out, "TEARDOWN", url, cseq, session != null ? "Session: " + session + "\r\n" : null);
+        } finally {
+            for (DatagramSocket s : udpSockets) {
+                s.close();
+            }
+        }
+    }
+
+    /**
+     * UDP で RTP を受信します.
+     *
+     * @param sockets 受信するソケットのリスト
+     * @param end 受信を終了する時刻
+     * @throws IOException 受信に失敗した場合に発生
+     */
+    private void receiveUdp(List<DatagramSocket> sockets, long end) throws IOException {
+        byte[] buf = new byte[2048];
+        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        for (DatagramSocket s : sockets) {
+            s.setSoTimeout(1);
+        }
+        while (System.currentTimeMillis() < end) {
+            // RTCP のソケットは偶数番目以外なので読み飛ばす
+            for (int i = 0; i < sockets.size(); i += 2) {
+                try {
+                    packet.setLength(buf.length);
+                    sockets.get(i).receive(packet);
+                    mPackets.incrementAndGet();
+                    mBytes.addAndGet(packet.getLength());
+                } catch (SocketTimeoutException e) {
+                    // ignore.
+                }
+            }
+        }
+    }
+
+    /**
+     * RTSP のリクエストを送信して、レスポンスを受信します.
+     *
+     * @param in 入力ストリーム
+     * @param out 出力ストリーム
+     * @param method メソッド
+     * @param url URL
+     * @param cseq シーケンス番号
+     * @param headers 追加するヘッダ
+     * @return レスポンス
+     * @throws IOException 通信に失敗した場合、またはステータスコードが 200 以外の場合に発生
+     */
+    private Response request(InputStream in, OutputStream out, String method, String url,
+                             int cseq, String headers) throws IOException {
+        String request = method + " " + url + " RTSP/1.0\r\n"
+                + "CSeq: " + cseq + "\r\n"
+                + (headers != null ? headers : "")
+                + "\r\n";
+
+        long start = System.nanoTime();
+        out.write(request.getBytes());
+        out.flush();
+
+        Response response;
+        do {
+            response = readResponse(in);
+        } while (response == null);
+        addLatency(method, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        if (response.mStatus != 200) {
+            throw new IOException(method + " failed: " + response.mStatus);
+        }
+        return response;
+    }
+
+    /**
+     * レスポンスを受信します.
+     *
+     * <p>
+     * interleaved のデータを受信した場合は、RTP のパケットとして数えて null を返却します。
+     * </p>
+     *
+     * @param in 入力ストリーム
+     * @return レスポンス
+     * @throws IOException 受信に失敗した場合に発生
+     */
+    private Response readResponse(InputStream in) throws IOException {
+        in.mark(1);
+        int first = in.read();
+        if (first == -1) {
+            throw new EOFException();
+        }
+        in.reset();
+        if (first == '$') {
+            readInterleaved(in);
+            return null;
+        }
+
+        Response response = new Response();
+        String statusLine = readLine(in);
+        String[] status = statusLine.split(" ");
+        if (status.length < 2) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+        response.mStatus = Integer.parseInt(status[1]);
+
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int index = line.indexOf(':');
+            if (index > 0) {
+                response.mHeaders.put(line.substring(0, index).trim().toLowerCase(Locale.US),
+                        line.substring(index + 1).trim());
+            }
+        }
+
+        String length = response.mHeaders.get("content-length");
+        if (length != null) {
+            byte[] content = new byte[Integer.parseInt(length)];
+            readFully(in, content, content.length);
+            response.mContent = new String(content);
+        }
+        return response;
+    }
+
+    /**
+     * interleaved のデータを1つ受信します.
+     *
+     * @param in 入力ストリーム
+     * @throws IOException 受信に失敗した場合に発生
+     */
+    private void readInterleaved(InputStream in) throws IOException {
+        byte[] header = new byte[4];
+        readFully(in, header, 4);
+        if (header[0] != '$') {
+            throw new IOException("Invalid interleaved data.");
+        }
+        int channel = header[1] & 0xFF;
+        int length = ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+        byte[] data = new byte[length];
+        readFully(in, data, length);
+
+        // 偶数のチャンネルが RTP
+        if (channel % 2 == 0) {
+            mPackets.incrementAndGet();
+            mBytes.addAndGet(length);
+        }
+    }
+
+    private void addLatency(String method, long latency) {
+        synchronized (mLatencies) {
+            List<Long> values = mLatencies.get(method);
+            if (values == null) {
+                values = new ArrayList<>();
+                mLatencies.put(method, values);
+            }
+            values.add(latency);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) {
+                throw new EOFException();
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        return line.toString();
+    }
+
+    private static void readFully(InputStream in, byte[] buf, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int len = in.read(buf, offset, length - offset);
+            if (len == -1) {
+                throw new EOFException();
+            }
+            offset += len;
+        }
+    }
+
+    /**
+     * RTSP のレスポンス.
+     */
+    private static class Response {
+        private int mStatus;
+        private final Map<String, String> mHeaders = new HashMap<>();
+        private String mContent = "";
+    }
+}
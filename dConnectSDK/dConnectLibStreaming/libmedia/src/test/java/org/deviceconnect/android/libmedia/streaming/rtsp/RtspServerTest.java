@@ -0,0 +1,155 @@
+package org.deviceconnect.android.libmedia.streaming.rtsp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RtspServer のリクエストの受信のテスト.
+ *
+ * <p>
+ * ループバックで接続したソケットからリクエストを送信して、レスポンスと接続の状態を確認します。
+ * </p>
+ */
+public class RtspServerTest {
+    /**
+     * レスポンスを待つ最大時間(ミリ秒).
+     */
+    private static final int TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+
+    private RtspServer mServer;
+    private int mPort;
+
+    @Before
+    public void setUp() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            mPort = socket.getLocalPort();
+        }
+        mServer = new RtspServer();
+        mServer.setServerPort(mPort);
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    /**
+     * 本文のあるリクエストの本文が読み捨てられ、続くリクエストが処理されること.
+     */
+    @Test
+    public void skipContent() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, "OPTIONS rtsp://localhost/ RTSP/1.0\r\nCSeq: 1\r\nContent-Length: 5\r\n\r\nhello"
+                    + "OPTIONS rtsp://localhost/ RTSP/1.0\r\nCSeq: 2\r\n\r\n");
+
+            InputStream in = socket.getInputStream();
+            String first = readResponse(in);
+            assertTrue(first, first.startsWith("RTSP/1.0 200"));
+            assertTrue(first, first.toLowerCase().contains("cseq: 1"));
+            String second = readResponse(in);
+            assertTrue(second, second.startsWith("RTSP/1.0 200"));
+            assertTrue(second, second.toLowerCase().contains("cseq: 2"));
+        }
+    }
+
+    /**
+     * 負の Content-Length のリクエストに 400 が返却されて切断されること.
+     */
+    @Test
+    public void negativeContentLength() throws IOException {
+        assertBadRequestAndClosed("-1");
+        assertServerAlive();
+    }
+
+    /**
+     * 最大サイズを超える Content-Length のリクエストに 400 が返却されて切断されること.
+     */
+    @Test
+    public void tooLargeContentLength() throws IOException {
+        assertBadRequestAndClosed(String.valueOf(Integer.MAX_VALUE));
+        assertServerAlive();
+    }
+
+    /**
+     * 数値ではない Content-Length のリクエストに 400 が返却されて切断されること.
+     */
+    @Test
+    public void invalidContentLength() throws IOException {
+        assertBadRequestAndClosed("99999999999");
+        assertBadRequestAndClosed("abc");
+        assertServerAlive();
+    }
+
+    private void assertBadRequestAndClosed(String contentLength) throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, "OPTIONS rtsp://localhost/ RTSP/1.0\r\nCSeq: 1\r\nContent-Length: " + contentLength
+                    + "\r\n\r\nOPTIONS rtsp://localhost/ RTSP/1.0\r\nCSeq: 2\r\n\r\n");
+
+            InputStream in = socket.getInputStream();
+            String response = readResponse(in);
+            assertTrue(response, response.startsWith("RTSP/1.0 400"));
+            // 続くリクエストは処理されずに切断される
+            assertEquals(-1, in.read());
+        }
+    }
+
+    /**
+     * 別の接続からのリクエストが処理されることを確認します.
+     */
+    private void assertServerAlive() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, "OPTIONS rtsp://localhost/ RTSP/1.0\r\nCSeq: 3\r\n\r\n");
+            String response = readResponse(socket.getInputStream());
+            assertTrue(response, response.startsWith("RTSP/1.0 200"));
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress("localhost", mPort), TIMEOUT);
+        socket.setSoTimeout(TIMEOUT);
+        return socket;
+    }
+
+    private static void send(Socket socket, String request) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(request.getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    /**
+     * 空行までのレスポンスを読み込みます.
+     *
+     * @param in 入力ストリーム
+     * @return レスポンス
+     * @throws IOException 読み込みに失敗した場合に発生
+     */
+    private static String readResponse(InputStream in) throws IOException {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        int matched = 0;
+        byte[] end = {'\r', '\n', '\r', '\n'};
+        while (matched < end.length) {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("Unexpected end of stream.");
+            }
+            response.write(b);
+            matched = (b == end[matched]) ? matched + 1 : (b == end[0] ? 1 : 0);
+        }
+        return response.toString("US-ASCII");
+    }
+}
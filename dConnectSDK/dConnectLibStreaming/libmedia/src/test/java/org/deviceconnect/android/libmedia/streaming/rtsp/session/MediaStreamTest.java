@@ -0,0 +1,168 @@
+package org.deviceconnect.android.libmedia.streaming.rtsp.session;
+
+import org.deviceconnect.android.libmedia.streaming.rtp.RtpPacketize;
+import org.deviceconnect.android.libmedia.streaming.rtp.RtpSocket;
+import org.deviceconnect.android.libmedia.streaming.rtp.packet.H264Packetize;
+import org.deviceconnect.android.libmedia.streaming.sdp.MediaDescription;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MediaStream の GOP のキャッシュの送信のテスト.
+ */
+public class MediaStreamTest {
+    /**
+     * I フレームのサイズ.
+     */
+    private static final int I_FRAME_SIZE = 120 * 1024;
+
+    /**
+     * P フレームのサイズ.
+     */
+    private static final int P_FRAME_SIZE = 60 * 1024;
+
+    /**
+     * 送信の完了を待つ最大時間(ミリ秒).
+     */
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private final byte[] mIFrame = createFrame(I_FRAME_SIZE, 0x65);
+    private final byte[] mPFrame = createFrame(P_FRAME_SIZE, 0x41);
+
+    private TestMediaStream mStream;
+    private GatedWriter mWriter;
+    private RtpSocket mSocket;
+
+    @Before
+    public void setUp() throws IOException {
+        mStream = new TestMediaStream();
+        mStream.setGopCacheEnabled(true);
+        mWriter = new GatedWriter();
+        mSocket = new RtpSocket(InetAddress.getLoopbackAddress(), 9, 9);
+        mSocket.setInterleaved(mWriter, 0, 1);
+    }
+
+    @After
+    public void tearDown() {
+        mWriter.open();
+        mStream.release();
+    }
+
+    /**
+     * 送信用のバッファに収まらない GOP が、フレームを書き込むたびに続きから送信されること.
+     */
+    @Test
+    public void replayLargeGopProgressively() throws Exception {
+        // 送信用のバッファ (512 パケット) に収まらない GOP
+        mStream.writePacket(mIFrame, mIFrame.length, 0, true);
+        for (int i = 1; i <= 10; i++) {
+            mStream.writePacket(mPFrame, mPFrame.length, i, false);
+        }
+
+        mStream.addRtpSocket(mSocket);
+        assertEquals(-1, mStream.getTimeToFirstFrame());
+
+        mWriter.open();
+        for (int i = 11; mStream.getTimeToFirstFrame() < 0 && i < 100; i++) {
+            waitForDrain();
+            mStream.writePacket(mPFrame, mPFrame.length, i, false);
+        }
+
+        assertTrue(mStream.getTimeToFirstFrame() >= 0);
+        assertEquals(0, mSocket.getDiscardedCount());
+    }
+
+    /**
+     * GOP の送信中にキーフレームが来た場合は、送信を中止してキーフレームから送信すること.
+     */
+    @Test
+    public void keyFrameDuringReplay() throws Exception {
+        mStream.writePacket(mIFrame, mIFrame.length, 0, true);
+        for (int i = 1; i <= 10; i++) {
+            mStream.writePacket(mPFrame, mPFrame.length, i, false);
+        }
+
+        mStream.addRtpSocket(mSocket);
+        assertEquals(-1, mStream.getTimeToFirstFrame());
+
+        mWriter.open();
+        waitForDrain();
+        mStream.writePacket(mIFrame, mIFrame.length, 11, true);
+
+        assertTrue(mStream.getTimeToFirstFrame() >= 0);
+        assertEquals(0, mSocket.getDiscardedCount());
+    }
+
+    /**
+     * 送信用のバッファが空になるまで待ちます.
+     */
+    private void waitForDrain() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (mSocket.getAvailablePacketCount() < 512) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static byte[] createFrame(int size, int nalHeader) {
+        byte[] frame = new byte[size];
+        new Random(size).nextBytes(frame);
+        frame[0] = 0x00;
+        frame[1] = 0x00;
+        frame[2] = 0x00;
+        frame[3] = 0x01;
+        frame[4] = (byte) nalHeader;
+        return frame;
+    }
+
+    /**
+     * H.264 のパケット化を行う MediaStream.
+     */
+    private static class TestMediaStream extends MediaStream {
+        @Override
+        public RtpPacketize createRtpPacketize() {
+            return new H264Packetize();
+        }
+
+        @Override
+        public void configure() {
+        }
+
+        @Override
+        public MediaDescription getMediaDescription() {
+            return null;
+        }
+    }
+
+    /**
+     * 開くまで送信用のスレッドの書き込みを止めるクラス.
+     */
+    private static class GatedWriter implements RtpSocket.InterleavedWriter {
+        private final CountDownLatch mGate = new CountDownLatch(1);
+
+        void open() {
+            mGate.countDown();
+        }
+
+        @Override
+        public boolean writeInterleaved(int channel, byte[] data, int dataLength) {
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.deviceconnect.android.libmedia.streaming.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FrameRateLimiter のテスト.
+ */
+public class FrameRateLimiterTest {
+    /**
+     * 入力される映像のフレームレート.
+     */
+    private static final int INPUT_FRAME_RATE = 30;
+
+    /**
+     * 上限を設定していない場合は全てのフレームを入力すること.
+     */
+    @Test
+    public void unlimited() {
+        FrameRateLimiter limiter = new FrameRateLimiter();
+        assertEquals(INPUT_FRAME_RATE, countAccepted(limiter, 0, 0));
+    }
+
+    /**
+     * 30fps の入力を上限のフレームレートまで間引くこと.
+     */
+    @Test
+    public void limit() {
+        assertEquals(15, countAccepted(createLimiter(15), 0, 0));
+        assertEquals(20, countAccepted(createLimiter(20), 0, 0));
+        assertEquals(10, countAccepted(createLimiter(10), 0, 0));
+    }
+
+    /**
+     * 上限が入力のフレームレート以上の場合は間引かないこと.
+     */
+    @Test
+    public void limitAboveInput() {
+        assertEquals(INPUT_FRAME_RATE, countAccepted(createLimiter(INPUT_FRAME_RATE), 0, 0));
+        assertEquals(INPUT_FRAME_RATE, countAccepted(createLimiter(60), 0, 0));
+    }
+
+    /**
+     * 入力されるフレームの間隔に揺らぎがあっても上限のフレームレートになること.
+     */
+    @Test
+    public void jitter() {
+        int accepted = countAccepted(createLimiter(15), 0, TimeUnit.MILLISECONDS.toNanos(5));
+        assertTrue("accepted=" + accepted, accepted >= 14 && accepted <= 16);
+    }
+
+    /**
+     * 時刻が戻った場合は、そのフレームから数え直すこと.
+     */
+    @Test
+    public void timestampGoesBack() {
+        FrameRateLimiter limiter = createLimiter(15);
+        long start = TimeUnit.SECONDS.toNanos(100);
+        countAccepted(limiter, start, 0);
+
+        assertEquals(15, countAccepted(limiter, 0, 0));
+    }
+
+    /**
+     * 上限を解除した場合は全てのフレームを入力すること.
+     */
+    @Test
+    public void resetLimit() {
+        FrameRateLimiter limiter = createLimiter(15);
+        assertEquals(15, countAccepted(limiter, 0, 0));
+
+        limiter.setMaxFrameRate(0);
+        assertEquals(INPUT_FRAME_RATE, countAccepted(limiter, TimeUnit.SECONDS.toNanos(1), 0));
+    }
+
+    /**
+     * 負のフレームレートは設定できないこと.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeFrameRate() {
+        new FrameRateLimiter().setMaxFrameRate(-1);
+    }
+
+    private static FrameRateLimiter createLimiter(int frameRate) {
+        FrameRateLimiter limiter = new FrameRateLimiter();
+        limiter.setMaxFrameRate(frameRate);
+        return limiter;
+    }
+
+    /**
+     * 30fps のフレームを 1 秒分入力して、入力するフレーム数を数えます.
+     *
+     * @param limiter フレームを間引くクラス
+     * @param start 最初のフレームの時刻(ナノ秒)
+     * @param jitter フレームの時刻の揺らぎの最大値(ナノ秒). 偶数番目のフレームを遅らせ、奇数番目のフレームを早めます
+     * @return 入力するフレーム数
+     */
+    private static int countAccepted(FrameRateLimiter limiter, long start, long jitter) {
+        long interval = TimeUnit.SECONDS.toNanos(1) / INPUT_FRAME_RATE;
+        int accepted = 0;
+        for (int i = 0; i < INPUT_FRAME_RATE; i++) {
+            long timestamp = start + i * interval + (i % 2 == 0 ? jitter : -jitter);
+            if (limiter.accept(timestamp)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+}
@@ -0,0 +1,177 @@
+package org.deviceconnect.android.libmedia.streaming.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * GopCache のテスト.
+ */
+public class GopCacheTest {
+    /**
+     * キーフレームを受け取るまではフレームを保持しないこと.
+     */
+    @Test
+    public void ignoreFramesBeforeKeyFrame() throws IOException {
+        GopCache cache = new GopCache();
+        cache.add(new byte[] {1}, 0, 1, 0, false);
+        cache.add(new byte[] {2}, 0, 1, 1, false);
+
+        assertFalse(cache.isAvailable());
+        assertEquals(0, cache.getFrameCount());
+        assertFalse(cache.replay((data, length, pts) -> {
+            throw new AssertionError("replay must not be called.");
+        }));
+    }
+
+    /**
+     * 設定データ、キーフレーム、その後のフレームの順に通知されること.
+     */
+    @Test
+    public void replayFromLastKeyFrame() throws IOException {
+        GopCache cache = new GopCache();
+        cache.setConfig(new byte[] {9, 9, 9}, 1, 2);
+        cache.add(new byte[] {1}, 0, 1, 0, true);
+        cache.add(new byte[] {2}, 0, 1, 1, false);
+        cache.add(new byte[] {3}, 0, 1, 2, true);
+        cache.add(new byte[] {0, 4, 0}, 1, 1, 3, false);
+
+        List<String> frames = new ArrayList<>();
+        assertTrue(cache.replay((data, length, pts) -> frames.add(length + ":" + data[0] + "@" + pts)));
+        assertEquals(3, frames.size());
+        assertEquals("2:9@2", frames.get(0));
+        assertEquals("1:3@2", frames.get(1));
+        assertEquals("1:4@3", frames.get(2));
+        assertEquals(2, cache.getFrameCount());
+        assertEquals(2, cache.getSize());
+    }
+
+    /**
+     * 追加したデータを変更してもキャッシュに影響しないこと.
+     */
+    @Test
+    public void copyFrameData() throws IOException {
+        GopCache cache = new GopCache();
+        byte[] frame = {1, 2, 3};
+        cache.add(frame, 0, frame.length, 0, true);
+        frame[0] = 100;
+
+        byte[] replayed = new byte[1];
+        cache.replay((data, length, pts) -> replayed[0] = data[0]);
+        assertEquals(1, replayed[0]);
+    }
+
+    /**
+     * 最大フレーム数を超えた場合には、次のキーフレームまで無効になること.
+     */
+    @Test
+    public void invalidateOnFrameCountOverflow() {
+        GopCache cache = new GopCache(2, 1024);
+        cache.add(new byte[1], 0, 1, 0, true);
+        cache.add(new byte[1], 0, 1, 1, false);
+        assertTrue(cache.isAvailable());
+
+        cache.add(new byte[1], 0, 1, 2, false);
+        assertFalse(cache.isAvailable());
+        assertEquals(0, cache.getFrameCount());
+
+        cache.add(new byte[1], 0, 1, 3, false);
+        assertFalse(cache.isAvailable());
+
+        cache.add(new byte[1], 0, 1, 4, true);
+        assertTrue(cache.isAvailable());
+        assertEquals(1, cache.getFrameCount());
+    }
+
+    /**
+     * 最大サイズを超えた場合には、次のキーフレームまで無効になること.
+     */
+    @Test
+    public void invalidateOnSizeOverflow() {
+        GopCache cache = new GopCache(10, 100);
+        cache.add(new byte[60], 0, 60, 0, true);
+        cache.add(new byte[60], 0, 60, 1, false);
+        assertFalse(cache.isAvailable());
+        assertEquals(0, cache.getSize());
+    }
+
+    /**
+     * 設定データが変更された場合には、保持しているフレームを破棄すること.
+     */
+    @Test
+    public void invalidateOnConfigChanged() {
+        GopCache cache = new GopCache();
+        cache.setConfig(new byte[] {1, 2}, 0, 2);
+        cache.add(new byte[1], 0, 1, 0, true);
+
+        cache.setConfig(new byte[] {1, 2}, 0, 2);
+        assertTrue(cache.isAvailable());
+
+        cache.setConfig(new byte[] {1, 3}, 0, 2);
+        assertFalse(cache.isAvailable());
+        assertEquals(2, cache.getConfigLength());
+    }
+
+    /**
+     * 無効にした場合にはフレームを保持せず、設定データは保持すること.
+     */
+    @Test
+    public void disabled() {
+        GopCache cache = new GopCache();
+        cache.setEnabled(false);
+        cache.setConfig(new byte[] {1}, 0, 1);
+        cache.add(new byte[1], 0, 1, 0, true);
+
+        assertFalse(cache.isAvailable());
+        assertEquals(1, cache.getConfigLength());
+    }
+
+    /**
+     * 指定した位置のフレームが通知され、先頭のフレームでは設定データが先に通知されること.
+     */
+    @Test
+    public void replayByIndex() throws IOException {
+        GopCache cache = new GopCache();
+        cache.setConfig(new byte[] {9, 9}, 0, 2);
+        cache.add(new byte[] {1, 1, 1}, 0, 3, 0, true);
+        cache.add(new byte[] {2}, 0, 1, 1, false);
+
+        assertEquals(5, cache.getFrameSize(0));
+        assertEquals(1, cache.getFrameSize(1));
+
+        List<String> frames = new ArrayList<>();
+        cache.replay(0, (data, length, pts) -> frames.add(length + ":" + data[0] + "@" + pts));
+        cache.replay(1, (data, length, pts) -> frames.add(length + ":" + data[0] + "@" + pts));
+        assertEquals(3, frames.size());
+        assertEquals("2:9@0", frames.get(0));
+        assertEquals("3:1@0", frames.get(1));
+        assertEquals("1:2@1", frames.get(2));
+    }
+
+    /**
+     * 保持しているフレームを破棄した場合に世代が変わること.
+     */
+    @Test
+    public void generation() {
+        GopCache cache = new GopCache(2, 1024);
+        cache.add(new byte[1], 0, 1, 0, true);
+        int generation = cache.getGeneration();
+
+        cache.add(new byte[1], 0, 1, 1, false);
+        assertEquals(generation, cache.getGeneration());
+
+        cache.add(new byte[1], 0, 1, 2, true);
+        assertTrue(generation != cache.getGeneration());
+
+        generation = cache.getGeneration();
+        cache.add(new byte[1], 0, 1, 3, false);
+        cache.add(new byte[1], 0, 1, 4, false);
+        assertTrue(generation != cache.getGeneration());
+    }
+}
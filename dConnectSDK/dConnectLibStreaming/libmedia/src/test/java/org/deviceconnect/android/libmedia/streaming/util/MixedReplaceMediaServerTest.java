@@ -0,0 +1,267 @@
+package org.deviceconnect.android.libmedia.streaming.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MixedReplaceMediaServer のテスト.
+ *
+ * <p>
+ * ループバックで接続したソケットから、フレームの間引きと通信が進まないクライアントの切断を確認します。
+ * </p>
+ */
+public class MixedReplaceMediaServerTest {
+    /**
+     * テストで使用するパス.
+     */
+    private static final String PATH = "test";
+
+    /**
+     * 送信するフレームのサイズ.
+     *
+     * <p>
+     * 受信しないクライアントのソケットのバッファが一杯になるように大きくします。
+     * </p>
+     */
+    private static final int FRAME_SIZE = 512 * 1024;
+
+    /**
+     * 非同期の処理を待つ最大時間(秒).
+     */
+    private static final long TIMEOUT = 10;
+
+    private MixedReplaceMediaServer mServer;
+    private CountDownLatch mClosed;
+    private int mPort;
+
+    @Before
+    public void setUp() {
+        mClosed = new CountDownLatch(1);
+        mServer = new MixedReplaceMediaServer();
+        mServer.setPath(PATH);
+        mServer.setCallback(new MixedReplaceMediaServer.Callback() {
+            @Override
+            public boolean onAccept(Socket socket) {
+                return true;
+            }
+
+            @Override
+            public void onClosed(Socket socket) {
+                mClosed.countDown();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    /**
+     * 受信しないクライアントにはフレームが間引かれ、受信を再開すると最新のフレームまで順に届くこと.
+     */
+    @Test
+    public void skipFramesForSlowClient() throws Exception {
+        start();
+        int frames = 50;
+        try (Socket socket = connect()) {
+            InputStream in = socket.getInputStream();
+            assertTrue(readHeader(in).startsWith("HTTP/1.0 200"));
+
+            for (int i = 0; i < frames; i++) {
+                mServer.offerMedia(createFrame(i));
+            }
+            long skipped = mServer.getSkippedFrameCount();
+            assertTrue(skipped > 0);
+
+            int received = 0;
+            int last = -1;
+            while (last != frames - 1) {
+                byte[] media = readPart(in);
+                int index = getIndex(media);
+                assertTrue(index > last);
+                assertEquals(FRAME_SIZE, media.length);
+                last = index;
+                received++;
+            }
+            // 間引かれなかったフレームは全て届く
+            assertEquals(frames - skipped, received);
+        }
+    }
+
+    /**
+     * リクエストを送信しないクライアントが切断されること.
+     */
+    @Test
+    public void closeClientWithoutRequest() throws Exception {
+        mServer.setIdleTimeout(200);
+        start();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", mPort));
+            socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT));
+            assertEquals(-1, socket.getInputStream().read());
+        }
+        assertTrue(waitForNoConnection());
+    }
+
+    /**
+     * フレームの送信が進まないクライアントが切断されること.
+     */
+    @Test
+    public void closeStalledClient() throws Exception {
+        mServer.setIdleTimeout(300);
+        start();
+        try (Socket socket = connect()) {
+            assertTrue(readHeader(socket.getInputStream()).startsWith("HTTP/1.0 200"));
+
+            // カメラと同じように一定間隔でフレームを渡し続けて、ソケットのバッファを一杯にする
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT);
+            int index = 0;
+            while (!mClosed.await(10, TimeUnit.MILLISECONDS)) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                mServer.offerMedia(createFrame(index++));
+            }
+        }
+        assertTrue(waitForNoConnection());
+    }
+
+    /**
+     * 送信するフレームを待っているだけのクライアントは切断されないこと.
+     */
+    @Test
+    public void keepClientWaitingForFrames() throws Exception {
+        mServer.setIdleTimeout(200);
+        start();
+        try (Socket socket = connect()) {
+            InputStream in = socket.getInputStream();
+            assertTrue(readHeader(in).startsWith("HTTP/1.0 200"));
+
+            Thread.sleep(1000);
+            assertEquals(1, mServer.getConnectionCount());
+
+            mServer.offerMedia(createFrame(7));
+            assertEquals(7, getIndex(readPart(in)));
+        }
+    }
+
+    /**
+     * 切断するまでの時間に負の値を設定できないこと.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidIdleTimeout() {
+        mServer.setIdleTimeout(-1);
+    }
+
+    private void start() throws Exception {
+        String url = mServer.start();
+        assertNotNull(url);
+        mPort = new URI(url).getPort();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        // サーバからの送信が詰まるように、受信バッファを小さくする
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new InetSocketAddress("localhost", mPort));
+        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT));
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET /" + PATH + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes("US-ASCII"));
+        out.flush();
+        return socket;
+    }
+
+    private boolean waitForNoConnection() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT);
+        while (mServer.getConnectionCount() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static byte[] createFrame(int index) {
+        byte[] frame = new byte[FRAME_SIZE];
+        frame[0] = (byte) (index >> 24);
+        frame[1] = (byte) (index >> 16);
+        frame[2] = (byte) (index >> 8);
+        frame[3] = (byte) index;
+        return frame;
+    }
+
+    private static int getIndex(byte[] media) {
+        return ((media[0] & 0xFF) << 24) | ((media[1] & 0xFF) << 16) | ((media[2] & 0xFF) << 8) | (media[3] & 0xFF);
+    }
+
+    /**
+     * 空行までのヘッダを読み込みます.
+     *
+     * @param in 入力ストリーム
+     * @return ヘッダ
+     * @throws IOException 読み込みに失敗した場合に発生
+     */
+    private static String readHeader(InputStream in) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        int matched = 0;
+        byte[] end = {'\r', '\n', '\r', '\n'};
+        while (matched < end.length) {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("Unexpected end of stream.");
+            }
+            header.write(b);
+            matched = (b == end[matched]) ? matched + 1 : (b == end[0] ? 1 : 0);
+        }
+        return header.toString("US-ASCII");
+    }
+
+    /**
+     * マルチパートのパートを1つ読み込みます.
+     *
+     * @param in 入力ストリーム
+     * @return パートのデータ
+     * @throws IOException 読み込みに失敗した場合に発生
+     */
+    private static byte[] readPart(InputStream in) throws IOException {
+        int length = -1;
+        for (String line : readHeader(in).split("\r\n")) {
+            if (line.startsWith("Content-Length: ")) {
+                length = Integer.parseInt(line.substring("Content-Length: ".length()));
+            }
+        }
+        assertTrue(length >= 0);
+
+        byte[] media = new byte[length];
+        readFully(in, media);
+        // パートの末尾
+        readFully(in, new byte[4]);
+        return media;
+    }
+
+    private static void readFully(InputStream in, byte[] buf) throws IOException {
+        int offset = 0;
+        while (offset < buf.length) {
+            int len = in.read(buf, offset, buf.length - offset);
+            if (len == -1) {
+                throw new IOException("Unexpected end of stream.");
+            }
+            offset += len;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.deviceconnect.android.libmedia.streaming.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * UDPPacer のテスト.
+ *
+ * <p>
+ * 時刻は {@link FakeClock} で進めるので、実行環境の速度に依存せずに送信時刻を確認します。
+ * </p>
+ */
+public class UDPPacerTest {
+    /**
+     * 送信時刻の計算の誤差として許容する時間(ナノ秒).
+     */
+    private static final long DELTA = 10;
+
+    private FakeClock mClock;
+    private UDPPacer mPacer;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock();
+        mPacer = new UDPPacer(mClock);
+    }
+
+    /**
+     * 送信レートを計測するまでは待たないこと.
+     */
+    @Test
+    public void noWaitBeforeMeasurement() {
+        for (int i = 0; i < 100; i++) {
+            assertFalse(mPacer.await(1200));
+            mPacer.onSent(1200);
+            mClock.advance(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertEquals(0, mPacer.getPacingRate());
+        assertTrue(mClock.mParks.isEmpty());
+    }
+
+    /**
+     * 計測した送信レートに係数を掛けたレートで、パケットが分散して送信されること.
+     */
+    @Test
+    public void spreadPackets() {
+        mPacer.setPacingFactor(2.0f);
+        measure(125000);
+
+        // 1秒間に 125000 バイト (1Mbps) 送信したので 2Mbps で送信する
+        assertEquals(2000000, mPacer.getPacingRate(), 1);
+
+        // 2Mbps で 1250 バイトのパケットは 5ms 間隔になる
+        // 最初の 2 パケットは、遡って許容する連続送信(最大 5ms)で待たずに送信する
+        assertFalse(mPacer.await(1250));
+        mPacer.onSent(1250);
+        assertFalse(mPacer.await(1250));
+        mPacer.onSent(1250);
+        for (int i = 2; i < 20; i++) {
+            assertTrue(mPacer.await(1250));
+            mPacer.onSent(1250);
+        }
+
+        assertEquals(18, mClock.mParks.size());
+        for (long park : mClock.mParks) {
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(5), park, DELTA);
+        }
+    }
+
+    /**
+     * 送信が遅れた場合でも、遡って連続送信するのは 5ms 分までに制限されること.
+     */
+    @Test
+    public void limitBurstAfterDelay() {
+        mPacer.setPacingFactor(2.0f);
+        measure(125000);
+
+        for (int i = 0; i < 4; i++) {
+            mPacer.await(1250);
+            mPacer.onSent(1250);
+        }
+        // 送信するパケットがない間に 100ms 経過した
+        mClock.advance(TimeUnit.MILLISECONDS.toNanos(100));
+        mClock.mParks.clear();
+
+        assertFalse(mPacer.await(1250));
+        mPacer.onSent(1250);
+        assertFalse(mPacer.await(1250));
+        mPacer.onSent(1250);
+        assertTrue(mPacer.await(1250));
+        assertEquals(1, mClock.mParks.size());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), mClock.mParks.get(0), DELTA);
+    }
+
+    /**
+     * 送信レートが1秒ごとに計測し直されること.
+     */
+    @Test
+    public void remeasureRate() {
+        mPacer.setPacingFactor(2.0f);
+        measure(125000);
+        assertEquals(2000000, mPacer.getPacingRate(), 1);
+
+        measure(250000);
+        assertEquals(4000000, mPacer.getPacingRate(), 1);
+    }
+
+    /**
+     * 計測した送信レートを破棄した後は待たないこと.
+     */
+    @Test
+    public void reset() {
+        measure(125000);
+        mPacer.reset();
+
+        assertEquals(0, mPacer.getPacingRate());
+        for (int i = 0; i < 10; i++) {
+            assertFalse(mPacer.await(1250));
+        }
+    }
+
+    /**
+     * 係数に 1.0 未満を設定できないこと.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFactor() {
+        new UDPPacer().setPacingFactor(0.5f);
+    }
+
+    /**
+     * 1秒間に指定したバイト数を送信したことを通知して、送信レートを計測させます.
+     *
+     * @param bytes 1秒間に送信したバイト数
+     */
+    private void measure(int bytes) {
+        mPacer.onSent(bytes);
+        mClock.advance(TimeUnit.SECONDS.toNanos(1));
+        mPacer.onSent(0);
+    }
+
+    /**
+     * テストから時刻を進める時計.
+     *
+     * <p>
+     * 待機した場合は、待機した時間だけ時刻を進めます。
+     * </p>
+     */
+    private static class FakeClock implements UDPPacer.Clock {
+        /**
+         * 現在時刻(ナノ秒). UDPPacer は 0 を未計測として扱うので 0 以外から始める.
+         */
+        private long mNow = TimeUnit.SECONDS.toNanos(1);
+
+        /**
+         * 待機した時間(ナノ秒).
+         */
+        private final List<Long> mParks = new ArrayList<>();
+
+        @Override
+        public long nanoTime() {
+            return mNow;
+        }
+
+        @Override
+        public void parkNanos(long nanos) {
+            mParks.add(nanos);
+            mNow += nanos;
+        }
+
+        void advance(long nanos) {
+            mNow += nanos;
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package org.deviceconnect.android.libmedia.streaming.video;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AdaptiveBitRateController のテスト.
+ *
+ * <p>
+ * 帯域を制限したリンクをシミュレーションして、送信したパケットの損失率と往復遅延時間をレポートします。
+ * 実時間に依存しないように、時刻は 100 ミリ秒ずつ進めます。
+ * </p>
+ */
+public class AdaptiveBitRateControllerTest {
+    /**
+     * 最大ビットレート.
+     */
+    private static final int MAX_BIT_RATE = 8 * 1000 * 1000;
+
+    /**
+     * 最大フレームレート.
+     */
+    private static final int MAX_FRAME_RATE = 30;
+
+    /**
+     * シミュレーションの時間の刻み(ミリ秒).
+     */
+    private static final int TICK = 100;
+
+    /**
+     * レポートの間隔(ミリ秒).
+     */
+    private static final int REPORT_INTERVAL = 1000;
+
+    /**
+     * 帯域が足りない場合は、帯域に収まるビットレートに下がること.
+     * <pre>
+     * 【期待する動作】
+     * ・最初の 30 秒で帯域付近まで下がり、その後の 30 秒はビットレートが帯域の 0.5 〜 1.3 倍の範囲に収まること。
+     * ・その後の 30 秒のスループットが帯域の 0.6 倍以上、損失率が 5% 以下であること。
+     * </pre>
+     */
+    @Test
+    public void convergeToLinkCapacity() {
+        int capacity = 2 * 1000 * 1000;
+        Simulator simulator = new Simulator(capacity);
+        simulator.run(30 * 1000);
+        simulator.resetCounters();
+        simulator.run(30 * 1000);
+
+        String stats = "minBitRate=" + simulator.mMinBitRate + " maxBitRate=" + simulator.mMaxBitRate
+                + " throughput=" + simulator.getThroughput() + " loss=" + simulator.getLossRate();
+        assertTrue(stats, simulator.mMinBitRate >= capacity * 0.5);
+        assertTrue(stats, simulator.mMaxBitRate <= capacity * 1.3);
+        assertTrue(stats, simulator.getThroughput() >= capacity * 0.6);
+        assertTrue(stats, simulator.getLossRate() <= 0.05);
+    }
+
+    /**
+     * 帯域が広がった場合は、ビットレートとフレームレートが戻ること.
+     */
+    @Test
+    public void recoverWhenBandwidthIncreases() {
+        Simulator simulator = new Simulator(1000 * 1000);
+        simulator.run(40 * 1000);
+        assertEquals(MAX_FRAME_RATE / 2, simulator.mController.getFrameRate());
+        assertTrue(simulator.mController.getBitRate() <= 1300 * 1000);
+
+        simulator.mLink.mCapacity = 6 * 1000 * 1000;
+        simulator.run(60 * 1000);
+        assertEquals(MAX_FRAME_RATE, simulator.mController.getFrameRate());
+        assertTrue(simulator.mController.getBitRate() >= 4 * 1000 * 1000);
+        assertEquals(MAX_FRAME_RATE, simulator.mFrameRate);
+        assertEquals(simulator.mController.getBitRate(), simulator.mBitRate);
+    }
+
+    /**
+     * 帯域が足りている場合は、ビットレートを変更しないこと.
+     */
+    @Test
+    public void keepBitRateOnFastLink() {
+        Simulator simulator = new Simulator(10 * 1000 * 1000);
+        simulator.run(60 * 1000);
+
+        assertEquals(MAX_BIT_RATE, simulator.mController.getBitRate());
+        assertTrue(simulator.mBitRates.isEmpty());
+        assertEquals(0, simulator.getLossRate(), 0);
+    }
+
+    /**
+     * 損失率が閾値の間の場合は、ビットレートを変更しないこと.
+     */
+    @Test
+    public void holdBetweenThresholds() {
+        List<Integer> bitRates = new ArrayList<>();
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(MAX_BIT_RATE, MAX_FRAME_RATE,
+                new RecordingListener(bitRates));
+        controller.onReport(0.1f, 50, 0);
+        int bitRate = controller.getBitRate();
+        assertEquals(1, bitRates.size());
+
+        for (int i = 1; i <= 20; i++) {
+            controller.onReport(0.03f, 50, i * 1000L);
+        }
+        assertEquals(bitRate, controller.getBitRate());
+        assertEquals(1, bitRates.size());
+    }
+
+    /**
+     * ビットレートを下げた後は、一定時間下げないこと. 大きな損失の場合は直ちに下げること.
+     */
+    @Test
+    public void holdAfterDecrease() {
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(MAX_BIT_RATE, MAX_FRAME_RATE,
+                new RecordingListener(new ArrayList<>()));
+        controller.setDecreaseHoldTime(2000);
+
+        controller.onReport(0.1f, -1, 0);
+        int bitRate = controller.getBitRate();
+        assertEquals((int) (MAX_BIT_RATE * 0.95f), bitRate);
+
+        controller.onReport(0.1f, -1, 1000);
+        assertEquals(bitRate, controller.getBitRate());
+
+        controller.onReport(0.5f, -1, 1500);
+        assertEquals(bitRate / 2, controller.getBitRate());
+
+        controller.onReport(0.1f, -1, 3500);
+        assertTrue(controller.getBitRate() < bitRate / 2);
+    }
+
+    /**
+     * 往復遅延時間が増えた場合は、損失がなくてもビットレートを下げること.
+     */
+    @Test
+    public void decreaseOnDelay() {
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(MAX_BIT_RATE, MAX_FRAME_RATE,
+                new RecordingListener(new ArrayList<>()));
+        controller.onReport(0, 40, 0);
+        controller.onReport(0, 100, 1000);
+        assertEquals(MAX_BIT_RATE, controller.getBitRate());
+
+        controller.onReport(0, 40 + AdaptiveBitRateController.DEFAULT_RTT_THRESHOLD, 2000);
+        assertTrue(controller.getBitRate() < MAX_BIT_RATE);
+    }
+
+    /**
+     * 損失がある間はキーフレームの間隔を短くして、損失がなくなった場合は元に戻すこと.
+     */
+    @Test
+    public void shortenIFrameIntervalWhileLossy() {
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(MAX_BIT_RATE, MAX_FRAME_RATE,
+                new RecordingListener(new ArrayList<>()));
+        assertEquals(0, controller.getIFrameInterval());
+
+        controller.onReport(0.02f, -1, 0);
+        assertEquals(1, controller.getIFrameInterval());
+
+        controller.onReport(0, -1, 1000);
+        assertEquals(1, controller.getIFrameInterval());
+        controller.onReport(0, -1, 2000);
+        assertEquals(0, controller.getIFrameInterval());
+    }
+
+    /**
+     * 往復遅延時間の最小値が異なる複数の送信先からレポートを受信する.
+     * <pre>
+     * 【期待する動作】
+     * ・各送信先の往復遅延時間が最小値のままの場合は、ビットレートを下げないこと。
+     * ・1つの送信先の往復遅延時間がその送信先の最小値から閾値以上増えた場合は、ビットレートを下げること。
+     * ・遅延している送信先を削除した後は、ビットレートを下げないこと。
+     * </pre>
+     */
+    @Test
+    public void decreaseOnDelayPerReceiver() {
+        Object near = new Object();
+        Object far = new Object();
+        long threshold = AdaptiveBitRateController.DEFAULT_RTT_THRESHOLD;
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(MAX_BIT_RATE, MAX_FRAME_RATE,
+                new RecordingListener(new ArrayList<>()));
+        controller.setDecreaseHoldTime(0);
+
+        for (int i = 0; i < 5; i++) {
+            controller.onReport(near, 0, 20, i * 1000L);
+            controller.onReport(far, 0, 20 + threshold * 2, i * 1000L + 500);
+        }
+        assertEquals(MAX_BIT_RATE, controller.getBitRate());
+
+        controller.onReport(far, 0, 20 + threshold * 3, 5500);
+        int bitRate = controller.getBitRate();
+        assertTrue(bitRate < MAX_BIT_RATE);
+
+        // 遅延が解消していない送信先があれば、他の送信先のレポートでも下げる
+        controller.onReport(near, 0, 20, 6000);
+        assertTrue(controller.getBitRate() < bitRate);
+        bitRate = controller.getBitRate();
+
+        controller.removeReceiver(far);
+        controller.onReport(near, 0, 20, 7000);
+        assertTrue(controller.getBitRate() >= bitRate);
+    }
+
+    /**
+     * 変更されたビットレートを記録するリスナー.
+     */
+    private static class RecordingListener implements AdaptiveBitRateController.Listener {
+        private final List<Integer> mBitRates;
+
+        RecordingListener(List<Integer> bitRates) {
+            mBitRates = bitRates;
+        }
+
+        @Override
+        public void onBitRateChanged(int bitRate) {
+            mBitRates.add(bitRate);
+        }
+
+        @Override
+        public void onFrameRateChanged(int frameRate) {
+        }
+
+        @Override
+        public void onIFrameIntervalChanged(int interval) {
+        }
+    }
+
+    /**
+     * 帯域を制限したリンク.
+     *
+     * <p>
+     * 指定された帯域でパケットを送り出すキューで、キューが溢れたパケットは破棄します。
+     * 往復遅延時間は、基本の遅延にキューで待つ時間を加えたものになります。
+     * </p>
+     */
+    private static class LinkShaper {
+        /**
+         * パケットのサイズ(バイト).
+         */
+        private static final int PACKET_SIZE = 1200;
+
+        /**
+         * キューで待つことができる最大の時間(ミリ秒).
+         */
+        private static final int MAX_QUEUE_DELAY = 300;
+
+        /**
+         * 基本の往復遅延時間(ミリ秒).
+         */
+        private static final int BASE_RTT = 40;
+
+        /**
+         * リンクの帯域(bps).
+         */
+        int mCapacity;
+
+        /**
+         * キューに溜まっているデータサイズ(バイト).
+         */
+        private double mQueued;
+
+        /**
+         * 送り出すことができなかったデータサイズの端数(バイト).
+         */
+        private double mPending;
+
+        long mSentPackets;
+        long mLostPackets;
+        long mDeliveredBytes;
+
+        LinkShaper(int capacity) {
+            mCapacity = capacity;
+        }
+
+        /**
+         * 指定された時間だけデータを送信します.
+         *
+         * @param bitRate 送信するビットレート
+         * @param elapsed 経過時間(ミリ秒)
+         */
+        void send(int bitRate, int elapsed) {
+            mPending += bitRate / 8.0 * elapsed / 1000;
+            double limit = mCapacity / 8.0 * MAX_QUEUE_DELAY / 1000;
+            while (mPending >= PACKET_SIZE) {
+                mPending -= PACKET_SIZE;
+                mSentPackets++;
+                if (mQueued + PACKET_SIZE > limit) {
+                    mLostPackets++;
+                } else {
+                    mQueued += PACKET_SIZE;
+                }
+            }
+
+            double drained = Math.min(mQueued, mCapacity / 8.0 * elapsed / 1000);
+            mQueued -= drained;
+            mDeliveredBytes += (long) drained;
+        }
+
+        /**
+         * 往復遅延時間を取得します.
+         *
+         * @return 往復遅延時間(ミリ秒)
+         */
+        long getRoundTripTime() {
+            return BASE_RTT + (long) (mQueued * 8 * 1000 / mCapacity);
+        }
+    }
+
+    /**
+     * コントローラで調整したビットレートで、帯域を制限したリンクに送信するシミュレータ.
+     */
+    private static class Simulator implements AdaptiveBitRateController.Listener {
+        final LinkShaper mLink;
+        final AdaptiveBitRateController mController;
+        final List<Integer> mBitRates = new ArrayList<>();
+        int mBitRate = MAX_BIT_RATE;
+        int mFrameRate = MAX_FRAME_RATE;
+
+        /**
+         * {@link #resetCounters()} を呼び出してからのビットレートの最小値と最大値.
+         */
+        int mMinBitRate = MAX_BIT_RATE;
+        int mMaxBitRate = MAX_BIT_RATE;
+
+        private long mTime;
+        private long mReportSent;
+        private long mReportLost;
+        private long mStartTime;
+        private long mStartSent;
+        private long mStartLost;
+        private long mStartDelivered;
+
+        Simulator(int capacity) {
+            mLink = new LinkShaper(capacity);
+            mController = new AdaptiveBitRateController(MAX_BIT_RATE, MAX_FRAME_RATE, this);
+        }
+
+        /**
+         * 指定された時間だけシミュレーションを行います.
+         *
+         * @param duration シミュレーションする時間(ミリ秒)
+         */
+        void run(long duration) {
+            long end = mTime + duration;
+            while (mTime < end) {
+                mLink.send(mBitRate, TICK);
+                mTime += TICK;
+
+                if (mTime % REPORT_INTERVAL == 0) {
+                    long sent = mLink.mSentPackets - mReportSent;
+                    long lost = mLink.mLostPackets - mReportLost;
+                    mReportSent = mLink.mSentPackets;
+                    mReportLost = mLink.mLostPackets;
+                    float fractionLost = sent > 0 ? (float) lost / sent : 0;
+                    mController.onReport(fractionLost, mLink.getRoundTripTime(), mTime);
+                }
+            }
+        }
+
+        void resetCounters() {
+            mMinBitRate = mBitRate;
+            mMaxBitRate = mBitRate;
+            mStartTime = mTime;
+            mStartSent = mLink.mSentPackets;
+            mStartLost = mLink.mLostPackets;
+            mStartDelivered = mLink.mDeliveredBytes;
+        }
+
+        /**
+         * リンクを通過したデータのビットレートを取得します.
+         *
+         * @return ビットレート
+         */
+        long getThroughput() {
+            return (mLink.mDeliveredBytes - mStartDelivered) * 8 * 1000 / (mTime - mStartTime);
+        }
+
+        /**
+         * 損失率を取得します.
+         *
+         * @return 損失率
+         */
+        double getLossRate() {
+            long sent = mLink.mSentPackets - mStartSent;
+            return sent > 0 ? (double) (mLink.mLostPackets - mStartLost) / sent : 0;
+        }
+
+        @Override
+        public void onBitRateChanged(int bitRate) {
+            mBitRate = bitRate;
+            mBitRates.add(bitRate);
+            mMinBitRate = Math.min(mMinBitRate, bitRate);
+            mMaxBitRate = Math.max(mMaxBitRate, bitRate);
+        }
+
+        @Override
+        public void onFrameRateChanged(int frameRate) {
+            mFrameRate = frameRate;
+        }
+
+        @Override
+        public void onIFrameIntervalChanged(int interval) {
+        }
+    }
+}
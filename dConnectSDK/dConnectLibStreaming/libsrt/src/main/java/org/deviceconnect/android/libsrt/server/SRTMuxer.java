@@ -1,26 +1,116 @@
 package org.deviceconnect.android.libsrt.server;
 
+import android.util.Log;
+
+import org.deviceconnect.android.libmedia.streaming.util.GopCache;
+import org.deviceconnect.android.libsrt.BuildConfig;
 import org.deviceconnect.android.libsrt.SRTSocket;
 import org.deviceconnect.android.libsrt.util.Mpeg2TsMuxer;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class SRTMuxer extends Mpeg2TsMuxer {
+    /**
+     * デバッグフラグ.
+     */
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+
+    /**
+     * デバッグ用タグ.
+     */
+    private static final String TAG = "SRT-MUXER";
+
+    /**
+     * GOP のキャッシュを送信している間に保持する最大ペイロード数.
+     *
+     * <p>
+     * 1ペイロードは TS パケット 7 個 (1316 バイト) なので、約 2.7MB になります。
+     * </p>
+     */
+    private static final int MAX_BACKLOG_COUNT = 2048;
+
     /**
      * 送信先のソケットのリスト.
      */
     private final List<SRTSocket> mSRTSocketList = new ArrayList<>();
 
+    /**
+     * GOP の先頭を待っているソケットと追加された時間を管理.
+     *
+     * <p>
+     * GOP の途中のデータは復号できないので、GOP の先頭が来るまで送信しません。
+     * </p>
+     */
+    private final Map<SRTSocket, Long> mWaitingSockets = new HashMap<>();
+
+    /**
+     * GOP のキャッシュを送信している途中のソケットと、送信している間に作成されたペイロードを管理.
+     *
+     * <p>
+     * キャッシュの送信が終わるまでは、ライブのペイロードを送信せずに保持します。
+     * </p>
+     */
+    private final Map<SRTSocket, Backlog> mBacklogs = new HashMap<>();
+
+    /**
+     * 最後に追加されたソケットに GOP の先頭を送信するまでにかかった時間(ミリ秒).
+     */
+    private volatile long mTimeToFirstFrame = -1;
+
+    /**
+     * コンストラクタ.
+     *
+     * <p>
+     * 途中から接続したクライアントがすぐに再生を開始できるように、GOP のキャッシュを有効にします。
+     * </p>
+     */
+    public SRTMuxer() {
+        setGopCacheEnabled(true);
+    }
+
     /**
      * 送信先のソケットを追加します.
      *
+     * <p>
+     * GOP のキャッシュがある場合には、キャッシュを送信してから、送信している間のペイロードを続けて送信します。
+     * キャッシュの送信はこのメソッドを呼び出したスレッドで行い、ライブのペイロードの送信は止めません。
+     * 映像のトラックがない場合には、GOP の先頭を待たずに送信を開始します。
+     * </p>
+     *
      * @param socket 追加するソケット
      */
     public void addSRTClientSocket(SRTSocket socket) {
-        synchronized (mSRTSocketList) {
-            mSRTSocketList.add(socket);
+        long joinTime = System.currentTimeMillis();
+        List<byte[]> gop = new ArrayList<>();
+
+        // キャッシュのコピーと送信先の追加を同期して、コピーした後のペイロードを漏れなく保持する
+        GopCache gopCache = getGopCache();
+        synchronized (gopCache) {
+            try {
+                gopCache.replay((data, length, pts) -> gop.add(Arrays.copyOf(data, length)));
+            } catch (IOException e) {
+                // コピーするだけなので発生しない
+            }
+
+            synchronized (mSRTSocketList) {
+                mSRTSocketList.add(socket);
+                if (!gop.isEmpty()) {
+                    mBacklogs.put(socket, new Backlog());
+                } else if (!hasVideoTrack()) {
+                    onFirstFrame(joinTime);
+                } else {
+                    mWaitingSockets.put(socket, joinTime);
+                }
+            }
+        }
+
+        if (!gop.isEmpty()) {
+            replay(socket, gop, joinTime);
         }
     }
 
@@ -32,6 +122,32 @@ public class SRTMuxer extends Mpeg2TsMuxer {
     public void removeSRTClientSocket(SRTSocket socket) {
         synchronized (mSRTSocketList) {
             mSRTSocketList.remove(socket);
+            mWaitingSockets.remove(socket);
+            mBacklogs.remove(socket);
+        }
+    }
+
+    /**
+     * 最後に追加されたソケットに最初のフレームを送信するまでにかかった時間を取得します.
+     *
+     * <p>
+     * GOP のキャッシュがある場合にはキャッシュを送信した時間、
+     * ない場合には次の GOP の先頭を送信した時間になります。
+     * </p>
+     *
+     * @return 最初のフレームを送信するまでの時間(ミリ秒)、計測していない場合は -1
+     */
+    public long getTimeToFirstFrame() {
+        return mTimeToFirstFrame;
+    }
+
+    @Override
+    protected void onGopStarted() {
+        synchronized (mSRTSocketList) {
+            for (Long joinTime : mWaitingSockets.values()) {
+                onFirstFrame(joinTime);
+            }
+            mWaitingSockets.clear();
         }
     }
 
@@ -39,6 +155,16 @@ public class SRTMuxer extends Mpeg2TsMuxer {
     public void sendPacket(byte[] data, int offset, int length) {
         synchronized (mSRTSocketList) {
             for (SRTSocket socket : mSRTSocketList) {
+                if (!mWaitingSockets.isEmpty() && mWaitingSockets.containsKey(socket)) {
+                    continue;
+                }
+                if (!mBacklogs.isEmpty()) {
+                    Backlog backlog = mBacklogs.get(socket);
+                    if (backlog != null) {
+                        backlog.add(data, offset, length);
+                        continue;
+                    }
+                }
                 try {
                     socket.send(data, offset, length);
                 } catch (IOException e) {
@@ -47,4 +173,99 @@ public class SRTMuxer extends Mpeg2TsMuxer {
             }
         }
     }
+
+    /**
+     * GOP のキャッシュと、送信している間に保持したペイロードを送信します.
+     *
+     * <p>
+     * 保持したペイロードがなくなった時点で、以降のペイロードは {@link #sendPacket(byte[], int, int)} で送信します。
+     * 保持できる数を超えた場合は途中のペイロードが欠けるので、次の GOP の先頭を待ちます。
+     * </p>
+     *
+     * @param socket 送信先のソケット
+     * @param payloads GOP のキャッシュのペイロード
+     * @param joinTime ソケットが追加された時間
+     */
+    private void replay(SRTSocket socket, List<byte[]> payloads, long joinTime) {
+        while (true) {
+            try {
+                for (byte[] payload : payloads) {
+                    socket.send(payload, 0, payload.length);
+                }
+            } catch (IOException e) {
+                removeSRTClientSocket(socket);
+                socket.close();
+                return;
+            }
+
+            synchronized (mSRTSocketList) {
+                Backlog backlog = mBacklogs.get(socket);
+                if (backlog == null) {
+                    return;
+                }
+                if (backlog.mOverflow) {
+                    if (DEBUG) {
+                        Log.w(TAG, "Backlog overflowed while replaying GOP.");
+                    }
+                    mBacklogs.remove(socket);
+                    mWaitingSockets.put(socket, joinTime);
+                    return;
+                }
+                if (backlog.mPayloads.isEmpty()) {
+                    mBacklogs.remove(socket);
+                    onFirstFrame(joinTime);
+                    return;
+                }
+                payloads = backlog.mPayloads;
+                backlog.mPayloads = new ArrayList<>();
+            }
+        }
+    }
+
+    /**
+     * ソケットに最初のフレームを送信する時に呼び出して、送信までにかかった時間を計測します.
+     *
+     * @param joinTime ソケットが追加された時間
+     */
+    private void onFirstFrame(long joinTime) {
+        mTimeToFirstFrame = System.currentTimeMillis() - joinTime;
+
+        if (DEBUG) {
+            Log.d(TAG, "Time to first frame: " + mTimeToFirstFrame + "ms");
+        }
+    }
+
+    /**
+     * GOP のキャッシュを送信している間に作成されたペイロード.
+     */
+    private static class Backlog {
+        /**
+         * 保持しているペイロード.
+         */
+        private List<byte[]> mPayloads = new ArrayList<>();
+
+        /**
+         * 保持できる数を超えた場合は true.
+         */
+        private boolean mOverflow;
+
+        /**
+         * ペイロードのコピーを追加します.
+         *
+         * @param data ペイロード
+         * @param offset ペイロードの開始位置
+         * @param length ペイロードのサイズ
+         */
+        void add(byte[] data, int offset, int length) {
+            if (mOverflow) {
+                return;
+            }
+            if (mPayloads.size() >= MAX_BACKLOG_COUNT) {
+                mOverflow = true;
+                mPayloads.clear();
+                return;
+            }
+            mPayloads.add(Arrays.copyOfRange(data, offset, offset + length));
+        }
+    }
 }
@@ -100,6 +100,11 @@ public class SRTServer {
      */
     private boolean mShowStats;
 
+    /**
+     * ビットレートの自動調整の有効フラグ.
+     */
+    private boolean mAdaptiveBitRateEnabled;
+
     /**
      * SRTサーバに設定するポート番号.
      */
@@ -170,6 +175,31 @@ public class SRTServer {
         mStatsInterval = interval;
     }
 
+    /**
+     * ビットレートの自動調整の有効・無効を設定します.
+     *
+     * <p>
+     * 有効にした場合は、{@link #setStatsInterval(long)} の間隔で取得した SRT の統計情報の
+     * 損失率と往復遅延時間から、映像のエンコーダのビットレート、フレームレート、キーフレームの間隔を調整します。
+     * デフォルトは無効です。
+     * </p>
+     *
+     * @param enabled 有効にする場合はtrue、それ以外はfalse
+     * @see org.deviceconnect.android.libmedia.streaming.video.AdaptiveBitRateController
+     */
+    public synchronized void setAdaptiveBitRateEnabled(boolean enabled) {
+        mAdaptiveBitRateEnabled = enabled;
+
+        // 既にサーバが開始されている場合は、タイマーの設定を行います。
+        if (mServerStarted) {
+            if (usesStats()) {
+                startStatsTimer();
+            } else {
+                stopStatsTimer();
+            }
+        }
+    }
+
     /**
      * 同時接続可能なクライアントの上限を設定します.
      *
@@ -315,7 +345,7 @@ public class SRTServer {
      * @return 統計情報を使用する場合にはtrue、それ以外はfalse
      */
     private boolean usesStats() {
-        return mStatsListener != null || mShowStats;
+        return mStatsListener != null || mShowStats || mAdaptiveBitRateEnabled;
     }
 
     /**
@@ -406,6 +436,11 @@ public class SRTServer {
                                 Log.d(TAG, "stats: " + stats);
                             }
                             notifyStats(thread.mClientSocket, stats);
+
+                            SRTSession session = mSRTSession;
+                            if (mAdaptiveBitRateEnabled && session != null) {
+                                session.onStats(thread.mClientSocket, stats);
+                            }
                         }
                     }
                 }
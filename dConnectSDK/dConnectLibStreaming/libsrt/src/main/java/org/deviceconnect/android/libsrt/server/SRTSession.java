@@ -2,11 +2,16 @@ package org.deviceconnect.android.libsrt.server;
 
 import org.deviceconnect.android.libmedia.streaming.MediaStreamer;
 import org.deviceconnect.android.libmedia.streaming.audio.AudioEncoder;
+import org.deviceconnect.android.libmedia.streaming.video.AdaptiveBitRateController;
 import org.deviceconnect.android.libmedia.streaming.video.VideoEncoder;
 import org.deviceconnect.android.libsrt.BuildConfig;
 import org.deviceconnect.android.libsrt.SRTSocket;
+import org.deviceconnect.android.libsrt.SRTStats;
 import org.deviceconnect.android.libsrt.util.Mpeg2TsMuxer;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class SRTSession {
     /**
      * ストリーミングを行うためのクラス.
@@ -23,6 +28,16 @@ public class SRTSession {
      */
     private OnEventListener mOnEventListener;
 
+    /**
+     * 統計情報からエンコーダのビットレートを調整するクラス.
+     */
+    private AdaptiveBitRateController mBitRateController;
+
+    /**
+     * ソケットごとの前回の統計情報の送信パケット数と損失パケット数.
+     */
+    private final Map<SRTSocket, long[]> mPrevStats = new HashMap<>();
+
     /**
      * コンストラクタ.
      * <p>
@@ -126,6 +141,61 @@ public class SRTSession {
      */
     public void removeSRTClientSocket(SRTSocket socket) {
         mSRTMuxer.removeSRTClientSocket(socket);
+        synchronized (mPrevStats) {
+            mPrevStats.remove(socket);
+        }
+        synchronized (this) {
+            if (mBitRateController != null) {
+                mBitRateController.removeReceiver(socket);
+            }
+        }
+    }
+
+    /**
+     * SRT の統計情報をビットレートの調整に反映します.
+     *
+     * <p>
+     * 統計情報は開始からの合計値なので、前回の統計情報との差分から損失率を計算します。
+     * </p>
+     *
+     * @param socket 統計情報を取得したソケット
+     * @param stats 統計情報
+     */
+    void onStats(SRTSocket socket, SRTStats stats) {
+        float fractionLost;
+        synchronized (mPrevStats) {
+            long[] prev = mPrevStats.get(socket);
+            if (prev == null) {
+                prev = new long[2];
+                mPrevStats.put(socket, prev);
+            }
+            long sent = stats.pktSentTotal() - prev[0];
+            long lost = stats.pktSndLossTotal() - prev[1];
+            prev[0] = stats.pktSentTotal();
+            prev[1] = stats.pktSndLossTotal();
+            fractionLost = sent > 0 && lost > 0 ? Math.min(1.0f, (float) lost / sent) : 0;
+        }
+
+        synchronized (this) {
+            if (mBitRateController == null) {
+                VideoEncoder videoEncoder = mMediaStreamer.getVideoEncoder();
+                if (videoEncoder == null) {
+                    return;
+                }
+                mBitRateController = AdaptiveBitRateController.create(videoEncoder);
+            }
+            mBitRateController.onReport(socket, fractionLost, (long) stats.msRTT(), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 途中から接続したクライアントに最初のフレームを送信するまでにかかった時間を取得します.
+     *
+     * @return 最初のフレームを送信するまでの時間(ミリ秒)、計測していない場合は -1
+     * @see SRTMuxer#getTimeToFirstFrame()
+     */
+    public long getTimeToFirstFrame() {
+        return mSRTMuxer.getTimeToFirstFrame();
     }
 
     /**
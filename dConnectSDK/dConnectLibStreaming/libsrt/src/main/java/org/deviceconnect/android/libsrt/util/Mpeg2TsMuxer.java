@@ -10,6 +10,7 @@ import org.deviceconnect.android.libmedia.streaming.audio.AudioQuality;
 import org.deviceconnect.android.libmedia.streaming.mpeg2ts.AacH264TsPacketWriter;
 import org.deviceconnect.android.libmedia.streaming.mpeg2ts.AacH265TsPacketWriter;
 import org.deviceconnect.android.libmedia.streaming.mpeg2ts.AacH26xTsPacketWriter;
+import org.deviceconnect.android.libmedia.streaming.util.GopCache;
 import org.deviceconnect.android.libmedia.streaming.video.VideoQuality;
 
 import java.nio.ByteBuffer;
@@ -98,9 +99,12 @@ public abstract class Mpeg2TsMuxer implements IMediaMuxer {
     private final byte[] mPayload = new byte[PAYLOAD_SIZE];
 
     /**
-     * SRT パケットのペイロード位置.
+     * SRT パケットのペイロードをラップしたバッファ.
+     * <p>
+     * TS パケットはこのバッファに直接書き込まれます。
+     * </p>
      */
-    private int mPayloadPosition;
+    private final ByteBuffer mPayloadBuffer = ByteBuffer.wrap(mPayload);
 
     /**
      * エンコードを開始したプレゼンテーションタイム.
@@ -108,29 +112,98 @@ public abstract class Mpeg2TsMuxer implements IMediaMuxer {
     private long mPresentationTime;
 
     /**
-     * TS パケットに変換されたデータを受信するリスナー.
+     * 途中から接続したクライアントに送信する GOP のキャッシュ.
+     *
+     * <p>
+     * TS パケットをまとめたペイロード単位で保持します。
+     * </p>
+     */
+    private final GopCache mGopCache = new GopCache();
+
+    /**
+     * 次に送信するペイロードが GOP の先頭の場合は true.
      */
-    private final AacH26xTsPacketWriter.PacketListener mPacketListener = (packet) -> {
+    private boolean mGopStart;
+
+    /**
+     * 映像のトラックがある場合は true.
+     */
+    private volatile boolean mHasVideoTrack;
+
+    /**
+     * TS パケットを書き込んだペイロードを受信するリスナー.
+     */
+    private final AacH26xTsPacketWriter.BufferListener mBufferListener = (buffer) -> {
         try {
-            if (packet == null) {
-                if (mPayloadPosition > 0) {
-                    sendPacket(mPayload, 0, mPayloadPosition);
-                }
-                mPayloadPosition = 0;
-            } else {
-                System.arraycopy(packet, 0, mPayload, mPayloadPosition, TS_PACKET_SIZE);
-                mPayloadPosition += TS_PACKET_SIZE;
-
-                if (mPayloadPosition == PAYLOAD_SIZE) {
-                    mPayloadPosition = 0;
-                    sendPacket(mPayload);
-                }
-            }
+            sendPayload(buffer.limit());
         } catch (Exception e) {
             Log.e(TAG, "Failed to send packet", e);
         }
     };
 
+    /**
+     * コンストラクタ.
+     *
+     * <p>
+     * GOP のキャッシュは無効になっています。
+     * </p>
+     */
+    public Mpeg2TsMuxer() {
+        mGopCache.setEnabled(false);
+    }
+
+    /**
+     * GOP のキャッシュの有効・無効を設定します.
+     *
+     * <p>
+     * 有効にした場合は、最後のキーフレームからのペイロードを保持します。
+     * </p>
+     *
+     * @param enabled 有効にする場合はtrue、それ以外はfalse
+     */
+    public void setGopCacheEnabled(boolean enabled) {
+        mGopCache.setEnabled(enabled);
+    }
+
+    /**
+     * GOP のキャッシュを取得します.
+     *
+     * <p>
+     * {@link #sendPacket(byte[], int, int)} と {@link #onGopStarted()} は、
+     * GopCache で同期した状態で呼び出されます。送信先の追加とキャッシュの取得を
+     * 同時に行う場合には、GopCache で同期してください。
+     * 同期している間はペイロードの作成が止まるので、キャッシュの送信は同期の外で行ってください。
+     * </p>
+     *
+     * @return GOP のキャッシュ
+     */
+    protected GopCache getGopCache() {
+        return mGopCache;
+    }
+
+    /**
+     * 映像のトラックがあるか確認します.
+     *
+     * <p>
+     * 映像のトラックがない場合は GOP が始まらないので、どのペイロードからでも復号できます。
+     * </p>
+     *
+     * @return 映像のトラックがある場合はtrue、それ以外はfalse
+     */
+    protected boolean hasVideoTrack() {
+        return mHasVideoTrack;
+    }
+
+    /**
+     * GOP の先頭のペイロードを送信する前に呼び出されます.
+     *
+     * <p>
+     * 途中から接続したクライアントに、ここから送信を開始することでキーフレームから復号できます。
+     * </p>
+     */
+    protected void onGopStarted() {
+    }
+
     @Override
     public boolean onPrepare(VideoQuality videoQuality, AudioQuality audioQuality) {
         float sampleRate = 0;
@@ -159,9 +232,11 @@ public abstract class Mpeg2TsMuxer implements IMediaMuxer {
             mTsWriter = new AacH264TsPacketWriter();
         }
         mTsWriter.initialize(sampleRate, sampleSizeInBits, channels, fps);
-        mTsWriter.setPacketListener(mPacketListener);
+        mTsWriter.setBufferListener(mPayloadBuffer, mBufferListener);
         mPresentationTime = 0;
-        mPayloadPosition = 0;
+        mGopStart = false;
+        mHasVideoTrack = videoQuality != null;
+        mGopCache.clear();
         return true;
     }
 
@@ -177,9 +252,15 @@ public abstract class Mpeg2TsMuxer implements IMediaMuxer {
         if (isConfigFrame(bufferInfo)) {
             storeConfig(encodedData, bufferInfo);
         } else {
-            if (isKeyFrame(bufferInfo) && mConfigBuffer.limit() > 0) {
-                mConfigBuffer.position(0);
-                mTsWriter.writeNALU(mConfigBuffer, getPts(bufferInfo));
+            if (isKeyFrame(bufferInfo)) {
+                // PES の最後でペイロードは送信済みなので、GOP の先頭からペイロードを始めて、PAT、PMT、SPS、PPS を含める
+                mGopStart = true;
+                mTsWriter.requestPatPmt();
+
+                if (mConfigBuffer != null && mConfigBuffer.limit() > 0) {
+                    mConfigBuffer.position(0);
+                    mTsWriter.writeNALU(mConfigBuffer, getPts(bufferInfo));
+                }
             }
             mTsWriter.writeNALU(encodedData, getPts(bufferInfo));
         }
@@ -215,6 +296,7 @@ public abstract class Mpeg2TsMuxer implements IMediaMuxer {
 
     @Override
     public void onReleased() {
+        mGopCache.clear();
     }
 
     /**
@@ -322,6 +404,23 @@ public abstract class Mpeg2TsMuxer implements IMediaMuxer {
         mConfigBuffer.flip();
     }
 
+    /**
+     * ペイロードを GOP のキャッシュに追加して、各ソケットに送信します.
+     *
+     * @param length ペイロードのサイズ
+     */
+    private void sendPayload(int length) {
+        synchronized (mGopCache) {
+            boolean gopStart = mGopStart;
+            mGopStart = false;
+            if (gopStart) {
+                onGopStarted();
+            }
+            mGopCache.add(mPayload, 0, length, 0, gopStart);
+            sendPacket(mPayload, 0, length);
+        }
+    }
+
     /**
      * 各ソケットにデータを送信します.
      *
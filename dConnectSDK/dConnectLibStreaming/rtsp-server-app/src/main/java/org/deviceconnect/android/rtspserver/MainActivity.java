@@ -243,6 +243,7 @@ public class MainActivity extends AppCompatActivity {
                     videoStream = new CameraH264VideoStream(mCameraSurfaceDrawingThread);
                 }
                 videoStream.setDestinationPort(5006);
+                videoStream.setAdaptiveBitRateEnabled(true);
                 if (mStreamingRecorder != null) {
                     mCameraSurfaceDrawingThread.addEGLSurfaceBase(mStreamingRecorder.getSurface());
                 }
@@ -242,6 +242,7 @@ public class MainActivity extends AppCompatActivity {
 
             mSRTServer = new SRTServer(12345);
             mSRTServer.setSocketOptions(socketOptions);
+            mSRTServer.setAdaptiveBitRateEnabled(true);
             if (DEBUG) {
                 mSRTServer.setStatsListener((SRTSocket client, SRTStats stats)
                         -> Log.d(TAG, "stats: " + stats));